@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the fixtures that the benchmarks share. The stream schemas come from
+ * the seed data in db/, so the benchmarks validate against the same
+ * definitions that a new server has, and the campaign and survey response
+ * come from benchmark/fixtures. The paths are relative to the directory
+ * given by the {@value #PROPERTY_HOME} system property, which the
+ * "benchmark" Ant target sets to the project's directory.
+ * 
+ * @author John Jenkins
+ */
+public final class Fixtures {
+	/**
+	 * The system property with the project's directory. If it is not set,
+	 * the current directory is used.
+	 */
+	public static final String PROPERTY_HOME = "ohmage.home";
+	
+	private static final String PATH_CAMPAIGN = 
+		"benchmark/fixtures/campaign.xml";
+	private static final String PATH_SURVEY_RESPONSE = 
+		"benchmark/fixtures/survey_response.json";
+	private static final String PATH_OBSERVERS = 
+		"db/sql/settings/default_observers.sql";
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private Fixtures() {}
+	
+	/**
+	 * Returns the XML of a campaign with two surveys that use most of the
+	 * prompt types, conditions, a message, and a repeatable set.
+	 * 
+	 * @return The campaign's XML.
+	 * 
+	 * @throws IOException The fixture could not be read.
+	 */
+	public static String getCampaignXml() throws IOException {
+		return read(PATH_CAMPAIGN);
+	}
+	
+	/**
+	 * Returns an upload of a survey response to the "morning" survey of the
+	 * {@link #getCampaignXml() campaign}.
+	 * 
+	 * @return The survey response as a JSON string.
+	 * 
+	 * @throws IOException The fixture could not be read.
+	 */
+	public static String getSurveyResponseJson() throws IOException {
+		return read(PATH_SURVEY_RESPONSE);
+	}
+	
+	/**
+	 * Returns the schema of one of the default observers' streams as it is
+	 * inserted by the seed data.
+	 * 
+	 * @param streamVariable The name of the SQL variable that holds the
+	 * 						 stream's ID without its leading "@" and trailing
+	 * 						 "_stream_id", e.g. "mobility_extended".
+	 * 
+	 * @return The stream's schema.
+	 * 
+	 * @throws IOException The seed data could not be read or does not have
+	 * 					   the stream.
+	 */
+	public static String getStreamSchema(
+			final String streamVariable)
+			throws IOException {
+		
+		// Each stream's row starts with its ID variable and ends with its
+		// schema as a string literal on its own line.
+		Matcher matcher = 
+			Pattern
+				.compile(
+					"@" + Pattern.quote(streamVariable) + "_stream_id,.*?" +
+						"\\n\\s*'(\\{.*?\\})'\\s*\\n",
+					Pattern.DOTALL)
+				.matcher(read(PATH_OBSERVERS));
+		if(! matcher.find()) {
+			throw new IOException(
+				"The stream is not in the seed data: " + streamVariable);
+		}
+		
+		return matcher.group(1).replace("\\'", "'").replace("\\\\", "\\");
+	}
+	
+	/**
+	 * Builds the sensor data of an extended Mobility point the way the
+	 * Mobility client uploads it, with a minute of accelerometer samples and
+	 * a WiFi scan.
+	 * 
+	 * @param numSamples The number of accelerometer samples.
+	 * 
+	 * @param numAccessPoints The number of access points in the WiFi scan.
+	 * 
+	 * @return The sensor data as a JSON string.
+	 */
+	public static String getMobilitySensorData(
+			final int numSamples,
+			final int numAccessPoints) {
+		
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"mode\":\"walk\",\"speed\":1.25,");
+		builder.append("\"accel_data\":[");
+		for(int i = 0; i < numSamples; i++) {
+			if(i > 0) {
+				builder.append(',');
+			}
+			builder
+				.append("{\"x\":").append(Math.sin(i) * 2)
+				.append(",\"y\":").append(Math.cos(i) * 3)
+				.append(",\"z\":").append(9.81 + (Math.sin(i * 0.5)))
+				.append('}');
+		}
+		builder.append("],\"wifi_data\":{");
+		builder.append("\"time\":1330000000000,");
+		builder.append("\"timezone\":\"America/Los_Angeles\",");
+		builder.append("\"scan\":[");
+		for(int i = 0; i < numAccessPoints; i++) {
+			if(i > 0) {
+				builder.append(',');
+			}
+			builder
+				.append("{\"ssid\":\"00:1b:2f:3c:4d:")
+				.append(10 + i)
+				.append("\",\"strength\":")
+				.append(-40 - (i * 3))
+				.append('}');
+		}
+		builder.append("]}}");
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Reads a file relative to the project's directory.
+	 * 
+	 * @param path The file's path.
+	 * 
+	 * @return The file's contents.
+	 * 
+	 * @throws IOException The file could not be read.
+	 */
+	private static String read(final String path) throws IOException {
+		File file = 
+			new File(System.getProperty(PROPERTY_HOME, "."), path);
+		
+		return new String(Files.readAllBytes(file.toPath()), UTF_8);
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures looking up authentication tokens in the {@link UserBin}, which is
+ * done for every request that is authenticated by a token. The bin is
+ * synchronized, so the lookups are measured from many threads at once, both
+ * alone and while other threads are logging users in and out.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserBinBenchmark {
+	/**
+	 * The number of users that are logged in.
+	 */
+	private static final int NUM_USERS = 1000;
+	
+	private String[] tokens;
+	
+	/**
+	 * Logs in the users.
+	 * 
+	 * @throws DomainException A user could not be added.
+	 */
+	@Setup
+	public void setup() throws DomainException {
+		tokens = new String[NUM_USERS];
+		for(int i = 0; i < NUM_USERS; i++) {
+			tokens[i] = 
+				UserBin.addUser(
+					new User("benchmark.user" + i, "password", false));
+		}
+	}
+	
+	/**
+	 * Logs out the users.
+	 */
+	@TearDown
+	public void tearDown() {
+		for(String token : tokens) {
+			UserBin.expireUser(token);
+		}
+	}
+	
+	/**
+	 * Looks up a random user's token.
+	 * 
+	 * @return The user.
+	 */
+	@Benchmark
+	@Threads(8)
+	public User getUser() {
+		return 
+			UserBin.getUser(
+				tokens[ThreadLocalRandom.current().nextInt(NUM_USERS)]);
+	}
+	
+	/**
+	 * Looks up a random user's token while another thread logs users in and
+	 * out.
+	 * 
+	 * @return The user.
+	 */
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(7)
+	public User churnGetUser() {
+		return getUser();
+	}
+	
+	/**
+	 * Logs a new user in and back out.
+	 * 
+	 * @return The user's token.
+	 * 
+	 * @throws DomainException The user could not be added.
+	 */
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(1)
+	public String churnAddAndExpireUser() throws DomainException {
+		String token = 
+			UserBin.addUser(new User("benchmark.churn", "password", false));
+		UserBin.expireUser(token);
+		return token;
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTimeZone;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.benchmark.Fixtures;
+import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.domain.MobilityPoint.PrivacyState;
+import org.ohmage.domain.MobilityPoint.SensorData.AccelData;
+import org.ohmage.domain.MobilityPoint.SensorData.SensorDataColumnKey;
+import org.ohmage.exception.DomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+
+/**
+ * Compares decoding and encoding a stored extended Mobility point with the
+ * streaming decoder and encoder against doing the same through org.json.
+ * The org.json decoder is the one that was used before the sensor data was
+ * stored in arrays: it looks up each key in its long form, falls back to its
+ * abbreviated form when that throws, and builds an object per sample.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MobilityPointBenchmark {
+	/**
+	 * The number of accelerometer samples in each point, which is what the
+	 * Mobility client collects.
+	 */
+	private static final int NUM_SAMPLES = 64;
+	
+	/**
+	 * The number of access points in each WiFi scan.
+	 */
+	private static final int NUM_ACCESS_POINTS = 12;
+	
+	/**
+	 * The number of values in the FFT.
+	 */
+	private static final int NUM_FFT_VALUES = 10;
+	
+	private UUID id;
+	private String sensorData;
+	private String features;
+	private MobilityPoint point;
+	
+	/**
+	 * Builds the sensor data and features as they are stored in 
+	 * mobility_extended.
+	 * 
+	 * @throws DomainException The fixture is invalid.
+	 */
+	@Setup
+	public void setup() throws DomainException {
+		sensorData = 
+			Fixtures.getMobilitySensorData(NUM_SAMPLES, NUM_ACCESS_POINTS);
+		
+		StringBuilder featuresBuilder = new StringBuilder();
+		featuresBuilder.append("{\"mode\":\"walk\",\"fft\":[");
+		for(int i = 0; i < NUM_FFT_VALUES; i++) {
+			if(i > 0) {
+				featuresBuilder.append(',');
+			}
+			featuresBuilder.append(100.0 / (i + 1));
+		}
+		featuresBuilder.append("],\"variance\":0.75,\"average\":9.9}");
+		features = featuresBuilder.toString();
+		
+		id = UUID.randomUUID();
+		point = decodeStreaming();
+	}
+	
+	/**
+	 * Decodes the point with the streaming decoder.
+	 * 
+	 * @return The decoded point.
+	 * 
+	 * @throws DomainException The point is invalid.
+	 */
+	@Benchmark
+	public MobilityPoint decodeStreaming() throws DomainException {
+		return new MobilityPoint(
+			id,
+			1330000000000L,
+			DateTimeZone.UTC,
+			LocationStatus.UNAVAILABLE,
+			null,
+			Mode.WALK,
+			PrivacyState.PRIVATE,
+			sensorData,
+			features,
+			"1.3.7");
+	}
+	
+	/**
+	 * Decodes the point through org.json into an object per sample, access 
+	 * point, and FFT value.
+	 * 
+	 * @return The decoded values.
+	 * 
+	 * @throws JSONException The point is invalid.
+	 */
+	@Benchmark
+	public Object[] decodeJsonOrg() throws JSONException {
+		JSONObject sensorDataJson = new JSONObject(sensorData);
+		
+		String mode = getString(sensorDataJson, "mode", "m");
+		Double speed = getDouble(sensorDataJson, "speed", "sp");
+		
+		JSONArray accelArray = getArray(sensorDataJson, "accel_data", "ad");
+		List<AccelData> accelData = 
+			new ArrayList<AccelData>(accelArray.length());
+		for(int i = 0; i < accelArray.length(); i++) {
+			JSONObject sample = accelArray.getJSONObject(i);
+			accelData.add(
+				new AccelData(
+					sample.getDouble("x"), 
+					sample.getDouble("y"), 
+					sample.getDouble("z")));
+		}
+		
+		JSONObject wifiJson = getObject(sensorDataJson, "wifi_data", "wd");
+		Long time = getLong(wifiJson, "time", "t");
+		String timezone = getString(wifiJson, "timezone", "tz");
+		JSONArray scanArray = getArray(wifiJson, "scan", "sc");
+		List<AccessPoint> scan = 
+			new ArrayList<AccessPoint>(scanArray.length());
+		for(int i = 0; i < scanArray.length(); i++) {
+			JSONObject accessPoint = scanArray.getJSONObject(i);
+			scan.add(
+				new AccessPoint(
+					getString(accessPoint, "ssid", "ss"),
+					getDouble(accessPoint, "strength", "st")));
+		}
+		
+		JSONObject featuresJson = new JSONObject(features);
+		String classifierMode = getString(featuresJson, "mode", "m");
+		JSONArray fftArray = getArray(featuresJson, "fft", "fft");
+		List<Double> fft = new ArrayList<Double>(fftArray.length());
+		for(int i = 0; i < fftArray.length(); i++) {
+			fft.add(fftArray.getDouble(i));
+		}
+		Double variance = getDouble(featuresJson, "variance", "v");
+		Double average = getDouble(featuresJson, "average", "a");
+		
+		return new Object[] { 
+			mode, speed, accelData, time, timezone, scan, 
+			classifierMode, fft, variance, average };
+	}
+	
+	/**
+	 * Encodes the point's sensor and classifier data with the streaming
+	 * encoder.
+	 * 
+	 * @return The encoded sensor and classifier data.
+	 * 
+	 * @throws DomainException The data could not be encoded.
+	 */
+	@Benchmark
+	public String[] encodeStreaming() throws DomainException {
+		return new String[] {
+			point.getSensorData().toJsonString(),
+			point.getClassifierData().toJsonString() };
+	}
+	
+	/**
+	 * Encodes the point's sensor and classifier data through org.json.
+	 * 
+	 * @return The encoded sensor and classifier data.
+	 * 
+	 * @throws JSONException The data could not be encoded.
+	 * 
+	 * @throws DomainException The data could not be encoded.
+	 */
+	@Benchmark
+	public String[] encodeJsonOrg() throws JSONException, DomainException {
+		return new String[] {
+			point
+				.getSensorData()
+				.toJson(false, SensorDataColumnKey.ALL_COLUMNS)
+				.toString(),
+			point
+				.getClassifierData()
+				.toJson(
+					false, 
+					MobilityPoint
+						.ClassifierData
+						.ClassifierDataColumnKey
+						.ALL_COLUMNS)
+				.toString() };
+	}
+	
+	/*
+	 * The following look up a key the way the org.json decoder did, by
+	 * trying the long key and catching the exception before trying the
+	 * abbreviated key.
+	 */
+	
+	private static String getString(
+			final JSONObject object,
+			final String key,
+			final String abbreviatedKey)
+			throws JSONException {
+		
+		try {
+			return object.getString(key);
+		}
+		catch(JSONException notLong) {
+			return object.getString(abbreviatedKey);
+		}
+	}
+	
+	private static Double getDouble(
+			final JSONObject object,
+			final String key,
+			final String abbreviatedKey)
+			throws JSONException {
+		
+		try {
+			return object.getDouble(key);
+		}
+		catch(JSONException notLong) {
+			return object.getDouble(abbreviatedKey);
+		}
+	}
+	
+	private static Long getLong(
+			final JSONObject object,
+			final String key,
+			final String abbreviatedKey)
+			throws JSONException {
+		
+		try {
+			return object.getLong(key);
+		}
+		catch(JSONException notLong) {
+			return object.getLong(abbreviatedKey);
+		}
+	}
+	
+	private static JSONArray getArray(
+			final JSONObject object,
+			final String key,
+			final String abbreviatedKey)
+			throws JSONException {
+		
+		try {
+			return object.getJSONArray(key);
+		}
+		catch(JSONException notLong) {
+			return object.getJSONArray(abbreviatedKey);
+		}
+	}
+	
+	private static JSONObject getObject(
+			final JSONObject object,
+			final String key,
+			final String abbreviatedKey)
+			throws JSONException {
+		
+		try {
+			return object.getJSONObject(key);
+		}
+		catch(JSONException notLong) {
+			return object.getJSONObject(abbreviatedKey);
+		}
+	}
+}
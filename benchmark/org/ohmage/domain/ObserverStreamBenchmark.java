@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ohmage.benchmark.Fixtures;
+import org.ohmage.exception.DomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures validating a single stream data point against its stream's
+ * schema, which stream/upload does for every point it receives. The schemas
+ * are the default observers' from the seed data. The validator is read from
+ * the "webapp.root" system property, which the "benchmark" target sets.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObserverStreamBenchmark {
+	/**
+	 * The number of accelerometer samples in each Mobility point.
+	 */
+	private static final int NUM_SAMPLES = 64;
+	
+	/**
+	 * The number of access points in each Mobility point's WiFi scan.
+	 */
+	private static final int NUM_ACCESS_POINTS = 12;
+	
+	private Observer.Stream mobilityExtended;
+	private JsonNode mobilityExtendedData;
+	
+	private Observer.Stream logProbeLog;
+	private JsonNode logProbeLogData;
+	
+	/**
+	 * Creates the streams and their data.
+	 * 
+	 * @throws IOException A fixture could not be read or parsed.
+	 * 
+	 * @throws DomainException A schema is invalid.
+	 */
+	@Setup
+	public void setup() throws IOException, DomainException {
+		ObjectMapper mapper = new ObjectMapper();
+		
+		mobilityExtended = 
+			new Observer.Stream(
+				"extended",
+				2012061300,
+				"Extended",
+				"Mobility with sensor data.",
+				false,
+				true,
+				true,
+				Fixtures.getStreamSchema("mobility_extended"));
+		mobilityExtendedData = 
+			mapper.readTree(
+				Fixtures.getMobilitySensorData(
+					NUM_SAMPLES, 
+					NUM_ACCESS_POINTS));
+		
+		logProbeLog =
+			new Observer.Stream(
+				"log",
+				1,
+				"Log",
+				"Log messages.",
+				true,
+				true,
+				false,
+				Fixtures.getStreamSchema("logprobe_log"));
+		logProbeLogData =
+			mapper.readTree(
+				"{" +
+					"\"level\":\"info\"," +
+					"\"tag\":\"SurveyActivity\"," +
+					"\"message\":\"The survey was submitted.\"" +
+				"}");
+	}
+	
+	/**
+	 * Validates an extended Mobility point, which has a large, nested
+	 * schema.
+	 * 
+	 * @return The validated data.
+	 * 
+	 * @throws DomainException The data is invalid.
+	 */
+	@Benchmark
+	public JsonNode validateMobilityExtended() throws DomainException {
+		return mobilityExtended.validateData(mobilityExtendedData);
+	}
+	
+	/**
+	 * Validates a log message, which has a small, flat schema.
+	 * 
+	 * @return The validated data.
+	 * 
+	 * @throws DomainException The data is invalid.
+	 */
+	@Benchmark
+	public JsonNode validateLogProbeLog() throws DomainException {
+		return logProbeLog.validateData(logProbeLogData);
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain.campaign;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ohmage.benchmark.Fixtures;
+import org.ohmage.exception.DomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing a campaign's XML, which is done whenever a campaign is
+ * created or updated and whenever one is read without its cached surveys.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CampaignBenchmark {
+	private String xml;
+	private Date creationTimestamp;
+	
+	/**
+	 * Reads the campaign's XML.
+	 * 
+	 * @throws IOException The fixture could not be read.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		xml = Fixtures.getCampaignXml();
+		creationTimestamp = new Date();
+	}
+	
+	/**
+	 * Parses the XML into a campaign with all of its surveys and prompts.
+	 * 
+	 * @return The campaign.
+	 * 
+	 * @throws DomainException The XML is invalid.
+	 */
+	@Benchmark
+	public Campaign parse() throws DomainException {
+		return new Campaign(
+			null, 
+			null, 
+			null, 
+			Campaign.RunningState.RUNNING, 
+			Campaign.PrivacyState.SHARED, 
+			creationTimestamp, 
+			xml, 
+			false);
+	}
+	
+	/**
+	 * Validates the XML, which parses it without building the campaign.
+	 * 
+	 * @return The campaign's ID and name.
+	 * 
+	 * @throws DomainException The XML is invalid.
+	 */
+	@Benchmark
+	public Map<String, String> validate() throws DomainException {
+		return Campaign.validateXml(xml);
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain.campaign;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.benchmark.Fixtures;
+import org.ohmage.exception.DomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures building the JSON of a survey response, which survey_response/read
+ * does for every response it returns.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SurveyResponseBenchmark {
+	private SurveyResponse surveyResponse;
+	
+	/**
+	 * Decodes the survey response upload against the campaign.
+	 * 
+	 * @throws IOException A fixture could not be read.
+	 * 
+	 * @throws JSONException The survey response is not valid JSON.
+	 * 
+	 * @throws DomainException A fixture is invalid.
+	 */
+	@Setup
+	public void setup() 
+			throws IOException, JSONException, DomainException {
+		
+		Campaign campaign = 
+			new Campaign(
+				null, 
+				null, 
+				null, 
+				Campaign.RunningState.RUNNING, 
+				Campaign.PrivacyState.SHARED, 
+				new Date(), 
+				Fixtures.getCampaignXml(), 
+				false);
+		
+		surveyResponse =
+			new SurveyResponse(
+				"benchmark.user",
+				campaign.getId(),
+				"benchmark",
+				campaign,
+				new JSONObject(Fixtures.getSurveyResponseJson()),
+				false);
+	}
+	
+	/**
+	 * Builds the JSON with everything, keyed by prompt ID, which is what
+	 * the "json-rows" output format does.
+	 * 
+	 * @return The survey response as JSON.
+	 * 
+	 * @throws JSONException The JSON could not be built.
+	 * 
+	 * @throws DomainException The survey response is invalid.
+	 */
+	@Benchmark
+	public JSONObject toJsonObject() throws JSONException, DomainException {
+		return 
+			surveyResponse.toJson(
+				true, true, true, true, true, true, true, true, true, true, 
+				true, true, true, true, false, true, false);
+	}
+	
+	/**
+	 * Builds the JSON with everything, with the responses in an array.
+	 * 
+	 * @return The survey response as JSON.
+	 * 
+	 * @throws JSONException The JSON could not be built.
+	 * 
+	 * @throws DomainException The survey response is invalid.
+	 */
+	@Benchmark
+	public JSONObject toJsonArray() throws JSONException, DomainException {
+		return 
+			surveyResponse.toJson(
+				true, true, true, true, true, true, true, true, true, true, 
+				true, true, true, true, true, true, false);
+	}
+}
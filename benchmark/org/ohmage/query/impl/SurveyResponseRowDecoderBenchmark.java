@@ -0,0 +1,597 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.benchmark.Fixtures;
+import org.ohmage.domain.Location.LocationColumnKey;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.Prompt;
+import org.ohmage.domain.campaign.PromptResponse;
+import org.ohmage.domain.campaign.Response;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.domain.campaign.response.MultiChoiceCustomPromptResponse;
+import org.ohmage.exception.DomainException;
+import org.ohmage.util.DateTimeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * Measures decoding the rows of a survey response read, which is most of
+ * the work of survey_response/read once the database has answered. The rows
+ * are the fixture's survey response, one row per prompt response, repeated
+ * with a new ID for each survey response. They are read from a result set
+ * that, like the MySQL driver, keeps each column as bytes, decodes them on
+ * every call, and finds columns by name without regard to case. The
+ * {@link SurveyResponseRowDecoder} is compared to the extractor that it 
+ * replaced, which is kept here as it was.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SurveyResponseRowDecoderBenchmark {
+	/**
+	 * The number of survey responses in the rows.
+	 */
+	private static final int NUM_SURVEY_RESPONSES = 10000;
+	
+	/**
+	 * The columns of the rows, which are those of an individual read.
+	 */
+	private static final String[] COLUMNS = {
+		"username", "urn", 
+		"id", "uuid", "client", 
+		"epoch_millis", "phone_timezone", 
+		"survey_id", "launch_context", 
+		"location_status", "location", "privacy_state", 
+		"prompt_id", "response", "repeatable_set_iteration" };
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private Campaign campaign;
+	private byte[][][] rows;
+	
+	/**
+	 * Decodes the fixtures and builds the rows as they would be stored.
+	 * 
+	 * @throws Exception A fixture could not be read or is invalid.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		campaign = 
+			new Campaign(
+				null, 
+				null, 
+				null, 
+				Campaign.RunningState.RUNNING, 
+				Campaign.PrivacyState.SHARED, 
+				new Date(), 
+				Fixtures.getCampaignXml(), 
+				false);
+		
+		SurveyResponse surveyResponse =
+			new SurveyResponse(
+				"benchmark.user",
+				campaign.getId(),
+				"benchmark",
+				campaign,
+				new JSONObject(Fixtures.getSurveyResponseJson()),
+				false);
+		
+		String location = 
+			surveyResponse
+				.getLocation()
+				.toJson(false, LocationColumnKey.ALL_COLUMNS)
+				.toString();
+		String launchContext = 
+			surveyResponse.getLaunchContext().toJson(true).toString();
+		
+		List<Object[]> promptResponses = new ArrayList<Object[]>();
+		for(Response response : surveyResponse.getResponses().values()) {
+			if(response instanceof PromptResponse) {
+				PromptResponse promptResponse = (PromptResponse) response;
+				promptResponses.add(
+					new Object[] {
+						promptResponse.getPrompt().getId(),
+						toDatabaseValue(promptResponse),
+						promptResponse.getRepeatableSetIteration()
+					});
+			}
+		}
+		
+		rows = new byte[NUM_SURVEY_RESPONSES * promptResponses.size()][][];
+		int row = 0;
+		for(int i = 0; i < NUM_SURVEY_RESPONSES; i++) {
+			for(Object[] promptResponse : promptResponses) {
+				rows[row++] =
+					encode(
+						surveyResponse.getUsername(),
+						campaign.getId(),
+						i + 1,
+						new UUID(i, i).toString(),
+						surveyResponse.getClient(),
+						surveyResponse.getTime() + i,
+						surveyResponse.getTimezone().getID(),
+						surveyResponse.getSurvey().getId(),
+						launchContext,
+						surveyResponse.getLocationStatus().toString(),
+						location,
+						surveyResponse.getPrivacyState().toString(),
+						promptResponse[0],
+						promptResponse[1],
+						promptResponse[2]);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the rows with the extractor that was replaced.
+	 * 
+	 * @return The survey responses.
+	 * 
+	 * @throws SQLException The rows could not be decoded.
+	 */
+	@Benchmark
+	public List<SurveyResponse> legacyExtractor() throws SQLException {
+		return 
+			new LegacyExtractor(campaign, null, 0, Long.MAX_VALUE)
+				.extractData(createResultSet());
+	}
+	
+	/**
+	 * Decodes the rows with the row decoder.
+	 * 
+	 * @return The survey responses.
+	 * 
+	 * @throws SQLException The rows could not be decoded.
+	 */
+	@Benchmark
+	public List<SurveyResponse> rowDecoder() throws SQLException {
+		return 
+			new SurveyResponseRowDecoder(campaign, false, 0, Long.MAX_VALUE)
+				.extractData(createResultSet());
+	}
+	
+	/**
+	 * Decodes the rows with the row decoder and then decodes every survey
+	 * response's launch context and location, which is the most that a
+	 * read may need.
+	 * 
+	 * @return The survey responses.
+	 * 
+	 * @throws SQLException The rows could not be decoded.
+	 * 
+	 * @throws DomainException A launch context or location could not be
+	 * 						   decoded.
+	 */
+	@Benchmark
+	public List<SurveyResponse> rowDecoderWithContext()
+			throws SQLException, DomainException {
+		List<SurveyResponse> result =
+			new SurveyResponseRowDecoder(campaign, false, 0, Long.MAX_VALUE)
+				.extractData(createResultSet());
+		
+		for(SurveyResponse surveyResponse : result) {
+			surveyResponse.getLaunchContext();
+			surveyResponse.getLocation();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a prompt response's value as it is stored in the database.
+	 * 
+	 * @param promptResponse The prompt response.
+	 * 
+	 * @return The stored value.
+	 */
+	private static String toDatabaseValue(
+			final PromptResponse promptResponse) {
+		
+		Object response = promptResponse.getResponse();
+		if(response instanceof DateTime) {
+			return
+				DateTimeUtils.getW3cIso8601DateString(
+					(DateTime) response, 
+					true);
+		}
+		else if(
+			(promptResponse instanceof MultiChoiceCustomPromptResponse) && 
+			(response instanceof Collection)) {
+			
+			JSONArray json = new JSONArray();
+			for(Object currResponse : (Collection<?>) response) {
+				json.put(currResponse);
+			}
+			return json.toString();
+		}
+		else {
+			return response.toString();
+		}
+	}
+	
+	/**
+	 * Encodes a row's values as the driver receives them.
+	 * 
+	 * @param values The values, some of which may be null.
+	 * 
+	 * @return The values as bytes.
+	 */
+	private static byte[][] encode(final Object... values) {
+		byte[][] result = new byte[values.length][];
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] != null) {
+				result[i] = values[i].toString().getBytes(UTF_8);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates a result set over the rows.
+	 * 
+	 * @return The result set, before the first row.
+	 */
+	private ResultSet createResultSet() {
+		return 
+			(ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(), 
+				new Class<?>[] { ResultSet.class }, 
+				new Rows(rows));
+	}
+	
+	/**
+	 * A forward-only result set over rows of bytes that supports what the
+	 * extractors use. Like the MySQL driver, the values are decoded on every
+	 * call and columns are found by name without regard to case.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class Rows implements InvocationHandler {
+		private static final Map<String, Integer> COLUMN_INDICES;
+		static {
+			Map<String, Integer> columnIndices = 
+				new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+			for(int i = 0; i < COLUMNS.length; i++) {
+				columnIndices.put(COLUMNS[i], i + 1);
+			}
+			COLUMN_INDICES = Collections.unmodifiableMap(columnIndices);
+		}
+		
+		private final byte[][][] rows;
+		private int row = -1;
+		private boolean wasNull = false;
+		
+		/**
+		 * Creates the result set's handler.
+		 * 
+		 * @param rows The rows.
+		 */
+		private Rows(final byte[][][] rows) {
+			this.rows = rows;
+		}
+		
+		/**
+		 * Answers the result set's methods.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy, 
+				final Method method, 
+				final Object[] args)
+				throws SQLException {
+			
+			String name = method.getName();
+			if("next".equals(name)) {
+				if(row < rows.length) {
+					row++;
+				}
+				return row < rows.length;
+			}
+			else if("isAfterLast".equals(name)) {
+				return row >= rows.length;
+			}
+			else if("wasNull".equals(name)) {
+				return wasNull;
+			}
+			else if("findColumn".equals(name)) {
+				return findColumn((String) args[0]);
+			}
+			else if("close".equals(name)) {
+				return null;
+			}
+			
+			int column = 
+				(args[0] instanceof String) ?
+					findColumn((String) args[0]) :
+					(Integer) args[0];
+			byte[] value = rows[row][column - 1];
+			wasNull = (value == null);
+			
+			if("getString".equals(name)) {
+				return (value == null) ? null : new String(value, UTF_8);
+			}
+			else if("getLong".equals(name)) {
+				return (value == null) ? 0L : parseLong(value);
+			}
+			else if("getInt".equals(name)) {
+				return (value == null) ? 0 : (int) parseLong(value);
+			}
+			else if("getObject".equals(name)) {
+				if(value == null) {
+					return null;
+				}
+				// The repeatable set iteration is a tiny integer, which the
+				// type map makes an Integer. Everything else is text.
+				else if(COLUMNS[column - 1].equals("repeatable_set_iteration")) {
+					return (int) parseLong(value);
+				}
+				else {
+					return new String(value, UTF_8);
+				}
+			}
+			
+			throw new UnsupportedOperationException(name);
+		}
+		
+		/**
+		 * Finds a column by its name.
+		 * 
+		 * @param name The column's name.
+		 * 
+		 * @return The column's index, starting at 1.
+		 * 
+		 * @throws SQLException There is no such column.
+		 */
+		private int findColumn(final String name) throws SQLException {
+			Integer result = COLUMN_INDICES.get(name);
+			if(result == null) {
+				throw new SQLException("Column '" + name + "' not found.");
+			}
+			return result;
+		}
+		
+		/**
+		 * Parses a whole number from its ASCII digits.
+		 * 
+		 * @param value The digits.
+		 * 
+		 * @return The number.
+		 */
+		private static long parseLong(final byte[] value) {
+			boolean negative = (value[0] == '-');
+			long result = 0;
+			for(int i = (negative) ? 1 : 0; i < value.length; i++) {
+				result = result * 10 + (value[i] - '0');
+			}
+			return (negative) ? -result : result;
+		}
+	}
+	
+	/**
+	 * The extractor that {@link SurveyResponseRowDecoder} replaced, as it 
+	 * was.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class LegacyExtractor 
+			implements ResultSetExtractor<List<SurveyResponse>> {
+		
+		private final Campaign campaign;
+		private final Collection<?> columns;
+		private final long surveyResponsesToSkip;
+		private final long surveyResponsesToProcess;
+		private final Map<String, Class<?>> typeMapping;
+		private final Collection<Integer> totalCount = 
+			new ArrayList<Integer>(1);
+		
+		/**
+		 * Creates the extractor for one read.
+		 */
+		private LegacyExtractor(
+				final Campaign campaign,
+				final Collection<?> columns,
+				final long surveyResponsesToSkip,
+				final long surveyResponsesToProcess) {
+			
+			this.campaign = campaign;
+			this.columns = columns;
+			this.surveyResponsesToSkip = surveyResponsesToSkip;
+			this.surveyResponsesToProcess = surveyResponsesToProcess;
+			
+			// This is necessary to map tiny integers in SQL to Java's 
+			// integer.
+			typeMapping = new HashMap<String, Class<?>>();
+			typeMapping.put("tinyint", Integer.class);
+		}
+		
+		/**
+		 * Skips, decodes, and then counts the survey responses.
+		 */
+		@Override
+		public List<SurveyResponse> extractData(ResultSet rs)
+				throws SQLException {
+			
+			if(! rs.next()) {
+				totalCount.add(0);
+				return Collections.emptyList();
+			}
+			
+			int surveyResponsesSkipped = 0;
+			while(surveyResponsesSkipped < surveyResponsesToSkip) {
+				String surveyResponseId = rs.getString("uuid");
+				surveyResponsesSkipped++;
+				
+				while(surveyResponseId.equals(rs.getString("uuid"))) {
+					if(! rs.next()) {
+						totalCount.add(surveyResponsesSkipped);
+						return Collections.emptyList();
+					}
+				}
+			}
+			
+			List<SurveyResponse> result =
+					new LinkedList<SurveyResponse>();
+			
+			int surveyResponsesProcessed = 0;
+			while(surveyResponsesProcessed < surveyResponsesToProcess) {
+				SurveyResponse surveyResponse;
+				try {
+					JSONObject locationJson = null;
+					String locationString = rs.getString("location");
+					if(locationString != null) {
+						locationJson = new JSONObject(locationString);
+					}
+					
+					surveyResponse =
+						new SurveyResponse(
+								rs.getLong("id"),
+								campaign.getSurveys().get(rs.getString("survey_id")),
+								UUID.fromString(rs.getString("uuid")),
+								rs.getString("username"),
+								rs.getString("urn"),
+								rs.getString("client"),
+								rs.getLong("epoch_millis"),
+								DateTimeUtils.getDateTimeZoneFromString(rs.getString("phone_timezone")),
+								new JSONObject(rs.getString("launch_context")),
+								rs.getString("location_status"),
+								locationJson,
+								SurveyResponse.PrivacyState.getValue(rs.getString("privacy_state")));
+					
+					if(columns != null) {
+						surveyResponse.setCount(
+								rs.getLong("count"));
+					}
+				}
+				catch(IllegalArgumentException e) {
+					throw new SQLException("The TimeZone is unknown.", e);
+				}
+				catch(JSONException e) {
+					throw new SQLException("Error creating a JSONObject.", e);
+				}
+				catch(DomainException e) {
+					throw new SQLException("Error creating the survey response information object.", e);
+				}
+				
+				result.add(surveyResponse);
+				surveyResponsesProcessed++;
+				
+				String surveyResponseId =
+						surveyResponse.getSurveyResponseId().toString();
+				
+				boolean processPrompts = true;
+				try {
+					String promptId = rs.getString("prompt_id");
+					if (promptId == null) {
+					    processPrompts = false;
+					}
+				}
+				catch(SQLException e) {
+					processPrompts = false;
+				}
+				
+				if(processPrompts) {
+					do {
+						try {
+							Prompt prompt = 
+								campaign.getPrompt(
+										surveyResponse.getSurvey().getId(),
+										rs.getString("prompt_id")
+									);
+							
+							surveyResponse.addPromptResponse(
+									prompt.createResponse(
+											(Integer) rs.getObject(
+													"repeatable_set_iteration", 
+													typeMapping),
+											rs.getObject("response")
+										)
+								);
+						}
+						catch(DomainException e) {
+							throw new SQLException(
+									"The prompt response value from the database is not a valid response value for this prompt.", 
+									e);
+						}
+					} while(
+							rs.next() && 
+							surveyResponseId.equals(rs.getString("uuid")));
+				}
+				else {
+					rs.next();
+				}
+				
+				if(rs.isAfterLast()) {
+					break;
+				}
+			}
+			
+			if(rs.isAfterLast()) {
+				totalCount.add(
+						surveyResponsesSkipped + 
+						surveyResponsesProcessed);
+			}
+			else {
+				int otherIds = 1;
+				String id = rs.getString("uuid");
+				
+				while(rs.next()) {
+					if(! rs.getString("uuid").equals(id)) {
+						otherIds++;
+						id = rs.getString("uuid");
+					}
+				}
+				
+				totalCount.add(
+						surveyResponsesSkipped + 
+						surveyResponsesProcessed +
+						otherIds);
+			}
+			
+			return result;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.ohmage.exception.InvalidRequestException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures finding a request's route, which is done for every request before
+ * it is built, scheduled, and serviced. The routes are compared one after the
+ * other, so the cost depends on how far down the list a route is.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestBuilderBenchmark {
+	/**
+	 * The context path under which the routes are created.
+	 */
+	private static final String CONTEXT_PATH = "/app";
+	
+	/**
+	 * The routes, without the context path: one near the top of the list,
+	 * two busy ones further down, and one that is unknown and so is compared
+	 * against every route.
+	 */
+	@Param({
+		"/config/read",
+		"/survey/upload",
+		"/stream/upload",
+		"/unknown/route" })
+	public String route;
+	
+	private RequestBuilder requestBuilder;
+	private String uri;
+	private HttpServletRequest unknownRequest;
+	
+	/**
+	 * Creates the routes.
+	 */
+	@Setup
+	public void setup() {
+		requestBuilder = new RequestBuilder();
+		requestBuilder.setServletContext(
+			(ServletContext) Proxy.newProxyInstance(
+				ServletContext.class.getClassLoader(),
+				new Class<?>[] { ServletContext.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+						
+						if("getContextPath".equals(method.getName())) {
+							return CONTEXT_PATH;
+						}
+						return null;
+					}
+				}));
+		
+		uri = CONTEXT_PATH + route;
+		
+		unknownRequest = 
+			(HttpServletRequest) Proxy.newProxyInstance(
+				HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+						
+						if("getRequestURI".equals(method.getName())) {
+							return CONTEXT_PATH + "/unknown/route";
+						}
+						return null;
+					}
+				});
+	}
+	
+	/**
+	 * Checks that the route exists.
+	 * 
+	 * @return Whether or not the route exists.
+	 */
+	@Benchmark
+	public boolean knownUri() {
+		return requestBuilder.knownUri(uri);
+	}
+	
+	/**
+	 * Finds the route's class, which decides its thread pool.
+	 * 
+	 * @return The route's class.
+	 */
+	@Benchmark
+	public RequestBuilder.RouteClass getRouteClass() {
+		return requestBuilder.getRouteClass(uri);
+	}
+	
+	/**
+	 * Dispatches a request for an unknown route, which is compared against
+	 * every route before it fails without reading any parameters.
+	 * 
+	 * @return The failed request.
+	 * 
+	 * @throws IOException Never, because no parameters are read.
+	 * 
+	 * @throws InvalidRequestException Never, because no parameters are read.
+	 */
+	@Benchmark
+	public Request buildUnknownRequest() 
+			throws IOException, InvalidRequestException {
+		
+		return requestBuilder.buildRequest(unknownRequest);
+	}
+}
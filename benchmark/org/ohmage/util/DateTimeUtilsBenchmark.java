@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing the dates that are given as request parameters. Each
+ * format is tried in turn and a failure throws, so the later formats are
+ * slower to parse.
+ * 
+ * @author John Jenkins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DateTimeUtilsBenchmark {
+	/**
+	 * A date-time, a date, and a W3C ISO 8601 date-time, which are the
+	 * first, second, and last formats that are tried.
+	 */
+	@Param({
+		"2013-01-05 07:05:00",
+		"2013-01-05",
+		"2013-01-05T07:05:00.000-08:00" })
+	public String date;
+	
+	/**
+	 * Parses the date.
+	 * 
+	 * @return The parsed date.
+	 */
+	@Benchmark
+	public DateTime getDateTimeFromString() {
+		return DateTimeUtils.getDateTimeFromString(date);
+	}
+}
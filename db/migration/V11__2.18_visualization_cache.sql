@@ -0,0 +1,6 @@
+-- Inserts the default preference keys for the rendered visualization cache.
+-- The cache is disabled if the directory key is removed.
+INSERT INTO preference (p_key, p_value) VALUES 
+  ('visualization_cache_directory', '${base_dir}/visualizations'),
+  ('visualization_cache_max_bytes', '268435456')
+    ON DUPLICATE KEY UPDATE p_value=VALUES(p_value);
@@ -0,0 +1,64 @@
+-- ----------------------------------------------------------------------
+-- Activity counters for user/stats/read. These are updated by the survey
+-- and Mobility uploads and periodically recomputed from the data. The
+-- Mobility counters are kept per user. The survey counters are kept per
+-- campaign and privacy state so that only the survey responses that the
+-- requester may see are counted.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS user_activity_stats (
+  user_id int unsigned NOT NULL,
+  last_mobility_millis bigint DEFAULT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (user_id),
+  INDEX (last_mobility_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The number of Mobility points with and without a location for each user
+-- in each hour, where an hour is the number of hours since the epoch. Only
+-- the most recent day is kept.
+CREATE TABLE IF NOT EXISTS user_activity_hourly (
+  user_id int unsigned NOT NULL,
+  bucket_hour bigint NOT NULL,
+  mobility_located int unsigned NOT NULL DEFAULT 0,
+  mobility_total int unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, bucket_hour),
+  INDEX (bucket_hour),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The time of each user's latest survey response in each campaign and
+-- privacy state.
+CREATE TABLE IF NOT EXISTS user_activity_survey_stats (
+  user_id int unsigned NOT NULL,
+  campaign_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  last_survey_millis bigint NOT NULL,
+  PRIMARY KEY (user_id, campaign_id, privacy_state_id),
+  INDEX (last_survey_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The number of survey responses with and without a location for each user
+-- in each campaign and privacy state in each hour. Only the most recent day
+-- is kept.
+CREATE TABLE IF NOT EXISTS user_activity_survey_hourly (
+  user_id int unsigned NOT NULL,
+  campaign_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  bucket_hour bigint NOT NULL,
+  survey_located int unsigned NOT NULL DEFAULT 0,
+  survey_total int unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, bucket_hour, campaign_id, privacy_state_id),
+  INDEX (bucket_hour),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Used when recomputing the counters.
+ALTER TABLE survey_response 
+  ADD INDEX survey_response_index_user_epoch_millis (user_id, epoch_millis),
+  ADD INDEX survey_response_index_upload_timestamp (upload_timestamp);
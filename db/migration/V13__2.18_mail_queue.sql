@@ -0,0 +1,23 @@
+-- ----------------------------------------------------------------------
+-- Outbound mail. Requests only add messages here and a background worker
+-- sends them, retrying with a backoff. A worker claims a message by setting
+-- its status to "sending" and pushing its next attempt out, so two workers
+-- never send the same message. Sent messages are deleted; messages that
+-- could never be sent are kept with their last error but without content.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS mail_queue (
+  id bigint unsigned NOT NULL auto_increment,
+  sender varchar(320) NOT NULL,
+  recipient varchar(320) NOT NULL,
+  subject text NOT NULL,
+  content mediumtext NOT NULL,
+  content_type varchar(255) NOT NULL,
+  status varchar(25) NOT NULL DEFAULT "pending",
+  attempts int unsigned NOT NULL DEFAULT 0,
+  next_attempt_millis bigint NOT NULL,
+  last_error text DEFAULT NULL,
+  creation_timestamp datetime NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  INDEX (status, next_attempt_millis)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
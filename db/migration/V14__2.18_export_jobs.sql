@@ -0,0 +1,35 @@
+-- ----------------------------------------------------------------------
+-- Export jobs. Large survey response and stream reads may be submitted as
+-- jobs that are run in the background and written to a compressed file in
+-- the export directory. A job's parameters are kept so that it can be run
+-- again if the server stops while it is running and so that identical
+-- requests from the same user can share a job.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS export_job (
+  id bigint unsigned NOT NULL auto_increment,
+  uuid char(36) NOT NULL,
+  user_id int unsigned NOT NULL,
+  export_type varchar(64) NOT NULL,
+  client varchar(255) NOT NULL,
+  parameters mediumtext NOT NULL,
+  parameters_hash char(64) NOT NULL,
+  status varchar(25) NOT NULL DEFAULT "queued",
+  content_type varchar(255) DEFAULT NULL,
+  file_size bigint DEFAULT NULL,
+  error text DEFAULT NULL,
+  creation_millis bigint NOT NULL,
+  completion_millis bigint DEFAULT NULL,
+  expiration_millis bigint NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  UNIQUE (uuid),
+  INDEX (user_id, parameters_hash),
+  INDEX (status, id),
+  INDEX (expiration_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The directory to which the export files are written.
+INSERT INTO preference (p_key, p_value) VALUES 
+  ('export_directory', '${base_dir}/exports')
+    ON DUPLICATE KEY UPDATE p_value=VALUES(p_value);
@@ -0,0 +1,6 @@
+-- ----------------------------------------------------------------------
+-- Used by the bulk privacy state updates, which select a campaign's
+-- survey responses by user and date without first reading their IDs.
+-- ----------------------------------------------------------------------
+ALTER TABLE survey_response
+  ADD INDEX survey_response_index_campaign_user_epoch_millis (campaign_id, user_id, epoch_millis);
@@ -0,0 +1,21 @@
+-- ----------------------------------------------------------------------
+-- The number of survey responses and the latest upload for each user in
+-- each campaign in each privacy state. These are updated along with the
+-- survey responses and periodically recomputed from them.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS campaign_response_stats (
+  campaign_id int unsigned NOT NULL,
+  user_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  response_count int unsigned NOT NULL DEFAULT 0,
+  last_upload_timestamp datetime DEFAULT NULL,
+  PRIMARY KEY (campaign_id, user_id, privacy_state_id),
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO campaign_response_stats(campaign_id, user_id, privacy_state_id, response_count, last_upload_timestamp)
+SELECT campaign_id, user_id, privacy_state_id, COUNT(*), MAX(upload_timestamp)
+FROM survey_response
+GROUP BY campaign_id, user_id, privacy_state_id;
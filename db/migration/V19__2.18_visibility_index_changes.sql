@@ -0,0 +1,16 @@
+-- ----------------------------------------------------------------------
+-- The campaigns, classes, documents, and users whose roles have changed,
+-- in the order in which they changed. Each server's visibility index adds
+-- a row for every change it makes and reads the rows added by the other
+-- servers to bring its own copy up to date. Old rows are deleted when the
+-- index is rebuilt.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS visibility_index_change (
+  id bigint unsigned NOT NULL auto_increment,
+  source char(36) NOT NULL,
+  entity_type varchar(16) NOT NULL,
+  entity_id varchar(255) NOT NULL,
+  creation_timestamp timestamp DEFAULT now(),
+  PRIMARY KEY (id),
+  INDEX (creation_timestamp)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,207 @@
+-- ----------------------------------------------------------------------
+-- Partitions observer_stream_data by month on its adjusted time and
+-- mobility by month on its time, so that a month's data can be archived or
+-- dropped without deleting it row by row. The partitions for the coming
+-- months are added by the server, which also archives the old stream data.
+--
+-- Partitioned tables cannot have foreign keys, neither their own nor ones
+-- that reference them, so the users' data, the data for the streams of the
+-- observers they own, and the extended information of their Mobility
+-- points is deleted explicitly along with them. Every unique key must
+-- include the column that the table is partitioned on, so the stream
+-- data's ID is only indexed rather than being its primary key, and a
+-- point's uniqueness is kept by its user, its stream, its ID, and its
+-- adjusted time.
+-- ----------------------------------------------------------------------
+
+-- The stream data that has been archived, one chunk file per user per
+-- stream per partition.
+CREATE TABLE IF NOT EXISTS observer_stream_data_archive (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  observer_stream_link_id int unsigned NOT NULL,
+  partition_name varchar(64) NOT NULL,
+  time_adjusted_min bigint(20) DEFAULT NULL,
+  time_adjusted_max bigint(20) DEFAULT NULL,
+  num_points int unsigned NOT NULL,
+  file_path varchar(255) NOT NULL,
+  PRIMARY KEY (id),
+  UNIQUE KEY observer_stream_data_archive_unique_partition
+    (user_id, observer_stream_link_id, partition_name),
+  INDEX observer_stream_data_archive_query
+    (user_id, observer_stream_link_id, time_adjusted_min),
+  CONSTRAINT observer_stream_data_archive_foreign_key_user_id 
+    FOREIGN KEY (user_id) 
+    REFERENCES user (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT observer_stream_data_archive_foreign_key_link_id 
+    FOREIGN KEY (observer_stream_link_id) 
+    REFERENCES observer_stream_link (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO preference (p_key, p_value) VALUES 
+    ('stream_archive_directory', '${base_dir}/streams'),
+    ('stream_archive_age_days', '365');
+
+ALTER TABLE observer_stream_data
+    DROP FOREIGN KEY observer_stream_data_foreign_key_user_id,
+    DROP FOREIGN KEY observer_stream_data_foreign_key_observer_stream_link_id;
+
+-- The adjusted time is part of the stream data's unique key, which would
+-- not keep points without one from being stored twice, so it is made NOT
+-- NULL. A point with a time but no adjusted time is given its time in its
+-- time zone, and a point without a time is given the smallest time, which
+-- the server also stores for the points it receives without one.
+UPDATE observer_stream_data
+SET time_adjusted = 
+    IF(time IS NULL, -9223372036854775808, time + IFNULL(time_offset, 0))
+WHERE time_adjusted IS NULL;
+
+-- Removes the points that were uploaded more than once, keeping the first,
+-- so that the unique key can be added. The removed copies are kept in
+-- observer_stream_data_duplicate, which may be dropped once they have been
+-- checked.
+CREATE TABLE observer_stream_data_duplicate LIKE observer_stream_data;
+
+INSERT INTO observer_stream_data_duplicate
+SELECT osd_duplicate.*
+FROM observer_stream_data osd_duplicate
+WHERE EXISTS (
+    SELECT osd_first.id
+    FROM observer_stream_data osd_first
+    WHERE osd_duplicate.user_id = osd_first.user_id
+    AND osd_duplicate.observer_stream_link_id = 
+        osd_first.observer_stream_link_id
+    AND osd_duplicate.uid = osd_first.uid
+    AND osd_duplicate.time_adjusted <=> osd_first.time_adjusted
+    AND osd_duplicate.id > osd_first.id);
+
+DELETE osd_duplicate
+FROM observer_stream_data osd_duplicate
+JOIN observer_stream_data osd_first
+    ON osd_duplicate.user_id = osd_first.user_id
+    AND osd_duplicate.observer_stream_link_id = 
+        osd_first.observer_stream_link_id
+    AND osd_duplicate.uid = osd_first.uid
+    AND osd_duplicate.time_adjusted <=> osd_first.time_adjusted
+    AND osd_duplicate.id > osd_first.id;
+
+ALTER TABLE observer_stream_data
+    MODIFY time_adjusted bigint(20) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD INDEX observer_stream_data_index_id (id),
+    DROP INDEX osd_duplicate_data_point_read,
+    ADD UNIQUE KEY observer_stream_data_unique_point
+        (user_id, observer_stream_link_id, uid, time_adjusted);
+
+-- Drops every foreign key of a table. The foreign keys of the Mobility
+-- tables were created without names, so their names are whatever the
+-- server gave them and are looked up rather than assumed.
+DROP PROCEDURE IF EXISTS drop_foreign_keys;
+DELIMITER $$
+CREATE DEFINER=CURRENT_USER PROCEDURE drop_foreign_keys (
+    IN tableName VARCHAR(64))
+  BEGIN
+  SET @constraintName = NULL;
+  SELECT CONSTRAINT_NAME INTO @constraintName
+    FROM information_schema.KEY_COLUMN_USAGE
+    WHERE TABLE_SCHEMA = DATABASE()
+    AND TABLE_NAME = tableName
+    AND REFERENCED_TABLE_NAME IS NOT NULL
+    LIMIT 1;
+
+  WHILE @constraintName IS NOT NULL DO
+    SET @query = 
+      CONCAT(
+        'ALTER TABLE ', tableName, 
+        ' DROP FOREIGN KEY `', @constraintName, '`');
+    PREPARE statement FROM @query;
+    EXECUTE statement;
+    DEALLOCATE PREPARE statement;
+
+    SET @constraintName = NULL;
+    SELECT CONSTRAINT_NAME INTO @constraintName
+      FROM information_schema.KEY_COLUMN_USAGE
+      WHERE TABLE_SCHEMA = DATABASE()
+      AND TABLE_NAME = tableName
+      AND REFERENCED_TABLE_NAME IS NOT NULL
+      LIMIT 1;
+  END WHILE;
+END$$
+DELIMITER ;
+CALL drop_foreign_keys('mobility_extended');
+CALL drop_foreign_keys('mobility');
+DROP PROCEDURE drop_foreign_keys;
+
+ALTER TABLE mobility
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, epoch_millis),
+    DROP INDEX uuid,
+    ADD UNIQUE KEY mobility_unique_uuid (uuid, epoch_millis);
+
+-- Partitions a table by month on a column of milliseconds since the epoch.
+-- There is a partition for each month from the first month with data
+-- through three months from now, which matches what the server keeps, and
+-- a last partition for everything after that. Data from before 2010 is
+-- kept in the first partition rather than creating a partition for every
+-- month since the epoch.
+DROP PROCEDURE IF EXISTS partition_by_month;
+DELIMITER $$
+CREATE DEFINER=CURRENT_USER PROCEDURE partition_by_month (
+    IN tableName VARCHAR(64),
+    IN columnName VARCHAR(64))
+  BEGIN
+  DECLARE month DATE;
+  DECLARE lastMonth DATE;
+  DECLARE definitions TEXT DEFAULT '';
+
+  SET @firstMillis = NULL;
+  SET @query = 
+    CONCAT('SELECT MIN(', columnName, ') INTO @firstMillis FROM ', tableName);
+  PREPARE statement FROM @query;
+  EXECUTE statement;
+  DEALLOCATE PREPARE statement;
+
+  SET lastMonth = 
+    DATE_ADD(DATE_FORMAT(UTC_DATE(), '%Y-%m-01'), INTERVAL 3 MONTH);
+  IF @firstMillis IS NULL THEN
+    SET month = DATE_FORMAT(UTC_DATE(), '%Y-%m-01');
+  ELSE
+    SET month = 
+      DATE_FORMAT(
+        DATE_ADD('1970-01-01', INTERVAL FLOOR(@firstMillis / 1000) SECOND),
+        '%Y-%m-01');
+  END IF;
+  IF month < '2010-01-01' THEN
+    SET month = '2010-01-01';
+  END IF;
+  IF month > lastMonth THEN
+    SET month = lastMonth;
+  END IF;
+
+  WHILE month <= lastMonth DO
+    SET definitions = 
+      CONCAT(
+        definitions,
+        'PARTITION p', DATE_FORMAT(month, '%Y%m'), 
+        ' VALUES LESS THAN (',
+        TIMESTAMPDIFF(SECOND, '1970-01-01', DATE_ADD(month, INTERVAL 1 MONTH)) * 1000,
+        '), ');
+    SET month = DATE_ADD(month, INTERVAL 1 MONTH);
+  END WHILE;
+
+  SET @query = 
+    CONCAT(
+      'ALTER TABLE ', tableName, 
+      ' PARTITION BY RANGE (', columnName, ') (',
+      definitions, 
+      'PARTITION p_future VALUES LESS THAN MAXVALUE)');
+  PREPARE statement FROM @query;
+  EXECUTE statement;
+  DEALLOCATE PREPARE statement;
+END$$
+DELIMITER ;
+CALL partition_by_month('observer_stream_data', 'time_adjusted');
+CALL partition_by_month('mobility', 'epoch_millis');
+DROP PROCEDURE partition_by_month;
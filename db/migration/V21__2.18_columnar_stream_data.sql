@@ -0,0 +1,32 @@
+-- ----------------------------------------------------------------------
+-- Adds the columnar storage mode for streams. A stream's mode is part of
+-- its definition, and the data of a columnar stream is kept in compressed
+-- chunks, one per upload per user per hour of adjusted time, whose points
+-- are encoded column by column using the stream's schema instead of being
+-- rows in observer_stream_data.
+-- ----------------------------------------------------------------------
+
+ALTER TABLE observer_stream 
+  ADD COLUMN storage varchar(16) NOT NULL DEFAULT 'row' AFTER stream_schema;
+
+CREATE TABLE IF NOT EXISTS observer_stream_data_chunk (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  observer_stream_link_id int unsigned NOT NULL,
+  time_adjusted_min bigint(20) DEFAULT NULL,
+  time_adjusted_max bigint(20) DEFAULT NULL,
+  num_points int unsigned NOT NULL,
+  data mediumblob NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  INDEX observer_stream_data_chunk_query
+    (user_id, observer_stream_link_id, time_adjusted_min),
+  CONSTRAINT observer_stream_data_chunk_foreign_key_user_id 
+    FOREIGN KEY (user_id) 
+    REFERENCES user (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT observer_stream_data_chunk_foreign_key_link_id 
+    FOREIGN KEY (observer_stream_link_id) 
+    REFERENCES observer_stream_link (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
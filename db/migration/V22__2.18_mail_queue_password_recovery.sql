@@ -0,0 +1,10 @@
+-- ----------------------------------------------------------------------
+-- Password recovery mail is queued like any other mail, but the new
+-- password must never be written to the queue. Instead, the message is
+-- queued without it and refers to the user, and the worker that sends it
+-- gives the user a new password and adds it to the message. Deleting the
+-- user deletes their unsent recovery mail.
+-- ----------------------------------------------------------------------
+ALTER TABLE mail_queue
+  ADD COLUMN password_recovery_user_id int unsigned DEFAULT NULL AFTER content_type,
+  ADD CONSTRAINT FOREIGN KEY (password_recovery_user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE;
@@ -0,0 +1,12 @@
+-- Inserts the default preference keys for the upload admission control: the
+-- per-user and per-client rate limits, in uploads per second with a burst,
+-- and the number of uploads that may be processed and wait at once.
+INSERT INTO preference (p_key, p_value) VALUES 
+  ('upload_user_rate', '2'),
+  ('upload_user_burst', '20'),
+  ('upload_client_rate', '50'),
+  ('upload_client_burst', '500'),
+  ('upload_max_in_flight', '16'),
+  ('upload_max_waiting', '32'),
+  ('upload_max_wait_millis', '500')
+    ON DUPLICATE KEY UPDATE p_value=VALUES(p_value);
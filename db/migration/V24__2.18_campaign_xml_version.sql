@@ -0,0 +1,5 @@
+-- Adds a counter to the campaign table that is incremented whenever the
+-- campaign's XML is updated. It versions the snapshots of the XML, which the
+-- creation timestamp can't do because it only has a resolution of one second.
+ALTER TABLE campaign
+    ADD COLUMN `xml_version` bigint unsigned NOT NULL DEFAULT 0;
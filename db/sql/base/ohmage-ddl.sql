@@ -125,6 +125,8 @@ CREATE TABLE IF NOT EXISTS campaign (
   name varchar(255) NOT NULL,
   description text,
   xml mediumtext NOT NULL,
+  -- Incremented whenever the XML is updated.
+  xml_version bigint unsigned NOT NULL DEFAULT 0,
   running_state_id int unsigned NOT NULL,
   privacy_state_id int unsigned NOT NULL,
   creation_timestamp datetime NOT NULL,
@@ -312,6 +314,9 @@ CREATE TABLE IF NOT EXISTS survey_response (
   PRIMARY KEY (id),
   KEY key_user_id (user_id),
   KEY key_campaign_id (campaign_id),
+  INDEX survey_response_index_user_epoch_millis (user_id, epoch_millis),
+  INDEX survey_response_index_upload_timestamp (upload_timestamp),
+  INDEX survey_response_index_campaign_user_epoch_millis (campaign_id, user_id, epoch_millis),
   CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,    
   CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
@@ -371,11 +376,15 @@ CREATE TABLE IF NOT EXISTS mobility_privacy_state (
 
 -- --------------------------------------------------------------------
 -- High-frequency "mode only" mobility data. Mobility data is *not*
--- linked to a campaign.
+-- linked to a campaign. It is partitioned by month on its time. The server
+-- splits the last partition into the coming months' partitions. 
+-- Partitioned tables cannot have foreign keys, so a user's points are 
+-- deleted explicitly along with them, and every unique key must include 
+-- the time.
 -- --------------------------------------------------------------------
 CREATE TABLE IF NOT EXISTS mobility (
   id int unsigned NOT NULL auto_increment,
-  uuid CHAR(36) NOT NULL UNIQUE,
+  uuid CHAR(36) NOT NULL,
   user_id int unsigned NOT NULL,
   client tinytext NOT NULL,
   epoch_millis bigint unsigned NOT NULL,
@@ -386,16 +395,21 @@ CREATE TABLE IF NOT EXISTS mobility (
   upload_timestamp datetime NOT NULL, -- the upload time based on the server time and timezone
   audit_timestamp timestamp default current_timestamp on update current_timestamp,
   privacy_state_id int unsigned NOT NULL,
-  PRIMARY KEY (id),
+  PRIMARY KEY (id, epoch_millis),
+  UNIQUE KEY mobility_unique_uuid (uuid, epoch_millis),
   INDEX (uuid),
   INDEX index_time (epoch_millis),
-  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
-  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES mobility_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+  INDEX (user_id),
+  INDEX (privacy_state_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8
+PARTITION BY RANGE (epoch_millis) (
+  PARTITION p_future VALUES LESS THAN MAXVALUE
+);
 
 -- --------------------------------------------------------------------
 -- High-frequency "mode + sensor data" mobility data. Mobility data is 
--- *not* linked to a campaign.
+-- *not* linked to a campaign. The mobility table is partitioned, so this
+-- can't reference it and is deleted explicitly along with it.
 -- --------------------------------------------------------------------
 CREATE TABLE IF NOT EXISTS mobility_extended (
   id int unsigned NOT NULL auto_increment,
@@ -405,7 +419,7 @@ CREATE TABLE IF NOT EXISTS mobility_extended (
   classifier_version tinytext NOT NULL,
   audit_timestamp timestamp default current_timestamp on update current_timestamp,
   PRIMARY KEY (id),
-  CONSTRAINT FOREIGN KEY (mobility_id) REFERENCES mobility (id) ON DELETE CASCADE ON UPDATE CASCADE
+  INDEX (mobility_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 -- --------------------------------------------------------------------
@@ -616,6 +630,7 @@ CREATE TABLE IF NOT EXISTS observer_stream (
     with_timestamp boolean DEFAULT NULL,
     with_location boolean DEFAULT NULL,
     stream_schema text NOT NULL,
+    storage varchar(16) NOT NULL DEFAULT 'row',
     last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
     PRIMARY KEY (id),
     KEY observer_stream_key_stream_id (stream_id)
@@ -649,7 +664,13 @@ CREATE TABLE IF NOT EXISTS observer_stream_link (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 -- --------------------------------------------------------------------
--- The data collected by a stream.
+-- The data collected by a stream. It is partitioned by month on its 
+-- adjusted time. The server splits the last partition into the coming 
+-- months' partitions and archives the old ones. Partitioned tables cannot
+-- have foreign keys, so the data is deleted explicitly along with its user
+-- and its stream, and every unique key must include the adjusted time. The
+-- adjusted time may be NULL, so the ID is only indexed, and a point is
+-- unique by its user, its stream, its ID, and its adjusted time.
 -- --------------------------------------------------------------------
 CREATE TABLE IF NOT EXISTS observer_stream_data (
   id int unsigned NOT NULL AUTO_INCREMENT,
@@ -667,7 +688,7 @@ CREATE TABLE IF NOT EXISTS observer_stream_data (
   location_provider varchar(255) DEFAULT NULL,
   data longtext NOT NULL,
   last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
-  PRIMARY KEY (id),
+  INDEX observer_stream_data_index_id (id),
   KEY observer_stream_data_key_observer_stream_link_id (observer_stream_link_id),
   KEY observer_stream_data_key_user_id (user_id),
   INDEX observer_stream_data_index_time (time),
@@ -676,13 +697,65 @@ CREATE TABLE IF NOT EXISTS observer_stream_data (
     (`user_id`,`observer_stream_link_id`,`time_adjusted`,`time`),
   INDEX `observer_stream_data_index_link_user_adjusted`
     (`observer_stream_link_id`,`user_id`,`time_adjusted`),
-  INDEX `osd_duplicate_data_point_read`
-    (`user_id`, `observer_stream_link_id`, `uid`),  
-  CONSTRAINT observer_stream_data_foreign_key_user_id 
+  UNIQUE KEY `observer_stream_data_unique_point`
+    (`user_id`, `observer_stream_link_id`, `uid`, `time_adjusted`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8
+PARTITION BY RANGE (time_adjusted) (
+  PARTITION p_future VALUES LESS THAN MAXVALUE
+);
+
+-- --------------------------------------------------------------------
+-- The stream data that has been archived. Once every point in a month's
+-- partition of observer_stream_data is old enough, each user's data for
+-- each stream is moved into its own compressed chunk file. The times are
+-- NULL if none of the chunk's points have an adjusted time.
+-- --------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS observer_stream_data_archive (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  observer_stream_link_id int unsigned NOT NULL,
+  partition_name varchar(64) NOT NULL,
+  time_adjusted_min bigint(20) DEFAULT NULL,
+  time_adjusted_max bigint(20) DEFAULT NULL,
+  num_points int unsigned NOT NULL,
+  file_path varchar(255) NOT NULL,
+  PRIMARY KEY (id),
+  UNIQUE KEY observer_stream_data_archive_unique_partition
+    (user_id, observer_stream_link_id, partition_name),
+  INDEX observer_stream_data_archive_query
+    (user_id, observer_stream_link_id, time_adjusted_min),
+  CONSTRAINT observer_stream_data_archive_foreign_key_user_id 
+    FOREIGN KEY (user_id) 
+    REFERENCES user (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT observer_stream_data_archive_foreign_key_link_id 
+    FOREIGN KEY (observer_stream_link_id) 
+    REFERENCES observer_stream_link (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- --------------------------------------------------------------------
+-- The data of the columnar streams. Each chunk is some of one user's points
+-- for one stream within an hour of adjusted time, encoded column by column
+-- and compressed.
+-- --------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS observer_stream_data_chunk (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  observer_stream_link_id int unsigned NOT NULL,
+  time_adjusted_min bigint(20) DEFAULT NULL,
+  time_adjusted_max bigint(20) DEFAULT NULL,
+  num_points int unsigned NOT NULL,
+  data mediumblob NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  INDEX observer_stream_data_chunk_query
+    (user_id, observer_stream_link_id, time_adjusted_min),
+  CONSTRAINT observer_stream_data_chunk_foreign_key_user_id 
     FOREIGN KEY (user_id) 
     REFERENCES user (id) 
     ON DELETE CASCADE ON UPDATE CASCADE,
-  CONSTRAINT observer_stream_data_foreign_key_observer_stream_link_id 
+  CONSTRAINT observer_stream_data_chunk_foreign_key_link_id 
     FOREIGN KEY (observer_stream_link_id) 
     REFERENCES observer_stream_link (id) 
     ON DELETE CASCADE ON UPDATE CASCADE
@@ -827,3 +900,157 @@ CREATE TABLE IF NOT EXISTS access_request (
   CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+-- ----------------------------------------------------------------------
+-- Activity counters for user/stats/read. These are updated by the survey
+-- and Mobility uploads and periodically recomputed from the data. The
+-- Mobility counters are kept per user. The survey counters are kept per
+-- campaign and privacy state so that only the survey responses that the
+-- requester may see are counted.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS user_activity_stats (
+  user_id int unsigned NOT NULL,
+  last_mobility_millis bigint DEFAULT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (user_id),
+  INDEX (last_mobility_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The number of Mobility points with and without a location for each user
+-- in each hour, where an hour is the number of hours since the epoch. Only
+-- the most recent day is kept.
+CREATE TABLE IF NOT EXISTS user_activity_hourly (
+  user_id int unsigned NOT NULL,
+  bucket_hour bigint NOT NULL,
+  mobility_located int unsigned NOT NULL DEFAULT 0,
+  mobility_total int unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, bucket_hour),
+  INDEX (bucket_hour),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The time of each user's latest survey response in each campaign and
+-- privacy state.
+CREATE TABLE IF NOT EXISTS user_activity_survey_stats (
+  user_id int unsigned NOT NULL,
+  campaign_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  last_survey_millis bigint NOT NULL,
+  PRIMARY KEY (user_id, campaign_id, privacy_state_id),
+  INDEX (last_survey_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The number of survey responses with and without a location for each user
+-- in each campaign and privacy state in each hour. Only the most recent day
+-- is kept.
+CREATE TABLE IF NOT EXISTS user_activity_survey_hourly (
+  user_id int unsigned NOT NULL,
+  campaign_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  bucket_hour bigint NOT NULL,
+  survey_located int unsigned NOT NULL DEFAULT 0,
+  survey_total int unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, bucket_hour, campaign_id, privacy_state_id),
+  INDEX (bucket_hour),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- ----------------------------------------------------------------------
+-- Outbound mail. Requests only add messages here and a background worker
+-- sends them, retrying with a backoff. A worker claims a message by setting
+-- its status to "sending" and pushing its next attempt out, so two workers
+-- never send the same message. Sent messages are deleted; messages that
+-- could never be sent are kept with their last error but without content.
+-- Password recovery mail is queued without the new password and refers to
+-- the user instead; the worker gives the user a new password and adds it
+-- to the message when it sends it.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS mail_queue (
+  id bigint unsigned NOT NULL auto_increment,
+  sender varchar(320) NOT NULL,
+  recipient varchar(320) NOT NULL,
+  subject text NOT NULL,
+  content mediumtext NOT NULL,
+  content_type varchar(255) NOT NULL,
+  password_recovery_user_id int unsigned DEFAULT NULL,
+  status varchar(25) NOT NULL DEFAULT "pending",
+  attempts int unsigned NOT NULL DEFAULT 0,
+  next_attempt_millis bigint NOT NULL,
+  last_error text DEFAULT NULL,
+  creation_timestamp datetime NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  INDEX (status, next_attempt_millis),
+  CONSTRAINT FOREIGN KEY (password_recovery_user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- ----------------------------------------------------------------------
+-- Export jobs. Large survey response and stream reads may be submitted as
+-- jobs that are run in the background and written to a compressed file in
+-- the export directory. A job's parameters are kept so that it can be run
+-- again if the server stops while it is running and so that identical
+-- requests from the same user can share a job.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS export_job (
+  id bigint unsigned NOT NULL auto_increment,
+  uuid char(36) NOT NULL,
+  user_id int unsigned NOT NULL,
+  export_type varchar(64) NOT NULL,
+  client varchar(255) NOT NULL,
+  parameters mediumtext NOT NULL,
+  parameters_hash char(64) NOT NULL,
+  status varchar(25) NOT NULL DEFAULT "queued",
+  content_type varchar(255) DEFAULT NULL,
+  file_size bigint DEFAULT NULL,
+  error text DEFAULT NULL,
+  creation_millis bigint NOT NULL,
+  completion_millis bigint DEFAULT NULL,
+  expiration_millis bigint NOT NULL,
+  last_modified_timestamp timestamp DEFAULT now() ON UPDATE now(),
+  PRIMARY KEY (id),
+  UNIQUE (uuid),
+  INDEX (user_id, parameters_hash),
+  INDEX (status, id),
+  INDEX (expiration_millis),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+
+-- ----------------------------------------------------------------------
+-- The number of survey responses and the latest upload for each user in
+-- each campaign in each privacy state. These are updated along with the
+-- survey responses and periodically recomputed from them.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS campaign_response_stats (
+  campaign_id int unsigned NOT NULL,
+  user_id int unsigned NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  response_count int unsigned NOT NULL DEFAULT 0,
+  last_upload_timestamp datetime DEFAULT NULL,
+  PRIMARY KEY (campaign_id, user_id, privacy_state_id),
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- ----------------------------------------------------------------------
+-- The campaigns, classes, documents, and users whose roles have changed,
+-- in the order in which they changed. Each server's visibility index adds
+-- a row for every change it makes and reads the rows added by the other
+-- servers to bring its own copy up to date. Old rows are deleted when the
+-- index is rebuilt.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS visibility_index_change (
+  id bigint unsigned NOT NULL auto_increment,
+  source char(36) NOT NULL,
+  entity_type varchar(16) NOT NULL,
+  entity_id varchar(255) NOT NULL,
+  creation_timestamp timestamp DEFAULT now(),
+  PRIMARY KEY (id),
+  INDEX (creation_timestamp)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
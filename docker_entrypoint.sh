@@ -12,6 +12,9 @@ MYSQL_USER=${MYSQL_USER:-ohmage}
 MYSQL_PASSWORD=${MYSQL_PASSWORD:-ohmage}
 FQDN=${FQDN:-$HOSTNAME}
 LOG_LEVEL=${LOG_LEVEL:-WARN}
+DB_REPLICA_HOST=${DB_REPLICA_HOST:-}
+DB_REPLICA_PORT=${DB_REPLICA_PORT:-3306}
+DB_REPLICA_MAX_LAG=${DB_REPLICA_MAX_LAG:-10}
 
 # cat out ohmage.conf
 echo "#
@@ -21,6 +24,10 @@ db.driver=com.mysql.jdbc.Driver
 db.jdbcurl=jdbc:mysql://$DB_HOST:$DB_PORT/$MYSQL_DATABASE?characterEncoding=utf8
 db.username=$MYSQL_USER
 db.password=$MYSQL_PASSWORD
+db.replica.jdbcurl=${DB_REPLICA_HOST:+jdbc:mysql://$DB_REPLICA_HOST:$DB_REPLICA_PORT/$MYSQL_DATABASE?characterEncoding=utf8}
+db.replica.username=$MYSQL_USER
+db.replica.password=$MYSQL_PASSWORD
+db.replica.max_lag_seconds=$DB_REPLICA_MAX_LAG
 #
 # LOGGING
 #
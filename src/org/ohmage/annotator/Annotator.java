@@ -44,6 +44,7 @@ public class Annotator {
 	public static enum ErrorCode {
 		SYSTEM_GENERAL_ERROR ("0100"),
 		SYSTEM_REQUEST_TOO_LARGE ("0101"),
+		SYSTEM_TOO_MANY_REQUESTS ("0102"),
 
 		AUTHENTICATION_FAILED ("0200"),
 		AUTHENTICATION_ACCOUNT_DISABLED ("0201"),
@@ -66,6 +67,7 @@ public class Annotator {
 		SERVER_INVALID_GZIP_DATA ("0313"),
 		SERVER_MISSING_CONTENT_TYPE ("0314"),
 		SERVER_REQUEST_TOO_LARGE ("0315"),
+		SERVER_INVALID_OUTPUT_FORMAT ("0316"),
 
 		MOBILITY_INVALID_SUBTYPE ("0500"),
 		MOBILITY_INVALID_MODE ("0501"),
@@ -135,6 +137,7 @@ public class Annotator {
 		IMAGE_INVALID_SIZE ("0801"),
 		IMAGE_INSUFFICIENT_PERMISSIONS ("0802"),
 		IMAGE_INVALID_DATA ("0803"),
+		IMAGE_INVALID_CONTINUATION_TOKEN ("0804"),
 
 		CLASS_INVALID_ID ("0900"),
 		CLASS_INVALID_NAME ("0901"),
@@ -145,6 +148,7 @@ public class Annotator {
 		CLASS_INVALID_WITH_USER_LIST_VALUE ("0906"),
 		CLASS_INVALID_FLAGS ("0907"),
 		CLASS_ORPHAN_CAMPAIGNS ("0908"),
+		CLASS_INVALID_DRY_RUN_VALUE ("0909"),
 
 		USER_INVALID_USERNAME ("1000"),
 		USER_INVALID_PASSWORD ("1001"),
@@ -169,6 +173,7 @@ public class Annotator {
 		// access request
 		USER_ACCESS_REQUEST_INVALID_PRAMETER ("1019"),
 		USER_ACCESS_REQUEST_EXECUTION_ERROR ("1020"),
+		USER_INVALID_NEW_USER_LIST ("1021"),
 
 		DOCUMENT_INVALID_ID ("1100"),
 		DOCUMENT_INVALID_NAME ("1101"),
@@ -240,7 +245,12 @@ public class Annotator {
 		
 		MEDIA_INVALID_ID ("1900"),
 		MEDIA_NOT_FOUND ("1901"), 
-		MEDIA_INVALID_DATA ("1902");
+		MEDIA_INVALID_DATA ("1902"),
+		
+		EXPORT_INVALID_ID ("2000"),
+		EXPORT_INVALID_REQUEST ("2001"),
+		EXPORT_INSUFFICIENT_PERMISSIONS ("2002"),
+		EXPORT_NOT_COMPLETE ("2003");
 		
 		private final String value;
 		
@@ -0,0 +1,83 @@
+package org.ohmage.cache;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.CampaignResponseStatsServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Periodically recomputes the per-campaign survey response counters from the
+ * survey responses. The queries that change survey responses keep the
+ * counters current in the same transaction, so this only corrects for
+ * changes that were made directly in the database.
+ *
+ * @author John Jenkins
+ */
+public final class CampaignResponseStatsReconciler extends TimerTask implements DisposableBean {
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(CampaignResponseStatsReconciler.class);
+
+	/**
+	 * The task that is periodically run to recompute the counters.
+	 */
+	private static final Timer RECONCILER =
+		new Timer(
+			"CampaignResponseStatsReconciler - Recomputing the campaign survey response counters.",
+			true);
+
+	/**
+	 * The number of milliseconds before the first reconciliation.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_RECONCILIATION =
+		1000 * 60 * 5;
+
+	/**
+	 * The number of milliseconds between each reconciliation.
+	 */
+	private static final long MILLISECONDS_BETWEEN_RECONCILIATIONS =
+		1000 * 60 * 60 * 6;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private CampaignResponseStatsReconciler() {
+		LOGGER.info("Creating the campaign response stats reconciler, periodic task.");
+
+		// Create the task that will be run periodically.
+		RECONCILER.schedule(
+			this,
+			MILLISECONDS_BEFORE_FIRST_RECONCILIATION,
+			MILLISECONDS_BETWEEN_RECONCILIATIONS);
+	}
+
+	/**
+	 * Calls to the campaign response stats services layer that recomputes
+	 * the counters.
+	 */
+	@Override
+	public void run() {
+		try {
+			LOGGER.info("Reconciling the campaign survey response counters.");
+			CampaignResponseStatsServices
+				.instance()
+				.reconcileCampaignResponseStats();
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to reconcile the campaign survey response counters.", e);
+		}
+	}
+
+	/**
+	 * Stops the reconciliation task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		RECONCILER.cancel();
+	}
+}
@@ -0,0 +1,73 @@
+package org.ohmage.cache;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.ExportJobServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Periodically removes the export jobs that have expired and their files.
+ *
+ * @author John Jenkins
+ */
+public final class ExportJobCleanup extends TimerTask implements DisposableBean {
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = 
+		Logger.getLogger(ExportJobCleanup.class);
+	
+	/**
+	 * The cleanup task that is periodically run to clean up expired export
+	 * jobs.
+	 */
+	private static final Timer CLEANUP = 
+		new Timer(
+			"ExportJobCleanup - Removing expired export jobs.",
+			true);
+	
+	/**
+	 * The number of milliseconds between each cleanup.
+	 */
+	private static final long MILLISECONDS_BETWEEN_CLEANUPS = 1000 * 60 * 15;
+	
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private ExportJobCleanup() {
+		LOGGER.info("Creating the export job cleanup, periodic task.");
+		
+		// Create the task that will be run periodically.
+		CLEANUP.schedule(
+			this, 
+			MILLISECONDS_BETWEEN_CLEANUPS, 
+			MILLISECONDS_BETWEEN_CLEANUPS);
+	}
+
+	/**
+	 * Calls to the export job services layer that removes the expired jobs.
+	 */
+	@Override
+	public void run() {
+		try {
+			if(LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Cleaning up expired export jobs.");
+			}
+			ExportJobServices.instance().deleteExpiredJobs();
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to clean up the expired export jobs.", e);
+		}
+	}
+
+	/**
+	 * Stops the cleanup task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		CLEANUP.cancel();
+	}
+}
@@ -0,0 +1,738 @@
+package org.ohmage.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.jee.filter.ClientFilter;
+import org.ohmage.jee.filter.GzipFilter;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.query.impl.ReadWriteRoutingDataSource;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.Request;
+import org.ohmage.request.RequestBuilder;
+import org.ohmage.service.ExportJobServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * Runs the queued export jobs. A dispatcher thread reads the queued jobs and
+ * hands them to a small, fixed pool of workers, only reading as many as
+ * there are idle workers so that the rest stay queued in the database.
+ * </p>
+ *
+ * <p>
+ * Each job is run by building the same request that the servlet would have
+ * built from the job's parameters, servicing it, and having it respond into
+ * a compressed file instead of an HTTP response. The request is
+ * authenticated with a token that exists only while the job runs, so the
+ * request's own authorization checks are made as they would be for the user
+ * that submitted the job. Jobs that were running when the server stopped are
+ * queued again when it starts and run again from the beginning, overwriting
+ * the partial file they left. A job is a single read whose response is
+ * written as one compressed stream, so there is no point part way through
+ * it from which it could continue.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ExportJobProcessor implements DisposableBean {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(ExportJobProcessor.class);
+
+	/**
+	 * The number of threads running jobs.
+	 */
+	private static final int NUM_WORKERS = 2;
+
+	/**
+	 * The number of milliseconds between each check of the queue when no one
+	 * has submitted anything.
+	 */
+	private static final long MILLISECONDS_BETWEEN_CHECKING = 1000 * 30;
+
+	/**
+	 * The number of milliseconds before the queue is first checked, which
+	 * gives the rest of the system time to start.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_CHECK = 1000 * 10;
+
+	/**
+	 * The size of the buffer in front of the compressed file.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 64;
+
+	/**
+	 * The password given to the user a job is run as. It is never checked
+	 * because the user is already logged in.
+	 */
+	private static final String JOB_USER_PASSWORD = "export_job";
+
+	/**
+	 * The character encoding of the responses written by a job.
+	 */
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The number of jobs that have completed.
+	 */
+	private static final AtomicLong COMPLETED = new AtomicLong(0);
+
+	/**
+	 * The number of jobs that have failed.
+	 */
+	private static final AtomicLong FAILED = new AtomicLong(0);
+
+	/**
+	 * The one instance of this class, which is created by Spring.
+	 */
+	private static ExportJobProcessor instance;
+
+	/**
+	 * The IDs of the jobs that have been handed to a worker but not yet
+	 * finished, so that they are not handed out again.
+	 */
+	private final Set<UUID> inFlight =
+		Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+	/**
+	 * One permit for each idle worker.
+	 */
+	private final Semaphore idleWorkers = new Semaphore(NUM_WORKERS);
+
+	/**
+	 * The workers.
+	 */
+	private final ExecutorService workers =
+		Executors.newFixedThreadPool(
+			NUM_WORKERS,
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					Thread result =
+						new Thread(
+							runnable,
+							"Export Worker " + count.incrementAndGet());
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/**
+	 * The thread that reads the queue and hands the jobs to the workers.
+	 */
+	private final Thread dispatcher;
+
+	/**
+	 * Whether or not this processor should continue running.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Whether or not someone submitted a job or a worker became idle since
+	 * the dispatcher last read the queue. Guarded by this object's monitor.
+	 */
+	private boolean queued = false;
+
+	/**
+	 * A response that writes everything to a file instead of a client and
+	 * remembers the content type and status that the request set.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class FileResponse implements InvocationHandler {
+		private final ServletOutputStream outputStream;
+		private PrintWriter writer = null;
+
+		private String contentType = null;
+		private int status = HttpServletResponse.SC_OK;
+
+		/**
+		 * Creates a response that writes to the given stream.
+		 *
+		 * @param output The stream to write to.
+		 */
+		private FileResponse(final OutputStream output) {
+			outputStream = new ServletOutputStream() {
+				@Override
+				public void write(final int b) throws IOException {
+					output.write(b);
+				}
+
+				@Override
+				public void write(
+						final byte[] b,
+						final int off,
+						final int len)
+						throws IOException {
+
+					output.write(b, off, len);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					output.flush();
+				}
+
+				@Override
+				public void close() throws IOException {
+					output.close();
+				}
+			};
+		}
+
+		/**
+		 * Handles the response's methods that matter when writing to a file
+		 * and ignores the rest.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			String name = method.getName();
+
+			if("getOutputStream".equals(name)) {
+				return outputStream;
+			}
+			else if("getWriter".equals(name)) {
+				if(writer == null) {
+					writer =
+						new PrintWriter(
+							new OutputStreamWriter(outputStream, ENCODING));
+				}
+				return writer;
+			}
+			else if("setContentType".equals(name)) {
+				contentType = (String) args[0];
+			}
+			else if("getContentType".equals(name)) {
+				return contentType;
+			}
+			else if(
+					("setHeader".equals(name) || "addHeader".equals(name)) &&
+					"Content-Type".equalsIgnoreCase((String) args[0])) {
+
+				contentType = (String) args[1];
+			}
+			else if("setStatus".equals(name) || "sendError".equals(name)) {
+				status = (Integer) args[0];
+			}
+			else if("getStatus".equals(name)) {
+				return status;
+			}
+			else if("getCharacterEncoding".equals(name)) {
+				return ENCODING;
+			}
+			else if("flushBuffer".equals(name)) {
+				if(writer != null) {
+					writer.flush();
+				}
+				outputStream.flush();
+			}
+			else if(
+					name.startsWith("encode") &&
+					(args != null) &&
+					(args.length > 0)) {
+
+				return args[0];
+			}
+
+			return getDefaultValue(method.getReturnType());
+		}
+
+		/**
+		 * Flushes anything written through the writer and closes the file.
+		 *
+		 * @throws IOException There was an error writing the file.
+		 */
+		private void close() throws IOException {
+			if(writer != null) {
+				writer.close();
+			}
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * A request whose parameters, client, and URI are those of a job.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class JobRequest implements InvocationHandler {
+		private final String uri;
+		private final Map<String, String[]> parameters;
+		private final Map<String, Object> attributes;
+
+		/**
+		 * Creates a request for a job.
+		 *
+		 * @param uri The request's URI.
+		 *
+		 * @param parameters The request's parameters.
+		 *
+		 * @param client The client that submitted the job.
+		 */
+		private JobRequest(
+				final String uri,
+				final Map<String, String[]> parameters,
+				final String client) {
+
+			this.uri = uri;
+			this.parameters = parameters;
+
+			// These are what the filters would have set.
+			attributes = new HashMap<String, Object>();
+			attributes.put(GzipFilter.ATTRIBUTE_KEY_PARAMETERS, parameters);
+			attributes.put(ClientFilter.ATTRIBUTE_KEY_CLIENT, client);
+		}
+
+		/**
+		 * Handles the request's methods that are used to build and respond
+		 * to a read request and ignores the rest.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			String name = method.getName();
+
+			if("getRequestURI".equals(name)) {
+				return uri;
+			}
+			else if("getMethod".equals(name)) {
+				return "POST";
+			}
+			else if("getAttribute".equals(name)) {
+				return attributes.get(args[0]);
+			}
+			else if("setAttribute".equals(name)) {
+				attributes.put((String) args[0], args[1]);
+			}
+			else if("removeAttribute".equals(name)) {
+				attributes.remove(args[0]);
+			}
+			else if("getParameterMap".equals(name)) {
+				return Collections.unmodifiableMap(parameters);
+			}
+			else if("getParameterValues".equals(name)) {
+				return parameters.get(args[0]);
+			}
+			else if("getParameter".equals(name)) {
+				String[] values = parameters.get(args[0]);
+				if((values == null) || (values.length == 0)) {
+					return null;
+				}
+				return values[0];
+			}
+			else if("getParameterNames".equals(name)) {
+				return Collections.enumeration(parameters.keySet());
+			}
+			else if("getHeaders".equals(name) || "getHeaderNames".equals(name)) {
+				return Collections.enumeration(Collections.<String>emptyList());
+			}
+			else if("getParts".equals(name)) {
+				return Collections.emptyList();
+			}
+
+			return getDefaultValue(method.getReturnType());
+		}
+	}
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private ExportJobProcessor() {
+		LOGGER.info("Creating the export job processor.");
+
+		Metrics.registerCounter(
+			"export_jobs_total",
+			"The number of export jobs that have finished, by status.",
+			"status",
+			"complete",
+			new Gauge() {
+				/**
+				 * Returns the number of completed jobs.
+				 */
+				@Override
+				public double getValue() {
+					return COMPLETED.get();
+				}
+			});
+		Metrics.registerCounter(
+			"export_jobs_total",
+			"The number of export jobs that have finished, by status.",
+			"status",
+			"failed",
+			new Gauge() {
+				/**
+				 * Returns the number of failed jobs.
+				 */
+				@Override
+				public double getValue() {
+					return FAILED.get();
+				}
+			});
+
+		dispatcher = new Thread("Export Job Dispatcher") {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		};
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+
+		instance = this;
+	}
+
+	/**
+	 * Tells the processor that a job was just submitted so that it is started
+	 * now rather than at the next periodic check. This is safe to call before
+	 * the processor has been created.
+	 */
+	public static void wakeUp() {
+		ExportJobProcessor processor = instance;
+		if(processor != null) {
+			synchronized(processor) {
+				processor.queued = true;
+				processor.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of jobs that have completed.
+	 *
+	 * @return The number of completed jobs.
+	 */
+	public static long getCompletedCount() {
+		return COMPLETED.get();
+	}
+
+	/**
+	 * Returns the number of jobs that have failed.
+	 *
+	 * @return The number of failed jobs.
+	 */
+	public static long getFailedCount() {
+		return FAILED.get();
+	}
+
+	/**
+	 * Queues the interrupted jobs and then reads the queued jobs and hands
+	 * them to the idle workers until this is shut down.
+	 */
+	private void dispatch() {
+		long timeout = MILLISECONDS_BEFORE_FIRST_CHECK;
+		boolean resumed = false;
+
+		while(running) {
+			synchronized(this) {
+				if(! queued) {
+					try {
+						wait(timeout);
+					}
+					catch(InterruptedException e) {
+						// We are being shut down.
+					}
+				}
+				queued = false;
+			}
+			timeout = MILLISECONDS_BETWEEN_CHECKING;
+
+			if(! running) {
+				break;
+			}
+
+			if(! resumed) {
+				try {
+					int count =
+						ExportJobServices.instance().resumeInterruptedJobs();
+					if(count > 0) {
+						LOGGER.info("Resuming " + count + " export jobs.");
+					}
+					resumed = true;
+				}
+				catch(ServiceException e) {
+					LOGGER.error("Failed to resume the export jobs.", e);
+					continue;
+				}
+			}
+
+			int idle = idleWorkers.availablePermits();
+			if(idle == 0) {
+				continue;
+			}
+
+			List<ExportJob> jobs;
+			try {
+				jobs = ExportJobServices.instance().getQueuedJobs(idle);
+			}
+			catch(ServiceException e) {
+				LOGGER.error("Failed to read the export job queue.", e);
+				continue;
+			}
+
+			for(final ExportJob job : jobs) {
+				if(inFlight.contains(job.getId())) {
+					continue;
+				}
+				if(! idleWorkers.tryAcquire()) {
+					break;
+				}
+
+				try {
+					if(! ExportJobServices.instance().startJob(job.getId())) {
+						idleWorkers.release();
+						continue;
+					}
+				}
+				catch(ServiceException e) {
+					LOGGER.error("Failed to start the export job.", e);
+					idleWorkers.release();
+					continue;
+				}
+
+				inFlight.add(job.getId());
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							runJob(job);
+						}
+						finally {
+							inFlight.remove(job.getId());
+							idleWorkers.release();
+
+							// Another job may be waiting for this worker.
+							wakeUp();
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Runs a job and records whether it completed or failed.
+	 *
+	 * @param job The job to run.
+	 */
+	private void runJob(final ExportJob job) {
+		LOGGER.info("Running export job: " + job.getId());
+		long start = System.currentTimeMillis();
+
+		String token = null;
+		String error = null;
+		String contentType = null;
+		try {
+			User user =
+				new User(job.getUsername(), JOB_USER_PASSWORD, false);
+			user.isLoggedIn(true);
+			token = UserBin.addUser(user);
+
+			Map<String, String[]> parameters =
+				new HashMap<String, String[]>(job.getParameters());
+			parameters.put(InputKeys.AUTH_TOKEN, new String[] { token });
+
+			HttpServletRequest httpRequest =
+				(HttpServletRequest) Proxy.newProxyInstance(
+					HttpServletRequest.class.getClassLoader(),
+					new Class<?>[] { HttpServletRequest.class },
+					new JobRequest(
+						RequestBuilder.getInstance().getRoot() +
+							"/" +
+							job.getType().getRequest(),
+						parameters,
+						job.getClient()));
+
+			// The job only reads, so it may use the read replica.
+			ReadWriteRoutingDataSource.startRequest(true, null);
+
+			Request request =
+				RequestBuilder.getInstance().buildRequest(httpRequest);
+			if(! request.isFailed()) {
+				request.service();
+			}
+
+			if(request.isFailed()) {
+				error = request.getFailureMessage();
+			}
+			else {
+				File partialFile =
+					ExportJobServices
+						.instance()
+						.getPartialExportFile(job.getId());
+
+				FileResponse fileResponse =
+					new FileResponse(
+						new GZIPOutputStream(
+							new BufferedOutputStream(
+								new FileOutputStream(partialFile),
+								BUFFER_SIZE)));
+				try {
+					request.respond(
+						httpRequest,
+						(HttpServletResponse) Proxy.newProxyInstance(
+							HttpServletResponse.class.getClassLoader(),
+							new Class<?>[] { HttpServletResponse.class },
+							fileResponse));
+				}
+				finally {
+					fileResponse.close();
+				}
+
+				if(request.isFailed()) {
+					error = request.getFailureMessage();
+				}
+				else if(fileResponse.status >= 400) {
+					error =
+						"The export failed with status " +
+							fileResponse.status + ".";
+				}
+				else {
+					File file =
+						ExportJobServices
+							.instance()
+							.getExportFile(job.getId());
+					if(! partialFile.renameTo(file)) {
+						throw new IOException(
+							"The export file could not be renamed: " +
+								partialFile.getAbsolutePath());
+					}
+					contentType = fileResponse.contentType;
+				}
+			}
+		}
+		catch(DomainException e) {
+			LOGGER.error("The export job's user could not be created.", e);
+			error = "The export job could not be run.";
+		}
+		catch(InvalidRequestException e) {
+			LOGGER.info("The export job's request was invalid.", e);
+			error = e.getErrorText();
+		}
+		catch(IOException e) {
+			LOGGER.error("The export file could not be written.", e);
+			error = "The export file could not be written.";
+		}
+		catch(ServiceException e) {
+			LOGGER.error("The export job could not be run.", e);
+			error = "The export job could not be run.";
+		}
+		// Anything else the request throws must still fail the job, or it
+		// would be left running forever.
+		catch(RuntimeException e) {
+			LOGGER.error("The export job failed unexpectedly.", e);
+			error = "The export job could not be run.";
+		}
+		finally {
+			ReadWriteRoutingDataSource.endRequest(null);
+
+			if(token != null) {
+				UserBin.expireUser(token);
+			}
+		}
+
+		try {
+			if(error == null) {
+				ExportJobServices
+					.instance()
+					.completeJob(job.getId(), contentType);
+				COMPLETED.incrementAndGet();
+			}
+			else {
+				ExportJobServices.instance().failJob(job.getId(), error);
+				FAILED.incrementAndGet();
+			}
+		}
+		catch(ServiceException e) {
+			LOGGER.error(
+				"Failed to record the export job's result: " + job.getId(),
+				e);
+		}
+
+		LOGGER.info(
+			"Export job " + job.getId() + " " +
+				((error == null) ? "completed" : "failed") + " in " +
+				(System.currentTimeMillis() - start) + "ms: " +
+				COMPLETED.get() + " completed, " +
+				FAILED.get() + " failed.");
+	}
+
+	/**
+	 * Returns the value a proxy returns for a method it doesn't handle, which
+	 * must not be null for primitive return types.
+	 *
+	 * @param type The method's return type.
+	 *
+	 * @return The default value for that type.
+	 */
+	private static Object getDefaultValue(final Class<?> type) {
+		if(boolean.class.equals(type)) {
+			return false;
+		}
+		else if(int.class.equals(type)) {
+			return 0;
+		}
+		else if(long.class.equals(type)) {
+			return 0L;
+		}
+		return null;
+	}
+
+	/**
+	 * Stops the dispatcher and the workers. Jobs that are still running are
+	 * left marked as running and are run again from the beginning when the
+	 * server starts again.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		running = false;
+		dispatcher.interrupt();
+		workers.shutdownNow();
+	}
+}
@@ -76,6 +76,9 @@ public abstract class KeyValueCache extends Cache {
 	private final String keyColumn;
 	private final String valueColumn;
 
+	// The number of times a refresh has changed the map.
+	private volatile long version = 0;
+
 	/**
 	 * Default constructor that calls its parent and is protected to maintain
 	 * the Singleton-ness.
@@ -153,6 +156,23 @@ public abstract class KeyValueCache extends Cache {
 		return keyValueMap.keySet();
 	}
 
+	/**
+	 * Returns the version of the cache's contents. The version changes only
+	 * when a refresh finds that some key or value has changed, so it can be
+	 * used to tell whether anything built from the cache is out-of-date.
+	 * 
+	 * @return The version of the cache's contents.
+	 */
+	public long getVersion() {
+		// If the lookup table is out-of-date, refresh it.
+		if((getLastUpdateTimestamp() + getUpdateFrequency()) <= System
+			.currentTimeMillis()) {
+			refreshMap();
+		}
+
+		return version;
+	}
+
 	/**
 	 * Gets a human-readable name for this cache.
 	 * 
@@ -212,6 +232,9 @@ public abstract class KeyValueCache extends Cache {
 		for(KeyAndValue currStateAndId : keyAndValue) {
 			keyValueMap.put(currStateAndId.key, currStateAndId.value);
 		}
+		if(! keyValueMap.equals(this.keyValueMap)) {
+			version++;
+		}
 		this.keyValueMap = keyValueMap;
 
 		setLastUpdateTimestamp(System.currentTimeMillis());
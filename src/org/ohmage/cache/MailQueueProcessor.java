@@ -0,0 +1,585 @@
+package org.ohmage.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.QueuedMail;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.service.MailServices;
+import org.ohmage.util.MailUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * <p>
+ * Sends the messages in the outbound mail queue. A dispatcher thread reads
+ * the messages that are due and hands them to a small pool of senders. Each
+ * sender keeps its connection to the mail server open between messages and
+ * only reconnects when the server has dropped it. Failed messages are 
+ * retried by the queue with a backoff.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MailQueueProcessor implements DisposableBean {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MailQueueProcessor.class);
+
+	/**
+	 * The number of threads sending mail.
+	 */
+	private static final int NUM_SENDERS = 2;
+
+	/**
+	 * The maximum number of messages read from the queue at a time.
+	 */
+	private static final int MAX_MESSAGES_PER_READ = 100;
+
+	/**
+	 * The number of milliseconds between each check of the queue when no one
+	 * has queued anything.
+	 */
+	private static final long MILLISECONDS_BETWEEN_CHECKING = 1000 * 15;
+
+	/**
+	 * The number of milliseconds before the queue is first checked, which
+	 * gives the rest of the system time to start.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_CHECK = 1000 * 10;
+
+	/**
+	 * The number of messages that have been sent.
+	 */
+	private static final AtomicLong SENT = new AtomicLong(0);
+
+	/**
+	 * The number of failed attempts that will be retried.
+	 */
+	private static final AtomicLong RETRIED = new AtomicLong(0);
+
+	/**
+	 * The number of messages that were given up on.
+	 */
+	private static final AtomicLong FAILED = new AtomicLong(0);
+
+	/**
+	 * The number of connections that have been made to the mail server.
+	 */
+	private static final AtomicLong CONNECTIONS = new AtomicLong(0);
+
+	/**
+	 * The total number of milliseconds spent sending the sent messages.
+	 */
+	private static final AtomicLong SEND_MILLIS = new AtomicLong(0);
+
+	/**
+	 * The one instance of this class, which is created by Spring.
+	 */
+	private static MailQueueProcessor instance;
+
+	/**
+	 * A sender's connection to the mail server.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Connection {
+		private final Session session;
+		private final SMTPTransport transport;
+
+		/**
+		 * Creates a new connection.
+		 *
+		 * @param session The session the connection was made with.
+		 *
+		 * @param transport The connected transport.
+		 */
+		private Connection(
+				final Session session,
+				final SMTPTransport transport) {
+
+			this.session = session;
+			this.transport = transport;
+		}
+
+		/**
+		 * Closes the connection, ignoring any errors as the connection is
+		 * being discarded.
+		 */
+		private void close() {
+			try {
+				transport.close();
+			}
+			catch(MessagingException e) {
+				LOGGER.info("Error closing the mail server connection.", e);
+			}
+		}
+	}
+
+	/**
+	 * Each sender's open connection to the mail server.
+	 */
+	private final ThreadLocal<Connection> connection =
+		new ThreadLocal<Connection>();
+
+	/**
+	 * Every open connection so that they can all be closed on shutdown.
+	 */
+	private final Set<Connection> connections =
+		Collections.newSetFromMap(
+			new ConcurrentHashMap<Connection, Boolean>());
+
+	/**
+	 * The IDs of the messages that have been handed to a sender but not yet
+	 * sent or failed, so that they are not handed out again.
+	 */
+	private final Set<Long> inFlight =
+		Collections.newSetFromMap(
+			new ConcurrentHashMap<Long, Boolean>());
+
+	/**
+	 * The senders.
+	 */
+	private final ExecutorService senders =
+		Executors.newFixedThreadPool(
+			NUM_SENDERS,
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					Thread result =
+						new Thread(
+							runnable,
+							"Mail Sender " + count.incrementAndGet());
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/**
+	 * The thread that reads the queue and hands the messages to the
+	 * senders.
+	 */
+	private final Thread dispatcher;
+
+	/**
+	 * The session to send with or null to build one from the preferences for
+	 * each connection.
+	 */
+	private final Session session;
+
+	/**
+	 * Whether or not this processor should continue running.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Whether or not someone queued mail since the dispatcher last read the
+	 * queue. Guarded by this object's monitor.
+	 */
+	private boolean queued = false;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private MailQueueProcessor() {
+		this(null, MILLISECONDS_BEFORE_FIRST_CHECK);
+	}
+
+	/**
+	 * Creates a processor that sends with the given session, connecting
+	 * without authentication, instead of with the preferences. This lets the
+	 * processor be run against a local mail server.
+	 *
+	 * @param session The session or null to use the preferences.
+	 *
+	 * @param millisecondsBeforeFirstCheck How long to wait before first
+	 * 									   reading the queue if no one queues
+	 * 									   mail.
+	 */
+	MailQueueProcessor(
+			final Session session,
+			final long millisecondsBeforeFirstCheck) {
+
+		LOGGER.info("Creating the mail queue processor.");
+
+		this.session = session;
+
+		Metrics.registerCounter(
+			"mail_messages_total",
+			"The number of attempts to send the queued mail, by outcome.",
+			"outcome",
+			"sent",
+			new Gauge() {
+				/**
+				 * Returns the number of sent messages.
+				 */
+				@Override
+				public double getValue() {
+					return SENT.get();
+				}
+			});
+		Metrics.registerCounter(
+			"mail_messages_total",
+			"The number of attempts to send the queued mail, by outcome.",
+			"outcome",
+			"retried",
+			new Gauge() {
+				/**
+				 * Returns the number of attempts that will be retried.
+				 */
+				@Override
+				public double getValue() {
+					return RETRIED.get();
+				}
+			});
+		Metrics.registerCounter(
+			"mail_messages_total",
+			"The number of attempts to send the queued mail, by outcome.",
+			"outcome",
+			"failed",
+			new Gauge() {
+				/**
+				 * Returns the number of messages that were given up on.
+				 */
+				@Override
+				public double getValue() {
+					return FAILED.get();
+				}
+			});
+
+		dispatcher = new Thread("Mail Queue Dispatcher") {
+			@Override
+			public void run() {
+				dispatch(millisecondsBeforeFirstCheck);
+			}
+		};
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+
+		instance = this;
+	}
+
+	/**
+	 * Tells the processor that mail was just queued so that it is sent now
+	 * rather than at the next periodic check. This is safe to call before
+	 * the processor has been created.
+	 */
+	public static void wakeUp() {
+		MailQueueProcessor processor = instance;
+		if(processor != null) {
+			synchronized(processor) {
+				processor.queued = true;
+				processor.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of messages that have been sent.
+	 *
+	 * @return The number of messages sent.
+	 */
+	public static long getSentCount() {
+		return SENT.get();
+	}
+
+	/**
+	 * Returns the number of failed attempts that will be retried.
+	 *
+	 * @return The number of retries.
+	 */
+	public static long getRetriedCount() {
+		return RETRIED.get();
+	}
+
+	/**
+	 * Returns the number of messages that were given up on.
+	 *
+	 * @return The number of failed messages.
+	 */
+	public static long getFailedCount() {
+		return FAILED.get();
+	}
+
+	/**
+	 * Returns the number of connections that have been made to the mail
+	 * server.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getConnectionCount() {
+		return CONNECTIONS.get();
+	}
+
+	/**
+	 * Returns the average number of milliseconds it took to send a message.
+	 *
+	 * @return The average send time or 0 if nothing has been sent.
+	 */
+	public static long getAverageSendMillis() {
+		long sent = SENT.get();
+		return (sent == 0) ? 0 : SEND_MILLIS.get() / sent;
+	}
+
+	/**
+	 * Reads the due messages and hands them to the senders until this is
+	 * shut down.
+	 *
+	 * @param millisecondsBeforeFirstCheck How long to wait before first
+	 * 									   reading the queue.
+	 */
+	private void dispatch(final long millisecondsBeforeFirstCheck) {
+		long timeout = millisecondsBeforeFirstCheck;
+
+		while(running) {
+			synchronized(this) {
+				if(! queued) {
+					try {
+						wait(timeout);
+					}
+					catch(InterruptedException e) {
+						// We are being shut down.
+					}
+				}
+				queued = false;
+			}
+			timeout = MILLISECONDS_BETWEEN_CHECKING;
+
+			if(! running) {
+				break;
+			}
+
+			List<QueuedMail> mail;
+			try {
+				mail =
+					MailServices.instance().getDueMail(MAX_MESSAGES_PER_READ);
+			}
+			catch(ServiceException e) {
+				LOGGER.error("Failed to read the mail queue.", e);
+				continue;
+			}
+
+			for(final QueuedMail message : mail) {
+				if(inFlight.add(message.getId())) {
+					senders.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								send(message);
+							}
+							finally {
+								inFlight.remove(message.getId());
+							}
+						}
+					});
+				}
+			}
+
+			if(! mail.isEmpty()) {
+				LOGGER.info(
+					"Mail queue: " +
+						mail.size() + " due, " +
+						SENT.get() + " sent, " +
+						RETRIED.get() + " retried, " +
+						FAILED.get() + " failed, " +
+						CONNECTIONS.get() + " connections, " +
+						getAverageSendMillis() + "ms average send.");
+			}
+		}
+	}
+
+	/**
+	 * Sends one message on this sender's connection, reconnecting once if
+	 * the connection has gone stale, and records the result in the queue.
+	 *
+	 * @param mail The message to send.
+	 */
+	private void send(final QueuedMail mail) {
+		long start = System.currentTimeMillis();
+
+		String error = null;
+		try {
+			// This is built once so that reconnecting doesn't give a
+			// password recovery message's user a second new password.
+			String content = MailServices.instance().getContent(mail);
+
+			try {
+				sendMessage(getConnection(), mail, content);
+			}
+			catch(SendFailedException e) {
+				// The server rejected the message itself, so reconnecting
+				// will not help.
+				throw e;
+			}
+			catch(MessagingException e) {
+				// The server may have closed an idle connection, so try
+				// once more on a new one.
+				LOGGER.info("Reconnecting to the mail server.", e);
+				closeConnection();
+				sendMessage(getConnection(), mail, content);
+			}
+		}
+		catch(ServiceException e) {
+			closeConnection();
+			error = e.getMessage();
+		}
+		catch(MessagingException e) {
+			closeConnection();
+			error = e.getMessage();
+		}
+
+		// Once the outcome is recorded, a retry may be due at any time. If 
+		// the dispatcher claimed it while it was still in flight, it would
+		// skip it and the claim would hold it back until it expired.
+		inFlight.remove(mail.getId());
+
+		try {
+			if(error == null) {
+				SEND_MILLIS.addAndGet(System.currentTimeMillis() - start);
+				SENT.incrementAndGet();
+				MailServices.instance().markMailSent(mail);
+			}
+			else if(MailServices.instance().markMailFailed(mail, error)) {
+				RETRIED.incrementAndGet();
+				LOGGER.warn(
+					"Could not send the message to " +
+						mail.getRecipient() +
+						"; it will be retried: " +
+						error);
+			}
+			else {
+				FAILED.incrementAndGet();
+				LOGGER.error(
+					"Could not send the message to " +
+						mail.getRecipient() +
+						" and it will not be retried: " +
+						error);
+			}
+		}
+		catch(ServiceException e) {
+			LOGGER.error(
+				"Could not update the mail queue for message " + mail.getId(),
+				e);
+		}
+	}
+
+	/**
+	 * Builds and sends a message.
+	 *
+	 * @param connection The connection to send it on.
+	 *
+	 * @param mail The message.
+	 *
+	 * @param content The message's body.
+	 *
+	 * @throws ServiceException The message could not be built.
+	 *
+	 * @throws MessagingException The message could not be sent.
+	 */
+	private static void sendMessage(
+			final Connection connection,
+			final QueuedMail mail,
+			final String content)
+			throws ServiceException, MessagingException {
+
+		Message message =
+			MailUtils.createMailMessage(
+				connection.session,
+				mail.getSender(),
+				mail.getRecipient(),
+				mail.getSubject(),
+				content,
+				mail.getContentType());
+
+		connection.transport.sendMessage(message, message.getAllRecipients());
+	}
+
+	/**
+	 * Returns this sender's connection to the mail server, connecting if it
+	 * doesn't have one.
+	 *
+	 * @return The connection.
+	 *
+	 * @throws ServiceException The connection could not be made.
+	 */
+	private Connection getConnection() throws ServiceException {
+		Connection result = connection.get();
+
+		if(result == null) {
+			if(session == null) {
+				Session current = MailUtils.getMailSession();
+				result =
+					new Connection(
+						current,
+						MailUtils.connectTransport(current));
+			}
+			else {
+				result =
+					new Connection(
+						session,
+						MailUtils.connectTransport(session, null, null));
+			}
+			CONNECTIONS.incrementAndGet();
+
+			connection.set(result);
+			connections.add(result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Closes and forgets this sender's connection to the mail server, if it
+	 * has one.
+	 */
+	private void closeConnection() {
+		Connection current = connection.get();
+
+		if(current != null) {
+			connection.remove();
+			connections.remove(current);
+			current.close();
+		}
+	}
+
+	/**
+	 * Stops the dispatcher and the senders and closes the connections. Any
+	 * unsent mail stays in the queue.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		running = false;
+		dispatcher.interrupt();
+
+		senders.shutdown();
+		senders.awaitTermination(10, TimeUnit.SECONDS);
+
+		for(Connection current : connections) {
+			current.close();
+		}
+		connections.clear();
+
+		instance = null;
+	}
+}
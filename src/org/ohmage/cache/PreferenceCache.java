@@ -73,6 +73,10 @@ public final class PreferenceCache extends KeyValueCache {
 	
 	// Visualization-specific information.
 	public static final String KEY_VISUALIZATION_SERVER = "visualization_server_address";
+	public static final String KEY_VISUALIZATION_CACHE_DIRECTORY = 
+			"visualization_cache_directory";
+	public static final String KEY_VISUALIZATION_CACHE_MAX_BYTES = 
+			"visualization_cache_max_bytes";
 	
 	// Whether or not Mobility is enabled.
 	public static final String KEY_MOBILITY_ENABLED = "mobility_enabled";
@@ -82,6 +86,27 @@ public final class PreferenceCache extends KeyValueCache {
 	public static final String KEY_MAX_SURVEY_RESPONSE_PAGE_SIZE = 
 			"max_survey_response_page_size";
 	
+	// The limits on uploads. See AdmissionController.
+	public static final String KEY_UPLOAD_USER_RATE = "upload_user_rate";
+	public static final String KEY_UPLOAD_USER_BURST = "upload_user_burst";
+	public static final String KEY_UPLOAD_CLIENT_RATE = "upload_client_rate";
+	public static final String KEY_UPLOAD_CLIENT_BURST = 
+			"upload_client_burst";
+	public static final String KEY_UPLOAD_MAX_IN_FLIGHT = 
+			"upload_max_in_flight";
+	public static final String KEY_UPLOAD_MAX_WAITING = "upload_max_waiting";
+	public static final String KEY_UPLOAD_MAX_WAIT_MILLIS = 
+			"upload_max_wait_millis";
+	
+	// The archive of old stream data. See StreamPartitionServices.
+	public static final String KEY_STREAM_ARCHIVE_DIRECTORY = 
+			"stream_archive_directory";
+	public static final String KEY_STREAM_ARCHIVE_AGE_DAYS = 
+			"stream_archive_age_days";
+	
+	// The directory to which export jobs write their results.
+	public static final String KEY_EXPORT_DIRECTORY = "export_directory";
+	
 	// Build-specific information.
 	public static final String KEY_APPLICATION_NAME = "application.name";
 	public static final String SQL_KEY_APPLICATION_NAME = "application_name";
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ohmage.domain.ResponseSnapshot;
+import org.ohmage.metrics.Metrics;
+
+/**
+ * <p>
+ * An in-memory cache of responses that rarely change and are requested
+ * often, stored as {@link ResponseSnapshot}s so that they may be written
+ * without being rebuilt.
+ * </p>
+ *
+ * <p>
+ * Each snapshot is stored with the version of the data from which it was
+ * built. A snapshot is only returned when the caller asks for the same
+ * version, so a snapshot of out-of-date data is simply never returned and is
+ * eventually replaced.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class ResponseSnapshotCache {
+	/**
+	 * The maximum number of campaigns whose XML is kept.
+	 */
+	private static final int MAX_CAMPAIGNS = 256;
+
+	/**
+	 * The maximum number of versions of a single campaign's XML that are
+	 * kept. There is one version per distinct set of masks applied to it.
+	 */
+	private static final int MAX_CAMPAIGN_VERSIONS = 32;
+
+	/**
+	 * The name under which the configuration lookups are recorded in the
+	 * metrics.
+	 */
+	private static final String METRICS_CONFIG = "config_snapshot";
+
+	/**
+	 * The name under which the campaign XML lookups are recorded in the
+	 * metrics.
+	 */
+	private static final String METRICS_CAMPAIGN_XML = "campaign_xml_snapshot";
+
+	/**
+	 * A snapshot and the version of the data from which it was built.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Entry {
+		private final long version;
+		private final ResponseSnapshot snapshot;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param version The version of the data.
+		 *
+		 * @param snapshot The snapshot.
+		 */
+		private Entry(final long version, final ResponseSnapshot snapshot) {
+			this.version = version;
+			this.snapshot = snapshot;
+		}
+	}
+
+	/**
+	 * The reference to one's self to return to requesters.
+	 */
+	private static ResponseSnapshotCache instance;
+
+	/**
+	 * The server's configuration.
+	 */
+	private volatile Entry serverConfig = null;
+
+	/**
+	 * The campaigns' IDs to their versions' XML, in the order in which they
+	 * were last accessed. All access must be synchronized on the map itself.
+	 */
+	private final LinkedHashMap<String, Map<String, ResponseSnapshot>>
+		campaignXml =
+			new LinkedHashMap<String, Map<String, ResponseSnapshot>>(
+				16,
+				0.75f,
+				true) {
+
+				private static final long serialVersionUID = 1L;
+
+				/**
+				 * Removes the least recently used campaign once there are too
+				 * many.
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+						final Map.Entry<String, Map<String, ResponseSnapshot>> eldest) {
+
+					return size() > MAX_CAMPAIGNS;
+				}
+			};
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private ResponseSnapshotCache() {
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the instance of this class.
+	 *
+	 * @return The instance of this class.
+	 */
+	public static ResponseSnapshotCache instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the snapshot of the server's configuration.
+	 *
+	 * @param version The current version of the configuration.
+	 *
+	 * @return The snapshot or null if there is no snapshot of this version.
+	 */
+	public ResponseSnapshot getServerConfig(final long version) {
+		Entry entry = serverConfig;
+		if((entry == null) || (entry.version != version)) {
+			Metrics.recordCacheLookup(METRICS_CONFIG, false);
+			return null;
+		}
+
+		Metrics.recordCacheLookup(METRICS_CONFIG, true);
+		return entry.snapshot;
+	}
+
+	/**
+	 * Stores the snapshot of the server's configuration, replacing any
+	 * existing one.
+	 *
+	 * @param version The version of the configuration from which the snapshot
+	 * 				  was built.
+	 *
+	 * @param snapshot The snapshot.
+	 */
+	public void putServerConfig(
+			final long version,
+			final ResponseSnapshot snapshot) {
+
+		serverConfig = new Entry(version, snapshot);
+	}
+
+	/**
+	 * Returns the snapshot of a campaign's XML.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param version The version of the XML, which includes any masks that
+	 * 				  are applied to it.
+	 *
+	 * @return The snapshot or null if there is no snapshot of this version.
+	 */
+	public ResponseSnapshot getCampaignXml(
+			final String campaignId,
+			final String version) {
+
+		synchronized(campaignXml) {
+			Map<String, ResponseSnapshot> versions =
+				campaignXml.get(campaignId);
+
+			ResponseSnapshot result =
+				(versions == null) ? null : versions.get(version);
+
+			Metrics.recordCacheLookup(METRICS_CAMPAIGN_XML, result != null);
+			return result;
+		}
+	}
+
+	/**
+	 * Stores the snapshot of a version of a campaign's XML.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param version The version of the XML from which the snapshot was
+	 * 				  built.
+	 *
+	 * @param snapshot The snapshot.
+	 */
+	public void putCampaignXml(
+			final String campaignId,
+			final String version,
+			final ResponseSnapshot snapshot) {
+
+		synchronized(campaignXml) {
+			Map<String, ResponseSnapshot> versions =
+				campaignXml.get(campaignId);
+
+			if(
+				(versions == null) ||
+				(versions.size() >= MAX_CAMPAIGN_VERSIONS)) {
+
+				versions = new HashMap<String, ResponseSnapshot>();
+				campaignXml.put(campaignId, versions);
+			}
+
+			versions.put(version, snapshot);
+		}
+	}
+
+	/**
+	 * Removes all of the snapshots of a campaign's XML. This should be called
+	 * whenever the campaign is updated or deleted.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 */
+	public void invalidateCampaign(final String campaignId) {
+		synchronized(campaignXml) {
+			campaignXml.remove(campaignId);
+		}
+	}
+}
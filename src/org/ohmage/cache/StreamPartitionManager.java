@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.StreamPartitionServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Once a day, adds the partitions for the coming months to the stream data
+ * and Mobility tables and archives the old stream data.
+ *
+ * @author John Jenkins
+ */
+public final class StreamPartitionManager 
+		extends TimerTask 
+		implements DisposableBean {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = 
+		Logger.getLogger(StreamPartitionManager.class);
+	
+	/**
+	 * The task that is periodically run to manage the partitions.
+	 */
+	private static final Timer MANAGER = 
+		new Timer(
+			"StreamPartitionManager - Managing the stream data partitions.",
+			true);
+	
+	/**
+	 * The number of milliseconds before the partitions are first managed,
+	 * which gives the server time to start.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_RUN = 1000 * 60 * 5;
+	
+	/**
+	 * The number of milliseconds between each run.
+	 */
+	private static final long MILLISECONDS_BETWEEN_RUNS = 
+		1000 * 60 * 60 * 24;
+	
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private StreamPartitionManager() {
+		LOGGER.info("Creating the stream partition manager, periodic task.");
+		
+		// Create the task that will be run periodically.
+		MANAGER.schedule(
+			this, 
+			MILLISECONDS_BEFORE_FIRST_RUN, 
+			MILLISECONDS_BETWEEN_RUNS);
+	}
+
+	/**
+	 * Calls to the stream partition services layer that manages the 
+	 * partitions.
+	 */
+	@Override
+	public void run() {
+		try {
+			LOGGER.info("Managing the stream data partitions.");
+			StreamPartitionServices.instance().managePartitions();
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to manage the stream data partitions.", e);
+		}
+	}
+
+	/**
+	 * Stops the task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		MANAGER.cancel();
+	}
+}
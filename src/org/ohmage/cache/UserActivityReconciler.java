@@ -0,0 +1,82 @@
+package org.ohmage.cache;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.UserActivityServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Periodically recomputes the per-user activity counters from the data. The
+ * uploads keep the counters current, but anything that changes or removes
+ * data by other means, such as deleting survey responses, is only reflected
+ * once this has run.
+ *
+ * @author John Jenkins
+ */
+public final class UserActivityReconciler extends TimerTask implements DisposableBean {
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(UserActivityReconciler.class);
+
+	/**
+	 * The task that is periodically run to recompute the counters.
+	 */
+	private static final Timer RECONCILER =
+		new Timer(
+			"UserActivityReconciler - Recomputing the user activity counters.",
+			true);
+
+	/**
+	 * The number of milliseconds before the first reconciliation, which is
+	 * short so that a new installation has counters shortly after starting.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_RECONCILIATION =
+		1000 * 60;
+
+	/**
+	 * The number of milliseconds between each reconciliation.
+	 */
+	private static final long MILLISECONDS_BETWEEN_RECONCILIATIONS =
+		1000 * 60 * 60;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private UserActivityReconciler() {
+		LOGGER.info("Creating the user activity reconciler, periodic task.");
+
+		// Create the task that will be run periodically.
+		RECONCILER.schedule(
+			this,
+			MILLISECONDS_BEFORE_FIRST_RECONCILIATION,
+			MILLISECONDS_BETWEEN_RECONCILIATIONS);
+	}
+
+	/**
+	 * Calls to the user activity services layer that recomputes the
+	 * counters.
+	 */
+	@Override
+	public void run() {
+		try {
+			LOGGER.info("Reconciling the user activity counters.");
+			UserActivityServices.instance().reconcileUserActivityStats();
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to reconcile the user activity counters.", e);
+		}
+	}
+
+	/**
+	 * Stops the reconciliation task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		RECONCILER.cancel();
+	}
+}
@@ -26,6 +26,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.Logger;
 import org.ohmage.domain.User;
 import org.ohmage.exception.DomainException;
+import org.ohmage.metrics.Metrics;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
@@ -43,6 +44,11 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 */
 	public static final int LIFETIME = 1000 * 60 * 15;
 	private static final int EXECUTION_PERIOD = 60000;
+	
+	/**
+	 * The name under which the token lookups are recorded in the metrics.
+	 */
+	private static final String METRICS_NAME = "user_token";
 
 	/**
 	 * A class for associating users to the time their token expires.
@@ -193,6 +199,7 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 */
 	public static synchronized User getUser(String id) {
 		UserTime ut = USERS.get(id);
+		Metrics.recordCacheLookup(METRICS_NAME, (ut != null) && (ut.user != null));
 		if(null != ut) {
 			User u = ut.user;
 			if(null != u) {
@@ -0,0 +1,1887 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.Clazz;
+import org.ohmage.domain.Document;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.impl.QueryResultsList;
+import org.ohmage.query.impl.QueryResultsList.QueryResultListBuilder;
+import org.ohmage.query.impl.ReadWriteRoutingDataSource;
+import org.ohmage.query.impl.TimedJdbcTemplate;
+import org.ohmage.util.CompressedBitmap;
+import org.ohmage.util.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * <p>
+ * An in-memory index of which documents and users each user may see. It
+ * holds the document, campaign, and class role tables as 
+ * {@link CompressedBitmap}s in both directions, e.g. the documents of each 
+ * campaign and the campaigns of each document, so that a user's visible 
+ * documents or users are a handful of unions and intersections of bitmaps
+ * instead of correlated subqueries over every role table.
+ * </p>
+ * 
+ * <p>
+ * The queries that change the role tables refresh the entities that they 
+ * changed after their transactions are committed. Each refresh is also 
+ * recorded in the database, and the index reads the changes recorded by the
+ * other servers at most once a second, before it is read, and refreshes the
+ * same entities, so a change made on one server is visible on every server
+ * within a second or two. The index is also rebuilt from scratch 
+ * periodically, which corrects for changes that were made directly in the 
+ * database. If a refresh fails, the index is discarded and rebuilt the next
+ * time it is read. The index is always read from and written to the 
+ * primary database, never a replica that may be behind.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class VisibilityIndex extends TimerTask implements DisposableBean {
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = 
+		Logger.getLogger(VisibilityIndex.class);
+	
+	/**
+	 * The task that is periodically run to rebuild the index.
+	 */
+	private static final Timer REBUILDER =
+		new Timer("VisibilityIndex - Rebuilding the visibility index.", true);
+	
+	/**
+	 * The number of milliseconds between each rebuild.
+	 */
+	private static final long MILLISECONDS_BETWEEN_REBUILDS =
+		1000 * 60 * 60;
+	
+	/**
+	 * The number of milliseconds that a username that is not a user is 
+	 * remembered, during which it is not looked up again.
+	 */
+	private static final long MILLISECONDS_TO_REMEMBER_MISSING_USERS =
+		1000 * 30;
+	
+	/**
+	 * The largest number of usernames that are not users that are 
+	 * remembered. Past this, they are all forgotten.
+	 */
+	private static final int MAX_MISSING_USERS = 10000;
+	
+	/**
+	 * The least number of milliseconds between each read of the changes
+	 * that the other servers have recorded.
+	 */
+	private static final long MILLISECONDS_BETWEEN_POLLS = 1000;
+	
+	/**
+	 * The number of seconds after which a change is assumed to have been
+	 * committed along with every change before it. The changes' IDs are
+	 * taken when they are inserted but they may be committed in a different
+	 * order, so the changes that are newer than this are read again until
+	 * they settle in case one with a smaller ID appears among them.
+	 */
+	private static final int SECONDS_TO_SETTLE = 10;
+	
+	/**
+	 * The number of hours for which the changes are kept. This must be
+	 * longer than the time between rebuilds, after which a server no longer
+	 * needs the changes from before its rebuild.
+	 */
+	private static final int HOURS_TO_KEEP_CHANGES = 24;
+	
+	/**
+	 * The kinds of entities whose changes are recorded.
+	 */
+	private static final String CHANGE_DOCUMENT = "document";
+	private static final String CHANGE_CAMPAIGN = "campaign";
+	private static final String CHANGE_CLASS = "class";
+	private static final String CHANGE_USER = "user";
+	
+	/**
+	 * The order in which users are paged, which is the order of the
+	 * database's case-insensitive collation of their usernames.
+	 */
+	private static final Comparator<String> USERNAME_ORDER =
+		new Comparator<String>() {
+			/**
+			 * Compares the usernames ignoring case and then by case, so that
+			 * two different usernames are never the same.
+			 */
+			@Override
+			public int compare(final String first, final String second) {
+				int result = 
+					String.CASE_INSENSITIVE_ORDER.compare(first, second);
+				return (result == 0) ? first.compareTo(second) : result;
+			}
+		};
+	
+	// Records that an entity has changed.
+	private static final String SQL_INSERT_CHANGE =
+		"INSERT INTO visibility_index_change(source, entity_type, entity_id) " +
+		"VALUES (?, ?, ?)";
+	
+	// Retrieves the changes after some change and whether or not each is
+	// old enough to have settled.
+	private static final String SQL_GET_CHANGES =
+		"SELECT id, source, entity_type, entity_id, " +
+			"(creation_timestamp < " +
+				"(now() - INTERVAL " + SECONDS_TO_SETTLE + " SECOND)) " +
+				"AS settled " +
+		"FROM visibility_index_change " +
+		"WHERE id > ? " +
+		"ORDER BY id";
+	
+	// Retrieves the latest change.
+	private static final String SQL_GET_LATEST_CHANGE =
+		"SELECT COALESCE(MAX(id), 0) " +
+		"FROM visibility_index_change";
+	
+	// Deletes the old changes.
+	private static final String SQL_DELETE_OLD_CHANGES =
+		"DELETE FROM visibility_index_change " +
+		"WHERE creation_timestamp < " +
+			"(now() - INTERVAL " + HOURS_TO_KEEP_CHANGES + " HOUR)";
+	
+	// Retrieves every user and whether or not they are an admin.
+	private static final String SQL_GET_USERS =
+		"SELECT id, username, admin " +
+		"FROM user";
+	
+	// Retrieves every campaign.
+	private static final String SQL_GET_CAMPAIGNS =
+		"SELECT id, urn " +
+		"FROM campaign";
+	
+	// Retrieves every class.
+	private static final String SQL_GET_CLASSES =
+		"SELECT id, urn " +
+		"FROM class";
+	
+	// Retrieves every document and whether or not it is shared.
+	private static final String SQL_GET_DOCUMENTS =
+		"SELECT d.id, d.uuid, " +
+			"(dps.privacy_state = '" + 
+				Document.PrivacyState.SHARED.toString() + 
+			"') AS shared " +
+		"FROM document d, document_privacy_state dps " +
+		"WHERE d.privacy_state_id = dps.id";
+	
+	// Retrieves every user's campaigns and whether or not they are a 
+	// supervisor in each.
+	private static final String SQL_GET_CAMPAIGN_USERS =
+		"SELECT urc.campaign_id, urc.user_id, " +
+			"(ur.role = '" + 
+				Campaign.Role.SUPERVISOR.toString() + 
+			"') AS flag " +
+		"FROM user_role_campaign urc, user_role ur " +
+		"WHERE urc.user_role_id = ur.id";
+	
+	// Retrieves every user's classes and whether or not they are privileged
+	// in each.
+	private static final String SQL_GET_CLASS_USERS =
+		"SELECT uc.class_id, uc.user_id, " +
+			"(ucr.role = '" + 
+				Clazz.Role.PRIVILEGED.toString() + 
+			"') AS flag " +
+		"FROM user_class uc, user_class_role ucr " +
+		"WHERE uc.user_class_role_id = ucr.id";
+	
+	// Retrieves every user's documents and whether or not they are an owner
+	// of each.
+	private static final String SQL_GET_USER_DOCUMENTS =
+		"SELECT dur.user_id, dur.document_id, " +
+			"(dr.role = '" + Document.Role.OWNER.toString() + "') AS flag " +
+		"FROM document_user_role dur, document_role dr " +
+		"WHERE dur.document_role_id = dr.id";
+	
+	// Retrieves every campaign's documents and whether or not the campaign 
+	// is an owner of each.
+	private static final String SQL_GET_CAMPAIGN_DOCUMENTS =
+		"SELECT dcr.campaign_id, dcr.document_id, " +
+			"(dr.role = '" + Document.Role.OWNER.toString() + "') AS flag " +
+		"FROM document_campaign_role dcr, document_role dr " +
+		"WHERE dcr.document_role_id = dr.id";
+	
+	// Retrieves every class's documents and whether or not the class is an
+	// owner of each.
+	private static final String SQL_GET_CLASS_DOCUMENTS =
+		"SELECT dcr.class_id, dcr.document_id, " +
+			"(dr.role = '" + Document.Role.OWNER.toString() + "') AS flag " +
+		"FROM document_class_role dcr, document_role dr " +
+		"WHERE dcr.document_role_id = dr.id";
+	
+	/**
+	 * A many-to-many relationship between two kinds of IDs that is kept in
+	 * both directions.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class Relation {
+		private final Map<Integer, CompressedBitmap> forward =
+			new HashMap<Integer, CompressedBitmap>();
+		private final Map<Integer, CompressedBitmap> reverse =
+			new HashMap<Integer, CompressedBitmap>();
+		
+		/**
+		 * Relates two IDs.
+		 * 
+		 * @param from The ID on the left-hand side.
+		 * 
+		 * @param to The ID on the right-hand side.
+		 */
+		private void add(final int from, final int to) {
+			add(forward, from, to);
+			add(reverse, to, from);
+		}
+		
+		/**
+		 * Returns the right-hand IDs related to a left-hand ID.
+		 * 
+		 * @param from The left-hand ID.
+		 * 
+		 * @return The right-hand IDs, which must not be changed, or null if
+		 * 		   there are none.
+		 */
+		private CompressedBitmap get(final int from) {
+			return forward.get(from);
+		}
+		
+		/**
+		 * Returns the left-hand IDs related to a right-hand ID.
+		 * 
+		 * @param to The right-hand ID.
+		 * 
+		 * @return The left-hand IDs, which must not be changed, or null if 
+		 * 		   there are none.
+		 */
+		private CompressedBitmap getReverse(final int to) {
+			return reverse.get(to);
+		}
+		
+		/**
+		 * Replaces all of the right-hand IDs related to a left-hand ID.
+		 * 
+		 * @param from The left-hand ID.
+		 * 
+		 * @param tos The new right-hand IDs, which may be null if there are
+		 * 			  none.
+		 */
+		private void setForward(final int from, final CompressedBitmap tos) {
+			replace(forward, reverse, from, tos);
+		}
+		
+		/**
+		 * Replaces all of the left-hand IDs related to a right-hand ID.
+		 * 
+		 * @param to The right-hand ID.
+		 * 
+		 * @param froms The new left-hand IDs, which may be null if there are
+		 * 				none.
+		 */
+		private void setReverse(final int to, final CompressedBitmap froms) {
+			replace(reverse, forward, to, froms);
+		}
+		
+		/**
+		 * Replaces the IDs related to one ID in one direction and updates the
+		 * other direction to match.
+		 * 
+		 * @param map The direction being replaced.
+		 * 
+		 * @param other The other direction.
+		 * 
+		 * @param key The ID whose related IDs are being replaced.
+		 * 
+		 * @param values The new related IDs, which may be null.
+		 */
+		private static void replace(
+				final Map<Integer, CompressedBitmap> map,
+				final Map<Integer, CompressedBitmap> other,
+				final int key,
+				final CompressedBitmap values) {
+			
+			CompressedBitmap oldValues = map.remove(key);
+			if(oldValues != null) {
+				for(int value : oldValues.toArray()) {
+					CompressedBitmap keys = other.get(value);
+					keys.remove(key);
+					if(keys.isEmpty()) {
+						other.remove(value);
+					}
+				}
+			}
+			
+			if((values != null) && (! values.isEmpty())) {
+				map.put(key, values.copy());
+				for(int value : values.toArray()) {
+					add(other, value, key);
+				}
+			}
+		}
+		
+		/**
+		 * Adds an ID to the IDs related to another ID in one direction.
+		 * 
+		 * @param map The direction.
+		 * 
+		 * @param key The ID.
+		 * 
+		 * @param value The related ID.
+		 */
+		private static void add(
+				final Map<Integer, CompressedBitmap> map,
+				final int key,
+				final int value) {
+			
+			CompressedBitmap values = map.get(key);
+			if(values == null) {
+				values = new CompressedBitmap();
+				map.put(key, values);
+			}
+			values.add(value);
+		}
+	}
+	
+	/**
+	 * A relationship in which each pair of IDs has a flag, e.g. a user's
+	 * membership in a campaign and whether or not they are a supervisor. The
+	 * pairs are kept in one relation and the flagged pairs are also kept in 
+	 * another.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class FlaggedRelation {
+		private final Relation all = new Relation();
+		private final Relation flagged = new Relation();
+		
+		/**
+		 * Loads the rows of a query whose columns are the left-hand ID, the
+		 * right-hand ID, and the flag.
+		 * 
+		 * @param jdbcTemplate The template with which to run the query.
+		 * 
+		 * @param sql The SQL.
+		 * 
+		 * @param parameters The SQL's parameters.
+		 * 
+		 * @throws DataAccessException There was an error running the query.
+		 */
+		private void load(
+				final JdbcTemplate jdbcTemplate,
+				final String sql,
+				final Object... parameters)
+				throws DataAccessException {
+			
+			try {
+				jdbcTemplate.query(
+					sql,
+					parameters,
+					new RowCallbackHandler() {
+						/**
+						 * Adds the row to the relations.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs)
+								throws SQLException {
+							
+							int from = rs.getInt(1);
+							int to = rs.getInt(2);
+							
+							all.add(from, to);
+							if(rs.getBoolean(3)) {
+								flagged.add(from, to);
+							}
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + sql + "'.", 
+					e);
+			}
+		}
+		
+		/**
+		 * Replaces the right-hand IDs of a left-hand ID with the ones from 
+		 * another relation.
+		 * 
+		 * @param from The left-hand ID.
+		 * 
+		 * @param source The relation with the new IDs.
+		 */
+		private void setForward(final int from, final FlaggedRelation source) {
+			all.setForward(from, source.all.get(from));
+			flagged.setForward(from, source.flagged.get(from));
+		}
+		
+		/**
+		 * Replaces the left-hand IDs of a right-hand ID with the ones from
+		 * another relation.
+		 * 
+		 * @param to The right-hand ID.
+		 * 
+		 * @param source The relation with the new IDs.
+		 */
+		private void setReverse(final int to, final FlaggedRelation source) {
+			all.setReverse(to, source.all.getReverse(to));
+			flagged.setReverse(to, source.flagged.getReverse(to));
+		}
+	}
+	
+	/**
+	 * The contents of the index.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class State {
+		// Ordered by username, so the users can be paged.
+		private final Map<String, Integer> userIds = 
+			new TreeMap<String, Integer>(USERNAME_ORDER);
+		private final Map<Integer, String> usernames =
+			new HashMap<Integer, String>();
+		private final Map<String, Integer> campaignIds = 
+			new HashMap<String, Integer>();
+		private final Map<String, Integer> classIds = 
+			new HashMap<String, Integer>();
+		private final Map<String, Integer> documentIds = 
+			new HashMap<String, Integer>();
+		
+		private final CompressedBitmap admins = new CompressedBitmap();
+		private final CompressedBitmap sharedDocuments = 
+			new CompressedBitmap();
+		
+		// Campaign to user, flagged for supervisors.
+		private final FlaggedRelation campaignUsers = new FlaggedRelation();
+		// Class to user, flagged for privileged users.
+		private final FlaggedRelation classUsers = new FlaggedRelation();
+		// User to document, flagged for owners.
+		private final FlaggedRelation userDocuments = new FlaggedRelation();
+		// Campaign to document, flagged for owners.
+		private final FlaggedRelation campaignDocuments = 
+			new FlaggedRelation();
+		// Class to document, flagged for owners.
+		private final FlaggedRelation classDocuments = new FlaggedRelation();
+	}
+	
+	/**
+	 * The reference to one's self to return to requesters.
+	 */
+	private static VisibilityIndex instance;
+	
+	/**
+	 * The template with which the index is built.
+	 */
+	private final JdbcTemplate jdbcTemplate;
+	
+	/**
+	 * Guards the state. Readers hold the read lock while they compute their
+	 * results and updates hold the write lock while they change it.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * Serializes the rebuilds and refreshes so that they are applied in the
+	 * same order in which they read the database.
+	 */
+	private final Object updateLock = new Object();
+	
+	/**
+	 * The contents of the index or null if it must be rebuilt.
+	 */
+	private State state = null;
+	
+	/**
+	 * The usernames that were looked up and are not users, mapped to the
+	 * time after which they must be looked up again.
+	 */
+	private final ConcurrentMap<String, Long> missingUsers =
+		new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * Identifies the changes that this index recorded, so that it doesn't 
+	 * apply them a second time.
+	 */
+	private final String source = UUID.randomUUID().toString();
+	
+	/**
+	 * The least number of milliseconds between each read of the changes.
+	 */
+	private final long millisBetweenPolls;
+	
+	/**
+	 * The last time the changes were read.
+	 */
+	private volatile long lastPollMillis = 0;
+	
+	/**
+	 * The ID of the latest change that has been applied and before which 
+	 * every change has been applied. This is guarded by the update lock.
+	 */
+	private long lastChangeId = 0;
+	
+	/**
+	 * The IDs of the changes after the latest change that have already been
+	 * applied. This is guarded by the update lock.
+	 */
+	private final Set<Long> appliedChanges = new HashSet<Long>();
+	
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 * 
+	 * @param dataSource The DataSource to use to build the index.
+	 */
+	private VisibilityIndex(final DataSource dataSource) {
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+		
+		LOGGER.info("Creating the visibility index, periodic task.");
+		
+		jdbcTemplate = 
+			new TimedJdbcTemplate(dataSource, getClass().getSimpleName());
+		millisBetweenPolls = MILLISECONDS_BETWEEN_POLLS;
+		
+		// Create the task that will be run periodically. The first build is
+		// done by the first request that needs it.
+		REBUILDER.schedule(
+			this,
+			MILLISECONDS_BETWEEN_REBUILDS,
+			MILLISECONDS_BETWEEN_REBUILDS);
+		
+		instance = this;
+	}
+	
+	/**
+	 * Creates an index that is built with the given template, never reads 
+	 * the other servers' changes, and is neither rebuilt periodically nor 
+	 * returned by {@link #instance()}. This is for testing.
+	 * 
+	 * @param jdbcTemplate The template with which to build the index.
+	 */
+	VisibilityIndex(final JdbcTemplate jdbcTemplate) {
+		this(jdbcTemplate, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Creates an index that is built with the given template and is neither
+	 * rebuilt periodically nor returned by {@link #instance()}. This is for
+	 * testing.
+	 * 
+	 * @param jdbcTemplate The template with which to build the index.
+	 * 
+	 * @param millisBetweenPolls The least number of milliseconds between 
+	 * 							 each read of the other servers' changes.
+	 */
+	VisibilityIndex(
+			final JdbcTemplate jdbcTemplate,
+			final long millisBetweenPolls) {
+		
+		this.jdbcTemplate = jdbcTemplate;
+		this.millisBetweenPolls = millisBetweenPolls;
+	}
+	
+	/**
+	 * Returns the instance of this class.
+	 * 
+	 * @return The instance of this class.
+	 */
+	public static VisibilityIndex instance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns the IDs of the documents that a user may see. This is the same
+	 * as the document read rules: a document must be associated with the 
+	 * user directly or through the given campaigns and classes, or through
+	 * any of the user's campaigns and classes if none are given, and it must
+	 * be shared, owned by the user, or owned by or associated with a 
+	 * campaign in which the user is a supervisor or a class in which they 
+	 * are privileged. Admins may see every associated document.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param personalDocuments Whether or not to include the documents that 
+	 * 							are directly associated with the user.
+	 * 
+	 * @param campaignIds The campaigns whose documents should be included,
+	 * 					  which may be null.
+	 * 
+	 * @param classIds The classes whose documents should be included, which
+	 * 				   may be null.
+	 * 
+	 * @return The documents' database IDs or null if the user may see every
+	 * 		   document.
+	 * 
+	 * @throws DataAccessException The index could not be built.
+	 */
+	public CompressedBitmap getVisibleDocuments(
+			final String username,
+			final Boolean personalDocuments,
+			final Collection<String> campaignIds,
+			final Collection<String> classIds) 
+			throws DataAccessException {
+		
+		while(true) {
+			Integer userId = getUserId(username);
+			
+			lock.readLock().lock();
+			try {
+				// The index was discarded after it was read, so read it again.
+				if(state == null) {
+					continue;
+				}
+				
+				CompressedBitmap result = new CompressedBitmap();
+				if(userId == null) {
+					return result;
+				}
+				
+				boolean admin = state.admins.contains(userId);
+				
+				CompressedBitmap userCampaigns = 
+					state.campaignUsers.all.getReverse(userId);
+				CompressedBitmap userClasses = 
+					state.classUsers.all.getReverse(userId);
+				
+				// Get the documents that are associated with the user in the
+				// requested ways.
+				if(Boolean.TRUE.equals(personalDocuments)) {
+					orInto(result, state.userDocuments.all.get(userId));
+				}
+				else if((campaignIds == null) && (classIds == null)) {
+					if(admin) {
+						return null;
+					}
+					
+					orInto(result, state.userDocuments.all.get(userId));
+					orAll(result, state.campaignDocuments.all, userCampaigns);
+					orAll(result, state.classDocuments.all, userClasses);
+				}
+				
+				if(campaignIds != null) {
+					for(String campaignId : campaignIds) {
+						Integer id = state.campaignIds.get(campaignId);
+						if((id != null) && 
+							(userCampaigns != null) && 
+							userCampaigns.contains(id)) {
+							
+							orInto(result, state.campaignDocuments.all.get(id));
+						}
+					}
+				}
+				
+				if(classIds != null) {
+					for(String classId : classIds) {
+						Integer id = state.classIds.get(classId);
+						if((id != null) && 
+							(userClasses != null) && 
+							userClasses.contains(id)) {
+							
+							orInto(result, state.classDocuments.all.get(id));
+						}
+					}
+				}
+				
+				if(admin || result.isEmpty()) {
+					return result;
+				}
+				
+				// Limit them to the ones that the user may read.
+				CompressedBitmap readable = state.sharedDocuments.copy();
+				orInto(readable, state.userDocuments.flagged.get(userId));
+				orReadable(
+					readable, 
+					userCampaigns, 
+					state.campaignUsers.flagged.getReverse(userId),
+					state.campaignDocuments);
+				orReadable(
+					readable, 
+					userClasses, 
+					state.classUsers.flagged.getReverse(userId),
+					state.classDocuments);
+				
+				result.and(readable);
+				return result;
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the IDs of the users whose information a user may see. This is
+	 * the same as the user read rules: a user may see themselves, the users
+	 * in the campaigns in which they are a supervisor, and the users in the
+	 * classes in which they are privileged. Admins may see every user.
+	 * 
+	 * @param requesterUsername The requesting user's username.
+	 * 
+	 * @param settingUpUser Whether or not the user is being set up, in which
+	 * 						case every user is visible.
+	 * 
+	 * @param campaignIds Limits the users to those in any of these 
+	 * 					  campaigns, which may be null.
+	 * 
+	 * @param classIds Limits the users to those in any of these classes, 
+	 * 				   which may be null.
+	 * 
+	 * @return The users' database IDs or null if the user may see every 
+	 * 		   user.
+	 * 
+	 * @throws DataAccessException The index could not be built.
+	 */
+	public CompressedBitmap getVisibleUsers(
+			final String requesterUsername,
+			final boolean settingUpUser,
+			final Collection<String> campaignIds,
+			final Collection<String> classIds)
+			throws DataAccessException {
+		
+		while(true) {
+			Integer userId = getUserId(requesterUsername);
+			
+			lock.readLock().lock();
+			try {
+				// The index was discarded after it was read, so read it again.
+				if(state == null) {
+					continue;
+				}
+				
+				if(userId == null) {
+					return new CompressedBitmap();
+				}
+				
+				CompressedBitmap result = null;
+				if((! settingUpUser) && (! state.admins.contains(userId))) {
+					result = CompressedBitmap.of(userId);
+					orAll(
+						result, 
+						state.campaignUsers.all, 
+						state.campaignUsers.flagged.getReverse(userId));
+					orAll(
+						result, 
+						state.classUsers.all, 
+						state.classUsers.flagged.getReverse(userId));
+				}
+				
+				if((campaignIds != null) && (! campaignIds.isEmpty())) {
+					result = 
+						limit(
+							result, 
+							state.campaignUsers, 
+							state.campaignIds, 
+							campaignIds);
+				}
+				
+				if((classIds != null) && (! classIds.isEmpty())) {
+					result = 
+						limit(
+							result, 
+							state.classUsers, 
+							state.classIds, 
+							classIds);
+				}
+				
+				return result;
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Brings a document up to date after it was created, updated, or 
+	 * deleted.
+	 * 
+	 * @param documentId The document's unique identifier.
+	 */
+	public void refreshDocument(final String documentId) {
+		recordChanges(CHANGE_DOCUMENT, Collections.singleton(documentId));
+		applyDocument(documentId);
+	}
+	
+	/**
+	 * Brings a campaign up to date after it was created, updated, or 
+	 * deleted.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 */
+	public void refreshCampaign(final String campaignId) {
+		recordChanges(CHANGE_CAMPAIGN, Collections.singleton(campaignId));
+		applyCampaign(campaignId);
+	}
+	
+	/**
+	 * Brings a class up to date after it was created, updated, or deleted.
+	 * Changing a class's users also changes their campaigns, so the users 
+	 * that were or are in the class are brought up to date as well.
+	 * 
+	 * @param classId The class's unique identifier.
+	 */
+	public void refreshClass(final String classId) {
+		recordChanges(CHANGE_CLASS, Collections.singleton(classId));
+		applyClass(classId);
+	}
+	
+	/**
+	 * Brings a user up to date after they were created, updated, or deleted,
+	 * or were added to or removed from campaigns, classes, or documents.
+	 * 
+	 * @param username The user's username.
+	 */
+	public void refreshUser(final String username) {
+		refreshUsers(Collections.singleton(username));
+	}
+	
+	/**
+	 * Brings users up to date after they were created, updated, or deleted,
+	 * or were added to or removed from campaigns, classes, or documents.
+	 * 
+	 * @param usernames The users' usernames.
+	 */
+	public void refreshUsers(final Collection<String> usernames) {
+		if(usernames.isEmpty()) {
+			return;
+		}
+		
+		recordChanges(CHANGE_USER, usernames);
+		applyUsers(usernames);
+	}
+	
+	/**
+	 * Brings a document up to date.
+	 * 
+	 * @param documentId The document's unique identifier.
+	 */
+	private void applyDocument(final String documentId) {
+		synchronized(updateLock) {
+			if(state == null) {
+				return;
+			}
+			
+			boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				final List<Integer> ids = new LinkedList<Integer>();
+				final List<Boolean> shared = new LinkedList<Boolean>();
+				jdbcTemplate.query(
+					SQL_GET_DOCUMENTS + " AND d.uuid = ?",
+					new Object[] { documentId },
+					new RowCallbackHandler() {
+						/**
+						 * Records the document.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs) 
+								throws SQLException {
+							
+							ids.add(rs.getInt(1));
+							shared.add(rs.getBoolean(3));
+						}
+					});
+				
+				FlaggedRelation userDocuments = new FlaggedRelation();
+				FlaggedRelation campaignDocuments = new FlaggedRelation();
+				FlaggedRelation classDocuments = new FlaggedRelation();
+				if(! ids.isEmpty()) {
+					int id = ids.get(0);
+					userDocuments.load(
+						jdbcTemplate, 
+						SQL_GET_USER_DOCUMENTS + " AND dur.document_id = ?",
+						id);
+					campaignDocuments.load(
+						jdbcTemplate, 
+						SQL_GET_CAMPAIGN_DOCUMENTS + " AND dcr.document_id = ?",
+						id);
+					classDocuments.load(
+						jdbcTemplate, 
+						SQL_GET_CLASS_DOCUMENTS + " AND dcr.document_id = ?",
+						id);
+				}
+				
+				lock.writeLock().lock();
+				try {
+					Integer id;
+					if(ids.isEmpty()) {
+						id = state.documentIds.remove(documentId);
+						if(id == null) {
+							return;
+						}
+						state.sharedDocuments.remove(id);
+					}
+					else {
+						id = ids.get(0);
+						state.documentIds.put(documentId, id);
+						if(shared.get(0)) {
+							state.sharedDocuments.add(id);
+						}
+						else {
+							state.sharedDocuments.remove(id);
+						}
+					}
+					
+					state.userDocuments.setReverse(id, userDocuments);
+					state.campaignDocuments.setReverse(id, campaignDocuments);
+					state.classDocuments.setReverse(id, classDocuments);
+				}
+				finally {
+					lock.writeLock().unlock();
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				discard("document " + documentId, e);
+			}
+			catch(DataAccessException e) {
+				discard("document " + documentId, e);
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+		}
+	}
+	
+	/**
+	 * Brings a campaign up to date.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 */
+	private void applyCampaign(final String campaignId) {
+		refreshContainer(
+			campaignId, 
+			SQL_GET_CAMPAIGNS + " WHERE urn = ?",
+			SQL_GET_CAMPAIGN_USERS + " AND urc.campaign_id = ?",
+			SQL_GET_CAMPAIGN_DOCUMENTS + " AND dcr.campaign_id = ?",
+			true);
+	}
+	
+	/**
+	 * Brings a class and the users that were or are in it up to date.
+	 * 
+	 * @param classId The class's unique identifier.
+	 */
+	private void applyClass(final String classId) {
+		refreshContainer(
+			classId, 
+			SQL_GET_CLASSES + " WHERE urn = ?",
+			SQL_GET_CLASS_USERS + " AND uc.class_id = ?",
+			SQL_GET_CLASS_DOCUMENTS + " AND dcr.class_id = ?",
+			false);
+	}
+	
+	/**
+	 * Brings users up to date.
+	 * 
+	 * @param usernames The users' usernames.
+	 */
+	private void applyUsers(final Collection<String> usernames) {
+		synchronized(updateLock) {
+			for(String username : usernames) {
+				missingUsers.remove(username);
+			}
+			
+			if(state == null) {
+				return;
+			}
+			
+			boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				refreshUsers(
+					"username IN " + 
+						StringUtils.generateStatementPList(usernames.size()),
+					usernames.toArray(),
+					usernames,
+					new CompressedBitmap());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				discard("users " + usernames, e);
+			}
+			catch(DataAccessException e) {
+				discard("users " + usernames, e);
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the index from scratch.
+	 * 
+	 * @throws DataAccessException There was an error reading the database.
+	 */
+	public void rebuild() throws DataAccessException {
+		synchronized(updateLock) {
+			LOGGER.info("Building the visibility index.");
+			long start = System.currentTimeMillis();
+			
+			final State newState = new State();
+			long latestChangeId;
+			boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				// Every change after this one is applied after the index is
+				// built, even if it is already in the index.
+				latestChangeId = jdbcTemplate.queryForLong(SQL_GET_LATEST_CHANGE);
+				
+				jdbcTemplate.query(
+					SQL_GET_USERS, 
+					new RowCallbackHandler() {
+						/**
+						 * Records the user.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs) 
+								throws SQLException {
+							
+							int id = rs.getInt(1);
+							String username = rs.getString(2);
+							newState.userIds.put(username, id);
+							newState.usernames.put(id, username);
+							if(rs.getBoolean(3)) {
+								newState.admins.add(id);
+							}
+						}
+					});
+				
+				loadIds(SQL_GET_CAMPAIGNS, newState.campaignIds);
+				loadIds(SQL_GET_CLASSES, newState.classIds);
+				
+				jdbcTemplate.query(
+					SQL_GET_DOCUMENTS, 
+					new RowCallbackHandler() {
+						/**
+						 * Records the document.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs) 
+								throws SQLException {
+							
+							int id = rs.getInt(1);
+							newState.documentIds.put(rs.getString(2), id);
+							if(rs.getBoolean(3)) {
+								newState.sharedDocuments.add(id);
+							}
+						}
+					});
+				
+				newState.campaignUsers.load(
+					jdbcTemplate, 
+					SQL_GET_CAMPAIGN_USERS);
+				newState.classUsers.load(jdbcTemplate, SQL_GET_CLASS_USERS);
+				newState.userDocuments.load(
+					jdbcTemplate, 
+					SQL_GET_USER_DOCUMENTS);
+				newState.campaignDocuments.load(
+					jdbcTemplate, 
+					SQL_GET_CAMPAIGN_DOCUMENTS);
+				newState.classDocuments.load(
+					jdbcTemplate, 
+					SQL_GET_CLASS_DOCUMENTS);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error building the visibility index.", 
+					e);
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+			
+			lock.writeLock().lock();
+			try {
+				state = newState;
+				missingUsers.clear();
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			lastChangeId = latestChangeId;
+			appliedChanges.clear();
+			
+			LOGGER.info(
+				"Built the visibility index for " + 
+					newState.userIds.size() + 
+					" users and " + 
+					newState.documentIds.size() + 
+					" documents in " + 
+					(System.currentTimeMillis() - start) + 
+					"ms.");
+		}
+	}
+	
+	/**
+	 * Returns a page of users in the order of their usernames.
+	 * 
+	 * @param userIds The users' database IDs or null for every user.
+	 * 
+	 * @param numToSkip The number of users to skip.
+	 * 
+	 * @param numToReturn The number of users to return after the skipped 
+	 * 					  ones.
+	 * 
+	 * @return The database IDs of the users in the page, in order, and the
+	 * 		   total number of users.
+	 * 
+	 * @throws DataAccessException The index could not be built.
+	 */
+	public QueryResultsList<Integer> getUserPage(
+			final CompressedBitmap userIds,
+			final long numToSkip,
+			final long numToReturn)
+			throws DataAccessException {
+		
+		long pageEnd = 
+			(numToReturn > Long.MAX_VALUE - numToSkip) ?
+				Long.MAX_VALUE :
+				numToSkip + numToReturn;
+		
+		while(true) {
+			pollChanges();
+			synchronized(updateLock) {
+				if(state == null) {
+					rebuild();
+				}
+			}
+			
+			lock.readLock().lock();
+			try {
+				// The index was discarded after it was built, so build it 
+				// again.
+				if(state == null) {
+					continue;
+				}
+				
+				List<Integer> page = new ArrayList<Integer>();
+				if(userIds == null) {
+					long index = 0;
+					for(Integer id : state.userIds.values()) {
+						if(index >= pageEnd) {
+							break;
+						}
+						if(index++ >= numToSkip) {
+							page.add(id);
+						}
+					}
+					return 
+						(new QueryResultListBuilder<Integer>(
+							state.userIds.size(), 
+							page))
+						.getQueryResult();
+				}
+				
+				List<String> usernames = 
+					new ArrayList<String>(userIds.getCardinality());
+				for(int id : userIds.toArray()) {
+					String username = state.usernames.get(id);
+					if(username != null) {
+						usernames.add(username);
+					}
+				}
+				Collections.sort(usernames, USERNAME_ORDER);
+				
+				int end = (int) Math.min(usernames.size(), pageEnd);
+				for(int i = (int) Math.min(end, numToSkip); i < end; i++) {
+					page.add(state.userIds.get(usernames.get(i)));
+				}
+				return 
+					(new QueryResultListBuilder<Integer>(
+						usernames.size(), 
+						page))
+					.getQueryResult();
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the index and deletes the changes that are no longer needed.
+	 */
+	@Override
+	public void run() {
+		try {
+			rebuild();
+		}
+		catch(DataAccessException e) {
+			LOGGER.error("Failed to rebuild the visibility index.", e);
+		}
+		
+		boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+		try {
+			jdbcTemplate.update(SQL_DELETE_OLD_CHANGES);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error(
+				"Error executing SQL '" + SQL_DELETE_OLD_CHANGES + "'.", 
+				e);
+		}
+		finally {
+			ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+		}
+	}
+	
+	/**
+	 * Stops the rebuild task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		REBUILDER.cancel();
+	}
+	
+	/**
+	 * Returns a user's database ID, building the index first if necessary. 
+	 * A user that is not in the index, e.g. one that was created by a query
+	 * that doesn't refresh the index, is looked up before giving up on them.
+	 * A username that is still not a user is not looked up again for a short
+	 * time, so requests for unknown usernames don't each read the database.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The user's database ID or null if there is no such user.
+	 * 
+	 * @throws DataAccessException The index could not be built.
+	 */
+	private Integer getUserId(
+			final String username) 
+			throws DataAccessException {
+		
+		pollChanges();
+		
+		for(int attempt = 0; attempt < 2; attempt++) {
+			lock.readLock().lock();
+			try {
+				if(state != null) {
+					Integer result = state.userIds.get(username);
+					if((result != null) || isMissingUser(username)) {
+						return result;
+					}
+					if(attempt > 0) {
+						addMissingUser(username);
+						return null;
+					}
+				}
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+			
+			synchronized(updateLock) {
+				if(state == null) {
+					rebuild();
+				}
+				else {
+					applyUsers(Collections.singleton(username));
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Records that entities have changed, so that the other servers bring 
+	 * them up to date in their indexes. If they can't be recorded, the other
+	 * servers won't see the changes until their indexes are rebuilt.
+	 * 
+	 * @param entityType The kind of the entities.
+	 * 
+	 * @param entityIds The entities' unique identifiers.
+	 */
+	private void recordChanges(
+			final String entityType, 
+			final Collection<String> entityIds) {
+		
+		List<Object[]> parameters = new ArrayList<Object[]>(entityIds.size());
+		for(String entityId : entityIds) {
+			parameters.add(new Object[] { source, entityType, entityId });
+		}
+		
+		boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+		try {
+			jdbcTemplate.batchUpdate(SQL_INSERT_CHANGE, parameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error(
+				"Error executing SQL '" + 
+					SQL_INSERT_CHANGE + 
+					"' for the " + 
+					entityType + 
+					" entities: " + 
+					entityIds, 
+				e);
+		}
+		finally {
+			ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+		}
+	}
+	
+	/**
+	 * Brings the entities that the other servers have changed up to date, 
+	 * if the changes haven't been read recently. Each change is applied 
+	 * once, and the changes that are not yet settled are read again, so a
+	 * change that is committed after a newer one is still applied.
+	 */
+	private void pollChanges() {
+		long now = System.currentTimeMillis();
+		if(now - lastPollMillis < millisBetweenPolls) {
+			return;
+		}
+		
+		synchronized(updateLock) {
+			if(
+				(now - lastPollMillis < millisBetweenPolls) || 
+				(state == null)) {
+				
+				return;
+			}
+			lastPollMillis = now;
+			
+			final List<Object[]> changes = new ArrayList<Object[]>();
+			boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				jdbcTemplate.query(
+					SQL_GET_CHANGES,
+					new Object[] { lastChangeId },
+					new RowCallbackHandler() {
+						/**
+						 * Records the change.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs) 
+								throws SQLException {
+							
+							changes.add(
+								new Object[] {
+									rs.getLong(1),
+									rs.getString(2),
+									rs.getString(3),
+									rs.getString(4),
+									rs.getBoolean(5) });
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				LOGGER.error(
+					"Error executing SQL '" + 
+						SQL_GET_CHANGES + 
+						"' with parameter: " + 
+						lastChangeId, 
+					e);
+				return;
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+			
+			Set<String> usernames = new HashSet<String>();
+			boolean settled = true;
+			for(Object[] change : changes) {
+				long id = (Long) change[0];
+				if(appliedChanges.add(id) && (! source.equals(change[1]))) {
+					String entityType = (String) change[2];
+					String entityId = (String) change[3];
+					
+					if(CHANGE_DOCUMENT.equals(entityType)) {
+						applyDocument(entityId);
+					}
+					else if(CHANGE_CAMPAIGN.equals(entityType)) {
+						applyCampaign(entityId);
+					}
+					else if(CHANGE_CLASS.equals(entityType)) {
+						applyClass(entityId);
+					}
+					else if(CHANGE_USER.equals(entityType)) {
+						usernames.add(entityId);
+					}
+				}
+				
+				// Only move past the changes that have settled and after 
+				// which no change may still appear.
+				settled = settled && (Boolean) change[4];
+				if(settled) {
+					lastChangeId = id;
+				}
+			}
+			if(! usernames.isEmpty()) {
+				applyUsers(usernames);
+			}
+			
+			Iterator<Long> appliedIter = appliedChanges.iterator();
+			while(appliedIter.hasNext()) {
+				if(appliedIter.next() <= lastChangeId) {
+					appliedIter.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns whether or not a username was recently found not to be a user.
+	 * 
+	 * @param username The username.
+	 * 
+	 * @return Whether or not the username is remembered as not being a user.
+	 */
+	private boolean isMissingUser(final String username) {
+		Long expiration = missingUsers.get(username);
+		if(expiration == null) {
+			return false;
+		}
+		
+		if(expiration <= System.currentTimeMillis()) {
+			missingUsers.remove(username, expiration);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Remembers that a username is not a user.
+	 * 
+	 * @param username The username.
+	 */
+	private void addMissingUser(final String username) {
+		if(missingUsers.size() >= MAX_MISSING_USERS) {
+			missingUsers.clear();
+		}
+		
+		missingUsers.put(
+			username, 
+			System.currentTimeMillis() + MILLISECONDS_TO_REMEMBER_MISSING_USERS);
+	}
+	
+	/**
+	 * Brings a campaign or class up to date.
+	 * 
+	 * @param containerId The campaign's or class's unique identifier.
+	 * 
+	 * @param idSql The SQL to get its database ID.
+	 * 
+	 * @param usersSql The SQL to get its users.
+	 * 
+	 * @param documentsSql The SQL to get its documents.
+	 * 
+	 * @param campaign Whether the container is a campaign or a class.
+	 */
+	private void refreshContainer(
+			final String containerId,
+			final String idSql,
+			final String usersSql,
+			final String documentsSql,
+			final boolean campaign) {
+		
+		synchronized(updateLock) {
+			if(state == null) {
+				return;
+			}
+			
+			boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				Map<String, Integer> ids = new HashMap<String, Integer>();
+				loadIds(idSql, ids, containerId);
+				Integer id = ids.get(containerId);
+				
+				FlaggedRelation users = new FlaggedRelation();
+				FlaggedRelation documents = new FlaggedRelation();
+				if(id != null) {
+					users.load(jdbcTemplate, usersSql, id);
+					documents.load(jdbcTemplate, documentsSql, id);
+				}
+				
+				CompressedBitmap oldUsers = new CompressedBitmap();
+				lock.writeLock().lock();
+				try {
+					Map<String, Integer> containerIds = 
+						campaign ? state.campaignIds : state.classIds;
+					FlaggedRelation containerUsers = 
+						campaign ? state.campaignUsers : state.classUsers;
+					FlaggedRelation containerDocuments =
+						campaign ? 
+							state.campaignDocuments : 
+							state.classDocuments;
+					
+					if(id == null) {
+						id = containerIds.remove(containerId);
+						if(id == null) {
+							return;
+						}
+					}
+					else {
+						containerIds.put(containerId, id);
+					}
+					
+					orInto(oldUsers, containerUsers.all.get(id));
+					containerUsers.setForward(id, users);
+					containerDocuments.setForward(id, documents);
+				}
+				finally {
+					lock.writeLock().unlock();
+				}
+				
+				// A class's users are also added to and removed from its
+				// campaigns, so bring all of its old and new users up to 
+				// date.
+				if(! campaign) {
+					orInto(oldUsers, users.all.get(id));
+					if(! oldUsers.isEmpty()) {
+						refreshUsers(
+							"id IN (" + oldUsers + ")", 
+							new Object[0], 
+							Collections.<String>emptySet(),
+							oldUsers);
+					}
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				discard((campaign ? "campaign " : "class ") + containerId, e);
+			}
+			catch(DataAccessException e) {
+				discard((campaign ? "campaign " : "class ") + containerId, e);
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+		}
+	}
+	
+	/**
+	 * Brings users up to date. The caller must hold the update lock.
+	 * 
+	 * @param userSqlCondition The condition on the user table that selects
+	 * 						   the users.
+	 * 
+	 * @param parameters The condition's parameters.
+	 * 
+	 * @param usernames The usernames of the users, which may include users
+	 * 					that no longer exist.
+	 * 
+	 * @param userIds The database IDs of the users, which may include users
+	 * 				  that no longer exist.
+	 * 
+	 * @throws DataAccessException There was an error reading the database.
+	 */
+	private void refreshUsers(
+			final String userSqlCondition,
+			final Object[] parameters,
+			final Collection<String> usernames,
+			final CompressedBitmap userIds)
+			throws DataAccessException {
+		
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final CompressedBitmap admins = new CompressedBitmap();
+		String sql = SQL_GET_USERS + " WHERE " + userSqlCondition;
+		try {
+			jdbcTemplate.query(
+				sql,
+				parameters,
+				new RowCallbackHandler() {
+					/**
+					 * Records the user.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs) 
+							throws SQLException {
+						
+						int id = rs.getInt(1);
+						ids.put(rs.getString(2), id);
+						if(rs.getBoolean(3)) {
+							admins.add(id);
+						}
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.", 
+				e);
+		}
+		
+		CompressedBitmap existingIds = new CompressedBitmap();
+		for(Integer id : ids.values()) {
+			existingIds.add(id);
+		}
+		
+		FlaggedRelation campaignUsers = new FlaggedRelation();
+		FlaggedRelation classUsers = new FlaggedRelation();
+		FlaggedRelation userDocuments = new FlaggedRelation();
+		if(! existingIds.isEmpty()) {
+			String idList = "(" + existingIds + ")";
+			campaignUsers.load(
+				jdbcTemplate, 
+				SQL_GET_CAMPAIGN_USERS + " AND urc.user_id IN " + idList);
+			classUsers.load(
+				jdbcTemplate, 
+				SQL_GET_CLASS_USERS + " AND uc.user_id IN " + idList);
+			userDocuments.load(
+				jdbcTemplate, 
+				SQL_GET_USER_DOCUMENTS + " AND dur.user_id IN " + idList);
+		}
+		
+		lock.writeLock().lock();
+		try {
+			// Remove the users that no longer exist.
+			CompressedBitmap refreshedIds = userIds.copy();
+			Set<String> removedUsernames = new HashSet<String>(usernames);
+			removedUsernames.removeAll(ids.keySet());
+			for(String username : removedUsernames) {
+				Integer id = state.userIds.remove(username);
+				if(id != null) {
+					state.usernames.remove(id);
+					refreshedIds.add(id);
+				}
+			}
+			for(Map.Entry<String, Integer> id : ids.entrySet()) {
+				state.userIds.put(id.getKey(), id.getValue());
+				state.usernames.put(id.getValue(), id.getKey());
+			}
+			refreshedIds.or(existingIds);
+			
+			for(int id : refreshedIds.toArray()) {
+				if(admins.contains(id)) {
+					state.admins.add(id);
+				}
+				else {
+					state.admins.remove(id);
+				}
+				
+				state.campaignUsers.setReverse(id, campaignUsers);
+				state.classUsers.setReverse(id, classUsers);
+				state.userDocuments.setForward(id, userDocuments);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Loads the rows of a query whose columns are a database ID and a unique
+	 * identifier.
+	 * 
+	 * @param sql The SQL.
+	 * 
+	 * @param ids The map to which the unique identifiers and their database 
+	 * 			  IDs are added.
+	 * 
+	 * @param parameters The SQL's parameters.
+	 * 
+	 * @throws DataAccessException There was an error running the query.
+	 */
+	private void loadIds(
+			final String sql,
+			final Map<String, Integer> ids,
+			final Object... parameters)
+			throws DataAccessException {
+		
+		try {
+			jdbcTemplate.query(
+				sql, 
+				parameters,
+				new RowCallbackHandler() {
+					/**
+					 * Records the ID.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs) 
+							throws SQLException {
+						
+						ids.put(rs.getString(2), rs.getInt(1));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.", 
+				e);
+		}
+	}
+	
+	/**
+	 * Discards the index after a refresh failed so that it is rebuilt the 
+	 * next time it is read. The caller must hold the update lock.
+	 * 
+	 * @param entity A description of what was being refreshed.
+	 * 
+	 * @param e The reason the refresh failed.
+	 */
+	private void discard(final String entity, final Exception e) {
+		LOGGER.error(
+			"Failed to refresh the visibility index for " + 
+				entity + 
+				", so it will be rebuilt.", 
+			e);
+		
+		lock.writeLock().lock();
+		try {
+			state = null;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds the IDs from one bitmap to another.
+	 * 
+	 * @param result The bitmap to which the IDs are added.
+	 * 
+	 * @param ids The IDs, which may be null.
+	 */
+	private static void orInto(
+			final CompressedBitmap result, 
+			final CompressedBitmap ids) {
+		
+		if(ids != null) {
+			result.or(ids);
+		}
+	}
+	
+	/**
+	 * Adds the IDs that are related to each of some keys.
+	 * 
+	 * @param result The bitmap to which the IDs are added.
+	 * 
+	 * @param relation The relation.
+	 * 
+	 * @param keys The left-hand IDs in the relation, which may be null.
+	 */
+	private static void orAll(
+			final CompressedBitmap result,
+			final Relation relation,
+			final CompressedBitmap keys) {
+		
+		if(keys != null) {
+			for(int key : keys.toArray()) {
+				orInto(result, relation.get(key));
+			}
+		}
+	}
+	
+	/**
+	 * Adds the documents that a user may read through their campaigns or 
+	 * classes: all of the documents of the ones in which the user is a
+	 * supervisor or privileged and the documents that the others own.
+	 * 
+	 * @param result The bitmap to which the documents are added.
+	 * 
+	 * @param containers The user's campaigns or classes, which may be null.
+	 * 
+	 * @param privilegedContainers The campaigns or classes in which the user 
+	 * 							   is a supervisor or privileged, which may be
+	 * 							   null.
+	 * 
+	 * @param documents The campaigns' or classes' documents, flagged where
+	 * 					they own them.
+	 */
+	private static void orReadable(
+			final CompressedBitmap result,
+			final CompressedBitmap containers,
+			final CompressedBitmap privilegedContainers,
+			final FlaggedRelation documents) {
+		
+		if(containers == null) {
+			return;
+		}
+		
+		for(int container : containers.toArray()) {
+			if((privilegedContainers != null) && 
+				privilegedContainers.contains(container)) {
+				
+				orInto(result, documents.all.get(container));
+			}
+			else {
+				orInto(result, documents.flagged.get(container));
+			}
+		}
+	}
+	
+	/**
+	 * Limits the users to those that are in any of the given campaigns or
+	 * classes.
+	 * 
+	 * @param users The users or null if every user is visible.
+	 * 
+	 * @param containerUsers The campaigns' or classes' users.
+	 * 
+	 * @param containerIds The database IDs of every campaign or class.
+	 * 
+	 * @param limitingIds The campaigns' or classes' unique identifiers.
+	 * 
+	 * @return The limited users.
+	 */
+	private static CompressedBitmap limit(
+			final CompressedBitmap users,
+			final FlaggedRelation containerUsers,
+			final Map<String, Integer> containerIds,
+			final Collection<String> limitingIds) {
+		
+		CompressedBitmap limitingUsers = new CompressedBitmap();
+		for(String limitingId : limitingIds) {
+			Integer id = containerIds.get(limitingId);
+			if(id != null) {
+				orInto(limitingUsers, containerUsers.all.get(id));
+			}
+		}
+		
+		if(users == null) {
+			return limitingUsers;
+		}
+		
+		users.and(limitingUsers);
+		return users;
+	}
+}
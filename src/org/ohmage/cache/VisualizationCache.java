@@ -0,0 +1,570 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.metrics.Metrics;
+
+/**
+ * <p>
+ * A disk-backed cache of rendered visualization images. The images are
+ * stored as individual files in a configurable directory and an in-memory
+ * index, ordered by last access, is used to evict the least recently used
+ * images once the configured size is exceeded.
+ * </p>
+ *
+ * <p>
+ * Concurrent requests for the same image are coalesced such that only one of
+ * them is sent to the visualization server and the rest wait for and share
+ * its result.
+ * </p>
+ *
+ * <p>
+ * If the directory preference is missing, the images are not stored, but
+ * concurrent requests are still coalesced.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class VisualizationCache {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(VisualizationCache.class);
+
+	/**
+	 * The extension of the files in the cache's directory.
+	 */
+	private static final String FILE_EXTENSION = ".png";
+
+	/**
+	 * The suffix of the temporary files the images are written to before
+	 * they are moved into place.
+	 */
+	private static final String TEMP_FILE_SUFFIX = FILE_EXTENSION + ".tmp";
+
+	/**
+	 * The names of the cache's images, which are their keys, a hexadecimal
+	 * SHA-1 digest, followed by the extension.
+	 */
+	private static final Pattern IMAGE_FILE_PATTERN =
+		Pattern.compile("[0-9a-f]{40}" + Pattern.quote(FILE_EXTENSION));
+
+	/**
+	 * The names of the cache's temporary files, which are their image's key
+	 * followed by the random number {@link File#createTempFile(String,
+	 * String, File)} adds and the temporary suffix.
+	 */
+	private static final Pattern TEMP_FILE_PATTERN =
+		Pattern.compile("[0-9a-f]{40}[0-9]+" + Pattern.quote(TEMP_FILE_SUFFIX));
+
+	/**
+	 * The default maximum number of bytes that may be stored on disk if the
+	 * preference is missing.
+	 */
+	private static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+	/**
+	 * The character encoding to use when building the keys.
+	 */
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The name under which the lookups are recorded in the metrics.
+	 */
+	private static final String METRICS_NAME = "visualization";
+
+	/**
+	 * The reference to one's self to return to requesters.
+	 */
+	private static VisualizationCache instance;
+
+	/**
+	 * The directory in which the images are stored or null if the images are
+	 * not being stored.
+	 */
+	private final File directory;
+
+	/**
+	 * The maximum number of bytes to store on disk.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * The keys of the images on disk and their sizes, in the order in which
+	 * they were last accessed. All access must be synchronized on the index
+	 * itself.
+	 */
+	private final LinkedHashMap<String, Long> index =
+		new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	/**
+	 * The total number of bytes of the images in the index.
+	 */
+	private long totalBytes = 0;
+
+	/**
+	 * The images that are currently being rendered.
+	 */
+	private final ConcurrentMap<String, FutureTask<byte[]>> inFlight =
+		new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private VisualizationCache() {
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+
+		File tDirectory = null;
+		try {
+			tDirectory =
+				new File(
+					PreferenceCache.instance().lookup(
+						PreferenceCache.KEY_VISUALIZATION_CACHE_DIRECTORY));
+		}
+		catch(CacheMissException e) {
+			LOGGER.info(
+				"The visualization cache directory is not set, so " +
+					"visualizations will not be stored.");
+		}
+
+		long tMaxBytes = DEFAULT_MAX_BYTES;
+		try {
+			tMaxBytes =
+				Long.decode(
+					PreferenceCache.instance().lookup(
+						PreferenceCache.KEY_VISUALIZATION_CACHE_MAX_BYTES));
+		}
+		catch(CacheMissException e) {
+			// This is acceptable. It simply tells us to use the default.
+		}
+		catch(NumberFormatException e) {
+			throw new IllegalStateException(
+				"The visualization cache size is not a number: " +
+					PreferenceCache.KEY_VISUALIZATION_CACHE_MAX_BYTES,
+				e);
+		}
+
+		directory = prepareDirectory(tDirectory);
+		maxBytes = tMaxBytes;
+
+		loadIndex();
+
+		instance = this;
+	}
+
+	/**
+	 * Creates a cache that is not registered as the instance. This is only
+	 * used by the tests.
+	 *
+	 * @param directory The directory in which to store the images or null to
+	 * 					not store them.
+	 *
+	 * @param maxBytes The maximum number of bytes to store on disk.
+	 */
+	VisualizationCache(final File directory, final long maxBytes) {
+		this.directory = prepareDirectory(directory);
+		this.maxBytes = maxBytes;
+
+		loadIndex();
+	}
+
+	/**
+	 * Returns the instance of this class.
+	 *
+	 * @return The instance of this class.
+	 */
+	public static VisualizationCache instance() {
+		return instance;
+	}
+
+	/**
+	 * Builds the key for a visualization. The parameters are sorted so that
+	 * the same request always results in the same key regardless of the
+	 * order in which its parameters were given.
+	 *
+	 * @param url The visualization server URL, including the endpoint.
+	 *
+	 * @param username The requesting user's username. The visualization
+	 * 				   server reads the data as this user, so different users
+	 * 				   may see different images for the same parameters.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param parameters The request-specific parameters.
+	 *
+	 * @param dataVersion The version of the campaign's data.
+	 *
+	 * @param accessVersion The version of the user's access to the
+	 * 						campaign's data, so that an image is not reused
+	 * 						after the user has gained or lost access to some
+	 * 						of the data in it.
+	 *
+	 * @return The key to use for the visualization.
+	 */
+	public static String buildKey(
+			final String url,
+			final String username,
+			final String campaignId,
+			final int width,
+			final int height,
+			final Map<String, String> parameters,
+			final String dataVersion,
+			final String accessVersion) {
+
+		StringBuilder builder = new StringBuilder();
+		builder
+			.append(url).append('\n')
+			.append(username).append('\n')
+			.append(campaignId).append('\n')
+			.append(width).append('\n')
+			.append(height).append('\n')
+			.append(dataVersion).append('\n')
+			.append(accessVersion).append('\n');
+
+		for(Map.Entry<String, String> parameter :
+				new TreeMap<String, String>(parameters).entrySet()) {
+
+			builder
+				.append(parameter.getKey())
+				.append('=')
+				.append(parameter.getValue())
+				.append('\n');
+		}
+
+		try {
+			byte[] digest =
+				MessageDigest
+					.getInstance("SHA-1")
+					.digest(builder.toString().getBytes(ENCODING));
+
+			StringBuilder result = new StringBuilder(digest.length * 2);
+			for(byte b : digest) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is unknown.", e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is unknown.", e);
+		}
+	}
+
+	/**
+	 * Returns the image for the key. If the image is not cached, the renderer
+	 * is called to create it and the result is cached. If another thread is
+	 * already rendering the same image, this will wait for and return that
+	 * thread's result.
+	 *
+	 * @param key The key built by
+	 * 			  {@link #buildKey(String, String, String, int, int, Map, String, String)}.
+	 *
+	 * @param renderer The renderer to use if the image is not cached.
+	 *
+	 * @return The image.
+	 *
+	 * @throws ServiceException The renderer threw an exception.
+	 */
+	public byte[] get(
+			final String key,
+			final Callable<byte[]> renderer)
+			throws ServiceException {
+
+		byte[] result = read(key);
+		Metrics.recordCacheLookup(METRICS_NAME, result != null);
+		if(result != null) {
+			return result;
+		}
+
+		FutureTask<byte[]> task =
+			new FutureTask<byte[]>(
+				new Callable<byte[]>() {
+					/**
+					 * Renders the image and stores it.
+					 */
+					@Override
+					public byte[] call() throws Exception {
+						byte[] image = renderer.call();
+						write(key, image);
+						return image;
+					}
+				});
+
+		FutureTask<byte[]> existing = inFlight.putIfAbsent(key, task);
+		if(existing == null) {
+			try {
+				task.run();
+			}
+			finally {
+				inFlight.remove(key, task);
+			}
+			existing = task;
+		}
+		else {
+			LOGGER.debug("Waiting on an in-flight visualization: " + key);
+		}
+
+		try {
+			return existing.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException(
+				"Interrupted while waiting for the visualization.",
+				e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof ServiceException) {
+				throw (ServiceException) cause;
+			}
+
+			throw new ServiceException(
+				"Error while rendering the visualization.",
+				cause);
+		}
+	}
+
+	/**
+	 * Reads an image from disk.
+	 *
+	 * @param key The image's key.
+	 *
+	 * @return The image or null if it is not cached.
+	 */
+	private byte[] read(final String key) {
+		if(directory == null) {
+			return null;
+		}
+
+		synchronized(index) {
+			if(index.get(key) == null) {
+				return null;
+			}
+		}
+
+		File file = getFile(key);
+		try {
+			return Files.readAllBytes(file.toPath());
+		}
+		catch(IOException e) {
+			// The file was evicted or removed from beneath us.
+			LOGGER.warn("Could not read a cached visualization: " + key, e);
+			synchronized(index) {
+				Long size = index.remove(key);
+				if(size != null) {
+					totalBytes -= size;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes an image to disk and evicts the least recently used images until
+	 * the cache is back within its size.
+	 *
+	 * @param key The image's key.
+	 *
+	 * @param image The image.
+	 */
+	private void write(final String key, final byte[] image) {
+		if((directory == null) || (image.length > maxBytes)) {
+			return;
+		}
+
+		// Write to a temporary file first so that readers never see a
+		// partially written image.
+		File file = getFile(key);
+		try {
+			File temp =
+				File.createTempFile(key, TEMP_FILE_SUFFIX, directory);
+			try {
+				Files.write(temp.toPath(), image);
+				Files.move(
+					temp.toPath(),
+					file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				temp.delete();
+			}
+		}
+		catch(IOException e) {
+			LOGGER.warn("Could not cache a visualization: " + key, e);
+			return;
+		}
+
+		synchronized(index) {
+			Long previous = index.put(key, (long) image.length);
+			if(previous != null) {
+				totalBytes -= previous;
+			}
+			totalBytes += image.length;
+
+			evict();
+		}
+	}
+
+	/**
+	 * Removes the least recently used images until the total size is within
+	 * the maximum. The caller must hold the lock on the index.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> entries =
+			index.entrySet().iterator();
+
+		while((totalBytes > maxBytes) && entries.hasNext()) {
+			Map.Entry<String, Long> eldest = entries.next();
+
+			totalBytes -= eldest.getValue();
+			entries.remove();
+
+			if(! getFile(eldest.getKey()).delete()) {
+				LOGGER.warn(
+					"Could not delete an evicted visualization: " +
+						eldest.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the images that are already on disk, oldest
+	 * first, so that a restart does not lose the cache.
+	 */
+	private void loadIndex() {
+		if(directory == null) {
+			return;
+		}
+
+		File[] files = directory.listFiles();
+		if(files == null) {
+			return;
+		}
+
+		Arrays.sort(
+			files,
+			new Comparator<File>() {
+				/**
+				 * Orders the files by their last modified timestamp.
+				 */
+				@Override
+				public int compare(final File first, final File second) {
+					long difference =
+						first.lastModified() - second.lastModified();
+
+					return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+				}
+			});
+
+		synchronized(index) {
+			for(File file : files) {
+				String name = file.getName();
+
+				// Remove any temporary files left over from a crash. Any
+				// other file is not the cache's, so it is left alone and not
+				// counted.
+				if(TEMP_FILE_PATTERN.matcher(name).matches()) {
+					file.delete();
+					continue;
+				}
+				if(! IMAGE_FILE_PATTERN.matcher(name).matches()) {
+					continue;
+				}
+
+				index.put(
+					name.substring(0, name.length() - FILE_EXTENSION.length()),
+					file.length());
+				totalBytes += file.length();
+			}
+
+			evict();
+		}
+
+		LOGGER.info(
+			"Loaded " + index.size() + " cached visualizations.");
+	}
+
+	/**
+	 * Creates the directory if it doesn't exist.
+	 *
+	 * @param directory The directory or null if the images are not stored.
+	 *
+	 * @return The directory.
+	 *
+	 * @throws IllegalStateException The directory exists but isn't a
+	 * 								 directory.
+	 */
+	private static File prepareDirectory(final File directory) {
+		if(directory != null) {
+			if(! directory.exists()) {
+				directory.mkdirs();
+			}
+			else if(! directory.isDirectory()) {
+				throw new IllegalStateException(
+					"The visualization cache directory exists but isn't a " +
+						"directory: " +
+						directory.getAbsolutePath());
+			}
+		}
+
+		return directory;
+	}
+
+	/**
+	 * Returns the file for a key.
+	 *
+	 * @param key The key.
+	 *
+	 * @return The file where the key's image is or will be stored.
+	 */
+	private File getFile(final String key) {
+		return new File(directory, key + FILE_EXTENSION);
+	}
+}
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.domain.campaign.Campaign;
+
+/**
+ * The changes that updating a class' membership makes: the users that are
+ * added to, removed from, or have their role changed in the class and the
+ * default campaign roles that are granted and revoked because of it.
+ *
+ * @author John Jenkins
+ */
+public class ClassRosterDiff {
+	private static final String JSON_KEY_ID = "id";
+	private static final String JSON_KEY_USERS_ADDED = "users_added";
+	private static final String JSON_KEY_USERS_REMOVED = "users_removed";
+	private static final String JSON_KEY_USERS_CHANGED = "users_changed";
+	private static final String JSON_KEY_FROM = "from";
+	private static final String JSON_KEY_TO = "to";
+	private static final String JSON_KEY_CAMPAIGN_ROLES_GRANTED =
+		"campaign_roles_granted";
+	private static final String JSON_KEY_CAMPAIGN_ROLES_REVOKED =
+		"campaign_roles_revoked";
+
+	private final String classId;
+
+	private final Map<String, Clazz.Role> usersAdded;
+	private final Map<String, Clazz.Role> usersRemoved;
+	private final Map<String, Clazz.Role> usersChangedFrom;
+	private final Map<String, Clazz.Role> usersChangedTo;
+
+	private final Map<String, Map<Campaign.Role, Set<String>>> granted;
+	private final Map<String, Map<Campaign.Role, Set<String>>> revoked;
+
+	private final List<String> warningMessages;
+
+	/**
+	 * Creates a new difference from a class' membership before and after the
+	 * update.
+	 *
+	 * @param classId The class' unique identifier.
+	 *
+	 * @param originalRoles The class' members and their roles before the
+	 * 						update.
+	 *
+	 * @param roles The class' members and their roles after the update.
+	 *
+	 * @param granted A map of campaign IDs to maps of campaign roles to the
+	 * 				  users that are being granted that role in that campaign.
+	 *
+	 * @param revoked A map of campaign IDs to maps of campaign roles to the
+	 * 				  users from which that role in that campaign is being
+	 * 				  revoked.
+	 *
+	 * @param warningMessages The messages that should be returned to the
+	 * 						  requester, one for each user whose role changed.
+	 */
+	public ClassRosterDiff(
+			final String classId,
+			final Map<String, Clazz.Role> originalRoles,
+			final Map<String, Clazz.Role> roles,
+			final Map<String, Map<Campaign.Role, Set<String>>> granted,
+			final Map<String, Map<Campaign.Role, Set<String>>> revoked,
+			final List<String> warningMessages) {
+
+		this.classId = classId;
+
+		usersAdded = new TreeMap<String, Clazz.Role>();
+		usersRemoved = new TreeMap<String, Clazz.Role>();
+		usersChangedFrom = new TreeMap<String, Clazz.Role>();
+		usersChangedTo = new TreeMap<String, Clazz.Role>();
+
+		for(String username : originalRoles.keySet()) {
+			Clazz.Role originalRole = originalRoles.get(username);
+			Clazz.Role role = roles.get(username);
+
+			if(role == null) {
+				usersRemoved.put(username, originalRole);
+			}
+			else if(! role.equals(originalRole)) {
+				usersChangedFrom.put(username, originalRole);
+				usersChangedTo.put(username, role);
+			}
+		}
+		for(String username : roles.keySet()) {
+			if(! originalRoles.containsKey(username)) {
+				usersAdded.put(username, roles.get(username));
+			}
+		}
+
+		this.granted = granted;
+		this.revoked = revoked;
+		this.warningMessages = warningMessages;
+	}
+
+	/**
+	 * Returns the class' unique identifier.
+	 *
+	 * @return The class' unique identifier.
+	 */
+	public String getClassId() {
+		return classId;
+	}
+
+	/**
+	 * Returns the users that are being added to the class.
+	 *
+	 * @return A map of usernames to their role in the class.
+	 */
+	public Map<String, Clazz.Role> getUsersAdded() {
+		return Collections.unmodifiableMap(usersAdded);
+	}
+
+	/**
+	 * Returns the users that are being removed from the class.
+	 *
+	 * @return The usernames of the users being removed.
+	 */
+	public Collection<String> getUsersRemoved() {
+		return Collections.unmodifiableSet(usersRemoved.keySet());
+	}
+
+	/**
+	 * Returns the users that remain in the class but whose role is changing.
+	 *
+	 * @return A map of usernames to their new role in the class.
+	 */
+	public Map<String, Clazz.Role> getUsersChanged() {
+		return Collections.unmodifiableMap(usersChangedTo);
+	}
+
+	/**
+	 * Returns the campaign roles that are being granted.
+	 *
+	 * @return A map of campaign IDs to maps of campaign roles to the users
+	 * 		   that are being granted that role in that campaign.
+	 */
+	public Map<String, Map<Campaign.Role, Set<String>>> getCampaignRolesGranted() {
+		return Collections.unmodifiableMap(granted);
+	}
+
+	/**
+	 * Returns the campaign roles that are being revoked.
+	 *
+	 * @return A map of campaign IDs to maps of campaign roles to the users
+	 * 		   from which that role in that campaign is being revoked.
+	 */
+	public Map<String, Map<Campaign.Role, Set<String>>> getCampaignRolesRevoked() {
+		return Collections.unmodifiableMap(revoked);
+	}
+
+	/**
+	 * Returns the warning messages for the users whose role changed.
+	 *
+	 * @return The warning messages.
+	 */
+	public List<String> getWarningMessages() {
+		return Collections.unmodifiableList(warningMessages);
+	}
+
+	/**
+	 * Returns whether or not the update changes anything.
+	 *
+	 * @return Whether or not this difference is empty.
+	 */
+	public boolean isEmpty() {
+		return
+			usersAdded.isEmpty() &&
+			usersRemoved.isEmpty() &&
+			usersChangedTo.isEmpty() &&
+			granted.isEmpty() &&
+			revoked.isEmpty();
+	}
+
+	/**
+	 * Returns this difference as a JSONObject.
+	 *
+	 * @return A JSONObject describing the changes.
+	 *
+	 * @throws JSONException Thrown if generating the object caused an error.
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject result = new JSONObject();
+
+		result.put(JSON_KEY_ID, classId);
+
+		JSONObject added = new JSONObject();
+		for(String username : usersAdded.keySet()) {
+			added.put(username, usersAdded.get(username).toString());
+		}
+		result.put(JSON_KEY_USERS_ADDED, added);
+
+		result.put(
+				JSON_KEY_USERS_REMOVED,
+				new JSONArray(usersRemoved.keySet()));
+
+		JSONObject changed = new JSONObject();
+		for(String username : usersChangedTo.keySet()) {
+			JSONObject change = new JSONObject();
+			change.put(
+					JSON_KEY_FROM,
+					usersChangedFrom.get(username).toString());
+			change.put(JSON_KEY_TO, usersChangedTo.get(username).toString());
+
+			changed.put(username, change);
+		}
+		result.put(JSON_KEY_USERS_CHANGED, changed);
+
+		result.put(JSON_KEY_CAMPAIGN_ROLES_GRANTED, campaignRolesToJson(granted));
+		result.put(JSON_KEY_CAMPAIGN_ROLES_REVOKED, campaignRolesToJson(revoked));
+
+		return result;
+	}
+
+	/**
+	 * Converts a map of campaign IDs to campaign roles to usernames into a
+	 * JSONObject with the usernames sorted.
+	 *
+	 * @param campaignRoles The map to convert.
+	 *
+	 * @return The JSONObject.
+	 *
+	 * @throws JSONException Thrown if generating the object caused an error.
+	 */
+	private static JSONObject campaignRolesToJson(
+			final Map<String, Map<Campaign.Role, Set<String>>> campaignRoles)
+			throws JSONException {
+
+		JSONObject result = new JSONObject();
+		for(String campaignId : campaignRoles.keySet()) {
+			Map<Campaign.Role, Set<String>> roles =
+				campaignRoles.get(campaignId);
+
+			JSONObject campaign = new JSONObject();
+			for(Campaign.Role role : roles.keySet()) {
+				campaign.put(
+						role.toString(),
+						new JSONArray(new TreeSet<String>(roles.get(role))));
+			}
+
+			result.put(campaignId, campaign);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A read request that is run in the background with its results written to
+ * a file that may be downloaded once it is complete.
+ *
+ * @author John Jenkins
+ */
+public class ExportJob {
+	private static final String JSON_KEY_ID = "id";
+	private static final String JSON_KEY_EXPORT_REQUEST = "export_request";
+	private static final String JSON_KEY_STATUS = "status";
+	private static final String JSON_KEY_CONTENT_TYPE = "content_type";
+	private static final String JSON_KEY_FILE_SIZE = "file_size";
+	private static final String JSON_KEY_ERROR = "error";
+	private static final String JSON_KEY_CREATION_TIME = "creation_time";
+	private static final String JSON_KEY_COMPLETION_TIME = "completion_time";
+	private static final String JSON_KEY_EXPIRATION_TIME = "expiration_time";
+
+	/**
+	 * The read requests that may be exported.
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum Type {
+		SURVEY_RESPONSE_READ ("survey_response/read", "survey_responses"),
+		STREAM_READ ("stream/read", "stream");
+
+		private final String request;
+		private final String fileName;
+
+		/**
+		 * Creates a type.
+		 *
+		 * @param request The request's path below the API root.
+		 *
+		 * @param fileName The name of the downloaded file without any
+		 * 				   extensions.
+		 */
+		private Type(final String request, final String fileName) {
+			this.request = request;
+			this.fileName = fileName;
+		}
+
+		/**
+		 * Returns the request's path below the API root.
+		 *
+		 * @return The request's path, e.g. "survey_response/read".
+		 */
+		public String getRequest() {
+			return request;
+		}
+
+		/**
+		 * Returns the name of the downloaded file without any extensions.
+		 *
+		 * @return The name of the downloaded file.
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * Returns the type whose request path is the given value.
+		 *
+		 * @param value The request's path below the API root.
+		 *
+		 * @return The type.
+		 *
+		 * @throws IllegalArgumentException The value is not a known type.
+		 */
+		public static Type getValue(final String value) {
+			for(Type type : values()) {
+				if(type.request.equals(value)) {
+					return type;
+				}
+			}
+
+			throw new IllegalArgumentException("Unknown type: " + value);
+		}
+
+		/**
+		 * Returns the type's request path.
+		 */
+		@Override
+		public String toString() {
+			return request;
+		}
+	}
+
+	/**
+	 * The states of a job.
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum Status {
+		QUEUED,
+		RUNNING,
+		COMPLETE,
+		FAILED;
+
+		/**
+		 * Returns the status with the given value.
+		 *
+		 * @param value The value.
+		 *
+		 * @return The status.
+		 *
+		 * @throws IllegalArgumentException The value is not a known status.
+		 */
+		public static Status getValue(final String value) {
+			return valueOf(value.toUpperCase());
+		}
+
+		/**
+		 * Returns the status as a lower-case string.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final UUID id;
+	private final String username;
+	private final Type type;
+	private final String client;
+	private final Map<String, String[]> parameters;
+	private final Status status;
+	private final String contentType;
+	private final Long fileSize;
+	private final String error;
+	private final long creationMillis;
+	private final Long completionMillis;
+	private final long expirationMillis;
+
+	/**
+	 * Creates a new export job.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param username The username of the user that submitted the job.
+	 *
+	 * @param type The read request being exported.
+	 *
+	 * @param client The client that submitted the job.
+	 *
+	 * @param parameters The parameters for the read request without any
+	 * 					 authentication parameters.
+	 *
+	 * @param status The job's status.
+	 *
+	 * @param contentType The content type of the read request's response,
+	 * 					  which is null until the job is complete.
+	 *
+	 * @param fileSize The size of the compressed file, which is null until
+	 * 				   the job is complete.
+	 *
+	 * @param error Why the job failed, if it did.
+	 *
+	 * @param creationMillis When the job was submitted.
+	 *
+	 * @param completionMillis When the job completed or failed, if it has.
+	 *
+	 * @param expirationMillis When the job and its file will be removed.
+	 *
+	 * @throws IllegalArgumentException A required parameter is null.
+	 */
+	public ExportJob(
+			final UUID id,
+			final String username,
+			final Type type,
+			final String client,
+			final Map<String, String[]> parameters,
+			final Status status,
+			final String contentType,
+			final Long fileSize,
+			final String error,
+			final long creationMillis,
+			final Long completionMillis,
+			final long expirationMillis) {
+
+		if(id == null) {
+			throw new IllegalArgumentException("The ID is null.");
+		}
+		else if(username == null) {
+			throw new IllegalArgumentException("The username is null.");
+		}
+		else if(type == null) {
+			throw new IllegalArgumentException("The type is null.");
+		}
+		else if(parameters == null) {
+			throw new IllegalArgumentException("The parameters are null.");
+		}
+		else if(status == null) {
+			throw new IllegalArgumentException("The status is null.");
+		}
+
+		this.id = id;
+		this.username = username;
+		this.type = type;
+		this.client = client;
+		this.parameters = parameters;
+		this.status = status;
+		this.contentType = contentType;
+		this.fileSize = fileSize;
+		this.error = error;
+		this.creationMillis = creationMillis;
+		this.completionMillis = completionMillis;
+		this.expirationMillis = expirationMillis;
+	}
+
+	/**
+	 * Returns the job's unique identifier.
+	 *
+	 * @return The job's unique identifier.
+	 */
+	public UUID getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the username of the user that submitted the job.
+	 *
+	 * @return The username.
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns the read request being exported.
+	 *
+	 * @return The read request's type.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the client that submitted the job.
+	 *
+	 * @return The client.
+	 */
+	public String getClient() {
+		return client;
+	}
+
+	/**
+	 * Returns the parameters for the read request.
+	 *
+	 * @return An unmodifiable map of parameter keys to their values.
+	 */
+	public Map<String, String[]> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	/**
+	 * Returns the job's status.
+	 *
+	 * @return The job's status.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the content type of the read request's response.
+	 *
+	 * @return The content type or null if the job is not complete.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Returns the size of the compressed file.
+	 *
+	 * @return The size in bytes or null if the job is not complete.
+	 */
+	public Long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Returns why the job failed.
+	 *
+	 * @return The error or null if the job has not failed.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Returns when the job was submitted.
+	 *
+	 * @return The number of milliseconds since the epoch.
+	 */
+	public long getCreationMillis() {
+		return creationMillis;
+	}
+
+	/**
+	 * Returns when the job completed or failed.
+	 *
+	 * @return The number of milliseconds since the epoch or null if the job
+	 * 		   has not finished.
+	 */
+	public Long getCompletionMillis() {
+		return completionMillis;
+	}
+
+	/**
+	 * Returns when the job and its file will be removed.
+	 *
+	 * @return The number of milliseconds since the epoch.
+	 */
+	public long getExpirationMillis() {
+		return expirationMillis;
+	}
+
+	/**
+	 * Returns the name to give the downloaded file, which is based on the
+	 * type and the content type.
+	 *
+	 * @return The file's name.
+	 */
+	public String getFileName() {
+		StringBuilder result = new StringBuilder(type.getFileName());
+
+		if(contentType != null) {
+			if(contentType.startsWith("text/csv")) {
+				result.append(".csv");
+			}
+			else if(contentType.startsWith("application/json")) {
+				result.append(".json");
+			}
+		}
+
+		return result.append(".gz").toString();
+	}
+
+	/**
+	 * Returns this job as a JSONObject. The parameters are not included.
+	 *
+	 * @return A JSONObject describing the job.
+	 *
+	 * @throws JSONException Thrown if generating the object caused an error.
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject result = new JSONObject();
+
+		result.put(JSON_KEY_ID, id.toString());
+		result.put(JSON_KEY_EXPORT_REQUEST, type.toString());
+		result.put(JSON_KEY_STATUS, status.toString());
+		result.put(JSON_KEY_CONTENT_TYPE, contentType);
+		result.put(JSON_KEY_FILE_SIZE, fileSize);
+		result.put(JSON_KEY_ERROR, error);
+		result.put(JSON_KEY_CREATION_TIME, creationMillis);
+		result.put(JSON_KEY_COMPLETION_TIME, completionMillis);
+		result.put(JSON_KEY_EXPIRATION_TIME, expirationMillis);
+
+		return result;
+	}
+}
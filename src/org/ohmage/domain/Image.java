@@ -42,6 +42,7 @@ import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.prompt.MediaPrompt;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.metrics.Tracing;
 
 /**
  * A representation of an image.
@@ -53,6 +54,12 @@ public class Image implements IMedia{
 	private static final Logger LOGGER = 
 			Logger.getLogger(Image.class);
 	
+	/**
+	 * The maximum number of images that may be requested in one page of a 
+	 * batch ZIP read.
+	 */
+	public static final int MAX_NUM_TO_ZIP = 1000;
+	
 	/**
 	 * These are the different possible values for an image's size. It also
 	 * defines the functionality for each size including how to store and read
@@ -997,6 +1004,19 @@ public class Image implements IMedia{
 		return "image/" + getImageData(size).getImageType();
 	}
 	
+	/**
+	 * Returns the local file that contains the image of the given size.
+	 * 
+	 * @param size The desired {@link Size} of the image.
+	 * 
+	 * @return The file or null if the image is not stored in a local file.
+	 * 
+	 * @throws DomainException The image doesn't have that size.
+	 */
+	public File getFile(final Size size) throws DomainException {
+		return Media.getLocalFile(getImageData(size).getUrl());
+	}
+	
 	/**
 	 * Returns an InputStream connected to the image.
 	 * 
@@ -1048,6 +1068,7 @@ public class Image implements IMedia{
 		Map<Size, File> files = new HashMap<Size, File>();
 		
 		// Save the individual sizes.
+		int span = Tracing.openSpan("image.save");
 		try {
 			// For sizes that have already been decoded, save the file now.
 			for(Size size : imageData.keySet()) {
@@ -1062,6 +1083,9 @@ public class Image implements IMedia{
 			
 			throw new DomainException("There was an error saving a file.", e);
 		}
+		finally {
+			Tracing.closeSpan(span);
+		}
 		
 		// Return only the original file.
 		return files.get(ORIGINAL);
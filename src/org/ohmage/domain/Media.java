@@ -7,12 +7,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.exception.DomainException;
+import org.ohmage.metrics.Tracing;
 
 /**
  * <p>
@@ -31,6 +33,8 @@ public class Media implements IMedia {
 
 	private final UUID id;
 	private final InputStream content; 
+	// The location of the data, if it was read from a URL.
+	private final URL url;
 	private Media.ContentInfo contentInfo; 
 	// The size, in bytes, of the media file.
 	public final long size;
@@ -229,6 +233,33 @@ public class Media implements IMedia {
 		}
 	}
 	
+	/**
+	 * Returns the local file to which a URL refers.
+	 * 
+	 * @param url The URL. This may be null.
+	 * 
+	 * @return The file or null if the URL is null, does not use the "file"
+	 * 		   protocol, or does not exist.
+	 */
+	public static File getLocalFile(final URL url) {
+		if((url == null) || (! "file".equals(url.getProtocol()))) {
+			return null;
+		}
+		
+		try {
+			File file = new File(url.toURI());
+			return file.isFile() ? file : null;
+		}
+		catch(URISyntaxException e) {
+			LOGGER.warn("The URL is not a valid URI: " + url, e);
+			return null;
+		}
+		catch(IllegalArgumentException e) {
+			LOGGER.warn("The URL is not a local file: " + url, e);
+			return null;
+		}
+	}
+	
 	/**
 	 * Extract the file extension from a given filename. The file extension has to 
 	 * be no more than MAX_EXTENSION_LENGTH.  
@@ -296,6 +327,7 @@ public class Media implements IMedia {
 		else {
 			this.content = new ByteArrayInputStream(content);
 		}
+		this.url = null;
 		
 		// Validate the size.
 		this.size = content.length;
@@ -349,6 +381,7 @@ public class Media implements IMedia {
 		else {
 			this.content = contentStream;
 		}
+		this.url = null;
 		
 		// Validate the size. 
 		this.size = fileSize; 
@@ -380,6 +413,7 @@ public class Media implements IMedia {
 		
 		if (url == null)
 			throw new DomainException("[MediaID " + id.toString() + "] URL is null.");
+		this.url = url;
 		
 		// Create a connection to the stream.
 		try {
@@ -437,6 +471,16 @@ public class Media implements IMedia {
 		return size;
 	}
 	
+	/**
+	 * Returns the file that contains the media's data if the data is stored
+	 * on the local file system. This is not part of the IMedia interface.
+	 * 
+	 * @return The file or null if the data is not stored in a local file.
+	 */
+	public File getFile() {
+		return getLocalFile(url);
+	}
+	
 	/**
 	 * Returns ContentInfo object associated with this media.
 	 * 
@@ -499,7 +543,13 @@ public class Media implements IMedia {
 			throw new DomainException("Directory to write the content file is null");
 		
 		File mediaFile = new File(directory.getAbsolutePath() + "/" + id.toString());
-		writeFile(mediaFile);
+		int span = Tracing.openSpan("media.write");
+		try {
+			writeFile(mediaFile);
+		}
+		finally {
+			Tracing.closeSpan(span);
+		}
 		return mediaFile;
 	}
 	
@@ -15,7 +15,10 @@
  ******************************************************************************/
 package org.ohmage.domain;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -23,10 +26,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.util.TokenBuffer;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -54,13 +63,89 @@ import edu.ucla.cens.mobilityclassifier.WifiScan;
  */
 public class MobilityPoint implements Comparable<MobilityPoint> {
 	private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+	private static final DateTimeFormatter DATE_TIME_FORMATTER =
+		(new DateTimeFormatterBuilder())
+			.appendPattern(DATE_TIME_FORMAT)
+			.toFormatter();
+	
+	/**
+	 * The factory for the parsers and generators used to decode and encode 
+	 * the sensor and classifier data.
+	 */
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	/**
+	 * The initial capacity of the arrays into which the sensor and 
+	 * classifier data's values are decoded. They double in size as 
+	 * necessary and are trimmed once all of the values have been read.
+	 */
+	private static final int INITIAL_ARRAY_CAPACITY = 16;
+	
+	/**
+	 * The column keys that have both a long and an abbreviated version, 
+	 * either of which may be used in the JSON.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static interface AbbreviatedColumnKey extends ColumnKey {
+		/**
+		 * Returns the key.
+		 * 
+		 * @param abbreviated Whether or not to return the abbreviated version
+		 * 					  of the key.
+		 * 
+		 * @return The key.
+		 */
+		public String toString(final boolean abbreviated);
+	}
+	
+	/**
+	 * Records the first value that was missing or invalid while some sensor
+	 * data was being decoded. Such values are only errors if the point's mode
+	 * is not 'ERROR', but the mode may come after the data in the JSON.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class DecodeProblems {
+		private ErrorCode errorCode = null;
+		private String message = null;
+		
+		/**
+		 * Records a problem unless one has already been recorded.
+		 * 
+		 * @param errorCode The error code to use if this is an error.
+		 * 
+		 * @param message The message to use if this is an error.
+		 */
+		private void add(final ErrorCode errorCode, final String message) {
+			if(this.message == null) {
+				this.errorCode = errorCode;
+				this.message = message;
+			}
+		}
+		
+		/**
+		 * Throws the first problem if there was one and the mode is not 
+		 * 'ERROR'.
+		 * 
+		 * @param mode The point's mode.
+		 * 
+		 * @throws DomainException There was a problem and the mode is not
+		 * 						   'ERROR'.
+		 */
+		private void check(final Mode mode) throws DomainException {
+			if((message != null) && (! Mode.ERROR.equals(mode))) {
+				throw new DomainException(errorCode, message);
+			}
+		}
+	}
 	
 	/**
 	 * Column names for Mobility information.
 	 * 
 	 * @author John Jenkins
 	 */
-	public static enum MobilityColumnKey implements ColumnKey {
+	public static enum MobilityColumnKey implements AbbreviatedColumnKey {
 		/**
 		 * The unique identifier for the Mobility point.
 		 */
@@ -281,7 +366,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		 * 
 		 * @author John Jenkins
 		 */
-		public static enum SensorDataColumnKey implements ColumnKey {
+		public static enum SensorDataColumnKey implements AbbreviatedColumnKey {
 			/**
 			 * The mode from this sensor data column key.
 			 */
@@ -464,7 +549,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			 * 
 			 * @author John Jenkins
 			 */
-			public static enum AccelDataColumnKey implements ColumnKey {
+			public static enum AccelDataColumnKey implements AbbreviatedColumnKey {
 				/**
 				 * The 'x'-component of this accelerometer reading.
 				 */
@@ -615,141 +700,6 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			private final Double y;
 			private final Double z;
 			
-			/**
-			 * Creates an AccelData object from a generic record.
-			 * 
-			 * @param accelDataRecord The generic record.
-			 * 
-			 * @throws DomainException The record is missing data.
-			 */
-			private AccelData(
-					final JsonNode accelDataRecord)
-					throws DomainException {
-
-				JsonNode xObject = 
-					accelDataRecord.get(AccelDataColumnKey.X.toString(false));
-				if(xObject == null) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'x' component is missing.");
-				}
-				else if(! xObject.isNumber()) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'x' component is not a number.");
-				}
-				else {
-					x = xObject.getNumberValue().doubleValue();
-				}
-				
-				JsonNode yObject = 
-					accelDataRecord.get(AccelDataColumnKey.Y.toString(false));
-				if(yObject == null) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'y' component is missing.");
-				}
-				else if(! yObject.isNumber()) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'y' component is not a number.");
-				}
-				else {
-					y = yObject.getNumberValue().doubleValue();
-				}
-				
-				JsonNode zObject = 
-					accelDataRecord.get(AccelDataColumnKey.Z.toString(false));
-				if(zObject == null) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'z' component is missing.");
-				}
-				else if(! zObject.isNumber()) {
-					throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
-						"The 'z' component is not a number.");
-				}
-				else {
-					z = zObject.getNumberValue().doubleValue();
-				}
-			}
-			
-			/**
-			 * Processes an acceleration data point into an AccelData object.
-			 * 
-			 * @param accelData The JSON data point to process.
-			 * 
-			 * @param mode The pre-processed mode. This is needed, because if 
-			 * 			   it is {@link Mode#ERROR} then any of the values may 
-			 * 			   be missing or invalid.
-			 * 
-			 * @throws DomainException Thrown if the JSON is invalid and the
-			 * 						   mode is not {@link Mode#ERROR}.
-			 */
-			private AccelData(
-					final JSONObject accelData, 
-					final Mode mode) 
-					throws DomainException {
-				
-				// Get the x-acceleration.
-				Double tX = null;
-				try {
-					tX = accelData.getDouble(
-							AccelDataColumnKey.X.toString(false));
-				}
-				catch(JSONException e) {
-					if(Mode.ERROR.equals(mode)) {
-						tX = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
-								"The 'x' point was missing or invalid.", 
-								e);
-					}
-				}
-				x = tX;
-				
-				// Get the y-acceleration.
-				Double tY = null;
-				try {
-					tY = accelData.getDouble(
-							AccelDataColumnKey.Y.toString(false));
-				}
-				catch(JSONException e) {
-					if(Mode.ERROR.equals(mode)) {
-						tY = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
-								"The 'y' point was missing or invalid.", 
-								e);
-					}
-				}
-				y = tY;
-				
-				// Get the z-acceleration.
-				Double tZ = null;
-				try {
-					tZ = accelData.getDouble(
-							AccelDataColumnKey.Z.toString(false));
-				}
-				catch(JSONException e) {
-					if(Mode.ERROR.equals(mode)) {
-						tZ = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
-								"The 'z' point was missing or invalid.", 
-								e);
-					}
-				}
-				z = tZ;
-			}
-			
 			/**
 			 * Creates a tri-axle acceleration data point.
 			 * 
@@ -791,134 +741,15 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			public final Double getZ() {
 				return z;
 			}
-			
-			/**
-			 * Creates a JSONObject that represents the accelerometer data with
-			 * only the information whose column value is present.
-			 * 
-			 * @param columns A collection of columns dictating which variables
-			 * 				  should be included in the resulting object. If 
-			 * 				  this is empty, an empty JSONObject will be 
-			 * 				  returned. This cannot be null and if all columns 
-			 * 				  are desired, a quick fix is to use
-			 * 				  {@link AccelDataColumnKey#ALL_COLUMNS}.
-			 * 
-			 * @return Returns a JSONObject that represents this object with 
-			 * 		   only the requested columns.
-			 * 
-			 * @throws JSONException There was an error building the 
-			 * 						 JSONObject.
-			 * 
-			 * @throws DomainException The columns collection was null.
-			 */
-			public final JSONObject toJson(
-					final Collection<ColumnKey> columns) 
-					throws JSONException, DomainException {
-				
-				if(columns == null) {
-					throw new DomainException(
-							"The columns list cannot be null.");
-				}
-				
-				JSONObject result = new JSONObject();
-				
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
-					columns.contains(SensorDataColumnKey.ACCELEROMETER_DATA) ||
-					columns.contains(AccelDataColumnKey.X)) {
-					
-					result.put(AccelDataColumnKey.X.toString(false), x);
-				}
-
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
-					columns.contains(SensorDataColumnKey.ACCELEROMETER_DATA) ||
-					columns.contains(AccelDataColumnKey.Y)) {
-					
-					result.put(AccelDataColumnKey.Y.toString(false), y);
-				}
-
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
-					columns.contains(SensorDataColumnKey.ACCELEROMETER_DATA) ||
-					columns.contains(AccelDataColumnKey.Z)) {
-					
-					result.put(AccelDataColumnKey.Z.toString(false), z);
-				}
-				
-				return result;
-			}
-			
-			/**
-			 * Populates the appropriate indices in the 'result' with values 
-			 * based on the 'columns'. For example, if the first two columns 
-			 * were not AccelData columns, they would be skipped. If the third 
-			 * column was the accelerometer data's x value, the third index in 
-			 * the 'result' would be populated with this accelerometer data's x
-			 * value, which is a collection of doubles.
-			 * 
-			 * @param columns All of the columns in the 'result' list to 
-			 * 				  populate. This will skip all of those columns 
-			 * 				  that are not AccelDataColumnKey columns.
-			 * 
-			 * @param result The result list whose values will be updated based
-			 * 				 on the 'columns'.
-			 * 
-			 * @throws DomainException The columns or result list was null or 
-			 * 						   had differing lengths.
-			 */
-			public final void toCsvRow(
-					final List<ColumnKey> columns,
-					final List<Object> result) 
-					throws DomainException {
-				
-				if(columns == null) {
-					throw new DomainException(
-							"The list of columns cannot be null.");
-				}
-				else if(result == null) {
-					throw new DomainException(
-							"The list of results cannot be null.");
-				}
-				else if(columns.size() != result.size()) {
-					throw new DomainException(
-							"The columns list and the result list were different lengths.");
-				}
-				
-				int index;
-				
-				if((index = columns.indexOf(AccelDataColumnKey.X)) != -1) {
-					@SuppressWarnings("unchecked")
-					Collection<Double> currList =
-							(Collection<Double>) result.get(index);
-					if(currList == null) {
-						currList = new LinkedList<Double>();
-						result.set(index, currList);
-					}
-					currList.add(x);
-				}
-
-				if((index = columns.indexOf(AccelDataColumnKey.Y)) != -1) {
-					@SuppressWarnings("unchecked")
-					Collection<Double> currList = 
-							(Collection<Double>) result.get(index);
-					if(currList == null) {
-						currList = new LinkedList<Double>();
-						result.set(index, currList);
-					}
-					currList.add(y);
-				}
-
-				if((index = columns.indexOf(AccelDataColumnKey.Z)) != -1) {
-					@SuppressWarnings("unchecked")
-					Collection<Double> currList = 
-							(Collection<Double>) result.get(index);
-					if(currList == null) {
-						currList = new LinkedList<Double>();
-						result.set(index, currList);
-					}
-					currList.add(z);
-				}
-			}
 		}
-		private final List<AccelData> accelData;
+		
+		// The accelerometer data is kept as one array per axis instead of one
+		// AccelData object per point. A component that was missing from an
+		// 'ERROR' mode point is stored as NaN. The arrays are all null if the
+		// accelerometer data was missing.
+		private final double[] accelX;
+		private final double[] accelY;
+		private final double[] accelZ;
 		
 		/**
 		 * This class is responsible for the WifiData in a sensor data upload.
@@ -931,7 +762,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			 * 
 			 * @author John Jenkins
 			 */
-			public static enum WifiDataColumnKey implements ColumnKey {
+			public static enum WifiDataColumnKey implements AbbreviatedColumnKey {
 				/**
 				 * The time this WiFi data was collected.
 				 */
@@ -1102,37 +933,14 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			}
 			
 			/**
-			 * Private, inner class for representing access points in the scan. 
-			 *
-			 * @author John Jenkins
+			 * The scan is kept as two parallel arrays, one with the access 
+			 * points' SSIDs and one with their strengths, instead of one object
+			 * per access point. A strength that was missing from an 'ERROR' 
+			 * mode point is stored as NaN. Both arrays are null if the scan was
+			 * missing.
 			 */
-			private final class AccessPoint {
-				private String ssid;
-				private double strength;
-				
-				/**
-				 * Creates a new AccessPoint object.
-				 * 
-				 * @param ssid The access point's SSID.
-				 * 
-				 * @param strength The strength of the signal of the SSID.
-				 * 
-				 * @throws DomainException The SSID was null.
-				 */
-				public AccessPoint(
-						final String ssid, 
-						final double strength)
-						throws DomainException {
-					
-					if(ssid == null) {
-						throw new DomainException("The SSID is null.");
-					}
-					
-					this.ssid = ssid;
-					this.strength = strength;
-				}
-			}
-			private final List<AccessPoint> scan;
+			private final String[] ssids;
+			private final double[] strengths;
 			
 			private final Long time;
 			private final DateTimeZone timezone;
@@ -1204,10 +1012,11 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				}
 				else {
 					ArrayNode scanArray = (ArrayNode) scanObject;
-					scan = new ArrayList<AccessPoint>(scanArray.size());
+					ssids = new String[scanArray.size()];
+					strengths = new double[scanArray.size()];
 					
+					int i = 0;
 					for(JsonNode scanRecord : scanArray) {
-						String ssid;
 						JsonNode ssidObject = scanRecord.get("ssid");
 						if(ssidObject == null) {
 							throw new DomainException(
@@ -1220,10 +1029,9 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 								"The 'ssid' value is not a string.");
 						}
 						else {
-							ssid = ssidObject.getTextValue();
+							ssids[i] = ssidObject.getTextValue();
 						}
 						
-						double strength;
 						JsonNode strengthObject = scanRecord.get("strength");
 						if(strengthObject == null) {
 							throw new DomainException(
@@ -1236,88 +1044,148 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 								"The 'strength' value is not a number.");
 						}
 						else {
-							strength = 
+							strengths[i] = 
 								strengthObject.getNumberValue().doubleValue();
 						}
 						
-						scan.add(new AccessPoint(ssid, strength));
+						i++;
 					}
 				}
 			}
 			
 			/**
-			 * Creates a WifiData point with a timestamp and all of the scan
-			 * information.
+			 * Decodes a WifiData point from a parser that is positioned at the
+			 * first field of the WiFi data object, or at its end if it has no
+			 * fields. The parser is left at the end of the object. Both the
+			 * long and abbreviated keys are accepted.
 			 * 
-			 * @param time The milliseconds since epoch at which time this
-			 * 			   record was made.
+			 * @param parser The parser.
 			 * 
-			 * @param timezone The timezone of the device when this record was
-			 * 				   made.
+			 * @param problems Records any values that are missing or invalid,
+			 * 				   which are only errors if the point's mode turns
+			 * 				   out not to be 'ERROR'.
 			 * 
-			 * @param scan The data collected from all of the WiFi points in 
-			 * 			   range of the scan.
+			 * @throws IOException The JSON could not be read.
 			 * 
-			 * @throws DomainException Thrown if either of the parameters are
-			 * 						   null or invalid values.
+			 * @throws DomainException A scan entry is not an object or the
+			 * 						   time zone is unknown.
 			 */
-			private WifiData( 
-					final JSONObject wifiData, 
-					final Mode mode) 
-					throws DomainException {
+			private WifiData(
+					final JsonParser parser,
+					final DecodeProblems problems)
+					throws IOException, DomainException {
 				
-				// Get the time and timezone.
 				Long tTime = null;
-				boolean timeFound = true;
-				try {
-					tTime = wifiData.getLong(
-							WifiDataColumnKey.TIME.toString(false));
-				}
-				catch(JSONException noLongTime) {
-					try {
-						tTime = wifiData.getLong(
-								WifiDataColumnKey.TIME.toString(true));
+				String timestamp = null;
+				String timezoneString = null;
+				String[] tSsids = null;
+				double[] tStrengths = null;
+				int numAccessPoints = 0;
+				
+				while(parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					JsonToken token = parser.nextToken();
+					
+					if(isKey(name, WifiDataColumnKey.TIME)) {
+						tTime = readLong(parser);
 					}
-					catch(JSONException noTime) {
-						timeFound = false;
-						String timestamp = null;
-						try {
-							timestamp = 
-								wifiData.getString(
-									WifiDataColumnKey.TIMESTAMP.toString(
-										false));
-						}
-						catch(JSONException noLongTimestamp) {	
-							try {
-								timestamp = 
-									wifiData.getString(
-										WifiDataColumnKey.TIMESTAMP.toString(
-											true));
+					else if(isKey(name, WifiDataColumnKey.TIMESTAMP)) {
+						timestamp = readString(parser);
+					}
+					else if(isKey(name, WifiDataColumnKey.TIMEZONE)) {
+						timezoneString = readString(parser);
+					}
+					else if(
+						isKey(name, WifiDataColumnKey.SCAN) &&
+						(token == JsonToken.START_ARRAY)) {
+						
+						tSsids = new String[INITIAL_ARRAY_CAPACITY];
+						tStrengths = new double[INITIAL_ARRAY_CAPACITY];
+						
+						while(parser.nextToken() != JsonToken.END_ARRAY) {
+							if(parser.getCurrentToken() != 
+								JsonToken.START_OBJECT) {
+								
+								throw new DomainException(
+									ErrorCode.MOBILITY_INVALID_WIFI_DATA,
+									"A scan entry is not a JSON object.");
 							}
-							catch(JSONException noShortTimestamp) {
-								if(Mode.ERROR.equals(mode)) {
-									tTime = null;
+							
+							String ssid = null;
+							double strength = Double.NaN;
+							while(
+								parser.nextToken() == 
+									JsonToken.FIELD_NAME) {
+								
+								String scanName = parser.getCurrentName();
+								parser.nextToken();
+								
+								if(isKey(scanName, WifiDataColumnKey.SSID)) {
+									ssid = readString(parser);
+								}
+								else if(
+									isKey(
+										scanName, 
+										WifiDataColumnKey.STRENGTH)) {
+									
+									strength = readDouble(parser);
 								}
 								else {
-									throw new DomainException(
-											ErrorCode.SERVER_INVALID_TIME, 
-											"The time is missing.", 
-											noShortTimestamp);
+									parser.skipChildren();
 								}
 							}
+							
+							// An 'ERROR' point's access points without an 
+							// SSID are dropped.
+							if(ssid == null) {
+								problems.add(
+									ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
+									"The SSID is missing.");
+								continue;
+							}
+							if(Double.isNaN(strength)) {
+								problems.add(
+									ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
+									"The strength is missing or invalid.");
+							}
+							
+							if(numAccessPoints == tSsids.length) {
+								tSsids = 
+									Arrays.copyOf(
+										tSsids, 
+										numAccessPoints * 2);
+								tStrengths = 
+									Arrays.copyOf(
+										tStrengths, 
+										numAccessPoints * 2);
+							}
+							tSsids[numAccessPoints] = ssid;
+							tStrengths[numAccessPoints] = strength;
+							numAccessPoints++;
 						}
-
+					}
+					else {
+						parser.skipChildren();
+					}
+					
+					parser.nextToken();
+				}
+				
+				// Get the time, falling back to the time stamp.
+				boolean timeFound = (tTime != null);
+				if(! timeFound) {
+					if(timestamp == null) {
+						problems.add(
+							ErrorCode.SERVER_INVALID_TIME, 
+							"The time is missing.");
+					}
+					else {
 						Date date = StringUtils.decodeDateTime(timestamp);
 						if(date == null) {
-							if(Mode.ERROR.equals(mode)) {
-								tTime = null;
-							}
-							else {
-								throw new DomainException(
-										ErrorCode.SERVER_INVALID_TIMESTAMP,
-										"The timestamp could not be decoded: " +
-											timestamp);
-							}
+							problems.add(
+								ErrorCode.SERVER_INVALID_TIMESTAMP,
+								"The timestamp could not be decoded: " +
+									timestamp);
 						}
 						else {
 							tTime = date.getTime();
@@ -1326,154 +1194,45 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				}
 				time = tTime;
 				
-				DateTimeZone tTimezone;
-				try {
-					tTimezone =
-							DateTimeUtils.getDateTimeZoneFromString(
-								wifiData.getString(
-									WifiDataColumnKey.TIMEZONE.toString(
-										false)));
+				// Get the time zone. If the time came from the time stamp, the
+				// time zone is allowed to be missing.
+				if(timezoneString == null) {
+					if(timeFound) {
+						problems.add(
+							ErrorCode.SERVER_INVALID_TIMEZONE, 
+							"The timezone is missing: " +
+								WifiDataColumnKey.TIMEZONE.toString(false));
+						timezone = null;
+					}
+					else {
+						timezone = DateTimeZone.getDefault();
+					}
 				}
-				catch(JSONException noLongTimezone) {
+				else {
 					try {
-						tTimezone =
-								DateTimeUtils.getDateTimeZoneFromString(
-									wifiData.getString(
-										WifiDataColumnKey.TIMEZONE.toString(
-											true)));
+						timezone =
+							DateTimeUtils.getDateTimeZoneFromString(
+								timezoneString);
 					}
-					catch(JSONException noShortTimezone) {
-						if(Mode.ERROR.equals(mode)) {
-							tTimezone = null;
-						}
-						else if(! timeFound) {
-							tTimezone = DateTimeZone.getDefault();
-						}
-						else {
-							throw new DomainException(
-									ErrorCode.SERVER_INVALID_TIMEZONE, 
-									"The timezone is missing: " +
-										WifiDataColumnKey.TIMEZONE.toString(
-											false), 
-									noShortTimezone);
-						}
+					catch(IllegalArgumentException e) {
+						throw new DomainException(
+							ErrorCode.SERVER_INVALID_TIMEZONE,
+							"The time zone is unknown.",
+							e);
 					}
 				}
-				catch(IllegalArgumentException e) {
-					throw new DomainException(
-						ErrorCode.SERVER_INVALID_TIMEZONE,
-						"The time zone is unknown.",
-						e);
-				}
-				timezone = tTimezone;
 				
 				// Get the scan.
-				JSONArray scan;
-				try {
-					scan = wifiData.getJSONArray(
-							WifiDataColumnKey.SCAN.toString(false));
-				}
-				catch(JSONException e) {
-					try {
-						scan = 
-							wifiData.getJSONArray(
-								WifiDataColumnKey.SCAN.toString(true));
-					}
-					catch(JSONException notShort) {
-						if(Mode.ERROR.equals(mode)) {
-							scan = null;
-						}
-						else {
-							throw new DomainException(
-									ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
-									"The scan is missing.", 
-									notShort);
-						}
-					}
-				}
-				
-				// Validate the scan value.
-				if(scan == null) {
-					this.scan = null;
+				if(tSsids == null) {
+					problems.add(
+						ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
+						"The scan is missing.");
+					ssids = null;
+					strengths = null;
 				}
 				else {
-					// For each of the entries in the array, parse out the
-					// necessary information.
-					int numScans = scan.length();
-					
-					// Create the local scan map.
-					this.scan = new ArrayList<AccessPoint>(numScans);
-					//List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
-					
-					for(int i = 0; i < numScans; i++) {
-						try {
-							JSONObject jsonObject = scan.getJSONObject(i);
-							
-							// Get the SSID.
-							String ssid;
-							try {
-								ssid = jsonObject.getString(
-										WifiDataColumnKey.SSID.toString(
-												false));
-							}
-							catch(JSONException notLong) {
-								try {
-									ssid = jsonObject.getString(
-											WifiDataColumnKey.SSID.toString(
-													true));
-								}
-								catch(JSONException notShort) {
-									if(Mode.ERROR.equals(mode)) {
-										continue;
-									}
-									else {
-										throw new DomainException(
-											ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
-											"The SSID is missing.", 
-											notShort);
-									}
-								}
-							}
-							
-							// Get the strength.
-							Double strength;
-							try {
-								strength = 
-										jsonObject.getDouble(
-												WifiDataColumnKey.STRENGTH.toString(
-														false));
-							}
-							catch(JSONException notLong) {
-								try {
-									strength = 
-											jsonObject.getDouble(
-													WifiDataColumnKey.STRENGTH.toString(
-															true));
-								}
-								catch(JSONException notShort) {
-									if(Mode.ERROR.equals(mode)) {
-										strength = null;
-									}
-									else {
-										throw new DomainException(
-											ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
-											"The strength is missing or invalid.", 
-											notShort);
-									}
-								}
-							}
-							
-							// Add them to the map.
-							//accessPoints.add(new AccessPoint(ssid, strength));
-							this.scan.add(new AccessPoint(ssid, strength));
-						}
-						catch(JSONException e) {
-							throw new DomainException(
-									"The object changed while we were reading it.", 
-									e);
-						}
-					}
-					//this.wifiScan = new WifiScan(tTime, accessPoints);
+					ssids = Arrays.copyOf(tSsids, numAccessPoints);
+					strengths = Arrays.copyOf(tStrengths, numAccessPoints);
 				}
 			}
 			
@@ -1517,23 +1276,22 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 							time);
 				}
 					
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
+				if((columns.contains(MobilityColumnKey.SENSOR_DATA) ||
 					columns.contains(SensorDataColumnKey.WIFI_DATA) ||
-					columns.contains(WifiDataColumnKey.TIMESTAMP)) {
-					
-					DateTime dateTime = new DateTime(time, timezone);
-					DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
-					builder.appendPattern(DATE_TIME_FORMAT);
+					columns.contains(WifiDataColumnKey.TIMESTAMP)) &&
+					(time != null)) {
 					
 					result.put(
 							WifiDataColumnKey.TIMESTAMP.toString(
 									abbreviated), 
-							builder.toFormatter().print(dateTime));
+							DATE_TIME_FORMATTER.print(
+								new DateTime(time, timezone)));
 				}
 					
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
+				if((columns.contains(MobilityColumnKey.SENSOR_DATA) ||
 					columns.contains(SensorDataColumnKey.WIFI_DATA) ||
-					columns.contains(WifiDataColumnKey.TIMEZONE)) {
+					columns.contains(WifiDataColumnKey.TIMEZONE)) &&
+					(timezone != null)) {
 					
 					result.put(
 							WifiDataColumnKey.TIMEZONE.toString(
@@ -1541,83 +1299,99 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 							timezone.getID());
 				}
 				
-				if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
+				boolean allScan =
+					columns.contains(MobilityColumnKey.SENSOR_DATA) ||
 					columns.contains(SensorDataColumnKey.WIFI_DATA) ||
-					columns.contains(WifiDataColumnKey.SCAN) ||
-						(columns.contains(WifiDataColumnKey.SSID) &&
-						 columns.contains(WifiDataColumnKey.STRENGTH))) {
-					
-					if(scan != null) {
-						JSONArray scans = new JSONArray();
-						for(AccessPoint accessPoint : scan) {
-							JSONObject currScan = new JSONObject();
-							
+					columns.contains(WifiDataColumnKey.SCAN);
+				boolean withSsid = 
+					allScan || columns.contains(WifiDataColumnKey.SSID);
+				boolean withStrength =
+					allScan || columns.contains(WifiDataColumnKey.STRENGTH);
+				
+				if((withSsid || withStrength) && (ssids != null)) {
+					JSONArray scans = new JSONArray();
+					for(int i = 0; i < ssids.length; i++) {
+						JSONObject currScan = new JSONObject();
+						
+						if(withSsid) {
 							currScan.put(
 									WifiDataColumnKey.SSID.toString(
 											abbreviated),
-									accessPoint.ssid);
+									ssids[i]);
+						}
+						if(withStrength && (! Double.isNaN(strengths[i]))) {
 							currScan.put(
 									WifiDataColumnKey.STRENGTH.toString(
 											abbreviated),
-									accessPoint.strength);
-							
-							scans.put(currScan);
+									strengths[i]);
 						}
 						
-						result.put(
-								WifiDataColumnKey.SCAN.toString(
-										abbreviated), 
-								scans);
+						scans.put(currScan);
 					}
-				}
-				else if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
-					columns.contains(SensorDataColumnKey.WIFI_DATA) ||
-					columns.contains(WifiDataColumnKey.SSID)) {
 					
-					if(scan != null) {
-						JSONArray scans = new JSONArray();
-						for(AccessPoint accessPoint : scan) {
-							JSONObject currScan = new JSONObject();
-							
-							currScan.put(
-									WifiDataColumnKey.SSID.toString(
-											abbreviated),
-									accessPoint.ssid);
-							
-							scans.put(currScan);
-						}
-						
-						result.put(
-								WifiDataColumnKey.SCAN.toString(
-										abbreviated), 
-								scans);
-					}
+					result.put(
+							WifiDataColumnKey.SCAN.toString(
+									abbreviated), 
+							scans);
 				}
-				else if(columns.contains(MobilityColumnKey.SENSOR_DATA) ||
-					columns.contains(SensorDataColumnKey.WIFI_DATA) ||
-					columns.contains(WifiDataColumnKey.STRENGTH)) {
+
+				return result;
+			}
+			
+			/**
+			 * Writes all of the WiFi scan data as a JSON object.
+			 * 
+			 * @param generator The generator to write to.
+			 * 
+			 * @param abbreviated Whether or not to use the abbreviated keys.
+			 * 
+			 * @throws IOException There was an error writing the JSON.
+			 */
+			public final void writeJson(
+					final JsonGenerator generator,
+					final boolean abbreviated)
+					throws IOException {
+				
+				generator.writeStartObject();
+				
+				if(time != null) {
+					generator.writeNumberField(
+						WifiDataColumnKey.TIME.toString(abbreviated), 
+						time);
+					generator.writeStringField(
+						WifiDataColumnKey.TIMESTAMP.toString(abbreviated), 
+						DATE_TIME_FORMATTER.print(
+							new DateTime(time, timezone)));
+				}
+				
+				if(timezone != null) {
+					generator.writeStringField(
+						WifiDataColumnKey.TIMEZONE.toString(abbreviated), 
+						timezone.getID());
+				}
+				
+				if(ssids != null) {
+					generator.writeArrayFieldStart(
+						WifiDataColumnKey.SCAN.toString(abbreviated));
 					
-					if(scan != null) {
-						JSONArray scans = new JSONArray();
-						for(AccessPoint accessPoint : scan) {
-							JSONObject currScan = new JSONObject();
-							
-							currScan.put(
-									WifiDataColumnKey.STRENGTH.toString(
-											abbreviated),
-									accessPoint.strength);
-							
-							scans.put(currScan);
+					for(int i = 0; i < ssids.length; i++) {
+						generator.writeStartObject();
+						generator.writeStringField(
+							WifiDataColumnKey.SSID.toString(abbreviated),
+							ssids[i]);
+						if(! Double.isNaN(strengths[i])) {
+							generator.writeNumberField(
+								WifiDataColumnKey.STRENGTH.toString(
+									abbreviated),
+								strengths[i]);
 						}
-						
-						result.put(
-								WifiDataColumnKey.SCAN.toString(
-										abbreviated), 
-								scans);
+						generator.writeEndObject();
 					}
+					
+					generator.writeEndArray();
 				}
-
-				return result;
+				
+				generator.writeEndObject();
 			}
 			
 			/**
@@ -1662,11 +1436,10 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				}
 					
 				if((index = columns.indexOf(WifiDataColumnKey.TIMESTAMP)) != -1) {
-					DateTime dateTime = new DateTime(time, timezone);
-					DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
-					builder.appendPattern(DATE_TIME_FORMAT);
-					
-					result.set(index, builder.toFormatter().print(dateTime));
+					result.set(
+						index, 
+						DATE_TIME_FORMATTER.print(
+							new DateTime(time, timezone)));
 				}
 					
 				if((index = columns.indexOf(WifiDataColumnKey.TIMEZONE)) != -1) {
@@ -1676,32 +1449,18 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				// If SCAN is present, we ignore it as it should have been, for
 				// CSV output at least, broken down into SSID and STRENGTH.
 
-				if(scan != null) {
-					int ssidIndex = columns.indexOf(WifiDataColumnKey.SSID);
-					Collection<String> ssids = 
-							new ArrayList<String>(scan.size());
-					
-					int strengthIndex = 
-							columns.indexOf(WifiDataColumnKey.STRENGTH);
-					Collection<Double> strengths =
-							new ArrayList<Double>(scan.size());
-					
-					for(AccessPoint accessPoint : scan) {
-						if(ssidIndex != -1) {
-							ssids.add(accessPoint.ssid);
-						}
-						
-						if(strengthIndex != -1) {
-							strengths.add(accessPoint.strength);
-						}
-					}
-					
-					if(ssidIndex != -1) {
-						result.set(ssidIndex, ssids);
+				if(ssids != null) {
+					if((index = columns.indexOf(WifiDataColumnKey.SSID)) != -1) {
+						result.set(index, Arrays.asList(ssids));
 					}
 					
-					if(strengthIndex != -1) {
-						result.set(strengthIndex, strengths);
+					if((index = columns.indexOf(WifiDataColumnKey.STRENGTH)) != -1) {
+						List<Double> strengthList = 
+							new ArrayList<Double>(strengths.length);
+						for(double strength : strengths) {
+							strengthList.add(nanToNull(strength));
+						}
+						result.set(index, strengthList);
 					}
 				}
 			}
@@ -1754,43 +1513,157 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			
 			this.mode = mode;
 			this.speed = speed;
-			this.accelData = accelData;
 			this.wifiData = wifiData;
+			
+			if(accelData == null) {
+				accelX = null;
+				accelY = null;
+				accelZ = null;
+			}
+			else {
+				int numPoints = accelData.size();
+				accelX = new double[numPoints];
+				accelY = new double[numPoints];
+				accelZ = new double[numPoints];
+				
+				int i = 0;
+				for(AccelData point : accelData) {
+					accelX[i] = nullToNan(point.getX());
+					accelY[i] = nullToNan(point.getY());
+					accelZ[i] = nullToNan(point.getZ());
+					i++;
+				}
+			}
 		}
 		
 		/**
-		 * Creates a new SensorData point from a JSONObject of sensor data.
+		 * Decodes a SensorData object from a parser that is positioned at the
+		 * first field of the sensor data object, or at its end if it has no
+		 * fields. The parser is left at the end of the object. Both the long
+		 * and abbreviated keys are accepted, and the fields may be in any 
+		 * order.
+		 * 
+		 * @param parser The parser.
 		 * 
-		 * @param sensorData The sensor data as a JSONObject.
+		 * @throws IOException The JSON could not be read.
 		 * 
-		 * @throws DomainException Thrown if the sensor data is null, not 
-		 * 						   valid sensor data, or missing some 
-		 * 						   component.
+		 * @throws DomainException The sensor data is invalid.
 		 */
-		private SensorData(JSONObject sensorData) throws DomainException {
-			// Get the mode string.
-			String modeString;
-			try {
-				modeString = 
-						sensorData.getString(
-								MobilityColumnKey.MODE.toString(false));
-			}
-			catch(JSONException notLong) {
-				try {
-					modeString = 
-							sensorData.getString(
-									MobilityColumnKey.MODE.toString(true));
+		private SensorData(final JsonParser parser) 
+				throws IOException, DomainException {
+			
+			// The mode may come after the data, and whether or not a missing
+			// value is an error depends on it, so the problems are only 
+			// checked once the whole object has been read.
+			DecodeProblems problems = new DecodeProblems();
+			
+			String modeString = null;
+			Double tSpeed = null;
+			double[] tX = null;
+			double[] tY = null;
+			double[] tZ = null;
+			int numPoints = 0;
+			WifiData tWifiData = null;
+			boolean wifiDataFound = false;
+			
+			while(parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				
+				if(isKey(name, MobilityColumnKey.MODE)) {
+					modeString = readString(parser);
 				}
-				catch(JSONException notShort) {
-					throw new DomainException(
-							ErrorCode.MOBILITY_INVALID_MODE, 
-							"The mode is missing in the sensor data: " + 
-									MobilityColumnKey.MODE.toString(false), 
-							notShort);
+				else if(isKey(name, SensorDataColumnKey.SPEED)) {
+					if(
+						token.isNumeric() || 
+						(token == JsonToken.VALUE_STRING)) {
+						
+						tSpeed = readDouble(parser);
+					}
 				}
+				else if(
+					isKey(name, SensorDataColumnKey.ACCELEROMETER_DATA) &&
+					(token == JsonToken.START_ARRAY)) {
+					
+					tX = new double[INITIAL_ARRAY_CAPACITY];
+					tY = new double[INITIAL_ARRAY_CAPACITY];
+					tZ = new double[INITIAL_ARRAY_CAPACITY];
+					
+					while(parser.nextToken() != JsonToken.END_ARRAY) {
+						if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+							throw new DomainException(
+								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
+								"An accelerometer data point is not a JSONObject.");
+						}
+						
+						double x = Double.NaN;
+						double y = Double.NaN;
+						double z = Double.NaN;
+						while(parser.nextToken() == JsonToken.FIELD_NAME) {
+							String axis = parser.getCurrentName();
+							parser.nextToken();
+							
+							if(isKey(axis, AccelDataColumnKey.X)) {
+								x = readDouble(parser);
+							}
+							else if(isKey(axis, AccelDataColumnKey.Y)) {
+								y = readDouble(parser);
+							}
+							else if(isKey(axis, AccelDataColumnKey.Z)) {
+								z = readDouble(parser);
+							}
+							else {
+								parser.skipChildren();
+							}
+						}
+						
+						if(
+							Double.isNaN(x) || 
+							Double.isNaN(y) || 
+							Double.isNaN(z)) {
+							
+							problems.add(
+								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
+								"An accelerometer data point is missing a component or it is invalid.");
+						}
+						
+						if(numPoints == tX.length) {
+							tX = Arrays.copyOf(tX, numPoints * 2);
+							tY = Arrays.copyOf(tY, numPoints * 2);
+							tZ = Arrays.copyOf(tZ, numPoints * 2);
+						}
+						tX[numPoints] = x;
+						tY[numPoints] = y;
+						tZ[numPoints] = z;
+						numPoints++;
+					}
+				}
+				else if(
+					isKey(name, SensorDataColumnKey.WIFI_DATA) &&
+					(token == JsonToken.START_OBJECT)) {
+					
+					wifiDataFound = true;
+					
+					// An empty object is where Mobility heard nothing from 
+					// WifiGpsLocationService.
+					if(parser.nextToken() != JsonToken.END_OBJECT) {
+						tWifiData = new WifiData(parser, problems);
+					}
+				}
+				else {
+					parser.skipChildren();
+				}
+				
+				parser.nextToken();
 			}
 			
-			// Convert the mode string into a valid Mode.
+			// Get the mode.
+			if(modeString == null) {
+				throw new DomainException(
+						ErrorCode.MOBILITY_INVALID_MODE, 
+						"The mode is missing in the sensor data: " + 
+								MobilityColumnKey.MODE.toString(false));
+			}
 			try {
 				mode = Mode.valueOf(modeString.toUpperCase());
 			}
@@ -1802,128 +1675,44 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			}
 			
 			// Get the speed.
-			Double tSpeed;
-			try {
-				tSpeed = 
-						sensorData.getDouble(
-								SensorDataColumnKey.SPEED.toString(false));
-			}
-			catch(JSONException notLong) {
-				try {
-					tSpeed = 
-							sensorData.getDouble(
-									SensorDataColumnKey.SPEED.toString(true));
-				}
-				catch(JSONException notShort) {
-					if(Mode.ERROR.equals(mode)) {
-						tSpeed = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_SPEED,
-								"The speed is missing or invalid: " +
-									SensorDataColumnKey.SPEED.toString(false), 
-								notShort);
-					}
-				}
+			if(tSpeed == null) {
+				problems.add(
+					ErrorCode.MOBILITY_INVALID_SPEED,
+					"The speed is missing or invalid: " +
+						SensorDataColumnKey.SPEED.toString(false));
 			}
-			if(tSpeed.isInfinite() || tSpeed.isNaN()) {
+			else if(tSpeed.isInfinite() || tSpeed.isNaN()) {
 				tSpeed = -1.0;
 			}
 			speed = tSpeed;
-
+			
 			// Get the accelerometer data.
-			List<AccelData> tAccelData = null;
-			JSONArray accelDataJson = null;
-			try {
-				accelDataJson = 
-						sensorData.getJSONArray(
-								SensorDataColumnKey.ACCELEROMETER_DATA.toString(
-										false));
+			if(tX == null) {
+				problems.add(
+					ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
+					"The accelerometer data is missing or invalid: " +
+						SensorDataColumnKey.ACCELEROMETER_DATA.toString(
+							false));
+				accelX = null;
+				accelY = null;
+				accelZ = null;
 			}
-			catch(JSONException notLong) {
-				try {
-					accelDataJson = 
-							sensorData.getJSONArray(
-									SensorDataColumnKey.ACCELEROMETER_DATA.toString(
-											true));
-				}
-				catch(JSONException notShort) {
-					if(Mode.ERROR.equals(mode)) {
-						tAccelData = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
-								"The accelerometer data is missing or invalid: " +
-									SensorDataColumnKey.ACCELEROMETER_DATA.toString(
-										false), 
-								notShort);
-					}
-				}
-			}
-			
-			if(accelDataJson != null) {
-				int numAccelDataPoints = accelDataJson.length();
-				
-				// Create the resulting list and cycle through the 
-				// JSONArray adding each of the entries.
-				tAccelData = new ArrayList<AccelData>(numAccelDataPoints);
-				for(int i = 0; i < numAccelDataPoints; i++) {
-					try {
-						tAccelData.add(
-								new AccelData(
-										accelDataJson.getJSONObject(i), 
-										mode));
-					}
-					catch(JSONException e) {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA, 
-								"An accelerometer data point is not a JSONObject.", 
-								e);
-					}
-				}
+			else {
+				accelX = Arrays.copyOf(tX, numPoints);
+				accelY = Arrays.copyOf(tY, numPoints);
+				accelZ = Arrays.copyOf(tZ, numPoints);
 			}
-			accelData = tAccelData;
 			
 			// Get the WiFi data.
-			WifiData tWifiData = null;
-			JSONObject wifiDataJson = null;
-			try {
-				wifiDataJson = 
-						sensorData.getJSONObject(
-								SensorDataColumnKey.WIFI_DATA.toString(
-										false));
-			}
-			catch(JSONException notLong) {
-				try {
-					wifiDataJson = 
-							sensorData.getJSONObject(
-									SensorDataColumnKey.WIFI_DATA.toString(
-											true));
-				}
-				catch(JSONException notShort) {
-					if(Mode.ERROR.equals(mode)) {
-						tWifiData = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
-								"The WiFi data is missing or invalid: " +
-									SensorDataColumnKey.WIFI_DATA.toString(
-										false), 
-								notShort);
-					}
-				}
-			}
-			
-			// If the WiFi data was found and contained at least one key, 
-			// create a WifiData object. The one key refers to where Mobility
-			// heard nothing from WifiGpsLocationService.
-			if((wifiDataJson != null) && (wifiDataJson.length() > 0)) {
-				tWifiData = new WifiData(wifiDataJson, mode);
+			if(! wifiDataFound) {
+				problems.add(
+					ErrorCode.MOBILITY_INVALID_WIFI_DATA, 
+					"The WiFi data is missing or invalid: " +
+						SensorDataColumnKey.WIFI_DATA.toString(false));
 			}
 			wifiData = tWifiData;
+			
+			problems.check(mode);
 		}
 		
 		/**
@@ -1980,10 +1769,16 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			else {
 				ArrayNode accelDataArray = (ArrayNode) accelDataObject;
 				
-				accelData = new ArrayList<AccelData>(accelDataArray.size());
+				accelX = new double[accelDataArray.size()];
+				accelY = new double[accelDataArray.size()];
+				accelZ = new double[accelDataArray.size()];
 				
+				int i = 0;
 				for(JsonNode accelRecord : accelDataArray) {
-					accelData.add(new AccelData(accelRecord));
+					accelX[i] = getAxis(accelRecord, AccelDataColumnKey.X);
+					accelY[i] = getAxis(accelRecord, AccelDataColumnKey.Y);
+					accelZ[i] = getAxis(accelRecord, AccelDataColumnKey.Z);
+					i++;
 				}
 			}
 			
@@ -2000,6 +1795,39 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				wifiData = new WifiData(wifiDataObject);
 			}
 		}
+		
+		/**
+		 * Returns one component of an accelerometer data record.
+		 * 
+		 * @param accelDataRecord The generic record.
+		 * 
+		 * @param axis The key of the component.
+		 * 
+		 * @return The component.
+		 * 
+		 * @throws DomainException The component is missing or not a number.
+		 */
+		private static double getAxis(
+				final JsonNode accelDataRecord,
+				final AccelDataColumnKey axis)
+				throws DomainException {
+			
+			JsonNode axisObject = accelDataRecord.get(axis.toString(false));
+			if(axisObject == null) {
+				throw new DomainException(
+					ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
+					"The '" + axis.toString(false) + 
+						"' component is missing.");
+			}
+			else if(! axisObject.isNumber()) {
+				throw new DomainException(
+					ErrorCode.MOBILITY_INVALID_ACCELEROMETER_DATA,
+					"The '" + axis.toString(false) + 
+						"' component is not a number.");
+			}
+			
+			return axisObject.getNumberValue().doubleValue();
+		}
 
 		/**
 		 * Returns the Mode for this record.
@@ -2020,12 +1848,61 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		}
 
 		/**
-		 * Returns all of the AccelData points for this record.
+		 * Returns all of the AccelData points for this record. The points are
+		 * built from the record's arrays on each call, so 
+		 * {@link #getAccelX()}, {@link #getAccelY()}, and 
+		 * {@link #getAccelZ()} should be preferred.
 		 * 
-		 * @return All of the record's AccelData points.
+		 * @return All of the record's AccelData points or null if the record 
+		 * 		   did not include this information.
 		 */
 		public final List<AccelData> getAccelData() {
-			return accelData;
+			if(accelX == null) {
+				return null;
+			}
+			
+			List<AccelData> result = new ArrayList<AccelData>(accelX.length);
+			for(int i = 0; i < accelX.length; i++) {
+				result.add(
+					new AccelData(
+						nanToNull(accelX[i]), 
+						nanToNull(accelY[i]), 
+						nanToNull(accelZ[i])));
+			}
+			return result;
+		}
+		
+		/**
+		 * Returns the x-acceleration of each of the record's points. The array
+		 * is not copied, so it must not be modified.
+		 * 
+		 * @return The x-accelerations or null if the record did not include 
+		 * 		   this information.
+		 */
+		public final double[] getAccelX() {
+			return accelX;
+		}
+		
+		/**
+		 * Returns the y-acceleration of each of the record's points. The array
+		 * is not copied, so it must not be modified.
+		 * 
+		 * @return The y-accelerations or null if the record did not include 
+		 * 		   this information.
+		 */
+		public final double[] getAccelY() {
+			return accelY;
+		}
+		
+		/**
+		 * Returns the z-acceleration of each of the record's points. The array
+		 * is not copied, so it must not be modified.
+		 * 
+		 * @return The z-accelerations or null if the record did not include 
+		 * 		   this information.
+		 */
+		public final double[] getAccelZ() {
+			return accelZ;
 		}
 
 		/**
@@ -2082,24 +1959,11 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				if(speed == null) {
 					// Don't put it in the JSON.
 				}
-				else if(speed.isInfinite()) {
-					if(Double.POSITIVE_INFINITY == speed.doubleValue()) {
-						result.put(
-								SensorDataColumnKey.SPEED.toString(
-										abbreviated),
-								"Infinity");
-					}
-					else {
-						result.put(
-								SensorDataColumnKey.SPEED.toString(
-										abbreviated),
-								"-Infinity");
-					}
-				}
-				else if(speed.isNaN()) {
+				else if(speed.isInfinite() || speed.isNaN()) {
+					// This is "Infinity", "-Infinity", or "NaN".
 					result.put(
 							SensorDataColumnKey.SPEED.toString(abbreviated),
-							"NaN");
+							speed.toString());
 				}
 				else {
 					result.put(
@@ -2112,13 +1976,42 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				columns.contains(SensorDataColumnKey.ACCELEROMETER_DATA) ||
 				AccelDataColumnKey.containsAccelDataColumnKey(columns)) {
 
-				if(accelData == null) {
+				if(accelX == null) {
 					// Don't put it in the JSON.
 				}
 				else {
+					boolean allAxes = 
+						columns.contains(MobilityColumnKey.SENSOR_DATA) ||
+						columns.contains(
+							SensorDataColumnKey.ACCELEROMETER_DATA);
+					boolean withX = 
+						allAxes || columns.contains(AccelDataColumnKey.X);
+					boolean withY = 
+						allAxes || columns.contains(AccelDataColumnKey.Y);
+					boolean withZ = 
+						allAxes || columns.contains(AccelDataColumnKey.Z);
+					
 					JSONArray accelArray = new JSONArray();
-					for(AccelData accelRecord : accelData) {
-						accelArray.put(accelRecord.toJson(columns));
+					for(int i = 0; i < accelX.length; i++) {
+						JSONObject accelRecord = new JSONObject();
+						
+						if(withX && (! Double.isNaN(accelX[i]))) {
+							accelRecord.put(
+								AccelDataColumnKey.X.toString(false), 
+								accelX[i]);
+						}
+						if(withY && (! Double.isNaN(accelY[i]))) {
+							accelRecord.put(
+								AccelDataColumnKey.Y.toString(false), 
+								accelY[i]);
+						}
+						if(withZ && (! Double.isNaN(accelZ[i]))) {
+							accelRecord.put(
+								AccelDataColumnKey.Z.toString(false), 
+								accelZ[i]);
+						}
+						
+						accelArray.put(accelRecord);
 					}
 					result.put(
 							SensorDataColumnKey.ACCELEROMETER_DATA.toString(
@@ -2148,6 +2041,108 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			return result;
 		}
 		
+		/**
+		 * Writes all of the sensor data as a JSON object. This is the same as
+		 * {@link #toJson(boolean, Collection)} with all of the columns, but
+		 * it is written directly to the generator without building any 
+		 * intermediate objects.
+		 * 
+		 * @param generator The generator to write to.
+		 * 
+		 * @param abbreviated Whether or not to use the abbreviated keys.
+		 * 
+		 * @throws IOException There was an error writing the JSON.
+		 */
+		public final void writeJson(
+				final JsonGenerator generator,
+				final boolean abbreviated)
+				throws IOException {
+			
+			generator.writeStartObject();
+			
+			generator.writeStringField(
+				MobilityColumnKey.MODE.toString(abbreviated), 
+				mode.name().toLowerCase());
+			
+			if(speed == null) {
+				// Don't put it in the JSON.
+			}
+			else if(speed.isInfinite() || speed.isNaN()) {
+				generator.writeStringField(
+					SensorDataColumnKey.SPEED.toString(abbreviated), 
+					speed.toString());
+			}
+			else {
+				generator.writeNumberField(
+					SensorDataColumnKey.SPEED.toString(abbreviated), 
+					speed);
+			}
+			
+			if(accelX != null) {
+				generator.writeArrayFieldStart(
+					SensorDataColumnKey.ACCELEROMETER_DATA.toString(
+						abbreviated));
+				
+				for(int i = 0; i < accelX.length; i++) {
+					generator.writeStartObject();
+					if(! Double.isNaN(accelX[i])) {
+						generator.writeNumberField(
+							AccelDataColumnKey.X.toString(abbreviated), 
+							accelX[i]);
+					}
+					if(! Double.isNaN(accelY[i])) {
+						generator.writeNumberField(
+							AccelDataColumnKey.Y.toString(abbreviated), 
+							accelY[i]);
+					}
+					if(! Double.isNaN(accelZ[i])) {
+						generator.writeNumberField(
+							AccelDataColumnKey.Z.toString(abbreviated), 
+							accelZ[i]);
+					}
+					generator.writeEndObject();
+				}
+				
+				generator.writeEndArray();
+			}
+			
+			generator.writeFieldName(
+				SensorDataColumnKey.WIFI_DATA.toString(abbreviated));
+			if(wifiData == null) {
+				generator.writeStartObject();
+				generator.writeEndObject();
+			}
+			else {
+				wifiData.writeJson(generator, abbreviated);
+			}
+			
+			generator.writeEndObject();
+		}
+		
+		/**
+		 * Returns all of the sensor data as a JSON string with the long keys.
+		 * This is how the sensor data is stored.
+		 * 
+		 * @return The sensor data as a JSON string.
+		 * 
+		 * @throws DomainException There was an error writing the JSON.
+		 */
+		public final String toJsonString() throws DomainException {
+			StringWriter writer = new StringWriter();
+			try {
+				JsonGenerator generator = 
+					JSON_FACTORY.createJsonGenerator(writer);
+				writeJson(generator, false);
+				generator.close();
+			}
+			catch(IOException e) {
+				throw new DomainException(
+					"There was an error writing the sensor data.", 
+					e);
+			}
+			return writer.toString();
+		}
+		
 		/**
 		 * Populates the appropriate indices in the 'result' with values based 
 		 * on the 'columns'. For example, if the first two columns were not 
@@ -2190,16 +2185,50 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				result.set(index, speed);
 			}
 			
-			if(accelData != null) {
-				for(AccelData currAccelData : accelData) {
-					currAccelData.toCsvRow(columns, result);
-				}
+			if(accelX != null) {
+				addAxisToCsvRow(columns, result, AccelDataColumnKey.X, accelX);
+				addAxisToCsvRow(columns, result, AccelDataColumnKey.Y, accelY);
+				addAxisToCsvRow(columns, result, AccelDataColumnKey.Z, accelZ);
 			}
 			
 			if(wifiData != null) {
 				wifiData.toCsvRow(columns, result);
 			}
 		}
+		
+		/**
+		 * Adds all of the values of one accelerometer axis to the collection
+		 * at that axis' index in the 'result', if the axis is one of the
+		 * 'columns'.
+		 * 
+		 * @param columns All of the columns in the 'result' list.
+		 * 
+		 * @param result The result list.
+		 * 
+		 * @param axis The axis' column.
+		 * 
+		 * @param values The axis' values.
+		 */
+		private static void addAxisToCsvRow(
+				final List<ColumnKey> columns,
+				final List<Object> result,
+				final AccelDataColumnKey axis,
+				final double[] values) {
+			
+			int index = columns.indexOf(axis);
+			if(index != -1) {
+				@SuppressWarnings("unchecked")
+				Collection<Double> currList =
+						(Collection<Double>) result.get(index);
+				if(currList == null) {
+					currList = new ArrayList<Double>(values.length);
+					result.set(index, currList);
+				}
+				for(double value : values) {
+					currList.add(nanToNull(value));
+				}
+			}
+		}
 	}
 	private final SensorData sensorData;
 	
@@ -2215,7 +2244,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		 * 
 		 * @author John Jenkins
 		 */
-		public static enum ClassifierDataColumnKey implements ColumnKey {
+		public static enum ClassifierDataColumnKey implements AbbreviatedColumnKey {
 			/**
 			 * The FFT generated by the classifier.
 			 */
@@ -2371,7 +2400,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			}
 		}
 		
-		private final List<Double> fft;
+		private final double[] fft;
 		private final Double variance;
 		
 		// This is no longer being collected, but it is being left here as a
@@ -2401,135 +2430,98 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		}
 		
 		/**
-		 * Creates a ClassifierData object that contains all of the applicable
-		 * keys from the JSONObject.
+		 * Decodes a ClassifierData object from a parser that is positioned at
+		 * the first field of the classifier data object, or at its end if it
+		 * has no fields. The parser is left at the end of the object. Both 
+		 * the long and abbreviated keys are accepted.
 		 * 
 		 * @param mode The mode of the Mobility point as retrieved before the
 		 * 			   classifier information was retrieved.
 		 * 
-		 * @param classifierData The classifier data as a JSONObject.
+		 * @param parser The parser.
+		 * 
+		 * @throws IOException The JSON could not be read.
 		 * 
 		 * @throws DomainException Thrown if the mode is missing or unknown.
 		 */
 		private ClassifierData(
 				final Mode mode, 
-				final JSONObject classifierData) 
-				throws DomainException {
+				final JsonParser parser) 
+				throws IOException, DomainException {
 			
-			Mode tMode;
-			try {
-				tMode = 
-					Mode.valueOf(
-						classifierData.getString(
-							ClassifierDataColumnKey.MODE.toString(false))
-							.toUpperCase());
-			}
-			catch(JSONException notRegular) {
-				try {
-					tMode = 
-						Mode.valueOf(
-							classifierData.getString(
-								ClassifierDataColumnKey.MODE.toString(true))
-								.toUpperCase());
-				}
-				catch(JSONException notShort) {
-					if(Mode.ERROR.equals(mode)) {
-						tMode = null;
-					}
-					else {
-						throw new DomainException(
-								ErrorCode.MOBILITY_INVALID_MODE, 
-								"The mode is missing.", 
-								notShort);
-					}
-				}
-			}
-			catch(IllegalArgumentException e) {
-				throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_MODE, 
-						"The mode is unknown.", 
-						e);
-			}
-			this.mode = tMode;
+			String modeString = null;
+			double[] tFft = null;
+			int numEntries = 0;
+			Double tVariance = null;
+			Double tAverage = null;
 			
-			JSONArray fftArray = null;
-			List<Double> tFft = null;
-			try {
-				fftArray = 
-						classifierData.getJSONArray(
-							ClassifierDataColumnKey.FFT.toString(false));
-			}
-			catch(JSONException notRegular) {
-				try {
-					fftArray = 
-							classifierData.getJSONArray(
-								ClassifierDataColumnKey.FFT.toString(true));
-				}
-				catch(JSONException notShort) {
-					// If it is missing we don't care. It may be that only the 
-					// mode could be calculated.
+			while(parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				
+				if(isKey(name, ClassifierDataColumnKey.MODE)) {
+					modeString = readString(parser);
 				}
-			}
-			if(fftArray != null) {
-				int numEntries = fftArray.length();
-				tFft = new ArrayList<Double>(numEntries);
-				for(int i = 0; i < numEntries; i++) {
-					try {
-						tFft.add(fftArray.getDouble(i));
-					}
-					catch(JSONException e) {
-						if(Mode.ERROR.equals(mode)) {
-							tMode = null;
-						}
-						else {
+				else if(
+					isKey(name, ClassifierDataColumnKey.FFT) &&
+					(token == JsonToken.START_ARRAY)) {
+					
+					tFft = new double[INITIAL_ARRAY_CAPACITY];
+					while(parser.nextToken() != JsonToken.END_ARRAY) {
+						double value = readDouble(parser);
+						if(Double.isNaN(value) && (! Mode.ERROR.equals(mode))) {
 							throw new DomainException(
-									"The FFT contains an invalid value: " + 
-										fftArray.toString(), 
-									e);
+									"The FFT contains an invalid value.");
 						}
+						
+						if(numEntries == tFft.length) {
+							tFft = Arrays.copyOf(tFft, numEntries * 2);
+						}
+						tFft[numEntries++] = value;
 					}
+					tFft = Arrays.copyOf(tFft, numEntries);
 				}
-			}
-			fft = tFft;
-			
-			Double tVariance = null;
-			try {
-				tVariance = 
-						classifierData.getDouble(
-							ClassifierDataColumnKey.VARIANCE.toString(false));
-			}
-			catch(JSONException notRegular) {
-				try {
-					tVariance = 
-							classifierData.getDouble(
-								ClassifierDataColumnKey.VARIANCE.toString(
-									true));
+				else if(isKey(name, ClassifierDataColumnKey.VARIANCE)) {
+					tVariance = nanToNull(readDouble(parser));
 				}
-				catch(JSONException notShort) {
-					// If it is missing we don't care. It may be that only the 
-					// mode could be calculated.
+				else if(isKey(name, ClassifierDataColumnKey.AVERAGE)) {
+					tAverage = nanToNull(readDouble(parser));
 				}
+				else {
+					// If any value is missing we don't care. It may be that
+					// only the mode could be calculated.
+					parser.skipChildren();
+				}
+				
+				parser.nextToken();
 			}
-			variance = tVariance;
 			
-			Double tAverage = null;
-			try {
-				tAverage = 
-						classifierData.getDouble(
-							ClassifierDataColumnKey.AVERAGE.toString(false));
+			Mode tMode;
+			if(modeString == null) {
+				if(Mode.ERROR.equals(mode)) {
+					tMode = null;
+				}
+				else {
+					throw new DomainException(
+							ErrorCode.MOBILITY_INVALID_MODE, 
+							"The mode is missing.");
+				}
 			}
-			catch(JSONException e) {
+			else {
 				try {
-					tAverage = 
-							classifierData.getDouble(
-								ClassifierDataColumnKey.AVERAGE.toString(
-									true));
+					tMode = Mode.valueOf(modeString.toUpperCase());
 				}
-				catch(JSONException notShort) {
-					// If it is missing we don't care. It may be that only the mode
-					// could be calculated.
+				catch(IllegalArgumentException e) {
+					throw new DomainException(
+							ErrorCode.MOBILITY_INVALID_MODE, 
+							"The mode is unknown.", 
+							e);
 				}
 			}
+			
+			this.mode = tMode;
+			fft = tFft;
+			variance = tVariance;
 			average = tAverage;
 		}
 		
@@ -2540,9 +2532,6 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		 * 
 		 * @param variance The variance from the server's classifier.
 		 * 
-		 * @param n95Variance The variance from the server's classifier from 
-		 * 					  the N95 data.
-		 * 
 		 * @param average The average of the Samples.
 		 * 
 		 * @param mode The Mode calculated by the server's classifier.
@@ -2550,7 +2539,7 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		 * @throws DomainException The mode is null.
 		 */
 		private ClassifierData(
-				final List<Double> fft, 
+				final double[] fft, 
 				final Double variance,
 				final Double average, 
 				final Mode mode) 
@@ -2567,11 +2556,12 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		}
 
 		/**
-		 * Returns the FFT array.
+		 * Returns the FFT array. The array is not copied, so it must not be
+		 * modified.
 		 * 
 		 * @return The FFT array. May be null.
 		 */
-		public final List<Double> getFft() {
+		public final double[] getFft() {
 			return fft;
 		}
 
@@ -2637,12 +2627,18 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 					mode.name().toLowerCase());
 			}
 			
-			if(columns.contains(MobilityColumnKey.CLASSIFIER_DATA) ||
-				columns.contains(ClassifierDataColumnKey.FFT)) {
+			if((columns.contains(MobilityColumnKey.CLASSIFIER_DATA) ||
+				columns.contains(ClassifierDataColumnKey.FFT)) &&
+				(fft != null)) {
+				
+				JSONArray fftArray = new JSONArray();
+				for(double value : fft) {
+					fftArray.put(value);
+				}
 				
 				result.put(
 					ClassifierDataColumnKey.FFT.toString(abbreviated), 
-					fft);
+					fftArray);
 			}
 			
 			if(columns.contains(MobilityColumnKey.CLASSIFIER_DATA) ||
@@ -2664,6 +2660,77 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			return result;
 		}
 		
+		/**
+		 * Writes all of the classifier data as a JSON object without building
+		 * any intermediate objects.
+		 * 
+		 * @param generator The generator to write to.
+		 * 
+		 * @param abbreviated Whether or not to use the abbreviated keys.
+		 * 
+		 * @throws IOException There was an error writing the JSON.
+		 */
+		public final void writeJson(
+				final JsonGenerator generator,
+				final boolean abbreviated)
+				throws IOException {
+			
+			generator.writeStartObject();
+			
+			if(mode != null) {
+				generator.writeStringField(
+					ClassifierDataColumnKey.MODE.toString(abbreviated), 
+					mode.name().toLowerCase());
+			}
+			
+			if(fft != null) {
+				generator.writeArrayFieldStart(
+					ClassifierDataColumnKey.FFT.toString(abbreviated));
+				for(double value : fft) {
+					generator.writeNumber(value);
+				}
+				generator.writeEndArray();
+			}
+			
+			if(variance != null) {
+				generator.writeNumberField(
+					ClassifierDataColumnKey.VARIANCE.toString(abbreviated), 
+					variance);
+			}
+			
+			if(average != null) {
+				generator.writeNumberField(
+					ClassifierDataColumnKey.AVERAGE.toString(abbreviated), 
+					average);
+			}
+			
+			generator.writeEndObject();
+		}
+		
+		/**
+		 * Returns all of the classifier data as a JSON string with the long
+		 * keys. This is how the classifier data is stored.
+		 * 
+		 * @return The classifier data as a JSON string.
+		 * 
+		 * @throws DomainException There was an error writing the JSON.
+		 */
+		public final String toJsonString() throws DomainException {
+			StringWriter writer = new StringWriter();
+			try {
+				JsonGenerator generator = 
+					JSON_FACTORY.createJsonGenerator(writer);
+				writeJson(generator, false);
+				generator.close();
+			}
+			catch(IOException e) {
+				throw new DomainException(
+					"There was an error writing the classifier data.", 
+					e);
+			}
+			return writer.toString();
+		}
+		
 		/**
 		 * Populates the appropriate indices in the 'result' with values based 
 		 * on the 'columns'. For example, if the first two columns were not 
@@ -2705,8 +2772,14 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				result.set(index, mode.name().toLowerCase());
 			}
 			
-			if((index = columns.indexOf(ClassifierDataColumnKey.FFT)) != -1) {
-				result.set(index, fft);
+			if(((index = columns.indexOf(ClassifierDataColumnKey.FFT)) != -1) &&
+				(fft != null)) {
+				
+				List<Double> fftList = new ArrayList<Double>(fft.length);
+				for(double value : fft) {
+					fftList.add(value);
+				}
+				result.set(index, fftList);
 			}
 			
 			if((index = columns.indexOf(ClassifierDataColumnKey.VARIANCE)) != -1) {
@@ -2827,24 +2900,118 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 	 * @throws DomainException Thrown if Mobility point is null, invalid, or
 	 * 						   contains insufficient information to build 
 	 * 						   this object.
+	 * 
+	 * @see #MobilityPoint(JsonParser, PrivacyState)
 	 */
 	public MobilityPoint(
 			final JSONObject mobilityPoint, 
 			final PrivacyState privacyState) 
 			throws DomainException {
 		
-		String idString;
+		this(createParser(mobilityPoint), privacyState);
+	}
+	
+	/**
+	 * Creates a Mobility object from a Mobility data point in a single pass
+	 * over its JSON. The parser must be positioned at the start of the 
+	 * point's object and is left at its end. Both the long and abbreviated 
+	 * keys are accepted, and the fields may be in any order. The sensor data 
+	 * and classifier data are decoded once the whole point has been read, 
+	 * because whether or not they are required and how they are validated 
+	 * depends on the fields that may come after them.
+	 * 
+	 * @param parser The parser positioned at the start of the point.
+	 * 
+	 * @param privacyState The privacy state of the Mobility point.
+	 * 
+	 * @throws DomainException Thrown if Mobility point is not a JSON object,
+	 * 						   is invalid, or contains insufficient 
+	 * 						   information to build this object.
+	 */
+	public MobilityPoint(
+			final JsonParser parser,
+			final PrivacyState privacyState)
+			throws DomainException {
+		
+		if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The Mobility point is not a JSON object.");
+		}
+		
+		String idString = null;
+		Long tTime = null;
+		String timezoneString = null;
+		String locationStatusString = null;
+		JSONObject locationJson = null;
+		String subTypeString = null;
+		String modeString = null;
+		TokenBuffer sensorDataTokens = null;
+		TokenBuffer classifierDataTokens = null;
 		try {
-			idString = 
-					mobilityPoint.getString(
-							MobilityColumnKey.ID.toString(false));
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				
+				if(isKey(name, MobilityColumnKey.ID)) {
+					idString = readText(parser);
+				}
+				else if(isKey(name, MobilityColumnKey.TIME)) {
+					tTime = readLong(parser);
+				}
+				else if(isKey(name, MobilityColumnKey.TIMEZONE)) {
+					timezoneString = readText(parser);
+				}
+				else if(
+					LocationColumnKey.STATUS.toString(false).equals(name) ||
+					LocationColumnKey.STATUS.toString(true).equals(name)) {
+					
+					locationStatusString = readText(parser);
+				}
+				else if(
+					isKey(name, MobilityColumnKey.LOCATION) &&
+					(token == JsonToken.START_OBJECT)) {
+					
+					locationJson = readObject(parser);
+				}
+				else if(isKey(name, MobilityColumnKey.SUB_TYPE)) {
+					subTypeString = readText(parser);
+				}
+				else if(isKey(name, MobilityColumnKey.MODE)) {
+					modeString = readText(parser);
+				}
+				else if(
+					isKey(name, MobilityColumnKey.SENSOR_DATA) &&
+					(token == JsonToken.START_OBJECT)) {
+					
+					sensorDataTokens = new TokenBuffer(null);
+					sensorDataTokens.copyCurrentStructure(parser);
+				}
+				else if(
+					isKey(name, MobilityColumnKey.CLASSIFIER_DATA) &&
+					(token == JsonToken.START_OBJECT)) {
+					
+					classifierDataTokens = new TokenBuffer(null);
+					classifierDataTokens.copyCurrentStructure(parser);
+				}
+				else {
+					parser.skipChildren();
+				}
+			}
 		}
-		catch(JSONException e) {
+		catch(IOException e) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The Mobility point is not valid JSON.", 
+					e);
+		}
+		
+		// Get the ID.
+		if(idString == null) {
 			throw new DomainException(
 					ErrorCode.MOBILITY_INVALID_ID, 
 					"The Mobility point's ID is missing: " +
-							MobilityColumnKey.ID.toString(false), 
-					e);
+							MobilityColumnKey.ID.toString(false));
 		}
 		try {
 			id = UUID.fromString(idString);
@@ -2855,53 +3022,26 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 					"The Mobility point's ID is not a valid UUID: " + idString, 
 					e);
 		}
-		
-		// Get the time.
-		long tTime;
-		try {
-			tTime = mobilityPoint.getLong(
-							MobilityColumnKey.TIME.toString(false));
-		}
-		catch(JSONException outerException) {
-			try {
-				tTime = mobilityPoint.getLong(
-								MobilityColumnKey.TIME.toString(true));
-			}
-			catch(JSONException innerException) {
-				throw new DomainException(
-						ErrorCode.SERVER_INVALID_TIME, 
-						"The time is missing: " + 
-								MobilityColumnKey.TIME.toString(false), 
-						innerException);
-			}
+		
+		// Get the time.
+		if(tTime == null) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_TIME, 
+					"The time is missing: " + 
+							MobilityColumnKey.TIME.toString(false));
 		}
 		time = tTime;
 		
 		// Get the timezone.
-		DateTimeZone tTimezone;
-		try {
-			tTimezone = 
-					DateTimeUtils.getDateTimeZoneFromString(
-							mobilityPoint.getString(
-									MobilityColumnKey.TIMEZONE.toString(
-											false)));
+		if(timezoneString == null) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_TIMEZONE, 
+					"The timezone is missing: " + 
+							MobilityColumnKey.TIMEZONE.toString(false));
 		}
-		catch(JSONException outerException) {
-			try {
-				tTimezone = 
-						DateTimeUtils.getDateTimeZoneFromString(
-								mobilityPoint.getString(
-										MobilityColumnKey.TIMEZONE.toString(
-												true)));
-			}
-			catch(JSONException innerException) {
-				throw new DomainException(
-						ErrorCode.SERVER_INVALID_TIMEZONE, 
-						"The timezone is missing: " + 
-								MobilityColumnKey.TIMEZONE.toString(
-										false), 
-						innerException);
-			}
+		try {
+			timezone = 
+					DateTimeUtils.getDateTimeZoneFromString(timezoneString);
 		}
 		catch(IllegalArgumentException e) {
 			throw new DomainException(
@@ -2909,33 +3049,18 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 				"The time zone is unknown.",
 				e);
 		}
-		timezone = tTimezone;
 		
 		// Get the location status.
-		String locationStatusString;
-		try {
-			locationStatusString = 
-					mobilityPoint.getString(
-							LocationColumnKey.STATUS.toString(false)
-					).toUpperCase();
-		}
-		catch(JSONException outerException) {
-			try {
-				locationStatusString =
-						mobilityPoint.getString(
-								LocationColumnKey.STATUS.toString(true)
-						).toUpperCase();
-			}
-			catch(JSONException innerException) {
-				throw new DomainException(
-						ErrorCode.SERVER_INVALID_LOCATION_STATUS, 
-						"The location status is missing: " +
-								LocationColumnKey.STATUS.toString(false), 
-						innerException);
-			}
+		if(locationStatusString == null) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_LOCATION_STATUS, 
+					"The location status is missing: " +
+							LocationColumnKey.STATUS.toString(false));
 		}
 		try {
-			locationStatus = LocationStatus.valueOf(locationStatusString);
+			locationStatus = 
+					LocationStatus.valueOf(
+							locationStatusString.toUpperCase());
 		}
 		catch(IllegalArgumentException e) {
 			throw new DomainException(
@@ -2944,71 +3069,30 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 					e);
 		}
 		
-		// Get the location.
-		Location tLocation;
-		try {
-			tLocation = 
-					new Location(
-							mobilityPoint.getJSONObject(
-									MobilityColumnKey.LOCATION.toString(
-											false)),
-							timezone);
-		}
-		catch(JSONException outerException) {
-			try {
-				tLocation = 
-						new Location(
-								mobilityPoint.getJSONObject(
-										MobilityColumnKey.LOCATION.toString(
-												true)),
-								timezone);
-			}
-			catch(JSONException innerException) {
-				// If there was no location information in the JSONObject, 
-				// check to ensure that the location status was unavailable as
-				// that is the only time this is acceptable.
-				if(LocationStatus.UNAVAILABLE.equals(locationStatus)) {
-					tLocation = null;
-				}
-				else {
-					throw new DomainException(
-							ErrorCode.SERVER_INVALID_LOCATION, 
-							"The location is missing: " +
-									MobilityColumnKey.LOCATION.toString(
-											false), 
-							innerException);
-				}
-			}
+		// Get the location. It may only be missing if the location status is
+		// unavailable.
+		if(locationJson != null) {
+			location = new Location(locationJson, timezone);
 		}
-		location = tLocation;
-		
-		// Get the subtype.
-		String subTypeString;
-		try {
-			subTypeString = 
-					mobilityPoint.getString(
-							MobilityColumnKey.SUB_TYPE.toString(false)
-					).toUpperCase();
+		else if(LocationStatus.UNAVAILABLE.equals(locationStatus)) {
+			location = null;
 		}
-		catch(JSONException notLong) {
-			try {
-				subTypeString = 
-						mobilityPoint
-							.getString(
-									MobilityColumnKey.SUB_TYPE.toString(true)
-							).toUpperCase();
-			}
-			catch(JSONException notShort) {
-				throw new DomainException(
-						ErrorCode.MOBILITY_INVALID_SUBTYPE, 
-						"The subtype is missing: " +
-								MobilityColumnKey.SUB_TYPE.toString(false), 
-						notShort);
-			}
+		else {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_LOCATION, 
+					"The location is missing: " +
+							MobilityColumnKey.LOCATION.toString(false));
 		}
 		
+		// Get the subtype.
+		if(subTypeString == null) {
+			throw new DomainException(
+					ErrorCode.MOBILITY_INVALID_SUBTYPE, 
+					"The subtype is missing: " +
+							MobilityColumnKey.SUB_TYPE.toString(false));
+		}
 		try {
-			subType = SubType.valueOf(subTypeString);
+			subType = SubType.valueOf(subTypeString.toUpperCase());
 		}
 		catch(IllegalArgumentException e) {
 			throw new DomainException(
@@ -3020,27 +3104,13 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		// Based on the subtype, get the mode or sensor data.
 		switch(subType) {
 		case MODE_ONLY:
-			String modeString;
-			try {
-				modeString = 
-						mobilityPoint.getString(
-								MobilityColumnKey.MODE.toString(false));
-			}
-			catch(JSONException outerException) {
-				try {
-					modeString = 
-							mobilityPoint.getString(
-									MobilityColumnKey.MODE.toString(true));
-				}
-				catch(JSONException innerException) {
-					throw new DomainException(
-							ErrorCode.MOBILITY_INVALID_MODE, 
-							"The subtype is '" + 
-								SubType.MODE_ONLY.toString().toLowerCase() + 
-								"', but the required key is missing: " +
-								MobilityColumnKey.MODE.toString(false), 
-							innerException);
-				}
+			if(modeString == null) {
+				throw new DomainException(
+						ErrorCode.MOBILITY_INVALID_MODE, 
+						"The subtype is '" + 
+							SubType.MODE_ONLY.toString().toLowerCase() + 
+							"', but the required key is missing: " +
+							MobilityColumnKey.MODE.toString(false));
 			}
 
 			Mode tMode;
@@ -3059,24 +3129,29 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			break;
 			
 		case SENSOR_DATA:
-			try {
-				sensorData = 
-						new SensorData(
-								mobilityPoint.getJSONObject(
-										MobilityColumnKey.SENSOR_DATA.toString(
-												true)));
-				mode = sensorData.mode;
-			}
-			catch(JSONException e) {
+			if(sensorDataTokens == null) {
 				throw new DomainException(
 						ErrorCode.SERVER_INVALID_JSON, 
 						"The subtype is '" + 
 							SubType.SENSOR_DATA.toString().toLowerCase() + 
 							"', but the required key is missing: " + 
 							MobilityColumnKey.SENSOR_DATA.toString(
-									true),
+									true));
+			}
+			
+			// The sensor data is decoded by the same streaming decoder that 
+			// is used for the stored sensor data, replaying its tokens 
+			// rather than reading its JSON again.
+			try {
+				sensorData = decodeSensorData(sensorDataTokens.asParser());
+			}
+			catch(IOException e) {
+				throw new DomainException(
+						ErrorCode.SERVER_INVALID_JSON, 
+						"The sensor data is not valid JSON.", 
 						e);
 			}
+			mode = sensorData.mode;
 			break;
 			
 		default:
@@ -3086,30 +3161,25 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			sensorData = null;
 		}
 		
-		// Attempt to retrieve the classifier data.
-		ClassifierData tClassifierData = null;
-		try {
-			tClassifierData = 
-					new ClassifierData(
-						mode,
-						mobilityPoint.getJSONObject(
-							MobilityColumnKey.CLASSIFIER_DATA.toString(
-								false)));
-		}
-		catch(JSONException notRegular) {
+		// Attempt to retrieve the classifier data. The classifier data is 
+		// optional, so it may not exist.
+		if(classifierDataTokens == null) {
+			classifierData = null;
+		}
+		else {
 			try {
-				tClassifierData = 
-						new ClassifierData(
-							mode,
-							mobilityPoint.getJSONObject(
-								MobilityColumnKey.CLASSIFIER_DATA.toString(
-									true)));
+				classifierData = 
+						decodeClassifierData(
+								mode, 
+								classifierDataTokens.asParser());
 			}
-			catch(JSONException notShort) {
-				// The classifier data is optional, so it may not exist.
+			catch(IOException e) {
+				throw new DomainException(
+						ErrorCode.SERVER_INVALID_JSON, 
+						"The classifier data is not valid JSON.", 
+						e);
 			}
 		}
-		classifierData = tClassifierData;
 		
 		this.privacyState = privacyState;
 	}
@@ -3137,10 +3207,11 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 	 * @param privacyState The privacy state of this point.
 	 * 
 	 * @param sensorData The optional sensor data that may have additionally
-	 * 					 been collected at the time this point was created.
+	 * 					 been collected at the time this point was created,
+	 * 					 as a JSON string.
 	 * 
 	 * @param features The optional feature information calculated by the 
-	 * 				   server once the point was uploaded.
+	 * 				   server once the point was uploaded, as a JSON string.
 	 * 
 	 * @param classifierVersion The version of the classifier that was used to
 	 * 							generate the 'features'.
@@ -3159,8 +3230,8 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			final JSONObject location, 
 			final Mode mode, 
 			final PrivacyState privacyState, 
-			final JSONObject sensorData, 
-			final JSONObject features,
+			final String sensorData, 
+			final String features,
 			final String classifierVersion) 
 			throws DomainException {
 		
@@ -3222,8 +3293,11 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 		else {
 			subType = SubType.SENSOR_DATA;
 			
-			this.sensorData = new SensorData(sensorData);
-			this.classifierData = new ClassifierData(this.mode, features);
+			this.sensorData = decodeSensorData(sensorData);
+			this.classifierData = 
+					(features == null) ? 
+						null : 
+						decodeClassifierData(this.mode, features);
 		}
 	}
 	
@@ -3454,13 +3528,13 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 					Mode.ERROR.toString());
 		}
 		
-		List<Sample> result = new ArrayList<Sample>(sensorData.accelData.size());
-		for(AccelData dataPoint : sensorData.accelData) {
-			result.add(
-					new Sample(
-						dataPoint.getX(), 
-						dataPoint.getY(), 
-						dataPoint.getZ()));
+		double[] accelX = sensorData.accelX;
+		double[] accelY = sensorData.accelY;
+		double[] accelZ = sensorData.accelZ;
+		
+		List<Sample> result = new ArrayList<Sample>(accelX.length);
+		for(int i = 0; i < accelX.length; i++) {
+			result.add(new Sample(accelX[i], accelY[i], accelZ[i]));
 		}
 		return result;
 	}
@@ -3490,13 +3564,13 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 					"There was no WiFi data generated for this point.");
 		}
 
-		List<SensorData.WifiData.AccessPoint> scan = sensorData.wifiData.scan;
+		String[] ssids = sensorData.wifiData.ssids;
+		double[] strengths = sensorData.wifiData.strengths;
 		List<AccessPoint> accessPoints = 
-				new ArrayList<AccessPoint>(scan.size());
+				new ArrayList<AccessPoint>(ssids.length);
 		
-		for(SensorData.WifiData.AccessPoint accessPoint : scan) {
-			accessPoints
-				.add(new AccessPoint(accessPoint.ssid, accessPoint.strength));
+		for(int i = 0; i < ssids.length; i++) {
+			accessPoints.add(new AccessPoint(ssids[i], strengths[i]));
 		}
 		
 		return new WifiScan(sensorData.wifiData.time, accessPoints);
@@ -3524,8 +3598,17 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			final Double average, 
 			final Mode mode) 
 			throws DomainException {
+		
+		double[] fftArray = null;
+		if(fft != null) {
+			fftArray = new double[fft.size()];
+			int i = 0;
+			for(Double value : fft) {
+				fftArray[i++] = value;
+			}
+		}
 			
-		classifierData = new ClassifierData(fft, variance, average, mode);
+		classifierData = new ClassifierData(fftArray, variance, average, mode);
 	}
 	
 	/**
@@ -3807,4 +3890,400 @@ public class MobilityPoint implements Comparable<MobilityPoint> {
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Decodes sensor data from a JSON string in a single pass.
+	 * 
+	 * @param sensorData The sensor data as a JSON string.
+	 * 
+	 * @return The decoded sensor data.
+	 * 
+	 * @throws DomainException The sensor data is missing, is not valid JSON,
+	 * 						   or is not valid sensor data.
+	 */
+	private static SensorData decodeSensorData(
+			final String sensorData)
+			throws DomainException {
+		
+		if(sensorData == null) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The sensor data is missing.");
+		}
+		
+		try {
+			JsonParser parser = JSON_FACTORY.createJsonParser(sensorData);
+			try {
+				return decodeSensorData(parser);
+			}
+			finally {
+				parser.close();
+			}
+		}
+		catch(IOException e) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The sensor data is not valid JSON.", 
+					e);
+		}
+	}
+	
+	/**
+	 * Decodes sensor data from a parser that has not yet read the sensor 
+	 * data's object.
+	 * 
+	 * @param parser The parser.
+	 * 
+	 * @return The decoded sensor data.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 * 
+	 * @throws DomainException The sensor data is not a JSON object or is not
+	 * 						   valid sensor data.
+	 */
+	private static SensorData decodeSensorData(
+			final JsonParser parser)
+			throws IOException, DomainException {
+		
+		if(parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The sensor data is not a JSON object.");
+		}
+		parser.nextToken();
+		
+		return new SensorData(parser);
+	}
+	
+	/**
+	 * Decodes classifier data from a JSON string in a single pass.
+	 * 
+	 * @param mode The point's mode.
+	 * 
+	 * @param classifierData The classifier data as a JSON string.
+	 * 
+	 * @return The decoded classifier data or null if it is an empty object 
+	 * 		   and the mode is not 'ERROR', which is how a point that has not
+	 * 		   yet been classified is stored.
+	 * 
+	 * @throws DomainException The classifier data is not valid JSON or is 
+	 * 						   not valid classifier data.
+	 */
+	private static ClassifierData decodeClassifierData(
+			final Mode mode,
+			final String classifierData)
+			throws DomainException {
+		
+		try {
+			JsonParser parser = JSON_FACTORY.createJsonParser(classifierData);
+			try {
+				return decodeClassifierData(mode, parser);
+			}
+			finally {
+				parser.close();
+			}
+		}
+		catch(IOException e) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The classifier data is not valid JSON.", 
+					e);
+		}
+	}
+	
+	/**
+	 * Decodes classifier data from a parser that has not yet read the 
+	 * classifier data's object.
+	 * 
+	 * @param mode The point's mode.
+	 * 
+	 * @param parser The parser.
+	 * 
+	 * @return The decoded classifier data or null if it is an empty object 
+	 * 		   and the mode is not 'ERROR'.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 * 
+	 * @throws DomainException The classifier data is not a JSON object or is
+	 * 						   not valid classifier data.
+	 */
+	private static ClassifierData decodeClassifierData(
+			final Mode mode,
+			final JsonParser parser)
+			throws IOException, DomainException {
+		
+		if(parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The classifier data is not a JSON object.");
+		}
+		
+		if(
+			(parser.nextToken() == JsonToken.END_OBJECT) &&
+			(! Mode.ERROR.equals(mode))) {
+			
+			return null;
+		}
+		
+		return new ClassifierData(mode, parser);
+	}
+	
+	/**
+	 * Creates a parser over a Mobility point's JSON that is positioned at 
+	 * the start of its object.
+	 * 
+	 * @param mobilityPoint The Mobility point.
+	 * 
+	 * @return The parser.
+	 * 
+	 * @throws DomainException The point is null.
+	 */
+	private static JsonParser createParser(
+			final JSONObject mobilityPoint)
+			throws DomainException {
+		
+		if(mobilityPoint == null) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The Mobility point is null.");
+		}
+		
+		try {
+			JsonParser parser = 
+				JSON_FACTORY.createJsonParser(mobilityPoint.toString());
+			parser.nextToken();
+			return parser;
+		}
+		catch(IOException e) {
+			throw new DomainException(
+					ErrorCode.SERVER_INVALID_JSON, 
+					"The Mobility point is not valid JSON.", 
+					e);
+		}
+	}
+	
+	/**
+	 * Returns whether or not a field's name is either the long or the 
+	 * abbreviated version of a key.
+	 * 
+	 * @param name The field's name.
+	 * 
+	 * @param key The key.
+	 * 
+	 * @return Whether or not the name is the key.
+	 */
+	private static boolean isKey(
+			final String name, 
+			final AbbreviatedColumnKey key) {
+		
+		return 
+			key.toString(false).equals(name) || 
+			key.toString(true).equals(name);
+	}
+	
+	/**
+	 * Reads the parser's current value as text. Any scalar value is 
+	 * accepted, as org.json did when the points were decoded with it.
+	 * 
+	 * @param parser The parser positioned at the value.
+	 * 
+	 * @return The value or null if it is an object or an array.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static String readText(
+			final JsonParser parser) 
+			throws IOException {
+		
+		if(parser.getCurrentToken().isScalarValue()) {
+			return parser.getText();
+		}
+		
+		parser.skipChildren();
+		return null;
+	}
+	
+	/**
+	 * Reads the object at the parser's current position into a JSONObject.
+	 * This is only used for the small objects, like the location, whose
+	 * decoders take a JSONObject.
+	 * 
+	 * @param parser The parser positioned at the start of the object. It is
+	 * 				 left at its end.
+	 * 
+	 * @return The object.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static JSONObject readObject(
+			final JsonParser parser) 
+			throws IOException {
+		
+		JSONObject result = new JSONObject();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			
+			try {
+				result.put(name, readValue(parser));
+			}
+			catch(JSONException e) {
+				throw new IOException("The value could not be stored.", e);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads the value at the parser's current position as the type that 
+	 * org.json would use for it.
+	 * 
+	 * @param parser The parser positioned at the value. It is left at its
+	 * 				 end.
+	 * 
+	 * @return The value.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static Object readValue(
+			final JsonParser parser) 
+			throws IOException {
+		
+		switch(parser.getCurrentToken()) {
+		case START_OBJECT:
+			return readObject(parser);
+			
+		case START_ARRAY:
+			JSONArray array = new JSONArray();
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				array.put(readValue(parser));
+			}
+			return array;
+			
+		case VALUE_NUMBER_INT:
+			return parser.getNumberValue();
+			
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+			
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+			
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+			
+		case VALUE_NULL:
+			return JSONObject.NULL;
+			
+		default:
+			return parser.getText();
+		}
+	}
+	
+	/**
+	 * Reads the parser's current value as a double. Numeric strings are
+	 * accepted, including "NaN" and "Infinity".
+	 * 
+	 * @param parser The parser positioned at the value.
+	 * 
+	 * @return The value or NaN if it is not a number.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static double readDouble(
+			final JsonParser parser) 
+			throws IOException {
+		
+		JsonToken token = parser.getCurrentToken();
+		if(token.isNumeric()) {
+			return parser.getDoubleValue();
+		}
+		else if(token == JsonToken.VALUE_STRING) {
+			try {
+				return Double.parseDouble(parser.getText());
+			}
+			catch(NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+		
+		parser.skipChildren();
+		return Double.NaN;
+	}
+	
+	/**
+	 * Reads the parser's current value as a long. Numeric strings are 
+	 * accepted.
+	 * 
+	 * @param parser The parser positioned at the value.
+	 * 
+	 * @return The value or null if it is not a number.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static Long readLong(
+			final JsonParser parser) 
+			throws IOException {
+		
+		JsonToken token = parser.getCurrentToken();
+		if(token.isNumeric()) {
+			return parser.getLongValue();
+		}
+		else if(token == JsonToken.VALUE_STRING) {
+			try {
+				return Long.decode(parser.getText());
+			}
+			catch(NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		parser.skipChildren();
+		return null;
+	}
+	
+	/**
+	 * Reads the parser's current value as a string.
+	 * 
+	 * @param parser The parser positioned at the value.
+	 * 
+	 * @return The value or null if it is not a string.
+	 * 
+	 * @throws IOException The JSON could not be read.
+	 */
+	private static String readString(
+			final JsonParser parser) 
+			throws IOException {
+		
+		if(parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+			return parser.getText();
+		}
+		
+		parser.skipChildren();
+		return null;
+	}
+	
+	/**
+	 * Converts a NaN, which is how a missing value is stored in the arrays, 
+	 * into null.
+	 * 
+	 * @param value The value.
+	 * 
+	 * @return The value or null if it is NaN.
+	 */
+	private static Double nanToNull(final double value) {
+		return (Double.isNaN(value)) ? null : value;
+	}
+	
+	/**
+	 * Converts a null into NaN, which is how a missing value is stored in the 
+	 * arrays.
+	 * 
+	 * @param value The value.
+	 * 
+	 * @return The value or NaN if it is null.
+	 */
+	private static double nullToNan(final Double value) {
+		return (value == null) ? Double.NaN : value;
+	}
+}
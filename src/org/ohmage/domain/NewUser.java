@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import org.ohmage.domain.UserInformation.UserPersonal;
+import org.ohmage.exception.DomainException;
+
+/**
+ * A user that is to be created as part of a batch. Any of the flags that are
+ * null take the same defaults as when a single user is created.
+ *
+ * @author John Jenkins
+ */
+public class NewUser {
+	private final String username;
+	private final String password;
+	private final String emailAddress;
+	private final Boolean admin;
+	private final Boolean enabled;
+	private final Boolean newAccount;
+	private final Boolean campaignCreationPrivilege;
+	private final UserPersonal personalInfo;
+
+	/**
+	 * Creates a new user.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param password The user's plain-text password.
+	 *
+	 * @param emailAddress The user's email address, which may be null.
+	 *
+	 * @param admin Whether or not the user should be an admin, which may be
+	 * 				null.
+	 *
+	 * @param enabled Whether or not the user should be enabled, which may be
+	 * 				  null.
+	 *
+	 * @param newAccount Whether or not the user must change their password
+	 * 					 before using any other APIs, which may be null.
+	 *
+	 * @param campaignCreationPrivilege Whether or not the user may create
+	 * 									campaigns, which may be null.
+	 *
+	 * @param personalInfo The user's personal information, which may be null.
+	 *
+	 * @throws DomainException The username or password is null.
+	 */
+	public NewUser(
+			final String username,
+			final String password,
+			final String emailAddress,
+			final Boolean admin,
+			final Boolean enabled,
+			final Boolean newAccount,
+			final Boolean campaignCreationPrivilege,
+			final UserPersonal personalInfo)
+			throws DomainException {
+
+		if(username == null) {
+			throw new DomainException("The username is null.");
+		}
+		if(password == null) {
+			throw new DomainException("The password is null.");
+		}
+
+		this.username = username;
+		this.password = password;
+		this.emailAddress = emailAddress;
+		this.admin = admin;
+		this.enabled = enabled;
+		this.newAccount = newAccount;
+		this.campaignCreationPrivilege = campaignCreationPrivilege;
+		this.personalInfo = personalInfo;
+	}
+
+	/**
+	 * Returns the user's username.
+	 *
+	 * @return The user's username.
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns the user's plain-text password.
+	 *
+	 * @return The user's plain-text password.
+	 */
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * Returns the user's email address.
+	 *
+	 * @return The user's email address, which may be null.
+	 */
+	public String getEmailAddress() {
+		return emailAddress;
+	}
+
+	/**
+	 * Returns whether or not the user should be an admin.
+	 *
+	 * @return Whether or not the user should be an admin, which may be null.
+	 */
+	public Boolean getAdmin() {
+		return admin;
+	}
+
+	/**
+	 * Returns whether or not the user should be enabled.
+	 *
+	 * @return Whether or not the user should be enabled, which may be null.
+	 */
+	public Boolean getEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns whether or not the user must change their password before
+	 * using any other APIs.
+	 *
+	 * @return Whether or not the account is new, which may be null.
+	 */
+	public Boolean getNewAccount() {
+		return newAccount;
+	}
+
+	/**
+	 * Returns whether or not the user may create campaigns.
+	 *
+	 * @return Whether or not the user may create campaigns, which may be
+	 * 		   null.
+	 */
+	public Boolean getCampaignCreationPrivilege() {
+		return campaignCreationPrivilege;
+	}
+
+	/**
+	 * Returns the user's personal information.
+	 *
+	 * @return The user's personal information, which may be null.
+	 */
+	public UserPersonal getPersonalInfo() {
+		return personalInfo;
+	}
+}
@@ -30,6 +30,7 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.node.TreeTraversingParser;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.JavaScriptException;
@@ -132,6 +133,48 @@ public class Observer {
 	 * @author John Jenkins
 	 */
 	public static class Stream {
+		/**
+		 * How the stream's data is stored.
+		 *
+		 * @author John Jenkins
+		 */
+		public static enum Storage {
+			/**
+			 * Each point is its own row, and its data is JSON text. This is
+			 * the default.
+			 */
+			ROW,
+			/**
+			 * The points are packed into compressed chunks column by column
+			 * using the stream's schema. This is meant for high-frequency
+			 * streams, whose points are small and numerous.
+			 */
+			COLUMNAR;
+			
+			/**
+			 * Converts a String value into a Storage or throws an exception
+			 * if there is no comparable storage.
+			 * 
+			 * @param storage The storage to be converted into a Storage enum.
+			 * 
+			 * @return A comparable Storage enum.
+			 * 
+			 * @throws IllegalArgumentException Thrown if there is no 
+			 * 									comparable Storage enum.
+			 */
+			public static Storage getValue(final String storage) {
+				return valueOf(storage.toUpperCase());
+			}
+			
+			/**
+			 * Converts the storage to a nice, human-readable format.
+			 */
+			@Override
+			public String toString() {
+				return name().toLowerCase();
+			}
+		}
+		
 		private static final String KEY_JSON_ID = "id";
 		private static final String KEY_JSON_VERSION = "version";
 		private static final String KEY_JSON_NAME = "name";
@@ -140,6 +183,7 @@ public class Observer {
 		private static final String KEY_JSON_WITH_TIMESTAMP = "with_timestamp";
 		private static final String KEY_JSON_WITH_LOCATION = "with_location";
 		private static final String KEY_JSON_SCHEMA = "schema";
+		private static final String KEY_JSON_STORAGE = "storage";
 
 		private static final Pattern PATTERN_ID_VALIDATOR = 
 			Pattern.compile("[a-zA-Z]{1}[\\w_]{0,254}");
@@ -166,7 +210,11 @@ public class Observer {
 
 		@XmlElement(name=KEY_JSON_SCHEMA)
 		private final String schemaString;
-		private final JsonParser schema;
+		private final JsonNode schema;
+		private final String schemaJson;
+		
+		@XmlElement(name=KEY_JSON_STORAGE)
+		private final Storage storage;
 		
 		/**
 		 * Private, default constructor. This should never be used and would
@@ -183,6 +231,8 @@ public class Observer {
 			withLocation = null;
 			schemaString = null;
 			schema = null;
+			schemaJson = null;
+			storage = null;
 		}
 
 		/**
@@ -220,6 +270,110 @@ public class Observer {
 				final Boolean withLocation,
 				final String schema) 
 				throws DomainException {
+			
+			this(
+				id, 
+				version, 
+				name, 
+				description, 
+				withId, 
+				withTimestamp, 
+				withLocation, 
+				schema, 
+				true);
+		}
+
+		/**
+		 * Creates a new stream definition, optionally without validating its
+		 * schema. Validating a schema requires compiling the schema
+		 * JavaScript, so it should be skipped for definitions that were
+		 * already validated when they were stored.
+		 * 
+		 * @param id The unique identifier.
+		 * 
+		 * @param version The version for internal use.
+		 * 
+		 * @param name The display name for this stream.
+		 * 
+		 * @param description The description to be displayed to users.
+		 * 
+		 * @param withTimestamp Whether or not the data streams for this stream
+		 * 						should contain a timestamp.
+		 * 
+		 * @param withLocation Whether or not the data streams for this stream
+		 * 					   should contain a location.
+		 * 
+		 * @param schema A string representing a JSON schema.
+		 * 
+		 * @param validateSchema Whether or not to validate the schema. If 
+		 * 						 false, the schema must still be valid JSON.
+		 * 
+		 * @throws DomainException Required information was missing or invalid.
+		 */
+		public Stream(
+				final String id,
+				final long version,
+				final String name,
+				final String description,
+				final Boolean withId,
+				final Boolean withTimestamp,
+				final Boolean withLocation,
+				final String schema,
+				final boolean validateSchema) 
+				throws DomainException {
+			
+			this(
+				id, 
+				version, 
+				name, 
+				description, 
+				withId, 
+				withTimestamp, 
+				withLocation, 
+				schema, 
+				Storage.ROW, 
+				validateSchema);
+		}
+
+		/**
+		 * Creates a new stream definition whose data is stored in a specific
+		 * way, optionally without validating its schema.
+		 * 
+		 * @param id The unique identifier.
+		 * 
+		 * @param version The version for internal use.
+		 * 
+		 * @param name The display name for this stream.
+		 * 
+		 * @param description The description to be displayed to users.
+		 * 
+		 * @param withTimestamp Whether or not the data streams for this stream
+		 * 						should contain a timestamp.
+		 * 
+		 * @param withLocation Whether or not the data streams for this stream
+		 * 					   should contain a location.
+		 * 
+		 * @param schema A string representing a JSON schema.
+		 * 
+		 * @param storage How the stream's data is stored.
+		 * 
+		 * @param validateSchema Whether or not to validate the schema. If 
+		 * 						 false, the schema must still be valid JSON.
+		 * 
+		 * @throws DomainException Required information was missing or invalid.
+		 */
+		public Stream(
+				final String id,
+				final long version,
+				final String name,
+				final String description,
+				final Boolean withId,
+				final Boolean withTimestamp,
+				final Boolean withLocation,
+				final String schema,
+				final Storage storage,
+				final boolean validateSchema) 
+				throws DomainException {
 
 			if(id == null) {
 				throw new DomainException("The ID is null.");
@@ -234,6 +388,9 @@ public class Observer {
 				throw new DomainException(
 					"The schema of this observer is null.");
 			}
+			if(storage == null) {
+				throw new DomainException("The storage is null.");
+			}
 
 			this.id = sanitizeId(id);
 			this.version = version;
@@ -245,8 +402,13 @@ public class Observer {
 			this.withTimestamp = withTimestamp;
 			this.withLocation = withLocation;
 
-			this.schema = validateSchema(schema);
+			if(validateSchema) {
+				validateSchema(schema);
+			}
+			this.schema = parseSchema(schema);
+			this.schemaJson = this.schema.toString();
 			this.schemaString = schema;
+			this.storage = storage;
 		}
 		
 		/**
@@ -407,8 +569,41 @@ public class Observer {
 			
 			schemaString = 
 				getXmlValue(stream, "schema", "stream, " + id + ", schema");
-			schema = validateSchema(schemaString);
+			validateSchema(schemaString);
+			schema = parseSchema(schemaString);
+			schemaJson = schema.toString();
+			
+			Nodes storages;
+			try {
+				storages = stream.query("storage");
+			}
+			catch(XPathException e) {
+				// The XPath is invalid.
+				throw new DomainException(e);
+			}
 			
+			if(storages.size() == 0) {
+				storage = Storage.ROW;
+			}
+			else {
+				String storageString =
+					getXmlValue(
+						stream, 
+						"storage", 
+						"stream, '" + id + "', storage");
+				try {
+					storage = Storage.getValue(storageString);
+				}
+				catch(IllegalArgumentException e) {
+					throw new DomainException(
+						ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
+						"The storage of the stream '" +
+							id +
+							"' is unknown: " +
+							storageString,
+						e);
+				}
+			}
 		}
 
 		/**
@@ -480,7 +675,26 @@ public class Observer {
 		 * @return The schema.
 		 */
 		public JsonParser getSchema() {
-			return schema;
+			return new TreeTraversingParser(schema, JSON_FACTORY.getCodec());
+		}
+		
+		/**
+		 * Returns the schema as compact JSON text, which may be written as-is
+		 * instead of being serialized again.
+		 * 
+		 * @return The schema as JSON text.
+		 */
+		public String getSchemaJson() {
+			return schemaJson;
+		}
+		
+		/**
+		 * Returns how the stream's data is stored.
+		 * 
+		 * @return How the stream's data is stored.
+		 */
+		public Storage getStorage() {
+			return storage;
 		}
 		
 		/**
@@ -534,10 +748,16 @@ public class Observer {
 						withLocation);
 				}
 				
+				// Add the storage if it isn't the default.
+				if(! Storage.ROW.equals(storage)) {
+					generator.writeStringField(
+						KEY_JSON_STORAGE, 
+						storage.toString());
+				}
+				
 				// Add the schema.
-				generator.writeObjectField(
-					KEY_JSON_SCHEMA, 
-					schema.readValueAsTree());
+				generator.writeFieldName(KEY_JSON_SCHEMA);
+				generator.writeRawValue(schemaJson);
 			}
 			finally {
 				// Close this observer's object.
@@ -693,6 +913,44 @@ public class Observer {
 					e);
 			}
 		}
+		
+		/**
+		 * Parses a schema that has already been validated.
+		 * 
+		 * @param schema The stream's schema.
+		 * 
+		 * @return The parsed schema.
+		 * 
+		 * @throws DomainException The schema is not valid JSON.
+		 */
+		private static JsonNode parseSchema(
+				final String schema)
+				throws DomainException {
+			
+			JsonNode result;
+			try {
+				result = JSON_FACTORY.createJsonParser(schema).readValueAsTree();
+			}
+			catch(JsonParseException e) {
+				throw new DomainException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
+					"The schema is not valid JSON.",
+					e);
+			}
+			catch(IOException e) {
+				throw new DomainException(
+					"Could not read the string value.",
+					e);
+			}
+			
+			if(result == null) {
+				throw new DomainException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
+					"The schema is empty.");
+			}
+			
+			return result;
+		}
 	}
 	private final Map<String, Stream> streams;
 	
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.ohmage.domain.Observer.Stream;
+
+/**
+ * <p>
+ * An immutable snapshot of every version of every observer and their
+ * streams. The definitions are read once and then shared by every request,
+ * so the {@link Stream}s in it must not be re-created for each request.
+ * </p>
+ * 
+ * <p>
+ * The lookups mirror the observer queries: observers are ordered by their
+ * ID and then from the newest version to the oldest, so the first observer
+ * for an ID without a version is the latest one, and streams are ordered by
+ * their observer's ID and version and then by their own ID and version.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ObserverRegistry {
+	/**
+	 * A stream along with the ID of the observer to which it belongs.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Entry {
+		private final String observerId;
+		private final Stream stream;
+		
+		/**
+		 * Creates a new entry.
+		 * 
+		 * @param observerId The observer's unique identifier.
+		 * 
+		 * @param stream The stream.
+		 */
+		private Entry(final String observerId, final Stream stream) {
+			this.observerId = observerId;
+			this.stream = stream;
+		}
+	}
+	
+	/**
+	 * Every observer, ordered by ID and then by descending version.
+	 */
+	private final List<Observer> observers;
+	
+	/**
+	 * Every distinct stream, ordered by the observer's ID and version and then
+	 * by the stream's ID and version. A stream that is shared by multiple
+	 * versions of an observer is only listed with the first.
+	 */
+	private final List<Entry> streams;
+	
+	/**
+	 * The observers' IDs to their streams' IDs to the streams' versions to
+	 * the streams.
+	 */
+	private final Map<String, Map<String, Map<Long, Stream>>> streamLookup;
+	
+	/**
+	 * Creates a new registry.
+	 * 
+	 * @param observers Every version of every observer.
+	 */
+	public ObserverRegistry(final Collection<Observer> observers) {
+		List<Observer> sortedObservers = new ArrayList<Observer>(observers);
+		Collections.sort(
+			sortedObservers, 
+			new Comparator<Observer>() {
+				/**
+				 * Orders observers by ID and then by descending version.
+				 */
+				@Override
+				public int compare(
+						final Observer first, 
+						final Observer second) {
+					
+					int result = first.getId().compareTo(second.getId());
+					if(result == 0) {
+						result = 
+							Long.compare(second.getVersion(), first.getVersion());
+					}
+					return result;
+				}
+			});
+		this.observers = Collections.unmodifiableList(sortedObservers);
+		
+		// Walk the observers from the oldest version to the newest to build
+		// the list of streams.
+		List<Observer> ascending = new ArrayList<Observer>(sortedObservers);
+		Collections.sort(
+			ascending, 
+			new Comparator<Observer>() {
+				/**
+				 * Orders observers by ID and then by ascending version.
+				 */
+				@Override
+				public int compare(
+						final Observer first, 
+						final Observer second) {
+					
+					int result = first.getId().compareTo(second.getId());
+					if(result == 0) {
+						result = 
+							Long.compare(first.getVersion(), second.getVersion());
+					}
+					return result;
+				}
+			});
+		
+		List<Entry> tStreams = new ArrayList<Entry>();
+		streamLookup = new HashMap<String, Map<String, Map<Long, Stream>>>();
+		for(Observer observer : ascending) {
+			Map<String, Map<Long, Stream>> observerStreams = 
+				streamLookup.get(observer.getId());
+			if(observerStreams == null) {
+				observerStreams = new HashMap<String, Map<Long, Stream>>();
+				streamLookup.put(observer.getId(), observerStreams);
+			}
+			
+			List<Stream> sortedStreams = 
+				new ArrayList<Stream>(observer.getStreams());
+			Collections.sort(
+				sortedStreams, 
+				new Comparator<Stream>() {
+					/**
+					 * Orders streams by ID and then by ascending version.
+					 */
+					@Override
+					public int compare(
+							final Stream first, 
+							final Stream second) {
+						
+						int result = first.getId().compareTo(second.getId());
+						if(result == 0) {
+							result = 
+								Long.compare(
+									first.getVersion(), 
+									second.getVersion());
+						}
+						return result;
+					}
+				});
+			
+			for(Stream stream : sortedStreams) {
+				Map<Long, Stream> versions = 
+					observerStreams.get(stream.getId());
+				if(versions == null) {
+					versions = new HashMap<Long, Stream>();
+					observerStreams.put(stream.getId(), versions);
+				}
+				
+				if(! versions.containsKey(stream.getVersion())) {
+					versions.put(stream.getVersion(), stream);
+					tStreams.add(new Entry(observer.getId(), stream));
+				}
+			}
+		}
+		streams = Collections.unmodifiableList(tStreams);
+	}
+	
+	/**
+	 * Returns the observers that match the criteria.
+	 * 
+	 * @param id Limits the results to only those with this ID. Optional.
+	 * 
+	 * @param version Limits the results to only those with this version. 
+	 * 				  Optional.
+	 * 
+	 * @param numToSkip The number of observers to skip for paging.
+	 * 
+	 * @param numToReturn The number of observers to return for paging.
+	 * 
+	 * @return The observers, ordered by ID and then by descending version.
+	 */
+	public List<Observer> getObservers(
+			final String id,
+			final Long version,
+			final long numToSkip,
+			final long numToReturn) {
+		
+		List<Observer> result = new ArrayList<Observer>();
+		long skipped = 0;
+		for(Observer observer : observers) {
+			if(result.size() >= numToReturn) {
+				break;
+			}
+			if((id != null) && (! id.equals(observer.getId()))) {
+				continue;
+			}
+			if((version != null) && (version != observer.getVersion())) {
+				continue;
+			}
+			if(skipped < numToSkip) {
+				skipped++;
+				continue;
+			}
+			
+			result.add(observer);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the streams that match the criteria.
+	 * 
+	 * @param observerId Limits the results to only those whose observer has 
+	 * 					 this ID. Optional.
+	 * 
+	 * @param observerVersion Limits the results to only those whose observer
+	 * 						  has this version. Optional.
+	 * 
+	 * @param streamId Limits the results to only those streams that have this
+	 * 				   ID. Optional.
+	 * 
+	 * @param streamVersion Limits the results to only those streams that have
+	 * 						this version. Optional.
+	 * 
+	 * @param numToSkip The number of streams to skip.
+	 * 
+	 * @param numToReturn The number of streams to return.
+	 * 
+	 * @return A map of observer IDs to their respective streams.
+	 */
+	public Map<String, Collection<Stream>> getStreams(
+			final String observerId,
+			final Long observerVersion,
+			final String streamId,
+			final Long streamVersion,
+			final long numToSkip,
+			final long numToReturn) {
+		
+		// If the observer's version is given, only the streams in that
+		// version of the observer are included.
+		List<Observer> matchingObservers = null;
+		if(observerVersion != null) {
+			matchingObservers = 
+				getObservers(observerId, observerVersion, 0, Long.MAX_VALUE);
+		}
+		
+		Map<String, Collection<Stream>> result = 
+			new HashMap<String, Collection<Stream>>();
+		long skipped = 0, returned = 0;
+		for(Entry entry : streams) {
+			if(returned >= numToReturn) {
+				break;
+			}
+			if(! matchesStream(entry, observerId, streamId, streamVersion)) {
+				continue;
+			}
+			if(
+				(matchingObservers != null) && 
+				(! isInObservers(entry, matchingObservers))) {
+				
+				continue;
+			}
+			if(skipped < numToSkip) {
+				skipped++;
+				continue;
+			}
+			
+			Collection<Stream> observerStreams = result.get(entry.observerId);
+			if(observerStreams == null) {
+				observerStreams = new LinkedList<Stream>();
+				result.put(entry.observerId, observerStreams);
+			}
+			observerStreams.add(entry.stream);
+			returned++;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a specific version of an observer's stream.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @return The stream or null if no such stream exists.
+	 */
+	public Stream getStream(
+			final String observerId,
+			final String streamId,
+			final long streamVersion) {
+		
+		Map<String, Map<Long, Stream>> observerStreams = 
+			streamLookup.get(observerId);
+		if(observerStreams == null) {
+			return null;
+		}
+		
+		Map<Long, Stream> versions = observerStreams.get(streamId);
+		if(versions == null) {
+			return null;
+		}
+		
+		return versions.get(streamVersion);
+	}
+	
+	/**
+	 * Returns whether or not a stream matches the optional criteria.
+	 * 
+	 * @param entry The stream.
+	 * 
+	 * @param observerId The observer's unique identifier or null.
+	 * 
+	 * @param streamId The stream's unique identifier or null.
+	 * 
+	 * @param streamVersion The stream's version or null.
+	 * 
+	 * @return Whether or not the stream matches.
+	 */
+	private static boolean matchesStream(
+			final Entry entry,
+			final String observerId,
+			final String streamId,
+			final Long streamVersion) {
+		
+		if((observerId != null) && (! observerId.equals(entry.observerId))) {
+			return false;
+		}
+		if((streamId != null) && (! streamId.equals(entry.stream.getId()))) {
+			return false;
+		}
+		if(
+			(streamVersion != null) && 
+			(streamVersion != entry.stream.getVersion())) {
+			
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns whether or not a stream belongs to any of the observers.
+	 * 
+	 * @param entry The stream.
+	 * 
+	 * @param observers The observers.
+	 * 
+	 * @return Whether or not the stream belongs to one of the observers.
+	 */
+	private static boolean isInObservers(
+			final Entry entry,
+			final List<Observer> observers) {
+		
+		for(Observer observer : observers) {
+			if(! observer.getId().equals(entry.observerId)) {
+				continue;
+			}
+			
+			Stream stream = observer.getStreamsMap().get(entry.stream.getId());
+			if(
+				(stream != null) && 
+				(stream.getVersion() == entry.stream.getVersion())) {
+				
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+/**
+ * An email message that is waiting in the outbound mail queue.
+ *
+ * @author John Jenkins
+ */
+public class QueuedMail {
+	private final long id;
+	private final String sender;
+	private final String recipient;
+	private final String subject;
+	private final String content;
+	private final String contentType;
+	private final String passwordRecoveryUsername;
+	private final int attempts;
+
+	/**
+	 * Creates a new queued message.
+	 *
+	 * @param id The message's unique identifier in the queue.
+	 *
+	 * @param sender The sender's email address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subject The message's subject.
+	 *
+	 * @param content The message's body.
+	 *
+	 * @param contentType The MIME type of the body, e.g. "text/html".
+	 *
+	 * @param attempts The number of times sending the message has already
+	 * 				   failed.
+	 */
+	public QueuedMail(
+			final long id,
+			final String sender,
+			final String recipient,
+			final String subject,
+			final String content,
+			final String contentType,
+			final int attempts) {
+
+		this(id, sender, recipient, subject, content, contentType, null, attempts);
+	}
+
+	/**
+	 * Creates a new queued message.
+	 *
+	 * @param id The message's unique identifier in the queue.
+	 *
+	 * @param sender The sender's email address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subject The message's subject.
+	 *
+	 * @param content The message's body.
+	 *
+	 * @param contentType The MIME type of the body, e.g. "text/html".
+	 *
+	 * @param passwordRecoveryUsername The username of the user whose new
+	 * 								   password should be added to the body
+	 * 								   when the message is sent or null if
+	 * 								   this is not a password recovery
+	 * 								   message.
+	 *
+	 * @param attempts The number of times sending the message has already
+	 * 				   failed.
+	 */
+	public QueuedMail(
+			final long id,
+			final String sender,
+			final String recipient,
+			final String subject,
+			final String content,
+			final String contentType,
+			final String passwordRecoveryUsername,
+			final int attempts) {
+
+		this.id = id;
+		this.sender = sender;
+		this.recipient = recipient;
+		this.subject = subject;
+		this.content = content;
+		this.contentType = contentType;
+		this.passwordRecoveryUsername = passwordRecoveryUsername;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Returns the message's unique identifier in the queue.
+	 *
+	 * @return The message's unique identifier.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the sender's email address.
+	 *
+	 * @return The sender's email address.
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * Returns the recipient's email address.
+	 *
+	 * @return The recipient's email address.
+	 */
+	public String getRecipient() {
+		return recipient;
+	}
+
+	/**
+	 * Returns the message's subject.
+	 *
+	 * @return The message's subject.
+	 */
+	public String getSubject() {
+		return subject;
+	}
+
+	/**
+	 * Returns the message's body.
+	 *
+	 * @return The message's body.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the MIME type of the message's body.
+	 *
+	 * @return The MIME type of the body.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Returns the username of the user whose new password should be added to
+	 * the body when the message is sent.
+	 *
+	 * @return The user's username or null if this is not a password recovery
+	 * 		   message.
+	 */
+	public String getPasswordRecoveryUsername() {
+		return passwordRecoveryUsername;
+	}
+
+	/**
+	 * Returns the number of times sending the message has already failed.
+	 *
+	 * @return The number of failed attempts.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>An immutable, already serialized response. The body is stored both as
+ * is and gzipped so that it may be written without any serialization or
+ * compression, and it is given an entity tag based on its contents so that
+ * clients that already have it may be told so without writing it at
+ * all.</p>
+ *
+ * <p>The byte arrays are shared, not copied, and must not be modified.</p>
+ *
+ * @author John Jenkins
+ */
+public class ResponseSnapshot {
+	/**
+	 * The suffix added to the entity tag of the gzipped body, which is a
+	 * different representation of the same response.
+	 */
+	private static final String GZIP_SUFFIX = "-gzip";
+
+	private final String contentType;
+	private final String fileName;
+	private final byte[] body;
+	private final byte[] gzippedBody;
+	private final String eTag;
+	private final String gzippedETag;
+
+	/**
+	 * Creates a new snapshot.
+	 *
+	 * @param contentType The response's content type.
+	 *
+	 * @param fileName The name of the file as which the response should be
+	 * 				   downloaded or null if it should not be downloaded as a
+	 * 				   file.
+	 *
+	 * @param body The response's body.
+	 *
+	 * @throws DomainException The content type or body is null or the body
+	 * 						   could not be compressed.
+	 */
+	public ResponseSnapshot(
+			final String contentType,
+			final String fileName,
+			final byte[] body)
+			throws DomainException {
+
+		if(contentType == null) {
+			throw new DomainException("The content type is null.");
+		}
+		else if(body == null) {
+			throw new DomainException("The body is null.");
+		}
+
+		this.contentType = contentType;
+		this.fileName = fileName;
+		this.body = body;
+
+		try {
+			ByteArrayOutputStream byteStream =
+				new ByteArrayOutputStream(body.length / 4 + 64);
+			GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream);
+			gzipStream.write(body);
+			gzipStream.close();
+			gzippedBody = byteStream.toByteArray();
+		}
+		catch(IOException e) {
+			throw new DomainException("The body could not be compressed.", e);
+		}
+
+		String tag;
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(body);
+
+			StringBuilder builder = new StringBuilder(digest.length * 2);
+			for(byte b : digest) {
+				builder.append(String.format("%02x", b));
+			}
+			tag = builder.toString();
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new DomainException("MD5 is not available.", e);
+		}
+
+		eTag = '"' + tag + '"';
+		gzippedETag = '"' + tag + GZIP_SUFFIX + '"';
+	}
+
+	/**
+	 * Returns the response's content type.
+	 *
+	 * @return The content type.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Returns the name of the file as which the response should be
+	 * downloaded.
+	 *
+	 * @return The file name or null if the response should not be downloaded
+	 * 		   as a file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the response's body.
+	 *
+	 * @param gzipped Whether or not to return the gzipped body.
+	 *
+	 * @return The body, which must not be modified.
+	 */
+	public byte[] getBody(final boolean gzipped) {
+		return (gzipped) ? gzippedBody : body;
+	}
+
+	/**
+	 * Returns the quoted entity tag for one of the response's bodies.
+	 *
+	 * @param gzipped Whether or not to return the tag of the gzipped body.
+	 *
+	 * @return The entity tag.
+	 */
+	public String getETag(final boolean gzipped) {
+		return (gzipped) ? gzippedETag : eTag;
+	}
+
+	/**
+	 * Returns whether or not the value of an "If-None-Match" header names
+	 * this response. Both bodies' tags are accepted, because they are the
+	 * same response, and weak tags are compared as if they were strong.
+	 *
+	 * @param ifNoneMatch The value of the header, which may be null.
+	 *
+	 * @return True if the client already has this response; false,
+	 * 		   otherwise.
+	 */
+	public boolean matches(final String ifNoneMatch) {
+		if(ifNoneMatch == null) {
+			return false;
+		}
+
+		for(String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+
+			if("*".equals(tag)) {
+				return true;
+			}
+			else if(tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+
+			if(eTag.equals(tag) || gzippedETag.equals(tag)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+/**
+ * One partition of a table that is partitioned by ranges of a time column.
+ * Each partition holds the rows whose time is at least the previous
+ * partition's upper bound and less than its own.
+ *
+ * @author John Jenkins
+ */
+public class TablePartition {
+	private final String name;
+	private final Long upperBound;
+
+	/**
+	 * Creates a partition.
+	 *
+	 * @param name The partition's name.
+	 *
+	 * @param upperBound The partition's exclusive upper bound or null if it
+	 * 					 has none, i.e. "MAXVALUE".
+	 */
+	public TablePartition(final String name, final Long upperBound) {
+		if(name == null) {
+			throw new IllegalArgumentException("The name is null.");
+		}
+
+		this.name = name;
+		this.upperBound = upperBound;
+	}
+
+	/**
+	 * Returns the partition's name.
+	 *
+	 * @return The partition's name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the partition's exclusive upper bound.
+	 *
+	 * @return The partition's exclusive upper bound or null if it has none.
+	 */
+	public Long getUpperBound() {
+		return upperBound;
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+/**
+ * A summary of a user's recent uploads: when they last took a survey, when
+ * their last Mobility point was recorded, and how many of their recent survey
+ * responses and Mobility points had a location.
+ *
+ * @author John Jenkins
+ */
+public class UserActivityStats {
+	private final Long lastSurveyMillis;
+	private final Long lastMobilityMillis;
+
+	private final long surveyLocated;
+	private final long surveyTotal;
+	private final long mobilityLocated;
+	private final long mobilityTotal;
+
+	/**
+	 * Creates a new summary.
+	 *
+	 * @param lastSurveyMillis The time, in milliseconds since the epoch, at
+	 * 						   which the user's most recent survey response
+	 * 						   was taken or null if they have none.
+	 *
+	 * @param lastMobilityMillis The time, in milliseconds since the epoch, of
+	 * 							 the user's most recent Mobility point or null
+	 * 							 if they have none.
+	 *
+	 * @param surveyLocated The number of recent survey responses with a
+	 * 						location.
+	 *
+	 * @param surveyTotal The number of recent survey responses.
+	 *
+	 * @param mobilityLocated The number of recent Mobility points with a
+	 * 						  location.
+	 *
+	 * @param mobilityTotal The number of recent Mobility points.
+	 */
+	public UserActivityStats(
+			final Long lastSurveyMillis,
+			final Long lastMobilityMillis,
+			final long surveyLocated,
+			final long surveyTotal,
+			final long mobilityLocated,
+			final long mobilityTotal) {
+
+		this.lastSurveyMillis = lastSurveyMillis;
+		this.lastMobilityMillis = lastMobilityMillis;
+		this.surveyLocated = surveyLocated;
+		this.surveyTotal = surveyTotal;
+		this.mobilityLocated = mobilityLocated;
+		this.mobilityTotal = mobilityTotal;
+	}
+
+	/**
+	 * Returns the time at which the user's most recent survey response was
+	 * taken.
+	 *
+	 * @return The time in milliseconds since the epoch or null if the user
+	 * 		   has no survey responses.
+	 */
+	public Long getLastSurveyMillis() {
+		return lastSurveyMillis;
+	}
+
+	/**
+	 * Returns the time of the user's most recent Mobility point.
+	 *
+	 * @return The time in milliseconds since the epoch or null if the user
+	 * 		   has no Mobility points.
+	 */
+	public Long getLastMobilityMillis() {
+		return lastMobilityMillis;
+	}
+
+	/**
+	 * Returns the percentage, from 0 to 1, of the recent survey responses
+	 * that had a location.
+	 *
+	 * @return The percentage or null if there were no recent survey
+	 * 		   responses.
+	 */
+	public Double getSurveyLocationPercentage() {
+		return percentage(surveyLocated, surveyTotal);
+	}
+
+	/**
+	 * Returns the percentage, from 0 to 1, of the recent Mobility points that
+	 * had a location.
+	 *
+	 * @return The percentage or null if there were no recent Mobility points.
+	 */
+	public Double getMobilityLocationPercentage() {
+		return percentage(mobilityLocated, mobilityTotal);
+	}
+
+	/**
+	 * Divides the number of located uploads by the total number of uploads.
+	 *
+	 * @param located The number of located uploads.
+	 *
+	 * @param total The total number of uploads.
+	 *
+	 * @return The percentage or null if the total is zero.
+	 */
+	private static Double percentage(final long located, final long total) {
+		if(total == 0) {
+			return null;
+		}
+
+		return new Double(located) / new Double(total);
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain.campaign;
+
+import java.net.URL;
+import java.util.UUID;
+
+/**
+ * A reference from a photo prompt response to the image that was uploaded
+ * for it. This is only the information needed to locate the image and to
+ * order the references, so it is much lighter than the full survey response.
+ *
+ * @author John Jenkins
+ */
+public class PromptResponseImage {
+	private final long promptResponseId;
+	private final UUID imageId;
+	private final URL url;
+
+	/**
+	 * Creates a new reference to an image.
+	 *
+	 * @param promptResponseId The database identifier of the prompt response
+	 * 						   that references the image. This is used to
+	 * 						   order the references.
+	 *
+	 * @param imageId The image's unique identifier.
+	 *
+	 * @param url The URL to the image's contents.
+	 *
+	 * @throws IllegalArgumentException The image ID or URL is null.
+	 */
+	public PromptResponseImage(
+			final long promptResponseId,
+			final UUID imageId,
+			final URL url) {
+
+		if(imageId == null) {
+			throw new IllegalArgumentException("The image ID is null.");
+		}
+		if(url == null) {
+			throw new IllegalArgumentException("The URL is null.");
+		}
+
+		this.promptResponseId = promptResponseId;
+		this.imageId = imageId;
+		this.url = url;
+	}
+
+	/**
+	 * Returns the database identifier of the prompt response.
+	 *
+	 * @return The database identifier of the prompt response.
+	 */
+	public long getPromptResponseId() {
+		return promptResponseId;
+	}
+
+	/**
+	 * Returns the image's unique identifier.
+	 *
+	 * @return The image's unique identifier.
+	 */
+	public UUID getImageId() {
+		return imageId;
+	}
+
+	/**
+	 * Returns the URL to the image's contents.
+	 *
+	 * @return The URL to the image's contents.
+	 */
+	public URL getUrl() {
+		return url;
+	}
+}
@@ -130,7 +130,12 @@ public class SurveyResponse {
 		}
 	}
 	private final LocationStatus locationStatus;
-	private final Location location;
+	private Location location;
+	/**
+	 * The location as JSON text, as it was read from the database, which is
+	 * only decoded into the location when it is first needed, or null.
+	 */
+	private String locationString;
 	
 	private final Survey survey;
 	private final UUID surveyResponseId;
@@ -387,7 +392,13 @@ public class SurveyResponse {
 			return true;
 		}
 	}
-	private final LaunchContext launchContext;
+	private LaunchContext launchContext;
+	/**
+	 * The launch context as JSON text, as it was read from the database, 
+	 * which is only decoded into the launch context when it is first needed,
+	 * or null.
+	 */
+	private String launchContextString;
 	
 	/**
 	 * The possible column keys that can be requested for survey response read.
@@ -897,6 +908,109 @@ public class SurveyResponse {
 		responses = new HashMap<Integer, Response>();
 	}
 	
+	/**
+	 * Creates a new survey response information object from the columns of
+	 * the database. The launch context and location are kept as the JSON 
+	 * text that was read and are only decoded when they are first needed, 
+	 * which is never for most reads. All parameters are required unless 
+	 * otherwise specified.
+	 * 
+	 * @param surveyResponseDbId The survey response's database ID.
+	 * 
+	 * @param survey The Survey to which this survey response belongs.
+	 * 
+	 * @param surveyResponseId The survey response's unique identifier.
+	 * 
+	 * @param username The username of the user that created this survey 
+	 * 				   response.
+	 * 
+	 * @param campaignId The unique identifier for the campaign to which this
+	 * 					 survey belongs.
+	 * 
+	 * @param client The client value that was given when this survey response
+	 * 				 was uploaded.
+	 * 
+	 * @param time The date as milliseconds since the epoch when this survey
+	 * 			   response was generated.
+	 * 
+	 * @param timezone The timezone of the device that generated this survey
+	 * 				   response at the time is was generated.
+	 * 
+	 * @param launchContext The launch context as JSON text.
+	 *  
+	 * @param locationStatus The status of the location information.
+	 * 
+	 * @param location The location as JSON text. This may be null if it  
+	 * 				   correlates with the location status.
+	 * 
+	 * @param privacyState The privacy state of this survey response.
+	 * 
+	 * @throws DomainException Thrown if any of the information provided is 
+	 * 						   missing.
+	 */
+	public SurveyResponse(
+			final Long surveyResponseDbId,
+			final Survey survey, 
+			final UUID surveyResponseId,
+			final String username, 
+			final String campaignId, 
+			final String client,
+			final long time, 
+			final DateTimeZone timezone, 
+			final String launchContext, 
+			final LocationStatus locationStatus, 
+			final String location,
+			final PrivacyState privacyState) 
+			throws DomainException {
+
+		if(survey == null) {
+			throw new DomainException("The survey cannot be null.");
+		}
+		if(StringUtils.isEmptyOrWhitespaceOnly(username)) {
+			throw new DomainException(
+					"The username cannot be null or whitespace only.");
+		}
+		else if(StringUtils.isEmptyOrWhitespaceOnly(campaignId)) {
+			throw new DomainException(
+					"The campaign ID cannot be null or whitespace only.");
+		}
+		else if(StringUtils.isEmptyOrWhitespaceOnly(client)) {
+			throw new DomainException(
+					"The client cannot be null or whitespace only.");
+		}
+		else if(timezone == null) {
+			throw new DomainException("The timezone cannot be null.");
+		}
+		else if(launchContext == null) {
+			throw new DomainException("The launch context cannot be null.");
+		}
+		else if(locationStatus == null) {
+			throw new DomainException("The location status cannot be null.");
+		}
+		else if(privacyState == null) {
+			throw new DomainException("The privacy state cannot be null.");
+		}
+		
+		this.username = username;
+		this.campaignId = campaignId;
+		this.client = client;
+		
+		this.time = time;
+		this.timezone = timezone;
+		
+		this.surveyResponseDbId = surveyResponseDbId;
+		this.surveyResponseId = surveyResponseId;
+		this.survey = survey;
+		this.privacyState = privacyState;
+		
+		this.launchContextString = launchContext;
+		
+		this.locationStatus = locationStatus;
+		this.locationString = location;
+		
+		responses = new HashMap<Integer, Response>();
+	}
+	
 	/**
 	 * Creates a new SurveyResponse object.
 	 * 
@@ -1324,11 +1438,33 @@ public class SurveyResponse {
 
 	/**
 	 * Returns context information from the phone when this survey was 
-	 * launched.
+	 * launched. A survey response that was read from the database only 
+	 * decodes its launch context the first time it is needed.
 	 * 
 	 * @return Context information from the phone.
+	 * 
+	 * @throws DomainException The stored launch context is not valid.
 	 */
-	public final LaunchContext getLaunchContext() {
+	public final LaunchContext getLaunchContext() throws DomainException {
+		if((launchContext == null) && (launchContextString != null)) {
+			try {
+				launchContext = 
+					new LaunchContext(new JSONObject(launchContextString));
+			}
+			catch(JSONException e) {
+				throw new DomainException(
+					"The launch context of the survey response is not valid JSON: " +
+						surveyResponseId, 
+					e);
+			}
+			catch(DomainException e) {
+				throw new DomainException(
+					"The launch context of the survey response is invalid: " +
+						surveyResponseId, 
+					e);
+			}
+		}
+		
 		return launchContext;
 	}
 
@@ -1344,14 +1480,47 @@ public class SurveyResponse {
 
 	/**
 	 * Returns the location information about the phone when the survey 
-	 * response was generated if applicable.
+	 * response was generated if applicable. A survey response that was read
+	 * from the database only decodes its location the first time it is 
+	 * needed.
 	 * 
 	 * @return The location information if available or null if not.
+	 * 
+	 * @throws DomainException The stored location is not valid.
 	 */
-	public final Location getLocation() {
+	public final Location getLocation() throws DomainException {
+		if((location == null) && (locationString != null)) {
+			try {
+				location = 
+					new Location(new JSONObject(locationString), timezone);
+			}
+			catch(JSONException e) {
+				throw new DomainException(
+					"The location of the survey response is not valid JSON: " +
+						surveyResponseId, 
+					e);
+			}
+			catch(DomainException e) {
+				throw new DomainException(
+					"The location of the survey response is invalid: " +
+						surveyResponseId, 
+					e);
+			}
+		}
+		
 		return location;
 	}
 	
+	/**
+	 * Returns whether or not this survey response has location information
+	 * without decoding a stored location.
+	 * 
+	 * @return Whether or not this survey response has a location.
+	 */
+	public final boolean hasLocation() {
+		return (location != null) || (locationString != null);
+	}
+	
 	/**
 	 * Returns the privacy state of this survey response.
 	 * 
@@ -1604,8 +1773,8 @@ public class SurveyResponse {
 			result.put(JSON_KEY_LOCATION_STATUS, locationStatus.toString());
 		}
 		
-		if(withLocation && (location != null)) {
-			result.put(JSON_KEY_LOCATION, location.toJson(false, LocationColumnKey.ALL_COLUMNS));
+		if(withLocation && (getLocation() != null)) {
+			result.put(JSON_KEY_LOCATION, getLocation().toJson(false, LocationColumnKey.ALL_COLUMNS));
 		}
 		
 		if(withSurveyId && (survey != null)) {
@@ -1621,11 +1790,11 @@ public class SurveyResponse {
 		}
 		
 		if(withLaunchContextShort) {
-			result.put(JSON_KEY_SURVEY_LAUNCH_CONTEXT_SHORT, launchContext.toJson(false));
+			result.put(JSON_KEY_SURVEY_LAUNCH_CONTEXT_SHORT, getLaunchContext().toJson(false));
 		}
 		
 		if(withLaunchContextLong) {
-			result.put(JSON_KEY_SURVEY_LAUNCH_CONTEXT_LONG, launchContext.toJson(true));
+			result.put(JSON_KEY_SURVEY_LAUNCH_CONTEXT_LONG, getLaunchContext().toJson(true));
 		}
 		
 		if(withResponses) {
@@ -1665,7 +1834,8 @@ public class SurveyResponse {
 	}
 	
 	/**
-	 * Generates a hash code for this survey response.
+	 * Generates a hash code for this survey response. The launch context and
+	 * location are left out so that they don't need to be decoded.
 	 * 
 	 * @return A hash code for this survey response.
 	 */
@@ -1676,10 +1846,6 @@ public class SurveyResponse {
 		result = prime * result
 				+ ((campaignId == null) ? 0 : campaignId.hashCode());
 		result = prime * result + ((client == null) ? 0 : client.hashCode());
-		result = prime * result
-				+ ((launchContext == null) ? 0 : launchContext.hashCode());
-		result = prime * result
-				+ ((location == null) ? 0 : location.hashCode());
 		result = prime * result
 				+ ((locationStatus == null) ? 0 : locationStatus.hashCode());
 		result = prime * result
@@ -1720,15 +1886,9 @@ public class SurveyResponse {
 				return false;
 		} else if (!client.equals(other.client))
 			return false;
-		if (launchContext == null) {
-			if (other.launchContext != null)
-				return false;
-		} else if (!launchContext.equals(other.launchContext))
+		if (!launchContextEquals(other))
 			return false;
-		if (location == null) {
-			if (other.location != null)
-				return false;
-		} else if (!location.equals(other.location))
+		if (!locationEquals(other))
 			return false;
 		if (locationStatus != other.locationStatus)
 			return false;
@@ -1755,6 +1915,52 @@ public class SurveyResponse {
 			return false;
 		return true;
 	}
+	
+	/**
+	 * Compares the launch contexts of this and another survey response. If
+	 * either can't be decoded, they are only equal if their JSON is.
+	 * 
+	 * @param other The other survey response.
+	 * 
+	 * @return Whether or not the launch contexts are equal.
+	 */
+	private boolean launchContextEquals(final SurveyResponse other) {
+		try {
+			LaunchContext launchContext = getLaunchContext();
+			if(launchContext == null) {
+				return other.getLaunchContext() == null;
+			}
+			return launchContext.equals(other.getLaunchContext());
+		}
+		catch(DomainException e) {
+			return 
+				(launchContextString != null) && 
+				launchContextString.equals(other.launchContextString);
+		}
+	}
+	
+	/**
+	 * Compares the locations of this and another survey response. If either
+	 * can't be decoded, they are only equal if their JSON is.
+	 * 
+	 * @param other The other survey response.
+	 * 
+	 * @return Whether or not the locations are equal.
+	 */
+	private boolean locationEquals(final SurveyResponse other) {
+		try {
+			Location location = getLocation();
+			if(location == null) {
+				return other.getLocation() == null;
+			}
+			return location.equals(other.getLocation());
+		}
+		catch(DomainException e) {
+			return 
+				(locationString != null) && 
+				locationString.equals(other.locationString);
+		}
+	}
 
 	/**
 	 * Processes an JSONArray of survey responses based on their survey item
@@ -17,6 +17,7 @@ package org.ohmage.jee.filter;
 
 import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -63,11 +64,21 @@ public class Log4jNdcFilter implements Filter {
 	
 	/**
 	 * Pushes a UUID into the Log4J NDC for request tracking and debugging.
+	 * The UUID comes from a thread-local generator rather than
+	 * {@link UUID#randomUUID()}, which draws on a single, shared SecureRandom.
+	 * The ID only needs to be unique, not unpredictable.
 	 */
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) 
 		throws ServletException, IOException {	
 		
-		String requestId = UUID.randomUUID().toString();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String requestId =
+			new UUID(
+					// Version 4.
+					(random.nextLong() & ~0xF000L) | 0x4000L,
+					// IETF variant.
+					(random.nextLong() & ~(0x3L << 62)) | (0x2L << 62))
+				.toString();
 		request.setAttribute(ATTRIBUTE_REQUEST_ID, requestId);
 		
 		NDC.push(requestId);
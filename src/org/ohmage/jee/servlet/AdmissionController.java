@@ -0,0 +1,710 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.jee.servlet;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+
+/**
+ * <p>Decides whether or not an upload may be processed before it is handed
+ * to its pool. An upload must pass three checks:</p>
+ * <ul>
+ *   <li>its user's token bucket must have a token, if the user has already
+ *     been authenticated by a token. Other uploads skip this check,</li>
+ *   <li>its client's token bucket must have a token, and</li>
+ *   <li>there must be fewer than the limit of uploads in flight. If there
+ *     are not, it may wait a short time for one to finish, but only if few
+ *     enough uploads are already waiting.</li>
+ * </ul>
+ * <p>Each bucket holds up to a burst of tokens and is refilled at a steady
+ * rate, so a phone may flush a backlog quickly but may not keep uploading
+ * faster than the rate. A rejected upload should be answered with a 429 and
+ * a Retry-After header of the number of seconds returned by
+ * {@link #admit(String, String)}.</p>
+ * 
+ * <p>The limits are read from the {@link PreferenceCache} and re-read once a
+ * minute, so they may be changed without restarting the server. A rate or
+ * limit that is not positive disables that check.</p>
+ * 
+ * @author John Jenkins
+ */
+public class AdmissionController {
+	private static final Logger LOGGER =
+		Logger.getLogger(AdmissionController.class);
+	
+	/**
+	 * The value returned by {@link #admit(String, String)} when the upload
+	 * is admitted.
+	 */
+	public static final int ADMITTED = 0;
+	
+	/**
+	 * The default number of uploads a user may make per second.
+	 */
+	public static final double DEFAULT_USER_RATE = 2;
+	/**
+	 * The default number of uploads a user may make at once.
+	 */
+	public static final int DEFAULT_USER_BURST = 20;
+	/**
+	 * The default number of uploads all users of a single client may make
+	 * per second.
+	 */
+	public static final double DEFAULT_CLIENT_RATE = 50;
+	/**
+	 * The default number of uploads all users of a single client may make at
+	 * once.
+	 */
+	public static final int DEFAULT_CLIENT_BURST = 500;
+	/**
+	 * The default number of uploads that may be in flight at once.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+	/**
+	 * The default number of uploads that may wait for one in flight to
+	 * finish.
+	 */
+	public static final int DEFAULT_MAX_WAITING = 32;
+	/**
+	 * The default number of milliseconds an upload may wait for one in flight
+	 * to finish.
+	 */
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 500;
+	
+	/**
+	 * How often the limits are re-read from the preferences.
+	 */
+	private static final long REFRESH_MILLIS = 60 * 1000;
+	
+	/**
+	 * How long a bucket must be full and unused before it is forgotten.
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+	
+	/**
+	 * The reasons an upload may be rejected, which label the rejections in
+	 * the metrics.
+	 */
+	private static final String REASON_USER = "user";
+	private static final String REASON_CLIENT = "client";
+	private static final String REASON_IN_FLIGHT = "in_flight";
+	
+	/**
+	 * A token bucket. A bucket that is used after its rate or burst has
+	 * changed keeps its tokens and uses the new values.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class TokenBucket {
+		private double tokens;
+		private long lastRefillNanos;
+		
+		/**
+		 * Creates a full bucket.
+		 * 
+		 * @param burst The number of tokens the bucket holds.
+		 */
+		private TokenBucket(final int burst) {
+			tokens = burst;
+			lastRefillNanos = System.nanoTime();
+		}
+		
+		/**
+		 * Takes a token from the bucket.
+		 * 
+		 * @param rate The number of tokens added per second.
+		 * 
+		 * @param burst The number of tokens the bucket holds.
+		 * 
+		 * @return {@link AdmissionController#ADMITTED} if a token was taken;
+		 * 		   otherwise, the number of seconds until there will be one.
+		 */
+		private synchronized int take(final double rate, final int burst) {
+			refill(System.nanoTime(), rate, burst);
+			
+			if(tokens >= 1) {
+				tokens--;
+				return ADMITTED;
+			}
+			
+			return Math.max(1, (int) Math.ceil((1 - tokens) / rate));
+		}
+		
+		/**
+		 * Returns a token that was taken for an upload that was then rejected
+		 * for some other reason.
+		 * 
+		 * @param burst The number of tokens the bucket holds.
+		 */
+		private synchronized void giveBack(final int burst) {
+			tokens = Math.min(burst, tokens + 1);
+		}
+		
+		/**
+		 * Returns whether or not the bucket is full and hasn't been used for
+		 * a while, in which case forgetting it changes nothing.
+		 * 
+		 * @param now The current time, in nanoseconds.
+		 * 
+		 * @param rate The number of tokens added per second.
+		 * 
+		 * @param burst The number of tokens the bucket holds.
+		 * 
+		 * @return Whether or not the bucket is idle.
+		 */
+		private synchronized boolean isIdle(
+				final long now,
+				final double rate,
+				final int burst) {
+			
+			if((now - lastRefillNanos) < IDLE_NANOS) {
+				return false;
+			}
+			
+			refill(now, rate, burst);
+			return tokens >= burst;
+		}
+		
+		/**
+		 * Adds the tokens that have accrued since the last refill.
+		 * 
+		 * @param now The current time, in nanoseconds.
+		 * 
+		 * @param rate The number of tokens added per second.
+		 * 
+		 * @param burst The number of tokens the bucket holds.
+		 */
+		private void refill(final long now, final double rate, final int burst) {
+			tokens =
+				Math.min(
+					burst,
+					tokens + ((now - lastRefillNanos) * rate / 1000000000.0));
+			lastRefillNanos = now;
+		}
+	}
+	
+	private final ConcurrentMap<String, TokenBucket> userBuckets =
+		new ConcurrentHashMap<String, TokenBucket>();
+	private final ConcurrentMap<String, TokenBucket> clientBuckets =
+		new ConcurrentHashMap<String, TokenBucket>();
+	
+	private volatile double userRate = DEFAULT_USER_RATE;
+	private volatile int userBurst = DEFAULT_USER_BURST;
+	private volatile double clientRate = DEFAULT_CLIENT_RATE;
+	private volatile int clientBurst = DEFAULT_CLIENT_BURST;
+	private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+	
+	/**
+	 * The uploads in flight and waiting. All access must be synchronized on
+	 * this lock, which is notified whenever an upload finishes.
+	 */
+	private final Object inFlightLock = new Object();
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	private int maxWaiting = DEFAULT_MAX_WAITING;
+	private int inFlight = 0;
+	private int waiting = 0;
+	
+	/**
+	 * The time, in milliseconds, at which the limits should next be re-read
+	 * and the idle buckets forgotten.
+	 */
+	private final AtomicLong nextRefresh = new AtomicLong(0);
+	
+	private final AtomicLong admitted = new AtomicLong(0);
+	private final AtomicLong rejectedUser = new AtomicLong(0);
+	private final AtomicLong rejectedClient = new AtomicLong(0);
+	private final AtomicLong rejectedInFlight = new AtomicLong(0);
+	
+	/**
+	 * Creates a new admission controller and registers its metrics,
+	 * replacing those of any previous controller.
+	 */
+	public AdmissionController() {
+		registerMetrics();
+	}
+
+	/**
+	 * Creates an admission controller with fixed limits that are never
+	 * re-read from the preferences.
+	 *
+	 * @param userRate The number of uploads a user may make per second.
+	 *
+	 * @param userBurst The number of uploads a user may make at once.
+	 *
+	 * @param clientRate The number of uploads a client may make per second.
+	 *
+	 * @param clientBurst The number of uploads a client may make at once.
+	 *
+	 * @param maxInFlight The number of uploads that may be in flight.
+	 *
+	 * @param maxWaiting The number of uploads that may wait for one in
+	 * 					 flight to finish.
+	 *
+	 * @param maxWaitMillis How long an upload may wait for one in flight to
+	 * 						finish.
+	 */
+	AdmissionController(
+			final double userRate,
+			final int userBurst,
+			final double clientRate,
+			final int clientBurst,
+			final int maxInFlight,
+			final int maxWaiting,
+			final long maxWaitMillis) {
+
+		this.userRate = userRate;
+		this.userBurst = userBurst;
+		this.clientRate = clientRate;
+		this.clientBurst = clientBurst;
+		this.maxInFlight = maxInFlight;
+		this.maxWaiting = maxWaiting;
+		this.maxWaitMillis = maxWaitMillis;
+		nextRefresh.set(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the number of uploads waiting for one in flight to finish.
+	 *
+	 * @return The number of waiting uploads.
+	 */
+	int getWaiting() {
+		synchronized(inFlightLock) {
+			return waiting;
+		}
+	}
+	
+	/**
+	 * Decides whether or not an upload may be processed. If it is admitted,
+	 * {@link #release()} must be called once it has been processed.
+	 * 
+	 * @param requester The key of the requester's bucket, which must only
+	 * 					name an authenticated user, or null if there is no
+	 * 					authenticated user, in which case the requester's 
+	 * 					bucket is skipped.
+	 * 
+	 * @param client The client making the upload or null if it is unknown,
+	 * 				 in which case the client's bucket is skipped.
+	 * 
+	 * @return {@link #ADMITTED} if the upload may be processed; otherwise,
+	 * 		   the number of seconds after which it should be retried.
+	 */
+	public int admit(final String requester, final String client) {
+		refresh();
+		
+		double tUserRate = userRate;
+		int tUserBurst = userBurst;
+		double tClientRate = clientRate;
+		int tClientBurst = clientBurst;
+		
+		TokenBucket userBucket = null;
+		if((requester != null) && (tUserRate > 0) && (tUserBurst > 0)) {
+			userBucket = getBucket(userBuckets, requester, tUserBurst);
+			
+			int retryAfter = userBucket.take(tUserRate, tUserBurst);
+			if(retryAfter != ADMITTED) {
+				rejectedUser.incrementAndGet();
+				LOGGER.info(
+					"Rejecting an upload because the requester is over " +
+						"their rate: " + requester);
+				return retryAfter;
+			}
+		}
+		
+		TokenBucket clientBucket = null;
+		if((client != null) && (tClientRate > 0) && (tClientBurst > 0)) {
+			clientBucket = getBucket(clientBuckets, client, tClientBurst);
+			
+			int retryAfter = clientBucket.take(tClientRate, tClientBurst);
+			if(retryAfter != ADMITTED) {
+				if(userBucket != null) {
+					userBucket.giveBack(tUserBurst);
+				}
+				
+				rejectedClient.incrementAndGet();
+				LOGGER.info(
+					"Rejecting an upload because the client is over its " +
+						"rate: " + client);
+				return retryAfter;
+			}
+		}
+		
+		if(! acquire()) {
+			if(userBucket != null) {
+				userBucket.giveBack(tUserBurst);
+			}
+			if(clientBucket != null) {
+				clientBucket.giveBack(tClientBurst);
+			}
+			
+			rejectedInFlight.incrementAndGet();
+			LOGGER.info(
+				"Rejecting an upload because too many uploads are in flight.");
+			return
+				Math.max(
+					1, 
+					(int) TimeUnit.MILLISECONDS.toSeconds(maxWaitMillis));
+		}
+		
+		admitted.incrementAndGet();
+		return ADMITTED;
+	}
+	
+	/**
+	 * Marks an admitted upload as finished, allowing another to be admitted.
+	 */
+	public void release() {
+		synchronized(inFlightLock) {
+			inFlight--;
+			inFlightLock.notify();
+		}
+	}
+	
+	/**
+	 * Reserves a place for an upload in flight, waiting a short time for one
+	 * if there are none.
+	 * 
+	 * @return True if a place was reserved; false, otherwise.
+	 */
+	private boolean acquire() {
+		synchronized(inFlightLock) {
+			if((maxInFlight <= 0) || (inFlight < maxInFlight)) {
+				inFlight++;
+				return true;
+			}
+			
+			if(waiting >= maxWaiting) {
+				return false;
+			}
+			
+			waiting++;
+			try {
+				long deadline = 
+					System.nanoTime() + 
+					TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+				
+				while((maxInFlight > 0) && (inFlight >= maxInFlight)) {
+					long remaining = 
+						TimeUnit.NANOSECONDS.toMillis(
+							deadline - System.nanoTime());
+					if(remaining <= 0) {
+						return false;
+					}
+					
+					inFlightLock.wait(remaining);
+				}
+				
+				inFlight++;
+				return true;
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			finally {
+				waiting--;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the bucket for a user or client, creating a full one if it
+	 * doesn't exist.
+	 * 
+	 * @param buckets The buckets.
+	 * 
+	 * @param key The user or client.
+	 * 
+	 * @param burst The number of tokens a new bucket holds.
+	 * 
+	 * @return The bucket.
+	 */
+	private static TokenBucket getBucket(
+			final ConcurrentMap<String, TokenBucket> buckets,
+			final String key,
+			final int burst) {
+		
+		TokenBucket bucket = buckets.get(key);
+		if(bucket == null) {
+			TokenBucket newBucket = new TokenBucket(burst);
+			bucket = buckets.putIfAbsent(key, newBucket);
+			if(bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		
+		return bucket;
+	}
+	
+	/**
+	 * Re-reads the limits and forgets the idle buckets if it has been long
+	 * enough since they were last read. Only one thread does so at a time.
+	 */
+	private void refresh() {
+		long now = System.currentTimeMillis();
+		long next = nextRefresh.get();
+		if(
+			(now < next) || 
+			(! nextRefresh.compareAndSet(next, now + REFRESH_MILLIS))) {
+			
+			return;
+		}
+		
+		userRate = 
+			getDouble(
+				PreferenceCache.KEY_UPLOAD_USER_RATE, 
+				DEFAULT_USER_RATE);
+		userBurst = 
+			(int) getLong(
+				PreferenceCache.KEY_UPLOAD_USER_BURST, 
+				DEFAULT_USER_BURST);
+		clientRate = 
+			getDouble(
+				PreferenceCache.KEY_UPLOAD_CLIENT_RATE, 
+				DEFAULT_CLIENT_RATE);
+		clientBurst = 
+			(int) getLong(
+				PreferenceCache.KEY_UPLOAD_CLIENT_BURST, 
+				DEFAULT_CLIENT_BURST);
+		maxWaitMillis =
+			getLong(
+				PreferenceCache.KEY_UPLOAD_MAX_WAIT_MILLIS,
+				DEFAULT_MAX_WAIT_MILLIS);
+		
+		int tMaxInFlight = 
+			(int) getLong(
+				PreferenceCache.KEY_UPLOAD_MAX_IN_FLIGHT, 
+				DEFAULT_MAX_IN_FLIGHT);
+		int tMaxWaiting = 
+			(int) getLong(
+				PreferenceCache.KEY_UPLOAD_MAX_WAITING, 
+				DEFAULT_MAX_WAITING);
+		synchronized(inFlightLock) {
+			maxInFlight = tMaxInFlight;
+			maxWaiting = tMaxWaiting;
+			
+			// A higher limit may let the waiting uploads through.
+			inFlightLock.notifyAll();
+		}
+		
+		forgetIdle(userBuckets, userRate, userBurst);
+		forgetIdle(clientBuckets, clientRate, clientBurst);
+	}
+	
+	/**
+	 * Forgets the buckets that are full and haven't been used for a while.
+	 * 
+	 * @param buckets The buckets.
+	 * 
+	 * @param rate The number of tokens added to each bucket per second.
+	 * 
+	 * @param burst The number of tokens each bucket holds.
+	 */
+	private static void forgetIdle(
+			final ConcurrentMap<String, TokenBucket> buckets,
+			final double rate,
+			final int burst) {
+		
+		long now = System.nanoTime();
+		Iterator<TokenBucket> iterator = buckets.values().iterator();
+		while(iterator.hasNext()) {
+			TokenBucket bucket = iterator.next();
+			if((rate <= 0) || bucket.isIdle(now, rate, burst)) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Reads a number from the preferences.
+	 * 
+	 * @param key The preference's key.
+	 * 
+	 * @param defaultValue The value to use if the preference is missing or
+	 * 					   invalid.
+	 * 
+	 * @return The preference's value or the default value.
+	 */
+	private static double getDouble(final String key, final double defaultValue) {
+		String value = getPreference(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Double.parseDouble(value.trim());
+		}
+		catch(NumberFormatException e) {
+			LOGGER.warn(
+				"The preference '" + key + "' is not a number: " + value);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Reads a whole number from the preferences.
+	 * 
+	 * @param key The preference's key.
+	 * 
+	 * @param defaultValue The value to use if the preference is missing or
+	 * 					   invalid.
+	 * 
+	 * @return The preference's value or the default value.
+	 */
+	private static long getLong(final String key, final long defaultValue) {
+		String value = getPreference(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch(NumberFormatException e) {
+			LOGGER.warn(
+				"The preference '" + key + "' is not a whole number: " + 
+					value);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Reads a preference.
+	 * 
+	 * @param key The preference's key.
+	 * 
+	 * @return The preference's value or null if it is not set or the
+	 * 		   preferences aren't available.
+	 */
+	private static String getPreference(final String key) {
+		PreferenceCache preferences = PreferenceCache.instance();
+		if(preferences == null) {
+			return null;
+		}
+		
+		try {
+			return preferences.lookup(key);
+		}
+		catch(CacheMissException e) {
+			// This is acceptable. It simply tells us to use the default.
+			return null;
+		}
+	}
+	
+	/**
+	 * Registers the controller's gauges and counters in the metrics.
+	 */
+	private void registerMetrics() {
+		Metrics.registerCounter(
+			"admission_admitted_total",
+			"The number of uploads that were admitted.",
+			null,
+			null,
+			new Gauge() {
+				/**
+				 * Returns the number of admitted uploads.
+				 */
+				@Override
+				public double getValue() {
+					return admitted.get();
+				}
+			});
+		registerRejections(REASON_USER, rejectedUser);
+		registerRejections(REASON_CLIENT, rejectedClient);
+		registerRejections(REASON_IN_FLIGHT, rejectedInFlight);
+		Metrics.registerGauge(
+			"admission_in_flight",
+			"The number of admitted uploads that haven't finished.",
+			null,
+			null,
+			new Gauge() {
+				/**
+				 * Returns the number of uploads in flight.
+				 */
+				@Override
+				public double getValue() {
+					synchronized(inFlightLock) {
+						return inFlight;
+					}
+				}
+			});
+		Metrics.registerGauge(
+			"admission_waiting",
+			"The number of uploads waiting for one in flight to finish.",
+			null,
+			null,
+			new Gauge() {
+				/**
+				 * Returns the number of waiting uploads.
+				 */
+				@Override
+				public double getValue() {
+					synchronized(inFlightLock) {
+						return waiting;
+					}
+				}
+			});
+		Metrics.registerGauge(
+			"admission_buckets",
+			"The number of users and clients with a token bucket.",
+			null,
+			null,
+			new Gauge() {
+				/**
+				 * Returns the number of buckets.
+				 */
+				@Override
+				public double getValue() {
+					return userBuckets.size() + clientBuckets.size();
+				}
+			});
+	}
+	
+	/**
+	 * Registers the counter of the uploads rejected for a reason.
+	 * 
+	 * @param reason The reason.
+	 * 
+	 * @param rejected The number of uploads rejected for that reason.
+	 */
+	private static void registerRejections(
+			final String reason,
+			final AtomicLong rejected) {
+		
+		Metrics.registerCounter(
+			"admission_rejected_total",
+			"The number of uploads that were rejected, by reason.",
+			"reason",
+			reason,
+			new Gauge() {
+				/**
+				 * Returns the number of rejected uploads.
+				 */
+				@Override
+				public double getValue() {
+					return rejected.get();
+				}
+			});
+	}
+}
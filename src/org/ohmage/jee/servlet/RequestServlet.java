@@ -17,13 +17,17 @@ package org.ohmage.jee.servlet;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.http.HttpServlet;
@@ -31,21 +35,42 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.UserBin;
+import org.ohmage.domain.User;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.jee.filter.ClientFilter;
 import org.ohmage.jee.filter.Log4jNdcFilter;
+import org.ohmage.jee.listener.ConfigurationFileImport;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.metrics.Tracing;
+import org.ohmage.query.impl.ReadWriteRoutingDataSource;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
 import org.ohmage.request.RequestBuilder;
+import org.ohmage.request.RequestBuilder.RouteClass;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.AuditServices;
 
 /**
- * Handler for all incoming HTTP requests.
+ * <p>Handler for all incoming HTTP requests.</p>
+ * 
+ * <p>Requests are processed asynchronously. Each request is handed to the
+ * {@link RouteExecutor} for its {@link RouteClass}, and the container's
+ * thread is released. If that pool's queue is full, the request is rejected
+ * with a 503 and a Retry-After header. The size of each pool is configured
+ * with the "request.executor.&lt;route class&gt;.threads" and
+ * "request.executor.&lt;route class&gt;.queue_size" properties.</p>
+ * 
+ * <p>Before an upload is handed to its pool, the {@link AdmissionController}
+ * decides whether or not it may be processed. If not, it is rejected with a
+ * 429 and a Retry-After header, which the clients back off on.</p>
  * 
  * @author John Jenkins
  */
@@ -101,6 +126,65 @@ public class RequestServlet extends HttpServlet {
 	private static final String KEY_DEVICE_ID = "device_id";
 	
 	private static final String KEY_ATTRIBUTE = "_ohmage_request_";
+	private static final String KEY_ATTRIBUTE_RECEIVED =
+		"_ohmage_request_received_";
+	private static final String KEY_ATTRIBUTE_ASYNC = "_ohmage_request_async_";
+	
+	private static final String PROPERTY_PREFIX = "request.executor.";
+	private static final String PROPERTY_THREADS = ".threads";
+	private static final String PROPERTY_QUEUE_SIZE = ".queue_size";
+	private static final String PROPERTY_RETRY_AFTER =
+		PROPERTY_PREFIX + "retry_after_seconds";
+	private static final String PROPERTY_TRACE_SAMPLE_RATE =
+		"trace.sample_rate";
+	private static final String PROPERTY_TRACES_PER_ROUTE =
+		"trace.traces_per_route";
+	
+	private static final int DEFAULT_THREADS = 8;
+	private static final int DEFAULT_QUEUE_SIZE = 100;
+	private static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+	
+	/**
+	 * The HTTP status code for a request that was rejected because its user
+	 * or client is making too many requests.
+	 */
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	
+	/**
+	 * The pools that process each class of request.
+	 */
+	private static final Map<RouteClass, RouteExecutor> EXECUTORS =
+		new EnumMap<RouteClass, RouteExecutor>(RouteClass.class);
+	
+	/**
+	 * The number of audit entries that have been handed to a thread but not
+	 * yet written.
+	 */
+	private static final AtomicInteger PENDING_AUDITS = new AtomicInteger(0);
+	
+	/**
+	 * The route under which requests to unknown URIs are recorded in the
+	 * metrics.
+	 */
+	private static final String UNKNOWN_ROUTE = "unknown";
+	
+	/**
+	 * The names of the spans of the phases of a request.
+	 */
+	private static final String SPAN_BUILD = "build";
+	private static final String SPAN_SERVICE = "service";
+	private static final String SPAN_RESPOND = "respond";
+	
+	/**
+	 * How long, in seconds, a client should wait before retrying a request
+	 * that was rejected because its pool was full.
+	 */
+	private int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+	
+	/**
+	 * Decides which uploads may be processed.
+	 */
+	private AdmissionController admissionController = null;
 	
 	private static final long serialVersionUID = 1L;
 	
@@ -194,12 +278,13 @@ public class RequestServlet extends HttpServlet {
 				for(String key : parameterMap.keySet()) {
 					String[] values = parameterMap.get(key);
 					
-					// If it is a password or new_password, we mask it to avoid
-					// accidentally storing any passwords in the database,
-					// except in the user table.
+					// If it is a password, new_password, or a list of new 
+					// users, we mask it to avoid accidentally storing any
+					// passwords in the database, except in the user table.
 					if(
 						InputKeys.PASSWORD.equals(key) || 
-						InputKeys.NEW_PASSWORD.equals(key)) {
+						InputKeys.NEW_PASSWORD.equals(key) ||
+						InputKeys.NEW_USER_LIST.equals(key)) {
 
 						for(int i = 0; i < values.length; i++) {
 							values[i] = PASSWORD_OMITTED;
@@ -295,6 +380,116 @@ public class RequestServlet extends HttpServlet {
 			catch(ServiceException e) {
 				LOGGER.error("Error while auditing the request.", e);
 			}
+			finally {
+				PENDING_AUDITS.decrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Creates the pools for each class of request.
+	 */
+	@Override
+	public void init() throws ServletException {
+		Properties properties = ConfigurationFileImport.getCustomProperties();
+		
+		synchronized(EXECUTORS) {
+			for(RouteClass routeClass : RouteClass.values()) {
+				int threads =
+					getIntProperty(
+						properties,
+						PROPERTY_PREFIX + routeClass + PROPERTY_THREADS,
+						DEFAULT_THREADS);
+				int queueSize =
+					getIntProperty(
+						properties,
+						PROPERTY_PREFIX + routeClass + PROPERTY_QUEUE_SIZE,
+						DEFAULT_QUEUE_SIZE);
+				
+				LOGGER.info(
+					"Processing " + routeClass + " requests with " +
+						threads + " threads and a queue of " + queueSize +
+						".");
+				EXECUTORS.put(
+					routeClass,
+					new RouteExecutor(routeClass, threads, queueSize));
+			}
+		}
+		
+		admissionController = new AdmissionController();
+		
+		retryAfterSeconds =
+			getIntProperty(
+				properties,
+				PROPERTY_RETRY_AFTER,
+				DEFAULT_RETRY_AFTER_SECONDS);
+		
+		double sampleRate = Tracing.DEFAULT_SAMPLE_RATE;
+		String sampleRateString =
+			properties.getProperty(PROPERTY_TRACE_SAMPLE_RATE);
+		if(sampleRateString != null) {
+			try {
+				sampleRate = Double.parseDouble(sampleRateString.trim());
+			}
+			catch(NumberFormatException e) {
+				LOGGER.warn(
+					"The property '" + PROPERTY_TRACE_SAMPLE_RATE +
+						"' is not a number: " + sampleRateString);
+			}
+			if((sampleRate < 0) || (sampleRate > 1)) {
+				LOGGER.warn(
+					"The property '" + PROPERTY_TRACE_SAMPLE_RATE +
+						"' is not between 0 and 1: " + sampleRateString);
+				sampleRate = Tracing.DEFAULT_SAMPLE_RATE;
+			}
+		}
+		Tracing.configure(
+			sampleRate,
+			getIntProperty(
+				properties,
+				PROPERTY_TRACES_PER_ROUTE,
+				Tracing.DEFAULT_TRACES_PER_ROUTE));
+		
+		Metrics.registerGauge(
+			"audit_queue_depth",
+			"The number of audit entries waiting to be written.",
+			null,
+			null,
+			new Gauge() {
+				/**
+				 * Returns the number of pending audit entries.
+				 */
+				@Override
+				public double getValue() {
+					return PENDING_AUDITS.get();
+				}
+			});
+	}
+	
+	/**
+	 * Shuts down the pools.
+	 */
+	@Override
+	public void destroy() {
+		synchronized(EXECUTORS) {
+			for(RouteExecutor executor : EXECUTORS.values()) {
+				executor.shutdown();
+			}
+			EXECUTORS.clear();
+		}
+	}
+	
+	/**
+	 * Returns the pool that processes a class of request, which may be used
+	 * to read its gauges.
+	 * 
+	 * @param routeClass The class of request.
+	 * 
+	 * @return The pool or null if the servlet hasn't been initialized.
+	 */
+	public static RouteExecutor getExecutor(final RouteClass routeClass) {
+		synchronized(EXECUTORS) {
+			return EXECUTORS.get(routeClass);
 		}
 	}
 	
@@ -306,10 +501,29 @@ public class RequestServlet extends HttpServlet {
 	protected final void service(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws ServletException, IOException {
 		// Get the moment we received the request.
 		long receivedTimestamp = System.currentTimeMillis();
+		httpRequest.setAttribute(KEY_ATTRIBUTE_RECEIVED, receivedTimestamp);
 		
 		// Service the request by calling the appropriate getXXX() method.
 		super.service(httpRequest, httpResponse);
 		
+		// Requests that were handed to a pool are audited once they have
+		// been processed.
+		if(httpRequest.getAttribute(KEY_ATTRIBUTE_ASYNC) == null) {
+			audit(httpRequest, receivedTimestamp);
+		}
+	}
+	
+	/**
+	 * Audits a request that has been responded to.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param receivedTimestamp The time at which the request was received.
+	 */
+	private void audit(
+			final HttpServletRequest httpRequest,
+			final long receivedTimestamp) {
+		
 		// Get the moment we have completed 
 		long respondedTimestamp = System.currentTimeMillis();
 		
@@ -372,6 +586,7 @@ public class RequestServlet extends HttpServlet {
 				extras,
 				receivedTimestamp,
 				respondedTimestamp);
+		PENDING_AUDITS.incrementAndGet();
 		auditThread.start();
 	}
 	
@@ -395,7 +610,11 @@ public class RequestServlet extends HttpServlet {
 				RequestBuilder.getInstance().getApiOmhRead().equals(httpRequest.getRequestURI()) ||
 				RequestBuilder.getInstance().getApiSurveyResponseRead().equals(httpRequest.getRequestURI()) ||
 				RequestBuilder.getInstance().getApiVideoRead().equals(httpRequest.getRequestURI()) ||
-				RequestBuilder.getInstance().getApiMediaRead().equals(httpRequest.getRequestURI())
+				RequestBuilder.getInstance().getApiMediaRead().equals(httpRequest.getRequestURI()) ||
+				RequestBuilder.getInstance().getApiMetricsRead().equals(httpRequest.getRequestURI()) ||
+				RequestBuilder.getInstance().getApiTraceRead().equals(httpRequest.getRequestURI()) ||
+				RequestBuilder.getInstance().getApiExportRead().equals(httpRequest.getRequestURI()) ||
+				RequestBuilder.getInstance().getApiExportDownload().equals(httpRequest.getRequestURI())
 			) {
 			
 			processRequest(httpRequest, httpResponse);
@@ -435,7 +654,8 @@ public class RequestServlet extends HttpServlet {
 	
 	/**
 	 * Builds a Request object. If building the object didn't fail, it will
-	 * service the request. Finally, the request will respond.
+	 * service the request. Finally, the request will respond. This is done on
+	 * one of the threads of the pool for the request's {@link RouteClass}.
 	 * 
 	 * @param httpRequest The HTTP request that is to be built, serviced, and
 	 * 					  responded.
@@ -447,16 +667,195 @@ public class RequestServlet extends HttpServlet {
 			final HttpServletRequest httpRequest, 
 			final HttpServletResponse httpResponse) {
 		
+		RouteClass routeClass =
+			RequestBuilder
+				.getInstance()
+				.getRouteClass(httpRequest.getRequestURI());
+		RouteExecutor executor = getExecutor(routeClass);
+		final Object client =
+			httpRequest.getAttribute(ClientFilter.ATTRIBUTE_KEY_CLIENT);
+		
+		// Uploads must be admitted before they are processed. An admitted
+		// upload must be released however it ends.
+		final AdmissionController admission =
+			(RouteClass.UPLOAD.equals(routeClass)) ? 
+				admissionController : 
+				null;
+		if(admission != null) {
+			int retryAfter =
+				admission.admit(
+					getRequester(httpRequest),
+					(client == null) ? null : client.toString());
+			
+			if(retryAfter != AdmissionController.ADMITTED) {
+				httpResponse.setHeader(
+					"Retry-After", 
+					Integer.toString(retryAfter));
+				respondFailure(
+					httpResponse,
+					SC_TOO_MANY_REQUESTS,
+					ErrorCode.SYSTEM_TOO_MANY_REQUESTS,
+					"Too many uploads are being made. Please try again later.");
+				return;
+			}
+		}
+		
+		// If the container can't process this request asynchronously, process
+		// it on this thread.
+		if((executor == null) || (! httpRequest.isAsyncSupported())) {
+			try {
+				handleRequest(httpRequest, httpResponse);
+			}
+			finally {
+				if(admission != null) {
+					admission.release();
+				}
+			}
+			return;
+		}
+		
+		Object receivedObject = httpRequest.getAttribute(KEY_ATTRIBUTE_RECEIVED);
+		final long receivedTimestamp = 
+			(receivedObject instanceof Long) ?
+				(Long) receivedObject :
+				System.currentTimeMillis();
+		final String requestId =
+			(String) httpRequest.getAttribute(
+				Log4jNdcFilter.ATTRIBUTE_REQUEST_ID);
+		
+		// Some requests take far longer than the container's default timeout,
+		// so there is no timeout, as when they were processed synchronously.
+		final AsyncContext asyncContext = 
+			httpRequest.startAsync(httpRequest, httpResponse);
+		asyncContext.setTimeout(0);
+		httpRequest.setAttribute(KEY_ATTRIBUTE_ASYNC, routeClass);
+		
+		boolean queued = 
+			executor.submit(
+				new Runnable() {
+					/**
+					 * Processes and audits the request on one of the pool's
+					 * threads and then completes it.
+					 */
+					@Override
+					public void run() {
+						// The NDC belongs to the container's thread, so it
+						// must be rebuilt on this one.
+						if(requestId != null) {
+							NDC.push(requestId);
+						}
+						if(client != null) {
+							NDC.push("client=" + client);
+						}
+						
+						try {
+							handleRequest(httpRequest, httpResponse);
+						}
+						catch(RuntimeException e) {
+							LOGGER.error(
+								"There was an issue executing the request.",
+								e);
+						}
+						finally {
+							if(admission != null) {
+								admission.release();
+							}
+							
+							try {
+								audit(httpRequest, receivedTimestamp);
+							}
+							finally {
+								asyncContext.complete();
+								NDC.remove();
+							}
+						}
+					}
+				});
+		
+		if(! queued) {
+			if(admission != null) {
+				admission.release();
+			}
+			
+			// The container's thread will audit the rejected request.
+			httpRequest.removeAttribute(KEY_ATTRIBUTE_ASYNC);
+			
+			httpResponse.setHeader(
+				"Retry-After", 
+				Integer.toString(retryAfterSeconds));
+			respondFailure(
+				httpResponse,
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+				ErrorCode.SYSTEM_GENERAL_ERROR,
+				"The server is too busy to process the request. Please try again later.");
+			asyncContext.complete();
+		}
+	}
+	
+	/**
+	 * Builds, services, and responds to a request on the current thread.
+	 * 
+	 * @param httpRequest The HTTP request that is to be built, serviced, and
+	 * 					  responded.
+	 * 
+	 * @param httpResponse The HTTP response that will be sent back to the user
+	 * 					   once the request has been processed.
+	 */
+	private void handleRequest(
+			final HttpServletRequest httpRequest, 
+			final HttpServletResponse httpResponse) {
+		
+		// Choose where this request's database connections will come from.
+		ReadWriteRoutingDataSource.startRequest(
+			RequestBuilder
+				.getInstance()
+				.isReadOnlyUri(httpRequest.getRequestURI()),
+			UserRequest.getToken(httpRequest));
+		
+		// Time each phase of the request. A phase that was never reached is
+		// left as -1.
+		Metrics.startRequest();
+		Tracing.startTrace(
+			(String) httpRequest.getAttribute(
+				Log4jNdcFilter.ATTRIBUTE_REQUEST_ID));
+		long started = System.nanoTime();
+		long built = -1;
+		long serviced = -1;
+		boolean completed = false;
+		
+		Request request = null;
 		try {
-			Request request = RequestBuilder.getInstance().buildRequest(httpRequest);
+			int span = Tracing.openSpan(SPAN_BUILD);
+			try {
+				request = 
+					RequestBuilder.getInstance().buildRequest(httpRequest);
+			}
+			finally {
+				Tracing.closeSpan(span);
+			}
+			built = System.nanoTime();
 	
 			if(! request.isFailed()) {
-				request.service();
+				span = Tracing.openSpan(SPAN_SERVICE);
+				try {
+					request.service();
+				}
+				finally {
+					Tracing.closeSpan(span);
+				}
 			}
+			serviced = System.nanoTime();
 			
-			request.respond(httpRequest, httpResponse);
+			span = Tracing.openSpan(SPAN_RESPOND);
+			try {
+				request.respond(httpRequest, httpResponse);
+			}
+			finally {
+				Tracing.closeSpan(span);
+			}
 			
 			httpRequest.setAttribute(KEY_ATTRIBUTE, request);
+			completed = true;
 		}
 		catch(IOException e) {
 			LOGGER.info(
@@ -475,6 +874,102 @@ public class RequestServlet extends HttpServlet {
 					"General server errors occured while executing the request");
 		
 		}
+		finally {
+			// Use the token the request ended with, because the request may
+			// have created it.
+			String token = UserRequest.getToken(httpRequest);
+			if(request instanceof UserRequest) {
+				User user = ((UserRequest) request).getUser();
+				if((user != null) && (user.getToken() != null)) {
+					token = user.getToken();
+				}
+			}
+			
+			ReadWriteRoutingDataSource.endRequest(token);
+			
+			long ended = System.nanoTime();
+			String uri = httpRequest.getRequestURI();
+			String route =
+				(RequestBuilder.getInstance().knownUri(uri)) ? 
+					uri : 
+					UNKNOWN_ROUTE;
+			boolean failed = (! completed) || request.isFailed();
+			Metrics.endRequest(
+				route,
+				((built < 0) ? ended : built) - started,
+				(built < 0) ? 0 : ((serviced < 0) ? ended : serviced) - built,
+				(serviced < 0) ? 0 : ended - serviced,
+				failed);
+			Tracing.endTrace(route, failed);
+		}
+	}
+
+	/**
+	 * Returns who an upload's per-user limit is counted against. This is
+	 * decided before the request is authenticated, so only an identity that
+	 * has already been authenticated may be used: the user of the request's
+	 * token, if it has a valid one. Anything else, such as a username 
+	 * parameter, could name any user and drain their limit.<br />
+	 * <br />
+	 * Uploads without a valid token, such as the phones' password uploads,
+	 * skip the per-user limit and are only limited by their client's limit 
+	 * and the number of uploads in flight. They are not counted against the
+	 * address they came from, because behind the reverse proxy that
+	 * terminates SSL that is the proxy's address, and every such upload
+	 * would share a single bucket.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @return The key of the requester's bucket or null if the upload has no
+	 * 		   authenticated identity.
+	 */
+	private static String getRequester(final HttpServletRequest httpRequest) {
+		String token = UserRequest.getToken(httpRequest);
+		if(token != null) {
+			User user = UserBin.getUser(token);
+			if(user != null) {
+				return user.getUsername();
+			}
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Reads a positive integer property.
+	 * 
+	 * @param properties The properties.
+	 * 
+	 * @param key The property's key.
+	 * 
+	 * @param defaultValue The value to use if the property is missing or
+	 * 					   invalid.
+	 * 
+	 * @return The property's value or the default value.
+	 */
+	private static int getIntProperty(
+			final Properties properties,
+			final String key,
+			final int defaultValue) {
+		
+		String value = properties.getProperty(key);
+		if((value == null) || (value.trim().length() == 0)) {
+			return defaultValue;
+		}
+		
+		try {
+			int result = Integer.parseInt(value.trim());
+			if(result > 0) {
+				return result;
+			}
+		}
+		catch(NumberFormatException e) {
+			// Fall through to the warning.
+		}
+		
+		LOGGER.warn(
+			"The property '" + key + "' is not a positive integer: " + value);
+		return defaultValue;
 	}
 
 	/**
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.jee.servlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.request.RequestBuilder.RouteClass;
+
+/**
+ * <p>A bounded pool of threads that processes the requests of a single
+ * {@link RouteClass}. Each pool has its own threads and its own queue, so a
+ * backlog of slow requests in one class cannot hold up the requests in
+ * another. When a pool's queue is full, new requests are rejected rather
+ * than queued.</p>
+ *
+ * <p>Each pool keeps gauges of its queue length, its number of active
+ * threads, and how long requests wait in the queue and take in total.</p>
+ *
+ * @author John Jenkins
+ */
+public class RouteExecutor {
+	private static final Logger LOGGER =
+		Logger.getLogger(RouteExecutor.class);
+
+	/**
+	 * How long, in seconds, to wait for the running requests to finish when
+	 * the pool is shut down.
+	 */
+	private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+	/**
+	 * Wraps a request's work to record how long it waited and how long it
+	 * took.
+	 *
+	 * @author John Jenkins
+	 */
+	private final class TimedTask implements Runnable {
+		private final Runnable task;
+		private final long queuedNanos;
+
+		/**
+		 * Creates a new timed task.
+		 *
+		 * @param task The work to do.
+		 */
+		private TimedTask(final Runnable task) {
+			this.task = task;
+			queuedNanos = System.nanoTime();
+		}
+
+		/**
+		 * Runs the work and records its timings.
+		 */
+		@Override
+		public void run() {
+			long startNanos = System.nanoTime();
+			totalQueueNanos.addAndGet(startNanos - queuedNanos);
+
+			try {
+				task.run();
+			}
+			finally {
+				long latencyNanos = System.nanoTime() - queuedNanos;
+				totalLatencyNanos.addAndGet(latencyNanos);
+
+				long max;
+				while((max = maxLatencyNanos.get()) < latencyNanos) {
+					if(maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+						break;
+					}
+				}
+
+				completedCount.incrementAndGet();
+			}
+		}
+	}
+
+	private final RouteClass routeClass;
+	private final int queueSize;
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong completedCount = new AtomicLong(0);
+	private final AtomicLong rejectedCount = new AtomicLong(0);
+	private final AtomicLong totalQueueNanos = new AtomicLong(0);
+	private final AtomicLong totalLatencyNanos = new AtomicLong(0);
+	private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+	/**
+	 * Creates a new pool for a route class.
+	 *
+	 * @param routeClass The class of requests this pool processes.
+	 *
+	 * @param numThreads The number of requests that may be processed at the
+	 * 					 same time.
+	 *
+	 * @param queueSize The number of requests that may wait for a thread
+	 * 					before new requests are rejected.
+	 *
+	 * @throws IllegalArgumentException The route class is null, or the number
+	 * 									of threads or the queue size is not
+	 * 									positive.
+	 */
+	public RouteExecutor(
+			final RouteClass routeClass,
+			final int numThreads,
+			final int queueSize) {
+
+		if(routeClass == null) {
+			throw new IllegalArgumentException("The route class is null.");
+		}
+		else if(numThreads <= 0) {
+			throw new IllegalArgumentException(
+				"The number of threads must be positive.");
+		}
+		else if(queueSize <= 0) {
+			throw new IllegalArgumentException(
+				"The queue size must be positive.");
+		}
+
+		this.routeClass = routeClass;
+		this.queueSize = queueSize;
+
+		final String threadName = "Request Worker (" + routeClass + ") ";
+		executor =
+			new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(0);
+
+					/**
+					 * Creates daemon threads with a name that identifies the
+					 * route class.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread result =
+							new Thread(
+								runnable,
+								threadName + count.incrementAndGet());
+						result.setDaemon(true);
+						return result;
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		
+		registerMetrics();
+	}
+
+	/**
+	 * Queues some work.
+	 *
+	 * @param task The work to do.
+	 *
+	 * @return True if the work was queued; false if the queue was full or
+	 * 		   the pool has been shut down.
+	 */
+	public boolean submit(final Runnable task) {
+		try {
+			executor.execute(new TimedTask(task));
+			return true;
+		}
+		catch(RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			LOGGER.warn(
+				"The " + routeClass + " requests are saturated with " +
+					getActiveCount() + " active and " +
+					getQueueLength() + " queued.");
+			return false;
+		}
+	}
+
+	/**
+	 * Stops accepting new work and waits a short time for the running work to
+	 * finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			if(! executor.awaitTermination(
+					SHUTDOWN_WAIT_SECONDS,
+					TimeUnit.SECONDS)) {
+
+				LOGGER.warn(
+					"The " + routeClass + " requests did not finish in time.");
+				executor.shutdownNow();
+			}
+		}
+		catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Registers this pool's gauges in the metrics, replacing those of any
+	 * previous pool for the same route class.
+	 */
+	private void registerMetrics() {
+		String route = routeClass.toString();
+
+		Metrics.registerGauge(
+			"request_executor_threads",
+			"The number of threads in each request pool.",
+			"route",
+			route,
+			new Gauge() {
+				/**
+				 * Returns the number of threads.
+				 */
+				@Override
+				public double getValue() {
+					return getNumThreads();
+				}
+			});
+		Metrics.registerGauge(
+			"request_executor_active_threads",
+			"The number of requests being processed by each request pool.",
+			"route",
+			route,
+			new Gauge() {
+				/**
+				 * Returns the number of active threads.
+				 */
+				@Override
+				public double getValue() {
+					return getActiveCount();
+				}
+			});
+		Metrics.registerGauge(
+			"request_executor_queue_length",
+			"The number of requests waiting in each request pool's queue.",
+			"route",
+			route,
+			new Gauge() {
+				/**
+				 * Returns the queue's length.
+				 */
+				@Override
+				public double getValue() {
+					return getQueueLength();
+				}
+			});
+		Metrics.registerCounter(
+			"request_executor_completed_total",
+			"The number of requests processed by each request pool.",
+			"route",
+			route,
+			new Gauge() {
+				/**
+				 * Returns the number of completed requests.
+				 */
+				@Override
+				public double getValue() {
+					return getCompletedCount();
+				}
+			});
+		Metrics.registerCounter(
+			"request_executor_rejected_total",
+			"The number of requests rejected by each request pool.",
+			"route",
+			route,
+			new Gauge() {
+				/**
+				 * Returns the number of rejected requests.
+				 */
+				@Override
+				public double getValue() {
+					return getRejectedCount();
+				}
+			});
+	}
+
+	/**
+	 * Returns the class of requests this pool processes.
+	 *
+	 * @return The route class.
+	 */
+	public RouteClass getRouteClass() {
+		return routeClass;
+	}
+
+	/**
+	 * Returns the number of threads in this pool.
+	 *
+	 * @return The number of threads.
+	 */
+	public int getNumThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Returns the maximum number of requests that may be queued.
+	 *
+	 * @return The maximum queue length.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Returns the number of requests waiting for a thread.
+	 *
+	 * @return The current queue length.
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the approximate number of requests being processed.
+	 *
+	 * @return The number of active threads.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Returns the number of requests that have been processed.
+	 *
+	 * @return The number of completed requests.
+	 */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * Returns the number of requests that were rejected because the queue was
+	 * full.
+	 *
+	 * @return The number of rejected requests.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, that the completed requests
+	 * waited in the queue.
+	 *
+	 * @return The average queue time or 0 if no requests have completed.
+	 */
+	public double getAverageQueueMillis() {
+		long completed = completedCount.get();
+		if(completed == 0) {
+			return 0;
+		}
+
+		return (totalQueueNanos.get() / (double) completed) / 1000000.0;
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, from when the completed
+	 * requests were queued until they were finished.
+	 *
+	 * @return The average latency or 0 if no requests have completed.
+	 */
+	public double getAverageLatencyMillis() {
+		long completed = completedCount.get();
+		if(completed == 0) {
+			return 0;
+		}
+
+		return (totalLatencyNanos.get() / (double) completed) / 1000000.0;
+	}
+
+	/**
+	 * Returns the longest time, in milliseconds, from when a request was
+	 * queued until it was finished.
+	 *
+	 * @return The maximum latency.
+	 */
+	public double getMaxLatencyMillis() {
+		return maxLatencyNanos.get() / 1000000.0;
+	}
+}
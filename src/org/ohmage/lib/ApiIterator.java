@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.lib;
+
+import java.util.NoSuchElementException;
+
+import org.ohmage.lib.exception.ApiException;
+
+/**
+ * An iterator over data that is retrieved from the server as it is needed.
+ * Unlike {@link java.util.Iterator}, either method may need to make a call to
+ * the server, so both may throw an {@link ApiException}.
+ *
+ * @author John Jenkins
+ */
+public interface ApiIterator<T> {
+	/**
+	 * Returns whether or not there are more elements. This may need to
+	 * retrieve the next set of elements from the server.
+	 *
+	 * @return Whether or not there are more elements.
+	 *
+	 * @throws ApiException There was an error retrieving the elements from
+	 * 						the server. If the server returned an error, this
+	 * 						will be a
+	 * 						{@link org.ohmage.lib.exception.RequestErrorException}.
+	 */
+	public boolean hasNext() throws ApiException;
+
+	/**
+	 * Returns the next element. This may need to retrieve the next set of
+	 * elements from the server.
+	 *
+	 * @return The next element.
+	 *
+	 * @throws ApiException There was an error retrieving the elements from
+	 * 						the server. If the server returned an error, this
+	 * 						will be a
+	 * 						{@link org.ohmage.lib.exception.RequestErrorException}.
+	 *
+	 * @throws NoSuchElementException There are no more elements.
+	 */
+	public T next() throws ApiException;
+}
@@ -19,6 +19,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
@@ -29,7 +30,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -40,11 +44,21 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -88,6 +102,70 @@ public class OhmageApi {
 	
 	private static final String CONTENT_TYPE_HEADER = "Content-Type";
 	private static final String CONTENT_TYPE_HTML = "text/html";
+	
+	private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+	private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	private static final String ENCODING_GZIP = "gzip";
+	
+	/**
+	 * The smallest "application/x-www-form-urlencoded" request body, in 
+	 * bytes, that will be compressed.
+	 */
+	private static final long GZIP_REQUEST_THRESHOLD = 1024;
+	
+	private static final int MAX_CONNECTIONS = 20;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+	
+	/**
+	 * The number of milliseconds to keep an idle connection if the server 
+	 * doesn't say.
+	 */
+	private static final long KEEP_ALIVE_MILLIS = 30 * 1000;
+	
+	/**
+	 * The client shared by all instances of this class.
+	 */
+	private static final HttpClient HTTP_CLIENT = buildHttpClient();
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	private static final String MOBILITY_COLUMN_LIST = 
+		"mobility:id,mobility:time,mobility:timestamp,mobility:timezone,mobility:location,mobility:subtype,mobility:sensor_data,mobility:mode";
+	
+	/**
+	 * Reads an array of Mobility points from a response.
+	 */
+	private static final JsonValueReader<List<MobilityPoint>> MOBILITY_POINT_READER =
+		new JsonObjectArrayReader<MobilityPoint>() {
+			/**
+			 * Creates the Mobility point.
+			 */
+			@Override
+			protected MobilityPoint convert(final JSONObject object)
+					throws ApiException {
+				
+				try {
+					return new MobilityPoint(object, MobilityPoint.PrivacyState.PRIVATE);
+				}
+				catch(DomainException e) {
+					throw new ApiException("The server returned an malformed MobilityInformation object.", e);
+				}
+			}
+		};
+	
+	/**
+	 * Reads an array of JSON objects from a response.
+	 */
+	static final JsonValueReader<List<JSONObject>> JSON_OBJECT_READER =
+		new JsonObjectArrayReader<JSONObject>() {
+			/**
+			 * Returns the object as-is.
+			 */
+			@Override
+			protected JSONObject convert(final JSONObject object) {
+				return object;
+			}
+		};
 		
 	private final URL url;
 	
@@ -159,12 +237,11 @@ public class OhmageApi {
 		String serverResponse;
 		try {
 			serverResponse = 
-				processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiConfigRead()), 
-							new HashMap<String, Object>(0), 
-							false), 
-					InputKeys.DATA);
+				makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiConfigRead()), 
+						new HashMap<String, Object>(0), 
+						false,
+						InputKeys.DATA);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -215,12 +292,11 @@ public class OhmageApi {
 		parameters.put(InputKeys.CLIENT, client);
 
 		try {
-			return processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiUserAuth()), 
-							parameters, 
-							false), 
-					AuthRequest.KEY_HASHED_PASSWORD);
+			return makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiUserAuth()), 
+						parameters, 
+						false,
+						AuthRequest.KEY_HASHED_PASSWORD);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -256,12 +332,11 @@ public class OhmageApi {
 		parameters.put(InputKeys.CLIENT, client);
 		
 		try {
-			return processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiUserAuthToken()), 
-							parameters, 
-							false), 
-					AuthTokenRequest.KEY_AUTH_TOKEN);
+			return makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiUserAuthToken()), 
+						parameters, 
+						false,
+						AuthTokenRequest.KEY_AUTH_TOKEN);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -447,13 +522,11 @@ public class OhmageApi {
 		JSONObject resultJson;
 		try {
 			resultJson = new JSONObject(
-					processJsonResponse(
-						makeRequest(
-								new URL(url.toString() + RequestBuilder.getInstance().getApiCampaignRead()), 
-								parameters, 
-								false), 
-						Request.JSON_KEY_DATA
-					)
+					makeJsonRequest(
+							new URL(url.toString() + RequestBuilder.getInstance().getApiCampaignRead()), 
+							parameters, 
+							false,
+							Request.JSON_KEY_DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -709,13 +782,11 @@ public class OhmageApi {
 		JSONObject resultJson;
 		try {
 			resultJson = new JSONObject(
-					processJsonResponse(
-						makeRequest(
-								new URL(url.toString() + RequestBuilder.getInstance().getApiClassRead()), 
-								parameters, 
-								false), 
-						Request.JSON_KEY_DATA
-					)
+					makeJsonRequest(
+							new URL(url.toString() + RequestBuilder.getInstance().getApiClassRead()), 
+							parameters, 
+							false,
+							Request.JSON_KEY_DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -876,14 +947,11 @@ public class OhmageApi {
 		JSONArray warningMessages;
 		try {
 			warningMessages = new JSONArray(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiClassRosterUpdate()), 
-									parameters, 
-									true
-								),
-							ClassRosterUpdateRequest.KEY_WARNING_MESSAGES
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().getApiClassRosterUpdate()), 
+								parameters, 
+								true,
+								ClassRosterUpdateRequest.KEY_WARNING_MESSAGES)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -1017,12 +1085,11 @@ public class OhmageApi {
 		}
 		
 		try {
-			return processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentCreate()), 
-							parameters, 
-							true), 
-					DocumentCreationRequest.KEY_DOCUMENT_ID);
+			return makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentCreate()), 
+						parameters, 
+						true,
+						DocumentCreationRequest.KEY_DOCUMENT_ID);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1079,13 +1146,11 @@ public class OhmageApi {
 		JSONObject documents;
 		try {
 			documents = new JSONObject(
-					processJsonResponse(
-						makeRequest(
-								new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentRead()), 
-								parameters, 
-								false), 
-						Request.JSON_KEY_DATA
-					)
+					makeJsonRequest(
+							new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentRead()), 
+							parameters, 
+							false,
+							Request.JSON_KEY_DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -1266,12 +1331,11 @@ public class OhmageApi {
 		}
 		
 		try {
-			processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentUpdate()), 
-							parameters, 
-							true),
-					null);
+			makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentUpdate()), 
+						parameters, 
+						true,
+						null);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1304,12 +1368,11 @@ public class OhmageApi {
 		parameters.put(InputKeys.DOCUMENT_ID, documentId);
 		
 		try {
-			processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentDelete()), 
-							parameters, 
-							false), 
-					null);
+			makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiDocumentDelete()), 
+						parameters, 
+						false,
+						null);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1370,12 +1433,11 @@ public class OhmageApi {
 		parameters.put(InputKeys.DATA, dataArray);
 		
 		try {
-			processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiMobilityUpload()), 
-							parameters, 
-							false), 
-					null);
+			makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiMobilityUpload()), 
+						parameters, 
+						false,
+						null);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1425,21 +1487,15 @@ public class OhmageApi {
 			parameters.put(InputKeys.DATE, DateTimeUtils.getIso8601DateString(date, false));
 		}
 		
-		parameters.put(
-			InputKeys.COLUMN_LIST, 
-			"mobility:id,mobility:time,mobility:timestamp,mobility:timezone,mobility:location,mobility:subtype,mobility:sensor_data,mobility:mode");
+		parameters.put(InputKeys.COLUMN_LIST, MOBILITY_COLUMN_LIST);
 		
-		JSONArray response;
 		try {
-			response = new JSONArray(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiMobilityRead()), 
-									parameters, 
-									false), 
-							MobilityReadRequest.JSON_KEY_DATA
-						)
-				);
+			return makeJsonRequest(
+					new URL(url.toString() + RequestBuilder.getInstance().getApiMobilityRead()), 
+					parameters, 
+					false,
+					MobilityReadRequest.JSON_KEY_DATA,
+					MOBILITY_POINT_READER);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1447,37 +1503,89 @@ public class OhmageApi {
 		catch(IllegalArgumentException e) {
 			throw new ApiException("The response was not proper JSON.", e);
 		}
-		catch(JSONException e) {
-			throw new ApiException("The response body was not proper JSON.", e);
+	}
+	
+	/**
+	 * Creates an iterator over all of the Mobility points between two dates.
+	 * The server only returns one day of points at a time, so the iterator
+	 * requests each day only once the points from the previous day have been
+	 * consumed. Days without any points are skipped.
+	 * 
+	 * @param authenticationToken The authentication token for the user making
+	 * 							  the request. This may be null if a username
+	 * 							  and password are provided.
+	 * 
+	 * @param username The username of the user that is making the request. 
+	 * 				   This may be null if the authentication token is 
+	 * 				   provided.
+	 * 
+	 * @param password The hashed password of the user that is making the 
+	 * 				   request. This may be null if the authentication token is
+	 * 				   provided.
+	 * 
+	 * @param client The client value.
+	 * 
+	 * @param startDate The first date for which Mobility points will be 
+	 * 					gathered.
+	 * 
+	 * @param endDate The last date for which Mobility points will be 
+	 * 				  gathered.
+	 * 
+	 * @return An iterator over the Mobility points in chronological order of
+	 * 		   their days.
+	 * 
+	 * @throws IllegalArgumentException Thrown if either date is null or the
+	 * 									start date is after the end date.
+	 */
+	public ApiIterator<MobilityPoint> getMobilityPointsIterator(
+			final String authenticationToken, final String username, 
+			final String password, final String client,
+			final DateTime startDate, final DateTime endDate) {
+		
+		if(startDate == null) {
+			throw new IllegalArgumentException("The start date is null.");
+		}
+		else if(endDate == null) {
+			throw new IllegalArgumentException("The end date is null.");
 		}
 		
-		int numResults = response.length();
-		List<MobilityPoint> results = new ArrayList<MobilityPoint>(numResults);
+		final DateTime firstDay = startDate.withTimeAtStartOfDay();
+		final DateTime lastDay = endDate.withTimeAtStartOfDay();
+		if(firstDay.isAfter(lastDay)) {
+			throw new IllegalArgumentException(
+					"The start date is after the end date.");
+		}
 		
-		for(int i = 0; i < numResults; i++) {
-			JSONObject currResult = response.optJSONObject(i);
-			
-			// All Mobility points from the server are "mode_only", but that is
-			// not included in the response. We add it here for the 
-			// constructor's benefit.
-			/*
-			try {
-				currResult.put(MobilityColumnKey.SUB_TYPE.toString(false), MobilityPoint.SubType.SENSOR_DATA.toString());
-			}
-			catch(JSONException e) {
-				throw new ApiException("Error adding the subtype to the response.", e);
+		return new PagingIterator<MobilityPoint>() {
+			/**
+			 * Reads the points for the day that is 'pageNumber' days after
+			 * the start date.
+			 */
+			@Override
+			protected List<MobilityPoint> readPage(final int pageNumber)
+					throws ApiException {
+				
+				DateTime day = firstDay.plusDays(pageNumber);
+				if(day.isAfter(lastDay)) {
+					return null;
+				}
+				
+				return readMobilityPoints(
+						authenticationToken, 
+						username, 
+						password, 
+						client, 
+						day);
 			}
-			*/
 			
-			try {
-				results.add(new MobilityPoint(currResult, MobilityPoint.PrivacyState.PRIVATE));
-			}
-			catch(DomainException e) {
-				throw new ApiException("The server returned an malformed MobilityInformation object.", e);
-			}
-		}
-		
-		return results;
+			/**
+			 * There is always another day until the end date.
+			 */
+			@Override
+			protected boolean isLastPage(final List<MobilityPoint> page) {
+				return false;
+			}
+		};
 	}
 	
 	/**************************************************************************
@@ -1551,12 +1659,11 @@ public class OhmageApi {
 		parameters.put(InputKeys.SURVEYS, dataArray);
 		
 		try {
-			processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyUpload()), 
-							parameters, 
-							true), 
-					null);
+			makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyUpload()), 
+						parameters, 
+						false,
+						null);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -1829,14 +1936,11 @@ public class OhmageApi {
 		JSONObject response;
 		try {
 			response = new JSONObject(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
+								parameters, 
+								false,
+								InputKeys.DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -1922,67 +2026,32 @@ public class OhmageApi {
 			final Boolean returnId)
 			throws ApiException, RequestErrorException {
 		
-		Map<String, Object> parameters = new HashMap<String, Object>();
-		parameters.put(InputKeys.USER, username);
-		parameters.put(InputKeys.PASSWORD, hashedPassword);
-		parameters.put(InputKeys.AUTH_TOKEN, authenticationToken);
-		parameters.put(InputKeys.CLIENT, client);
-		parameters.put(InputKeys.CAMPAIGN_URN, campaignId);
-		parameters.put(InputKeys.OUTPUT_FORMAT, SurveyResponse.OutputFormat.JSON_ROWS);
-		
-		if(usernames != null) {
-			if(usernames.size() == 0) {
-				parameters.put(InputKeys.USER_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
-			}
-			else {
-				parameters.put(InputKeys.USER_LIST, StringUtils.collectionToStringList(usernames, InputKeys.LIST_ITEM_SEPARATOR));
-			}
-		}
-		
-		if(columnList != null) {
-			if(columnList.size() == 0) {
-				parameters.put(InputKeys.COLUMN_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
-			}
-			else {
-				parameters.put(InputKeys.COLUMN_LIST, StringUtils.collectionToStringList(columnList, InputKeys.LIST_ITEM_SEPARATOR));
-			}
-		}
-		
-		if(surveyIdList != null) {
-			if(surveyIdList.size() == 0) {
-				parameters.put(InputKeys.SURVEY_ID_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
-			}
-			else {
-				parameters.put(InputKeys.SURVEY_ID_LIST, StringUtils.collectionToStringList(surveyIdList, InputKeys.LIST_ITEM_SEPARATOR));
-			}
-		}
-		if(promptIdList != null) {
-			if(promptIdList.size() == 0) {
-				parameters.put(InputKeys.PROMPT_ID_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
-			}
-			else {
-				parameters.put(InputKeys.PROMPT_ID_LIST, StringUtils.collectionToStringList(promptIdList, InputKeys.LIST_ITEM_SEPARATOR));
-			}
-		}
-
-		parameters.put(InputKeys.START_DATE, DateTimeUtils.getIso8601DateString(startDate, true));
-		parameters.put(InputKeys.END_DATE, DateTimeUtils.getIso8601DateString(endDate, true));
-		parameters.put(InputKeys.PRIVACY_STATE, privacyState);
-		parameters.put(InputKeys.COLLAPSE, collapse);
-		parameters.put(InputKeys.SUPPRESS_METADATA, suppressMetadata);
-		parameters.put(InputKeys.RETURN_ID, returnId);
+		Map<String, Object> parameters = 
+			buildSurveyResponsesJsonRowsParameters(
+				authenticationToken, 
+				username, 
+				hashedPassword, 
+				client, 
+				campaignId, 
+				usernames, 
+				columnList, 
+				surveyIdList, 
+				promptIdList, 
+				startDate, 
+				endDate, 
+				privacyState, 
+				collapse, 
+				suppressMetadata, 
+				returnId);
 		
 		JSONArray response;
 		try {
 			response = new JSONArray(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
+								parameters, 
+								false,
+								InputKeys.DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -2000,6 +2069,96 @@ public class OhmageApi {
 		// object.
 	}
 	
+	/**
+	 * Creates an iterator over the survey responses that match the given 
+	 * parameters, each as a row in the "json-rows" format. The responses are
+	 * requested from the server one page at a time as they are consumed, so
+	 * a large result set never needs to be in memory at once. See
+	 * {@link #getSurveyResponsesJsonRows(String, String, String, String, String, Collection, Collection, Collection, Collection, DateTime, DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, Boolean, Boolean, Boolean)}
+	 * for the parameters.
+	 * 
+	 * @param pageSize The number of survey responses to request at a time.
+	 * 
+	 * @return An iterator over the rows.
+	 * 
+	 * @throws IllegalArgumentException Thrown if the page size is not 
+	 * 									positive.
+	 */
+	public ApiIterator<JSONObject> getSurveyResponsesJsonRowsIterator(
+			final String authenticationToken, final String username, 
+			final String hashedPassword, final String client,
+			final String campaignId, final Collection<String> usernames,
+			final Collection<SurveyResponse.ColumnKey> columnList,
+			final Collection<String> surveyIdList, 
+			final Collection<String> promptIdList,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Boolean collapse, final Boolean suppressMetadata,
+			final Boolean returnId, final int pageSize) {
+		
+		if(pageSize <= 0) {
+			throw new IllegalArgumentException(
+					"The page size must be positive.");
+		}
+		
+		final Map<String, Object> parameters = 
+			buildSurveyResponsesJsonRowsParameters(
+				authenticationToken, 
+				username, 
+				hashedPassword, 
+				client, 
+				campaignId, 
+				usernames, 
+				columnList, 
+				surveyIdList, 
+				promptIdList, 
+				startDate, 
+				endDate, 
+				privacyState, 
+				collapse, 
+				suppressMetadata, 
+				returnId);
+		parameters.put(InputKeys.NUM_TO_RETURN, pageSize);
+		
+		return new PagingIterator<JSONObject>() {
+			/**
+			 * Reads the page by skipping all of the responses in the 
+			 * previous pages.
+			 */
+			@Override
+			protected List<JSONObject> readPage(final int pageNumber)
+					throws ApiException {
+				
+				parameters.put(
+					InputKeys.NUM_TO_SKIP, 
+					((long) pageNumber) * pageSize);
+				
+				try {
+					return makeJsonRequest(
+							new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
+							parameters, 
+							false,
+							InputKeys.DATA,
+							JSON_OBJECT_READER);
+				}
+				catch(MalformedURLException e) {
+					throw new ApiException("The URL was incorrectly created.", e);
+				}
+				catch(IllegalArgumentException e) {
+					throw new ApiException("The response was not proper JSON.", e);
+				}
+			}
+			
+			/**
+			 * A page that isn't full must be the last one.
+			 */
+			@Override
+			protected boolean isLastPage(final List<JSONObject> page) {
+				return page.size() < pageSize;
+			}
+		};
+	}
+	
 	/**
 	 * Retrieves the privacy states for all of the survey responses and the
 	 * count of each of those privacy states.
@@ -2053,14 +2212,11 @@ public class OhmageApi {
 		JSONObject response;
 		try {
 			response = new JSONObject(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().API_SURVEY_RESPONSE_FUNCTION_READ), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().API_SURVEY_RESPONSE_FUNCTION_READ), 
+								parameters, 
+								false,
+								InputKeys.DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -2291,14 +2447,11 @@ public class OhmageApi {
 		JSONObject response;
 		try {
 			response = new JSONObject(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiUserRead()), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().getApiUserRead()), 
+								parameters, 
+								false,
+								InputKeys.DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -2363,14 +2516,11 @@ public class OhmageApi {
 		JSONObject response;
 		try {
 			response = new JSONObject(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiUserInfoRead()), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
+					makeJsonRequest(
+								new URL(url.toString() + RequestBuilder.getInstance().getApiUserInfoRead()), 
+								parameters, 
+								false,
+								InputKeys.DATA)
 				);
 		}
 		catch(MalformedURLException e) {
@@ -2548,14 +2698,11 @@ public class OhmageApi {
 		}
 		
 		try {
-			processJsonResponse(
-					makeRequest(
-							new URL(url.toString() + RequestBuilder.getInstance().getApiUserDelete()),
-							parameters,
-							false
-					),
-					null
-			);
+			makeJsonRequest(
+						new URL(url.toString() + RequestBuilder.getInstance().getApiUserDelete()),
+						parameters,
+						false,
+						null);
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
@@ -2569,16 +2716,310 @@ public class OhmageApi {
 	 * Private Methods
 	 *************************************************************************/
 	
+	/**
+	 * Builds the parameters for a survey response read request in the 
+	 * "json-rows" format. See
+	 * {@link #getSurveyResponsesJsonRows(String, String, String, String, String, Collection, Collection, Collection, Collection, DateTime, DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, Boolean, Boolean, Boolean)}
+	 * for the parameters.
+	 * 
+	 * @return The parameters.
+	 */
+	private Map<String, Object> buildSurveyResponsesJsonRowsParameters(
+			final String authenticationToken, final String username, 
+			final String hashedPassword, final String client,
+			final String campaignId, final Collection<String> usernames,
+			final Collection<SurveyResponse.ColumnKey> columnList,
+			final Collection<String> surveyIdList, 
+			final Collection<String> promptIdList,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Boolean collapse, final Boolean suppressMetadata,
+			final Boolean returnId) {
+		
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(InputKeys.USER, username);
+		parameters.put(InputKeys.PASSWORD, hashedPassword);
+		parameters.put(InputKeys.AUTH_TOKEN, authenticationToken);
+		parameters.put(InputKeys.CLIENT, client);
+		parameters.put(InputKeys.CAMPAIGN_URN, campaignId);
+		parameters.put(InputKeys.OUTPUT_FORMAT, SurveyResponse.OutputFormat.JSON_ROWS);
+		
+		if(usernames != null) {
+			if(usernames.size() == 0) {
+				parameters.put(InputKeys.USER_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
+			}
+			else {
+				parameters.put(InputKeys.USER_LIST, StringUtils.collectionToStringList(usernames, InputKeys.LIST_ITEM_SEPARATOR));
+			}
+		}
+		
+		if(columnList != null) {
+			if(columnList.size() == 0) {
+				parameters.put(InputKeys.COLUMN_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
+			}
+			else {
+				parameters.put(InputKeys.COLUMN_LIST, StringUtils.collectionToStringList(columnList, InputKeys.LIST_ITEM_SEPARATOR));
+			}
+		}
+		
+		if(surveyIdList != null) {
+			if(surveyIdList.size() == 0) {
+				parameters.put(InputKeys.SURVEY_ID_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
+			}
+			else {
+				parameters.put(InputKeys.SURVEY_ID_LIST, StringUtils.collectionToStringList(surveyIdList, InputKeys.LIST_ITEM_SEPARATOR));
+			}
+		}
+		if(promptIdList != null) {
+			if(promptIdList.size() == 0) {
+				parameters.put(InputKeys.PROMPT_ID_LIST, SurveyResponseRequest.URN_SPECIAL_ALL);
+			}
+			else {
+				parameters.put(InputKeys.PROMPT_ID_LIST, StringUtils.collectionToStringList(promptIdList, InputKeys.LIST_ITEM_SEPARATOR));
+			}
+		}
+
+		parameters.put(InputKeys.START_DATE, DateTimeUtils.getIso8601DateString(startDate, true));
+		parameters.put(InputKeys.END_DATE, DateTimeUtils.getIso8601DateString(endDate, true));
+		parameters.put(InputKeys.PRIVACY_STATE, privacyState);
+		parameters.put(InputKeys.COLLAPSE, collapse);
+		parameters.put(InputKeys.SUPPRESS_METADATA, suppressMetadata);
+		parameters.put(InputKeys.RETURN_ID, returnId);
+		
+		return parameters;
+	}
+	
+	/**
+	 * Builds the client that is shared by all of the requests made by this
+	 * library. Its connections are pooled and kept alive between requests, so
+	 * bulk calls to the same server only connect once.
+	 * 
+	 * @return The HTTP client.
+	 */
+	private static HttpClient buildHttpClient() {
+		ThreadSafeClientConnManager connectionManager =
+				new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+		
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+		client.setKeepAliveStrategy(
+			new DefaultConnectionKeepAliveStrategy() {
+				/**
+				 * Uses the server's keep-alive timeout if it gave one;
+				 * otherwise, keeps the connection for a default amount of
+				 * time.
+				 */
+				@Override
+				public long getKeepAliveDuration(
+						final HttpResponse response,
+						final HttpContext context) {
+					
+					long duration = 
+						super.getKeepAliveDuration(response, context);
+					
+					return (duration > 0) ? duration : KEEP_ALIVE_MILLIS;
+				}
+			});
+		
+		return client;
+	}
+	
+	/**
+	 * Makes a call to the URL and returns the response as a byte array. See
+	 * {@link #makeRequest(URL, Map, boolean, ResponseProcessor)}.<br />
+	 * <br />
+	 * If the response has a Content-Type that suggests that it is JSON, it 
+	 * will check if the ohmage result is success or failure and throw an 
+	 * exception if it is failure.
+	 * 
+	 * @param url The URL to which the request should be made.
+	 * 
+	 * @param postParameters The POST parameters or null for a GET request.
+	 * 
+	 * @param isForm Whether the POST should be a "multipart/form-data" 
+	 * 				 request.
+	 * 
+	 * @return Returns the result from the server as a byte array. 
+	 * 
+	 * @throws ApiException Thrown if the URL is not an HTTP URL or if there
+	 * 						   was an error communicating with the server.
+	 * 
+	 * @throws RequestErrorException Thrown if the response is valid ohmage 
+	 * 								 JSON and indicates failure.
+	 */
+	private byte[] makeRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm) 
+		throws ApiException, RequestErrorException {
+		
+		return makeRequest(
+			url, 
+			postParameters, 
+			isForm, 
+			new ResponseProcessor<byte[]>() {
+				/**
+				 * Reads the results as a byte array. This is used instead of
+				 * a string to allow the function to be more open to 
+				 * different types of return values such as text, images, 
+				 * etc.
+				 */
+				@Override
+				public byte[] process(
+						final InputStream content,
+						final String contentType)
+						throws ApiException, IOException {
+					
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int amountRead;
+					while((amountRead = content.read(chunk)) != -1) {
+						baos.write(chunk, 0, amountRead);
+					}
+					byte[] result = baos.toByteArray();
+					
+					// Finally, check the Content-Type to see if it suggests
+					// that this is an ohmage JSON result. If so, check if it
+					// failed and, if so, throw an exception.
+					if(CONTENT_TYPE_HTML.equals(contentType)) {
+						checkFailure(result);
+					}
+					
+					return result;
+				}
+			});
+	}
+	
+	/**
+	 * Makes a call to the URL, whose response must be ohmage JSON, and
+	 * returns the string value associated with the given key. The response is
+	 * parsed as it is read. See 
+	 * {@link #processJsonResponse(InputStream, String, JsonValueReader)}.
+	 * 
+	 * @param url The URL to which the request should be made.
+	 * 
+	 * @param postParameters The POST parameters or null for a GET request.
+	 * 
+	 * @param isForm Whether the POST should be a "multipart/form-data" 
+	 * 				 request.
+	 * 
+	 * @param jsonKey The key whose value should be returned. If null, the 
+	 * 				  response will only be checked for success or error and,
+	 * 				  if error, will throw an exception.
+	 * 
+	 * @return The value associated with the 'jsonKey'. If the value is a JSON
+	 * 		   object or array, it is returned as JSON text.
+	 * 
+	 * @throws IllegalArgumentException Thrown if the response cannot be 
+	 * 									decoded as JSON or if there is no
+	 * 									such key with the responded JSON.
+	 * 
+	 * @throws ApiException Thrown if there was an error communicating with
+	 * 						the server.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returned a valid JSON
+	 * 								 response, but the request failed.
+	 */
+	private String makeJsonRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm,
+			final String jsonKey) 
+			throws ApiException, RequestErrorException {
+		
+		return makeJsonRequest(
+			url, 
+			postParameters, 
+			isForm, 
+			jsonKey, 
+			new JsonValueReader<String>() {
+				/**
+				 * Returns scalar values as their text and copies objects and
+				 * arrays into JSON text.
+				 */
+				@Override
+				public String read(final JsonParser parser) 
+						throws ApiException, IOException {
+					
+					JsonToken token = parser.getCurrentToken();
+					if(
+						(token != JsonToken.START_OBJECT) && 
+						(token != JsonToken.START_ARRAY)) {
+						
+						return parser.getText();
+					}
+					
+					StringWriter writer = new StringWriter();
+					JsonGenerator generator = 
+						JSON_FACTORY.createJsonGenerator(writer);
+					generator.copyCurrentStructure(parser);
+					generator.close();
+					return writer.toString();
+				}
+			});
+	}
+	
+	/**
+	 * Makes a call to the URL, whose response must be ohmage JSON, and reads
+	 * the value associated with the given key with the given reader as it is
+	 * being parsed.
+	 * 
+	 * @param url The URL to which the request should be made.
+	 * 
+	 * @param postParameters The POST parameters or null for a GET request.
+	 * 
+	 * @param isForm Whether the POST should be a "multipart/form-data" 
+	 * 				 request.
+	 * 
+	 * @param jsonKey The key whose value should be read.
+	 * 
+	 * @param valueReader The reader for the key's value.
+	 * 
+	 * @return The value returned by the reader.
+	 * 
+	 * @throws IllegalArgumentException Thrown if the response cannot be 
+	 * 									decoded as JSON or if there is no
+	 * 									such key with the responded JSON.
+	 * 
+	 * @throws ApiException Thrown if there was an error communicating with
+	 * 						the server or the reader failed.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returned a valid JSON
+	 * 								 response, but the request failed.
+	 */
+	private <T> T makeJsonRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm,
+			final String jsonKey, final JsonValueReader<T> valueReader) 
+			throws ApiException, RequestErrorException {
+		
+		return makeRequest(
+			url, 
+			postParameters, 
+			isForm, 
+			new ResponseProcessor<T>() {
+				/**
+				 * Parses the response as it is read.
+				 */
+				@Override
+				public T process(
+						final InputStream content,
+						final String contentType)
+						throws ApiException, IOException {
+					
+					return processJsonResponse(content, jsonKey, valueReader);
+				}
+			});
+	}
+	
 	/**
 	 * Makes a call to the URL. The call will be a GET if 'postParameters' is
 	 * null and a POST if 'postParameters' is non-null, even if it is empty. If
 	 * it is a POST, 'isForm' will set it to be a "multipart/form-data" 
 	 * request, but if it is set to false it will default to a 
-	 * "application/x-www-form-urlencoded" request.<br />
+	 * "application/x-www-form-urlencoded" request. Large 
+	 * "application/x-www-form-urlencoded" requests are compressed with GZIP.
 	 * <br />
-	 * If the response has a Content-Type that suggests that it is JSON, it 
-	 * will check if the ohmage result is success or failure and throw an 
-	 * exception if it is failure.
+	 * <br />
+	 * The request is made with the shared client, so its connection is 
+	 * reused by later requests to the same server once the response has been
+	 * processed.
 	 * 
 	 * @param url The URL which dictates the location to which the request
 	 * 			  should be made. This includes the scheme, which must be an
@@ -2596,18 +3037,18 @@ public class OhmageApi {
 	 * 				 indicates whether this POST should be a 
 	 * 				 "multipart/form-data" request or not.
 	 * 
-	 * @return Returns the result from the server as a byte array. 
+	 * @param processor The processor for the successful response's content.
+	 * 
+	 * @return Returns the result from the processor.
 	 * 
 	 * @throws ApiException Thrown if the URL is not an HTTP URL or if there
 	 * 						   was an error communicating with the server.
 	 */
-	private byte[] makeRequest(final URL url, 
-			final Map<String, Object> postParameters, final boolean isForm) 
+	private <T> T makeRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm,
+			final ResponseProcessor<T> processor) 
 		throws ApiException, RequestErrorException {
 		
-		// Create a default client to use to connect with.
-		HttpClient httpClient = new DefaultHttpClient();
-		
 		// Build the request based on the parameters.
 		HttpRequestBase request;
 		if(postParameters == null) {
@@ -2671,6 +3112,12 @@ public class OhmageApi {
 					catch(UnsupportedEncodingException e) {
 						throw new ApiException("The parameter list could not be properly encoded.", e);
 					}
+					
+					// The server decompresses GZIP-encoded parameter lists,
+					// so large ones are compressed.
+					if(entity.getContentLength() >= GZIP_REQUEST_THRESHOLD) {
+						entity = gzipEntity(entity);
+					}
 				}
 				postRequest.setEntity(entity);
 			}
@@ -2678,72 +3125,126 @@ public class OhmageApi {
 				throw new ApiException("There was an error building the request.", e);
 			}
 		}
+		request.setHeader(ACCEPT_ENCODING_HEADER, ENCODING_GZIP);
 		
 		// Make the request and get the response.
 		HttpResponse httpResponse;
 		try {
-			httpResponse = httpClient.execute(request);
+			httpResponse = HTTP_CLIENT.execute(request);
 		}
 		catch(ClientProtocolException e) {
+			request.abort();
 			throw new ApiException("An HTTP protocol error occurred.", e);
 		}
 		catch(IOException e) {
+			request.abort();
 			throw new ApiException("The connection was aborted.", e);
 		}
 		
-		// Check the status code.
-		int statusCode = httpResponse.getStatusLine().getStatusCode();
-		// If it is a redirect, get the new location and remake the request.
-		if((statusCode == 301) || (statusCode == 302)) {
-			String newLocation = httpResponse.getFirstHeader("Location").getValue();
+		// Unless the response is read completely, the connection must be 
+		// aborted so that it isn't returned to the pool in an unknown state.
+		boolean released = false;
+		try {
+			// Check the status code.
+			int statusCode = httpResponse.getStatusLine().getStatusCode();
+			// If it is a redirect, get the new location and remake the 
+			// request.
+			if((statusCode == 301) || (statusCode == 302)) {
+				String newLocation = httpResponse.getFirstHeader("Location").getValue();
+				
+				try {
+					EntityUtils.consume(httpResponse.getEntity());
+					released = true;
+				}
+				catch(IOException e) {
+					// The connection will be aborted instead.
+				}
+				
+				try {
+					return makeRequest(new URL(newLocation), postParameters, isForm, processor);
+				}
+				catch(MalformedURLException e) {
+					throw new ApiException("The server returned a bad redirect address: " + newLocation, e);
+				}
+			}
+			// Otherwise, if it is is a non-success code, fail the request.
+			else if(statusCode != 200) {
+				throw new ApiException("There was an error connecting to the server: " + statusCode);
+			}
 			
+			// Retrieve the server's response as an InputStream.
+			InputStream content;
 			try {
-				return makeRequest(new URL(newLocation), postParameters, isForm);
+				content = httpResponse.getEntity().getContent();
+				
+				Header contentEncoding = 
+					httpResponse.getFirstHeader(CONTENT_ENCODING_HEADER);
+				if(
+					(contentEncoding != null) && 
+					ENCODING_GZIP.equals(contentEncoding.getValue())) {
+					
+					content = new GZIPInputStream(content);
+				}
 			}
-			catch(MalformedURLException e) {
-				throw new ApiException("The server returned a bad redirect address: " + newLocation, e);
+			catch(IOException e) {
+				throw new ApiException("There was an error connecting to the response from the server.", e);
 			}
+			
+			Header contentType = 
+				httpResponse.getFirstHeader(CONTENT_TYPE_HEADER);
+			T result;
+			try {
+				result = 
+					processor.process(
+						content, 
+						(contentType == null) ? 
+							null : 
+							contentType.getValue());
+				
+				// Closing the content reads whatever remains and returns the
+				// connection to the pool.
+				content.close();
+				released = true;
+			}
+			catch(IOException e) {
+				throw new ApiException("There was an error reading from the server.", e);
+			}
+			
+			return result;
 		}
-		// Otherwise, if it is is a non-success code, fail the request.
-		else if(statusCode != 200) {
-			throw new ApiException("There was an error connecting to the server: " + statusCode);
-		}
-		
-		// Retrieve the server's response as an InputStream.
-		InputStream content;
-		try {
-			content = httpResponse.getEntity().getContent();
-		}
-		catch(IOException e) {
-			throw new ApiException("There was an error connecting to the response from the server.", e);
+		finally {
+			if(! released) {
+				request.abort();
+			}
 		}
+	}
+	
+	/**
+	 * Compresses an entity with GZIP.
+	 * 
+	 * @param entity The entity to compress.
+	 * 
+	 * @return A new entity with the compressed contents, the same content 
+	 * 		   type, and a "gzip" content encoding.
+	 * 
+	 * @throws ApiException The entity could not be compressed.
+	 */
+	private static HttpEntity gzipEntity(final HttpEntity entity) 
+			throws ApiException {
 		
-		// Read the results as a byte array. This is used instead of a string 
-		// to allow the function to me more open to different types of return 
-		// values such as text, images, etc.
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		byte[] chunk = new byte[CHUNK_SIZE];
-		int amountRead;
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
 		try {
-			while((amountRead = content.read(chunk)) != -1) {
-				baos.write(chunk, 0, amountRead);
-			}
+			GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+			entity.writeTo(gzipStream);
+			gzipStream.close();
 		}
 		catch(IOException e) {
-			throw new ApiException("There was an error reading from the server.", e);
-		}
-		byte[] result = baos.toByteArray();
-		
-		// Finally, check the Content-Type to see if it suggests that this is
-		// an ohmage JSON result. If so, check if it failed and, if so, throw
-		// an exception.
-		Header[] headers = httpResponse.getHeaders(CONTENT_TYPE_HEADER);
-		String contentType = headers[0].getValue();
-		if(CONTENT_TYPE_HTML.equals(contentType)) {
-			checkFailure(result);
+			throw new ApiException("The parameter list could not be compressed.", e);
 		}
 		
-		// Return the byte array.
+		ByteArrayEntity result = new ByteArrayEntity(compressed.toByteArray());
+		result.setContentType(entity.getContentType());
+		result.setContentEncoding(ENCODING_GZIP);
 		return result;
 	}
 
@@ -2781,22 +3282,8 @@ public class OhmageApi {
 				
 				// Generate an ohmage-specific error.
 				try {
-					JSONObject error = jsonResponse.getJSONArray(
-							Request.JSON_KEY_ERRORS).getJSONObject(0);
-					
-					String errorCodeString = 
-						error.getString(Annotator.JSON_KEY_CODE);
-					ErrorCode errorCode;
-					try {
-						errorCode = ErrorCode.getValue(errorCodeString);
-					}
-					catch(IllegalArgumentException e) {
-						throw new ApiException("The error code was unknown.", e);
-					}
-					
-					String errorText = error.getString(Annotator.JSON_KEY_TEXT);
-					
-					throw new RequestErrorException(errorCode, errorText);
+					throw createRequestError(
+						jsonResponse.getJSONArray(Request.JSON_KEY_ERRORS));
 				}
 				catch(JSONException e) {
 					throw new IllegalArgumentException(
@@ -2812,90 +3299,111 @@ public class OhmageApi {
 	}
 	
 	/**
-	 * Parses the byte array returned from the 
-	 * {@link #makeRequest(URL, Map, boolean)} call, verifies that it is JSON,
-	 * ensures that it was a successful call, and returns the string value
-	 * associated with the given key.
+	 * Parses an ohmage JSON response as it is read, verifies that it was a
+	 * successful call, and returns the value associated with the given key as
+	 * read by the given reader. All other values are skipped without being
+	 * decoded.
 	 * 
-	 * @param response The byte array response as returned by 
-	 * 				   {@link #makeRequest(URL, Map, boolean)}.
+	 * @param content The response's content.
 	 * 
-	 * @param jsonKey The key string to use to get the response value from the
+	 * @param jsonKey The key to use to get the response value from the
 	 * 				  successful JSON response. If null, the response will be
 	 * 				  checked for success or error and, if error, will throw an
 	 * 				  exception.
 	 * 
+	 * @param valueReader The reader for the key's value.
+	 * 
 	 * @return Returns the value associated with the 'jsonKey'.
 	 * 
 	 * @throws IllegalArgumentException Thrown if the response cannot be 
 	 * 									decoded into JSON or if there is no
 	 * 									such key with the responded JSON.
 	 * 
-	 * @throws ApiException Thrown if the error code is unknown.
+	 * @throws ApiException Thrown if the error code is unknown or the reader
+	 * 						failed.
 	 * 
 	 * @throws RequestErrorException Thrown if the server returned a valid JSON
 	 * 								 response, but the request failed.
 	 * 
-	 * @see #makeRequest(URL, Map, boolean)
+	 * @throws IOException There was an error reading the content.
 	 */
-	private String processJsonResponse(final byte[] response, 
-			final String jsonKey) throws ApiException, RequestErrorException {
+	static <T> T processJsonResponse(final InputStream content, 
+			final String jsonKey, final JsonValueReader<T> valueReader) 
+			throws ApiException, RequestErrorException, IOException {
+		
+		String result = null;
+		JSONArray errors = null;
+		T value = null;
+		boolean valueFound = false;
 		
-		JSONObject jsonResponse;
 		try {
-			jsonResponse = new JSONObject(new String(response));
+			JsonParser parser = JSON_FACTORY.createJsonParser(content);
+			try {
+				if(parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException(
+							"The response is not a JSON object.");
+				}
+				
+				while(parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					parser.nextToken();
+					
+					if(Request.JSON_KEY_RESULT.equals(field)) {
+						result = parser.getText();
+					}
+					else if(Request.JSON_KEY_ERRORS.equals(field)) {
+						Object errorsValue = readJsonValue(parser);
+						if(errorsValue instanceof JSONArray) {
+							errors = (JSONArray) errorsValue;
+						}
+					}
+					else if((jsonKey != null) && jsonKey.equals(field)) {
+						value = valueReader.read(parser);
+						valueFound = true;
+					}
+					else {
+						parser.skipChildren();
+					}
+				}
+			}
+			finally {
+				parser.close();
+			}
 		}
-		catch(JSONException e) {
+		catch(JsonParseException e) {
 			throw new IllegalArgumentException(
 					"The response is not valid JSON.", 
 					e);
 		}
 		
-		boolean success;
-		try {
-			success = Request.RESULT_SUCCESS.equals(
-					jsonResponse.getString(Request.JSON_KEY_RESULT));
-		}
-		catch(JSONException e) {
+		if(result == null) {
 			throw new IllegalArgumentException(
 					"There is no '" + 
-						Request.RESULT_SUCCESS + 
+						Request.JSON_KEY_RESULT + 
 						"' key in the response, but it is valid JSON. " +
-						"This indicates a deeper problem with the server.", 
-					e);
+						"This indicates a deeper problem with the server.");
 		}
 		
+		boolean success = Request.RESULT_SUCCESS.equals(result);
 		if((success) && (jsonKey != null)) {
-			try {
-				return jsonResponse.getString(jsonKey);
-			}
-			catch(JSONException e) {
+			if(! valueFound) {
 				throw new IllegalArgumentException(
-						"The key '" + jsonKey + "' does not exist in the successful JSON response.", e);
+						"The key '" + jsonKey + "' does not exist in the successful JSON response.");
 			}
+			
+			return value;
 		}
 		else if(success) {
 			return null;
 		}
+		else if(errors == null) {
+			throw new IllegalArgumentException(
+					"The failed JSON response doesn't contain a proper error object.");
+		}
 		else {
 			// Generate an ohmage-specific error.
 			try {
-				JSONObject error = jsonResponse.getJSONArray(
-						Request.JSON_KEY_ERRORS).getJSONObject(0);
-				
-				String errorCodeString = 
-					error.getString(Annotator.JSON_KEY_CODE);
-				ErrorCode errorCode;
-				try {
-					errorCode = ErrorCode.getValue(errorCodeString);
-				}
-				catch(IllegalArgumentException e) {
-					throw new ApiException("The error code was unknown.", e);
-				}
-				
-				String errorText = error.getString(Annotator.JSON_KEY_TEXT);
-				
-				throw new RequestErrorException(errorCode, errorText);
+				throw createRequestError(errors);
 			}
 			catch(JSONException e) {
 				throw new IllegalArgumentException(
@@ -2904,4 +3412,268 @@ public class OhmageApi {
 			}
 		}
 	}
+	
+	/**
+	 * Creates the exception for the first error in a failed response.
+	 * 
+	 * @param errors The errors from the failed response.
+	 * 
+	 * @return The exception to be thrown.
+	 * 
+	 * @throws ApiException Thrown if the error code is unknown.
+	 * 
+	 * @throws JSONException Thrown if the error object is missing or 
+	 * 						 malformed.
+	 */
+	private static RequestErrorException createRequestError(
+			final JSONArray errors) 
+			throws ApiException, JSONException {
+		
+		JSONObject error = errors.getJSONObject(0);
+		
+		String errorCodeString = error.getString(Annotator.JSON_KEY_CODE);
+		ErrorCode errorCode;
+		try {
+			errorCode = ErrorCode.getValue(errorCodeString);
+		}
+		catch(IllegalArgumentException e) {
+			throw new ApiException("The error code was unknown.", e);
+		}
+		
+		String errorText = error.getString(Annotator.JSON_KEY_TEXT);
+		
+		return new RequestErrorException(errorCode, errorText);
+	}
+	
+	/**
+	 * Reads the parser's current value, including all of its children, into
+	 * the equivalent org.json value.
+	 * 
+	 * @param parser The parser whose current token is the beginning of the 
+	 * 				 value.
+	 * 
+	 * @return A JSONObject, JSONArray, String, Number, Boolean, or 
+	 * 		   {@link JSONObject#NULL}.
+	 * 
+	 * @throws IOException There was an error reading the value.
+	 */
+	private static Object readJsonValue(final JsonParser parser) 
+			throws IOException {
+		
+		switch(parser.getCurrentToken()) {
+		case START_OBJECT:
+			JSONObject object = new JSONObject();
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				try {
+					object.put(field, readJsonValue(parser));
+				}
+				catch(JSONException e) {
+					throw new JsonParseException(
+						"The value for '" + field + "' is invalid.", 
+						parser.getCurrentLocation(), 
+						e);
+				}
+			}
+			return object;
+			
+		case START_ARRAY:
+			JSONArray array = new JSONArray();
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				array.put(readJsonValue(parser));
+			}
+			return array;
+			
+		case VALUE_STRING:
+			return parser.getText();
+			
+		case VALUE_NUMBER_INT:
+			return parser.getNumberValue();
+			
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+			
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+			
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+			
+		case VALUE_NULL:
+			return JSONObject.NULL;
+			
+		default:
+			throw new JsonParseException(
+				"Unexpected token: " + parser.getCurrentToken(), 
+				parser.getCurrentLocation());
+		}
+	}
+	
+	/**
+	 * Processes the content of a successful response.
+	 *
+	 * @author John Jenkins
+	 */
+	private static interface ResponseProcessor<T> {
+		/**
+		 * Processes the content.
+		 * 
+		 * @param content The response's content, which will already have 
+		 * 				  been decompressed if necessary.
+		 * 
+		 * @param contentType The response's content type. This may be null.
+		 * 
+		 * @return The result of processing the content.
+		 * 
+		 * @throws ApiException The content was invalid.
+		 * 
+		 * @throws IOException There was an error reading the content.
+		 */
+		T process(InputStream content, String contentType)
+				throws ApiException, IOException;
+	}
+	
+	/**
+	 * Reads a value from a JSON response while it is being parsed.
+	 *
+	 * @author John Jenkins
+	 */
+	static interface JsonValueReader<T> {
+		/**
+		 * Reads the value. When this returns, the parser must be on the last
+		 * token of the value.
+		 * 
+		 * @param parser The parser whose current token is the beginning of 
+		 * 				 the value.
+		 * 
+		 * @return The value.
+		 * 
+		 * @throws ApiException The value was invalid.
+		 * 
+		 * @throws IOException There was an error reading the value.
+		 */
+		T read(JsonParser parser) throws ApiException, IOException;
+	}
+	
+	/**
+	 * A reader for a JSON array of JSON objects, each of which is converted 
+	 * as it is read.
+	 *
+	 * @author John Jenkins
+	 */
+	private abstract static class JsonObjectArrayReader<T> 
+			implements JsonValueReader<List<T>> {
+		
+		/**
+		 * Reads each of the objects in the array and converts them.
+		 */
+		@Override
+		public List<T> read(final JsonParser parser) 
+				throws ApiException, IOException {
+			
+			if(parser.getCurrentToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(
+					"The value is not an array.", 
+					parser.getCurrentLocation());
+			}
+			
+			List<T> result = new ArrayList<T>();
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				Object element = readJsonValue(parser);
+				if(! (element instanceof JSONObject)) {
+					throw new JsonParseException(
+						"An element of the array is not an object.", 
+						parser.getCurrentLocation());
+				}
+				
+				result.add(convert((JSONObject) element));
+			}
+			return result;
+		}
+		
+		/**
+		 * Converts one of the objects.
+		 * 
+		 * @param object The object.
+		 * 
+		 * @return The converted object.
+		 * 
+		 * @throws ApiException The object could not be converted.
+		 */
+		protected abstract T convert(JSONObject object) throws ApiException;
+	}
+	
+	/**
+	 * An {@link ApiIterator} that retrieves its elements from the server one
+	 * page at a time.
+	 *
+	 * @author John Jenkins
+	 */
+	abstract static class PagingIterator<T> 
+			implements ApiIterator<T> {
+		
+		private Iterator<T> page = null;
+		private int pageNumber = 0;
+		private boolean lastPage = false;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.ohmage.lib.ApiIterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() throws ApiException {
+			while((page == null) || (! page.hasNext())) {
+				if(lastPage) {
+					return false;
+				}
+				
+				List<T> nextPage = readPage(pageNumber++);
+				if(nextPage == null) {
+					lastPage = true;
+					return false;
+				}
+				
+				lastPage = isLastPage(nextPage);
+				page = nextPage.iterator();
+			}
+			
+			return true;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.ohmage.lib.ApiIterator#next()
+		 */
+		@Override
+		public T next() throws ApiException {
+			if(! hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			return page.next();
+		}
+		
+		/**
+		 * Reads a page from the server.
+		 * 
+		 * @param pageNumber The zero-based number of the page.
+		 * 
+		 * @return The elements in the page or null if there are no more 
+		 * 		   pages.
+		 * 
+		 * @throws ApiException There was an error reading the page.
+		 */
+		protected abstract List<T> readPage(int pageNumber) 
+				throws ApiException;
+		
+		/**
+		 * Returns whether or not a page is the last one.
+		 * 
+		 * @param page The page that was just read.
+		 * 
+		 * @return Whether or not there are no pages after this one.
+		 */
+		protected abstract boolean isLastPage(List<T> page);
+	}
 }
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+/**
+ * A value that is read whenever the metrics are read, such as the length of
+ * a queue or the number of connections in use.
+ *
+ * @author John Jenkins
+ */
+public interface Gauge {
+	/**
+	 * Returns the current value.
+	 *
+	 * @return The current value.
+	 */
+	double getValue();
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A lock-free histogram of latencies. The latencies are recorded in
+ * microseconds into buckets whose width grows with their magnitude: each
+ * power of two is split into 16 equal buckets, so any recorded value is
+ * within about 6% of the bucket that holds it. Latencies up to about 19
+ * hours are recorded exactly; longer ones are recorded in the last
+ * bucket.</p>
+ *
+ * <p>Recording is a few atomic increments and never blocks, so it may be
+ * done on every request. Reading the percentiles walks the buckets, which is
+ * cheap enough for a metrics endpoint but should not be done per
+ * request.</p>
+ *
+ * @author John Jenkins
+ */
+public class LatencyHistogram {
+	/**
+	 * The number of bits of each value that select its bucket within its
+	 * power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The largest power of two that has its own buckets.
+	 */
+	private static final int MAX_MAGNITUDE = 35;
+
+	/**
+	 * The total number of buckets.
+	 */
+	private static final int NUM_BUCKETS =
+		SUB_BUCKETS + ((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong totalMicros = new AtomicLong(0);
+	private final AtomicLong maxMicros = new AtomicLong(0);
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos The latency in nanoseconds. Negative values are recorded
+	 * 				as zero.
+	 */
+	public void record(final long nanos) {
+		long micros = (nanos < 0) ? 0 : nanos / 1000;
+
+		buckets.incrementAndGet(getBucket(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+
+		long max;
+		while((max = maxMicros.get()) < micros) {
+			if(maxMicros.compareAndSet(max, micros)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of latencies that have been recorded.
+	 *
+	 * @return The number of recorded latencies.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of all of the recorded latencies.
+	 *
+	 * @return The sum of the latencies in seconds.
+	 */
+	public double getTotalSeconds() {
+		return totalMicros.get() / 1000000.0;
+	}
+
+	/**
+	 * Returns the longest recorded latency.
+	 *
+	 * @return The longest latency in seconds.
+	 */
+	public double getMaxSeconds() {
+		return maxMicros.get() / 1000000.0;
+	}
+
+	/**
+	 * Returns the latency at some percentile. The value returned is the upper
+	 * bound of the bucket that holds the percentile, so it is never less
+	 * than the true value.
+	 *
+	 * @param percentile The percentile between 0 and 1, inclusive.
+	 *
+	 * @return The latency in seconds or 0 if nothing has been recorded.
+	 */
+	public double getPercentileSeconds(final double percentile) {
+		long total = count.get();
+		if(total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile * total);
+		if(rank < 1) {
+			rank = 1;
+		}
+
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if(seen >= rank) {
+				// The last bucket also holds everything that is too long
+				// for the buckets, so it has no upper bound but the maximum.
+				long upperBound =
+					(i == NUM_BUCKETS - 1) ? Long.MAX_VALUE : getUpperBound(i);
+
+				return Math.min(upperBound, maxMicros.get()) / 1000000.0;
+			}
+		}
+
+		// The count may have been incremented after the buckets were read.
+		return getMaxSeconds();
+	}
+
+	/**
+	 * Returns the bucket that holds a value.
+	 *
+	 * @param micros The value.
+	 *
+	 * @return The index of the bucket.
+	 */
+	private static int getBucket(final long micros) {
+		if(micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		if(magnitude > MAX_MAGNITUDE) {
+			return NUM_BUCKETS - 1;
+		}
+
+		int subBucket =
+			(int) ((micros >>> (magnitude - SUB_BUCKET_BITS)) &
+				(SUB_BUCKETS - 1));
+
+		return
+			SUB_BUCKETS +
+			((magnitude - SUB_BUCKET_BITS) * SUB_BUCKETS) +
+			subBucket;
+	}
+
+	/**
+	 * Returns the largest value that a bucket holds.
+	 *
+	 * @param bucket The index of the bucket.
+	 *
+	 * @return The largest value in the bucket.
+	 */
+	private static long getUpperBound(final int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int magnitude =
+			((bucket - SUB_BUCKETS) / SUB_BUCKETS) + SUB_BUCKET_BITS;
+		int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		int shift = magnitude - SUB_BUCKET_BITS;
+
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,804 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>The server's metrics. This collects the latencies of each route, split
+ * into the phases of a request, the number and latency of the JDBC calls
+ * made by each query class, and the hits and misses of the caches. Other
+ * components may register gauges and counters, which are read whenever the
+ * metrics are read.</p>
+ *
+ * <p>Everything here is lock-free and safe to call from any thread. The
+ * metrics may be read as JSON or in the Prometheus text format.</p>
+ *
+ * @author John Jenkins
+ */
+public final class Metrics {
+	/**
+	 * The prefix of the names of all of the metrics.
+	 */
+	private static final String PREFIX = "ohmage_";
+
+	/**
+	 * The percentiles that are reported for each histogram.
+	 */
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * The phases of a request.
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum Phase {
+		/**
+		 * Building the request, which parses and validates its parameters.
+		 */
+		VALIDATION,
+		/**
+		 * Authenticating the user, which is part of servicing the request.
+		 */
+		AUTHENTICATION,
+		/**
+		 * Servicing the request, not including the authentication.
+		 */
+		SERVICE,
+		/**
+		 * Writing the response.
+		 */
+		RESPOND,
+		/**
+		 * All of the above.
+		 */
+		TOTAL;
+
+		/**
+		 * Returns the phase's name in lower case.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * The latencies of one route.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class RouteMetrics {
+		private final Map<Phase, LatencyHistogram> phases =
+			new EnumMap<Phase, LatencyHistogram>(Phase.class);
+		private final AtomicLong failures = new AtomicLong(0);
+
+		/**
+		 * Creates a histogram for each phase. The map is never modified
+		 * afterwards, so it may be read without locking.
+		 */
+		private RouteMetrics() {
+			for(Phase phase : Phase.values()) {
+				phases.put(phase, new LatencyHistogram());
+			}
+		}
+	}
+
+	/**
+	 * The JDBC calls of one query class.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class QueryMetrics {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong(0);
+	}
+
+	/**
+	 * The lookups of one cache.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class CacheMetrics {
+		private final AtomicLong hits = new AtomicLong(0);
+		private final AtomicLong misses = new AtomicLong(0);
+	}
+
+	/**
+	 * A gauge or counter that was registered by some component.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class RegisteredGauge {
+		private final String name;
+		private final String help;
+		private final String labelName;
+		private final String labelValue;
+		private final boolean counter;
+		private final Gauge gauge;
+
+		/**
+		 * Creates a new registration.
+		 *
+		 * @param name The metric's name without the prefix.
+		 *
+		 * @param help A description of the metric.
+		 *
+		 * @param labelName The name of the metric's label or null.
+		 *
+		 * @param labelValue The value of the metric's label or null.
+		 *
+		 * @param counter Whether the value only ever increases.
+		 *
+		 * @param gauge The source of the value.
+		 */
+		private RegisteredGauge(
+				final String name,
+				final String help,
+				final String labelName,
+				final String labelValue,
+				final boolean counter,
+				final Gauge gauge) {
+
+			this.name = name;
+			this.help = help;
+			this.labelName = labelName;
+			this.labelValue = labelValue;
+			this.counter = counter;
+			this.gauge = gauge;
+		}
+	}
+
+	private static final ConcurrentMap<String, RouteMetrics> ROUTES =
+		new ConcurrentHashMap<String, RouteMetrics>();
+	private static final ConcurrentMap<String, QueryMetrics> QUERIES =
+		new ConcurrentHashMap<String, QueryMetrics>();
+	private static final ConcurrentMap<String, CacheMetrics> CACHES =
+		new ConcurrentHashMap<String, CacheMetrics>();
+
+	/**
+	 * The registered gauges, sorted by their names and labels so that the
+	 * gauges with the same name are next to each other.
+	 */
+	private static final ConcurrentSkipListMap<String, RegisteredGauge> GAUGES =
+		new ConcurrentSkipListMap<String, RegisteredGauge>();
+
+	/**
+	 * The time spent authenticating during the request that the current
+	 * thread is processing.
+	 */
+	private static final ThreadLocal<long[]> AUTHENTICATION_NANOS =
+		new ThreadLocal<long[]>() {
+			/**
+			 * Starts with no time.
+			 */
+			@Override
+			protected long[] initialValue() {
+				return new long[1];
+			}
+		};
+
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private Metrics() {}
+
+	/**
+	 * Marks the current thread as beginning a request. This must be called
+	 * before the request is built.
+	 */
+	public static void startRequest() {
+		AUTHENTICATION_NANOS.get()[0] = 0;
+	}
+
+	/**
+	 * Adds time spent authenticating to the current thread's request.
+	 *
+	 * @param nanos The time spent in nanoseconds.
+	 */
+	public static void recordAuthentication(final long nanos) {
+		AUTHENTICATION_NANOS.get()[0] += nanos;
+	}
+
+	/**
+	 * Records the latencies of the current thread's request. The time spent
+	 * authenticating is taken out of the time spent servicing the request.
+	 *
+	 * @param route The request's route. This should be a known URI, because
+	 * 				each route is kept forever.
+	 *
+	 * @param validationNanos The time spent building the request.
+	 *
+	 * @param serviceNanos The time spent servicing the request, including
+	 * 					   authenticating the user.
+	 *
+	 * @param respondNanos The time spent writing the response.
+	 *
+	 * @param failed Whether or not the request failed.
+	 */
+	public static void endRequest(
+			final String route,
+			final long validationNanos,
+			final long serviceNanos,
+			final long respondNanos,
+			final boolean failed) {
+
+		long authenticationNanos = AUTHENTICATION_NANOS.get()[0];
+		AUTHENTICATION_NANOS.get()[0] = 0;
+
+		RouteMetrics metrics = ROUTES.get(route);
+		if(metrics == null) {
+			ROUTES.putIfAbsent(route, new RouteMetrics());
+			metrics = ROUTES.get(route);
+		}
+
+		metrics.phases.get(Phase.VALIDATION).record(validationNanos);
+		metrics.phases.get(Phase.AUTHENTICATION).record(authenticationNanos);
+		metrics.phases.get(Phase.SERVICE).record(
+			serviceNanos - authenticationNanos);
+		metrics.phases.get(Phase.RESPOND).record(respondNanos);
+		metrics.phases.get(Phase.TOTAL).record(
+			validationNanos + serviceNanos + respondNanos);
+
+		if(failed) {
+			metrics.failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a JDBC call.
+	 *
+	 * @param query The name of the query class that made the call.
+	 *
+	 * @param nanos The time the call took.
+	 *
+	 * @param failed Whether or not the call threw an exception.
+	 */
+	public static void recordQuery(
+			final String query,
+			final long nanos,
+			final boolean failed) {
+
+		QueryMetrics metrics = QUERIES.get(query);
+		if(metrics == null) {
+			QUERIES.putIfAbsent(query, new QueryMetrics());
+			metrics = QUERIES.get(query);
+		}
+
+		metrics.latency.record(nanos);
+		if(failed) {
+			metrics.errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a cache lookup.
+	 *
+	 * @param cache The name of the cache.
+	 *
+	 * @param hit Whether the value was found in the cache.
+	 */
+	public static void recordCacheLookup(
+			final String cache,
+			final boolean hit) {
+
+		CacheMetrics metrics = CACHES.get(cache);
+		if(metrics == null) {
+			CACHES.putIfAbsent(cache, new CacheMetrics());
+			metrics = CACHES.get(cache);
+		}
+
+		if(hit) {
+			metrics.hits.incrementAndGet();
+		}
+		else {
+			metrics.misses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Registers a gauge, a value that may go up or down. Registering a gauge
+	 * with the same name and label as an existing one replaces it.
+	 *
+	 * @param name The gauge's name, in lower case with underscores.
+	 *
+	 * @param help A description of the gauge.
+	 *
+	 * @param labelName The name of the gauge's label or null if it has none.
+	 *
+	 * @param labelValue The value of the gauge's label or null if it has
+	 * 					 none.
+	 *
+	 * @param gauge The source of the gauge's value.
+	 */
+	public static void registerGauge(
+			final String name,
+			final String help,
+			final String labelName,
+			final String labelValue,
+			final Gauge gauge) {
+
+		register(name, help, labelName, labelValue, false, gauge);
+	}
+
+	/**
+	 * Registers a counter, a value that only ever increases. Registering a
+	 * counter with the same name and label as an existing one replaces it.
+	 *
+	 * @param name The counter's name, in lower case with underscores and
+	 * 			   ending in "_total".
+	 *
+	 * @param help A description of the counter.
+	 *
+	 * @param labelName The name of the counter's label or null if it has
+	 * 					none.
+	 *
+	 * @param labelValue The value of the counter's label or null if it has
+	 * 					 none.
+	 *
+	 * @param counter The source of the counter's value.
+	 */
+	public static void registerCounter(
+			final String name,
+			final String help,
+			final String labelName,
+			final String labelValue,
+			final Gauge counter) {
+
+		register(name, help, labelName, labelValue, true, counter);
+	}
+
+	/**
+	 * Returns all of the metrics as JSON.
+	 *
+	 * @return The metrics as a JSONObject.
+	 *
+	 * @throws JSONException There was an error building the JSONObject.
+	 */
+	public static JSONObject toJson() throws JSONException {
+		JSONObject result = new JSONObject();
+
+		JSONObject routes = new JSONObject();
+		for(Map.Entry<String, RouteMetrics> route : sorted(ROUTES).entrySet()) {
+			JSONObject phases = new JSONObject();
+			for(Phase phase : Phase.values()) {
+				phases.put(
+					phase.toString(),
+					toJson(route.getValue().phases.get(phase)));
+			}
+
+			JSONObject routeJson = new JSONObject();
+			routeJson.put(
+				"count",
+				route.getValue().phases.get(Phase.TOTAL).getCount());
+			routeJson.put("failures", route.getValue().failures.get());
+			routeJson.put("phases", phases);
+			routes.put(route.getKey(), routeJson);
+		}
+		result.put("routes", routes);
+
+		JSONObject queries = new JSONObject();
+		for(Map.Entry<String, QueryMetrics> query : sorted(QUERIES).entrySet()) {
+			JSONObject queryJson = toJson(query.getValue().latency);
+			queryJson.put("errors", query.getValue().errors.get());
+			queries.put(query.getKey(), queryJson);
+		}
+		result.put("jdbc", queries);
+
+		JSONObject caches = new JSONObject();
+		for(Map.Entry<String, CacheMetrics> cache : sorted(CACHES).entrySet()) {
+			long hits = cache.getValue().hits.get();
+			long misses = cache.getValue().misses.get();
+
+			JSONObject cacheJson = new JSONObject();
+			cacheJson.put("hits", hits);
+			cacheJson.put("misses", misses);
+			cacheJson.put("hit_ratio", getHitRatio(hits, misses));
+			caches.put(cache.getKey(), cacheJson);
+		}
+		result.put("caches", caches);
+
+		JSONObject gauges = new JSONObject();
+		for(RegisteredGauge gauge : GAUGES.values()) {
+			double value = gauge.gauge.getValue();
+
+			if(gauge.labelName == null) {
+				gauges.put(gauge.name, value);
+			}
+			else {
+				JSONObject labels = gauges.optJSONObject(gauge.name);
+				if(labels == null) {
+					labels = new JSONObject();
+					gauges.put(gauge.name, labels);
+				}
+				labels.put(gauge.labelValue, value);
+			}
+		}
+		result.put("gauges", gauges);
+
+		return result;
+	}
+
+	/**
+	 * Returns all of the metrics in the Prometheus text format.
+	 *
+	 * @return The metrics as text.
+	 */
+	public static String toPrometheus() {
+		StringBuilder builder = new StringBuilder();
+
+		String name = PREFIX + "request_duration_seconds";
+		writeHeader(
+			builder,
+			name,
+			"The time spent on each phase of the requests to each route.",
+			"summary");
+		for(Map.Entry<String, RouteMetrics> route : sorted(ROUTES).entrySet()) {
+			for(Phase phase : Phase.values()) {
+				writeSummary(
+					builder,
+					name,
+					"route=\"" + escape(route.getKey()) + "\"," +
+						"phase=\"" + phase + "\"",
+					route.getValue().phases.get(phase));
+			}
+		}
+
+		name = PREFIX + "request_failures_total";
+		writeHeader(
+			builder,
+			name,
+			"The number of requests to each route that failed.",
+			"counter");
+		for(Map.Entry<String, RouteMetrics> route : sorted(ROUTES).entrySet()) {
+			writeValue(
+				builder,
+				name,
+				"route=\"" + escape(route.getKey()) + "\"",
+				route.getValue().failures.get());
+		}
+
+		name = PREFIX + "jdbc_duration_seconds";
+		writeHeader(
+			builder,
+			name,
+			"The time spent on the JDBC calls made by each query class.",
+			"summary");
+		for(Map.Entry<String, QueryMetrics> query : sorted(QUERIES).entrySet()) {
+			writeSummary(
+				builder,
+				name,
+				"query=\"" + escape(query.getKey()) + "\"",
+				query.getValue().latency);
+		}
+
+		name = PREFIX + "jdbc_errors_total";
+		writeHeader(
+			builder,
+			name,
+			"The number of JDBC calls made by each query class that failed.",
+			"counter");
+		for(Map.Entry<String, QueryMetrics> query : sorted(QUERIES).entrySet()) {
+			writeValue(
+				builder,
+				name,
+				"query=\"" + escape(query.getKey()) + "\"",
+				query.getValue().errors.get());
+		}
+
+		SortedMap<String, CacheMetrics> caches = sorted(CACHES);
+		name = PREFIX + "cache_hits_total";
+		writeHeader(
+			builder,
+			name,
+			"The number of lookups that were found in each cache.",
+			"counter");
+		for(Map.Entry<String, CacheMetrics> cache : caches.entrySet()) {
+			writeValue(
+				builder,
+				name,
+				"cache=\"" + escape(cache.getKey()) + "\"",
+				cache.getValue().hits.get());
+		}
+
+		name = PREFIX + "cache_misses_total";
+		writeHeader(
+			builder,
+			name,
+			"The number of lookups that were not found in each cache.",
+			"counter");
+		for(Map.Entry<String, CacheMetrics> cache : caches.entrySet()) {
+			writeValue(
+				builder,
+				name,
+				"cache=\"" + escape(cache.getKey()) + "\"",
+				cache.getValue().misses.get());
+		}
+
+		name = PREFIX + "cache_hit_ratio";
+		writeHeader(
+			builder,
+			name,
+			"The fraction of the lookups that were found in each cache.",
+			"gauge");
+		for(Map.Entry<String, CacheMetrics> cache : caches.entrySet()) {
+			writeValue(
+				builder,
+				name,
+				"cache=\"" + escape(cache.getKey()) + "\"",
+				getHitRatio(
+					cache.getValue().hits.get(),
+					cache.getValue().misses.get()));
+		}
+
+		String lastName = null;
+		for(RegisteredGauge gauge : GAUGES.values()) {
+			name = PREFIX + gauge.name;
+			if(! name.equals(lastName)) {
+				writeHeader(
+					builder,
+					name,
+					gauge.help,
+					(gauge.counter) ? "counter" : "gauge");
+				lastName = name;
+			}
+
+			writeValue(
+				builder,
+				name,
+				(gauge.labelName == null) ?
+					null :
+					gauge.labelName + "=\"" + escape(gauge.labelValue) + "\"",
+				gauge.gauge.getValue());
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Registers a gauge or counter.
+	 *
+	 * @param name The metric's name.
+	 *
+	 * @param help A description of the metric.
+	 *
+	 * @param labelName The name of the metric's label or null.
+	 *
+	 * @param labelValue The value of the metric's label or null.
+	 *
+	 * @param counter Whether the value only ever increases.
+	 *
+	 * @param gauge The source of the value.
+	 *
+	 * @throws IllegalArgumentException The name, help, or gauge is null, or
+	 * 									only one of the label's name and value
+	 * 									is null.
+	 */
+	private static void register(
+			final String name,
+			final String help,
+			final String labelName,
+			final String labelValue,
+			final boolean counter,
+			final Gauge gauge) {
+
+		if(name == null) {
+			throw new IllegalArgumentException("The name is null.");
+		}
+		else if(help == null) {
+			throw new IllegalArgumentException("The help is null.");
+		}
+		else if(gauge == null) {
+			throw new IllegalArgumentException("The gauge is null.");
+		}
+		else if((labelName == null) != (labelValue == null)) {
+			throw new IllegalArgumentException(
+				"The label's name and value must both be given or both be " +
+					"null.");
+		}
+
+		GAUGES.put(
+			name + ((labelName == null) ? "" : "{" + labelValue),
+			new RegisteredGauge(
+				name,
+				help,
+				labelName,
+				labelValue,
+				counter,
+				gauge));
+	}
+
+	/**
+	 * Returns a histogram as JSON.
+	 *
+	 * @param histogram The histogram.
+	 *
+	 * @return The histogram's count, mean, percentiles, and maximum, in
+	 * 		   seconds.
+	 *
+	 * @throws JSONException There was an error building the JSONObject.
+	 */
+	private static JSONObject toJson(
+			final LatencyHistogram histogram)
+			throws JSONException {
+
+		long count = histogram.getCount();
+
+		JSONObject result = new JSONObject();
+		result.put("count", count);
+		result.put(
+			"mean",
+			(count == 0) ? 0 : histogram.getTotalSeconds() / count);
+		for(double percentile : PERCENTILES) {
+			result.put(
+				"p" + formatPercentile(percentile),
+				histogram.getPercentileSeconds(percentile));
+		}
+		result.put("max", histogram.getMaxSeconds());
+
+		return result;
+	}
+
+	/**
+	 * Writes the HELP and TYPE lines of a metric.
+	 *
+	 * @param builder The builder to write to.
+	 *
+	 * @param name The metric's name.
+	 *
+	 * @param help A description of the metric.
+	 *
+	 * @param type The metric's Prometheus type.
+	 */
+	private static void writeHeader(
+			final StringBuilder builder,
+			final String name,
+			final String help,
+			final String type) {
+
+		builder
+			.append("# HELP ").append(name).append(' ')
+			.append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+			.append('\n');
+		builder
+			.append("# TYPE ").append(name).append(' ').append(type)
+			.append('\n');
+	}
+
+	/**
+	 * Writes a histogram as a Prometheus summary.
+	 *
+	 * @param builder The builder to write to.
+	 *
+	 * @param name The metric's name.
+	 *
+	 * @param labels The histogram's labels, already formatted.
+	 *
+	 * @param histogram The histogram.
+	 */
+	private static void writeSummary(
+			final StringBuilder builder,
+			final String name,
+			final String labels,
+			final LatencyHistogram histogram) {
+
+		for(double percentile : PERCENTILES) {
+			writeValue(
+				builder,
+				name,
+				labels + ",quantile=\"" + percentile + "\"",
+				histogram.getPercentileSeconds(percentile));
+		}
+		writeValue(builder, name + "_sum", labels, histogram.getTotalSeconds());
+		writeValue(builder, name + "_count", labels, histogram.getCount());
+	}
+
+	/**
+	 * Writes a single sample.
+	 *
+	 * @param builder The builder to write to.
+	 *
+	 * @param name The metric's name.
+	 *
+	 * @param labels The sample's labels, already formatted, or null.
+	 *
+	 * @param value The sample's value.
+	 */
+	private static void writeValue(
+			final StringBuilder builder,
+			final String name,
+			final String labels,
+			final double value) {
+
+		builder.append(name);
+		if(labels != null) {
+			builder.append('{').append(labels).append('}');
+		}
+		builder.append(' ');
+		if(value == Math.rint(value) && (! Double.isInfinite(value))) {
+			builder.append((long) value);
+		}
+		else {
+			builder.append(value);
+		}
+		builder.append('\n');
+	}
+
+	/**
+	 * Escapes a label's value for the Prometheus text format.
+	 *
+	 * @param value The label's value.
+	 *
+	 * @return The escaped value.
+	 */
+	private static String escape(final String value) {
+		return
+			value
+				.replace("\\", "\\\\")
+				.replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+
+	/**
+	 * Formats a percentile as at least two of the digits after the decimal
+	 * point, e.g. 0.5 becomes "50" and 0.999 becomes "999".
+	 *
+	 * @param percentile The percentile.
+	 *
+	 * @return The formatted percentile.
+	 */
+	private static String formatPercentile(final double percentile) {
+		String result = Double.toString(percentile);
+		result = result.substring(result.indexOf('.') + 1);
+		return (result.length() < 2) ? result + "0" : result;
+	}
+
+	/**
+	 * Returns the fraction of the lookups that were hits.
+	 *
+	 * @param hits The number of hits.
+	 *
+	 * @param misses The number of misses.
+	 *
+	 * @return The hit ratio or 0 if there were no lookups.
+	 */
+	private static double getHitRatio(final long hits, final long misses) {
+		long total = hits + misses;
+		return (total == 0) ? 0 : hits / (double) total;
+	}
+
+	/**
+	 * Returns a sorted copy of a map so that the metrics are always written
+	 * in the same order.
+	 *
+	 * @param map The map.
+	 *
+	 * @return The sorted copy.
+	 */
+	private static <T> SortedMap<String, T> sorted(final Map<String, T> map) {
+		return new TreeMap<String, T>(map);
+	}
+}
@@ -0,0 +1,519 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>Per-request tracing. A trace is a tree of timed spans, such as
+ * authenticating the user, each JDBC call, writing media files, and writing
+ * the response, that shows where the time of a single request went.</p>
+ *
+ * <p>Traces are head-sampled: whether a request is traced is decided when it
+ * starts, and the spans of a request that isn't traced cost one thread-local
+ * lookup each. The spans of a traced request are recorded into arrays that
+ * belong to the thread, so nothing is allocated unless the finished trace is
+ * kept. For each route only the slowest traces of the last
+ * {@value #WINDOW_MILLIS} milliseconds are kept, in a fixed-size buffer, so
+ * that the tail latency of a route may be diagnosed without a profiler.</p>
+ *
+ * <p>A span is opened with {@link #openSpan(String)}, which returns a handle
+ * that must be given to {@link #closeSpan(int)} in a finally block. Spans
+ * opened on a thread that isn't processing a traced request are ignored, so
+ * it is always safe to open them.</p>
+ *
+ * @author John Jenkins
+ */
+public final class Tracing {
+	/**
+	 * The handle returned for a span that isn't being recorded.
+	 */
+	public static final int NO_SPAN = -1;
+
+	/**
+	 * The default fraction of the requests that are traced.
+	 */
+	public static final double DEFAULT_SAMPLE_RATE = 0.05;
+
+	/**
+	 * The default number of traces that are kept for each route.
+	 */
+	public static final int DEFAULT_TRACES_PER_ROUTE = 10;
+
+	/**
+	 * The maximum number of spans recorded for one request. Any spans beyond
+	 * this are counted but not recorded.
+	 */
+	private static final int MAX_SPANS = 512;
+
+	/**
+	 * How long a kept trace is protected from being replaced by a faster
+	 * one. After this, any new trace of the route may replace it, so the
+	 * kept traces reflect the recent behavior of the route.
+	 */
+	private static final long WINDOW_MILLIS = 1000 * 60 * 60;
+
+	/**
+	 * The spans of the traced request that the current thread is
+	 * processing. The arrays are reused for every request that the thread
+	 * traces.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ActiveTrace {
+		private boolean sampled = false;
+		private String requestId;
+		private long startMillis;
+		private long startNanos;
+		private int count;
+		private int dropped;
+		private int current;
+
+		private String[] names;
+		private long[] starts;
+		private long[] durations;
+		private int[] parents;
+
+		/**
+		 * Starts a new trace, allocating the arrays the first time.
+		 *
+		 * @param requestId The request's unique identifier.
+		 */
+		private void start(final String requestId) {
+			if(names == null) {
+				names = new String[MAX_SPANS];
+				starts = new long[MAX_SPANS];
+				durations = new long[MAX_SPANS];
+				parents = new int[MAX_SPANS];
+			}
+
+			this.sampled = true;
+			this.requestId = requestId;
+			this.startMillis = System.currentTimeMillis();
+			this.startNanos = System.nanoTime();
+			this.count = 0;
+			this.dropped = 0;
+			this.current = NO_SPAN;
+		}
+	}
+
+	/**
+	 * A finished trace that has been kept.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Trace {
+		private final String requestId;
+		private final long startMillis;
+		private final long keptMillis;
+		private final long durationNanos;
+		private final boolean failed;
+		private final int dropped;
+
+		private final String[] names;
+		private final long[] offsets;
+		private final long[] durations;
+		private final int[] parents;
+
+		/**
+		 * Copies a finished trace.
+		 *
+		 * @param trace The trace.
+		 *
+		 * @param endNanos When the trace ended.
+		 *
+		 * @param failed Whether or not the request failed.
+		 */
+		private Trace(
+				final ActiveTrace trace,
+				final long endNanos,
+				final boolean failed) {
+
+			requestId = trace.requestId;
+			startMillis = trace.startMillis;
+			keptMillis = System.currentTimeMillis();
+			durationNanos = endNanos - trace.startNanos;
+			this.failed = failed;
+			dropped = trace.dropped;
+
+			int count = trace.count;
+			names = Arrays.copyOf(trace.names, count);
+			offsets = new long[count];
+			durations = new long[count];
+			parents = Arrays.copyOf(trace.parents, count);
+			for(int i = 0; i < count; i++) {
+				offsets[i] = trace.starts[i] - trace.startNanos;
+
+				// A span that was never closed lasted until the end.
+				durations[i] =
+					(trace.durations[i] < 0) ?
+						endNanos - trace.starts[i] :
+						trace.durations[i];
+			}
+		}
+
+		/**
+		 * Returns the trace as JSON. The spans are in the order in which
+		 * they were opened, and each has its offset from the start of the
+		 * request, so they may be drawn as a waterfall.
+		 *
+		 * @return The trace as a JSONObject.
+		 *
+		 * @throws JSONException There was an error building the JSONObject.
+		 */
+		private JSONObject toJson() throws JSONException {
+			JSONArray spans = new JSONArray();
+			for(int i = 0; i < names.length; i++) {
+				JSONObject span = new JSONObject();
+				span.put("id", i);
+				span.put("parent", parents[i]);
+				span.put("name", names[i]);
+				span.put("offset", offsets[i] / 1000000000.0);
+				span.put("duration", durations[i] / 1000000000.0);
+				spans.put(span);
+			}
+
+			JSONObject result = new JSONObject();
+			result.put("request_id", requestId);
+			result.put("start", startMillis);
+			result.put("duration", durationNanos / 1000000000.0);
+			result.put("failed", failed);
+			result.put("dropped_spans", dropped);
+			result.put("spans", spans);
+			return result;
+		}
+	}
+
+	/**
+	 * The slowest recent traces of one route.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class SlowestTraces {
+		private final Trace[] traces;
+
+		/**
+		 * A trace that is no slower than this may only be kept once one of
+		 * the kept traces has expired.
+		 */
+		private volatile long thresholdNanos = 0;
+
+		/**
+		 * The earliest time at which one of the kept traces expires.
+		 */
+		private volatile long expiresMillis = Long.MAX_VALUE;
+
+		/**
+		 * Creates an empty buffer.
+		 *
+		 * @param capacity The number of traces to keep.
+		 */
+		private SlowestTraces(final int capacity) {
+			traces = new Trace[capacity];
+		}
+
+		/**
+		 * Returns whether or not a trace might be kept. This doesn't lock,
+		 * so that the traces that won't be kept are never copied.
+		 *
+		 * @param durationNanos The trace's duration.
+		 *
+		 * @return Whether or not the trace might be kept.
+		 */
+		private boolean accepts(final long durationNanos) {
+			return
+				(durationNanos > thresholdNanos) ||
+				(System.currentTimeMillis() >= expiresMillis);
+		}
+
+		/**
+		 * Keeps a trace in place of an expired trace or, if none have
+		 * expired, in place of the fastest trace if it is faster than the
+		 * new one.
+		 *
+		 * @param trace The trace.
+		 *
+		 * @return Whether or not the trace was kept.
+		 */
+		private synchronized boolean offer(final Trace trace) {
+			long expired = trace.keptMillis - WINDOW_MILLIS;
+
+			int replace = -1;
+			for(int i = 0; i < traces.length; i++) {
+				if((traces[i] == null) || (traces[i].keptMillis <= expired)) {
+					replace = i;
+					break;
+				}
+				if(
+					(traces[i].durationNanos < trace.durationNanos) &&
+					(
+						(replace == -1) ||
+						(traces[i].durationNanos <
+							traces[replace].durationNanos))) {
+
+					replace = i;
+				}
+			}
+			if(replace == -1) {
+				return false;
+			}
+			traces[replace] = trace;
+
+			long threshold = Long.MAX_VALUE;
+			long expires = Long.MAX_VALUE;
+			for(Trace kept : traces) {
+				if(kept == null) {
+					threshold = 0;
+					continue;
+				}
+
+				threshold = Math.min(threshold, kept.durationNanos);
+				expires = Math.min(expires, kept.keptMillis + WINDOW_MILLIS);
+			}
+			thresholdNanos = threshold;
+			expiresMillis = expires;
+			return true;
+		}
+
+		/**
+		 * Returns the kept traces, slowest first.
+		 *
+		 * @return The kept traces.
+		 */
+		private synchronized Trace[] getTraces() {
+			int count = 0;
+			Trace[] result = new Trace[traces.length];
+			for(Trace trace : traces) {
+				if(trace != null) {
+					result[count++] = trace;
+				}
+			}
+
+			result = Arrays.copyOf(result, count);
+			Arrays.sort(
+				result,
+				new Comparator<Trace>() {
+					/**
+					 * Orders the slowest trace first.
+					 */
+					@Override
+					public int compare(final Trace first, final Trace second) {
+						return
+							(first.durationNanos > second.durationNanos) ? -1 :
+								((first.durationNanos == second.durationNanos) ?
+									0 :
+									1);
+					}
+				});
+			return result;
+		}
+	}
+
+	private static final ThreadLocal<ActiveTrace> ACTIVE =
+		new ThreadLocal<ActiveTrace>() {
+			/**
+			 * Starts with no trace.
+			 */
+			@Override
+			protected ActiveTrace initialValue() {
+				return new ActiveTrace();
+			}
+		};
+
+	private static final ConcurrentMap<String, SlowestTraces> ROUTES =
+		new ConcurrentHashMap<String, SlowestTraces>();
+
+	private static final AtomicLong SAMPLED = new AtomicLong(0);
+	private static final AtomicLong KEPT = new AtomicLong(0);
+
+	private static volatile double sampleRate = DEFAULT_SAMPLE_RATE;
+	private static volatile int tracesPerRoute = DEFAULT_TRACES_PER_ROUTE;
+
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private Tracing() {}
+
+	/**
+	 * Sets how many requests are traced and how many traces are kept. This
+	 * should be called before any requests are processed, because the
+	 * routes that already have traces keep their current number.
+	 *
+	 * @param sampleRate The fraction of the requests that are traced, from 0
+	 * 					 to 1.
+	 *
+	 * @param tracesPerRoute The number of traces that are kept for each
+	 * 						 route.
+	 */
+	public static void configure(
+			final double sampleRate,
+			final int tracesPerRoute) {
+
+		if((sampleRate < 0) || (sampleRate > 1)) {
+			throw new IllegalArgumentException(
+				"The sample rate must be between 0 and 1: " + sampleRate);
+		}
+		if(tracesPerRoute <= 0) {
+			throw new IllegalArgumentException(
+				"The number of traces per route must be positive: " +
+					tracesPerRoute);
+		}
+
+		Tracing.sampleRate = sampleRate;
+		Tracing.tracesPerRoute = tracesPerRoute;
+	}
+
+	/**
+	 * Marks the current thread as beginning a request and decides whether or
+	 * not it is traced. This must be called before the request is built.
+	 *
+	 * @param requestId The request's unique identifier, which may be null.
+	 */
+	public static void startTrace(final String requestId) {
+		ActiveTrace trace = ACTIVE.get();
+
+		double rate = sampleRate;
+		if((rate > 0) && (ThreadLocalRandom.current().nextDouble() < rate)) {
+			trace.start(requestId);
+			SAMPLED.incrementAndGet();
+		}
+		else {
+			trace.sampled = false;
+		}
+	}
+
+	/**
+	 * Opens a span as a child of the current thread's innermost open span.
+	 *
+	 * @param name The span's name. This should be a constant, because it is
+	 * 			   kept for as long as the trace is.
+	 *
+	 * @return The span's handle, which must be given to
+	 * 		   {@link #closeSpan(int)}.
+	 */
+	public static int openSpan(final String name) {
+		ActiveTrace trace = ACTIVE.get();
+		if(! trace.sampled) {
+			return NO_SPAN;
+		}
+		if(trace.count == MAX_SPANS) {
+			trace.dropped++;
+			return NO_SPAN;
+		}
+
+		int span = trace.count++;
+		trace.names[span] = name;
+		trace.parents[span] = trace.current;
+		trace.durations[span] = -1;
+		trace.starts[span] = System.nanoTime();
+		trace.current = span;
+		return span;
+	}
+
+	/**
+	 * Closes a span, which makes its parent the innermost open span.
+	 *
+	 * @param span The handle returned when the span was opened.
+	 */
+	public static void closeSpan(final int span) {
+		if(span == NO_SPAN) {
+			return;
+		}
+
+		ActiveTrace trace = ACTIVE.get();
+		if((! trace.sampled) || (span >= trace.count)) {
+			return;
+		}
+
+		trace.durations[span] = System.nanoTime() - trace.starts[span];
+		trace.current = trace.parents[span];
+	}
+
+	/**
+	 * Ends the current thread's trace and keeps it if it is one of the
+	 * slowest recent traces of its route.
+	 *
+	 * @param route The request's route. This should be a known URI, because
+	 * 				each route is kept forever.
+	 *
+	 * @param failed Whether or not the request failed.
+	 */
+	public static void endTrace(final String route, final boolean failed) {
+		ActiveTrace trace = ACTIVE.get();
+		if(! trace.sampled) {
+			return;
+		}
+		trace.sampled = false;
+
+		long end = System.nanoTime();
+
+		SlowestTraces slowest = ROUTES.get(route);
+		if(slowest == null) {
+			ROUTES.putIfAbsent(route, new SlowestTraces(tracesPerRoute));
+			slowest = ROUTES.get(route);
+		}
+
+		if(
+			slowest.accepts(end - trace.startNanos) &&
+			slowest.offer(new Trace(trace, end, failed))) {
+
+			KEPT.incrementAndGet();
+		}
+		trace.requestId = null;
+	}
+
+	/**
+	 * Returns the kept traces as JSON, grouped by route with the slowest
+	 * trace of each route first.
+	 *
+	 * @return The traces as a JSONObject.
+	 *
+	 * @throws JSONException There was an error building the JSONObject.
+	 */
+	public static JSONObject toJson() throws JSONException {
+		JSONObject routes = new JSONObject();
+		for(
+			Map.Entry<String, SlowestTraces> route :
+				new TreeMap<String, SlowestTraces>(ROUTES).entrySet()) {
+
+			JSONArray traces = new JSONArray();
+			for(Trace trace : route.getValue().getTraces()) {
+				traces.put(trace.toJson());
+			}
+			routes.put(route.getKey(), traces);
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("sample_rate", sampleRate);
+		result.put("traces_per_route", tracesPerRoute);
+		result.put("window", WINDOW_MILLIS / 1000);
+		result.put("sampled", SAMPLED.get());
+		result.put("kept", KEPT.get());
+		result.put("routes", routes);
+		return result;
+	}
+}
@@ -329,6 +329,33 @@ public interface ICampaignQueries {
 			final Collection<Object> subSelectParameters)
 			throws DataAccessException;
 	
+	/**
+	 * Returns the version of the XML that a user would read for each of the
+	 * campaigns that satisfied the subSelect sql statement and the 
+	 * parameters. The version is an opaque string that changes whenever the
+	 * campaign's XML changes or a mask is assigned to the user for the 
+	 * campaign.
+	 * 
+	 * @param subSelectStmt
+	 * 			The sql statements restricted the campaigns to be returned.
+	 * 
+	 * @param subSelectParameters
+	 * 			The sql parameters to be used with the subSelectStmt above.
+	 * 
+	 * @param username
+	 * 			The username of the user whose masks apply to the XML.
+	 * 
+	 * @return A map of the campaigns' unique identifiers to the versions of 
+	 * 		   their XML, in order of creation.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public Map<String, String> getCampaignXmlVersions(
+			final String subSelectStmt,
+			final Collection<Object> subSelectParameters,
+			final String username)
+			throws DataAccessException;
+	
 	/**
 	 * Returns the sql statement for all campaigns visible to the user that 
 	 * match the given criteria. The username is required for ACL purposes but
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.Map;
+
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+
+public interface ICampaignResponseStatsQueries {
+	/**
+	 * Adds to or subtracts from the counters for a user's survey responses
+	 * in a campaign. Unlike recomputing them, this only locks the counters
+	 * that change, so concurrent uploads do not block each other. This
+	 * should be called in the same transaction that changed the responses.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the user that owns the responses.
+	 *
+	 * @param changes The change in the number of responses in each privacy
+	 * 				  state. A privacy state whose change is not negative has
+	 * 				  its latest upload moved forward to the upload time,
+	 * 				  even if its change is zero.
+	 *
+	 * @param uploadMillis The time of the upload.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void updateCampaignResponseStats(
+			String campaignId,
+			String username,
+			Map<SurveyResponse.PrivacyState, Integer> changes,
+			long uploadMillis)
+			throws DataAccessException;
+
+	/**
+	 * Recomputes every campaign's counters from its survey responses, one
+	 * campaign at a time.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void reconcileCampaignResponseStats() throws DataAccessException;
+}
@@ -50,6 +50,44 @@ public interface ICampaignSurveyResponseQueries {
 	long getNumberOfPromptResponsesForCampaign(String campaignId)
 			throws DataAccessException;
 
+	/**
+	 * Retrieves a value that changes whenever the set of survey responses
+	 * for a campaign changes. This is built from the campaign's response
+	 * counters: the number of survey responses, a checksum of each user's
+	 * number in each privacy state, and the most recent upload, which
+	 * together change on every upload, deletion, and privacy state update.
+	 * The one exception is an update that exactly swaps the privacy states
+	 * of two of a user's responses.
+	 * 
+	 * @param campaignId The unique identifier for the campaign.
+	 * 
+	 * @return An opaque version string for the campaign's survey responses.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	String getSurveyResponseDataVersion(String campaignId)
+			throws DataAccessException;
+
+	/**
+	 * Retrieves a value that changes whenever the survey responses a user may
+	 * read in a campaign could change without the responses themselves
+	 * changing. This is built from whether the user is an admin, the
+	 * campaign's privacy and running states, the user's roles in the
+	 * campaign, and the user's roles in each of the campaign's classes.
+	 * 
+	 * @param campaignId The unique identifier for the campaign.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return An opaque version string for the user's access to the 
+	 * 		   campaign's survey responses.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error, including if
+	 * 							   the user or campaign doesn't exist.
+	 */
+	String getSurveyResponseAccessVersion(String campaignId, String username)
+			throws DataAccessException;
+
 	/**
 	 * Retrieves the campaign ID for the campaign to which a survey belongs 
 	 * given a survey response.
@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.ohmage.domain.ClassRosterDiff;
 import org.ohmage.domain.Clazz;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.impl.QueryResultsList;
@@ -160,6 +161,61 @@ public interface IClassQueries {
 			final String classId)
 			throws DataAccessException;
 
+	/**
+	 * Works out the changes that adding and removing users from a class would
+	 * make, to both the class and its users' campaign roles, without making
+	 * them.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @param userAndRolesToAdd A map of usernames to the role they should 
+	 * 							have in the class or null.
+	 * 
+	 * @param usersToRemove The users to remove from the class or null.
+	 * 
+	 * @return The changes that would be made.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	ClassRosterDiff getClassRosterDiff(
+			String classId,
+			Map<String, Clazz.Role> userAndRolesToAdd,
+			Collection<String> usersToRemove)
+			throws DataAccessException;
+
+	/**
+	 * Works out the changes that updating classes via a class roster would
+	 * make without making them. The classes are taken in the roster's order
+	 * and each one's changes are worked out as if the changes of the classes
+	 * before it had already been made, which is how the roster is applied.
+	 * 
+	 * @param roster A map of class IDs to maps of usernames to the role they
+	 * 				 should have in the class.
+	 * 
+	 * @return The changes that would be made to each of the classes, in the
+	 * 		   roster's order.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<ClassRosterDiff> getClassRosterDiffs(
+			Map<String, Map<String, Clazz.Role>> roster)
+			throws DataAccessException;
+
+	/**
+	 * Makes the changes from {@link #getClassRosterDiff(String, Map, 
+	 * Collection)}. Unlike {@link #updateClass(String, String, String, Map, 
+	 * Collection)}, this doesn't begin a transaction of its own or bring the
+	 * visibility index up to date. It is meant to be part of the caller's
+	 * transaction, and the caller must refresh the class in the visibility
+	 * index once that transaction has been committed.
+	 * 
+	 * @param diff The changes to make.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void applyClassRosterDiff(ClassRosterDiff diff)
+			throws DataAccessException;
+
 	/**
 	 * Updates a class' information and adds and removes users from the class
 	 * all as requested.
@@ -84,12 +84,9 @@ public interface IDocumentQueries {
 	String getDocumentName(String documentId) throws DataAccessException;
 
 	/**
-	 * Return an SQL statement to retrieve a list of document ids that match 
-	 * any of the criteria. If all of the criteria are null, it will return 
-	 * all documents visible to the requesting user.
-	 * 
-	 * @param sqlParameters The parameters to be used with the returned 
-	 * 						sql statement. 
+	 * Returns the database IDs of the documents that match any of the 
+	 * criteria. If all of the criteria are null, it will return all 
+	 * documents visible to the requesting user.
 	 * 
 	 * @param username This is the username of the requesting user and is 
 	 * 				   required.
@@ -118,13 +115,11 @@ public interface IDocumentQueries {
 	 * 							and where that description contains any of 
 	 * 							these tokens.
 	 *  
-	 * @return A DocumentInformation object representing the information about
-	 * 		   this document.
+	 * @return The documents' database IDs.
 	 * 
 	 * @throws DataAccessException There was an error.
 	 */
-	public String getVisibleDocumentsSql(
-			final Collection<Object> sqlParameters,
+	public List<Integer> getVisibleDocumentIds(
 			final String username,
 			final Boolean personalDocuments,
 			final Collection<String> campaignIds,
@@ -135,6 +130,22 @@ public interface IDocumentQueries {
 			final DateTime endDate) 
 			throws DataAccessException;
 	
+	/**
+	 * Returns an SQL statement to retrieve the given documents' database IDs
+	 * by their primary keys, to be used as the sub-select of the queries 
+	 * that gather the documents' information.
+	 * 
+	 * @param sqlParameters The collection to which the statement's parameters
+	 * 						are added.
+	 * 
+	 * @param documentIds The documents' database IDs.
+	 * 
+	 * @return The SQL statement.
+	 */
+	public String getDocumentsSql(
+			final Collection<Object> sqlParameters,
+			final Collection<Integer> documentIds);
+	
 	/**
 	 * Retrieves the information about the documents that match any of the 
 	 * criteria. If all of the criteria are null, it will return all documents
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.DataAccessException;
+
+public interface IExportJobQueries {
+	/**
+	 * Creates a new, queued export job.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param username The username of the user submitting the job.
+	 *
+	 * @param type The read request being exported.
+	 *
+	 * @param client The client submitting the job.
+	 *
+	 * @param parameters The read request's parameters.
+	 *
+	 * @param parametersHash A hash of the type and parameters that is the
+	 * 						 same for identical requests.
+	 *
+	 * @param creationMillis The time at which the job was submitted.
+	 *
+	 * @param expirationMillis The time at which the job should be removed if
+	 * 						   it has not been run.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void createJob(
+			UUID id,
+			String username,
+			ExportJob.Type type,
+			String client,
+			Map<String, String[]> parameters,
+			String parametersHash,
+			long creationMillis,
+			long expirationMillis)
+			throws DataAccessException;
+
+	/**
+	 * Retrieves an export job.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return The job or null if no such job exists.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	ExportJob getJob(UUID id) throws DataAccessException;
+
+	/**
+	 * Retrieves the most recent job from a user with the same parameters
+	 * that has not failed or expired.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param parametersHash The hash of the job's type and parameters.
+	 *
+	 * @param nowMillis The current time.
+	 *
+	 * @return The job or null if there is no such job.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	ExportJob getJobByParameters(
+			String username,
+			String parametersHash,
+			long nowMillis)
+			throws DataAccessException;
+
+	/**
+	 * Retrieves the queued jobs, oldest first.
+	 *
+	 * @param limit The maximum number of jobs to return.
+	 *
+	 * @return The queued jobs.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<ExportJob> getQueuedJobs(int limit) throws DataAccessException;
+
+	/**
+	 * Marks a queued job as running.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return True if the job was queued and is now running; false if it was
+	 * 		   not queued.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	boolean startJob(UUID id) throws DataAccessException;
+
+	/**
+	 * Marks a running job as complete.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param contentType The content type of the read request's response.
+	 *
+	 * @param fileSize The size of the compressed file.
+	 *
+	 * @param completionMillis The time at which the job completed.
+	 *
+	 * @param expirationMillis The time at which the job and its file should
+	 * 						   be removed.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void completeJob(
+			UUID id,
+			String contentType,
+			long fileSize,
+			long completionMillis,
+			long expirationMillis)
+			throws DataAccessException;
+
+	/**
+	 * Marks a job as failed.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param error Why the job failed.
+	 *
+	 * @param completionMillis The time at which the job failed.
+	 *
+	 * @param expirationMillis The time at which the job should be removed.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void failJob(
+			UUID id,
+			String error,
+			long completionMillis,
+			long expirationMillis)
+			throws DataAccessException;
+
+	/**
+	 * Queues all of the jobs that are marked as running. This is used when
+	 * the server starts to resume the jobs that were interrupted when it
+	 * stopped.
+	 *
+	 * @return The number of jobs that were queued.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	int requeueRunningJobs() throws DataAccessException;
+
+	/**
+	 * Retrieves the unique identifiers of the jobs that have expired.
+	 *
+	 * @param nowMillis The current time.
+	 *
+	 * @return The jobs' unique identifiers.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<UUID> getExpiredJobIds(long nowMillis) throws DataAccessException;
+
+	/**
+	 * Deletes a job.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void deleteJob(UUID id) throws DataAccessException;
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.List;
+
+import org.ohmage.domain.QueuedMail;
+import org.ohmage.exception.DataAccessException;
+
+public interface IMailQueueQueries {
+	/**
+	 * Adds a message to the outbound mail queue. It will be sent as soon as
+	 * possible.
+	 *
+	 * @param sender The sender's email address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subject The message's subject.
+	 *
+	 * @param content The message's body.
+	 *
+	 * @param contentType The MIME type of the body.
+	 *
+	 * @param passwordRecoveryUsername The username of the user whose new
+	 * 								   password should be added to the body
+	 * 								   when the message is sent or null if
+	 * 								   this is not a password recovery
+	 * 								   message.
+	 *
+	 * @param nowMillis The current time.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void queueMail(
+			String sender,
+			String recipient,
+			String subject,
+			String content,
+			String contentType,
+			String passwordRecoveryUsername,
+			long nowMillis)
+			throws DataAccessException;
+
+	/**
+	 * Returns the pending messages that are due to be sent, oldest first.
+	 *
+	 * @param nowMillis The current time.
+	 *
+	 * @param limit The maximum number of messages to return.
+	 *
+	 * @return The messages that are due.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<QueuedMail> getDueMail(long nowMillis, int limit)
+			throws DataAccessException;
+
+	/**
+	 * Claims a message that is due so that no other processor sends it. The
+	 * claim lasts until the given number of milliseconds have passed, after
+	 * which the message is due again if its outcome was never recorded.
+	 *
+	 * @param id The message's unique identifier.
+	 *
+	 * @param nowMillis The current time.
+	 *
+	 * @param claimMillis How long the claim lasts.
+	 *
+	 * @return True if the message was claimed; false if someone else claimed
+	 * 		   it or it is no longer due.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	boolean claimMail(long id, long nowMillis, long claimMillis)
+			throws DataAccessException;
+
+	/**
+	 * Removes a message that was sent from the queue.
+	 *
+	 * @param id The message's unique identifier.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void deleteMail(long id) throws DataAccessException;
+
+	/**
+	 * Records a failed attempt to send a message.
+	 *
+	 * @param id The message's unique identifier.
+	 *
+	 * @param nextAttemptMillis The time after which the message should be
+	 * 							tried again or null if it should not be tried
+	 * 							again.
+	 *
+	 * @param error A description of why it failed.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void recordMailFailure(long id, Long nextAttemptMillis, String error)
+			throws DataAccessException;
+
+	/**
+	 * Returns the number of messages that are waiting to be sent, including
+	 * those that are being sent.
+	 *
+	 * @return The number of pending messages.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	long getPendingMailCount() throws DataAccessException;
+}
@@ -168,6 +168,85 @@ public interface IObserverQueries {
 		final Collection<String> idsToCheck)
 		throws DataAccessException;
 	
+	/**
+	 * Compares a list of IDs to the existing IDs for a user for a columnar
+	 * stream, whose IDs are in its chunks, and returns the collection of IDs
+	 * that match. Only the chunks whose adjusted times overlap the points' 
+	 * are searched, because a point that is uploaded again has the same 
+	 * timestamp.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param startTimeAdjusted The earliest adjusted time of the points or 
+	 * 							null if none of them have one.
+	 * 
+	 * @param endTimeAdjusted The latest adjusted time of the points or null
+	 * 						  if none of them have one.
+	 * 
+	 * @param withoutTime Whether or not some of the points have no adjusted
+	 * 					  time.
+	 * 
+	 * @param idsToCheck The collection of IDs to compare against.
+	 * 
+	 * @return The collection of IDs that are already stored for this user for
+	 * 		   this stream and were in the supplied list.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public Collection<String> getDuplicateChunkIds(
+		final String username,
+		final String observerId,
+		final String streamId,
+		final Long startTimeAdjusted,
+		final Long endTimeAdjusted,
+		final boolean withoutTime,
+		final Collection<String> idsToCheck)
+		throws DataAccessException;
+	
+	/**
+	 * Compares a list of IDs to the archived IDs for a user for a stream, 
+	 * whose IDs are in the archived chunk files, and returns the collection
+	 * of IDs that match. Only the chunks whose adjusted times overlap the 
+	 * points' are searched, because a point that is uploaded again has the 
+	 * same timestamp, unless some of the points have no adjusted time, 
+	 * which may be in any chunk.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param startTimeAdjusted The earliest adjusted time of the points or 
+	 * 							null if none of them have one.
+	 * 
+	 * @param endTimeAdjusted The latest adjusted time of the points or null
+	 * 						  if none of them have one.
+	 * 
+	 * @param withoutTime Whether or not some of the points have no adjusted
+	 * 					  time.
+	 * 
+	 * @param idsToCheck The collection of IDs to compare against.
+	 * 
+	 * @return The collection of IDs that are already archived for this user
+	 * 		   for this stream and were in the supplied list.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public Collection<String> getDuplicateArchivedIds(
+		final String username,
+		final String observerId,
+		final String streamId,
+		final Long startTimeAdjusted,
+		final Long endTimeAdjusted,
+		final boolean withoutTime,
+		final Collection<String> idsToCheck)
+		throws DataAccessException;
+	
 	/**
 	 * Stores the data stream data.
 	 * 
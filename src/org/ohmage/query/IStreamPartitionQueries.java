@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import org.ohmage.domain.TablePartition;
+import org.ohmage.exception.DataAccessException;
+
+public interface IStreamPartitionQueries {
+	/**
+	 * Work that is done while holding the partition lock.
+	 *
+	 * @author John Jenkins
+	 */
+	interface LockedTask {
+		/**
+		 * Does the work.
+		 *
+		 * @throws DataAccessException Thrown if there is an error.
+		 */
+		void run() throws DataAccessException;
+	}
+
+	/**
+	 * Runs a task while holding the database's partition lock, so that no
+	 * two servers change the partitions at the same time. If another server
+	 * holds the lock, the task is not run.
+	 *
+	 * @param task The task.
+	 *
+	 * @return True if the task was run, false if another server holds the
+	 * 		   lock.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	boolean runWithPartitionLock(LockedTask task)
+			throws DataAccessException;
+
+	/**
+	 * Returns the partitions of a table.
+	 *
+	 * @param table The table's name.
+	 *
+	 * @return The partitions in the order of their bounds, which is empty if
+	 * 		   the table isn't partitioned.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<TablePartition> getPartitions(String table)
+			throws DataAccessException;
+
+	/**
+	 * Adds partitions to the end of a table. If the table's last partition
+	 * has no upper bound, it is split so that it holds only what is after
+	 * the new partitions.
+	 *
+	 * @param table The table's name.
+	 *
+	 * @param lastPartition The table's last partition.
+	 *
+	 * @param newPartitions The new partitions, in the order of their bounds,
+	 * 						all of which must have an upper bound.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void addPartitions(
+			String table,
+			TablePartition lastPartition,
+			List<TablePartition> newPartitions)
+			throws DataAccessException;
+
+	/**
+	 * Moves the stream data in a partition of the observer_stream_data table
+	 * into chunk files, one per user per stream, and records them in the
+	 * archive. The partition itself is left as it is.
+	 *
+	 * @param partition The partition.
+	 *
+	 * @param lowerBound The partition's inclusive lower bound or null if it
+	 * 					 is the first partition, which also has the data
+	 * 					 without an adjusted time.
+	 *
+	 * @param directory The directory under which the chunks are written.
+	 *
+	 * @return The number of points that were archived.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	long archiveStreamDataPartition(
+			TablePartition partition,
+			Long lowerBound,
+			File directory)
+			throws DataAccessException;
+
+	/**
+	 * Drops a partition and all of its rows.
+	 *
+	 * @param table The table's name.
+	 *
+	 * @param partition The partition.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void dropPartition(String table, TablePartition partition)
+			throws DataAccessException;
+
+	/**
+	 * Returns the archived chunk files that are deleted along with a user,
+	 * which are the user's own and every user's chunks for the streams of
+	 * the observers that the user owns.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @return The chunk files.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	Collection<File> getArchiveFiles(String username)
+			throws DataAccessException;
+}
@@ -22,6 +22,7 @@ import java.util.UUID;
 
 import org.joda.time.DateTime;
 import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.PromptResponseImage;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
@@ -134,14 +135,114 @@ public interface ISurveyResponseQueries {
 			throws DataAccessException;
 
 	/**
-	 * Updates the privacy state on a survey response.
+	 * Retrieves the images referenced by the photo prompt responses that
+	 * match the given criteria. Only the prompt response's identifier and the
+	 * image's identifier and URL are retrieved, so this is much lighter than
+	 * {@link #retrieveSurveyResponses(Campaign, String, Set, Collection, DateTime, DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, Collection, Collection, String, Set, Collection, List, long, long, List)}.
+	 * The same ACLs are applied. The results are ordered by the prompt
+	 * response's identifier, so subsequent pages can be retrieved by passing
+	 * the last identifier that was seen.
+	 * 
+	 * @param campaign The campaign to which the survey responses must belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 
+	 * @param surveyResponseIds A set of survey response unique identifiers 
+	 * 							limiting the results to only those survey
+	 * 							responses whose IDs are in this list.
+	 * 
+	 * @param usernames Limits the results to only those submitted by any one 
+	 * 					of the users in the list.
+	 * 
+	 * @param startDate Limits the results to only those survey responses that
+	 * 					occurred on or after this date.
+	 * 
+	 * @param endDate Limits the results to only those survey responses that
+	 * 				  occurred on or before this date.
+	 * 
+	 * @param privacyState Limits the results to only those survey responses
+	 * 					   with this privacy state.
+	 * 
+	 * @param surveyIds Limits the results to only those survey responses that 
+	 * 					were derived from a survey in this collection.
+	 * 
+	 * @param promptIds Limits the results to only those survey responses that 
+	 * 					were derived from a prompt in this collection.
+	 * 
+	 * @param promptResponseSearchTokens The set of tokens to use against the
+	 * 									 prompt response values.
+	 * 
+	 * @param afterPromptResponseId Only prompt responses whose identifier is
+	 * 								greater than this are returned. Use -1 to
+	 * 								begin with the first one.
+	 * 
+	 * @param limit The maximum number of references to return.
+	 * 
+	 * @return The, possibly empty, list of image references.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<PromptResponseImage> retrievePromptResponseImages(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final Set<String> promptResponseSearchTokens,
+			final long afterPromptResponseId,
+			final long limit)
+			throws DataAccessException;
+
+	/**
+	 * Updates the privacy state on a set of survey responses. The responses
+	 * are updated in chunks in a single transaction.
 	 * 
 	 * @param surveyResponseIds The survey responses' unique identifier.
 	 * @param privacyState The survey's new privacy state
 	 * 
+	 * @return The number of survey responses whose privacy state changed.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	int updateSurveyResponsesPrivacyState(Set<UUID> surveyResponseIds,
+			SurveyResponse.PrivacyState newPrivacyState)
+			throws DataAccessException;
+	
+	/**
+	 * Updates the privacy state on all of the survey responses in a campaign
+	 * that match some filters with a single statement.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param usernames Limits the update to only those survey responses from
+	 * 					these users. Null or empty means all users.
+	 * 
+	 * @param startDate Limits the update to only those survey responses that
+	 * 					occurred on or after this date. Optional.
+	 * 
+	 * @param endDate Limits the update to only those survey responses that
+	 * 				  occurred on or before this date. Optional.
+	 * 
+	 * @param privacyState Limits the update to only those survey responses
+	 * 					   with this privacy state. Optional.
+	 * 
+	 * @param newPrivacyState The survey responses' new privacy state.
+	 * 
+	 * @return The number of survey responses whose privacy state changed.
+	 * 
 	 * @throws DataAccessException Thrown if there is an error.
 	 */
-	void updateSurveyResponsesPrivacyState(Set<UUID> surveyResponseIds,
+	int updateSurveyResponsesPrivacyState(
+			String campaignId,
+			Collection<String> usernames,
+			DateTime startDate,
+			DateTime endDate,
+			SurveyResponse.PrivacyState privacyState,
 			SurveyResponse.PrivacyState newPrivacyState)
 			throws DataAccessException;
 
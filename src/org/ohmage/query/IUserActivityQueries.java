@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.UserActivityStats;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+
+public interface IUserActivityQueries {
+	/**
+	 * Adds newly uploaded survey responses to a user's activity counters.
+	 *
+	 * @param username The username of the user that owns the responses.
+	 *
+	 * @param uploadMillis The time at which the responses were uploaded.
+	 *
+	 * @param surveyResponses The survey responses that were uploaded.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void recordSurveyUploads(
+			String username,
+			long uploadMillis,
+			Collection<SurveyResponse> surveyResponses)
+			throws DataAccessException;
+
+	/**
+	 * Applies a change to some of a user's survey responses in a campaign,
+	 * either a change to their privacy states or their deletion, to the
+	 * user's activity counters. This should be called in the same
+	 * transaction as the change, after it has been made, because the time of
+	 * the latest survey response in each of the privacy states is recomputed
+	 * from the survey responses that remain in it.
+	 *
+	 * @param username The username of the user that owns the responses.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param changes For each privacy state, the changes to the counts for
+	 * 				  each hour in which responses were uploaded, where an
+	 * 				  hour is the number of hours since the epoch. The first
+	 * 				  change is to the number with a location and the second
+	 * 				  is to the total.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void updateSurveyActivity(
+			String username,
+			String campaignId,
+			Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes)
+			throws DataAccessException;
+
+	/**
+	 * Adds newly uploaded Mobility points to a user's activity counters.
+	 *
+	 * @param username The username of the user that owns the points.
+	 *
+	 * @param earliestMillis Points before this time only update the time of
+	 * 						 the user's latest point and are not counted.
+	 *
+	 * @param mobilityPoints The Mobility points that were uploaded.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void recordMobilityUploads(
+			String username,
+			long earliestMillis,
+			Collection<MobilityPoint> mobilityPoints)
+			throws DataAccessException;
+
+	/**
+	 * Retrieves a user's activity counters. The survey counters only include
+	 * the survey responses that the requester may see.
+	 *
+	 * @param requester The username of the requester or null to include all
+	 * 					of the user's survey responses.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param earliestMillis The beginning of the period over which the
+	 * 						 uploads should be counted. This is rounded down
+	 * 						 to the hour.
+	 *
+	 * @return The user's activity. If there is none, the times will be null
+	 * 		   and the counts will be zero.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	UserActivityStats getUserActivityStats(
+			String requester,
+			String username,
+			long earliestMillis)
+			throws DataAccessException;
+
+	/**
+	 * Recomputes the activity counters within the period from the survey
+	 * responses and Mobility points and discards the counts from before the
+	 * period. Only the users with counters or data in the period are
+	 * recomputed, in batches.
+	 *
+	 * @param earliestMillis The beginning of the period over which the
+	 * 						 uploads should be counted. This is rounded down
+	 * 						 to the hour.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void reconcileUserActivityStats(long earliestMillis)
+			throws DataAccessException;
+}
@@ -18,7 +18,10 @@ package org.ohmage.query;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.ohmage.domain.Clazz;
+import org.ohmage.domain.NewUser;
 import org.ohmage.domain.UserInformation;
 import org.ohmage.domain.UserInformation.UserPersonal;
 import org.ohmage.exception.DataAccessException;
@@ -98,6 +101,42 @@ public interface IUserQueries {
 			final UserPersonal personalInfo) 
 			throws DataAccessException;
 	
+	/**
+	 * Creates a batch of users in a single transaction. The users and their
+	 * personal information are inserted with batched statements. A user that
+	 * cannot be created, because their username or personal information is
+	 * already taken or is repeated in the batch, is skipped and reported
+	 * without affecting the other users.
+	 * 
+	 * @param users The users to create.
+	 * 
+	 * @param hashedPasswords A map of each user's username to their hashed
+	 * 						  password. There must be an entry for each user.
+	 * 
+	 * @param storeInitialPassword Whether or not to store each user's 
+	 * 							   plain-text password as their initial
+	 * 							   password.
+	 * 
+	 * @param classIds The classes to which the users should be added, which
+	 * 				   may be null.
+	 * 
+	 * @param classRole The role of the users in the classes. This is required
+	 * 					if any classes are given.
+	 * 
+	 * @return A map of the username of each user that was not created to the
+	 * 		   reason why.
+	 * 
+	 * @throws DataAccessException There was an error, and none of the users
+	 * 							   were created.
+	 */
+	Map<String, String> createUsers(
+			final List<NewUser> users,
+			final Map<String, String> hashedPasswords,
+			final boolean storeInitialPassword,
+			final Collection<String> classIds,
+			final Clazz.Role classRole)
+			throws DataAccessException;
+	
 	/**
 	 * Creates a user registration by first creating the user, second adding 
 	 * them to the public class, and finally by storing their registration
@@ -454,13 +493,10 @@ public interface IUserQueries {
 			throws DataAccessException;
 	
 	/**
-	 * Return an SQL statement that Gathers the information about a person including 
-	 * the classes and campaigns to which they belong. Any of the Object parameters 
-	 * may be null except 'requesterUsername'.
+	 * Returns a page of the users whose information the requester may see
+	 * and that match the criteria, in the order of their usernames. Any of 
+	 * the Object parameters may be null except 'requesterUsername'.
 	 * 
- 	 * @param parameters
-	 *        The parameter objects to be used with the generated sql statement. 
-	 *        
 	 * @param requesterUsername
 	 *        The username of the user that is requesting this information.
 	 * 
@@ -531,14 +567,13 @@ public interface IUserQueries {
 	 *        the ability to read information about users they otherwise would
 	 *        not.
 	 * 
-	 * @return A QueryResultsList object containing the users' information and
-	 *         the total number of results.
+	 * @return A QueryResultsList object containing the database IDs of the
+	 *         users in the page and the total number of results.
 	 * 
 	 * @throws DataAccessException
 	 *         There was an error aggregating the information.
 	 */
-	public String getVisibleUsersSql(
-			final Collection<Object> parameters,
+	public QueryResultsList<Integer> getVisibleUserIds(
 			final String requesterUsername,
 			final Collection<String> usernames,
 			final Collection<String> emailAddresses,
@@ -557,12 +592,28 @@ public interface IUserQueries {
 			final long numToSkip,
 			final long numToReturn)
 			throws DataAccessException;
-
+	
+	/**
+	 * Returns an SQL statement that selects the database IDs of the given 
+	 * users by their primary keys, to be used as the sub-select of the 
+	 * queries that gather the users' information.
+	 * 
+	 * @param parameters
+	 *        The collection to which the statement's parameters are added.
+	 * 
+	 * @param userIds
+	 *        The users' database IDs, e.g. a page from 
+	 *        {@link #getVisibleUserIds(String, Collection, Collection, Boolean, Boolean, Boolean, Boolean, Boolean, Collection, Collection, Collection, Collection, Collection, Collection, boolean, long, long)}.
+	 * 
+	 * @return The SQL statement.
+	 */
+	public String getUsersSql(
+			final Collection<Object> parameters,
+			final Collection<Integer> userIds);
 	
 	/**
 	 * Gathers the information about a person including the classes and
-	 * campaigns to which they belong. Any of the Object parameters may be null
-	 * except 'requesterUsername'.
+	 * campaigns to which they belong.
 	 * 
 	 * @param userSubSelectStmt 
 	 * 		  The sql statement representing visible user list. 
@@ -570,25 +621,14 @@ public interface IUserQueries {
 	 * @param userSubSelectParameters
 	 * 		  The list of parameters to be used with the userSubSelectStmt. 
 	 * 
-	 * @param numToSkip
-	 *        The number of results to skip. The results are sorted
-	 *        alphabetically by username.
-	 * 
-	 * @param numToReturn
-	 *        The number of results to return. The results are sorted
-	 *        alphabetically by username.
-	 * 
-	 * @return A QueryResultsList object containing the users' information and
-	 *         the total number of results.
+	 * @return The users' information, sorted alphabetically by username.
 	 * 
 	 * @throws DataAccessException
 	 *         There was an error aggregating the information.
 	 */
-	public QueryResultsList<UserInformation> getUserInformation(
+	public List<UserInformation> getUserInformation(
 			final String userSubSelectStmt,
-			final Collection<Object> userSubSelectParameters,
-			final long numToSkip,
-			final long numToReturn)
+			final Collection<Object> userSubSelectParameters)
 			throws DataAccessException;
 
 	/**
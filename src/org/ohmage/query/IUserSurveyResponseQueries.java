@@ -15,6 +15,8 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 import org.ohmage.exception.DataAccessException;
@@ -34,6 +36,22 @@ public interface IUserSurveyResponseQueries {
 	String getSurveyResponseOwner(UUID surveyResponseId)
 			throws DataAccessException;
 
+	/**
+	 * Counts a set of survey responses by their campaign and owner. This is
+	 * used to check the permissions on many survey responses at once.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @return A map of campaign IDs to a map of usernames to the number of
+	 * 		   the given survey responses that belong to that user in that
+	 * 		   campaign. Survey responses that don't exist aren't counted.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	Map<String, Map<String, Integer>> getSurveyResponseCountsByCampaignAndOwner(
+			Collection<UUID> surveyResponseIds)
+			throws DataAccessException;
+
 	/**
 	 * Retrieves the time stamp of the time that the last uploaded survey was 
 	 * taken aligned to the time zone on the phone.
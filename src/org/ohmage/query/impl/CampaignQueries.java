@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.ohmage.cache.VisibilityIndex;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Prompt;
@@ -50,6 +52,7 @@ import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -296,10 +299,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 			")" +
 		")";
 	
-	// Updates the campaign's XML.
+	// Updates the campaign's XML and increments its version.
 	private static final String SQL_UPDATE_XML =
 		"UPDATE campaign " +
-		"SET xml = ?, creation_timestamp = now() " +
+		"SET xml = ?, xml_version = xml_version + 1, creation_timestamp = now() " +
 		"WHERE urn = ?";
 	
 	// Updates a campaign's description.
@@ -602,6 +605,9 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					"Error while committing the transaction.",
 					e);
 			}
+			
+			// The campaign's users may now see each other and its documents.
+			VisibilityIndex.instance().refreshCampaign(campaign.getId());
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -1424,6 +1430,82 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignQueries#getCampaignXmlVersions(java.lang.String, java.util.Collection, java.lang.String)
+	 */
+	public Map<String, String> getCampaignXmlVersions(
+			final String subSelectStmt,
+			final Collection<Object> subSelectParameters,
+			final String username)
+			throws DataAccessException {
+		
+		if(subSelectStmt == null) {
+			throw new DataAccessException("The subSelectStmt cannot be null!");
+		}
+		
+		// The XML's version is incremented whenever it is updated, and a
+		// campaign that is deleted and created again gets a new ID. The masks
+		// are never changed once they are created, so the number of masks and
+		// the newest one identify the set of masks that is applied.
+		String sql =
+			"SELECT ca.id, ca.urn, ca.xml_version, " +
+				"COUNT(cm.id) AS mask_count, " +
+				"MAX(cm.id) AS mask_latest " +
+			"FROM campaign ca " +
+				"LEFT JOIN campaign_mask cm ON (" +
+					"ca.id = cm.campaign_id " +
+					"AND cm.assignee_user_id = " +
+						"(SELECT id FROM user WHERE username = ?)" +
+				") " +
+			"WHERE ca.id IN (" + subSelectStmt + ") " +
+			"GROUP BY ca.id " +
+			"ORDER BY ca.creation_timestamp, ca.urn";
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(username);
+		parameters.addAll(subSelectParameters);
+		
+		try {
+			final Map<String, String> result = 
+				new LinkedHashMap<String, String>();
+			
+			getJdbcTemplate().query(
+				sql,
+				parameters.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Combines the parts of each campaign's version.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						result.put(
+							rs.getString("urn"),
+							rs.getLong("id") + 
+								":" + 
+								rs.getLong("xml_version") + 
+								":" + 
+								rs.getLong("mask_count") + 
+								":" + 
+								rs.getLong("mask_latest"));
+					}
+				});
+			
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameters: " + 
+					parameters,
+				e);
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.ICampaignQueries#getCampaigns(java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.campaign.Campaign.PrivacyState, org.ohmage.domain.campaign.Campaign.RunningState, long, long)
@@ -1790,6 +1872,9 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The campaign's users and classes may have changed.
+			VisibilityIndex.instance().refreshCampaign(campaignId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -1825,6 +1910,9 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The campaign no longer grants any visibility.
+			VisibilityIndex.instance().refreshCampaign(campaignId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.ICampaignResponseStatsQueries;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * This class contains all of the functionality for maintaining the
+ * per-campaign survey response counters. There is one row for each user in
+ * each campaign in each privacy state with the number of survey responses
+ * and the time of the latest upload. Uploads add to the counters so that
+ * concurrent uploads only ever lock their own counter rows. Changes to the
+ * responses' privacy states and deletions add to and subtract from the
+ * counters in the same way. Only the periodic reconciliation recomputes the
+ * counters, one campaign at a time so that it never holds more than one
+ * campaign's counters locked.
+ *
+ * @author John Jenkins
+ */
+public final class CampaignResponseStatsQueries extends Query implements ICampaignResponseStatsQueries {
+	// Adds to a user's counter in a campaign for one privacy state and moves
+	// its latest upload forward.
+	static final String SQL_ADD_USER_STATS =
+		"INSERT INTO campaign_response_stats(" +
+			"campaign_id, user_id, privacy_state_id, " +
+			"response_count, last_upload_timestamp) " +
+		"SELECT c.id, u.id, srps.id, ?, ? " +
+		"FROM campaign c, user u, survey_response_privacy_state srps " +
+		"WHERE c.urn = ? " +
+		"AND u.username = ? " +
+		"AND srps.privacy_state = ? " +
+		"ON DUPLICATE KEY UPDATE " +
+			"response_count = response_count + VALUES(response_count), " +
+			"last_upload_timestamp = GREATEST(" +
+				"COALESCE(last_upload_timestamp, VALUES(last_upload_timestamp)), " +
+				"VALUES(last_upload_timestamp))";
+
+	// Subtracts from a user's counter in a campaign for one privacy state.
+	static final String SQL_SUBTRACT_USER_STATS =
+		"UPDATE campaign_response_stats crs " +
+			"JOIN campaign c ON crs.campaign_id = c.id " +
+			"JOIN user u ON crs.user_id = u.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON crs.privacy_state_id = srps.id " +
+		"SET crs.response_count = " +
+			"IF(crs.response_count > ?, crs.response_count - ?, 0) " +
+		"WHERE c.urn = ? " +
+		"AND u.username = ? " +
+		"AND srps.privacy_state = ?";
+
+	// Retrieves the database ID of every campaign.
+	static final String SQL_GET_CAMPAIGN_DB_IDS =
+		"SELECT id FROM campaign";
+
+	// Clears a campaign's counters. This also locks them, and the gaps
+	// between them, so that no upload changes them until the campaign has
+	// been reconciled.
+	static final String SQL_CLEAR_CAMPAIGN_STATS =
+		"UPDATE campaign_response_stats " +
+		"SET response_count = 0, last_upload_timestamp = NULL " +
+		"WHERE campaign_id = ?";
+
+	// Counts a campaign's survey responses. This is a plain, non-locking
+	// read so that it does not block uploads to the campaign.
+	static final String SQL_COUNT_CAMPAIGN_RESPONSES =
+		"SELECT user_id, privacy_state_id, " +
+			"COUNT(*) AS response_count, " +
+			"MAX(upload_timestamp) AS last_upload_timestamp " +
+		"FROM survey_response " +
+		"WHERE campaign_id = ? " +
+		"GROUP BY user_id, privacy_state_id";
+
+	// Sets one of a campaign's counters.
+	static final String SQL_SET_STATS =
+		"INSERT INTO campaign_response_stats(" +
+			"campaign_id, user_id, privacy_state_id, " +
+			"response_count, last_upload_timestamp) " +
+		"VALUES (?, ?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"response_count = VALUES(response_count), " +
+			"last_upload_timestamp = VALUES(last_upload_timestamp)";
+
+	// Deletes a campaign's counters that no longer count anything.
+	static final String SQL_DELETE_EMPTY_CAMPAIGN_STATS =
+		"DELETE FROM campaign_response_stats " +
+		"WHERE campaign_id = ? " +
+		"AND response_count = 0";
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource The DataSource to use to query the database.
+	 */
+	private CampaignResponseStatsQueries(final DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/**
+	 * Creates this object around a JDBC template. This is only used by the
+	 * tests.
+	 *
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 */
+	CampaignResponseStatsQueries(final JdbcTemplate jdbcTemplate) {
+		super(jdbcTemplate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignResponseStatsQueries#updateCampaignResponseStats(java.lang.String, java.lang.String, java.util.Map, long)
+	 */
+	@Override
+	public void updateCampaignResponseStats(
+			final String campaignId,
+			final String username,
+			final Map<SurveyResponse.PrivacyState, Integer> changes,
+			final long uploadMillis)
+			throws DataAccessException {
+
+		// Visit the privacy states in a fixed order so that concurrent
+		// uploads by the same user lock the counters in the same order.
+		Map<SurveyResponse.PrivacyState, Integer> orderedChanges =
+			new EnumMap<SurveyResponse.PrivacyState, Integer>(
+				SurveyResponse.PrivacyState.class);
+		orderedChanges.putAll(changes);
+
+		Timestamp uploadTimestamp = new Timestamp(uploadMillis);
+		for(SurveyResponse.PrivacyState privacyState : orderedChanges.keySet()) {
+			int change = orderedChanges.get(privacyState);
+
+			String sql;
+			Object[] parameters;
+			if(change < 0) {
+				sql = SQL_SUBTRACT_USER_STATS;
+				parameters =
+					new Object[] {
+						-change,
+						-change,
+						campaignId,
+						username,
+						privacyState.toString()
+					};
+			}
+			else {
+				sql = SQL_ADD_USER_STATS;
+				parameters =
+					new Object[] {
+						change,
+						uploadTimestamp,
+						campaignId,
+						username,
+						privacyState.toString()
+					};
+			}
+
+			try {
+				getJdbcTemplate().update(sql, parameters);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						sql +
+						"' with parameters: " +
+						Arrays.toString(parameters),
+					e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignResponseStatsQueries#reconcileCampaignResponseStats()
+	 */
+	@Override
+	public void reconcileCampaignResponseStats() throws DataAccessException {
+		List<Long> campaignDbIds;
+		try {
+			campaignDbIds =
+				getJdbcTemplate().query(
+					SQL_GET_CAMPAIGN_DB_IDS,
+					new SingleColumnRowMapper<Long>(Long.class));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_CAMPAIGN_DB_IDS + "'.",
+				e);
+		}
+
+		for(Long campaignDbId : campaignDbIds) {
+			reconcileCampaign(campaignDbId);
+		}
+	}
+
+	/**
+	 * Recomputes one campaign's counters in its own transaction.<br />
+	 * <br />
+	 * The counters are locked first and the responses are then counted with
+	 * a non-locking read, whose snapshot is taken after the locks are held.
+	 * An upload that commits before the snapshot is counted by it. An upload
+	 * that has not committed yet waits on the locked counters and adds to
+	 * them after this commits. Either way it is counted once. This never
+	 * waits on a survey response while holding a counter, which is the
+	 * opposite of the order the uploads lock them in, so the two cannot
+	 * deadlock.
+	 *
+	 * @param campaignDbId The campaign's database ID.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void reconcileCampaign(
+			final long campaignDbId)
+			throws DataAccessException {
+
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Reconciling a campaign's survey response counters.");
+
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			String sql = null;
+			try {
+				sql = SQL_CLEAR_CAMPAIGN_STATS;
+				getJdbcTemplate().update(sql, campaignDbId);
+
+				sql = SQL_COUNT_CAMPAIGN_RESPONSES;
+				List<Object[]> counters =
+					getJdbcTemplate().query(
+						sql,
+						new Object[] { campaignDbId },
+						new RowMapper<Object[]>() {
+							/**
+							 * Returns the parameters that set the counter.
+							 */
+							@Override
+							public Object[] mapRow(
+									final ResultSet rs,
+									final int rowNum)
+									throws SQLException {
+
+								return new Object[] {
+									campaignDbId,
+									rs.getLong("user_id"),
+									rs.getLong("privacy_state_id"),
+									rs.getLong("response_count"),
+									rs.getTimestamp("last_upload_timestamp")
+								};
+							}
+						});
+
+				if(counters.size() > 0) {
+					sql = SQL_SET_STATS;
+					getJdbcTemplate().batchUpdate(sql, counters);
+				}
+
+				sql = SQL_DELETE_EMPTY_CAMPAIGN_STATS;
+				getJdbcTemplate().update(sql, campaignDbId);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						sql +
+						"' with parameter: " +
+						campaignDbId,
+					e);
+			}
+
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+}
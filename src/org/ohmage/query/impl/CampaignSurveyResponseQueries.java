@@ -17,6 +17,7 @@ package org.ohmage.query.impl;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -63,6 +64,49 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 			")" +
 		")";
 	
+	// Retrieves the values that make up the version of a campaign's survey
+	// response data. These come from the per-campaign counters, which have
+	// one row per user and privacy state, rather than from the survey
+	// responses themselves. The checksum covers each row's count so that
+	// responses moving between users or privacy states change it.
+	private static final String SQL_GET_SURVEY_RESPONSE_DATA_VERSION =
+		"SELECT SUM(crs.response_count) AS count, " +
+			"SUM(CRC32(CONCAT_WS(':', " +
+				"crs.user_id, " +
+				"crs.privacy_state_id, " +
+				"crs.response_count))) AS checksum, " +
+			"MAX(crs.last_upload_timestamp) AS last_upload " +
+		"FROM campaign c, campaign_response_stats crs " +
+		"WHERE c.urn = ? " +
+		"AND c.id = crs.campaign_id";
+	
+	// Retrieves everything that decides which of a campaign's survey
+	// responses a user may read: whether they are an admin, the campaign's
+	// privacy and running states, the user's roles in the campaign, and
+	// their roles in the campaign's classes.
+	private static final String SQL_GET_SURVEY_RESPONSE_ACCESS_VERSION =
+		"SELECT u.admin, c.privacy_state_id, c.running_state_id, " +
+			"(" +
+				"SELECT GROUP_CONCAT(" +
+					"urc.user_role_id " +
+					"ORDER BY urc.user_role_id) " +
+				"FROM user_role_campaign urc " +
+				"WHERE urc.user_id = u.id " +
+				"AND urc.campaign_id = c.id" +
+			") AS campaign_roles, " +
+			"(" +
+				"SELECT GROUP_CONCAT(" +
+					"CONCAT_WS('-', uc.class_id, uc.user_class_role_id) " +
+					"ORDER BY uc.class_id) " +
+				"FROM user_class uc, campaign_class cc " +
+				"WHERE uc.user_id = u.id " +
+				"AND uc.class_id = cc.class_id " +
+				"AND cc.campaign_id = c.id" +
+			") AS class_roles " +
+		"FROM user u, campaign c " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ?";
+	
 	// Retrieves the campaign ID for the campaign to which the survey response
 	// belongs.
 	private static final String SQL_GET_CAMPAIGN_ID_FROM_SURVEY_RESPONSE_ID =
@@ -104,6 +148,76 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignSurveyResponseQueries#getSurveyResponseDataVersion(java.lang.String)
+	 */
+	public String getSurveyResponseDataVersion(String campaignId) throws DataAccessException {
+		try {
+			return getJdbcTemplate().queryForObject(
+					SQL_GET_SURVEY_RESPONSE_DATA_VERSION,
+					new Object[] { campaignId },
+					new RowMapper<String>() {
+						@Override
+						public String mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							Timestamp lastUpload = 
+									rs.getTimestamp("last_upload");
+							
+							return rs.getLong("count") + 
+									":" + 
+									rs.getLong("checksum") + 
+									":" + 
+									((lastUpload == null) ? 
+										0 : 
+										lastUpload.getTime());
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error running SQL '" + SQL_GET_SURVEY_RESPONSE_DATA_VERSION + "' with parameter: " + campaignId, e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignSurveyResponseQueries#getSurveyResponseAccessVersion(java.lang.String, java.lang.String)
+	 */
+	public String getSurveyResponseAccessVersion(
+			final String campaignId,
+			final String username)
+			throws DataAccessException {
+		
+		try {
+			return getJdbcTemplate().queryForObject(
+					SQL_GET_SURVEY_RESPONSE_ACCESS_VERSION,
+					new Object[] { username, campaignId },
+					new RowMapper<String>() {
+						@Override
+						public String mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							return rs.getBoolean("admin") + 
+									":" + 
+									rs.getLong("privacy_state_id") + 
+									":" + 
+									rs.getLong("running_state_id") + 
+									":" + 
+									rs.getString("campaign_roles") + 
+									":" + 
+									rs.getString("class_roles");
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error running SQL '" + SQL_GET_SURVEY_RESPONSE_ACCESS_VERSION + "' with parameters: " + username + ", " + campaignId, e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ICampaignSurveyResponseQueries#getCampaignIdFromSurveyId(java.lang.Long)
 	 */
@@ -137,25 +251,35 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 	
 	    Collection<Object> parameters = new LinkedList<Object>();
 	    
+	    // The counts come from the per-campaign counters, which have one row
+	    // per user and privacy state, so the requester's access is checked
+	    // against each row without joining the survey responses. The role
+	    // check is an EXISTS so that a requester with multiple roles in a
+	    // campaign does not count a row more than once.
 	    StringBuilder sql = new StringBuilder(
-		    "SELECT c.urn, srps.privacy_state, COUNT(DISTINCT sr.id) as count " + 
-		    "FROM survey_response sr " +
-		    	"JOIN campaign c ON (sr.campaign_id = c.id) " +
-		    	"JOIN user u ON (sr.user_id = u.id) " + 
-		    	"JOIN survey_response_privacy_state srps ON (sr.privacy_state_id = srps.id) " + 
+		    "SELECT c.urn, srps.privacy_state, SUM(crs.response_count) as count " + 
+		    "FROM campaign_response_stats crs " +
+		    	"JOIN campaign c ON (crs.campaign_id = c.id) " +
+		    	"JOIN survey_response_privacy_state srps ON (crs.privacy_state_id = srps.id) " + 
 		    	"JOIN campaign_privacy_state cps ON (c.privacy_state_id = cps.id) " +
-		    	"CROSS JOIN user ru " +
-		    	"LEFT JOIN user_role_campaign urc on (urc.user_id = ru.id AND urc.campaign_id = c.id) " +
-		    	"LEFT JOIN user_role ur on (urc.user_role_id = ur.id) " +
+		    	"JOIN user ru ON (ru.username = ?) " +
 		    "WHERE "  +
 		      "( " +
 		    	"ru.admin = TRUE " + 
-		        "OR ru.id = sr.user_id " +
-		        "OR ur.role = 'supervisor' " +
-		        "OR (ur.role = 'author' AND srps.privacy_state = 'shared') " +
-		        "OR (ur.role = 'analyst' AND srps.privacy_state = 'shared' AND cps.privacy_state = 'shared') " +
+		        "OR ru.id = crs.user_id " +
+		        "OR EXISTS (" +
+		          "SELECT urc.id " +
+		          "FROM user_role_campaign urc " +
+		          	"JOIN user_role ur ON (urc.user_role_id = ur.id) " +
+		          "WHERE urc.user_id = ru.id " +
+		          "AND urc.campaign_id = c.id " +
+		          "AND (" +
+		            "ur.role = 'supervisor' " +
+		            "OR (ur.role = 'author' AND srps.privacy_state = 'shared') " +
+		            "OR (ur.role = 'analyst' AND srps.privacy_state = 'shared' AND cps.privacy_state = 'shared')" +
+		          ")" +
+		        ") " +
 		      ") " +
-		      "AND ru.username = ? " +
 		      "AND c.id IN ");
 	    sql.append(	   "(" + campaignSqlStmt  + ")");
 	    sql.append(" GROUP BY c.urn, srps.id ");
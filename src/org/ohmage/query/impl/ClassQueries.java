@@ -22,13 +22,18 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
+import org.ohmage.cache.VisibilityIndex;
+import org.ohmage.domain.ClassRosterDiff;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.Clazz.Role;
 import org.ohmage.domain.campaign.Campaign;
@@ -36,12 +41,11 @@ import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.ICampaignClassQueries;
 import org.ohmage.query.IClassQueries;
-import org.ohmage.query.IUserCampaignClassQueries;
-import org.ohmage.query.IUserCampaignQueries;
-import org.ohmage.query.IUserClassQueries;
 import org.ohmage.query.impl.QueryResultsList.QueryResultListBuilder;
 import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -66,9 +70,6 @@ public class ClassQueries extends Query implements IClassQueries {
 	private static Logger LOGGER = Logger.getLogger(ClassQueries.class);
 	
 	private ICampaignClassQueries campaignClassQueries; 
-	private IUserCampaignClassQueries userCampaignClassQueries;
-	private IUserClassQueries userClassQueries;
-	private IUserCampaignQueries userCampaignQueries;
 	
 	// Returns a boolean as to whether or not the given class exists.
 	private static final String SQL_EXISTS_CLASS = 
@@ -109,44 +110,78 @@ public class ClassQueries extends Query implements IClassQueries {
 		"INSERT INTO class(urn, name, description, creation_timestamp) " +
 		"VALUES (?,?,?, NOW())";
 	
-	// Associates a user with a class.
-	private static final String SQL_INSERT_USER_CLASS = 
-		"INSERT INTO user_class(user_id, class_id, user_class_role_id) " +
-		"VALUES (" +
-			"(" +
-				"SELECT id " +
-				"FROM user " +
-				"WHERE username = ?" +
-			"), (" +
-				"SELECT id " +
-				"FROM class " +
-				"WHERE urn = ?" +
-			"), (" +
-				"SELECT id " +
-				"FROM user_class_role " +
-				"WHERE role = ?" +
-			")" +
-		")";
+	// Returns the users in a class and their roles.
+	private static final String SQL_GET_CLASS_MEMBERS =
+		"SELECT u.username, ucr.role " +
+		"FROM user u, user_class uc, user_class_role ucr, class c " +
+		"WHERE c.urn = ? " +
+		"AND c.id = uc.class_id " +
+		"AND u.id = uc.user_id " +
+		"AND ucr.id = uc.user_class_role_id";
 	
-	// Associates a user with a campaign.
-	private static final String SQL_INSERT_USER_CAMPAIGN =
-		"INSERT INTO user_role_campaign(user_id, campaign_id, user_role_id) " +
-		"VALUES (" +
-			"(" +
-				"SELECT id " +
-				"FROM user " +
-				"WHERE username = ?" +
-			"), (" +
-				"SELECT id " +
-				"FROM campaign " +
-				"WHERE urn = ?" +
-			"), (" +
-				"SELECT id " +
-				"FROM user_role " +
-				"WHERE role = ?" +
-			")" +
-			"" +
-		")";
+	// Returns the default campaign roles for each class role for each of the
+	// campaigns associated with a class.
+	private static final String SQL_GET_CLASS_DEFAULT_ROLES =
+		"SELECT ca.urn, ucr.role AS class_role, ur.role AS campaign_role " +
+		"FROM class c, campaign_class cc, campaign ca, " +
+			"campaign_class_default_role ccdr, " +
+			"user_class_role ucr, user_role ur " +
+		"WHERE c.urn = ? " +
+		"AND c.id = cc.class_id " +
+		"AND ca.id = cc.campaign_id " +
+		"AND cc.id = ccdr.campaign_class_id " +
+		"AND ucr.id = ccdr.user_class_role_id " +
+		"AND ur.id = ccdr.user_role_id";
+	
+	// Returns the users and campaigns where the campaign is associated with
+	// a class and the user is associated with the campaign through some other
+	// class.
+	private static final String SQL_GET_CAMPAIGNS_THROUGH_OTHER_CLASSES =
+		"SELECT DISTINCT u.username, ca.urn " +
+		"FROM class c, campaign_class cc, campaign ca, " +
+			"campaign_class occ, user_class ouc, user u " +
+		"WHERE c.urn = ? " +
+		"AND c.id = cc.class_id " +
+		"AND ca.id = cc.campaign_id " +
+		"AND cc.campaign_id = occ.campaign_id " +
+		"AND occ.class_id <> c.id " +
+		"AND occ.class_id = ouc.class_id " +
+		"AND u.id = ouc.user_id";
+	
+	// Returns the users' roles in each of the campaigns associated with a
+	// class.
+	private static final String SQL_GET_CLASS_CAMPAIGN_ROLES =
+		"SELECT u.username, ca.urn, ur.role " +
+		"FROM class c, campaign_class cc, campaign ca, " +
+			"user_role_campaign urc, user u, user_role ur " +
+		"WHERE c.urn = ? " +
+		"AND c.id = cc.class_id " +
+		"AND ca.id = cc.campaign_id " +
+		"AND ca.id = urc.campaign_id " +
+		"AND u.id = urc.user_id " +
+		"AND ur.id = urc.user_role_id";
+	
+	// Associates users with a class with the same role. The parameter list 
+	// for the usernames must be appended. Users that were concurrently added
+	// to the class are ignored.
+	private static final String SQL_INSERT_USERS_CLASS =
+		"INSERT IGNORE INTO user_class(user_id, class_id, user_class_role_id) " +
+		"SELECT u.id, c.id, ucr.id " +
+		"FROM user u, class c, user_class_role ucr " +
+		"WHERE c.urn = ? " +
+		"AND ucr.role = ? " +
+		"AND u.username IN ";
+	
+	// Grants users the same role in a campaign. The parameter list for the
+	// usernames must be appended. Users that already have the role are 
+	// ignored.
+	private static final String SQL_INSERT_USERS_CAMPAIGN =
+		"INSERT IGNORE INTO user_role_campaign(user_id, campaign_id, user_role_id) " +
+		"SELECT u.id, ca.id, ur.id " +
+		"FROM user u, campaign ca, user_role ur " +
+		"WHERE ca.urn = ? " +
+		"AND ur.role = ? " +
+		"AND u.username IN ";
 	
 	// Updates a class' name.
 	private static final String SQL_UPDATE_CLASS_NAME =
@@ -160,92 +195,77 @@ public class ClassQueries extends Query implements IClassQueries {
 		"SET description = ? " +
 		"WHERE urn = ?";
 	
-	// Updates a user's role in a class.
-	private static final String SQL_UPDATE_USER_CLASS =
-		"UPDATE user_class " +
-		"SET user_class_role_id = (" +
-			"SELECT id " +
-			"FROM user_class_role " +
-			"WHERE role = ?" +
-		")" +
-		"WHERE user_id = (" +
-			"SELECT id " +
-			"FROM user " +
-			"WHERE username = ?" +
-		")" +
-		"AND class_id = (" +
-			"SELECT id " +
-			"FROM class " +
-			"WHERE urn = ?" +
-		")";
+	// Sets users' role in a class. The parameter list for the usernames must
+	// be appended.
+	private static final String SQL_UPDATE_USERS_CLASS =
+		"UPDATE user_class uc, user u, class c, user_class_role ucr " +
+		"SET uc.user_class_role_id = ucr.id " +
+		"WHERE c.urn = ? " +
+		"AND ucr.role = ? " +
+		"AND c.id = uc.class_id " +
+		"AND u.id = uc.user_id " +
+		"AND u.username IN ";
 	
 	// Deletes a class.
 	private static final String SQL_DELETE_CLASS = 
 		"DELETE FROM class " + 
 		"WHERE urn = ?";
 	
-	// Deletes a user from a class.
-	private static final String SQL_DELETE_USER_FROM_CLASS =
-		"DELETE FROM user_class " +
-		"WHERE user_id = (" +
-			"SELECT id " +
-			"FROM user " +
-			"WHERE username = ?" +
-		") " +
-		"AND class_id = (" +
-			"SELECT id " +
-			"FROM class " +
-			"WHERE urn = ?" +
-		")";
+	// Deletes users from a class. The parameter list for the usernames must be
+	// appended.
+	private static final String SQL_DELETE_USERS_FROM_CLASS =
+		"DELETE uc " +
+		"FROM user_class uc, user u, class c " +
+		"WHERE c.urn = ? " +
+		"AND c.id = uc.class_id " +
+		"AND u.id = uc.user_id " +
+		"AND u.username IN ";
 	
-	// Deletes a user from a campaign as long as they have the given role.
-	private static final String SQL_DELETE_USER_FROM_CAMPAIGN =
-		"DELETE FROM user_role_campaign " +
-		"WHERE user_id = (" +
-			"SELECT id " +
-			"FROM user " +
-			"WHERE username = ?" +
-		") " +
-		"AND campaign_id = (" +
-			"SELECT id " +
-			"FROM campaign " +
-			"WHERE urn = ?" +
-		") " +
-		"AND user_role_id = (" +
-			"SELECT id " +
-			"FROM user_role " +
-			"WHERE role = ?" +
-		")";
+	// Revokes a role in a campaign from users. The parameter list for the
+	// usernames must be appended.
+	private static final String SQL_DELETE_USERS_FROM_CAMPAIGN =
+		"DELETE urc " +
+		"FROM user_role_campaign urc, user u, campaign ca, user_role ur " +
+		"WHERE ca.urn = ? " +
+		"AND ur.role = ? " +
+		"AND ca.id = urc.campaign_id " +
+		"AND ur.id = urc.user_role_id " +
+		"AND u.id = urc.user_id " +
+		"AND u.username IN ";
+	
+	// The maximum number of usernames in any one of the statements above.
+	static final int MAX_USERNAMES_PER_STATEMENT = 500;
 	
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource A DataSource object to use when querying the database.
 	 */
-	private ClassQueries(DataSource dataSource, ICampaignClassQueries iCampaignClassQueries, 
-			IUserCampaignClassQueries iUserCampaignClassQueries, IUserClassQueries iUserClassQueries, IUserCampaignQueries iUserCampaignQueries) {
+	private ClassQueries(DataSource dataSource, ICampaignClassQueries iCampaignClassQueries) {
 		super(dataSource);
 		
 		if(iCampaignClassQueries == null) {
 			throw new IllegalArgumentException("An instance of ICampaignClassQueries is a required argument.");
 		}
 		
-		if(iUserCampaignClassQueries == null) {
-			throw new IllegalArgumentException("An instance of IUserCampaignClassQueries is a required argument.");
-		}
-		
-		if(iUserClassQueries == null) {
-			throw new IllegalArgumentException("An instance of IUserClassQueries is a required argument.");
-		}
+		campaignClassQueries = iCampaignClassQueries;
+	}
+	
+	/**
+	 * Creates this object around a JDBC template. This is only used by the
+	 * tests.
+	 * 
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 * 
+	 * @param iCampaignClassQueries The campaign-class queries.
+	 */
+	ClassQueries(
+			final JdbcTemplate jdbcTemplate,
+			final ICampaignClassQueries iCampaignClassQueries) {
 		
-		if(iUserCampaignQueries == null) {
-			throw new IllegalArgumentException("An instance of IUserCampaignQueries is a required argument.");
-		}
+		super(jdbcTemplate);
 		
 		campaignClassQueries = iCampaignClassQueries;
-		userCampaignClassQueries = iUserCampaignClassQueries;
-		userClassQueries = iUserClassQueries;
-		userCampaignQueries = iUserCampaignQueries;
 	}
 	
 	/* (non-Javadoc)
@@ -280,6 +300,9 @@ public class ClassQueries extends Query implements IClassQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The class exists but has no users or documents yet.
+			VisibilityIndex.instance().refreshClass(classId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -659,6 +682,78 @@ public class ClassQueries extends Query implements IClassQueries {
 	}
 	
 	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.IClassQueries#getClassRosterDiff(java.lang.String, java.util.Map, java.util.Collection)
+	 */
+	@Override
+	public ClassRosterDiff getClassRosterDiff(
+			final String classId,
+			final Map<String, Clazz.Role> userAndRolesToAdd,
+			final Collection<String> usersToRemove)
+			throws DataAccessException {
+		
+		return computeRosterDiff(classId, userAndRolesToAdd, usersToRemove);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.IClassQueries#getClassRosterDiffs(java.util.Map)
+	 */
+	@Override
+	public List<ClassRosterDiff> getClassRosterDiffs(
+			final Map<String, Map<String, Clazz.Role>> roster)
+			throws DataAccessException {
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Working out the changes of a class roster.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			// One class' changes may change its users' other classes and 
+			// campaign roles and, therefore, the next class' changes, so each
+			// class' changes are made before the next class' are worked out,
+			// the same way the roster is applied.
+			List<ClassRosterDiff> result = 
+				new ArrayList<ClassRosterDiff>(roster.size());
+			try {
+				for(String classId : roster.keySet()) {
+					ClassRosterDiff diff = 
+						computeRosterDiff(classId, roster.get(classId), null);
+					
+					applyRosterDiff(diff);
+					
+					result.add(diff);
+				}
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+			
+			// None of the changes are kept.
+			transactionManager.rollback(status);
+			
+			return result;
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.IClassQueries#applyClassRosterDiff(org.ohmage.domain.ClassRosterDiff)
+	 */
+	@Override
+	public void applyClassRosterDiff(
+			final ClassRosterDiff diff)
+			throws DataAccessException {
+		
+		applyRosterDiff(diff);
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.IClassQueries#updateClass(java.lang.String, java.lang.String, java.lang.String, java.util.Map, java.util.Collection)
 	 */
@@ -704,13 +799,20 @@ public class ClassQueries extends Query implements IClassQueries {
 				}
 			}
 			
-			// If either of the user lists are non-empty, we grab the list of
-			// campaigns associated with the class now as it will be needed, 
-			// and we don't want to grab it multiple times.
-			List<String> campaignIds = Collections.emptyList();
+			// Work out all of the membership changes from the class' current
+			// state and then apply them with a handful of statements.
+			List<String> warningMessages = Collections.emptyList();
 			if((usersToRemove != null) || (userAndRolesToAdd != null)) {
 				try {
-					campaignIds = campaignClassQueries.getCampaignsAssociatedWithClass(classId);
+					ClassRosterDiff diff = 
+						computeRosterDiff(
+							classId, 
+							userAndRolesToAdd, 
+							usersToRemove);
+					
+					applyRosterDiff(diff);
+					
+					warningMessages = diff.getWarningMessages();
 				}
 				catch(DataAccessException e) {
 					transactionManager.rollback(status);
@@ -718,300 +820,801 @@ public class ClassQueries extends Query implements IClassQueries {
 				}
 			}
 			
-			// Delete the users before adding the new ones. This facilitates
-			// upgrading a user from one role to another.
-			if(usersToRemove != null) {
-				for(String username : usersToRemove) {
-					// Get the user's role in the class before removing
-					// it.
-					Clazz.Role classRole;
-					try {
-						classRole = userClassQueries.getUserClassRole(classId, username);
-					}
-					catch(DataAccessException e) {
-						transactionManager.rollback(status);
-						throw e;
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+			
+			// The class's users and, through it, their campaigns may have changed.
+			VisibilityIndex.instance().refreshClass(classId);
+			
+			return warningMessages;
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+	
+	/**
+	 * Works out the changes to a class' membership and to its members' 
+	 * campaign roles. The class' members, the default roles of its campaigns,
+	 * and its members' roles in those campaigns are each read once, and the
+	 * users are then removed and added in memory in the same order and with
+	 * the same rules as they always have been: the users are removed first
+	 * which allows a user to be removed and added back with a new role, a 
+	 * user that is removed or whose role changes loses the default roles of
+	 * their old class role in each campaign through which they are not 
+	 * associated by another class, and a user that is added or whose role 
+	 * changes is granted the default roles of their new class role that they
+	 * don't already have.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @param userAndRolesToAdd The users and their respective roles to add to
+	 * 							the class or whose role should be updated. 
+	 * 							This may be null.
+	 * 
+	 * @param usersToRemove The users to remove from the class. This may be
+	 * 						null.
+	 * 
+	 * @return The changes to the class.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private ClassRosterDiff computeRosterDiff(
+			final String classId,
+			final Map<String, Clazz.Role> userAndRolesToAdd,
+			final Collection<String> usersToRemove)
+			throws DataAccessException {
+		
+		// Only the users that are being changed are of any interest when 
+		// reading the other classes and the campaign roles.
+		Set<String> usernames = new HashSet<String>();
+		if(userAndRolesToAdd != null) {
+			usernames.addAll(userAndRolesToAdd.keySet());
+		}
+		if(usersToRemove != null) {
+			usernames.addAll(usersToRemove);
+		}
+		
+		Map<String, Clazz.Role> originalRoles = getClassMembers(classId);
+		List<String> campaignIds = 
+			campaignClassQueries.getCampaignsAssociatedWithClass(classId);
+		Map<String, Map<Clazz.Role, List<Campaign.Role>>> defaultRoles =
+			getClassDefaultRoles(classId);
+		Map<String, Set<String>> otherClassCampaigns =
+			getCampaignsThroughOtherClasses(classId, usernames);
+		CampaignRoleChanges campaignRoles =
+			new CampaignRoleChanges(
+				getClassCampaignRoles(classId, usernames));
+		
+		Map<String, Clazz.Role> roles = 
+			new HashMap<String, Clazz.Role>(originalRoles);
+		List<String> warningMessages = new LinkedList<String>();
+		
+		// Delete the users before adding the new ones. This facilitates
+		// upgrading a user from one role to another.
+		if(usersToRemove != null) {
+			for(String username : usersToRemove) {
+				// The user may not be in the class, in which case there is
+				// nothing to remove.
+				Clazz.Role classRole = roles.remove(username);
+				if(classRole == null) {
+					continue;
+				}
+				
+				// For all of the campaigns associated with the class, if the
+				// user is not associated with the campaign through some other
+				// class, revoke the class' default roles.
+				for(String campaignId : campaignIds) {
+					if(! isAssociatedThroughOtherClass(otherClassCampaigns, username, campaignId)) {
+						campaignRoles.revoke(
+							username, 
+							campaignId, 
+							getDefaultRoles(defaultRoles, campaignId, classRole));
 					}
-					
-					// To prevent a concurrency bug, the user may have already
-					// been deleted from the class which will be indicated by
-					// having a null value for the role. When this happens, we
-					// may continue on with the next user.
-					if(classRole == null) {
-						continue;
+				}
+			}
+		}
+		
+		// Add the users to the class.
+		if(userAndRolesToAdd != null) {
+			for(String username : userAndRolesToAdd.keySet()) {
+				Clazz.Role role = userAndRolesToAdd.get(username);
+				Clazz.Role originalRole = roles.put(username, role);
+				
+				// If the user already had this role, there is nothing to do.
+				if(role.equals(originalRole)) {
+					continue;
+				}
+				// If the user already had a different role, revoke the 
+				// default roles of their old role from the campaigns through
+				// which they are only associated by this class.
+				else if(originalRole != null) {
+					if(LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Changing user's class role from " + originalRole + " to " + role);
 					}
 					
-					// Remove the user from the class.
-					try {
-						getJdbcTemplate().update(SQL_DELETE_USER_FROM_CLASS, new Object[] { username, classId });
-					}
-					catch(org.springframework.dao.DataAccessException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException("Error while executing SQL '" + SQL_DELETE_USER_FROM_CLASS + "' with parameters: " + 
-								username + ", " + classId, e);
-					}
+					warningMessages.add("The user '" + username + 
+							"' was already associated with the class '" + classId + 
+							"'. Their role has been updated from '" + originalRole +
+							"' to '" + role + "'");
 					
-					// For all of the campaigns associated with the class, see
-					// if the user is associated with any of them in any other
-					// capacity, and, if not, dissociate them from the 
-					// campaign.
 					for(String campaignId : campaignIds) {
-						// If they are associated with the campaign through 
-						// no classes, then we are going to remove any 
-						// campaign-class associations that may exist.
-						int numClasses;
-						try {
-							numClasses = userCampaignClassQueries.getNumberOfClassesThroughWhichUserIsAssociatedWithCampaign(username, campaignId);
-						}
-						catch(DataAccessException e) {
-							transactionManager.rollback(status);
-							throw e;
-						}
-						
-						if(numClasses == 0) {
-							// Get the default roles which are to be revoked
-							// from the user.
-							List<Campaign.Role> defaultRoles;
-							try {
-								defaultRoles = campaignClassQueries.getDefaultCampaignRolesForCampaignClass(campaignId, classId, classRole);
-							}
-							catch(DataAccessException e) {
-								transactionManager.rollback(status);
-								throw e;
-							}
-							
-							// For each of the default roles, remove that role
-							// from the user.
-							for(Campaign.Role defaultRole : defaultRoles) {
-								try {
-									getJdbcTemplate().update(
-											SQL_DELETE_USER_FROM_CAMPAIGN,
-											new Object[] { username, campaignId, defaultRole.toString() });
-								}
-								catch(org.springframework.dao.DataAccessException e) {
-									transactionManager.rollback(status);
-									throw new DataAccessException("Error executing SQL '" + SQL_DELETE_USER_FROM_CAMPAIGN + "' with parameters: " +
-											username + ", " + campaignId + ", " + defaultRole, e);
-								}
-							}
+						if(! isAssociatedThroughOtherClass(otherClassCampaigns, username, campaignId)) {
+							campaignRoles.revoke(
+								username, 
+								campaignId, 
+								getDefaultRoles(defaultRoles, campaignId, originalRole));
 						}
 					}
 				}
+				
+				// Grant the default roles of their new role in each of the
+				// campaigns.
+				for(String campaignId : campaignIds) {
+					campaignRoles.grant(
+						username, 
+						campaignId, 
+						getDefaultRoles(defaultRoles, campaignId, role));
+				}
 			}
+		}
+		
+		return new ClassRosterDiff(
+			classId, 
+			originalRoles, 
+			roles, 
+			campaignRoles.granted, 
+			campaignRoles.revoked, 
+			warningMessages);
+	}
+	
+	/**
+	 * Applies the changes to a class' membership and its members' campaign
+	 * roles. Users are grouped by role, so there is one statement for each
+	 * role in each campaign instead of one for each user.
+	 * 
+	 * @param diff The changes to apply.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void applyRosterDiff(
+			final ClassRosterDiff diff)
+			throws DataAccessException {
+		
+		String classId = diff.getClassId();
+		
+		updateUsers(
+			SQL_DELETE_USERS_FROM_CLASS, 
+			new Object[] { classId }, 
+			diff.getUsersRemoved());
+		
+		Map<Clazz.Role, Set<String>> changed = 
+			groupByRole(diff.getUsersChanged());
+		for(Clazz.Role role : changed.keySet()) {
+			updateUsers(
+				SQL_UPDATE_USERS_CLASS, 
+				new Object[] { classId, role.toString() }, 
+				changed.get(role));
+		}
+		
+		Map<Clazz.Role, Set<String>> added = 
+			groupByRole(diff.getUsersAdded());
+		for(Clazz.Role role : added.keySet()) {
+			updateUsers(
+				SQL_INSERT_USERS_CLASS, 
+				new Object[] { classId, role.toString() }, 
+				added.get(role));
+		}
+		
+		Map<String, Map<Campaign.Role, Set<String>>> revoked =
+			diff.getCampaignRolesRevoked();
+		for(String campaignId : revoked.keySet()) {
+			Map<Campaign.Role, Set<String>> roles = revoked.get(campaignId);
+			for(Campaign.Role role : roles.keySet()) {
+				updateUsers(
+					SQL_DELETE_USERS_FROM_CAMPAIGN, 
+					new Object[] { campaignId, role.toString() }, 
+					roles.get(role));
+			}
+		}
+		
+		Map<String, Map<Campaign.Role, Set<String>>> granted =
+			diff.getCampaignRolesGranted();
+		for(String campaignId : granted.keySet()) {
+			Map<Campaign.Role, Set<String>> roles = granted.get(campaignId);
+			for(Campaign.Role role : roles.keySet()) {
+				updateUsers(
+					SQL_INSERT_USERS_CAMPAIGN, 
+					new Object[] { campaignId, role.toString() }, 
+					roles.get(role));
+			}
+		}
+	}
+	
+	/**
+	 * Executes one of the statements that ends in a list of usernames for 
+	 * some users, splitting the users across as many statements as necessary
+	 * to keep each list reasonably short.
+	 * 
+	 * @param sql The statement without the parameter list for the usernames.
+	 * 
+	 * @param parameters The parameters before the usernames.
+	 * 
+	 * @param usernames The usernames. If this is empty, nothing is executed.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void updateUsers(
+			final String sql,
+			final Object[] parameters,
+			final Collection<String> usernames)
+			throws DataAccessException {
+		
+		List<String> usernameList = new ArrayList<String>(usernames);
+		for(int start = 0; start < usernameList.size(); start += MAX_USERNAMES_PER_STATEMENT) {
+			List<String> chunk = 
+				usernameList.subList(
+					start, 
+					Math.min(
+						start + MAX_USERNAMES_PER_STATEMENT, 
+						usernameList.size()));
 			
-			// Create the list of warning messages to be returned to the 
-			// caller.
-			List<String> warningMessages = new LinkedList<String>();
+			String chunkSql = 
+				sql + StringUtils.generateStatementPList(chunk.size());
+			List<Object> chunkParameters = 
+				new ArrayList<Object>(Arrays.asList(parameters));
+			chunkParameters.addAll(chunk);
 			
-			// Add the users to the class.
-			if(userAndRolesToAdd != null) {
-				
-				for(String username : userAndRolesToAdd.keySet()) {
-					
-					// Get the user's (new) role.
-					Clazz.Role role = userAndRolesToAdd.get(username);
-					
-					boolean addDefaultRoles = false;
-					
-					try {
+			try {
+				getJdbcTemplate().update(chunkSql, chunkParameters.toArray());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" + 
+							chunkSql + 
+							"' with parameters: " + 
+							chunkParameters,
+						e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the users in a class and their roles.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @return A map of usernames to their class role.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private Map<String, Clazz.Role> getClassMembers(
+			final String classId)
+			throws DataAccessException {
+		
+		final Map<String, Clazz.Role> result = 
+			new HashMap<String, Clazz.Role>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_CLASS_MEMBERS,
+				new Object[] { classId },
+				new RowCallbackHandler() {
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
 						
-						if(! userClassQueries.userBelongsToClass(classId, username)) {
-							
-							if(LOGGER.isDebugEnabled()) {
-								LOGGER.debug("The user did not exist in the class so the user is being added before any updates are attemped.");
-							}
-							
-							try {
-								getJdbcTemplate()
-									.update(
-										SQL_INSERT_USER_CLASS,
-										new Object[] { 
-											username, 
-											classId, 
-											role.toString() } 
-										);
-								addDefaultRoles = true;
-							}
-							catch(org.springframework.dao.DuplicateKeyException e) {
-								// The use is already associated with the
-								// class, so this is to mitigate concurrency
-								// issues.
-								addDefaultRoles = false;
-							}
+						result.put(
+							rs.getString("username"), 
+							getClassRole(rs, "role"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+						SQL_GET_CLASS_MEMBERS + 
+						"' with parameter: " + 
+						classId,
+					e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the default roles of each of the campaigns associated with a
+	 * class.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @return A map of campaign IDs to maps of class roles to the campaign
+	 * 		   roles that are granted to the users with that class role.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private Map<String, Map<Clazz.Role, List<Campaign.Role>>> getClassDefaultRoles(
+			final String classId)
+			throws DataAccessException {
+		
+		final Map<String, Map<Clazz.Role, List<Campaign.Role>>> result =
+			new HashMap<String, Map<Clazz.Role, List<Campaign.Role>>>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_CLASS_DEFAULT_ROLES,
+				new Object[] { classId },
+				new RowCallbackHandler() {
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						String campaignId = rs.getString("urn");
+						Map<Clazz.Role, List<Campaign.Role>> campaignDefaults =
+							result.get(campaignId);
+						if(campaignDefaults == null) {
+							campaignDefaults = 
+								new HashMap<Clazz.Role, List<Campaign.Role>>();
+							result.put(campaignId, campaignDefaults);
 						}
 						
-						else  {
-							
-							if(LOGGER.isDebugEnabled()) {
-								LOGGER.debug("The user already has a role in the class so only updates will be performed.");
-							}
-							
-							// Get the user's current role.
-							Clazz.Role originalRole = null;
-							try {
-								originalRole = userClassQueries.getUserClassRole(classId, username);
-							}
-							catch(DataAccessException e) {
-								transactionManager.rollback(status);
-								throw e;
-							}
-							
-							// If their new role is the same as their old role, we
-							// will ignore this update.
-							if(! role.equals(originalRole)) {
-								
-								if(LOGGER.isDebugEnabled()) {
-									LOGGER.debug("Changing user's class role from " + originalRole + " to " + role);
-								}
-								
-								// Update their role to the new role.
-								try {
-									if(getJdbcTemplate().update(SQL_UPDATE_USER_CLASS, new Object[] { role.toString(), username, classId }) > 0) {
-										warningMessages.add("The user '" + username + 
-												"' was already associated with the class '" + classId + 
-												"'. Their role has been updated from '" + originalRole +
-												"' to '" + role + "'");
-									}
-								}
-								catch(org.springframework.dao.DataAccessException e) {
-									transactionManager.rollback(status);
-									throw new DataAccessException("Error while executing SQL '" + SQL_UPDATE_USER_CLASS + "' with parameters: " + 
-											role + ", " + username + ", " + classId, e);
-								}
-								
-								// For each of the campaigns associated with this
-								// class,
-								for(String campaignId : campaignIds) {
-									// If they are only associated with this 
-									// campaign in this class.
-									int numClasses;
-									try {
-										numClasses = userCampaignClassQueries.getNumberOfClassesThroughWhichUserIsAssociatedWithCampaign(username, campaignId);
-									}
-									catch(DataAccessException e) {
-										transactionManager.rollback(status);
-										throw e;
-									}
-									
-									if(numClasses == 1) {
-										
-										if(LOGGER.isDebugEnabled()) {
-											LOGGER.debug("The user only belonged to the campaign " + campaignId + " via one class" +
-												" and their class role is changing so all default campaign roles are being deleted.");
-										}
-										
-										// Remove the current roles with the 
-										// campaign and add a new role with the
-										// campaign.
-										List<Campaign.Role> defaultRoles;
-										try {
-											defaultRoles = campaignClassQueries.getDefaultCampaignRolesForCampaignClass(campaignId, classId, originalRole);
-										}
-										catch(DataAccessException e) {
-											transactionManager.rollback(status);
-											throw e;
-										}
-										
-										for(Campaign.Role defaultRole : defaultRoles) {
-											try {
-												getJdbcTemplate().update(
-														SQL_DELETE_USER_FROM_CAMPAIGN,
-														new Object[] { username, campaignId, defaultRole.toString() });
-											}
-											catch(org.springframework.dao.DataAccessException e) {
-												transactionManager.rollback(status);
-												throw new DataAccessException("Error executing SQL '" + SQL_DELETE_USER_FROM_CAMPAIGN + "' with parameters: " +
-														username + ", " + campaignId + ", " + defaultRole, e);
-											}
-										}
-									}
-									
-									addDefaultRoles = true;
-								}
-							}
-							else {
-								
-								if(LOGGER.isDebugEnabled()) {
-									LOGGER.debug("Nothing to do because the user's class role is not changing.");
-								}
-							}
+						Clazz.Role classRole = getClassRole(rs, "class_role");
+						List<Campaign.Role> campaignRoles = 
+							campaignDefaults.get(classRole);
+						if(campaignRoles == null) {
+							campaignRoles = new LinkedList<Campaign.Role>();
+							campaignDefaults.put(classRole, campaignRoles);
 						}
+						
+						campaignRoles.add(
+							getCampaignRole(rs, "campaign_role"));
 					}
-					catch(org.springframework.dao.DataAccessException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException("Error while executing SQL '" + SQL_INSERT_USER_CLASS + "' with parameters: " + 
-								username + ", " + classId + ", " + role, e);
-					}
-					catch(DataAccessException e) {
-						transactionManager.rollback(status);
-						throw e;
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+						SQL_GET_CLASS_DEFAULT_ROLES + 
+						"' with parameter: " + 
+						classId,
+					e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the campaigns associated with a class that some users are also
+	 * associated with through some other class.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @param usernames The users of interest. Any other users are ignored.
+	 * 
+	 * @return A map of usernames to the campaigns.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private Map<String, Set<String>> getCampaignsThroughOtherClasses(
+			final String classId,
+			final Set<String> usernames)
+			throws DataAccessException {
+		
+		final Map<String, Set<String>> result = 
+			new HashMap<String, Set<String>>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_CAMPAIGNS_THROUGH_OTHER_CLASSES,
+				new Object[] { classId },
+				new RowCallbackHandler() {
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						String username = rs.getString("username");
+						if(! usernames.contains(username)) {
+							return;
+						}
+						
+						Set<String> campaignIds = result.get(username);
+						if(campaignIds == null) {
+							campaignIds = new HashSet<String>();
+							result.put(username, campaignIds);
+						}
+						campaignIds.add(rs.getString("urn"));
 					}
-
-					if(addDefaultRoles) {
-						// For each of the campaign's associated with the 
-						// class, add them to the campaign with the default
-						// roles.
-						for(String campaignId : campaignIds) {
-							List<Campaign.Role> defaultRoles;
-							try {
-								defaultRoles = campaignClassQueries.getDefaultCampaignRolesForCampaignClass(campaignId, classId, role);
-							}
-							catch(DataAccessException e) {
-								transactionManager.rollback(status);
-								throw e;
-							}
-							
-							for(Campaign.Role defaultRole : defaultRoles) {
-								try {
-									final Object[] params = new Object[] {username, campaignId, defaultRole.toString()};
-									
-									if(LOGGER.isDebugEnabled()) {
-										LOGGER.debug("Assigning the user a default campaign role of " + defaultRole + " in campaign " + campaignId);
-									}
-									
-									// The user may already have the role in
-									// the campaign via another class or the 
-									// user may have not been in any class
-									// at all.
-									if(! userCampaignQueries.getUserCampaignRoles(username, campaignId).contains(defaultRole)) {
-									
-										getJdbcTemplate().update(SQL_INSERT_USER_CAMPAIGN, params);
-									} 
-									else {
-										
-										if(LOGGER.isDebugEnabled()) {
-											LOGGER.debug("User already has this role in the campaign: " + Arrays.asList(params));
-										}			
-									}
-								}
-								catch(org.springframework.dao.DataAccessException e) {
-									transactionManager.rollback(status);
-									throw new DataAccessException("Error executing SQL '" + SQL_INSERT_USER_CAMPAIGN + "' with parameters: " +
-											username + ", " + campaignId + ", " + defaultRole, e);
-								}
-								catch(DataAccessException e) {
-									transactionManager.rollback(status);
-									throw e;
-								}
-							}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+						SQL_GET_CAMPAIGNS_THROUGH_OTHER_CLASSES + 
+						"' with parameter: " + 
+						classId,
+					e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns some users' roles in each of the campaigns associated with a
+	 * class.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @param usernames The users of interest. Any other users are ignored.
+	 * 
+	 * @return A map of usernames to maps of campaign IDs to the user's roles
+	 * 		   in that campaign.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private Map<String, Map<String, Set<Campaign.Role>>> getClassCampaignRoles(
+			final String classId,
+			final Set<String> usernames)
+			throws DataAccessException {
+		
+		final Map<String, Map<String, Set<Campaign.Role>>> result =
+			new HashMap<String, Map<String, Set<Campaign.Role>>>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_CLASS_CAMPAIGN_ROLES,
+				new Object[] { classId },
+				new RowCallbackHandler() {
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						String username = rs.getString("username");
+						if(! usernames.contains(username)) {
+							return;
+						}
+						
+						Map<String, Set<Campaign.Role>> userRoles = 
+							result.get(username);
+						if(userRoles == null) {
+							userRoles = 
+								new HashMap<String, Set<Campaign.Role>>();
+							result.put(username, userRoles);
 						}
+						
+						String campaignId = rs.getString("urn");
+						Set<Campaign.Role> campaignRoles = 
+							userRoles.get(campaignId);
+						if(campaignRoles == null) {
+							campaignRoles = new HashSet<Campaign.Role>();
+							userRoles.put(campaignId, campaignRoles);
+						}
+						campaignRoles.add(getCampaignRole(rs, "role"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+						SQL_GET_CLASS_CAMPAIGN_ROLES + 
+						"' with parameter: " + 
+						classId,
+					e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Decodes a class role from a column.
+	 * 
+	 * @param rs The result set.
+	 * 
+	 * @param column The column's label.
+	 * 
+	 * @return The class role.
+	 * 
+	 * @throws SQLException The column wasn't a known class role.
+	 */
+	private static Clazz.Role getClassRole(
+			final ResultSet rs,
+			final String column)
+			throws SQLException {
+		
+		try {
+			return Clazz.Role.getValue(rs.getString(column));
+		}
+		catch(IllegalArgumentException e) {
+			throw new SQLException("The class role is unknown.", e);
+		}
+	}
+	
+	/**
+	 * Decodes a campaign role from a column.
+	 * 
+	 * @param rs The result set.
+	 * 
+	 * @param column The column's label.
+	 * 
+	 * @return The campaign role.
+	 * 
+	 * @throws SQLException The column wasn't a known campaign role.
+	 */
+	private static Campaign.Role getCampaignRole(
+			final ResultSet rs,
+			final String column)
+			throws SQLException {
+		
+		try {
+			return Campaign.Role.getValue(rs.getString(column));
+		}
+		catch(IllegalArgumentException e) {
+			throw new SQLException("The campaign role is unknown.", e);
+		}
+	}
+	
+	/**
+	 * Returns whether or not a user is associated with a campaign through a
+	 * class other than the one being updated.
+	 * 
+	 * @param otherClassCampaigns The map of usernames to campaigns from 
+	 * 							  {@link #getCampaignsThroughOtherClasses(String, Set)}.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @return Whether or not the user is associated with the campaign through
+	 * 		   another class.
+	 */
+	private static boolean isAssociatedThroughOtherClass(
+			final Map<String, Set<String>> otherClassCampaigns,
+			final String username,
+			final String campaignId) {
+		
+		Set<String> campaignIds = otherClassCampaigns.get(username);
+		return (campaignIds != null) && campaignIds.contains(campaignId);
+	}
+	
+	/**
+	 * Returns the default campaign roles for a class role in a campaign.
+	 * 
+	 * @param defaultRoles The default roles from 
+	 * 					   {@link #getClassDefaultRoles(String)}.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param classRole The class role.
+	 * 
+	 * @return The default campaign roles, which may be empty.
+	 */
+	private static List<Campaign.Role> getDefaultRoles(
+			final Map<String, Map<Clazz.Role, List<Campaign.Role>>> defaultRoles,
+			final String campaignId,
+			final Clazz.Role classRole) {
+		
+		Map<Clazz.Role, List<Campaign.Role>> campaignDefaults = 
+			defaultRoles.get(campaignId);
+		if(campaignDefaults == null) {
+			return Collections.emptyList();
+		}
+		
+		List<Campaign.Role> result = campaignDefaults.get(classRole);
+		if(result == null) {
+			return Collections.emptyList();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Groups users by their class role.
+	 * 
+	 * @param userRoles A map of usernames to class roles.
+	 * 
+	 * @return A map of class roles to the users with that role.
+	 */
+	private static Map<Clazz.Role, Set<String>> groupByRole(
+			final Map<String, Clazz.Role> userRoles) {
+		
+		Map<Clazz.Role, Set<String>> result = 
+			new HashMap<Clazz.Role, Set<String>>();
+		for(String username : userRoles.keySet()) {
+			Clazz.Role role = userRoles.get(username);
+			
+			Set<String> usernames = result.get(role);
+			if(usernames == null) {
+				usernames = new HashSet<String>();
+				result.put(role, usernames);
+			}
+			usernames.add(username);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Tracks users' campaign roles while a class update is being worked out
+	 * along with the net roles that it grants and revokes. Granting a role 
+	 * that was revoked earlier in the same update, or the reverse, cancels 
+	 * out rather than being applied twice.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class CampaignRoleChanges {
+		private final Map<String, Map<String, Set<Campaign.Role>>> roles;
+		
+		private final Map<String, Map<Campaign.Role, Set<String>>> granted =
+			new TreeMap<String, Map<Campaign.Role, Set<String>>>();
+		private final Map<String, Map<Campaign.Role, Set<String>>> revoked =
+			new TreeMap<String, Map<Campaign.Role, Set<String>>>();
+		
+		/**
+		 * Creates a new tracker.
+		 * 
+		 * @param roles The users' current roles as a map of usernames to 
+		 * 				maps of campaign IDs to the user's roles in that 
+		 * 				campaign. This will be modified.
+		 */
+		private CampaignRoleChanges(
+				final Map<String, Map<String, Set<Campaign.Role>>> roles) {
+			
+			this.roles = roles;
+		}
+		
+		/**
+		 * Grants a user any of the roles in a campaign that they don't 
+		 * already have.
+		 * 
+		 * @param username The user's username.
+		 * 
+		 * @param campaignId The campaign's unique identifier.
+		 * 
+		 * @param campaignRoles The roles to grant.
+		 */
+		private void grant(
+				final String username,
+				final String campaignId,
+				final Collection<Campaign.Role> campaignRoles) {
+			
+			Set<Campaign.Role> userRoles = getRoles(username, campaignId);
+			for(Campaign.Role role : campaignRoles) {
+				if(userRoles.add(role)) {
+					if(! remove(revoked, campaignId, role, username)) {
+						add(granted, campaignId, role, username);
 					}
 				}
 			}
+		}
+		
+		/**
+		 * Revokes any of the roles in a campaign that a user has.
+		 * 
+		 * @param username The user's username.
+		 * 
+		 * @param campaignId The campaign's unique identifier.
+		 * 
+		 * @param campaignRoles The roles to revoke.
+		 */
+		private void revoke(
+				final String username,
+				final String campaignId,
+				final Collection<Campaign.Role> campaignRoles) {
 			
-			// Commit the transaction.
-			try {
-				transactionManager.commit(status);
+			Set<Campaign.Role> userRoles = getRoles(username, campaignId);
+			for(Campaign.Role role : campaignRoles) {
+				if(userRoles.remove(role)) {
+					if(! remove(granted, campaignId, role, username)) {
+						add(revoked, campaignId, role, username);
+					}
+				}
 			}
-			catch(TransactionException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException("Error while committing the transaction.", e);
+		}
+		
+		/**
+		 * Returns a user's current roles in a campaign.
+		 * 
+		 * @param username The user's username.
+		 * 
+		 * @param campaignId The campaign's unique identifier.
+		 * 
+		 * @return The user's roles, which may be modified.
+		 */
+		private Set<Campaign.Role> getRoles(
+				final String username,
+				final String campaignId) {
+			
+			Map<String, Set<Campaign.Role>> userRoles = roles.get(username);
+			if(userRoles == null) {
+				userRoles = new HashMap<String, Set<Campaign.Role>>();
+				roles.put(username, userRoles);
 			}
 			
-			return warningMessages;
+			Set<Campaign.Role> result = userRoles.get(campaignId);
+			if(result == null) {
+				result = new HashSet<Campaign.Role>();
+				userRoles.put(campaignId, result);
+			}
+			
+			return result;
 		}
-		catch(TransactionException e) {
-			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		
+		/**
+		 * Adds a user to a map of campaign IDs to campaign roles to users.
+		 * 
+		 * @param changes The map.
+		 * 
+		 * @param campaignId The campaign's unique identifier.
+		 * 
+		 * @param role The campaign role.
+		 * 
+		 * @param username The user's username.
+		 */
+		private static void add(
+				final Map<String, Map<Campaign.Role, Set<String>>> changes,
+				final String campaignId,
+				final Campaign.Role role,
+				final String username) {
+			
+			Map<Campaign.Role, Set<String>> campaignChanges = 
+				changes.get(campaignId);
+			if(campaignChanges == null) {
+				campaignChanges = new TreeMap<Campaign.Role, Set<String>>();
+				changes.put(campaignId, campaignChanges);
+			}
+			
+			Set<String> usernames = campaignChanges.get(role);
+			if(usernames == null) {
+				usernames = new HashSet<String>();
+				campaignChanges.put(role, usernames);
+			}
+			usernames.add(username);
+		}
+		
+		/**
+		 * Removes a user from a map of campaign IDs to campaign roles to 
+		 * users, dropping any entries that become empty.
+		 * 
+		 * @param changes The map.
+		 * 
+		 * @param campaignId The campaign's unique identifier.
+		 * 
+		 * @param role The campaign role.
+		 * 
+		 * @param username The user's username.
+		 * 
+		 * @return Whether or not the user was in the map.
+		 */
+		private static boolean remove(
+				final Map<String, Map<Campaign.Role, Set<String>>> changes,
+				final String campaignId,
+				final Campaign.Role role,
+				final String username) {
+			
+			Map<Campaign.Role, Set<String>> campaignChanges = 
+				changes.get(campaignId);
+			if(campaignChanges == null) {
+				return false;
+			}
+			
+			Set<String> usernames = campaignChanges.get(role);
+			if((usernames == null) || (! usernames.remove(username))) {
+				return false;
+			}
+			
+			if(usernames.isEmpty()) {
+				campaignChanges.remove(role);
+				if(campaignChanges.isEmpty()) {
+					changes.remove(campaignId);
+				}
+			}
+			
+			return true;
 		}
 	}
 	
@@ -1200,6 +1803,9 @@ public class ClassQueries extends Query implements IClassQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The class no longer grants any visibility.
+			VisibilityIndex.instance().refreshClass(classId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -0,0 +1,986 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * <p>A compressed chunk of one user's data for one stream whose points are
+ * stored column by column rather than row by row. This is for streams whose
+ * points are small and numerous, where a row per point costs far more than
+ * the point itself.</p>
+ * 
+ * <p>Each of the points' meta-data is its own column. The adjusted times and
+ * the other times are delta-encoded, and the time zones, location 
+ * timestamps, and location providers are dictionary-encoded. Each field of 
+ * the stream's schema is also its own column, whose type is chosen from the
+ * values in the chunk: whole numbers are delta-encoded, other numbers are
+ * stored by how much they differ from the previous one, strings are 
+ * dictionary-encoded, and anything else is kept as JSON. A point whose data
+ * doesn't fit the columns, such as one with a field that isn't in the 
+ * schema, is kept whole as JSON. The whole chunk is then compressed.</p>
+ * 
+ * <p>The points are read back with the same meta-data and data as the
+ * {@link StreamDataChunk.Point}s that were written, although the fields of
+ * the data may be in a different order.</p>
+ * 
+ * @author John Jenkins
+ */
+final class ColumnarStreamChunk {
+	/**
+	 * The length of the window of adjusted times that each chunk covers.
+	 */
+	public static final long WINDOW_MILLIS = 1000 * 60 * 60;
+	
+	/**
+	 * The most points that are put in a single chunk.
+	 */
+	public static final int MAX_POINTS = 16 * 1024;
+	
+	/**
+	 * The first bytes of every chunk: "OSCC".
+	 */
+	private static final int MAGIC = 0x4F534343;
+	
+	/**
+	 * The version of the format.
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * The types of the columns of the data's fields.
+	 */
+	private static final byte TYPE_LONG = 1;
+	private static final byte TYPE_DOUBLE = 2;
+	private static final byte TYPE_STRING = 3;
+	private static final byte TYPE_BOOLEAN = 4;
+	private static final byte TYPE_JSON = 5;
+	
+	/**
+	 * The largest whole number that a double holds exactly. A column that
+	 * mixes whole numbers with other numbers is kept as JSON if any of its
+	 * whole numbers is larger.
+	 */
+	private static final long MAX_EXACT_LONG = 1L << 53;
+	
+	/**
+	 * The keys of the schema that define its fields.
+	 */
+	private static final String KEY_SCHEMA_TYPE = "type";
+	private static final String KEY_SCHEMA_FIELDS = "fields";
+	private static final String KEY_SCHEMA_NAME = "name";
+	private static final String SCHEMA_TYPE_OBJECT = "object";
+	
+	/**
+	 * The mapper that parses the data that is kept as JSON.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	
+	/**
+	 * This class is static.
+	 */
+	private ColumnarStreamChunk() {}
+	
+	/**
+	 * Returns the window of adjusted times to which a point belongs.
+	 * 
+	 * @param timeAdjusted The point's adjusted time, which may be null.
+	 * 
+	 * @return The window or null if the point has no adjusted time, in which
+	 * 		   case it belongs with the other points that have none.
+	 */
+	public static Long getWindow(final Long timeAdjusted) {
+		if(timeAdjusted == null) {
+			return null;
+		}
+		
+		long window = timeAdjusted / WINDOW_MILLIS;
+		if((timeAdjusted < 0) && ((timeAdjusted % WINDOW_MILLIS) != 0)) {
+			window--;
+		}
+		return window;
+	}
+	
+	/**
+	 * Encodes points as a chunk.
+	 * 
+	 * @param schema The stream's schema, whose fields become the columns.
+	 * 
+	 * @param points The points, which should be in the order of their 
+	 * 				 adjusted times.
+	 * 
+	 * @return The chunk.
+	 * 
+	 * @throws IOException The points could not be encoded.
+	 */
+	public static byte[] encode(
+			final JsonNode schema,
+			final List<StreamDataChunk.Point> points)
+			throws IOException {
+		
+		int numPoints = points.size();
+		List<String> fieldNames = getFieldNames(schema);
+		Set<String> fieldNameSet = new HashSet<String>(fieldNames);
+		
+		// Decide which points' data fits the columns. The rest are kept as
+		// JSON.
+		JsonNode[] data = new JsonNode[numPoints];
+		String[] rest = new String[numPoints];
+		for(int i = 0; i < numPoints; i++) {
+			StreamDataChunk.Point point = points.get(i);
+			JsonNode node = point.getDataNode();
+			if(node == null) {
+				node = MAPPER.readTree(point.getData());
+			}
+			
+			if(fits(node, fieldNameSet)) {
+				data[i] = node;
+			}
+			else {
+				rest[i] = point.getData();
+			}
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output =
+			new DataOutputStream(new GZIPOutputStream(bytes));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			writeVarLong(output, numPoints);
+			
+			String[] uids = new String[numPoints];
+			Long[] times = new Long[numPoints];
+			Long[] timeOffsets = new Long[numPoints];
+			Long[] timesAdjusted = new Long[numPoints];
+			String[] timeZones = new String[numPoints];
+			String[] locationTimestamps = new String[numPoints];
+			Double[] latitudes = new Double[numPoints];
+			Double[] longitudes = new Double[numPoints];
+			Double[] accuracies = new Double[numPoints];
+			String[] providers = new String[numPoints];
+			for(int i = 0; i < numPoints; i++) {
+				StreamDataChunk.Point point = points.get(i);
+				uids[i] = point.getUid();
+				times[i] = point.getTime();
+				timeOffsets[i] = point.getTimeOffset();
+				timesAdjusted[i] = point.getTimeAdjusted();
+				timeZones[i] = point.getTimeZone();
+				locationTimestamps[i] = point.getLocationTimestamp();
+				latitudes[i] = point.getLocationLatitude();
+				longitudes[i] = point.getLocationLongitude();
+				accuracies[i] = point.getLocationAccuracy();
+				providers[i] = point.getLocationProvider();
+			}
+			
+			writeStrings(output, uids);
+			writeLongs(output, times);
+			writeLongs(output, timeOffsets);
+			writeLongs(output, timesAdjusted);
+			writeDictionary(output, timeZones);
+			writeDictionary(output, locationTimestamps);
+			writeDoubles(output, latitudes);
+			writeDoubles(output, longitudes);
+			writeDoubles(output, accuracies);
+			writeDictionary(output, providers);
+			
+			writeVarLong(output, fieldNames.size());
+			for(String fieldName : fieldNames) {
+				JsonNode[] values = new JsonNode[numPoints];
+				for(int i = 0; i < numPoints; i++) {
+					if(data[i] != null) {
+						values[i] = data[i].get(fieldName);
+					}
+				}
+				
+				StreamDataChunk.writeString(output, fieldName);
+				writeField(output, values);
+			}
+			
+			writeStrings(output, rest);
+		}
+		finally {
+			output.close();
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Decodes the points of a chunk whose adjusted times are within a range.
+	 * As in the database, a point without an adjusted time is only within a
+	 * range that has no limits.
+	 * 
+	 * @param chunk The chunk.
+	 * 
+	 * @param startTimeAdjusted The earliest adjusted time, inclusive, or
+	 * 							null for no limit.
+	 * 
+	 * @param endTimeAdjusted The latest adjusted time, inclusive, or null for
+	 * 						  no limit.
+	 * 
+	 * @return The points, whose data has already been parsed, in the order
+	 * 		   in which they were written.
+	 * 
+	 * @throws IOException The chunk is corrupt.
+	 */
+	public static List<StreamDataChunk.Point> decode(
+			final byte[] chunk,
+			final Long startTimeAdjusted,
+			final Long endTimeAdjusted)
+			throws IOException {
+		
+		DataInputStream input =
+			new DataInputStream(
+				new GZIPInputStream(new ByteArrayInputStream(chunk)));
+		try {
+			if(input.readInt() != MAGIC) {
+				throw new IOException("The data is not a columnar chunk.");
+			}
+			int version = input.readInt();
+			if(version != VERSION) {
+				throw new IOException(
+					"The chunk's version is unknown: " + version);
+			}
+			int numPoints = (int) readVarLong(input);
+			
+			String[] uids = readStrings(input, numPoints);
+			Long[] times = readLongs(input, numPoints);
+			Long[] timeOffsets = readLongs(input, numPoints);
+			Long[] timesAdjusted = readLongs(input, numPoints);
+			String[] timeZones = readDictionary(input, numPoints);
+			String[] locationTimestamps = readDictionary(input, numPoints);
+			Double[] latitudes = readDoubles(input, numPoints);
+			Double[] longitudes = readDoubles(input, numPoints);
+			Double[] accuracies = readDoubles(input, numPoints);
+			String[] providers = readDictionary(input, numPoints);
+			
+			int numFields = (int) readVarLong(input);
+			String[] fieldNames = new String[numFields];
+			JsonNode[][] fields = new JsonNode[numFields][];
+			for(int f = 0; f < numFields; f++) {
+				fieldNames[f] = StreamDataChunk.readString(input);
+				fields[f] = readField(input, numPoints);
+			}
+			
+			String[] rest = readStrings(input, numPoints);
+			
+			List<StreamDataChunk.Point> result = 
+				new ArrayList<StreamDataChunk.Point>(numPoints);
+			for(int i = 0; i < numPoints; i++) {
+				Long timeAdjusted = timesAdjusted[i];
+				if(
+					((startTimeAdjusted != null) && 
+						((timeAdjusted == null) || 
+						 (timeAdjusted < startTimeAdjusted))) ||
+					((endTimeAdjusted != null) &&
+						((timeAdjusted == null) || 
+						 (timeAdjusted > endTimeAdjusted)))) {
+					
+					continue;
+				}
+				
+				JsonNode data;
+				if(rest[i] == null) {
+					ObjectNode object = JsonNodeFactory.instance.objectNode();
+					for(int f = 0; f < numFields; f++) {
+						JsonNode value = fields[f][i];
+						if(value != null) {
+							object.put(fieldNames[f], value);
+						}
+					}
+					data = object;
+				}
+				else {
+					data = MAPPER.readTree(rest[i]);
+				}
+				
+				result.add(
+					new StreamDataChunk.Point(
+						uids[i],
+						times[i],
+						timeOffsets[i],
+						timeAdjusted,
+						timeZones[i],
+						locationTimestamps[i],
+						latitudes[i],
+						longitudes[i],
+						accuracies[i],
+						providers[i],
+						data));
+			}
+			
+			return result;
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Decodes the unique identifiers of the points of a chunk.
+	 * 
+	 * @param chunk The chunk.
+	 * 
+	 * @return The points' unique identifiers, some of which may be null.
+	 * 
+	 * @throws IOException The chunk is corrupt.
+	 */
+	public static String[] decodeUids(
+			final byte[] chunk)
+			throws IOException {
+		
+		DataInputStream input =
+			new DataInputStream(
+				new GZIPInputStream(new ByteArrayInputStream(chunk)));
+		try {
+			if(input.readInt() != MAGIC) {
+				throw new IOException("The data is not a columnar chunk.");
+			}
+			int version = input.readInt();
+			if(version != VERSION) {
+				throw new IOException(
+					"The chunk's version is unknown: " + version);
+			}
+			
+			// The identifiers are the first column.
+			return readStrings(input, (int) readVarLong(input));
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Returns the names of the fields of a schema, if it describes an
+	 * object.
+	 * 
+	 * @param schema The schema.
+	 * 
+	 * @return The names of the fields, which is empty if the schema doesn't
+	 * 		   describe an object.
+	 */
+	private static List<String> getFieldNames(final JsonNode schema) {
+		List<String> result = new ArrayList<String>();
+		
+		JsonNode type = schema.get(KEY_SCHEMA_TYPE);
+		JsonNode fields = schema.get(KEY_SCHEMA_FIELDS);
+		if(
+			(type == null) || 
+			(! SCHEMA_TYPE_OBJECT.equals(type.getTextValue())) ||
+			(fields == null) ||
+			(! fields.isArray())) {
+			
+			return result;
+		}
+		
+		for(JsonNode field : fields) {
+			JsonNode name = field.get(KEY_SCHEMA_NAME);
+			if((name != null) && name.isTextual()) {
+				result.add(name.getTextValue());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns whether or not some data may be stored in the columns. It must
+	 * be an object whose fields are all in the schema and none of which are
+	 * null.
+	 * 
+	 * @param data The data.
+	 * 
+	 * @param fieldNames The names of the schema's fields.
+	 * 
+	 * @return Whether or not the data may be stored in the columns.
+	 */
+	private static boolean fits(
+			final JsonNode data,
+			final Set<String> fieldNames) {
+		
+		if((data == null) || (! data.isObject())) {
+			return false;
+		}
+		
+		Iterator<Map.Entry<String, JsonNode>> fields = data.getFields();
+		while(fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			if(
+				(! fieldNames.contains(field.getKey())) || 
+				field.getValue().isNull()) {
+				
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the column of one of the data's fields. Its type is the
+	 * narrowest one that fits all of its values.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The field's values, which are null where the field is
+	 * 				 missing.
+	 * 
+	 * @throws IOException The column could not be written.
+	 */
+	private static void writeField(
+			final DataOutputStream output,
+			final JsonNode[] values)
+			throws IOException {
+		
+		boolean allLong = true;
+		boolean allNumber = true;
+		boolean allExact = true;
+		boolean allString = true;
+		boolean allBoolean = true;
+		for(JsonNode value : values) {
+			if(value == null) {
+				continue;
+			}
+			allLong &= value.isInt() || value.isLong();
+			allNumber &= value.isInt() || value.isLong() || value.isDouble();
+			if(value.isLong()) {
+				long longValue = value.getLongValue();
+				allExact &= 
+					(longValue <= MAX_EXACT_LONG) && 
+					(longValue >= -MAX_EXACT_LONG);
+			}
+			allString &= value.isTextual();
+			allBoolean &= value.isBoolean();
+		}
+		
+		int numPoints = values.length;
+		if(allLong) {
+			output.writeByte(TYPE_LONG);
+			Long[] column = new Long[numPoints];
+			for(int i = 0; i < numPoints; i++) {
+				if(values[i] != null) {
+					column[i] = values[i].getLongValue();
+				}
+			}
+			writeLongs(output, column);
+		}
+		else if(allNumber && allExact) {
+			// The whole numbers are marked so that they are read back as
+			// whole numbers.
+			output.writeByte(TYPE_DOUBLE);
+			Double[] column = new Double[numPoints];
+			byte[] whole = new byte[(numPoints + 7) / 8];
+			for(int i = 0; i < numPoints; i++) {
+				if(values[i] != null) {
+					column[i] = values[i].getDoubleValue();
+					
+					if(! values[i].isDouble()) {
+						whole[i / 8] |= 1 << (i % 8);
+					}
+				}
+			}
+			writeDoubles(output, column);
+			output.write(whole);
+		}
+		else if(allString) {
+			output.writeByte(TYPE_STRING);
+			String[] column = new String[numPoints];
+			for(int i = 0; i < numPoints; i++) {
+				if(values[i] != null) {
+					column[i] = values[i].getTextValue();
+				}
+			}
+			writeDictionary(output, column);
+		}
+		else if(allBoolean) {
+			output.writeByte(TYPE_BOOLEAN);
+			writePresence(output, values);
+			byte[] bits = new byte[(numPoints + 7) / 8];
+			for(int i = 0; i < numPoints; i++) {
+				if((values[i] != null) && values[i].getBooleanValue()) {
+					bits[i / 8] |= 1 << (i % 8);
+				}
+			}
+			output.write(bits);
+		}
+		else {
+			output.writeByte(TYPE_JSON);
+			String[] column = new String[numPoints];
+			for(int i = 0; i < numPoints; i++) {
+				if(values[i] != null) {
+					column[i] = values[i].toString();
+				}
+			}
+			writeStrings(output, column);
+		}
+	}
+	
+	/**
+	 * Reads the column of one of the data's fields.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of points.
+	 * 
+	 * @return The field's values, which are null where the field is missing.
+	 * 
+	 * @throws IOException The column is corrupt.
+	 */
+	private static JsonNode[] readField(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		JsonNodeFactory factory = JsonNodeFactory.instance;
+		JsonNode[] result = new JsonNode[numPoints];
+		
+		byte type = input.readByte();
+		switch(type) {
+		case TYPE_LONG:
+			Long[] longs = readLongs(input, numPoints);
+			for(int i = 0; i < numPoints; i++) {
+				if(longs[i] != null) {
+					result[i] = createWholeNumber(longs[i]);
+				}
+			}
+			break;
+			
+		case TYPE_DOUBLE:
+			Double[] doubles = readDoubles(input, numPoints);
+			byte[] whole = new byte[(numPoints + 7) / 8];
+			input.readFully(whole);
+			for(int i = 0; i < numPoints; i++) {
+				if(doubles[i] == null) {
+					continue;
+				}
+				else if((whole[i / 8] & (1 << (i % 8))) != 0) {
+					result[i] = createWholeNumber(doubles[i].longValue());
+				}
+				else {
+					result[i] = factory.numberNode(doubles[i]);
+				}
+			}
+			break;
+			
+		case TYPE_STRING:
+			String[] strings = readDictionary(input, numPoints);
+			for(int i = 0; i < numPoints; i++) {
+				if(strings[i] != null) {
+					result[i] = factory.textNode(strings[i]);
+				}
+			}
+			break;
+			
+		case TYPE_BOOLEAN:
+			boolean[] present = readPresence(input, numPoints);
+			byte[] bits = new byte[(numPoints + 7) / 8];
+			input.readFully(bits);
+			for(int i = 0; i < numPoints; i++) {
+				if(present[i]) {
+					result[i] = 
+						factory.booleanNode(
+							(bits[i / 8] & (1 << (i % 8))) != 0);
+				}
+			}
+			break;
+			
+		case TYPE_JSON:
+			String[] json = readStrings(input, numPoints);
+			for(int i = 0; i < numPoints; i++) {
+				if(json[i] != null) {
+					result[i] = MAPPER.readTree(json[i]);
+				}
+			}
+			break;
+			
+		default:
+			throw new IOException("The column's type is unknown: " + type);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Creates the node for a whole number as it would have been parsed, 
+	 * which is an integer if it fits.
+	 * 
+	 * @param value The number.
+	 * 
+	 * @return The node.
+	 */
+	private static JsonNode createWholeNumber(final long value) {
+		if((value >= Integer.MIN_VALUE) && (value <= Integer.MAX_VALUE)) {
+			return JsonNodeFactory.instance.numberNode((int) value);
+		}
+		else {
+			return JsonNodeFactory.instance.numberNode(value);
+		}
+	}
+	
+	/**
+	 * Writes which of a column's values are present, one bit per value.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The column's values.
+	 * 
+	 * @throws IOException The bits could not be written.
+	 */
+	private static void writePresence(
+			final DataOutputStream output,
+			final Object[] values)
+			throws IOException {
+		
+		byte[] bits = new byte[(values.length + 7) / 8];
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] != null) {
+				bits[i / 8] |= 1 << (i % 8);
+			}
+		}
+		output.write(bits);
+	}
+	
+	/**
+	 * Reads which of a column's values are present.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of values.
+	 * 
+	 * @return Whether or not each value is present.
+	 * 
+	 * @throws IOException The bits could not be read.
+	 */
+	private static boolean[] readPresence(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		byte[] bits = new byte[(numPoints + 7) / 8];
+		input.readFully(bits);
+		
+		boolean[] result = new boolean[numPoints];
+		for(int i = 0; i < numPoints; i++) {
+			result[i] = (bits[i / 8] & (1 << (i % 8))) != 0;
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a column of whole numbers, each as the difference from the
+	 * previous one.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The numbers, some of which may be null.
+	 * 
+	 * @throws IOException The column could not be written.
+	 */
+	private static void writeLongs(
+			final DataOutputStream output,
+			final Long[] values)
+			throws IOException {
+		
+		writePresence(output, values);
+		
+		long previous = 0;
+		for(Long value : values) {
+			if(value != null) {
+				long delta = value - previous;
+				writeVarLong(output, (delta << 1) ^ (delta >> 63));
+				previous = value;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a column of whole numbers.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of values.
+	 * 
+	 * @return The numbers, some of which may be null.
+	 * 
+	 * @throws IOException The column is corrupt.
+	 */
+	private static Long[] readLongs(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		boolean[] present = readPresence(input, numPoints);
+		
+		Long[] result = new Long[numPoints];
+		long previous = 0;
+		for(int i = 0; i < numPoints; i++) {
+			if(present[i]) {
+				long zigZag = readVarLong(input);
+				previous += (zigZag >>> 1) ^ -(zigZag & 1);
+				result[i] = previous;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a column of numbers, each as the bits that differ from the 
+	 * previous one. Similar numbers share their sign, exponent, and leading
+	 * digits, so the difference is small.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The numbers, some of which may be null.
+	 * 
+	 * @throws IOException The column could not be written.
+	 */
+	private static void writeDoubles(
+			final DataOutputStream output,
+			final Double[] values)
+			throws IOException {
+		
+		writePresence(output, values);
+		
+		long previous = 0;
+		for(Double value : values) {
+			if(value != null) {
+				long bits = Double.doubleToRawLongBits(value);
+				writeVarLong(output, bits ^ previous);
+				previous = bits;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a column of numbers.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of values.
+	 * 
+	 * @return The numbers, some of which may be null.
+	 * 
+	 * @throws IOException The column is corrupt.
+	 */
+	private static Double[] readDoubles(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		boolean[] present = readPresence(input, numPoints);
+		
+		Double[] result = new Double[numPoints];
+		long previous = 0;
+		for(int i = 0; i < numPoints; i++) {
+			if(present[i]) {
+				previous ^= readVarLong(input);
+				result[i] = Double.longBitsToDouble(previous);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a column of strings as a dictionary of the distinct strings
+	 * followed by each value's index in the dictionary.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The strings, some of which may be null.
+	 * 
+	 * @throws IOException The column could not be written.
+	 */
+	private static void writeDictionary(
+			final DataOutputStream output,
+			final String[] values)
+			throws IOException {
+		
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+		List<String> dictionary = new ArrayList<String>();
+		int[] codes = new int[values.length];
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] != null) {
+				Integer index = indices.get(values[i]);
+				if(index == null) {
+					index = dictionary.size();
+					indices.put(values[i], index);
+					dictionary.add(values[i]);
+				}
+				
+				// Zero is reserved for null.
+				codes[i] = index + 1;
+			}
+		}
+		
+		writeVarLong(output, dictionary.size());
+		for(String value : dictionary) {
+			StreamDataChunk.writeString(output, value);
+		}
+		for(int code : codes) {
+			writeVarLong(output, code);
+		}
+	}
+	
+	/**
+	 * Reads a column of dictionary-encoded strings.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of values.
+	 * 
+	 * @return The strings, some of which may be null.
+	 * 
+	 * @throws IOException The column is corrupt.
+	 */
+	private static String[] readDictionary(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		int dictionarySize = (int) readVarLong(input);
+		String[] dictionary = new String[dictionarySize];
+		for(int i = 0; i < dictionarySize; i++) {
+			dictionary[i] = StreamDataChunk.readString(input);
+		}
+		
+		String[] result = new String[numPoints];
+		for(int i = 0; i < numPoints; i++) {
+			int code = (int) readVarLong(input);
+			if(code > dictionarySize) {
+				throw new IOException(
+					"The dictionary has no entry: " + code);
+			}
+			else if(code > 0) {
+				result[i] = dictionary[code - 1];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a column of strings that are unlikely to repeat.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param values The strings, some of which may be null.
+	 * 
+	 * @throws IOException The column could not be written.
+	 */
+	private static void writeStrings(
+			final DataOutputStream output,
+			final String[] values)
+			throws IOException {
+		
+		writePresence(output, values);
+		for(String value : values) {
+			if(value != null) {
+				StreamDataChunk.writeString(output, value);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a column of strings.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @param numPoints The number of values.
+	 * 
+	 * @return The strings, some of which may be null.
+	 * 
+	 * @throws IOException The column is corrupt.
+	 */
+	private static String[] readStrings(
+			final DataInputStream input,
+			final int numPoints)
+			throws IOException {
+		
+		boolean[] present = readPresence(input, numPoints);
+		
+		String[] result = new String[numPoints];
+		for(int i = 0; i < numPoints; i++) {
+			if(present[i]) {
+				result[i] = StreamDataChunk.readString(input);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes an unsigned number in as few bytes as it needs, seven bits per
+	 * byte.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param value The number.
+	 * 
+	 * @throws IOException The number could not be written.
+	 */
+	private static void writeVarLong(
+			final DataOutputStream output,
+			final long value)
+			throws IOException {
+		
+		long remaining = value;
+		while((remaining & ~0x7FL) != 0) {
+			output.writeByte((int) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		output.writeByte((int) remaining);
+	}
+	
+	/**
+	 * Reads an unsigned number that was written in as few bytes as it 
+	 * needed.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @return The number.
+	 * 
+	 * @throws IOException The number could not be read.
+	 */
+	private static long readVarLong(
+			final DataInputStream input)
+			throws IOException {
+		
+		long result = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = input.readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("A number is too long.");
+	}
+}
@@ -24,6 +24,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,15 +43,16 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.ohmage.cache.PreferenceCache;
-import org.ohmage.domain.Clazz;
+import org.ohmage.cache.VisibilityIndex;
 import org.ohmage.domain.Document;
-import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.IDocumentQueries;
+import org.ohmage.util.CompressedBitmap;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -288,6 +290,10 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 	
 	private static final int MAX_EXTENSION_LENGTH = 12;
 	
+	// The most visible documents for which a search is limited to them in
+	// the database.
+	private static final int MAX_DOCUMENTS_PER_STATEMENT = 500;
+	
 	/**
 	 * Filters the subdirectories in a directory to only return those that
 	 * match the regular expression matcher for directories.
@@ -489,6 +495,9 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
 			
+			// The new document is now visible to its users.
+			VisibilityIndex.instance().refreshDocument(uuid);
+			
 			return uuid;
 		}
 		catch(TransactionException e) {
@@ -533,11 +542,10 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 	}
 	
 	/* (non-Javadoc)
-	 * @see org.ohmage.query.impl.IDocumentQueries#getVisibleDocumentsSql(java.lang.String)
+	 * @see org.ohmage.query.impl.IDocumentQueries#getVisibleDocumentIds(java.lang.String, java.lang.Boolean, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime)
 	 */
 	@Override
-	public String getVisibleDocumentsSql(
-			final Collection<Object> sqlParameters,
+	public List<Integer> getVisibleDocumentIds(
 			final String username,
 			final Boolean personalDocuments,
 			final Collection<String> campaignIds,
@@ -548,110 +556,27 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			final DateTime endDate) 
 			throws DataAccessException {
 		
+		// The documents that are visible through the ACL rules come from the
+		// visibility index, so only the document's own attributes are left
+		// for the database.
+		CompressedBitmap visibleDocuments =
+			VisibilityIndex
+				.instance()
+				.getVisibleDocuments(
+					username, 
+					personalDocuments, 
+					campaignIds, 
+					classIds);
+		if((visibleDocuments != null) && visibleDocuments.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		Collection<Object> sqlParameters = new LinkedList<Object>();
 		StringBuilder sql = 
 			new StringBuilder(
 				"SELECT d.id " +
-				"FROM user u, document d, " +
-					"document_privacy_state dps, document_user_creator duc " +
-				"WHERE u.username = ? " +
-				"AND d.privacy_state_id = dps.id " +
-				"AND d.id = duc.document_id " +
-				"AND (");
-		
-		sqlParameters.add(username);
-		
-		boolean needOr = false;
-		if (personalDocuments != null && personalDocuments == true) {
-			// Get all of the personal documents. 
-			sql.append(
-				"d.id IN (" +
-					"SELECT dur.document_id " +
-					"FROM document_user_role dur " +
-					"WHERE u.id = dur.user_id" +
-				")");
-			needOr = true;
-		} else {
-			// If campaignIds and classIds are null, get all of the documents
-			// visible to the user.
-			if((campaignIds == null) && (classIds == null)) {
-				sql.append(
-					"(" +
-						"u.admin = true" +
-					") OR (" +
-						"d.id IN (" +
-							"SELECT dur.document_id " +
-							"FROM document_user_role dur " +
-							"WHERE u.id = dur.user_id" +
-						")" +
-					") OR (" +
-						"d.id IN (" +
-							"SELECT dcr.document_id " +
-							"FROM user_role_campaign urc, " +
-								"document_campaign_role dcr " +
-							"WHERE u.id = urc.user_id " +
-							"AND urc.campaign_id = dcr.campaign_id" +
-						")" +
-					") OR (" +
-						"d.id IN (" +
-							"SELECT dcr.document_id " +
-							"FROM user_class uc, document_class_role dcr " +
-							"WHERE u.id = uc.user_id " +
-							"AND uc.class_id = dcr.class_id" +
-						")" +
-					")"
-				);
-			}
-		}
-		
-		
-		if(campaignIds != null && campaignIds.size() > 0) {			
-			if(needOr) {
-				sql.append(" OR ");
-			}
-			
-			sql.append(
-				"d.id IN (" +
-					"SELECT dcr.document_id " +
-					"FROM campaign c, user_role_campaign urc, " +
-						"document_campaign_role dcr " +
-					"WHERE c.urn IN ")
-				.append(
-					StringUtils.generateStatementPList(
-						campaignIds.size()))
-				.append(
-					" AND c.id = urc.campaign_id " +
-					"AND u.id = urc.user_id " +
-					"AND c.id = dcr.campaign_id" +
-				")");
-			needOr = true;
-			
-			sqlParameters.addAll(campaignIds);
-		}
-		
-		if(classIds != null && classIds.size() > 0) {
-			
-			if(needOr) {
-				sql.append(" OR ");
-			}
-			
-			sql.append(
-				"d.id IN (" +
-					"SELECT dcr.document_id " +
-					"FROM class c, user_class uc, " +
-						"document_class_role dcr " +
-					"WHERE c.urn IN ")
-				.append(
-					StringUtils.generateStatementPList(classIds.size()))
-				.append(
-					" AND c.id = uc.class_id " +
-					"AND u.id = uc.user_id " +
-					"AND c.id = dcr.class_id" +
-				")");
-			
-			sqlParameters.addAll(classIds);
-		}
-		
-		sql.append(")");
+				"FROM document d " +
+				"WHERE true");
 		
 		if(nameTokens != null && nameTokens.size() > 0) {
 				
@@ -700,96 +625,80 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			sqlParameters.add(DateTimeUtils.getStringFromDateTime(endDate));
 		}
 		
+		// Each of the attributes adds a parameter, so without any the 
+		// visible documents are the result. Otherwise, the database returns
+		// the documents that match them, which are limited to the visible 
+		// documents here. If there are only a few visible documents, the 
+		// database checks only them.
+		if(visibleDocuments != null) {
+			if(sqlParameters.isEmpty()) {
+				return toList(visibleDocuments);
+			}
+			
+			if(
+				visibleDocuments.getCardinality() <= 
+					MAX_DOCUMENTS_PER_STATEMENT) {
+				
+				sql
+					.append(" AND d.id IN ")
+					.append(
+						StringUtils.generateStatementPList(
+							visibleDocuments.getCardinality()));
+				for(int documentId : visibleDocuments.toArray()) {
+					sqlParameters.add(documentId);
+				}
+			}
+		}
 		
-		// Now, we will tack on the ACL's to limit the results to only those
-		// that are visible to the requesting user. The whole work flow of this
-		// function is bad and should be optimized. But, we have a deadline and
-		// the performance isn't bad.
-		sql.append(
-				" AND (" +
-					// The user is an admin.
-					"(u.admin = true)" +
-					" OR " +
-					// The document is shared.
-					"(dps.privacy_state = '" + 
-						Document.PrivacyState.SHARED + 
-						"'" +
-					")" +
-					// If the document is not public then it must be private,
-					// so the user must have the role of owner and/or writer. 
-					" OR (" +
-						"EXISTS (" +
-							"SELECT dr.id " +
-							"FROM document_role dr " +
-							"WHERE dr.role IN (" +
-						//		"'" + Document.Role.WRITER.toString() + "', " +
-								"'" + Document.Role.OWNER.toString() + "'" +
-							")" +
-							"AND (" +
-								// See if the user is directly related to the 
-								// document with the specified roles.
-								"EXISTS (" +
-									"SELECT dur.id " +
-									"FROM document_user_role dur " +
-									"WHERE d.id = dur.document_id " +
-									"AND u.id = dur.user_id " +
-									"AND dr.id = dur.document_role_id" +
-								")" +
-								// See if the user is related to the document
-								// through a class.
-								" OR EXISTS (" +
-									"SELECT dcr.id " +
-									"FROM document_class_role dcr, " +
-										"user_class uc, user_class_role ucr " +
-									"WHERE d.id = dcr.document_id " +
-									"AND u.id = uc.user_id " +
-									"AND uc.class_id = dcr.class_id " +
-									// The class has the appropriate role or
-									// the user is privileged in that class.
-									"AND (" +	
-										"(dr.id = dcr.document_role_id)" +
-										" OR " +
-										"(" +
-											"uc.user_class_role_id = ucr.id" +
-											" AND " +
-											"ucr.role = '" +
-												Clazz.Role.PRIVILEGED.toString() +
-												"'" +
-										")" +
-									")" +
-								")" +
-								// See if the user is related to the document
-								// through a campaign.
-								" OR EXISTS (" +
-									"SELECT dcr.id " +
-									"FROM document_campaign_role dcr, " +
-										"user_role ur, " +
-										"user_role_campaign urc " +
-									"WHERE d.id = dcr.document_id " +
-									"AND u.id = urc.user_id " +
-									"AND urc.campaign_id = dcr.campaign_id " +
-									// The campaign has the appropriate role or
-									// the user is a supervisor in that 
-									//campaign.
-									"AND (" +
-										"(dr.id = dcr.document_role_id)" +
-										" OR " +
-										"(" +
-											"urc.user_role_id = ur.id" +
-											" AND " +
-											"ur.role = '" +
-												Campaign.Role.SUPERVISOR.toString() +
-												"'" +
-										")" +
-									")" +
-								")" +
-							")" +
-						")" +
-					")" +
-				")");
+		final CompressedBitmap matchingDocuments = new CompressedBitmap();
+		try {
+			getJdbcTemplate().query(
+				sql.toString(), 
+				sqlParameters.toArray(), 
+				new RowCallbackHandler() {
+					/**
+					 * Adds the document to the matching documents.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs) 
+							throws SQLException {
+						
+						matchingDocuments.add(rs.getInt(1));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql.toString() + 
+					"' with parameters: " + sqlParameters, 
+				e);
+		}
 		
+		if(visibleDocuments != null) {
+			matchingDocuments.and(visibleDocuments);
+		}
+		return toList(matchingDocuments);
+	}
 	
-		return sql.toString();
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.IDocumentQueries#getDocumentsSql(java.util.Collection, java.util.Collection)
+	 */
+	@Override
+	public String getDocumentsSql(
+			final Collection<Object> sqlParameters,
+			final Collection<Integer> documentIds) {
+		
+		if(documentIds.isEmpty()) {
+			return "SELECT d.id FROM document d WHERE false";
+		}
+		
+		sqlParameters.addAll(documentIds);
+		return 
+			"SELECT d.id " +
+			"FROM document d " +
+			"WHERE d.id IN " + 
+				StringUtils.generateStatementPList(documentIds.size());
 	}
 	
 	
@@ -923,6 +832,9 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The document's privacy state or roles may have changed.
+			VisibilityIndex.instance().refreshDocument(documentId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while rolling back the transaction.", e);
@@ -971,6 +883,9 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The document is no longer visible to anyone.
+			VisibilityIndex.instance().refreshDocument(documentId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while rolling back the transaction.", e);
@@ -1529,4 +1444,20 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		
 		return directories[directories.length - 1];
 	}
+	
+	/**
+	 * Returns the IDs in a bitmap as a list.
+	 * 
+	 * @param ids The IDs.
+	 * 
+	 * @return The IDs in ascending order.
+	 */
+	private static List<Integer> toList(final CompressedBitmap ids) {
+		int[] array = ids.toArray();
+		List<Integer> result = new ArrayList<Integer>(array.length);
+		for(int id : array) {
+			result.add(id);
+		}
+		return result;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,558 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IExportJobQueries;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * This class contains all of the functionality for creating, reading,
+ * updating, and deleting export jobs.
+ *
+ * @author John Jenkins
+ */
+public final class ExportJobQueries extends Query implements IExportJobQueries {
+	private static final String STATUS_QUEUED =
+		ExportJob.Status.QUEUED.toString();
+	private static final String STATUS_RUNNING =
+		ExportJob.Status.RUNNING.toString();
+	private static final String STATUS_COMPLETE =
+		ExportJob.Status.COMPLETE.toString();
+	private static final String STATUS_FAILED =
+		ExportJob.Status.FAILED.toString();
+
+	// The columns of a job.
+	private static final String SQL_JOB_COLUMNS =
+		"ej.uuid, u.username, ej.export_type, ej.client, ej.parameters, " +
+		"ej.status, ej.content_type, ej.file_size, ej.error, " +
+		"ej.creation_millis, ej.completion_millis, ej.expiration_millis ";
+
+	// Creates a new job.
+	private static final String SQL_INSERT_JOB =
+		"INSERT INTO export_job(" +
+			"uuid, user_id, export_type, client, parameters, " +
+			"parameters_hash, status, creation_millis, expiration_millis) " +
+		"SELECT ?, u.id, ?, ?, ?, ?, '" + STATUS_QUEUED + "', ?, ? " +
+		"FROM user u " +
+		"WHERE u.username = ?";
+
+	// Returns a job.
+	private static final String SQL_GET_JOB =
+		"SELECT " + SQL_JOB_COLUMNS +
+		"FROM export_job ej, user u " +
+		"WHERE ej.uuid = ? " +
+		"AND ej.user_id = u.id";
+
+	// Returns the newest job from a user with the same parameters that may
+	// still be used.
+	private static final String SQL_GET_JOB_BY_PARAMETERS =
+		"SELECT " + SQL_JOB_COLUMNS +
+		"FROM export_job ej, user u " +
+		"WHERE u.username = ? " +
+		"AND ej.user_id = u.id " +
+		"AND ej.parameters_hash = ? " +
+		"AND ej.status != '" + STATUS_FAILED + "' " +
+		"AND ej.expiration_millis > ? " +
+		"ORDER BY ej.id DESC " +
+		"LIMIT 1";
+
+	// Returns the queued jobs, oldest first.
+	private static final String SQL_GET_QUEUED_JOBS =
+		"SELECT " + SQL_JOB_COLUMNS +
+		"FROM export_job ej, user u " +
+		"WHERE ej.status = '" + STATUS_QUEUED + "' " +
+		"AND ej.user_id = u.id " +
+		"ORDER BY ej.id " +
+		"LIMIT ?";
+
+	// Marks a queued job as running.
+	private static final String SQL_UPDATE_JOB_RUNNING =
+		"UPDATE export_job " +
+		"SET status = '" + STATUS_RUNNING + "' " +
+		"WHERE uuid = ? " +
+		"AND status = '" + STATUS_QUEUED + "'";
+
+	// Marks a job as complete.
+	private static final String SQL_UPDATE_JOB_COMPLETE =
+		"UPDATE export_job " +
+		"SET status = '" + STATUS_COMPLETE + "', " +
+			"content_type = ?, " +
+			"file_size = ?, " +
+			"completion_millis = ?, " +
+			"expiration_millis = ? " +
+		"WHERE uuid = ?";
+
+	// Marks a job as failed.
+	private static final String SQL_UPDATE_JOB_FAILED =
+		"UPDATE export_job " +
+		"SET status = '" + STATUS_FAILED + "', " +
+			"error = ?, " +
+			"completion_millis = ?, " +
+			"expiration_millis = ? " +
+		"WHERE uuid = ?";
+
+	// Queues the jobs that were running.
+	private static final String SQL_UPDATE_RUNNING_JOBS_QUEUED =
+		"UPDATE export_job " +
+		"SET status = '" + STATUS_QUEUED + "' " +
+		"WHERE status = '" + STATUS_RUNNING + "'";
+
+	// Returns the IDs of the jobs that have expired.
+	private static final String SQL_GET_EXPIRED_JOB_IDS =
+		"SELECT uuid " +
+		"FROM export_job " +
+		"WHERE expiration_millis <= ?";
+
+	// Deletes a job.
+	private static final String SQL_DELETE_JOB =
+		"DELETE FROM export_job " +
+		"WHERE uuid = ?";
+
+	/**
+	 * Maps a row with the {@link #SQL_JOB_COLUMNS} to a job.
+	 */
+	private static final RowMapper<ExportJob> JOB_ROW_MAPPER =
+		new RowMapper<ExportJob>() {
+			@Override
+			public ExportJob mapRow(
+					final ResultSet rs,
+					final int rowNum)
+					throws SQLException {
+
+				Long fileSize = rs.getLong("file_size");
+				if(rs.wasNull()) {
+					fileSize = null;
+				}
+
+				Long completionMillis = rs.getLong("completion_millis");
+				if(rs.wasNull()) {
+					completionMillis = null;
+				}
+
+				try {
+					return new ExportJob(
+						UUID.fromString(rs.getString("uuid")),
+						rs.getString("username"),
+						ExportJob.Type.getValue(rs.getString("export_type")),
+						rs.getString("client"),
+						decodeParameters(rs.getString("parameters")),
+						ExportJob.Status.getValue(rs.getString("status")),
+						rs.getString("content_type"),
+						fileSize,
+						rs.getString("error"),
+						rs.getLong("creation_millis"),
+						completionMillis,
+						rs.getLong("expiration_millis"));
+				}
+				catch(JSONException e) {
+					throw new SQLException(
+						"The job's parameters are not valid JSON.",
+						e);
+				}
+				catch(IllegalArgumentException e) {
+					throw new SQLException("The job is not valid.", e);
+				}
+			}
+		};
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource A DataSource object to use when querying the database.
+	 */
+	private ExportJobQueries(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#createJob(java.util.UUID, java.lang.String, org.ohmage.domain.ExportJob.Type, java.lang.String, java.util.Map, java.lang.String, long, long)
+	 */
+	@Override
+	public void createJob(
+			final UUID id,
+			final String username,
+			final ExportJob.Type type,
+			final String client,
+			final Map<String, String[]> parameters,
+			final String parametersHash,
+			final long creationMillis,
+			final long expirationMillis)
+			throws DataAccessException {
+
+		String encodedParameters;
+		try {
+			encodedParameters = encodeParameters(parameters);
+		}
+		catch(JSONException e) {
+			throw new DataAccessException(
+				"The parameters could not be encoded.",
+				e);
+		}
+
+		try {
+			getJdbcTemplate().update(
+				SQL_INSERT_JOB,
+				id.toString(),
+				type.toString(),
+				client,
+				encodedParameters,
+				parametersHash,
+				creationMillis,
+				expirationMillis,
+				username);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_INSERT_JOB +
+						"' with parameters: " +
+						id + ", " +
+						type + ", " +
+						client + ", " +
+						encodedParameters + ", " +
+						parametersHash + ", " +
+						creationMillis + ", " +
+						expirationMillis + ", " +
+						username,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#getJob(java.util.UUID)
+	 */
+	@Override
+	public ExportJob getJob(final UUID id) throws DataAccessException {
+		try {
+			List<ExportJob> result =
+				getJdbcTemplate().query(
+					SQL_GET_JOB,
+					new Object[] { id.toString() },
+					JOB_ROW_MAPPER);
+
+			if(result.isEmpty()) {
+				return null;
+			}
+			return result.get(0);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_JOB +
+						"' with parameter: " +
+						id,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#getJobByParameters(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public ExportJob getJobByParameters(
+			final String username,
+			final String parametersHash,
+			final long nowMillis)
+			throws DataAccessException {
+
+		try {
+			List<ExportJob> result =
+				getJdbcTemplate().query(
+					SQL_GET_JOB_BY_PARAMETERS,
+					new Object[] { username, parametersHash, nowMillis },
+					JOB_ROW_MAPPER);
+
+			if(result.isEmpty()) {
+				return null;
+			}
+			return result.get(0);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_JOB_BY_PARAMETERS +
+						"' with parameters: " +
+						username + ", " +
+						parametersHash + ", " +
+						nowMillis,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#getQueuedJobs(int)
+	 */
+	@Override
+	public List<ExportJob> getQueuedJobs(
+			final int limit)
+			throws DataAccessException {
+
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_QUEUED_JOBS,
+				new Object[] { limit },
+				JOB_ROW_MAPPER);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_QUEUED_JOBS +
+						"' with parameter: " +
+						limit,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#startJob(java.util.UUID)
+	 */
+	@Override
+	public boolean startJob(final UUID id) throws DataAccessException {
+		try {
+			return
+				getJdbcTemplate().update(
+					SQL_UPDATE_JOB_RUNNING,
+					id.toString()) > 0;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_UPDATE_JOB_RUNNING +
+						"' with parameter: " +
+						id,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#completeJob(java.util.UUID, java.lang.String, long, long, long)
+	 */
+	@Override
+	public void completeJob(
+			final UUID id,
+			final String contentType,
+			final long fileSize,
+			final long completionMillis,
+			final long expirationMillis)
+			throws DataAccessException {
+
+		try {
+			getJdbcTemplate().update(
+				SQL_UPDATE_JOB_COMPLETE,
+				contentType,
+				fileSize,
+				completionMillis,
+				expirationMillis,
+				id.toString());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_UPDATE_JOB_COMPLETE +
+						"' with parameters: " +
+						contentType + ", " +
+						fileSize + ", " +
+						completionMillis + ", " +
+						expirationMillis + ", " +
+						id,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#failJob(java.util.UUID, java.lang.String, long, long)
+	 */
+	@Override
+	public void failJob(
+			final UUID id,
+			final String error,
+			final long completionMillis,
+			final long expirationMillis)
+			throws DataAccessException {
+
+		try {
+			getJdbcTemplate().update(
+				SQL_UPDATE_JOB_FAILED,
+				error,
+				completionMillis,
+				expirationMillis,
+				id.toString());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_UPDATE_JOB_FAILED +
+						"' with parameters: " +
+						error + ", " +
+						completionMillis + ", " +
+						expirationMillis + ", " +
+						id,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#requeueRunningJobs()
+	 */
+	@Override
+	public int requeueRunningJobs() throws DataAccessException {
+		try {
+			return getJdbcTemplate().update(SQL_UPDATE_RUNNING_JOBS_QUEUED);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_UPDATE_RUNNING_JOBS_QUEUED +
+						"'.",
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#getExpiredJobIds(long)
+	 */
+	@Override
+	public List<UUID> getExpiredJobIds(
+			final long nowMillis)
+			throws DataAccessException {
+
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_EXPIRED_JOB_IDS,
+				new Object[] { nowMillis },
+				new RowMapper<UUID>() {
+					@Override
+					public UUID mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+
+						return UUID.fromString(rs.getString("uuid"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_EXPIRED_JOB_IDS +
+						"' with parameter: " +
+						nowMillis,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IExportJobQueries#deleteJob(java.util.UUID)
+	 */
+	@Override
+	public void deleteJob(final UUID id) throws DataAccessException {
+		try {
+			getJdbcTemplate().update(SQL_DELETE_JOB, id.toString());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_DELETE_JOB +
+						"' with parameter: " +
+						id,
+					e);
+		}
+	}
+
+	/**
+	 * Encodes a map of parameters as a JSON object of parameter keys to
+	 * arrays of their values.
+	 *
+	 * @param parameters The parameters.
+	 *
+	 * @return The encoded parameters.
+	 *
+	 * @throws JSONException There was an error building the JSON.
+	 */
+	private static String encodeParameters(
+			final Map<String, String[]> parameters)
+			throws JSONException {
+
+		JSONObject result = new JSONObject();
+		for(Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			JSONArray values = new JSONArray();
+			for(String value : parameter.getValue()) {
+				values.put(value);
+			}
+			result.put(parameter.getKey(), values);
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Decodes the parameters encoded by
+	 * {@link #encodeParameters(Map)}.
+	 *
+	 * @param parameters The encoded parameters.
+	 *
+	 * @return The map of parameter keys to their values.
+	 *
+	 * @throws JSONException The parameters are not valid.
+	 */
+	private static Map<String, String[]> decodeParameters(
+			final String parameters)
+			throws JSONException {
+
+		JSONObject json = new JSONObject(parameters);
+
+		Map<String, String[]> result = new HashMap<String, String[]>();
+		Iterator<?> keys = json.keys();
+		while(keys.hasNext()) {
+			String key = (String) keys.next();
+
+			JSONArray jsonValues = json.getJSONArray(key);
+			String[] values = new String[jsonValues.length()];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = jsonValues.getString(i);
+			}
+
+			result.put(key, values);
+		}
+
+		return result;
+	}
+}
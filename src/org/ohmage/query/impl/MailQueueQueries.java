@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.ohmage.domain.QueuedMail;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IMailQueueQueries;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * This class contains all of the functionality for the outbound mail queue.
+ *
+ * @author John Jenkins
+ */
+public final class MailQueueQueries extends Query implements IMailQueueQueries {
+	private static final String STATUS_PENDING = "pending";
+	private static final String STATUS_SENDING = "sending";
+	private static final String STATUS_FAILED = "failed";
+
+	// Adds a message to the queue. A password recovery message refers to
+	// its user, whose new password is added when it is sent.
+	private static final String SQL_INSERT_MAIL =
+		"INSERT INTO mail_queue(" +
+			"sender, recipient, subject, content, content_type, " +
+			"password_recovery_user_id, " +
+			"status, next_attempt_millis, creation_timestamp) " +
+		"VALUES (" +
+			"?, ?, ?, ?, ?, " +
+			"(SELECT id FROM user WHERE username = ?), " +
+			"'" + STATUS_PENDING + "', ?, now())";
+
+	// Returns the messages that are due, oldest first. This includes the
+	// messages whose claim has expired because whoever claimed them died
+	// before recording the outcome.
+	private static final String SQL_GET_DUE_MAIL =
+		"SELECT mq.id, mq.sender, mq.recipient, mq.subject, mq.content, " +
+			"mq.content_type, u.username AS password_recovery_username, " +
+			"mq.attempts " +
+		"FROM mail_queue mq " +
+			"LEFT JOIN user u ON u.id = mq.password_recovery_user_id " +
+		"WHERE mq.status IN ('" + STATUS_PENDING + "', '" + STATUS_SENDING + "') " +
+		"AND mq.next_attempt_millis <= ? " +
+		"ORDER BY mq.id " +
+		"LIMIT ?";
+
+	// Claims a message that is due. The row lock serializes competing
+	// claims and the first one moves the next attempt past the others' 
+	// "now", so exactly one of them updates the row.
+	private static final String SQL_CLAIM_MAIL =
+		"UPDATE mail_queue " +
+		"SET status = '" + STATUS_SENDING + "', next_attempt_millis = ? " +
+		"WHERE id = ? " +
+		"AND status IN ('" + STATUS_PENDING + "', '" + STATUS_SENDING + "') " +
+		"AND next_attempt_millis <= ?";
+
+	// Removes a message from the queue.
+	private static final String SQL_DELETE_MAIL =
+		"DELETE FROM mail_queue " +
+		"WHERE id = ?";
+
+	// Records a failure and when to try again.
+	private static final String SQL_UPDATE_MAIL_RETRY =
+		"UPDATE mail_queue " +
+		"SET attempts = attempts + 1, status = '" + STATUS_PENDING + "', " +
+			"next_attempt_millis = ?, last_error = ? " +
+		"WHERE id = ?";
+
+	// Records a failure after which the message is given up on. The body is
+	// cleared as it may hold a secret, such as a registration link, that
+	// should not be kept at rest once it will no longer be sent.
+	private static final String SQL_UPDATE_MAIL_FAILED =
+		"UPDATE mail_queue " +
+		"SET attempts = attempts + 1, status = '" + STATUS_FAILED + "', " +
+			"content = '', last_error = ? " +
+		"WHERE id = ?";
+
+	// Counts the messages that have not been sent or given up on.
+	private static final String SQL_COUNT_PENDING_MAIL =
+		"SELECT COUNT(id) " +
+		"FROM mail_queue " +
+		"WHERE status IN ('" + STATUS_PENDING + "', '" + STATUS_SENDING + "')";
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource A DataSource object to use when querying the database.
+	 */
+	private MailQueueQueries(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#queueMail(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void queueMail(
+			final String sender,
+			final String recipient,
+			final String subject,
+			final String content,
+			final String contentType,
+			final String passwordRecoveryUsername,
+			final long nowMillis)
+			throws DataAccessException {
+
+		try {
+			getJdbcTemplate().update(
+				SQL_INSERT_MAIL,
+				sender,
+				recipient,
+				subject,
+				content,
+				contentType,
+				passwordRecoveryUsername,
+				nowMillis);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_INSERT_MAIL +
+						"' with parameters: " +
+						sender + ", " +
+						recipient + ", " +
+						subject + ", " +
+						"<content>, " +
+						contentType + ", " +
+						passwordRecoveryUsername + ", " +
+						nowMillis,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#getDueMail(long, int)
+	 */
+	@Override
+	public List<QueuedMail> getDueMail(
+			final long nowMillis,
+			final int limit)
+			throws DataAccessException {
+
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_DUE_MAIL,
+				new Object[] { nowMillis, limit },
+				new RowMapper<QueuedMail>() {
+					@Override
+					public QueuedMail mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+
+						return new QueuedMail(
+							rs.getLong("id"),
+							rs.getString("sender"),
+							rs.getString("recipient"),
+							rs.getString("subject"),
+							rs.getString("content"),
+							rs.getString("content_type"),
+							rs.getString("password_recovery_username"),
+							rs.getInt("attempts"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_DUE_MAIL +
+						"' with parameters: " +
+						nowMillis + ", " +
+						limit,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#claimMail(long, long, long)
+	 */
+	@Override
+	public boolean claimMail(
+			final long id,
+			final long nowMillis,
+			final long claimMillis)
+			throws DataAccessException {
+
+		try {
+			return
+				getJdbcTemplate().update(
+					SQL_CLAIM_MAIL,
+					nowMillis + claimMillis,
+					id,
+					nowMillis) == 1;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_CLAIM_MAIL +
+						"' with parameters: " +
+						(nowMillis + claimMillis) + ", " +
+						id + ", " +
+						nowMillis,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#deleteMail(long)
+	 */
+	@Override
+	public void deleteMail(final long id) throws DataAccessException {
+		try {
+			getJdbcTemplate().update(SQL_DELETE_MAIL, id);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_DELETE_MAIL +
+						"' with parameter: " +
+						id,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#recordMailFailure(long, java.lang.Long, java.lang.String)
+	 */
+	@Override
+	public void recordMailFailure(
+			final long id,
+			final Long nextAttemptMillis,
+			final String error)
+			throws DataAccessException {
+
+		if(nextAttemptMillis == null) {
+			try {
+				getJdbcTemplate().update(SQL_UPDATE_MAIL_FAILED, error, id);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" +
+							SQL_UPDATE_MAIL_FAILED +
+							"' with parameters: " +
+							error + ", " +
+							id,
+						e);
+			}
+		}
+		else {
+			try {
+				getJdbcTemplate().update(
+					SQL_UPDATE_MAIL_RETRY,
+					nextAttemptMillis,
+					error,
+					id);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" +
+							SQL_UPDATE_MAIL_RETRY +
+							"' with parameters: " +
+							nextAttemptMillis + ", " +
+							error + ", " +
+							id,
+						e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailQueueQueries#getPendingMailCount()
+	 */
+	@Override
+	public long getPendingMailCount() throws DataAccessException {
+		try {
+			return getJdbcTemplate().queryForLong(SQL_COUNT_PENDING_MAIL);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + SQL_COUNT_PENDING_MAIL + "'.",
+					e);
+		}
+	}
+}
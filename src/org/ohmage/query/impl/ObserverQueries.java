@@ -1,5 +1,6 @@
 package org.ohmage.query.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -8,10 +9,13 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -29,12 +33,15 @@ import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Observer;
 import org.ohmage.domain.Observer.Stream;
+import org.ohmage.domain.ObserverRegistry;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.IObserverQueries;
 import org.ohmage.service.ObserverServices.InvalidPoint;
 import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -52,6 +59,160 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author John Jenkins
  */
 public class ObserverQueries extends Query implements IObserverQueries {
+	// Retrieves every version of every observer.
+	// Retrieves a summary of the observer definitions that changes whenever
+	// one is added or deleted. Observers and streams are never updated in
+	// place; a new version is a new row and a new stream always has a new
+	// link.
+	static final String SQL_GET_REGISTRY_VERSION =
+		"SELECT " +
+			"(SELECT COUNT(id) FROM observer), " +
+			"(SELECT MAX(id) FROM observer), " +
+			"(SELECT COUNT(id) FROM observer_stream_link), " +
+			"(SELECT MAX(id) FROM observer_stream_link)";
+	
+	static final String SQL_GET_ALL_OBSERVERS =
+		"SELECT id, observer_id, version, name, description, version_string " +
+		"FROM observer";
+	
+	// Retrieves every stream along with the observers to which it belongs.
+	static final String SQL_GET_ALL_STREAMS =
+		"SELECT " +
+			"osl.observer_id, " +
+			"os.id, " +
+			"os.stream_id, " +
+			"os.version, " +
+			"os.name, " +
+			"os.description, " +
+			"os.with_id, " +
+			"os.with_timestamp, " +
+			"os.with_location, " +
+			"os.stream_schema, " +
+			"os.storage " +
+		"FROM observer_stream os, observer_stream_link osl " +
+		"WHERE osl.observer_stream_id = os.id";
+	
+	/**
+	 * The table of the columnar streams' chunks.
+	 */
+	private static final String TABLE_COLUMNAR_CHUNKS = 
+		"observer_stream_data_chunk";
+	
+	/**
+	 * The table of the archived chunks.
+	 */
+	private static final String TABLE_ARCHIVED_CHUNKS = 
+		"observer_stream_data_archive";
+	
+	/**
+	 * The adjusted time that is stored for a point without a timestamp. The
+	 * stream data's adjusted time is part of its unique key, which would not
+	 * keep points with no adjusted time from being stored twice, so it is
+	 * never null. This is the smallest time, so the points without one are
+	 * in the first partition and are never within a range of times.
+	 */
+	static final long NO_TIME_ADJUSTED = Long.MIN_VALUE;
+	
+	/**
+	 * Orders data streams by their timestamps, the same as the stream data
+	 * table's "time" column, which is used when archived data is merged with
+	 * the table's data.
+	 */
+	static final Comparator<DataStream> DATA_STREAM_TIME_COMPARATOR =
+		new Comparator<DataStream>() {
+			/**
+			 * Compares the streams' timestamps. A stream without a 
+			 * timestamp is first.
+			 */
+			@Override
+			public int compare(final DataStream first, final DataStream second) {
+				long firstTime = getTime(first);
+				long secondTime = getTime(second);
+				return 
+					(firstTime < secondTime) ? 
+						-1 : 
+						((firstTime == secondTime) ? 0 : 1);
+			}
+			
+			/**
+			 * Returns a stream's time or the smallest time if it has none.
+			 */
+			private long getTime(final DataStream dataStream) {
+				MetaData metaData = dataStream.getMetaData();
+				if((metaData == null) || (metaData.getTimestamp() == null)) {
+					return Long.MIN_VALUE;
+				}
+				return metaData.getTimestamp().getMillis();
+			}
+		};
+	
+	/**
+	 * Orders the points of a columnar stream by their adjusted times, which
+	 * is the order in which they are put in a chunk. A point without an
+	 * adjusted time is first.
+	 */
+	private static final Comparator<StreamDataChunk.Point> 
+		POINT_TIME_ADJUSTED_COMPARATOR =
+			new Comparator<StreamDataChunk.Point>() {
+				/**
+				 * Compares the points' adjusted times.
+				 */
+				@Override
+				public int compare(
+						final StreamDataChunk.Point first, 
+						final StreamDataChunk.Point second) {
+					
+					long firstTime = 
+						(first.getTimeAdjusted() == null) ?
+							Long.MIN_VALUE :
+							first.getTimeAdjusted();
+					long secondTime = 
+						(second.getTimeAdjusted() == null) ?
+							Long.MIN_VALUE :
+							second.getTimeAdjusted();
+					return 
+						(firstTime < secondTime) ? 
+							-1 : 
+							((firstTime == secondTime) ? 0 : 1);
+				}
+			};
+	
+	/**
+	 * The most that a time zone's offset may be from UTC, in either 
+	 * direction.
+	 */
+	private static final long MAX_TIME_ZONE_OFFSET_MILLIS = 14 * 60 * 60 * 1000;
+	
+	/**
+	 * The number of milliseconds for which the registry is used without
+	 * checking whether another server has changed the observers.
+	 */
+	static final long REGISTRY_CHECK_MILLIS = 1000 * 5;
+	
+	/**
+	 * The definitions of all of the observers, which are loaded when they are
+	 * first needed and discarded whenever an observer is created or updated
+	 * by this server or is found to have been by another one.
+	 */
+	private volatile ObserverRegistry registry = null;
+	
+	/**
+	 * The version of the observer definitions the registry was loaded from.
+	 * Guarded by the registry lock.
+	 */
+	private String registryVersion = null;
+	
+	/**
+	 * When the registry's version was last checked.
+	 */
+	private volatile long registryCheckedMillis = 0;
+	
+	/**
+	 * The lock that is held while the registry is being loaded, checked, or
+	 * discarded.
+	 */
+	private final Object registryLock = new Object();
+	
 	/**
 	 * Creates this object via dependency injection (reflection).
 	 * 
@@ -61,6 +222,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 	private ObserverQueries(DataSource dataSource) {
 		super(dataSource);
 	}
+	
+	/**
+	 * Creates this object around a JDBC template. This is only used by the
+	 * tests.
+	 * 
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 */
+	ObserverQueries(final JdbcTemplate jdbcTemplate) {
+		super(jdbcTemplate);
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -159,8 +330,9 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"with_id, " +
 					"with_timestamp, " +
 					"with_location, " +
-					"stream_schema)" +
-				"VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+					"stream_schema, " +
+					"storage)" +
+				"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			
 			// For each stream, insert it and link it to the observer.
 			for(final Stream stream : observer.getStreamsMap().values()) {
@@ -205,6 +377,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 									e);
 							}
 							
+							ps.setString(9, stream.getStorage().toString());
+							
 							return ps;
 						}
 
@@ -230,7 +404,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 							stream.getWithId() + ", " +
 							stream.getWithTimestamp() + ", " +
 							stream.getWithLocation() + ", " +
-							stream.getSchema().toString(),
+							stream.getSchema().toString() + ", " +
+							stream.getStorage(),
 						e);
 				}
 				
@@ -279,6 +454,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				"Error while attempting to rollback the transaction.",
 				e);
 		}
+		
+		invalidateRegistry();
 	}
 
 	/*
@@ -365,192 +542,7 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final long numToReturn)
 			throws DataAccessException {
 		
-		// Build the SQL that will get all of the observers visible to the 
-		// requesting user.
-		StringBuilder observerSql =
-			new StringBuilder(
-				"SELECT " +
-					"id, " +
-					"observer_id, " +
-					"version, " +
-					"name, " +
-					"description, " +
-					"version_string " +
-				"FROM observer o");
-
-		List<String> whereClauses = new LinkedList<String>();
-		List<Object> parameters = new LinkedList<Object>();
-		
-		// Add the ID if it is present.
-		if(id != null) {
-			whereClauses.add("o.observer_id = ?");
-			parameters.add(id);
-		}
-		
-		// Add the version if present.
-		if(version != null) {
-			whereClauses.add("o.version = ?");
-			parameters.add(version);
-		}
-		
-		// Add the WHERE clauses to the query.
-		boolean firstPass = true;
-		for(String whereClause : whereClauses) {
-			if(firstPass) {
-				observerSql.append(" WHERE ");
-				firstPass = false;
-			}
-			else {
-				observerSql.append(" AND ");
-			}
-			
-			observerSql.append(whereClause);
-		}
-		
-		observerSql.append(" ORDER BY o.observer_id ASC, o.version DESC");
-		
-		observerSql.append(" LIMIT ?, ?");
-		parameters.add(numToSkip);
-		parameters.add(numToReturn);
-		
-		final Map<Long, Observer.Builder> observerBuilders = 
-			new HashMap<Long, Observer.Builder>();
-		try {
-			getJdbcTemplate().query(
-				observerSql.toString(),
-				parameters.toArray(),
-				new RowMapper<Object> () {
-					/**
-					 * Maps the row of data to a new observer builder.
-					 */
-					@Override
-					public Object mapRow(
-							final ResultSet rs, 
-							final int rowNum)
-							throws SQLException {
-					
-						Observer.Builder observerBuilder = 
-							new Observer.Builder();
-						
-						observerBuilder
-							.setId(rs.getString("observer_id"))
-							.setVersion(rs.getLong("version"))
-							.setName(rs.getString("name"))
-							.setDescription(rs.getString("description"))
-							.setVersionString(
-								rs.getString("version_string"));
-	
-						observerBuilders.put(
-							rs.getLong("id"), 
-							observerBuilder);
-						
-						return null;
-					}
-				}
-			);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-				"Error executing SQL '" +
-					observerSql +
-					"' with parameters: " +
-					parameters,
-				e);
-		}
-		
-		final String streamSql = 
-			"SELECT " +
-				"os.stream_id, " +
-				"os.version, " +
-				"os.name, " +
-				"os.description, " +
-				"os.with_id, " +
-				"os.with_timestamp, " +
-				"os.with_location, " +
-				"os.stream_schema " +
-			"FROM observer_stream os, observer_stream_link osl " +
-			"WHERE osl.observer_id = ? " +
-			"AND osl.observer_stream_id = os.id";
-		
-		for(Long dbId : observerBuilders.keySet()) {
-			try {
-				observerBuilders
-				.get(dbId)
-				.addStreams(
-					getJdbcTemplate().query(
-						streamSql, 
-						new Object[] { dbId },
-						new RowMapper<Observer.Stream>() {
-							/**
-							 * Maps the row of data to a new stream.
-							 */
-							@Override
-							public Stream mapRow(
-									final ResultSet rs, 
-									final int rowNum)
-									throws SQLException {
-								
-								// Because the with_* values are optional and
-								// may be null, they must be retrieve in this
-								// special way.
-								Boolean withId, withTimestamp, withLocation;
-								withId = rs.getBoolean("with_id");
-								if(rs.wasNull()) {
-									withId = null;
-								}
-								withTimestamp =
-									rs.getBoolean("with_timestamp");
-								if(rs.wasNull()) {
-									withTimestamp = null;
-								}
-								withLocation = rs.getBoolean("with_location");
-								if(rs.wasNull()) {
-									withLocation = null;
-								}
-								
-								try {
-									return new Observer.Stream(
-										rs.getString("stream_id"), 
-										rs.getLong("version"), 
-										rs.getString("name"), 
-										rs.getString("description"), 
-										withId,
-										withTimestamp, 
-										withLocation, 
-										rs.getString("stream_schema"));
-								}
-								catch(DomainException e) {
-									throw new SQLException(e);
-								}
-							}
-						}
-					)
-				);
-			}
-			catch(org.springframework.dao.DataAccessException e) {
-				throw new DataAccessException(
-					"Error executing SQL '" +
-						streamSql +
-						"' with parameter: " +
-						dbId,
-					e);
-			}
-		}
-		
-		ArrayList<Observer> result = 
-			new ArrayList<Observer>(observerBuilders.size());
-		for(Observer.Builder observerBuilder : observerBuilders.values()) {
-			try {
-				result.add(observerBuilder.build());
-			}
-			catch(DomainException e) {
-				throw new DataAccessException(
-					"There was a problem building an observer.",
-					e);
-			}
-		}
-		
-		return result;
+		return getRegistry().getObservers(id, version, numToSkip, numToReturn);
 	}
 	
 	/*
@@ -600,19 +592,28 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			return Collections.emptyMap();
 		}
 		
-		// Create the default SQL.
+		final ObserverRegistry currentRegistry = getRegistry();
+		
+		// Without a user, everything comes from the registry.
+		if(username == null) {
+			return 
+				currentRegistry.getStreams(
+					observerId, 
+					observerVersion, 
+					streamId, 
+					streamVersion, 
+					numToSkip, 
+					numToReturn);
+		}
+		
+		// Otherwise, only the keys of the streams for which the user has
+		// data are read, and the definitions come from the registry.
 		StringBuilder sqlBuilder = 
 			new StringBuilder(
 				"SELECT DISTINCT " +
 					"o.observer_id, " +
 					"os.stream_id, " +
-					"os.version, " +
-					"os.name, " +
-					"os.description, " +
-					"os.with_id, " +
-					"os.with_timestamp, " +
-					"os.with_location, " +
-					"os.stream_schema " +
+					"os.version " +
 				"FROM " +
 					"observer o, " +
 					"observer_stream os, " +
@@ -623,19 +624,38 @@ public class ObserverQueries extends Query implements IObserverQueries {
 		// Create the default set of parameters.
 		List<Object> parameters = new LinkedList<Object>();
 		
-		if(username != null) {
-			sqlBuilder
-				.append(
-					" AND EXISTS (" +
+		// Limit the streams to those for which the user has uploaded data,
+		// whether it is in the stream data table, an archived chunk, or a
+		// columnar stream's chunk.
+		sqlBuilder
+			.append(
+				" AND (" +
+					"EXISTS (" +
 						"SELECT osd.id " +
 						"FROM user u, observer_stream_data osd " +
 						"WHERE u.username = ? " +
 						"AND u.id = osd.user_id " +
 						"AND osl.id = osd.observer_stream_link_id" +
-					")"
-				);
-			parameters.add(username);
-		}
+					") " +
+					"OR EXISTS (" +
+						"SELECT osda.id " +
+						"FROM user u, observer_stream_data_archive osda " +
+						"WHERE u.username = ? " +
+						"AND u.id = osda.user_id " +
+						"AND osl.id = osda.observer_stream_link_id" +
+					") " +
+					"OR EXISTS (" +
+						"SELECT osdc.id " +
+						"FROM user u, observer_stream_data_chunk osdc " +
+						"WHERE u.username = ? " +
+						"AND u.id = osdc.user_id " +
+						"AND osl.id = osdc.observer_stream_link_id" +
+					")" +
+				")"
+			);
+		parameters.add(username);
+		parameters.add(username);
+		parameters.add(username);
 			
 		// If querying about the observer's ID, add that WHERE clause and
 		// add the parameter.
@@ -706,40 +726,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 							result.put(observerId, streams);
 						}
 						
-						// Because the with_* values are optional and
-						// may be null, they must be retrieve in this
-						// special way.
-						Boolean withId, withTimestamp, withLocation;
-						withId = rs.getBoolean("with_id");
-						if(rs.wasNull()) {
-							withId = null;
-						}
-						withTimestamp =
-							rs.getBoolean("with_timestamp");
-						if(rs.wasNull()) {
-							withTimestamp = null;
-						}
-						withLocation = rs.getBoolean("with_location");
-						if(rs.wasNull()) {
-							withLocation = null;
-						}
-						
-						// Add the stream to its respective result list.
-						try {
-							streams
-								.add(
-									new Observer.Stream(
-										rs.getString("stream_id"), 
-										rs.getLong("version"), 
-										rs.getString("name"), 
-										rs.getString("description"), 
-										withId,
-										withTimestamp, 
-										withLocation, 
-										rs.getString("stream_schema")));
-						}
-						catch(DomainException e) {
-							throw new SQLException(e);
+						// Get the stream's definition. It may be missing if
+						// the stream was created after the registry was
+						// loaded by another server.
+						Observer.Stream stream =
+							currentRegistry.getStream(
+								observerId, 
+								rs.getString("stream_id"), 
+								rs.getLong("version"));
+						if(stream != null) {
+							streams.add(stream);
 						}
 						
 						// Return nothing as it will never be used.
@@ -860,78 +856,359 @@ public class ObserverQueries extends Query implements IObserverQueries {
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.ohmage.query.IObserverQueries#storeData(java.lang.String, java.util.Collection)
+	 * @see org.ohmage.query.IObserverQueries#getDuplicateChunkIds(java.lang.String, java.lang.String, java.lang.String, java.lang.Long, java.lang.Long, boolean, java.util.Collection)
 	 */
 	@Override
-	public void storeData(
+	public Collection<String> getDuplicateChunkIds(
 			final String username,
-			final Observer observer,
-			final Collection<DataStream> data)
+			final String observerId,
+			final String streamId,
+			final Long startTimeAdjusted,
+			final Long endTimeAdjusted,
+			final boolean withoutTime,
+			final Collection<String> idsToCheck)
 			throws DataAccessException {
 		
-		String sql =
-			"INSERT INTO observer_stream_data (" +
-				"user_id, " +
-				"observer_stream_link_id, " +
-				"uid, " +
-				"time, " +
-				"time_offset, " +
-				"time_adjusted, " +
-				"time_zone, " +
-				"location_timestamp, " +
-				"location_latitude, " +
-				"location_longitude, " +
-				"location_accuracy, " +
-				"location_provider, " +
-				"data) " +
-			"VALUES (" +
-				"(SELECT id FROM user WHERE username = ?), " +
-				"(" +
-					"SELECT osl.id " +
-					"FROM " +
-						"observer o, " +
-						"observer_stream os, " +
-						"observer_stream_link osl " +
-					"WHERE o.observer_id = ? " +
-					"AND o.version = ? " +
-					"AND os.stream_id = ? " +
-					"AND os.version = ? " +
-					"AND o.id = osl.observer_id " +
-					"AND os.id = osl.observer_stream_id" +
-				"), " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?)";
+		if(idsToCheck.isEmpty()) {
+			return Collections.emptyList();
+		}
 		
-		List<Object[]> args = new ArrayList<Object[]>(data.size());
-		for(DataStream currData : data) {
-			MetaData metaData = currData.getMetaData();
-			String id = null;
-			DateTime timestamp = null;
-			Location location = null;
-			if(metaData != null) {
-				id = metaData.getId();
-				timestamp = metaData.getTimestamp();
-				location = metaData.getLocation();
-			}
-			
-			Long time = (timestamp == null) ? null : timestamp.getMillis();
-			Integer timeOffset = 
-				(timestamp == null) ? 
-					null : 
-					timestamp.getZone().getOffset(timestamp);
-			Long timeAdjusted =
-				(timestamp == null) ? null : time + timeOffset;
-			String timeZoneId = 
-				(timestamp == null) ? null : timestamp.getZone().getID();
+		StringBuilder sqlBuilder =
+			new StringBuilder(
+				"SELECT osdc.id, osdc.data " +
+				"FROM " +
+					"user u, " +
+					"observer o, " +
+					"observer_stream os, " +
+					"observer_stream_link osl, " +
+					"observer_stream_data_chunk osdc " +
+				"WHERE u.username = ? " +
+				"AND o.observer_id = ? " +
+				"AND o.id = osl.observer_id " +
+				"AND osl.observer_stream_id = os.id " +
+				"AND os.stream_id = ? " +
+				"AND u.id = osdc.user_id " +
+				"AND osl.id = osdc.observer_stream_link_id " +
+				"AND (");
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(username);
+		parameters.add(observerId);
+		parameters.add(streamId);
+		
+		if(startTimeAdjusted == null) {
+			sqlBuilder.append("FALSE");
+		}
+		else {
+			// A chunk never covers more than one window, so the lower bound
+			// on its earliest time lets the index limit the chunks to a
+			// range rather than all of the user's chunks before the end.
+			sqlBuilder
+				.append(
+					"(" +
+						"osdc.time_adjusted_min >= ? " +
+						"AND osdc.time_adjusted_min <= ? " +
+						"AND osdc.time_adjusted_max >= ?" +
+					")");
+			parameters.add(
+				startTimeAdjusted - ColumnarStreamChunk.WINDOW_MILLIS);
+			parameters.add(endTimeAdjusted);
+			parameters.add(startTimeAdjusted);
+		}
+		
+		if(withoutTime) {
+			sqlBuilder.append(" OR osdc.time_adjusted_min IS NULL");
+		}
+		sqlBuilder.append(")");
+		
+		// Only the IDs are decoded from each chunk, as it is read.
+		final Set<String> ids = new HashSet<String>(idsToCheck);
+		final Collection<String> result = new HashSet<String>();
+		try {
+			getJdbcTemplate().query(
+				sqlBuilder.toString(),
+				parameters.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Adds the chunk's IDs that are being checked.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						String[] chunkUids;
+						try {
+							chunkUids =
+								ColumnarStreamChunk.decodeUids(
+									rs.getBytes("osdc.data"));
+						}
+						catch(IOException e) {
+							throw new SQLException(
+								"The stream data chunk could not be " +
+									"read: " +
+									rs.getLong("osdc.id"),
+								e);
+						}
+						
+						for(String uid : chunkUids) {
+							if((uid != null) && ids.contains(uid)) {
+								result.add(uid);
+							}
+						}
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sqlBuilder.toString() +
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+		
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#getDuplicateArchivedIds(java.lang.String, java.lang.String, java.lang.String, java.lang.Long, java.lang.Long, boolean, java.util.Collection)
+	 */
+	@Override
+	public Collection<String> getDuplicateArchivedIds(
+			final String username,
+			final String observerId,
+			final String streamId,
+			final Long startTimeAdjusted,
+			final Long endTimeAdjusted,
+			final boolean withoutTime,
+			final Collection<String> idsToCheck)
+			throws DataAccessException {
+		
+		if(idsToCheck.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		StringBuilder sqlBuilder =
+			new StringBuilder(
+				"SELECT osda.file_path " +
+				"FROM " +
+					"user u, " +
+					"observer o, " +
+					"observer_stream os, " +
+					"observer_stream_link osl, " +
+					"observer_stream_data_archive osda " +
+				"WHERE u.username = ? " +
+				"AND o.observer_id = ? " +
+				"AND o.id = osl.observer_id " +
+				"AND osl.observer_stream_id = os.id " +
+				"AND os.stream_id = ? " +
+				"AND u.id = osda.user_id " +
+				"AND osl.id = osda.observer_stream_link_id");
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(username);
+		parameters.add(observerId);
+		parameters.add(streamId);
+		
+		// The points without an adjusted time were in the first partition
+		// when they were archived, which may have been any of them.
+		if(! withoutTime) {
+			if(startTimeAdjusted == null) {
+				return Collections.emptyList();
+			}
+			
+			sqlBuilder
+				.append(
+					" AND osda.time_adjusted_min <= ? " +
+					"AND osda.time_adjusted_max >= ?");
+			parameters.add(endTimeAdjusted);
+			parameters.add(startTimeAdjusted);
+		}
+		
+		List<String> filePaths;
+		try {
+			filePaths =
+				getJdbcTemplate().query(
+					sqlBuilder.toString(),
+					parameters.toArray(),
+					new SingleColumnRowMapper<String>());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sqlBuilder.toString() +
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+		
+		Set<String> ids = new HashSet<String>(idsToCheck);
+		Collection<String> result = new HashSet<String>();
+		for(String filePath : filePaths) {
+			List<StreamDataChunk.Point> points;
+			try {
+				points = StreamDataChunk.read(new File(filePath), null, null);
+			}
+			catch(IOException e) {
+				throw new DataAccessException(
+					"The archived stream data could not be read: " + 
+						filePath,
+					e);
+			}
+			
+			for(StreamDataChunk.Point point : points) {
+				String uid = point.getUid();
+				if((uid != null) && ids.contains(uid)) {
+					result.add(uid);
+				}
+			}
+		}
+		
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#storeData(java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public void storeData(
+			final String username,
+			final Observer observer,
+			final Collection<DataStream> data)
+			throws DataAccessException {
+		
+		String sql =
+			"INSERT INTO observer_stream_data (" +
+				"user_id, " +
+				"observer_stream_link_id, " +
+				"uid, " +
+				"time, " +
+				"time_offset, " +
+				"time_adjusted, " +
+				"time_zone, " +
+				"location_timestamp, " +
+				"location_latitude, " +
+				"location_longitude, " +
+				"location_accuracy, " +
+				"location_provider, " +
+				"data) " +
+			"VALUES (" +
+				"(SELECT id FROM user WHERE username = ?), " +
+				"(" +
+					"SELECT osl.id " +
+					"FROM " +
+						"observer o, " +
+						"observer_stream os, " +
+						"observer_stream_link osl " +
+					"WHERE o.observer_id = ? " +
+					"AND o.version = ? " +
+					"AND os.stream_id = ? " +
+					"AND os.version = ? " +
+					"AND o.id = osl.observer_id " +
+					"AND os.id = osl.observer_stream_id" +
+				"), " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?)";
+		
+		String chunkSql =
+			"INSERT INTO observer_stream_data_chunk (" +
+				"user_id, " +
+				"observer_stream_link_id, " +
+				"time_adjusted_min, " +
+				"time_adjusted_max, " +
+				"num_points, " +
+				"data) " +
+			"VALUES (" +
+				"(SELECT id FROM user WHERE username = ?), " +
+				"(" +
+					"SELECT osl.id " +
+					"FROM " +
+						"observer o, " +
+						"observer_stream os, " +
+						"observer_stream_link osl " +
+					"WHERE o.observer_id = ? " +
+					"AND o.version = ? " +
+					"AND os.stream_id = ? " +
+					"AND os.version = ? " +
+					"AND o.id = osl.observer_id " +
+					"AND os.id = osl.observer_stream_id" +
+				"), " +
+				"?, " +
+				"?, " +
+				"?, " +
+				"?)";
+		
+		// The points of columnar streams, grouped by their stream and then
+		// by the window of adjusted times in which they fall.
+		Map<Stream, Map<Long, List<StreamDataChunk.Point>>> chunks =
+			new HashMap<Stream, Map<Long, List<StreamDataChunk.Point>>>();
+		
+		List<Object[]> args = new ArrayList<Object[]>(data.size());
+		for(DataStream currData : data) {
+			MetaData metaData = currData.getMetaData();
+			String id = null;
+			DateTime timestamp = null;
+			Location location = null;
+			if(metaData != null) {
+				id = metaData.getId();
+				timestamp = metaData.getTimestamp();
+				location = metaData.getLocation();
+			}
+			
+			Long time = (timestamp == null) ? null : timestamp.getMillis();
+			Integer timeOffset = 
+				(timestamp == null) ? 
+					null : 
+					timestamp.getZone().getOffset(timestamp);
+			Long timeAdjusted =
+				(timestamp == null) ? null : time + timeOffset;
+			String timeZoneId = 
+				(timestamp == null) ? null : timestamp.getZone().getID();
+			
+			Stream stream = currData.getStream();
+			if(Stream.Storage.COLUMNAR.equals(stream.getStorage())) {
+				Map<Long, List<StreamDataChunk.Point>> windows =
+					chunks.get(stream);
+				if(windows == null) {
+					windows = 
+						new HashMap<Long, List<StreamDataChunk.Point>>();
+					chunks.put(stream, windows);
+				}
+				
+				Long window = ColumnarStreamChunk.getWindow(timeAdjusted);
+				List<StreamDataChunk.Point> points = windows.get(window);
+				if(points == null) {
+					points = new ArrayList<StreamDataChunk.Point>();
+					windows.put(window, points);
+				}
+				
+				points.add(
+					new StreamDataChunk.Point(
+						id,
+						time,
+						(timeOffset == null) ? null : timeOffset.longValue(),
+						timeAdjusted,
+						timeZoneId,
+						(location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString(),
+						(location == null) ? null : location.getLatitude(),
+						(location == null) ? null : location.getLongitude(),
+						(location == null) ? null : location.getAccuracy(),
+						(location == null) ? null : location.getProvider(),
+						currData.getData()));
+				continue;
+			}
 			
 			args.add(
 				new Object[] {
@@ -943,7 +1220,7 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					id,
 					time,
 					timeOffset,
-					timeAdjusted,
+					(timeAdjusted == null) ? NO_TIME_ADJUSTED : timeAdjusted,
 					timeZoneId,
 					(location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString(),
 					(location == null) ? null : location.getLatitude(),
@@ -955,6 +1232,65 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			);
 		}
 		
+		// Encode the columnar streams' points. Each window's points are
+		// sorted by their adjusted times and split into as few chunks as
+		// the limit on their size allows.
+		List<Object[]> chunkArgs = new ArrayList<Object[]>();
+		for(Stream stream : chunks.keySet()) {
+			JsonNode schema;
+			try {
+				schema = stream.getSchema().readValueAsTree();
+			}
+			catch(IOException e) {
+				throw new DataAccessException(
+					"Error reading the schema.",
+					e);
+			}
+			
+			for(List<StreamDataChunk.Point> points : 
+					chunks.get(stream).values()) {
+				
+				Collections.sort(points, POINT_TIME_ADJUSTED_COMPARATOR);
+				
+				for(
+						int start = 0; 
+						start < points.size(); 
+						start += ColumnarStreamChunk.MAX_POINTS) {
+					
+					List<StreamDataChunk.Point> chunk =
+						points.subList(
+							start, 
+							Math.min(
+								points.size(), 
+								start + ColumnarStreamChunk.MAX_POINTS));
+					
+					byte[] encoded;
+					try {
+						encoded = ColumnarStreamChunk.encode(schema, chunk);
+					}
+					catch(IOException e) {
+						throw new DataAccessException(
+							"The stream data could not be encoded.",
+							e);
+					}
+					
+					chunkArgs.add(
+						new Object[] {
+							username,
+							observer.getId(),
+							observer.getVersion(),
+							stream.getId(),
+							stream.getVersion(),
+							chunk.get(0).getTimeAdjusted(),
+							chunk.get(chunk.size() - 1).getTimeAdjusted(),
+							chunk.size(),
+							encoded
+						}
+					);
+				}
+			}
+		}
+		
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 		def.setName("Inserting stream data.");
@@ -965,14 +1301,28 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			try {
-				getJdbcTemplate().batchUpdate(sql, args);
+			if(! args.isEmpty()) {
+				try {
+					getJdbcTemplate().batchUpdate(sql, args);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" + sql +"'.", 
+						e);
+				}
 			}
-			catch(org.springframework.dao.DataAccessException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException(
-					"Error executing SQL '" + sql +"'.", 
-					e);
+			
+			if(! chunkArgs.isEmpty()) {
+				try {
+					getJdbcTemplate().batchUpdate(chunkSql, chunkArgs);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" + chunkSql +"'.", 
+						e);
+				}
 			}
 			
 			// Commit the transaction.
@@ -1095,6 +1445,150 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final long numToReturn) 
 			throws DataAccessException {
 		
+		// A columnar stream's data is only ever in its chunks.
+		if(Stream.Storage.COLUMNAR.equals(stream.getStorage())) {
+			return
+				readColumnarData(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate,
+					chronological,
+					numToSkip,
+					numToReturn);
+		}
+		
+		// Get the archived chunks that overlap the range. If there are none,
+		// which is the usual case, the stream data table has all of the
+		// points.
+		Long startTimeAdjusted = 
+			(startDate == null) ? null : startDate.getMillis();
+		Long endTimeAdjusted = (endDate == null) ? null : endDate.getMillis();
+		
+		List<StoredChunk> chunks =
+			getChunks(
+				TABLE_ARCHIVED_CHUNKS,
+				"file_path",
+				stream,
+				username,
+				observerId,
+				observerVersion,
+				startTimeAdjusted,
+				endTimeAdjusted,
+				chronological);
+		
+		if(chunks.isEmpty()) {
+			return
+				readHotData(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate,
+					chronological,
+					numToSkip,
+					numToReturn);
+		}
+		
+		// Otherwise, the page may span the archive and the table, so the
+		// first points of the table up to the end of the page are merged
+		// with the archived points, a chunk at a time in the order of the
+		// page, and then the page is taken from the result.
+		long pageEnd = getPageEnd(numToSkip, numToReturn);
+		Comparator<DataStream> comparator =
+			(chronological) ? 
+				DATA_STREAM_TIME_COMPARATOR : 
+				Collections.reverseOrder(DATA_STREAM_TIME_COMPARATOR);
+		
+		List<DataStream> result =
+			new ArrayList<DataStream>(
+				readHotData(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate,
+					chronological,
+					0,
+					pageEnd));
+		
+		JsonFactory jsonFactory = new MappingJsonFactory();
+		for(StoredChunk chunk : chunks) {
+			trimToPage(result, pageEnd, comparator);
+			if(isPastPage(result, pageEnd, chronological, chunk.bound)) {
+				break;
+			}
+			
+			List<StreamDataChunk.Point> points;
+			try {
+				points =
+					StreamDataChunk.read(
+						new File(chunk.location), 
+						startTimeAdjusted, 
+						endTimeAdjusted);
+			}
+			catch(IOException e) {
+				throw new DataAccessException(
+					"The archived stream data could not be read: " + 
+						chunk.location,
+					e);
+			}
+			
+			for(StreamDataChunk.Point point : points) {
+				try {
+					result.add(
+						createDataStream(
+							stream,
+							jsonFactory,
+							point.getUid(),
+							point.getTime(),
+							point.getTimeZone(),
+							point.getLocationTimestamp(),
+							point.getLocationLatitude(),
+							point.getLocationLongitude(),
+							point.getLocationAccuracy(),
+							point.getLocationProvider(),
+							point.getData()));
+				}
+				catch(DomainException e) {
+					throw new DataAccessException(
+						"The archived stream data is invalid: " + 
+							chunk.location,
+						e);
+				}
+			}
+		}
+		
+		trimToPage(result, pageEnd, comparator);
+		
+		int fromIndex = (int) Math.min(result.size(), numToSkip);
+		return 
+			new ArrayList<DataStream>(
+				result.subList(fromIndex, result.size()));
+	}
+	
+	/**
+	 * Reads a page of a stream's data from the stream data table. This is
+	 * all of the data that has not been archived.
+	 * 
+	 * @see #readData(Stream, String, String, Long, DateTime, DateTime, boolean, long, long)
+	 */
+	private List<DataStream> readHotData(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final boolean chronological,
+			final long numToSkip,
+			final long numToReturn) 
+			throws DataAccessException {
+		
 		// Create the initial query and required set of parameters.
 		StringBuilder builder = 
 			new StringBuilder(
@@ -1110,46 +1604,17 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"osd.data " +
 				"FROM " +
 					"observer_stream_data AS osd FORCE INDEX (observer_stream_data_query)" +
-				"WHERE " +
-					"osd.user_id = (" +
-						"SELECT id " +
-						"FROM user " +
-						"WHERE username = ?" +
-					") " +
-                "AND osd.observer_stream_link_id = " +
-					"( SELECT id FROM observer_stream_link WHERE observer_id = " +
-						"( SELECT id FROM observer WHERE observer_id = ? ");
-				
-		List<Object> parameters = new LinkedList<Object>();
-		parameters.add(username);
-		parameters.add(observerId);
-		
-		// If the observer's version is specified, add it to the sub-query.
-		if(observerVersion != null) {
-			builder.append(" AND version = ?)");
-			parameters.add(observerVersion);
-		}
-		// Otherwise, end the subquery.
-		else {
-			builder.append(" ORDER BY version DESC LIMIT 1)");
-		}
-		
-		// Add the remainder of the required parameters and their query
-		// components.
-		builder
-			.append(
-				" AND observer_stream_id IN " +
-				"(" +
-					"SELECT id " +
-					"FROM observer_stream " +
-					"WHERE stream_id = ? " +
-					"AND version = ?" +
-				")");
-        
-		builder.append(")");
+				"WHERE ");
 		
-		parameters.add(stream.getId());
-		parameters.add(stream.getVersion());
+		List<Object> parameters = new LinkedList<Object>();
+		appendStreamCondition(
+			builder, 
+			parameters, 
+			"osd", 
+			stream, 
+			username, 
+			observerId, 
+			observerVersion);
 		
 		// If a start date is given, add it to the overall query.
 		if(startDate != null) {
@@ -1157,10 +1622,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			parameters.add(startDate.getMillis());
 		}
 
-		// If an end date is given, add it to the overall query.
+		// If an end date is given, add it to the overall query. The points
+		// without a timestamp are only excluded by the start date.
 		if(endDate != null) {
 			builder.append(" AND osd.time_adjusted <= ?");
 			parameters.add(endDate.getMillis());
+			
+			if(startDate == null) {
+				builder.append(" AND osd.time_adjusted > ?");
+				parameters.add(NO_TIME_ADJUSTED);
+			}
 		}
 		
 		// Add the ordering based on whether or not these should be 
@@ -1193,90 +1664,23 @@ public class ObserverQueries extends Query implements IObserverQueries {
 								final int rowNum)
 								throws SQLException {
 							
-							MetaData.Builder metaDataBuilder =
-								new MetaData.Builder();
-							
-							String id = rs.getString("osd.uid");
-							if(id != null) {
-								metaDataBuilder.setId(id);
-							}
-							
-							Long time = rs.getLong("osd.time");
-							if(time != null) {
-								metaDataBuilder.setTimestamp(
-									new DateTime(
-										time,
-										DateTimeZone.forID(
-											rs.getString("osd.time_zone"))));
-							}
-							
-							String locationTimestampString = 
-								rs.getString("location_timestamp");
-							if(locationTimestampString != null) {
-								Location location;
-								try {
-									location =
-										new Location(
-											ISODateTimeFormat
-												.dateTime()
-												.parseDateTime(
-													rs.getString(
-														"osd.location_timestamp")),
-											rs.getDouble("osd.location_latitude"),
-											rs.getDouble("osd.location_longitude"),
-											rs.getDouble("osd.location_accuracy"),
-											rs.getString("osd.location_provider"));
-								}
-								catch(IllegalArgumentException e) {
-									throw new SQLException(
-										"The timestamp in the database is corrupted.",
-										e);
-								}
-								catch(NullPointerException e) {
-									throw new SQLException(
-										"A double in the database is corrupted.",
-										e);
-								}
-								catch(DomainException e) {
-									throw new SQLException(
-										"Could not create the location object.",
-										e);
-								}
-								
-								metaDataBuilder.setLocation(location);
-							}
-							
-							JsonNode data;
 							try {
-								JsonParser parser =
-									jsonFactory
-										.createJsonParser(
-											rs.getString("osd.data"));
-								data = parser.readValueAsTree();
-							}
-							catch(JsonParseException e) {
-								throw new SQLException(
-									"The data in the database is invalid: " +
-										id,
-									e);
-							}
-							catch(IOException e) {
-								throw new SQLException(
-									"There was a problem reading the data: " +
-										id,
-									e);
-							}
-							
-							try {
-								return new DataStream(
-									stream, 
-									metaDataBuilder.build(), 
-									data);
+								return
+									createDataStream(
+										stream,
+										jsonFactory,
+										rs.getString("osd.uid"),
+										rs.getLong("osd.time"),
+										rs.getString("osd.time_zone"),
+										rs.getString("osd.location_timestamp"),
+										rs.getDouble("osd.location_latitude"),
+										rs.getDouble("osd.location_longitude"),
+										rs.getDouble("osd.location_accuracy"),
+										rs.getString("osd.location_provider"),
+										rs.getString("osd.data"));
 							}
 							catch(DomainException e) {
-								throw new SQLException(
-									"Could not create the data stream.",
-									e);
+								throw new SQLException(e.getMessage(), e);
 							}
 						}
 					});
@@ -1290,6 +1694,549 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				e);
 		}
 	}
+	
+	/**
+	 * Reads a page of a columnar stream's data from its chunks. Only the 
+	 * chunks whose adjusted times overlap the range are read, in the order
+	 * of the page, and no more are read once the rest of the chunks cannot
+	 * have any points that would be in the page.
+	 * 
+	 * @see #readData(Stream, String, String, Long, DateTime, DateTime, boolean, long, long)
+	 */
+	private List<DataStream> readColumnarData(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final boolean chronological,
+			final long numToSkip,
+			final long numToReturn) 
+			throws DataAccessException {
+		
+		Long startTimeAdjusted = 
+			(startDate == null) ? null : startDate.getMillis();
+		Long endTimeAdjusted = (endDate == null) ? null : endDate.getMillis();
+		
+		List<StoredChunk> chunks =
+			getChunks(
+				TABLE_COLUMNAR_CHUNKS,
+				"id",
+				stream,
+				username,
+				observerId,
+				observerVersion,
+				startTimeAdjusted,
+				endTimeAdjusted,
+				chronological);
+		
+		String chunkSql = 
+			"SELECT data FROM observer_stream_data_chunk WHERE id = ?";
+		
+		long pageEnd = getPageEnd(numToSkip, numToReturn);
+		Comparator<DataStream> comparator =
+			(chronological) ? 
+				DATA_STREAM_TIME_COMPARATOR : 
+				Collections.reverseOrder(DATA_STREAM_TIME_COMPARATOR);
+		
+		List<DataStream> result = new ArrayList<DataStream>();
+		for(StoredChunk chunk : chunks) {
+			trimToPage(result, pageEnd, comparator);
+			if(isPastPage(result, pageEnd, chronological, chunk.bound)) {
+				break;
+			}
+			
+			List<StreamDataChunk.Point> points;
+			try {
+				byte[] data =
+					getJdbcTemplate().queryForObject(
+						chunkSql, 
+						new Object[] { Long.valueOf(chunk.location) }, 
+						byte[].class);
+				
+				points = 
+					ColumnarStreamChunk.decode(
+						data, 
+						startTimeAdjusted, 
+						endTimeAdjusted);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + 
+						chunkSql + 
+						"' with parameter: " +
+						chunk.location,
+					e);
+			}
+			catch(IOException e) {
+				throw new DataAccessException(
+					"The stream data chunk could not be read: " + 
+						chunk.location,
+					e);
+			}
+			
+			for(StreamDataChunk.Point point : points) {
+				try {
+					result.add(
+						createDataStream(
+							stream,
+							point.getUid(),
+							point.getTime(),
+							point.getTimeZone(),
+							point.getLocationTimestamp(),
+							point.getLocationLatitude(),
+							point.getLocationLongitude(),
+							point.getLocationAccuracy(),
+							point.getLocationProvider(),
+							point.getDataNode()));
+				}
+				catch(DomainException e) {
+					throw new DataAccessException(
+						"The stream data chunk is invalid: " + 
+							chunk.location,
+						e);
+				}
+			}
+		}
+		
+		trimToPage(result, pageEnd, comparator);
+		
+		int fromIndex = (int) Math.min(result.size(), numToSkip);
+		return 
+			new ArrayList<DataStream>(
+				result.subList(fromIndex, result.size()));
+	}
+	
+	/**
+	 * Returns the number of points from the start of the data through the
+	 * end of a page.
+	 * 
+	 * @param numToSkip The number of points before the page.
+	 * 
+	 * @param numToReturn The number of points in the page.
+	 * 
+	 * @return The end of the page, which is capped rather than overflowing.
+	 */
+	static long getPageEnd(final long numToSkip, final long numToReturn) {
+		return
+			(numToReturn > Long.MAX_VALUE - numToSkip) ?
+				Long.MAX_VALUE :
+				numToSkip + numToReturn;
+	}
+	
+	/**
+	 * Sorts the points that have been read into the page's order and 
+	 * discards those after the end of the page, which can never be returned.
+	 * This keeps no more than a page's worth of points, however many chunks
+	 * are read.
+	 * 
+	 * @param result The points that have been read.
+	 * 
+	 * @param pageEnd The number of points through the end of the page.
+	 * 
+	 * @param comparator The page's order.
+	 */
+	static void trimToPage(
+			final List<DataStream> result,
+			final long pageEnd,
+			final Comparator<DataStream> comparator) {
+		
+		Collections.sort(result, comparator);
+		if(result.size() > pageEnd) {
+			result.subList((int) pageEnd, result.size()).clear();
+		}
+	}
+	
+	/**
+	 * Decides whether a chunk, and every chunk after it, cannot have any 
+	 * points that would be in the page. The chunks must be in the page's 
+	 * order of the bound of their adjusted times that is first in that 
+	 * order, and the points must have been trimmed to the page.<br />
+	 * <br />
+	 * That is only known once the page is full. A point's time differs from
+	 * its adjusted time by no more than the largest time zone offset, so the
+	 * chunk is past the page if its bound is more than that after the last
+	 * point of the page. A chunk without adjusted times has points without
+	 * times, which are first in chronological order and last otherwise.
+	 * 
+	 * @param result The points that have been read, trimmed to the page.
+	 * 
+	 * @param pageEnd The number of points through the end of the page.
+	 * 
+	 * @param chronological Whether the page is in chronological order.
+	 * 
+	 * @param bound The chunk's first bound in the page's order or null if
+	 * 				its points have no adjusted times.
+	 * 
+	 * @return True if no more chunks need to be read.
+	 */
+	static boolean isPastPage(
+			final List<DataStream> result,
+			final long pageEnd,
+			final boolean chronological,
+			final Long bound) {
+		
+		if(result.size() < pageEnd) {
+			return false;
+		}
+		
+		if(bound == null) {
+			return ! chronological;
+		}
+		
+		MetaData lastMetaData = result.get((int) (pageEnd - 1)).getMetaData();
+		if((lastMetaData == null) || (lastMetaData.getTimestamp() == null)) {
+			return false;
+		}
+		
+		long lastTime = lastMetaData.getTimestamp().getMillis();
+		return
+			(chronological) ?
+				(bound - MAX_TIME_ZONE_OFFSET_MILLIS > lastTime) :
+				(bound + MAX_TIME_ZONE_OFFSET_MILLIS < lastTime);
+	}
+	
+	/**
+	 * A chunk of a stream's data, either a columnar stream's chunk or an
+	 * archived chunk.
+	 */
+	private static final class StoredChunk {
+		private final String location;
+		private final Long bound;
+		
+		/**
+		 * Creates a chunk.
+		 * 
+		 * @param location The chunk's ID, for a columnar stream's chunk, or
+		 * 				   its file, for an archived chunk.
+		 * 
+		 * @param bound The bound of the chunk's adjusted times that is first
+		 * 				in the page's order or null if it has none.
+		 */
+		private StoredChunk(final String location, final Long bound) {
+			this.location = location;
+			this.bound = bound;
+		}
+	}
+	
+	/**
+	 * Returns the chunks of a stream's data that may have points within a
+	 * range in the order of the bound of their adjusted times that is first
+	 * in the page's order. The columnar streams' chunks and the archived
+	 * chunks are found the same way.
+	 * 
+	 * @param table The table of chunks, 
+	 * 				{@link #TABLE_COLUMNAR_CHUNKS} or 
+	 * 				{@link #TABLE_ARCHIVED_CHUNKS}.
+	 * 
+	 * @param locationColumn The table's column that locates each chunk's
+	 * 						 data.
+	 * 
+	 * @param startTimeAdjusted The earliest adjusted time, inclusive, or 
+	 * 							null for no limit.
+	 * 
+	 * @param endTimeAdjusted The latest adjusted time, inclusive, or null for
+	 * 						  no limit.
+	 * 
+	 * @see #readData(Stream, String, String, Long, DateTime, DateTime, boolean, long, long)
+	 * 
+	 * @return The chunks.
+	 */
+	private List<StoredChunk> getChunks(
+			final String table,
+			final String locationColumn,
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final Long startTimeAdjusted,
+			final Long endTimeAdjusted,
+			final boolean chronological) 
+			throws DataAccessException {
+		
+		StringBuilder builder = 
+			new StringBuilder(
+				"SELECT c." + locationColumn + ", " +
+					"c.time_adjusted_min, " +
+					"c.time_adjusted_max " +
+				"FROM " + table + " c " +
+				"WHERE ");
+		
+		List<Object> parameters = new LinkedList<Object>();
+		appendStreamCondition(
+			builder, 
+			parameters, 
+			"c", 
+			stream, 
+			username, 
+			observerId, 
+			observerVersion);
+		
+		if(startTimeAdjusted != null) {
+			builder.append(" AND c.time_adjusted_max >= ?");
+			parameters.add(startTimeAdjusted);
+		}
+		
+		if(endTimeAdjusted != null) {
+			builder.append(" AND c.time_adjusted_min <= ?");
+			parameters.add(endTimeAdjusted);
+		}
+		
+		// The chunks without adjusted times are first when chronological 
+		// and last otherwise, the same as their points.
+		builder
+			.append(
+				(chronological) ?
+					" ORDER BY c.time_adjusted_min ASC" :
+					" ORDER BY c.time_adjusted_max DESC");
+		
+		try {
+			return
+				getJdbcTemplate().query(
+					builder.toString(),
+					parameters.toArray(),
+					new RowMapper<StoredChunk>() {
+						/**
+						 * Maps the chunk to its location and first bound.
+						 */
+						@Override
+						public StoredChunk mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							long bound = 
+								rs.getLong(
+									(chronological) ?
+										"c.time_adjusted_min" :
+										"c.time_adjusted_max");
+							boolean noBound = rs.wasNull();
+							return 
+								new StoredChunk(
+									rs.getString("c." + locationColumn), 
+									(noBound) ? null : bound);
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					builder.toString() + 
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+	}
+	
+	/**
+	 * Appends the condition that limits the rows of a table with "user_id"
+	 * and "observer_stream_link_id" columns to one user's data for one 
+	 * stream.
+	 * 
+	 * @param builder The query to which the condition is appended.
+	 * 
+	 * @param parameters The query's parameters, to which the condition's
+	 * 					 parameters are appended.
+	 * 
+	 * @param alias The table's alias in the query.
+	 * 
+	 * @param stream The stream.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's ID.
+	 * 
+	 * @param observerVersion The observer's version or null for its latest
+	 * 						  version.
+	 */
+	private static void appendStreamCondition(
+			final StringBuilder builder,
+			final List<Object> parameters,
+			final String alias,
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion) {
+		
+		builder
+			.append(
+				alias + ".user_id = (" +
+					"SELECT id " +
+					"FROM user " +
+					"WHERE username = ?" +
+				") " +
+                "AND " + alias + ".observer_stream_link_id = " +
+					"( SELECT id FROM observer_stream_link WHERE observer_id = " +
+						"( SELECT id FROM observer WHERE observer_id = ? ");
+				
+		parameters.add(username);
+		parameters.add(observerId);
+		
+		// If the observer's version is specified, add it to the sub-query.
+		if(observerVersion != null) {
+			builder.append(" AND version = ?)");
+			parameters.add(observerVersion);
+		}
+		// Otherwise, end the subquery.
+		else {
+			builder.append(" ORDER BY version DESC LIMIT 1)");
+		}
+		
+		// Add the remainder of the required parameters and their query
+		// components.
+		builder
+			.append(
+				" AND observer_stream_id IN " +
+				"(" +
+					"SELECT id " +
+					"FROM observer_stream " +
+					"WHERE stream_id = ? " +
+					"AND version = ?" +
+				")");
+        
+		builder.append(")");
+		
+		parameters.add(stream.getId());
+		parameters.add(stream.getVersion());
+	}
+	
+	/**
+	 * Creates a data stream from the columns of a stored point, whether it
+	 * is in the stream data table or an archived chunk.
+	 * 
+	 * @return The data stream.
+	 * 
+	 * @throws DomainException One of the columns is invalid.
+	 */
+	private static DataStream createDataStream(
+			final Stream stream,
+			final JsonFactory jsonFactory,
+			final String id,
+			final Long time,
+			final String timeZone,
+			final String locationTimestamp,
+			final Double locationLatitude,
+			final Double locationLongitude,
+			final Double locationAccuracy,
+			final String locationProvider,
+			final String dataString)
+			throws DomainException {
+		
+		JsonNode data;
+		try {
+			JsonParser parser =
+				jsonFactory
+					.createJsonParser(dataString);
+			data = parser.readValueAsTree();
+		}
+		catch(JsonParseException e) {
+			throw new DomainException(
+				"The data in the database is invalid: " +
+					id,
+				e);
+		}
+		catch(IOException e) {
+			throw new DomainException(
+				"There was a problem reading the data: " +
+					id,
+				e);
+		}
+		
+		return
+			createDataStream(
+				stream,
+				id,
+				time,
+				timeZone,
+				locationTimestamp,
+				locationLatitude,
+				locationLongitude,
+				locationAccuracy,
+				locationProvider,
+				data);
+	}
+	
+	/**
+	 * Creates a data stream from the columns of a stored point whose data
+	 * has already been parsed, which is the case for a columnar stream's
+	 * points.
+	 * 
+	 * @return The data stream.
+	 * 
+	 * @throws DomainException One of the columns is invalid.
+	 */
+	private static DataStream createDataStream(
+			final Stream stream,
+			final String id,
+			final Long time,
+			final String timeZone,
+			final String locationTimestamp,
+			final Double locationLatitude,
+			final Double locationLongitude,
+			final Double locationAccuracy,
+			final String locationProvider,
+			final JsonNode data)
+			throws DomainException {
+		
+		MetaData.Builder metaDataBuilder =
+			new MetaData.Builder();
+		
+		if(id != null) {
+			metaDataBuilder.setId(id);
+		}
+		
+		if(time != null) {
+			metaDataBuilder.setTimestamp(
+				new DateTime(
+					time,
+					DateTimeZone.forID(timeZone)));
+		}
+		
+		if(locationTimestamp != null) {
+			Location location;
+			try {
+				location =
+					new Location(
+						ISODateTimeFormat
+							.dateTime()
+							.parseDateTime(locationTimestamp),
+						locationLatitude,
+						locationLongitude,
+						locationAccuracy,
+						locationProvider);
+			}
+			catch(IllegalArgumentException e) {
+				throw new DomainException(
+					"The timestamp in the database is corrupted.",
+					e);
+			}
+			catch(NullPointerException e) {
+				throw new DomainException(
+					"A double in the database is corrupted.",
+					e);
+			}
+			catch(DomainException e) {
+				throw new DomainException(
+					"Could not create the location object.",
+					e);
+			}
+			
+			metaDataBuilder.setLocation(location);
+		}
+		
+		try {
+			return new DataStream(
+				stream, 
+				metaDataBuilder.build(), 
+				data);
+		}
+		catch(DomainException e) {
+			throw new DomainException(
+				"Could not create the data stream.",
+				e);
+		}
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -1482,8 +2429,9 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"with_id, " +
 					"with_timestamp, " +
 					"with_location, " +
-					"stream_schema) " +
-				"VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+					"stream_schema, " +
+					"storage) " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			
 			// Observer-stream link SQL.
 			final String observerStreamSql =
@@ -1601,6 +2549,9 @@ public class ObserverQueries extends Query implements IObserverQueries {
 								ps.setObject(6, stream.getWithTimestamp());
 								ps.setObject(7, stream.getWithLocation());
 								ps.setString(8, schema);
+								ps.setString(
+									9, 
+									stream.getStorage().toString());
 								
 								return ps;
 							}
@@ -1627,7 +2578,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 								stream.getWithId() + ", " +
 								stream.getWithTimestamp() + ", " +
 								stream.getWithLocation() + ", " +
-								schema,
+								schema + ", " +
+								stream.getStorage(),
 							e);
 					}
 					
@@ -1670,5 +2622,269 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				"Error while attempting to rollback the transaction.",
 				e);
 		}
+		
+		invalidateRegistry();
+	}
+	
+	/**
+	 * Returns the registry of observer definitions, loading it if it has not
+	 * yet been loaded or has been discarded. Every few seconds, the version
+	 * of the definitions in the database is checked, and the registry is
+	 * reloaded if another server has added or removed an observer.
+	 * 
+	 * @return The registry.
+	 * 
+	 * @throws DataAccessException There was an error loading the registry.
+	 */
+	private ObserverRegistry getRegistry() throws DataAccessException {
+		return getRegistry(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns the registry of observer definitions as of a time.
+	 * 
+	 * @param now The current time.
+	 * 
+	 * @return The registry.
+	 * 
+	 * @throws DataAccessException There was an error loading the registry.
+	 * 
+	 * @see #getRegistry()
+	 */
+	ObserverRegistry getRegistry(final long now) throws DataAccessException {
+		ObserverRegistry result = registry;
+		if((result != null) && 
+			(now - registryCheckedMillis < REGISTRY_CHECK_MILLIS)) {
+			
+			return result;
+		}
+		
+		synchronized(registryLock) {
+			if((registry != null) && 
+				(now - registryCheckedMillis < REGISTRY_CHECK_MILLIS)) {
+				
+				return registry;
+			}
+			
+			// The registry is always checked and loaded from the primary. A
+			// replica that is behind would otherwise leave it stale until
+			// the next change.
+			boolean primaryOnly = 
+				ReadWriteRoutingDataSource.startPrimaryOnly();
+			try {
+				// The version is read before the definitions, so a change
+				// made in between causes another reload rather than being
+				// missed.
+				String version = getRegistryVersion();
+				if((registry == null) || (! version.equals(registryVersion))) {
+					registry = loadRegistry();
+					registryVersion = version;
+				}
+				registryCheckedMillis = now;
+			}
+			finally {
+				ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			}
+			
+			return registry;
+		}
+	}
+	
+	/**
+	 * Returns the version of the observer definitions in the database, which
+	 * changes whenever an observer or stream is added or removed.
+	 * 
+	 * @return The version.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private String getRegistryVersion() throws DataAccessException {
+		try {
+			return getJdbcTemplate().queryForObject(
+				SQL_GET_REGISTRY_VERSION,
+				new RowMapper<String>() {
+					/**
+					 * Joins the counts and maximum IDs.
+					 */
+					@Override
+					public String mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+						
+						return 
+							rs.getLong(1) + ":" + 
+							rs.getLong(2) + ":" + 
+							rs.getLong(3) + ":" + 
+							rs.getLong(4);
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_REGISTRY_VERSION + "'.",
+				e);
+		}
+	}
+	
+	/**
+	 * Discards the registry so that it will be reloaded the next time it is
+	 * needed. This must be called after an observer is committed. Holding the
+	 * lock guarantees that a registry that was loaded before the commit is
+	 * not kept.
+	 */
+	private void invalidateRegistry() {
+		synchronized(registryLock) {
+			registry = null;
+			registryVersion = null;
+		}
+	}
+	
+	/**
+	 * Reads every observer and stream definition from the database. The
+	 * schemas were validated when the observers were created or updated, so
+	 * they are not validated again. A stream that is shared by multiple 
+	 * versions of an observer is only created once.
+	 * 
+	 * @return The new registry.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private ObserverRegistry loadRegistry() throws DataAccessException {
+		final Map<Long, Observer.Builder> observerBuilders = 
+			new HashMap<Long, Observer.Builder>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_ALL_OBSERVERS,
+				new RowMapper<Object> () {
+					/**
+					 * Maps the row of data to a new observer builder.
+					 */
+					@Override
+					public Object mapRow(
+							final ResultSet rs, 
+							final int rowNum)
+							throws SQLException {
+					
+						Observer.Builder observerBuilder = 
+							new Observer.Builder();
+						
+						observerBuilder
+							.setId(rs.getString("observer_id"))
+							.setVersion(rs.getLong("version"))
+							.setName(rs.getString("name"))
+							.setDescription(rs.getString("description"))
+							.setVersionString(
+								rs.getString("version_string"));
+	
+						observerBuilders.put(
+							rs.getLong("id"), 
+							observerBuilder);
+						
+						return null;
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_ALL_OBSERVERS + "'.",
+				e);
+		}
+		
+		final Map<Long, Observer.Stream> streams = 
+			new HashMap<Long, Observer.Stream>();
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_ALL_STREAMS,
+				new RowMapper<Object>() {
+					/**
+					 * Maps the row of data to a stream and adds it to its
+					 * observer.
+					 */
+					@Override
+					public Object mapRow(
+							final ResultSet rs, 
+							final int rowNum)
+							throws SQLException {
+						
+						long streamDbId = rs.getLong("id");
+						Observer.Stream stream = streams.get(streamDbId);
+						if(stream == null) {
+							// Because the with_* values are optional and
+							// may be null, they must be retrieve in this
+							// special way.
+							Boolean withId, withTimestamp, withLocation;
+							withId = rs.getBoolean("with_id");
+							if(rs.wasNull()) {
+								withId = null;
+							}
+							withTimestamp =
+								rs.getBoolean("with_timestamp");
+							if(rs.wasNull()) {
+								withTimestamp = null;
+							}
+							withLocation = rs.getBoolean("with_location");
+							if(rs.wasNull()) {
+								withLocation = null;
+							}
+							
+							try {
+								stream =
+									new Observer.Stream(
+										rs.getString("stream_id"), 
+										rs.getLong("version"), 
+										rs.getString("name"), 
+										rs.getString("description"), 
+										withId,
+										withTimestamp, 
+										withLocation, 
+										rs.getString("stream_schema"),
+										Observer.Stream.Storage.getValue(
+											rs.getString("storage")),
+										false);
+							}
+							catch(IllegalArgumentException e) {
+								throw new SQLException(
+									"The stream's storage is unknown.",
+									e);
+							}
+							catch(DomainException e) {
+								throw new SQLException(e);
+							}
+							streams.put(streamDbId, stream);
+						}
+						
+						Observer.Builder observerBuilder =
+							observerBuilders.get(rs.getLong("observer_id"));
+						if(observerBuilder != null) {
+							observerBuilder.addStream(stream);
+						}
+						
+						return null;
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_ALL_STREAMS + "'.",
+				e);
+		}
+		
+		List<Observer> observers = 
+			new ArrayList<Observer>(observerBuilders.size());
+		for(Observer.Builder observerBuilder : observerBuilders.values()) {
+			try {
+				observers.add(observerBuilder.build());
+			}
+			catch(DomainException e) {
+				throw new DataAccessException(
+					"There was a problem building an observer.",
+					e);
+			}
+		}
+		
+		return new ObserverRegistry(observers);
 	}
 }
\ No newline at end of file
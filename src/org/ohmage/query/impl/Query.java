@@ -61,7 +61,21 @@ public abstract class Query {
 		}
 		
 		this.dataSource = dataSource;
-		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate = 
+			new TimedJdbcTemplate(dataSource, getClass().getSimpleName());
+		
+		initialized = true;
+	}
+	
+	/**
+	 * Builds this query object around an existing JDBC template. This is 
+	 * only used by the tests.
+	 * 
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 */
+	Query(final JdbcTemplate jdbcTemplate) {
+		dataSource = jdbcTemplate.getDataSource();
+		this.jdbcTemplate = jdbcTemplate;
 		
 		initialized = true;
 	}
@@ -102,7 +116,8 @@ public abstract class Query {
 	
 	/**
 	 * Returns the JdbcTemplate that should be used by this object to perform 
-	 * its queries, updates, and deletes.
+	 * its queries, updates, and deletes. Its calls are recorded in the 
+	 * metrics under the name of this object's class.
 	 * 
 	 * @return The JdbcTemplate that should be used by this object to perform 
 	 *         its queries, updates, and deletes.
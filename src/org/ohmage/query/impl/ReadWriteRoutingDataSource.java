@@ -0,0 +1,701 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.ohmage.metrics.Gauge;
+import org.ohmage.metrics.Metrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * <p>
+ * A DataSource that sends the read-only requests to a read replica and
+ * everything else to the primary database.
+ * </p>
+ *
+ * <p>
+ * The route is chosen per request by the thread servicing it, see
+ * {@link #startRequest(boolean, String)}. A read-only request still goes to
+ * the primary if:
+ * <ul>
+ *   <li>no replica is configured,</li>
+ *   <li>the same token made a write recently enough that the replica may not
+ *     have it yet,</li>
+ *   <li>the replica is lagging behind the primary by more than the allowed
+ *     amount or its lag could not be determined, or</li>
+ *   <li>a connection to the replica could not be made.</li>
+ * </ul>
+ * Connections used by anything other than a request, such as the caches and
+ * the audit thread, always go to the primary, as do those a request makes
+ * after {@link #startPrimaryOnly()}.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ReadWriteRoutingDataSource
+		extends AbstractDataSource
+		implements DisposableBean {
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(ReadWriteRoutingDataSource.class);
+
+	/**
+	 * The number of milliseconds between each check of the replica's lag.
+	 */
+	private static final long MILLISECONDS_BETWEEN_LAG_CHECKS = 1000 * 5;
+
+	/**
+	 * The query that reports the replica's replication status.
+	 */
+	private static final String SQL_GET_REPLICA_STATUS = "SHOW SLAVE STATUS";
+
+	/**
+	 * The column in the replication status with the replica's lag.
+	 */
+	private static final String COLUMN_SECONDS_BEHIND_MASTER =
+		"Seconds_Behind_Master";
+
+	/**
+	 * Whether or not the request being serviced by the current thread is a
+	 * read-only request. Threads that aren't servicing a request have no
+	 * value.
+	 */
+	private static final ThreadLocal<Boolean> READ_ONLY =
+		new ThreadLocal<Boolean>();
+
+	/**
+	 * The token of the request being serviced by the current thread, if any.
+	 */
+	private static final ThreadLocal<String> TOKEN = new ThreadLocal<String>();
+
+	/**
+	 * Whether or not the current thread must use the primary regardless of
+	 * its request. Threads that have not asked for the primary have no
+	 * value.
+	 */
+	private static final ThreadLocal<Boolean> PRIMARY_ONLY =
+		new ThreadLocal<Boolean>();
+
+	/**
+	 * A map of tokens to the time of the last request with that token that
+	 * may have written to the primary.
+	 */
+	private static final Map<String, Long> LAST_WRITE_MILLIS =
+		new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Whether or not a replica is configured. The writes are only tracked if
+	 * one is.
+	 */
+	private static volatile boolean replicaConfigured = false;
+
+	/**
+	 * The number of connections given out for requests that may write.
+	 */
+	private static final AtomicLong PRIMARY_WRITES = new AtomicLong(0);
+
+	/**
+	 * The number of read-only connections given out from the replica.
+	 */
+	private static final AtomicLong REPLICA_READS = new AtomicLong(0);
+
+	/**
+	 * The number of read-only connections sent to the primary because the
+	 * token had recently written.
+	 */
+	private static final AtomicLong STICKY_READS = new AtomicLong(0);
+
+	/**
+	 * The number of read-only connections sent to the primary because the
+	 * replica was lagging or its lag was unknown.
+	 */
+	private static final AtomicLong LAG_FALLBACKS = new AtomicLong(0);
+
+	/**
+	 * The number of read-only connections sent to the primary because a
+	 * connection to the replica could not be made.
+	 */
+	private static final AtomicLong ERROR_FALLBACKS = new AtomicLong(0);
+
+	private final DataSource primary;
+	private final DataSource replica;
+
+	private final long maxLagSeconds;
+	private final long stickyMillis;
+
+	/**
+	 * Whether or not the replica was within the allowed lag the last time it
+	 * was checked.
+	 */
+	private volatile boolean replicaAvailable;
+
+	private final Timer lagChecker;
+
+	/**
+	 * Creates the DataSource and, if a replica is configured, starts checking
+	 * its lag.
+	 *
+	 * @param primary The DataSource for the primary database.
+	 *
+	 * @param replica The DataSource for the read replica.
+	 *
+	 * @param replicaUrl The JDBC URL of the replica. If it is null or empty,
+	 * 					 there is no replica and everything goes to the
+	 * 					 primary.
+	 *
+	 * @param maxLagSeconds The number of seconds that the replica may be
+	 * 						behind the primary and still be used.
+	 *
+	 * @throws IllegalArgumentException The primary or replica are null or
+	 * 									the maximum lag is negative.
+	 */
+	public ReadWriteRoutingDataSource(
+			final DataSource primary,
+			final DataSource replica,
+			final String replicaUrl,
+			final long maxLagSeconds) {
+
+		this(primary, replica, replicaUrl, maxLagSeconds, true);
+	}
+
+	/**
+	 * Creates the DataSource with a replica whose lag is only checked when
+	 * {@link #checkReplica()} is called. This is only used by the tests.
+	 *
+	 * @param primary The DataSource for the primary database.
+	 *
+	 * @param replica The DataSource for the read replica.
+	 *
+	 * @param maxLagSeconds The number of seconds that the replica may be
+	 * 						behind the primary and still be used.
+	 */
+	ReadWriteRoutingDataSource(
+			final DataSource primary,
+			final DataSource replica,
+			final long maxLagSeconds) {
+
+		this(primary, replica, "replica", maxLagSeconds, false);
+	}
+
+	/**
+	 * Creates the DataSource.
+	 *
+	 * @param primary The DataSource for the primary database.
+	 *
+	 * @param replica The DataSource for the read replica.
+	 *
+	 * @param replicaUrl The JDBC URL of the replica or null or empty if
+	 * 					 there is no replica.
+	 *
+	 * @param maxLagSeconds The number of seconds that the replica may be
+	 * 						behind the primary and still be used.
+	 *
+	 * @param checkLag Whether or not to check the replica's lag
+	 * 				   periodically.
+	 */
+	private ReadWriteRoutingDataSource(
+			final DataSource primary,
+			final DataSource replica,
+			final String replicaUrl,
+			final long maxLagSeconds,
+			final boolean checkLag) {
+
+		if(primary == null) {
+			throw new IllegalArgumentException("The primary is null.");
+		}
+		if(replica == null) {
+			throw new IllegalArgumentException("The replica is null.");
+		}
+		if(maxLagSeconds < 0) {
+			throw new IllegalArgumentException(
+				"The maximum lag is negative.");
+		}
+
+		this.primary = primary;
+		this.replica = replica;
+		this.maxLagSeconds = maxLagSeconds;
+
+		// A write is visible on the replica once it is no further behind
+		// than the write is old, but the lag may have grown since it was
+		// last checked.
+		stickyMillis =
+			(maxLagSeconds * 1000) + MILLISECONDS_BETWEEN_LAG_CHECKS;
+
+		replicaAvailable = false;
+		if((replicaUrl == null) || (replicaUrl.trim().length() == 0)) {
+			LOGGER.info(
+				"No read replica is configured. All connections will use " +
+					"the primary.");
+
+			lagChecker = null;
+		}
+		else {
+			replicaConfigured = true;
+
+			LOGGER.info(
+				"Read-only requests will use the replica when it is no " +
+					"more than " + maxLagSeconds + " seconds behind.");
+
+			if(checkLag) {
+				lagChecker =
+					new Timer(
+						"ReadWriteRoutingDataSource - Checking the replica's lag.",
+						true);
+				lagChecker.schedule(
+					new TimerTask() {
+						/**
+						 * Checks the replica's lag and removes the tokens that
+						 * are no longer sticky.
+						 */
+						@Override
+						public void run() {
+							checkReplica();
+							expireWrites();
+						}
+					},
+					0,
+					MILLISECONDS_BETWEEN_LAG_CHECKS);
+			}
+			else {
+				lagChecker = null;
+			}
+		}
+
+		registerMetrics(replicaConfigured);
+	}
+
+	/**
+	 * Marks the current thread as servicing a request. This must be paired
+	 * with a call to {@link #endRequest(String)} once the request has been
+	 * serviced.
+	 *
+	 * @param readOnly Whether or not the request only reads.
+	 *
+	 * @param token The request's authentication token, which may be null.
+	 */
+	public static void startRequest(
+			final boolean readOnly,
+			final String token) {
+
+		READ_ONLY.set(readOnly);
+		TOKEN.set(token);
+	}
+
+	/**
+	 * Clears the current thread's request. If the request may have written,
+	 * its token's following read-only requests will use the primary until
+	 * the replica has caught up.
+	 *
+	 * @param token The request's authentication token once it has been
+	 * 				serviced, which may differ from the one it started with if
+	 * 				the request created one. This may be null.
+	 */
+	public static void endRequest(final String token) {
+		try {
+			if(
+					replicaConfigured &&
+					(! Boolean.TRUE.equals(READ_ONLY.get())) &&
+					(token != null)) {
+
+
+				LAST_WRITE_MILLIS.put(token, System.currentTimeMillis());
+			}
+		}
+		finally {
+			READ_ONLY.remove();
+			TOKEN.remove();
+		}
+	}
+
+	/**
+	 * Sends the current thread's connections to the primary, even if its
+	 * request is read-only, until {@link #endPrimaryOnly(boolean)} is
+	 * called. This is for reads whose results are kept beyond the request,
+	 * such as caches, which must not be loaded from a replica that has not
+	 * yet caught up.
+	 *
+	 * @return Whether or not the thread was already using only the primary,
+	 * 		   which must be given to {@link #endPrimaryOnly(boolean)}.
+	 */
+	public static boolean startPrimaryOnly() {
+		boolean previous = Boolean.TRUE.equals(PRIMARY_ONLY.get());
+		PRIMARY_ONLY.set(true);
+		return previous;
+	}
+
+	/**
+	 * Returns the current thread's connections to the route before the
+	 * paired call to {@link #startPrimaryOnly()}.
+	 *
+	 * @param previous The value returned by {@link #startPrimaryOnly()}.
+	 */
+	public static void endPrimaryOnly(final boolean previous) {
+		if(! previous) {
+			PRIMARY_ONLY.remove();
+		}
+	}
+
+	/**
+	 * Returns a connection to either the replica or the primary based on the
+	 * request being serviced by the current thread.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		if(
+				Boolean.TRUE.equals(PRIMARY_ONLY.get()) ||
+				(! Boolean.TRUE.equals(READ_ONLY.get()))) {
+
+			PRIMARY_WRITES.incrementAndGet();
+			return primary.getConnection();
+		}
+
+		String token = TOKEN.get();
+		if(token != null) {
+			Long lastWrite = LAST_WRITE_MILLIS.get(token);
+			if(
+					(lastWrite != null) &&
+					((System.currentTimeMillis() - lastWrite) < stickyMillis)) {
+
+				STICKY_READS.incrementAndGet();
+				return primary.getConnection();
+			}
+		}
+
+		if(! replicaAvailable) {
+			LAG_FALLBACKS.incrementAndGet();
+			return primary.getConnection();
+		}
+
+		try {
+			Connection result = replica.getConnection();
+			REPLICA_READS.incrementAndGet();
+			return result;
+		}
+		catch(SQLException e) {
+			LOGGER.error(
+				"Could not connect to the replica, using the primary.",
+				e);
+
+			replicaAvailable = false;
+			ERROR_FALLBACKS.incrementAndGet();
+			return primary.getConnection();
+		}
+	}
+
+	/**
+	 * Returns a connection to the primary with the given credentials.
+	 */
+	@Override
+	public Connection getConnection(
+			final String username,
+			final String password)
+			throws SQLException {
+
+		PRIMARY_WRITES.incrementAndGet();
+		return primary.getConnection(username, password);
+	}
+
+	/**
+	 * Stops checking the replica's lag.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(lagChecker != null) {
+			lagChecker.cancel();
+		}
+
+		replicaConfigured = false;
+		LAST_WRITE_MILLIS.clear();
+	}
+
+	/**
+	 * Returns the number of connections given out from the primary for
+	 * requests that may write.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getPrimaryWriteCount() {
+		return PRIMARY_WRITES.get();
+	}
+
+	/**
+	 * Returns the number of connections given out from the replica.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getReplicaReadCount() {
+		return REPLICA_READS.get();
+	}
+
+	/**
+	 * Returns the number of read-only connections given out from the primary
+	 * because the token had recently written.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getStickyReadCount() {
+		return STICKY_READS.get();
+	}
+
+	/**
+	 * Returns the number of read-only connections given out from the primary
+	 * because the replica was lagging, its lag was unknown, or no replica is
+	 * configured.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getLagFallbackCount() {
+		return LAG_FALLBACKS.get();
+	}
+
+	/**
+	 * Returns the number of read-only connections given out from the primary
+	 * because connecting to the replica failed.
+	 *
+	 * @return The number of connections.
+	 */
+	public static long getErrorFallbackCount() {
+		return ERROR_FALLBACKS.get();
+	}
+
+	/**
+	 * Registers the routing counters and the gauges of the connection pools
+	 * in the metrics.
+	 *
+	 * @param withReplica Whether or not to register the replica's pool.
+	 */
+	private void registerMetrics(final boolean withReplica) {
+		registerCounter("primary_write", PRIMARY_WRITES);
+		registerCounter("replica_read", REPLICA_READS);
+		registerCounter("sticky_read", STICKY_READS);
+		registerCounter("lag_fallback", LAG_FALLBACKS);
+		registerCounter("error_fallback", ERROR_FALLBACKS);
+
+		registerPool("primary", primary);
+		if(withReplica) {
+			registerPool("replica", replica);
+		}
+	}
+
+	/**
+	 * Registers one of the routing counters. The kinds are described by the
+	 * counters' getters, e.g. {@link #getStickyReadCount()}.
+	 *
+	 * @param kind The kind of connection, which is used as the label.
+	 *
+	 * @param count The counter.
+	 */
+	private static void registerCounter(
+			final String kind,
+			final AtomicLong count) {
+
+		Metrics.registerCounter(
+			"datasource_connections_total",
+			"The number of connections given out by the routing DataSource " +
+				"for each kind of request.",
+			"kind",
+			kind,
+			new Gauge() {
+				/**
+				 * Returns the count.
+				 */
+				@Override
+				public double getValue() {
+					return count.get();
+				}
+			});
+	}
+
+	/**
+	 * Registers the gauges of a connection pool. Only the Tomcat JDBC pool
+	 * reports its state; other DataSources are ignored.
+	 *
+	 * @param name The name of the pool, which is used as the label.
+	 *
+	 * @param dataSource The pool.
+	 */
+	private static void registerPool(
+			final String name,
+			final DataSource dataSource) {
+
+		if(! (dataSource instanceof DataSourceProxy)) {
+			return;
+		}
+		final DataSourceProxy pool = (DataSourceProxy) dataSource;
+
+		Metrics.registerGauge(
+			"connection_pool_active",
+			"The number of connections in use in each pool.",
+			"pool",
+			name,
+			new Gauge() {
+				/**
+				 * Returns the number of connections in use.
+				 */
+				@Override
+				public double getValue() {
+					return pool.getActive();
+				}
+			});
+		Metrics.registerGauge(
+			"connection_pool_idle",
+			"The number of idle connections in each pool.",
+			"pool",
+			name,
+			new Gauge() {
+				/**
+				 * Returns the number of idle connections.
+				 */
+				@Override
+				public double getValue() {
+					return pool.getIdle();
+				}
+			});
+		Metrics.registerGauge(
+			"connection_pool_max_active",
+			"The maximum number of connections in each pool.",
+			"pool",
+			name,
+			new Gauge() {
+				/**
+				 * Returns the maximum number of connections.
+				 */
+				@Override
+				public double getValue() {
+					return pool.getMaxActive();
+				}
+			});
+		Metrics.registerGauge(
+			"connection_pool_waiting",
+			"The number of threads waiting for a connection from each pool.",
+			"pool",
+			name,
+			new Gauge() {
+				/**
+				 * Returns the number of waiting threads.
+				 */
+				@Override
+				public double getValue() {
+					return pool.getWaitCount();
+				}
+			});
+	}
+
+	/**
+	 * Checks how far behind the primary the replica is and updates whether
+	 * or not it may be used. This is package-private so that the tests can
+	 * check the replica when they change its lag.
+	 */
+	void checkReplica() {
+		boolean available;
+		try {
+			Long lag =
+				new JdbcTemplate(replica).query(
+					SQL_GET_REPLICA_STATUS,
+					new ResultSetExtractor<Long>() {
+						/**
+						 * Returns the replica's lag in seconds or null if
+						 * it is unknown, because replication isn't running
+						 * or the database isn't replicating from anything.
+						 * A database that isn't a replica may be missing
+						 * any number of writes, so it is never "0 behind".
+						 */
+						@Override
+						public Long extractData(
+								final ResultSet rs)
+								throws SQLException {
+
+							if(! rs.next()) {
+								return null;
+							}
+
+							long result =
+								rs.getLong(COLUMN_SECONDS_BEHIND_MASTER);
+							if(rs.wasNull()) {
+								return null;
+							}
+							return result;
+						}
+					});
+
+			if(lag == null) {
+				LOGGER.warn(
+					"The replica is not replicating from the primary " +
+						"or replication is not running.");
+				available = false;
+			}
+			else {
+				available = (lag <= maxLagSeconds);
+			}
+		}
+		catch(DataAccessException e) {
+			LOGGER.error("Could not determine the replica's lag.", e);
+			available = false;
+		}
+
+		if(available != replicaAvailable) {
+			LOGGER.info(
+				"The replica is now " +
+					((available) ? "available" : "unavailable") +
+					" for read-only requests.");
+		}
+		replicaAvailable = available;
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug(
+				"Connections - primary: " + PRIMARY_WRITES.get() +
+					", replica: " + REPLICA_READS.get() +
+					", sticky: " + STICKY_READS.get() +
+					", lag fallback: " + LAG_FALLBACKS.get() +
+					", error fallback: " + ERROR_FALLBACKS.get());
+		}
+	}
+
+	/**
+	 * Removes the tokens whose last write is old enough that the replica
+	 * must have it.
+	 */
+	private void expireWrites() {
+		long earliest = System.currentTimeMillis() - stickyMillis;
+
+		Iterator<Long> lastWrites = LAST_WRITE_MILLIS.values().iterator();
+		while(lastWrites.hasNext()) {
+			if(lastWrites.next() < earliest) {
+				lastWrites.remove();
+			}
+		}
+	}
+}
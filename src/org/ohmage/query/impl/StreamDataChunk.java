@@ -0,0 +1,672 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * <p>A compressed file of the archived stream data points of one user for
+ * one stream from one partition of the observer_stream_data table. The
+ * points are kept as they were in the table, in the order in which they were
+ * written, so that they may be read back exactly as if they had never left
+ * the table.</p>
+ * 
+ * <p>A chunk is written to a temporary file that is only renamed once it is
+ * complete, so a chunk that exists is never partially written.</p>
+ * 
+ * @author John Jenkins
+ */
+final class StreamDataChunk {
+	/**
+	 * The extension of the chunk files.
+	 */
+	public static final String FILE_EXTENSION = ".osd.gz";
+	
+	/**
+	 * The extension of a chunk file while it is being written.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	
+	/**
+	 * The first bytes of every chunk file: "OSDC".
+	 */
+	private static final int MAGIC = 0x4F534443;
+	
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * The size of the buffers between the files and their compression.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The byte that precedes each point and the one that ends the file.
+	 */
+	private static final byte MARKER_POINT = 1;
+	private static final byte MARKER_END = 0;
+	
+	/**
+	 * A single point, as its row in the observer_stream_data table.
+	 * 
+	 * @author John Jenkins
+	 */
+	public static final class Point {
+		private final String uid;
+		private final Long time;
+		private final Long timeOffset;
+		private final Long timeAdjusted;
+		private final String timeZone;
+		private final String locationTimestamp;
+		private final Double locationLatitude;
+		private final Double locationLongitude;
+		private final Double locationAccuracy;
+		private final String locationProvider;
+		private final String data;
+		private final JsonNode dataNode;
+		
+		/**
+		 * Creates a point.
+		 * 
+		 * @param uid The point's unique identifier, which may be null.
+		 * 
+		 * @param time The point's time, which may be null.
+		 * 
+		 * @param timeOffset The offset of the point's time zone, which may be
+		 * 					 null.
+		 * 
+		 * @param timeAdjusted The point's time in its time zone, which may
+		 * 					   be null.
+		 * 
+		 * @param timeZone The point's time zone, which may be null.
+		 * 
+		 * @param locationTimestamp The timestamp of the point's location,
+		 * 							which is null if it has no location.
+		 * 
+		 * @param locationLatitude The location's latitude.
+		 * 
+		 * @param locationLongitude The location's longitude.
+		 * 
+		 * @param locationAccuracy The location's accuracy.
+		 * 
+		 * @param locationProvider The location's provider.
+		 * 
+		 * @param data The point's data, as JSON.
+		 */
+		public Point(
+				final String uid,
+				final Long time,
+				final Long timeOffset,
+				final Long timeAdjusted,
+				final String timeZone,
+				final String locationTimestamp,
+				final Double locationLatitude,
+				final Double locationLongitude,
+				final Double locationAccuracy,
+				final String locationProvider,
+				final String data) {
+			
+			this.uid = uid;
+			this.time = time;
+			this.timeOffset = timeOffset;
+			this.timeAdjusted = timeAdjusted;
+			this.timeZone = timeZone;
+			this.locationTimestamp = locationTimestamp;
+			this.locationLatitude = locationLatitude;
+			this.locationLongitude = locationLongitude;
+			this.locationAccuracy = locationAccuracy;
+			this.locationProvider = locationProvider;
+			this.data = data;
+			this.dataNode = null;
+		}
+		
+		/**
+		 * Creates a point whose data has already been parsed.
+		 * 
+		 * @param dataNode The point's data.
+		 * 
+		 * @see #Point(String, Long, Long, Long, String, String, Double, Double, Double, String, String)
+		 */
+		public Point(
+				final String uid,
+				final Long time,
+				final Long timeOffset,
+				final Long timeAdjusted,
+				final String timeZone,
+				final String locationTimestamp,
+				final Double locationLatitude,
+				final Double locationLongitude,
+				final Double locationAccuracy,
+				final String locationProvider,
+				final JsonNode dataNode) {
+			
+			this.uid = uid;
+			this.time = time;
+			this.timeOffset = timeOffset;
+			this.timeAdjusted = timeAdjusted;
+			this.timeZone = timeZone;
+			this.locationTimestamp = locationTimestamp;
+			this.locationLatitude = locationLatitude;
+			this.locationLongitude = locationLongitude;
+			this.locationAccuracy = locationAccuracy;
+			this.locationProvider = locationProvider;
+			this.data = null;
+			this.dataNode = dataNode;
+		}
+		
+		/**
+		 * Returns the point's unique identifier.
+		 * 
+		 * @return The point's unique identifier, which may be null.
+		 */
+		public String getUid() {
+			return uid;
+		}
+		
+		/**
+		 * Returns the point's time.
+		 * 
+		 * @return The point's time, which may be null.
+		 */
+		public Long getTime() {
+			return time;
+		}
+		
+		/**
+		 * Returns the offset of the point's time zone.
+		 * 
+		 * @return The offset of the point's time zone, which may be null.
+		 */
+		public Long getTimeOffset() {
+			return timeOffset;
+		}
+		
+		/**
+		 * Returns the point's time in its time zone.
+		 * 
+		 * @return The point's time in its time zone, which may be null.
+		 */
+		public Long getTimeAdjusted() {
+			return timeAdjusted;
+		}
+		
+		/**
+		 * Returns the point's time zone.
+		 * 
+		 * @return The point's time zone, which may be null.
+		 */
+		public String getTimeZone() {
+			return timeZone;
+		}
+		
+		/**
+		 * Returns the timestamp of the point's location.
+		 * 
+		 * @return The timestamp of the point's location, which is null if it
+		 * 		   has no location.
+		 */
+		public String getLocationTimestamp() {
+			return locationTimestamp;
+		}
+		
+		/**
+		 * Returns the latitude of the point's location.
+		 * 
+		 * @return The latitude of the point's location, which may be null.
+		 */
+		public Double getLocationLatitude() {
+			return locationLatitude;
+		}
+		
+		/**
+		 * Returns the longitude of the point's location.
+		 * 
+		 * @return The longitude of the point's location, which may be null.
+		 */
+		public Double getLocationLongitude() {
+			return locationLongitude;
+		}
+		
+		/**
+		 * Returns the accuracy of the point's location.
+		 * 
+		 * @return The accuracy of the point's location, which may be null.
+		 */
+		public Double getLocationAccuracy() {
+			return locationAccuracy;
+		}
+		
+		/**
+		 * Returns the provider of the point's location.
+		 * 
+		 * @return The provider of the point's location, which may be null.
+		 */
+		public String getLocationProvider() {
+			return locationProvider;
+		}
+		
+		/**
+		 * Returns the point's data.
+		 * 
+		 * @return The point's data, as JSON.
+		 */
+		public String getData() {
+			return (data == null) ? dataNode.toString() : data;
+		}
+		
+		/**
+		 * Returns the point's data if it has already been parsed.
+		 * 
+		 * @return The point's data or null if it is only JSON text.
+		 */
+		public JsonNode getDataNode() {
+			return dataNode;
+		}
+	}
+	
+	/**
+	 * Writes the points of a single chunk.
+	 * 
+	 * @author John Jenkins
+	 */
+	public static final class Writer implements Closeable {
+		private final File file;
+		private final File temporaryFile;
+		private final DataOutputStream output;
+		
+		private int numPoints = 0;
+		private Long minTimeAdjusted = null;
+		private Long maxTimeAdjusted = null;
+		
+		private boolean closed = false;
+		
+		/**
+		 * Creates a new chunk, replacing any existing chunk at the same
+		 * location once it is finished.
+		 * 
+		 * @param file The chunk's file.
+		 * 
+		 * @throws IOException The file could not be created.
+		 */
+		public Writer(final File file) throws IOException {
+			File parent = file.getParentFile();
+			if(
+				(parent != null) && 
+				(! parent.isDirectory()) && 
+				(! parent.mkdirs())) {
+				
+				throw new IOException(
+					"The directory could not be created: " + 
+						parent.getAbsolutePath());
+			}
+			
+			this.file = file;
+			temporaryFile = 
+				new File(file.getAbsolutePath() + TEMPORARY_EXTENSION);
+			
+			output = 
+				new DataOutputStream(
+					new BufferedOutputStream(
+						new GZIPOutputStream(
+							new FileOutputStream(temporaryFile),
+							BUFFER_SIZE),
+						BUFFER_SIZE));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+		}
+		
+		/**
+		 * Adds a point to the chunk.
+		 * 
+		 * @param point The point.
+		 * 
+		 * @throws IOException The point could not be written.
+		 */
+		public void write(final Point point) throws IOException {
+			output.writeByte(MARKER_POINT);
+			writeString(output, point.uid);
+			writeLong(output, point.time);
+			writeLong(output, point.timeOffset);
+			writeLong(output, point.timeAdjusted);
+			writeString(output, point.timeZone);
+			writeString(output, point.locationTimestamp);
+			writeDouble(output, point.locationLatitude);
+			writeDouble(output, point.locationLongitude);
+			writeDouble(output, point.locationAccuracy);
+			writeString(output, point.locationProvider);
+			writeString(output, point.getData());
+			
+			numPoints++;
+			if(point.timeAdjusted != null) {
+				if(
+					(minTimeAdjusted == null) || 
+					(point.timeAdjusted < minTimeAdjusted)) {
+					
+					minTimeAdjusted = point.timeAdjusted;
+				}
+				if(
+					(maxTimeAdjusted == null) || 
+					(point.timeAdjusted > maxTimeAdjusted)) {
+					
+					maxTimeAdjusted = point.timeAdjusted;
+				}
+			}
+		}
+		
+		/**
+		 * Returns the number of points that have been written.
+		 * 
+		 * @return The number of points that have been written.
+		 */
+		public int getNumPoints() {
+			return numPoints;
+		}
+		
+		/**
+		 * Returns the earliest adjusted time of the points that have been
+		 * written.
+		 * 
+		 * @return The earliest adjusted time or null if no points with an
+		 * 		   adjusted time have been written.
+		 */
+		public Long getMinTimeAdjusted() {
+			return minTimeAdjusted;
+		}
+		
+		/**
+		 * Returns the latest adjusted time of the points that have been
+		 * written.
+		 * 
+		 * @return The latest adjusted time or null if no points with an
+		 * 		   adjusted time have been written.
+		 */
+		public Long getMaxTimeAdjusted() {
+			return maxTimeAdjusted;
+		}
+		
+		/**
+		 * Returns the chunk's file.
+		 * 
+		 * @return The chunk's file, which only exists once the chunk has been
+		 * 		   closed.
+		 */
+		public File getFile() {
+			return file;
+		}
+		
+		/**
+		 * Finishes the chunk and moves it into place.
+		 * 
+		 * @throws IOException The chunk could not be finished.
+		 */
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			
+			output.writeByte(MARKER_END);
+			output.close();
+			
+			if(file.exists() && (! file.delete())) {
+				throw new IOException(
+					"The existing chunk could not be replaced: " + 
+						file.getAbsolutePath());
+			}
+			if(! temporaryFile.renameTo(file)) {
+				throw new IOException(
+					"The chunk could not be moved into place: " + 
+						file.getAbsolutePath());
+			}
+		}
+		
+		/**
+		 * Abandons the chunk, removing what has been written.
+		 */
+		public void abort() {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			
+			try {
+				output.close();
+			}
+			catch(IOException e) {
+				// The file is being removed anyway.
+			}
+			temporaryFile.delete();
+		}
+	}
+	
+	/**
+	 * This class is static.
+	 */
+	private StreamDataChunk() {}
+	
+	/**
+	 * Reads the points of a chunk whose adjusted times are within a range.
+	 * 
+	 * @param file The chunk's file.
+	 * 
+	 * @param startTimeAdjusted The earliest adjusted time, inclusive, or
+	 * 							null for no limit.
+	 * 
+	 * @param endTimeAdjusted The latest adjusted time, inclusive, or null for
+	 * 						  no limit.
+	 * 
+	 * @return The points in the order in which they were written.
+	 * 
+	 * @throws IOException The chunk could not be read or is corrupt.
+	 */
+	public static List<Point> read(
+			final File file,
+			final Long startTimeAdjusted,
+			final Long endTimeAdjusted)
+			throws IOException {
+		
+		List<Point> result = new ArrayList<Point>();
+		
+		DataInputStream input =
+			new DataInputStream(
+				new BufferedInputStream(
+					new GZIPInputStream(
+						new FileInputStream(file),
+						BUFFER_SIZE),
+					BUFFER_SIZE));
+		try {
+			if(input.readInt() != MAGIC) {
+				throw new IOException(
+					"The file is not a chunk: " + file.getAbsolutePath());
+			}
+			int version = input.readInt();
+			if(version != VERSION) {
+				throw new IOException(
+					"The chunk's version is unknown: " + version);
+			}
+			
+			while(input.readByte() == MARKER_POINT) {
+				Point point =
+					new Point(
+						readString(input),
+						readLong(input),
+						readLong(input),
+						readLong(input),
+						readString(input),
+						readString(input),
+						readDouble(input),
+						readDouble(input),
+						readDouble(input),
+						readString(input),
+						readString(input));
+				
+				// As in the database, a point without an adjusted time is
+				// only within a range that has no limits.
+				if(
+					((startTimeAdjusted == null) || 
+						((point.timeAdjusted != null) && 
+						 (point.timeAdjusted >= startTimeAdjusted))) &&
+					((endTimeAdjusted == null) ||
+						((point.timeAdjusted != null) && 
+						 (point.timeAdjusted <= endTimeAdjusted)))) {
+					
+					result.add(point);
+				}
+			}
+		}
+		finally {
+			input.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Writes a string that may be null.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param value The string.
+	 * 
+	 * @throws IOException The string could not be written.
+	 */
+	static void writeString(
+			final DataOutputStream output,
+			final String value)
+			throws IOException {
+		
+		if(value == null) {
+			output.writeInt(-1);
+		}
+		else {
+			byte[] bytes = value.getBytes("UTF-8");
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+	
+	/**
+	 * Reads a string that may be null.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @return The string.
+	 * 
+	 * @throws IOException The string could not be read.
+	 */
+	static String readString(
+			final DataInputStream input)
+			throws IOException {
+		
+		int length = input.readInt();
+		if(length < 0) {
+			return null;
+		}
+		
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	/**
+	 * Writes a number that may be null.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param value The number.
+	 * 
+	 * @throws IOException The number could not be written.
+	 */
+	private static void writeLong(
+			final DataOutputStream output,
+			final Long value)
+			throws IOException {
+		
+		output.writeBoolean(value != null);
+		if(value != null) {
+			output.writeLong(value);
+		}
+	}
+	
+	/**
+	 * Reads a number that may be null.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @return The number.
+	 * 
+	 * @throws IOException The number could not be read.
+	 */
+	private static Long readLong(
+			final DataInputStream input)
+			throws IOException {
+		
+		return (input.readBoolean()) ? input.readLong() : null;
+	}
+	
+	/**
+	 * Writes a number that may be null.
+	 * 
+	 * @param output The output.
+	 * 
+	 * @param value The number.
+	 * 
+	 * @throws IOException The number could not be written.
+	 */
+	private static void writeDouble(
+			final DataOutputStream output,
+			final Double value)
+			throws IOException {
+		
+		output.writeBoolean(value != null);
+		if(value != null) {
+			output.writeDouble(value);
+		}
+	}
+	
+	/**
+	 * Reads a number that may be null.
+	 * 
+	 * @param input The input.
+	 * 
+	 * @return The number.
+	 * 
+	 * @throws IOException The number could not be read.
+	 */
+	private static Double readDouble(
+			final DataInputStream input)
+			throws IOException {
+		
+		return (input.readBoolean()) ? input.readDouble() : null;
+	}
+}
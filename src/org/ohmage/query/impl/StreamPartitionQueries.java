@@ -0,0 +1,761 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.TablePartition;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IStreamPartitionQueries;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * This class contains all of the functionality for managing the partitions
+ * of the tables that are partitioned by time and for archiving the stream
+ * data in old partitions.
+ *
+ * @author John Jenkins
+ */
+public final class StreamPartitionQueries extends Query implements IStreamPartitionQueries {
+	private static final Logger LOGGER =
+		Logger.getLogger(StreamPartitionQueries.class);
+
+	/**
+	 * The value of a partition's description when it has no upper bound.
+	 */
+	private static final String MAXVALUE = "MAXVALUE";
+
+	/**
+	 * The names of tables and partitions that may be put into the DDL, which
+	 * cannot be parameterized.
+	 */
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_]+");
+
+	// Takes the partition lock if no other connection holds it. The lock's
+	// name is per database, because MySQL's locks are per server.
+	private static final String SQL_GET_LOCK =
+		"SELECT GET_LOCK(CONCAT(DATABASE(), '.stream_partitions'), 0)";
+
+	// Releases the partition lock.
+	private static final String SQL_RELEASE_LOCK =
+		"SELECT RELEASE_LOCK(CONCAT(DATABASE(), '.stream_partitions'))";
+
+	// Returns the partitions of a table in the current database.
+	private static final String SQL_GET_PARTITIONS =
+		"SELECT partition_name, partition_description " +
+		"FROM information_schema.partitions " +
+		"WHERE table_schema = DATABASE() " +
+		"AND table_name = ? " +
+		"AND partition_name IS NOT NULL " +
+		"ORDER BY partition_ordinal_position";
+
+	// Returns the stream data in a range of adjusted times, grouped by user
+	// and stream. The lower bound must be appended.
+	private static final String SQL_GET_STREAM_DATA =
+		"SELECT " +
+			"user_id, " +
+			"observer_stream_link_id, " +
+			"uid, " +
+			"time, " +
+			"time_offset, " +
+			"time_adjusted, " +
+			"time_zone, " +
+			"location_timestamp, " +
+			"location_latitude, " +
+			"location_longitude, " +
+			"location_accuracy, " +
+			"location_provider, " +
+			"data " +
+		"FROM observer_stream_data FORCE INDEX (observer_stream_data_query) " +
+		"WHERE time_adjusted < ?";
+
+	// The lower bound of the stream data.
+	private static final String SQL_WHERE_LOWER_BOUND =
+		" AND time_adjusted >= ?";
+
+	// The order of the stream data.
+	private static final String SQL_ORDER_BY_CHUNK =
+		" ORDER BY user_id, observer_stream_link_id, time_adjusted";
+
+	// Records a chunk in the archive, replacing any previous archive of the
+	// same user's data for the same stream from the same partition.
+	private static final String SQL_INSERT_ARCHIVE =
+		"INSERT INTO observer_stream_data_archive(" +
+			"user_id, " +
+			"observer_stream_link_id, " +
+			"partition_name, " +
+			"time_adjusted_min, " +
+			"time_adjusted_max, " +
+			"num_points, " +
+			"file_path) " +
+		"VALUES (?, ?, ?, ?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"time_adjusted_min = VALUES(time_adjusted_min), " +
+			"time_adjusted_max = VALUES(time_adjusted_max), " +
+			"num_points = VALUES(num_points), " +
+			"file_path = VALUES(file_path)";
+
+	// Returns the chunk files that are deleted along with a user: their own
+	// and every user's chunks for the streams of the observers they own.
+	private static final String SQL_GET_ARCHIVE_FILES =
+		"SELECT file_path " +
+		"FROM observer_stream_data_archive " +
+		"WHERE user_id = (SELECT id FROM user WHERE username = ?) " +
+		"OR observer_stream_link_id IN (" +
+			"SELECT osl.id " +
+			"FROM user u, observer o, observer_stream_link osl " +
+			"WHERE u.username = ? " +
+			"AND u.id = o.user_id " +
+			"AND o.id = osl.observer_id" +
+		")";
+
+	/**
+	 * A chunk that has been written but not yet recorded in the archive.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class WrittenChunk {
+		private final long userId;
+		private final long observerStreamLinkId;
+		private final Long minTimeAdjusted;
+		private final Long maxTimeAdjusted;
+		private final int numPoints;
+		private final String filePath;
+
+		/**
+		 * Records a finished chunk.
+		 *
+		 * @param userId The user's database ID.
+		 *
+		 * @param observerStreamLinkId The stream's database ID.
+		 *
+		 * @param writer The chunk's writer, which must be closed.
+		 */
+		private WrittenChunk(
+				final long userId,
+				final long observerStreamLinkId,
+				final StreamDataChunk.Writer writer) {
+
+			this.userId = userId;
+			this.observerStreamLinkId = observerStreamLinkId;
+			minTimeAdjusted = writer.getMinTimeAdjusted();
+			maxTimeAdjusted = writer.getMaxTimeAdjusted();
+			numPoints = writer.getNumPoints();
+			filePath = writer.getFile().getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Writes each user's data for each stream into its own chunk. The rows
+	 * must be ordered by user and stream, so that only one chunk is open at
+	 * a time.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ChunkWriter implements RowCallbackHandler {
+		private final File directory;
+		private final String fileName;
+		private final List<WrittenChunk> chunks = new ArrayList<WrittenChunk>();
+
+		private long userId = -1;
+		private long observerStreamLinkId = -1;
+		private StreamDataChunk.Writer writer = null;
+
+		/**
+		 * Creates a writer of chunks.
+		 *
+		 * @param directory The directory under which the chunks are written.
+		 *
+		 * @param fileName The name of each chunk's file, which is put in a
+		 * 				   directory per user and stream.
+		 */
+		private ChunkWriter(final File directory, final String fileName) {
+			this.directory = directory;
+			this.fileName = fileName;
+		}
+
+		/**
+		 * Writes the row to its chunk, finishing the previous chunk if this
+		 * is the first row of a new one.
+		 */
+		@Override
+		public void processRow(final ResultSet rs) throws SQLException {
+			long rowUserId = rs.getLong("user_id");
+			long rowObserverStreamLinkId =
+				rs.getLong("observer_stream_link_id");
+
+			try {
+				if(
+					(writer == null) ||
+					(rowUserId != userId) ||
+					(rowObserverStreamLinkId != observerStreamLinkId)) {
+
+					finish();
+
+					userId = rowUserId;
+					observerStreamLinkId = rowObserverStreamLinkId;
+					writer =
+						new StreamDataChunk.Writer(
+							new File(
+								directory,
+								userId + File.separator +
+									observerStreamLinkId + File.separator +
+									fileName));
+				}
+
+				writer.write(
+					new StreamDataChunk.Point(
+						rs.getString("uid"),
+						getLong(rs, "time"),
+						getLong(rs, "time_offset"),
+						getTimeAdjusted(rs),
+						rs.getString("time_zone"),
+						rs.getString("location_timestamp"),
+						getDouble(rs, "location_latitude"),
+						getDouble(rs, "location_longitude"),
+						getDouble(rs, "location_accuracy"),
+						rs.getString("location_provider"),
+						rs.getString("data")));
+			}
+			catch(IOException e) {
+				throw new SQLException("The chunk could not be written.", e);
+			}
+		}
+
+		/**
+		 * Finishes the open chunk, if any.
+		 *
+		 * @throws IOException The chunk could not be finished.
+		 */
+		private void finish() throws IOException {
+			if(writer != null) {
+				writer.close();
+				chunks.add(
+					new WrittenChunk(userId, observerStreamLinkId, writer));
+				writer = null;
+			}
+		}
+
+		/**
+		 * Abandons the open chunk, if any. The chunks that were finished are
+		 * left, because they are replaced when the partition is archived
+		 * again.
+		 */
+		private void abort() {
+			if(writer != null) {
+				writer.abort();
+				writer = null;
+			}
+		}
+
+		/**
+		 * Returns the chunks that were finished.
+		 *
+		 * @return The chunks that were finished.
+		 */
+		private List<WrittenChunk> getChunks() {
+			return chunks;
+		}
+	}
+
+	/**
+	 * The template that streams the rows of a partition rather than reading
+	 * them all into memory.
+	 */
+	private final JdbcTemplate streamingJdbcTemplate;
+
+	/**
+	 * Creates this object via dependency injection (reflection).
+	 *
+	 * @param dataSource The DataSource to use when querying the database.
+	 */
+	private StreamPartitionQueries(final DataSource dataSource) {
+		super(dataSource);
+
+		// This is MySQL's signal to stream the results.
+		streamingJdbcTemplate =
+			new TimedJdbcTemplate(dataSource, getClass().getSimpleName());
+		streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#runWithPartitionLock(org.ohmage.query.IStreamPartitionQueries.LockedTask)
+	 */
+	@Override
+	public boolean runWithPartitionLock(
+			final LockedTask task)
+			throws DataAccessException {
+
+		// The lock belongs to the connection that took it, so that 
+		// connection is held until the task is done, while the task uses
+		// others. If the server dies, closing its connection releases the
+		// lock.
+		final DataAccessException[] taskException = 
+			new DataAccessException[1];
+		Boolean ran;
+		try {
+			ran = getJdbcTemplate().execute(
+				new ConnectionCallback<Boolean>() {
+					/**
+					 * Takes the lock, runs the task, and releases the lock.
+					 */
+					@Override
+					public Boolean doInConnection(
+							final Connection connection)
+							throws SQLException {
+
+						if(! queryLock(connection, SQL_GET_LOCK)) {
+							return false;
+						}
+
+						try {
+							task.run();
+						}
+						catch(DataAccessException e) {
+							taskException[0] = e;
+						}
+						finally {
+							queryLock(connection, SQL_RELEASE_LOCK);
+						}
+						return true;
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_LOCK + "' or '" +
+					SQL_RELEASE_LOCK + "'.",
+				e);
+		}
+
+		if(taskException[0] != null) {
+			throw taskException[0];
+		}
+		return Boolean.TRUE.equals(ran);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#getPartitions(java.lang.String)
+	 */
+	@Override
+	public List<TablePartition> getPartitions(
+			final String table)
+			throws DataAccessException {
+
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_PARTITIONS,
+				new Object[] { table },
+				new RowMapper<TablePartition>() {
+					/**
+					 * Creates the partition from its name and description.
+					 */
+					@Override
+					public TablePartition mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+
+						String description =
+							rs.getString("partition_description");
+
+						Long upperBound = null;
+						if(! MAXVALUE.equalsIgnoreCase(description)) {
+							try {
+								upperBound = Long.decode(description);
+							}
+							catch(NumberFormatException e) {
+								throw new SQLException(
+									"The partition's bound is not a " +
+										"number: " + description,
+									e);
+							}
+						}
+
+						return new TablePartition(
+							rs.getString("partition_name"),
+							upperBound);
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_PARTITIONS +
+					"' with parameter: " + table,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#addPartitions(java.lang.String, org.ohmage.domain.TablePartition, java.util.List)
+	 */
+	@Override
+	public void addPartitions(
+			final String table,
+			final TablePartition lastPartition,
+			final List<TablePartition> newPartitions)
+			throws DataAccessException {
+
+		if(newPartitions.isEmpty()) {
+			return;
+		}
+
+		StringBuilder definitions = new StringBuilder();
+		for(TablePartition partition : newPartitions) {
+			if(partition.getUpperBound() == null) {
+				throw new DataAccessException(
+					"A new partition has no upper bound: " +
+						partition.getName());
+			}
+
+			if(definitions.length() > 0) {
+				definitions.append(", ");
+			}
+			definitions
+				.append("PARTITION ")
+				.append(checkIdentifier(partition.getName()))
+				.append(" VALUES LESS THAN (")
+				.append(partition.getUpperBound())
+				.append(')');
+		}
+
+		String sql;
+		if(lastPartition.getUpperBound() == null) {
+			sql =
+				"ALTER TABLE " + checkIdentifier(table) + " " +
+				"REORGANIZE PARTITION " +
+					checkIdentifier(lastPartition.getName()) + " " +
+				"INTO (" +
+					definitions + ", " +
+					"PARTITION " + lastPartition.getName() + " " +
+						"VALUES LESS THAN " + MAXVALUE +
+				")";
+		}
+		else {
+			sql =
+				"ALTER TABLE " + checkIdentifier(table) + " " +
+				"ADD PARTITION (" + definitions + ")";
+		}
+
+		try {
+			getJdbcTemplate().execute(sql);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.",
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#archiveStreamDataPartition(org.ohmage.domain.TablePartition, java.lang.Long, java.io.File)
+	 */
+	@Override
+	public long archiveStreamDataPartition(
+			final TablePartition partition,
+			final Long lowerBound,
+			final File directory)
+			throws DataAccessException {
+
+		if(partition.getUpperBound() == null) {
+			throw new DataAccessException(
+				"The partition has no upper bound: " + partition.getName());
+		}
+		final String fileName =
+			checkIdentifier(partition.getName()) +
+			StreamDataChunk.FILE_EXTENSION;
+
+		StringBuilder sql = new StringBuilder(SQL_GET_STREAM_DATA);
+		List<Object> parameters = new ArrayList<Object>(2);
+		parameters.add(partition.getUpperBound());
+		if(lowerBound != null) {
+			sql.append(SQL_WHERE_LOWER_BOUND);
+			parameters.add(lowerBound);
+		}
+		sql.append(SQL_ORDER_BY_CHUNK);
+
+		// Write each user's data for each stream into its own chunk.
+		ChunkWriter chunkWriter = new ChunkWriter(directory, fileName);
+		try {
+			streamingJdbcTemplate.query(
+				sql.toString(),
+				parameters.toArray(),
+				chunkWriter);
+			
+			chunkWriter.finish();
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			chunkWriter.abort();
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "' with parameters: " +
+					parameters,
+				e);
+		}
+		catch(IOException e) {
+			chunkWriter.abort();
+			throw new DataAccessException(
+				"The last chunk could not be written.",
+				e);
+		}
+
+		List<WrittenChunk> chunks = chunkWriter.getChunks();
+		List<Object[]> args = new ArrayList<Object[]>(chunks.size());
+		long numPoints = 0;
+		for(WrittenChunk chunk : chunks) {
+			args.add(
+				new Object[] {
+					chunk.userId,
+					chunk.observerStreamLinkId,
+					partition.getName(),
+					chunk.minTimeAdjusted,
+					chunk.maxTimeAdjusted,
+					chunk.numPoints,
+					chunk.filePath
+				});
+			numPoints += chunk.numPoints;
+		}
+
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Recording the archived stream data.");
+
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			try {
+				getJdbcTemplate().batchUpdate(SQL_INSERT_ARCHIVE, args);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" + SQL_INSERT_ARCHIVE + "'.",
+					e);
+			}
+
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.",
+					e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.",
+				e);
+		}
+
+		LOGGER.info(
+			"Archived " + numPoints + " points in " + chunks.size() +
+				" chunks from partition " + partition.getName() + ".");
+		return numPoints;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#dropPartition(java.lang.String, org.ohmage.domain.TablePartition)
+	 */
+	@Override
+	public void dropPartition(
+			final String table,
+			final TablePartition partition)
+			throws DataAccessException {
+
+		String sql =
+			"ALTER TABLE " + checkIdentifier(table) + " " +
+			"DROP PARTITION " + checkIdentifier(partition.getName());
+
+		try {
+			getJdbcTemplate().execute(sql);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.",
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IStreamPartitionQueries#getArchiveFiles(java.lang.String)
+	 */
+	@Override
+	public Collection<File> getArchiveFiles(
+			final String username)
+			throws DataAccessException {
+
+		try {
+			List<String> paths =
+				getJdbcTemplate().query(
+					SQL_GET_ARCHIVE_FILES,
+					new Object[] { username, username },
+					new SingleColumnRowMapper<String>());
+
+			List<File> result = new ArrayList<File>(paths.size());
+			for(String path : paths) {
+				result.add(new File(path));
+			}
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_ARCHIVE_FILES +
+					"' with parameter: " + username,
+				e);
+		}
+	}
+
+	/**
+	 * Takes or releases a lock.
+	 *
+	 * @param connection The connection that holds the lock.
+	 *
+	 * @param sql The query that takes or releases the lock.
+	 *
+	 * @return True if the query returned 1, which means that the lock was
+	 * 		   taken or released.
+	 *
+	 * @throws SQLException The query failed.
+	 */
+	private static boolean queryLock(
+			final Connection connection,
+			final String sql)
+			throws SQLException {
+
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery(sql);
+			return rs.next() && (rs.getInt(1) == 1);
+		}
+		finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Verifies that a name may be put into DDL as it is.
+	 *
+	 * @param identifier The name.
+	 *
+	 * @return The name.
+	 *
+	 * @throws DataAccessException The name has characters that aren't
+	 * 							   allowed.
+	 */
+	private static String checkIdentifier(
+			final String identifier)
+			throws DataAccessException {
+
+		if(! IDENTIFIER.matcher(identifier).matches()) {
+			throw new DataAccessException(
+				"The identifier is not allowed: " + identifier);
+		}
+		return identifier;
+	}
+
+	/**
+	 * Returns a column that may be null.
+	 *
+	 * @param rs The result set.
+	 *
+	 * @param column The column.
+	 *
+	 * @return The column's value, which may be null.
+	 *
+	 * @throws SQLException The column could not be read.
+	 */
+	private static Long getLong(
+			final ResultSet rs,
+			final String column)
+			throws SQLException {
+
+		long value = rs.getLong(column);
+		return (rs.wasNull()) ? null : value;
+	}
+
+	/**
+	 * Returns a point's adjusted time, which is archived as null if the
+	 * point has no timestamp.
+	 *
+	 * @param rs The result set.
+	 *
+	 * @return The adjusted time or null if the point has no timestamp.
+	 *
+	 * @throws SQLException The column could not be read.
+	 */
+	private static Long getTimeAdjusted(
+			final ResultSet rs)
+			throws SQLException {
+
+		long value = rs.getLong("time_adjusted");
+		return
+			(rs.wasNull() || (value == ObserverQueries.NO_TIME_ADJUSTED)) ?
+				null :
+				value;
+	}
+
+	/**
+	 * Returns a column that may be null.
+	 *
+	 * @param rs The result set.
+	 *
+	 * @param column The column.
+	 *
+	 * @return The column's value, which may be null.
+	 *
+	 * @throws SQLException The column could not be read.
+	 */
+	private static Double getDouble(
+			final ResultSet rs,
+			final String column)
+			throws SQLException {
+
+		double value = rs.getDouble(column);
+		return (rs.wasNull()) ? null : value;
+	}
+}
@@ -15,36 +15,39 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.ohmage.domain.campaign.Campaign;
-import org.ohmage.domain.campaign.Prompt;
+import org.ohmage.domain.campaign.PromptResponseImage;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
 import org.ohmage.exception.DataAccessException;
-import org.ohmage.exception.DomainException;
+import org.ohmage.query.ICampaignResponseStatsQueries;
 import org.ohmage.query.ISurveyResponseQueries;
-import org.ohmage.util.DateTimeUtils;
+import org.ohmage.query.IUserActivityQueries;
 import org.ohmage.util.StringUtils;
-import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -205,6 +208,30 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			SQL_BASE_FROM +
 			SQL_FROM_WITH_PROMPT_RESPONSE;
 
+	/**
+	 * Retrieves only the prompt response's ID and the image's ID and URL for
+	 * each photo prompt response. The image is joined directly so that prompt
+	 * responses that were skipped or not displayed are ignored.
+	 */
+	private static final String SQL_GET_PROMPT_RESPONSE_IMAGES =
+		"SELECT pr.id, pr.response, ubr.url " +
+			SQL_BASE_FROM +
+			SQL_FROM_WITH_PROMPT_RESPONSE +
+			"JOIN url_based_resource AS ubr ON ubr.uuid = pr.response ";
+	
+	/**
+	 * Pages through the prompt responses in the order of their IDs. This
+	 * should be appended after the rest of the WHERE clause and requires the
+	 * last ID that was seen and the maximum number of rows to return.
+	 */
+	private static final String SQL_WHERE_AFTER_PROMPT_RESPONSE_ID_ORDERED =
+		" AND pr.id > ? ORDER BY pr.id LIMIT ?";
+	
+	/**
+	 * The prompt type of prompt responses that reference images.
+	 */
+	private static final String PROMPT_TYPE_PHOTO = "photo";
+	
 	/**
 	 * The base WHERE clause for all queries.
 	 */
@@ -310,27 +337,364 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		" ORDER BY sr.epoch_millis DESC, sr.uuid";
 	*/
 	
-	// Updates a survey response's privacy state.
+	// Retrieves the database ID of a survey response privacy state.
+	static final String SQL_GET_SURVEY_RESPONSE_PRIVACY_STATE_ID =
+		"SELECT id " +
+		"FROM survey_response_privacy_state " +
+		"WHERE privacy_state = ?";
+	
+	// Updates the privacy state of a list of survey responses. This SQL is
+	// incomplete and ends with "IN ".
 	private static final String SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE = 
 		"UPDATE survey_response " +
-		"SET privacy_state_id = (SELECT id FROM survey_response_privacy_state WHERE privacy_state = ?) " +
-		"WHERE uuid in ";
+		"SET privacy_state_id = ? " +
+		"WHERE privacy_state_id != ? " +
+		"AND uuid IN ";
+	
+	// Updates the privacy state of all of a campaign's survey responses. The
+	// SQL_WHERE_* clauses may be appended to limit the update.
+	private static final String SQL_UPDATE_CAMPAIGN_SURVEY_RESPONSES_PRIVACY_STATE =
+		"UPDATE survey_response sr " +
+			"JOIN campaign c ON sr.campaign_id = c.id " +
+			"JOIN user u ON sr.user_id = u.id " +
+		"SET sr.privacy_state_id = ? " +
+		"WHERE c.urn = ? " +
+		"AND sr.privacy_state_id != ?";
+	
+	// Limits a campaign update to the survey responses with a privacy state.
+	private static final String SQL_WHERE_PRIVACY_STATE_ID =
+		" AND sr.privacy_state_id = ?";
+	
+	/**
+	 * The maximum number of survey response IDs in a single update. This
+	 * keeps the statements well under the limit on the number of parameters.
+	 */
+	private static final int MAX_UPDATE_CHUNK_SIZE = 1000;
 	
 	// Deletes a survey response and subsequently all prompt response 
 	// references.
 	private static final String SQL_DELETE_SURVEY_RESPONSE =
 		"DELETE FROM survey_response " +
 		"WHERE uuid = ?";
+	
+	// Counts and locks survey responses by their campaign, user, privacy
+	// state, and the hour in which they were uploaded. The names are looked
+	// up in subqueries, which are not locked, so that only the survey
+	// responses are locked and in the same order as the update that follows.
+	// One of the SQL_WHERE_COUNT_* clauses, optionally followed by the
+	// SQL_WHERE_* clauses, and then SQL_GROUP_RESPONSE_COUNTS must be
+	// appended.
+	private static final String SQL_GET_RESPONSE_COUNTS =
+		"SELECT " +
+			"(SELECT urn FROM campaign WHERE id = sr.campaign_id) AS urn, " +
+			"(SELECT username FROM user WHERE id = sr.user_id) AS username, " +
+			"(SELECT privacy_state " +
+				"FROM survey_response_privacy_state " +
+				"WHERE id = sr.privacy_state_id) AS privacy_state, " +
+			"FLOOR(UNIX_TIMESTAMP(sr.upload_timestamp) / 3600) AS upload_hour, " +
+			"COUNT(*) AS response_count, " +
+			"SUM(sr.location IS NOT NULL) AS located_count, " +
+			"MAX(sr.upload_timestamp) AS last_upload_timestamp " +
+		"FROM survey_response sr ";
+	
+	// Limits the counts to a list of survey responses that aren't already in
+	// a privacy state. This SQL is incomplete and ends with "IN ".
+	private static final String SQL_WHERE_COUNT_NOT_PRIVACY_STATE_IDS =
+		"WHERE sr.privacy_state_id != ? " +
+		"AND sr.uuid IN ";
+	
+	// Limits the counts to a campaign's survey responses that aren't already
+	// in a privacy state.
+	private static final String SQL_WHERE_COUNT_CAMPAIGN_NOT_PRIVACY_STATE =
+		"WHERE sr.campaign_id = (SELECT id FROM campaign WHERE urn = ?) " +
+		"AND sr.privacy_state_id != ?";
+	
+	// Limits the counts to a single survey response.
+	private static final String SQL_WHERE_COUNT_ID =
+		"WHERE sr.uuid = ?";
+	
+	// Limits the counts to the survey responses of some users. This SQL is
+	// incomplete and must be followed by a parameter list and ")".
+	private static final String SQL_WHERE_COUNT_USERNAMES =
+		" AND sr.user_id IN (SELECT id FROM user WHERE username IN ";
+	
+	// Completes the counts.
+	private static final String SQL_GROUP_RESPONSE_COUNTS =
+		" GROUP BY sr.campaign_id, sr.user_id, sr.privacy_state_id, upload_hour " +
+		"FOR UPDATE";
+	
+	/**
+	 * The changes to the survey response counters and the activity counters
+	 * of each user in each campaign, built from the counts of the survey
+	 * responses that are about to change. They are applied in the order of
+	 * the campaigns, then the users, and then the privacy states, so that
+	 * concurrent changes lock the counters in the same order.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class ResponseCountChanges 
+			implements RowCallbackHandler {
+		
+		private final SurveyResponse.PrivacyState newPrivacyState;
+		
+		// The changes for each user in each campaign.
+		private final Map<String, Map<String, Map<SurveyResponse.PrivacyState, Integer>>> changes =
+			new TreeMap<String, Map<String, Map<SurveyResponse.PrivacyState, Integer>>>();
+		
+		// The latest upload of the changed responses for each user in each
+		// campaign.
+		private final Map<String, Map<String, Long>> lastUploads =
+			new HashMap<String, Map<String, Long>>();
+		
+		// The changes to the activity counters for each user in each 
+		// campaign, by privacy state and then upload hour.
+		private final Map<String, Map<String, Map<SurveyResponse.PrivacyState, Map<Long, long[]>>>> activityChanges =
+			new HashMap<String, Map<String, Map<SurveyResponse.PrivacyState, Map<Long, long[]>>>>();
+		
+		/**
+		 * Creates an empty set of changes.
+		 * 
+		 * @param newPrivacyState The privacy state to which the responses are
+		 * 						  moving or null if they are being deleted.
+		 */
+		private ResponseCountChanges(
+				final SurveyResponse.PrivacyState newPrivacyState) {
+			
+			this.newPrivacyState = newPrivacyState;
+		}
+		
+		/**
+		 * Takes the counted responses out of their privacy state and, if
+		 * they are moving, adds them to the new one.
+		 */
+		@Override
+		public void processRow(final ResultSet rs) throws SQLException {
+			String campaignId = rs.getString("urn");
+			String username = rs.getString("username");
+			long uploadHour = rs.getLong("upload_hour");
+			int count = rs.getInt("response_count");
+			int locatedCount = rs.getInt("located_count");
+			
+			SurveyResponse.PrivacyState privacyState;
+			try {
+				privacyState = 
+					SurveyResponse.PrivacyState.getValue(
+						rs.getString("privacy_state"));
+			}
+			catch(IllegalArgumentException e) {
+				throw new SQLException("The privacy state is unknown.", e);
+			}
+			
+			Map<String, Map<SurveyResponse.PrivacyState, Integer>> campaignChanges =
+				changes.get(campaignId);
+			if(campaignChanges == null) {
+				campaignChanges = 
+					new TreeMap<String, Map<SurveyResponse.PrivacyState, Integer>>();
+				changes.put(campaignId, campaignChanges);
+				lastUploads.put(campaignId, new HashMap<String, Long>());
+				activityChanges.put(
+					campaignId, 
+					new HashMap<String, Map<SurveyResponse.PrivacyState, Map<Long, long[]>>>());
+			}
+			Map<SurveyResponse.PrivacyState, Integer> userChanges =
+				campaignChanges.get(username);
+			if(userChanges == null) {
+				userChanges = 
+					new EnumMap<SurveyResponse.PrivacyState, Integer>(
+						SurveyResponse.PrivacyState.class);
+				campaignChanges.put(username, userChanges);
+				activityChanges.get(campaignId).put(
+					username, 
+					new EnumMap<SurveyResponse.PrivacyState, Map<Long, long[]>>(
+						SurveyResponse.PrivacyState.class));
+			}
+			Map<SurveyResponse.PrivacyState, Map<Long, long[]>> userActivityChanges =
+				activityChanges.get(campaignId).get(username);
+			
+			add(userChanges, privacyState, -count);
+			addActivity(
+				userActivityChanges, 
+				privacyState, 
+				uploadHour, 
+				-locatedCount, 
+				-count);
+			if(newPrivacyState != null) {
+				add(userChanges, newPrivacyState, count);
+				addActivity(
+					userActivityChanges, 
+					newPrivacyState, 
+					uploadHour, 
+					locatedCount, 
+					count);
+			}
+			
+			long lastUpload = 
+				rs.getTimestamp("last_upload_timestamp").getTime();
+			Long previousLastUpload = 
+				lastUploads.get(campaignId).get(username);
+			if(
+				(previousLastUpload == null) || 
+				(previousLastUpload < lastUpload)) {
+				
+				lastUploads.get(campaignId).put(username, lastUpload);
+			}
+		}
+		
+		/**
+		 * Applies the changes to the counters. This must be called after the
+		 * survey responses have changed.
+		 * 
+		 * @param campaignResponseStatsQueries The queries that maintain the
+		 * 									   survey response counters.
+		 * 
+		 * @param userActivityQueries The queries that maintain the activity
+		 * 							  counters.
+		 * 
+		 * @throws DataAccessException Thrown if there is an error.
+		 */
+		private void apply(
+				final ICampaignResponseStatsQueries campaignResponseStatsQueries,
+				final IUserActivityQueries userActivityQueries)
+				throws DataAccessException {
+			
+			for(String campaignId : changes.keySet()) {
+				Map<String, Map<SurveyResponse.PrivacyState, Integer>> campaignChanges =
+					changes.get(campaignId);
+				
+				for(String username : campaignChanges.keySet()) {
+					// The responses that move keep their upload times, so
+					// the new privacy state's latest upload is moved forward
+					// to the latest of theirs rather than to now.
+					campaignResponseStatsQueries.updateCampaignResponseStats(
+						campaignId, 
+						username, 
+						campaignChanges.get(username), 
+						lastUploads.get(campaignId).get(username));
+					
+					userActivityQueries.updateSurveyActivity(
+						username, 
+						campaignId, 
+						activityChanges.get(campaignId).get(username));
+				}
+			}
+		}
+		
+		/**
+		 * Adds to the change in a privacy state.
+		 * 
+		 * @param userChanges The changes for a user in a campaign.
+		 * 
+		 * @param privacyState The privacy state.
+		 * 
+		 * @param change The amount to add.
+		 */
+		private static void add(
+				final Map<SurveyResponse.PrivacyState, Integer> userChanges,
+				final SurveyResponse.PrivacyState privacyState,
+				final int change) {
+			
+			Integer previousChange = userChanges.get(privacyState);
+			userChanges.put(
+				privacyState, 
+				(previousChange == null) ? change : previousChange + change);
+		}
+		
+		/**
+		 * Adds to the change in a privacy state's activity counts for an 
+		 * hour.
+		 * 
+		 * @param userActivityChanges The activity changes for a user in a 
+		 * 							  campaign.
+		 * 
+		 * @param privacyState The privacy state.
+		 * 
+		 * @param hour The hour in which the responses were uploaded.
+		 * 
+		 * @param locatedChange The amount to add to the number of responses
+		 * 						with a location.
+		 * 
+		 * @param totalChange The amount to add to the total.
+		 */
+		private static void addActivity(
+				final Map<SurveyResponse.PrivacyState, Map<Long, long[]>> userActivityChanges,
+				final SurveyResponse.PrivacyState privacyState,
+				final long hour,
+				final int locatedChange,
+				final int totalChange) {
+			
+			Map<Long, long[]> hourChanges = 
+				userActivityChanges.get(privacyState);
+			if(hourChanges == null) {
+				hourChanges = new HashMap<Long, long[]>();
+				userActivityChanges.put(privacyState, hourChanges);
+			}
+			
+			long[] change = hourChanges.get(hour);
+			if(change == null) {
+				change = new long[2];
+				hourChanges.put(hour, change);
+			}
+			change[0] += locatedChange;
+			change[1] += totalChange;
+		}
+	}
+	
+	private ICampaignResponseStatsQueries campaignResponseStatsQueries;
+	private IUserActivityQueries userActivityQueries;
 
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource The DataSource to use to query the database.
+	 * 
+	 * @param iCampaignResponseStatsQueries The queries that maintain the
+	 * 										campaigns' survey response
+	 * 										counters.
+	 * 
+	 * @param iUserActivityQueries The queries that maintain the users' 
+	 * 							   activity counters.
 	 */
-	private SurveyResponseQueries(DataSource dataSource) {
+	private SurveyResponseQueries(
+			DataSource dataSource,
+			ICampaignResponseStatsQueries iCampaignResponseStatsQueries,
+			IUserActivityQueries iUserActivityQueries) {
+		
 		super(dataSource);
+		
+		if(iCampaignResponseStatsQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignResponseStatsQueries is a required argument.");
+		}
+		if(iUserActivityQueries == null) {
+			throw new IllegalArgumentException("An instance of IUserActivityQueries is a required argument.");
+		}
+		campaignResponseStatsQueries = iCampaignResponseStatsQueries;
+		userActivityQueries = iUserActivityQueries;
 	}
-	
+
+	/**
+	 * Creates this object around a JDBC template. This is only used by the
+	 * tests.
+	 *
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 *
+	 * @param iCampaignResponseStatsQueries The queries that maintain the
+	 * 										campaigns' survey response
+	 * 										counters.
+	 *
+	 * @param iUserActivityQueries The queries that maintain the users'
+	 * 							   activity counters.
+	 */
+	SurveyResponseQueries(
+			final JdbcTemplate jdbcTemplate,
+			final ICampaignResponseStatsQueries iCampaignResponseStatsQueries,
+			final IUserActivityQueries iUserActivityQueries) {
+
+		super(jdbcTemplate);
+
+		campaignResponseStatsQueries = iCampaignResponseStatsQueries;
+		userActivityQueries = iUserActivityQueries;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.ISurveyResponseQueries#getCampaignIdForSurveyResponseId()
@@ -436,232 +800,21 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 				sortOrder,
 				parameters);
 
-		// This is necessary to map tiny integers in SQL to Java's integer.
-		final Map<String, Class<?>> typeMapping = new HashMap<String, Class<?>>();
-		typeMapping.put("tinyint", Integer.class);
-		
-		// This is a silly, hacky way to get the total count, but it is the 
-		// only real way I have found thus far.
-		final Collection<Integer> totalCount = new ArrayList<Integer>(1);
+		SurveyResponseRowDecoder decoder =
+			new SurveyResponseRowDecoder(
+				campaign,
+				(columns != null),
+				surveyResponsesToSkip,
+				surveyResponsesToProcess);
 		
 		try {
-			result.addAll(getJdbcTemplate().query(
-				sql,
-				parameters.toArray(),
-				new ResultSetExtractor<List<SurveyResponse>>() {
-					/**
-					 * First, it skips a set of rows based on the parameterized
-					 * number of survey responses to skip. Then, it aggregates  
-					 * the information from the number of desired survey 
-					 * responses.
-					 * 
-					 * There must be some ordering on the results in order for
-					 * subsequent results to skip / process the same rows. The
-					 * agreed upon ordering is by time taken time stamp. 
-					 * Therefore, if a user were viewing results as they were
-					 * being generated and/or uploaded, it could be that
-					 * subsequent calls return the same result as a previous
-					 * call. This is analogous to viewing a page of feed data
-					 * and going to the next page and seeing some feed items
-					 * that you just saw on the previous page. It was decided
-					 * that this is a common and acceptable way to view live
-					 * data.
-					 */
-					@Override
-					public List<SurveyResponse> extractData(ResultSet rs)
-							throws SQLException,
-							org.springframework.dao.DataAccessException {
-						
-						// If the result set is empty, we can simply return an
-						// empty list.
-						if(! rs.next()) {
-							totalCount.add(0);
-							return Collections.emptyList();
-						}
-						
-						// Keep track of the number of survey responses we have
-						// skipped.
-						int surveyResponsesSkipped = 0;
-						// Continue while there are more survey responses to
-						// skip.
-						while(surveyResponsesSkipped < surveyResponsesToSkip) {
-							// Get the ID for the survey response we are 
-							// skipping.
-							String surveyResponseId = rs.getString("uuid");
-							surveyResponsesSkipped++;
-							
-							// Continue to skip rows as long as there are rows
-							// to skip and those rows have the same survey
-							// response ID.
-							while(surveyResponseId.equals(rs.getString("uuid"))) {
-								// We were skipping the last survey response,
-								// therefore, there are no survey responses to
-								// return and we can return an empty list.
-								if(! rs.next()) {
-									totalCount.add(surveyResponsesSkipped);
-									return Collections.emptyList();
-								}
-							}
-						}
-						
-						// Create a list of the results.
-						List<SurveyResponse> result =
-								new LinkedList<SurveyResponse>();
-						
-						// Cycle through the rows until the maximum number of
-						// rows has been processed or there are no more rows to
-						// process.
-						int surveyResponsesProcessed = 0;
-						while(surveyResponsesProcessed < surveyResponsesToProcess) {
-							// We have not yet processed this survey response,
-							// so we need to process it and then continue
-							// processing this and all of its survey responses.
-							
-							// First, create the survey response object.
-							SurveyResponse surveyResponse;
-							try {
-								JSONObject locationJson = null;
-								String locationString = rs.getString("location");
-								if(locationString != null) {
-									locationJson = new JSONObject(locationString);
-								}
-								
-								surveyResponse =
-									new SurveyResponse(
-											rs.getLong("id"),
-											campaign.getSurveys().get(rs.getString("survey_id")),
-											UUID.fromString(rs.getString("uuid")),
-											rs.getString("username"),
-											rs.getString("urn"),
-											rs.getString("client"),
-											rs.getLong("epoch_millis"),
-											DateTimeUtils.getDateTimeZoneFromString(rs.getString("phone_timezone")),
-											new JSONObject(rs.getString("launch_context")),
-											rs.getString("location_status"),
-											locationJson,
-											SurveyResponse.PrivacyState.getValue(rs.getString("privacy_state")));
-								
-								if(columns != null) {
-									surveyResponse.setCount(
-											rs.getLong("count"));
-								}
-							}
-							catch(IllegalArgumentException e) {
-								throw new SQLException("The TimeZone is unknown.", e);
-							}
-							catch(JSONException e) {
-								throw new SQLException("Error creating a JSONObject.", e);
-							}
-							catch(DomainException e) {
-								throw new SQLException("Error creating the survey response information object.", e);
-							}
-							
-							// Add the current survey response to the result
-							// list and increase the number of survey responses
-							// processed.
-							result.add(surveyResponse);
-							surveyResponsesProcessed++;
-							
-							// Get a string representation of the survey
-							// response's unique identifier.
-							String surveyResponseId =
-									surveyResponse.getSurveyResponseId().toString();
-							
-							boolean processPrompts = true;
-							try {
-								String promptId = rs.getString("prompt_id");
-								// in case the survey contains no response
-								if (promptId == null) {
-								    processPrompts = false;
-								}
-							}
-							catch(SQLException e) {
-								processPrompts = false;
-							}
-							
-							if(processPrompts) {
-								// Now, process this prompt response and all 
-								// subsequent prompt responses.
-								do {
-									try {
-										// Retrieve the corresponding prompt 
-										// information from the campaign.
-										Prompt prompt = 
-											campaign.getPrompt(
-													surveyResponse.getSurvey().getId(),
-													rs.getString("prompt_id")
-												);
-										
-										// Generate the prompt response and add it to
-										// the survey response.
-										surveyResponse.addPromptResponse(
-												prompt.createResponse(
-														(Integer) rs.getObject(
-																"repeatable_set_iteration", 
-																typeMapping),
-														rs.getObject("response")
-													)
-											);
-									}
-									catch(DomainException e) {
-										throw new SQLException(
-												"The prompt response value from the database is not a valid response value for this prompt.", 
-												e);
-									}
-								} while(
-										// Get the next prompt response unless we
-										// just read the last prompt response in
-										// the result,
-										rs.next() && 
-										// and continue as long as that prompt 
-										// response pertains to this survey 
-										// response.
-										surveyResponseId.equals(rs.getString("uuid")));
-							}
-							else {
-								rs.next();
-							}
-									
-							// If we exited the loop because we passed the last
-							// record, break out of the survey response 
-							// processing loop.
-							if(rs.isAfterLast()) {
-								break;
-							}
-						}
-						
-						// Now, if we are after the last row, we need to set 
-						// the total count to be the total number skipped plus
-						// the total number processed.
-						if(rs.isAfterLast()) {
-							totalCount.add(
-									surveyResponsesSkipped + 
-									surveyResponsesProcessed);
-						}
-						else {
-							int otherIds = 1;
-							String id = rs.getString("uuid");
-							
-							while(rs.next()) {
-								if(! rs.getString("uuid").equals(id)) {
-									otherIds++;
-									id = rs.getString("uuid");
-								}
-							}
-							
-							totalCount.add(
-									surveyResponsesSkipped + 
-									surveyResponsesProcessed +
-									otherIds);
-						}
-						
-						// Finally, return only the survey responses as a list.
-						return result;
-					}
-				}
-			));
+			result.addAll(
+				getJdbcTemplate().query(
+					sql,
+					parameters.toArray(),
+					decoder));
 			
-			return totalCount.iterator().next();
+			return decoder.getTotalCount();
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			StringBuilder errorBuilder =
@@ -683,24 +836,110 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#retrievePromptResponseImages(org.ohmage.domain.campaign.Campaign, java.lang.String, java.util.Set, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, java.util.Collection, java.util.Collection, java.util.Set, long, long)
+	 */
+	@Override
+	public List<PromptResponseImage> retrievePromptResponseImages(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final Set<String> promptResponseSearchTokens,
+			final long afterPromptResponseId,
+			final long limit)
+			throws DataAccessException {
+		
+		if(
+			((surveyIds != null) && (surveyIds.size() == 0)) ||
+			((promptIds != null) && (promptIds.size() == 0)) ||
+			(limit <= 0)) {
+			
+			return Collections.emptyList();
+		}
+		
+		List<Object> parameters = new LinkedList<Object>();
+		StringBuilder sqlBuilder = 
+			new StringBuilder(SQL_GET_PROMPT_RESPONSE_IMAGES);
+		appendWhereClause(
+				campaign,
+				username,
+				surveyResponseIds,
+				usernames, 
+				startDate,
+				endDate, 
+				privacyState,
+				surveyIds,
+				promptIds,
+				PROMPT_TYPE_PHOTO,
+				promptResponseSearchTokens,
+				sqlBuilder,
+				parameters);
+		sqlBuilder.append(SQL_WHERE_AFTER_PROMPT_RESPONSE_ID_ORDERED);
+		parameters.add(afterPromptResponseId);
+		parameters.add(limit);
+		
+		String sql = sqlBuilder.toString();
+		try {
+			return getJdbcTemplate().query(
+				sql,
+				parameters.toArray(),
+				new RowMapper<PromptResponseImage>() {
+					/**
+					 * Creates the image reference from the prompt response's
+					 * ID and the image's ID and URL.
+					 */
+					@Override
+					public PromptResponseImage mapRow(
+							final ResultSet rs, 
+							final int rowNum)
+							throws SQLException {
+						
+						try {
+							return new PromptResponseImage(
+								rs.getLong("id"),
+								UUID.fromString(rs.getString("response")),
+								new URL(rs.getString("url")));
+						}
+						catch(IllegalArgumentException e) {
+							throw new SQLException(
+								"The image ID is not a valid UUID.",
+								e);
+						}
+						catch(MalformedURLException e) {
+							throw new SQLException(
+								"The URL was not a valid URL.",
+								e);
+						}
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameters: " + 
+					parameters,
+				e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ISurveyResponseQueries#updateSurveyResponsePrivacyState(java.lang.Long, org.ohmage.domain.campaign.SurveyResponse.PrivacyState)
 	 */
-	public void updateSurveyResponsesPrivacyState(
+	public int updateSurveyResponsesPrivacyState(
 			final Set<UUID> surveyResponseIds, 
 			final SurveyResponse.PrivacyState newPrivacyState)
 			throws DataAccessException {
 		
-		StringBuilder sqlBuilder = 
-				new StringBuilder(SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE);
-		sqlBuilder.append(
-				StringUtils.generateStatementPList(surveyResponseIds.size()));
-
-		List<Object> parameters = 
-				new ArrayList<Object>(surveyResponseIds.size() + 1);
-		parameters.add(newPrivacyState.toString());
-		for(UUID surveyResponseId : surveyResponseIds) {
-			parameters.add(surveyResponseId.toString());
+		if(surveyResponseIds.size() == 0) {
+			return 0;
 		}
 		
 		// Create the transaction.
@@ -713,19 +952,87 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 					new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
+			int result = 0;
 			try {
-				getJdbcTemplate().update(
-						sqlBuilder.toString(), 
-						parameters.toArray());
+				long privacyStateId = getPrivacyStateId(newPrivacyState);
+				ResponseCountChanges changes = 
+					new ResponseCountChanges(newPrivacyState);
+				
+				// Update the responses in chunks, each with one statement.
+				List<UUID> ids = new ArrayList<UUID>(surveyResponseIds);
+				for(
+					int i = 0; 
+					i < ids.size(); 
+					i += MAX_UPDATE_CHUNK_SIZE) {
+					
+					List<UUID> chunk = 
+						ids.subList(
+							i, 
+							Math.min(i + MAX_UPDATE_CHUNK_SIZE, ids.size()));
+					
+					String countSql =
+						SQL_GET_RESPONSE_COUNTS +
+							SQL_WHERE_COUNT_NOT_PRIVACY_STATE_IDS +
+							StringUtils.generateStatementPList(chunk.size()) +
+							SQL_GROUP_RESPONSE_COUNTS;
+					
+					List<Object> countParameters = 
+						new ArrayList<Object>(chunk.size() + 1);
+					countParameters.add(privacyStateId);
+					for(UUID surveyResponseId : chunk) {
+						countParameters.add(surveyResponseId.toString());
+					}
+					
+					// Count and lock the responses before they change so
+					// that the counters can be changed by the same amounts.
+					try {
+						getJdbcTemplate().query(
+							countSql, 
+							countParameters.toArray(), 
+							changes);
+					}
+					catch(org.springframework.dao.DataAccessException e) {
+						throw new DataAccessException(
+								"Error executing SQL '" + 
+										countSql + 
+									"' with parameters: " + 
+										countParameters, 
+								e);
+					}
+					
+					String sql = 
+						SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE + 
+							StringUtils.generateStatementPList(chunk.size());
+					
+					List<Object> parameters = 
+						new ArrayList<Object>(chunk.size() + 2);
+					parameters.add(privacyStateId);
+					parameters.add(privacyStateId);
+					for(UUID surveyResponseId : chunk) {
+						parameters.add(surveyResponseId.toString());
+					}
+					
+					try {
+						result += 
+							getJdbcTemplate().update(sql, parameters.toArray());
+					}
+					catch(org.springframework.dao.DataAccessException e) {
+						throw new DataAccessException(
+								"Error executing SQL '" + 
+										sql + 
+									"' with parameters: " + 
+										parameters, 
+								e);
+					}
+				}
+				
+				changes.apply(
+					campaignResponseStatsQueries, 
+					userActivityQueries);
 			}
-			catch(org.springframework.dao.DataAccessException e) {
+			catch(DataAccessException e) {
 				transactionManager.rollback(status);
-				throw new DataAccessException(
-						"Error executing SQL '" + 
-								sqlBuilder.toString() + 
-							"' with parameters: " + 
-								parameters.toArray(), 
-						e);
+				throw e;
 			}
 			
 			// Commit the transaction.
@@ -736,12 +1043,189 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			return result;
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#updateSurveyResponsesPrivacyState(java.lang.String, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, org.ohmage.domain.campaign.SurveyResponse.PrivacyState)
+	 */
+	@Override
+	public int updateSurveyResponsesPrivacyState(
+			final String campaignId,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final SurveyResponse.PrivacyState newPrivacyState)
+			throws DataAccessException {
+		
+		long newPrivacyStateId = getPrivacyStateId(newPrivacyState);
+		
+		StringBuilder sqlBuilder = 
+			new StringBuilder(
+				SQL_UPDATE_CAMPAIGN_SURVEY_RESPONSES_PRIVACY_STATE);
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(newPrivacyStateId);
+		parameters.add(campaignId);
+		parameters.add(newPrivacyStateId);
+		
+		// The counts select the same responses as the update.
+		StringBuilder countSqlBuilder =
+			new StringBuilder(SQL_GET_RESPONSE_COUNTS);
+		countSqlBuilder.append(SQL_WHERE_COUNT_CAMPAIGN_NOT_PRIVACY_STATE);
+		List<Object> countParameters = new LinkedList<Object>();
+		countParameters.add(campaignId);
+		countParameters.add(newPrivacyStateId);
+		
+		if((usernames != null) && (usernames.size() > 0)) {
+			String usernamesPList = 
+				StringUtils.generateStatementPList(usernames.size());
+			
+			sqlBuilder.append(SQL_WHERE_USERNAMES);
+			sqlBuilder.append(usernamesPList);
+			parameters.addAll(usernames);
+			
+			countSqlBuilder.append(SQL_WHERE_COUNT_USERNAMES);
+			countSqlBuilder.append(usernamesPList);
+			countSqlBuilder.append(')');
+			countParameters.addAll(usernames);
+		}
+		if(startDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_AFTER);
+			parameters.add(startDate.getMillis());
+			
+			countSqlBuilder.append(SQL_WHERE_ON_OR_AFTER);
+			countParameters.add(startDate.getMillis());
+		}
+		if(endDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_BEFORE);
+			parameters.add(endDate.getMillis());
+			
+			countSqlBuilder.append(SQL_WHERE_ON_OR_BEFORE);
+			countParameters.add(endDate.getMillis());
+		}
+		if(privacyState != null) {
+			long privacyStateId = getPrivacyStateId(privacyState);
+			
+			sqlBuilder.append(SQL_WHERE_PRIVACY_STATE_ID);
+			parameters.add(privacyStateId);
+			
+			countSqlBuilder.append(SQL_WHERE_PRIVACY_STATE_ID);
+			countParameters.add(privacyStateId);
+		}
+		countSqlBuilder.append(SQL_GROUP_RESPONSE_COUNTS);
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Updating a campaign's survey responses.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = 
+					new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			int result;
+			try {
+				// Count and lock the responses before they change so that
+				// the counters can be changed by the same amounts.
+				ResponseCountChanges changes = 
+					new ResponseCountChanges(newPrivacyState);
+				try {
+					getJdbcTemplate().query(
+						countSqlBuilder.toString(), 
+						countParameters.toArray(), 
+						changes);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					throw new DataAccessException(
+							"Error executing SQL '" + 
+									countSqlBuilder.toString() + 
+								"' with parameters: " + 
+									countParameters, 
+							e);
+				}
+				
+				try {
+					result =
+						getJdbcTemplate().update(
+							sqlBuilder.toString(), 
+							parameters.toArray());
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					throw new DataAccessException(
+							"Error executing SQL '" + 
+									sqlBuilder.toString() + 
+								"' with parameters: " + 
+									parameters, 
+							e);
+				}
+				
+				changes.apply(
+					campaignResponseStatsQueries, 
+					userActivityQueries);
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+			
+			return result;
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+	
+	/**
+	 * Retrieves the database ID of a survey response privacy state.
+	 * 
+	 * @param privacyState The privacy state.
+	 * 
+	 * @return The privacy state's database ID.
+	 * 
+	 * @throws DataAccessException The privacy state is unknown or there was 
+	 * 							   an error.
+	 */
+	private long getPrivacyStateId(
+			final SurveyResponse.PrivacyState privacyState)
+			throws DataAccessException {
+		
+		try {
+			return getJdbcTemplate().queryForLong(
+					SQL_GET_SURVEY_RESPONSE_PRIVACY_STATE_ID, 
+					privacyState.toString());
+		}
+		catch(org.springframework.dao.IncorrectResultSizeDataAccessException e) {
+			throw new DataAccessException(
+					"The privacy state is unknown: " + privacyState, 
+					e);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+							SQL_GET_SURVEY_RESPONSE_PRIVACY_STATE_ID + 
+						"' with parameter: " + 
+							privacyState, 
+					e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ISurveyResponseQueries#deleteSurveyResponse(java.lang.Long)
 	 */
@@ -759,6 +1243,29 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 					new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
+			// Count and lock the response before it is deleted so that its
+			// owner's counter can be reduced.
+			String countSql = 
+				SQL_GET_RESPONSE_COUNTS + 
+					SQL_WHERE_COUNT_ID + 
+					SQL_GROUP_RESPONSE_COUNTS;
+			ResponseCountChanges changes = new ResponseCountChanges(null);
+			try {
+				getJdbcTemplate().query(
+						countSql, 
+						new Object[] { surveyResponseId.toString() },
+						changes);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+						"Error executing SQL '" + 
+								countSql + 
+								"' with parameter: " + 
+								surveyResponseId.toString(), 
+						e);
+			}
+			
 			try {
 				getJdbcTemplate().update(
 						SQL_DELETE_SURVEY_RESPONSE, 
@@ -774,6 +1281,16 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 						e);
 			}
 			
+			try {
+				changes.apply(
+					campaignResponseStatsQueries, 
+					userActivityQueries);
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -789,15 +1306,19 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	}
 	
 	/**
-	 * Builds the SQL for the survey response SELECT and generates a parameter
-	 * list that corresponds to that SQL. The parameter list is returned and
-	 * the SQL is set as the final parameter.
+	 * Builds the WHERE clause shared by the survey response SELECTs. This 
+	 * includes the ACLs for the requesting user as well as each of the given
+	 * criteria. The parameters that correspond to the clause are added to the
+	 * parameter list.
 	 * 
 	 * @param campaign The campaign to which the survey responses must belong.
 	 * 
 	 * @param username The username of the user that is making this request.
 	 * 				   This is used by the ACLs to limit who sees what.
 	 * 
+	 * @param surveyResponseIds Limits the results to only those survey 
+	 * 							responses whose IDs are in this list.
+	 * 
 	 * @param usernames Limits the results to only those submitted by any one 
 	 * 					of the users in the list.
 	 * 
@@ -819,17 +1340,19 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	 * @param promptType Limits the results to only those survey responses that
 	 * 					 are of the given prompt type.
 	 * 
-	 * @param columns Aggregates the data based on the column keys. If this is
-	 * 				  null, no aggregation is performed. If the list is empty,
-	 * 				  an empty list is returned.
+	 * @param promptResponseSearchTokens The set of tokens to use against the
+	 * 									 prompt response values.
+	 * 
+	 * @param sqlBuilder The builder to which the WHERE clause is appended.
 	 * 
 	 * @param parameters This is a list created by the caller to be populated
 	 * 					 with the parameters aggregated while generating this
 	 * 					 SQL.
 	 * 
-	 * @return The list of parameters that corresponds with the generated SQL.
+	 * @throws DataAccessException There was an error querying about the 
+	 * 							   requesting user.
 	 */
-	private String buildSqlAndParameters(
+	private void appendWhereClause(
 		final Campaign campaign,
 		final String username,
 		final Set<UUID> surveyResponseIds,
@@ -841,14 +1364,11 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		final Collection<String> promptIds,
 		final String promptType,
 		final Set<String> promptResponseSearchTokens,
-		final Collection<ColumnKey> columns,
-		final List<SortParameter> sortOrder,
+		final StringBuilder sqlBuilder,
 		final Collection<Object> parameters) 
 		throws DataAccessException {
 		
-		// Begin with the SQL string which gets all results or the one that
-		// aggregates results.
-		StringBuilder sqlBuilder = new StringBuilder(SQL_BASE_WHERE);
+		sqlBuilder.append(SQL_BASE_WHERE);
 		parameters.add(campaign.getId());
 		
 		// Catch any query exceptions.
@@ -974,6 +1494,83 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 				parameters.add('%' + promptResponseSearchToken + '%');
 			}
 		}
+	}
+	
+	/**
+	 * Builds the SQL for the survey response SELECT and generates a parameter
+	 * list that corresponds to that SQL. The parameter list is returned and
+	 * the SQL is set as the final parameter.
+	 * 
+	 * @param campaign The campaign to which the survey responses must belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 
+	 * @param usernames Limits the results to only those submitted by any one 
+	 * 					of the users in the list.
+	 * 
+	 * @param startDate Limits the results to only those survey responses that
+	 * 					occurred on or after this date.
+	 * 
+	 * @param endDate Limits the results to only those survey responses that
+	 * 				  occurred on or before this date.
+	 * 
+	 * @param privacyState Limits the results to only those survey responses
+	 * 					   with this privacy state.
+	 * 
+	 * @param surveyIds Limits the results to only those survey responses that 
+	 * 					were derived from a survey in this collection.
+	 * 
+	 * @param promptIds Limits the results to only those survey responses that 
+	 * 					were derived from a prompt in this collection.
+	 * 
+	 * @param promptType Limits the results to only those survey responses that
+	 * 					 are of the given prompt type.
+	 * 
+	 * @param columns Aggregates the data based on the column keys. If this is
+	 * 				  null, no aggregation is performed. If the list is empty,
+	 * 				  an empty list is returned.
+	 * 
+	 * @param parameters This is a list created by the caller to be populated
+	 * 					 with the parameters aggregated while generating this
+	 * 					 SQL.
+	 * 
+	 * @return The list of parameters that corresponds with the generated SQL.
+	 */
+	private String buildSqlAndParameters(
+		final Campaign campaign,
+		final String username,
+		final Set<UUID> surveyResponseIds,
+		final Collection<String> usernames, 
+		final DateTime startDate,
+		final DateTime endDate, 
+		final SurveyResponse.PrivacyState privacyState,
+		final Collection<String> surveyIds,
+		final Collection<String> promptIds,
+		final String promptType,
+		final Set<String> promptResponseSearchTokens,
+		final Collection<ColumnKey> columns,
+		final List<SortParameter> sortOrder,
+		final Collection<Object> parameters) 
+		throws DataAccessException {
+		
+		// Begin with the SQL string which gets all results or the one that
+		// aggregates results.
+		StringBuilder sqlBuilder = new StringBuilder();
+		appendWhereClause(
+				campaign,
+				username,
+				surveyResponseIds,
+				usernames, 
+				startDate,
+				endDate, 
+				privacyState,
+				surveyIds,
+				promptIds,
+				promptType,
+				promptResponseSearchTokens,
+				sqlBuilder,
+				parameters);
 		
 		// Now, collapse the columns if columns is non-null.
 		boolean onSurveyResponse = true;
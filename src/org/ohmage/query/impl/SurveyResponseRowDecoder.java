@@ -0,0 +1,419 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.Prompt;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.domain.campaign.SurveyResponse.LocationStatus;
+import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
+import org.ohmage.exception.DomainException;
+import org.ohmage.util.DateTimeUtils;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * <p>Decodes the rows of a survey response read into survey responses. Each
+ * row is one prompt response along with the columns of its survey response,
+ * and the rows of a survey response are consecutive.</p>
+ * 
+ * <p>First, it skips a set of survey responses based on the number of survey
+ * responses to skip. Then, it decodes the desired number of survey
+ * responses, and, finally, it counts the rest of them. There must be some
+ * ordering on the results in order for subsequent reads to skip / process
+ * the same rows. The agreed upon ordering is by time taken time stamp.
+ * Therefore, if a user were viewing results as they were being generated
+ * and/or uploaded, it could be that subsequent calls return the same result
+ * as a previous call. This is analogous to viewing a page of feed data and
+ * going to the next page and seeing some feed items that you just saw on the
+ * previous page. It was decided that this is a common and acceptable way to
+ * view live data.</p>
+ * 
+ * <p>A read may be millions of rows, so each row is decoded as cheaply as
+ * possible. The columns are found once rather than by name for every row,
+ * the end of a survey response is found by comparing its database ID rather
+ * than its UUID, the time zones and other repeated values are decoded once
+ * per read, and the launch context and location are kept as JSON text, 
+ * which the survey response only decodes if they are needed. A stored
+ * value that can't be decoded fails with a DomainException where it is
+ * needed rather than failing the read.</p>
+ * 
+ * <p>A decoder is only used for one read.</p>
+ * 
+ * @author John Jenkins
+ */
+final class SurveyResponseRowDecoder 
+		implements ResultSetExtractor<List<SurveyResponse>> {
+	
+	private final Campaign campaign;
+	private final boolean withCount;
+	private final long surveyResponsesToSkip;
+	private final long surveyResponsesToProcess;
+	
+	/**
+	 * The time zones, location statuses, and privacy states that have been
+	 * decoded, by their values in the database.
+	 */
+	private final Map<String, DateTimeZone> timeZones =
+		new HashMap<String, DateTimeZone>();
+	private final Map<String, LocationStatus> locationStatuses =
+		new HashMap<String, LocationStatus>();
+	private final Map<String, PrivacyState> privacyStates =
+		new HashMap<String, PrivacyState>();
+	
+	/**
+	 * The indices of the columns, which are found when the rows are first
+	 * decoded. The prompt response columns are -1 if the rows don't have
+	 * them.
+	 */
+	private int idColumn;
+	private int uuidColumn;
+	private int usernameColumn;
+	private int urnColumn;
+	private int clientColumn;
+	private int epochMillisColumn;
+	private int phoneTimezoneColumn;
+	private int surveyIdColumn;
+	private int launchContextColumn;
+	private int locationStatusColumn;
+	private int locationColumn;
+	private int privacyStateColumn;
+	private int countColumn;
+	private int promptIdColumn;
+	private int responseColumn;
+	private int repeatableSetIterationColumn;
+	
+	private int totalCount = -1;
+	
+	/**
+	 * Creates a decoder for one read.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param withCount Whether or not the rows are aggregated and have a 
+	 * 					"count" column.
+	 * 
+	 * @param surveyResponsesToSkip The number of survey responses to skip.
+	 * 
+	 * @param surveyResponsesToProcess The number of survey responses to
+	 * 								   decode after those that are skipped.
+	 */
+	SurveyResponseRowDecoder(
+			final Campaign campaign,
+			final boolean withCount,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess) {
+		
+		this.campaign = campaign;
+		this.withCount = withCount;
+		this.surveyResponsesToSkip = surveyResponsesToSkip;
+		this.surveyResponsesToProcess = surveyResponsesToProcess;
+	}
+	
+	/**
+	 * Returns the total number of survey responses in the rows, including
+	 * those that were skipped and those after the ones that were decoded.
+	 * 
+	 * @return The total number of survey responses.
+	 * 
+	 * @throws IllegalStateException The rows have not been decoded.
+	 */
+	public int getTotalCount() {
+		if(totalCount == -1) {
+			throw new IllegalStateException(
+				"The rows have not been decoded.");
+		}
+		
+		return totalCount;
+	}
+	
+	/**
+	 * Skips, decodes, and then counts the survey responses.
+	 */
+	@Override
+	public List<SurveyResponse> extractData(
+			final ResultSet rs)
+			throws SQLException {
+		
+		findColumns(rs);
+		
+		// If the result set is empty, we can simply return an empty list.
+		if(! rs.next()) {
+			totalCount = 0;
+			return Collections.emptyList();
+		}
+		
+		// Skip the survey responses before the page.
+		int surveyResponsesSkipped = 0;
+		while(surveyResponsesSkipped < surveyResponsesToSkip) {
+			long surveyResponseId = rs.getLong(idColumn);
+			surveyResponsesSkipped++;
+			
+			while(surveyResponseId == rs.getLong(idColumn)) {
+				// We were skipping the last survey response, therefore, 
+				// there are no survey responses to return.
+				if(! rs.next()) {
+					totalCount = surveyResponsesSkipped;
+					return Collections.emptyList();
+				}
+			}
+		}
+		
+		// Decode the survey responses until the page is full or there are
+		// no more rows.
+		List<SurveyResponse> result = new ArrayList<SurveyResponse>();
+		int surveyResponsesProcessed = 0;
+		while(surveyResponsesProcessed < surveyResponsesToProcess) {
+			long surveyResponseId = rs.getLong(idColumn);
+			
+			SurveyResponse surveyResponse = decodeSurveyResponse(rs);
+			result.add(surveyResponse);
+			surveyResponsesProcessed++;
+			
+			// The survey response may not have any prompt responses.
+			if(
+				(promptIdColumn != -1) && 
+				(rs.getString(promptIdColumn) != null)) {
+				
+				String surveyId = surveyResponse.getSurvey().getId();
+				do {
+					try {
+						Prompt prompt = 
+							campaign.getPrompt(
+								surveyId, 
+								rs.getString(promptIdColumn));
+						
+						Integer repeatableSetIteration = 
+							rs.getInt(repeatableSetIterationColumn);
+						if(rs.wasNull()) {
+							repeatableSetIteration = null;
+						}
+						
+						surveyResponse.addPromptResponse(
+							prompt.createResponse(
+								repeatableSetIteration, 
+								rs.getObject(responseColumn)));
+					}
+					catch(DomainException e) {
+						throw new SQLException(
+							"The prompt response value from the database is not a valid response value for this prompt.", 
+							e);
+					}
+				} while(
+					rs.next() && 
+					(surveyResponseId == rs.getLong(idColumn)));
+			}
+			else {
+				rs.next();
+			}
+			
+			if(rs.isAfterLast()) {
+				break;
+			}
+		}
+		
+		// Count the rest of the survey responses.
+		if(rs.isAfterLast()) {
+			totalCount = surveyResponsesSkipped + surveyResponsesProcessed;
+		}
+		else {
+			int otherIds = 1;
+			long surveyResponseId = rs.getLong(idColumn);
+			
+			while(rs.next()) {
+				long nextSurveyResponseId = rs.getLong(idColumn);
+				if(nextSurveyResponseId != surveyResponseId) {
+					otherIds++;
+					surveyResponseId = nextSurveyResponseId;
+				}
+			}
+			
+			totalCount = 
+				surveyResponsesSkipped + surveyResponsesProcessed + otherIds;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds the indices of the columns.
+	 * 
+	 * @param rs The rows.
+	 * 
+	 * @throws SQLException A required column is missing.
+	 */
+	private void findColumns(final ResultSet rs) throws SQLException {
+		idColumn = rs.findColumn("id");
+		uuidColumn = rs.findColumn("uuid");
+		usernameColumn = rs.findColumn("username");
+		urnColumn = rs.findColumn("urn");
+		clientColumn = rs.findColumn("client");
+		epochMillisColumn = rs.findColumn("epoch_millis");
+		phoneTimezoneColumn = rs.findColumn("phone_timezone");
+		surveyIdColumn = rs.findColumn("survey_id");
+		launchContextColumn = rs.findColumn("launch_context");
+		locationStatusColumn = rs.findColumn("location_status");
+		locationColumn = rs.findColumn("location");
+		privacyStateColumn = rs.findColumn("privacy_state");
+		countColumn = (withCount) ? rs.findColumn("count") : -1;
+		
+		// The prompt responses are not included when the survey responses 
+		// are aggregated by survey response.
+		try {
+			promptIdColumn = rs.findColumn("prompt_id");
+			responseColumn = rs.findColumn("response");
+			repeatableSetIterationColumn = 
+				rs.findColumn("repeatable_set_iteration");
+		}
+		catch(SQLException e) {
+			promptIdColumn = -1;
+			responseColumn = -1;
+			repeatableSetIterationColumn = -1;
+		}
+	}
+	
+	/**
+	 * Decodes the survey response of the current row without its prompt
+	 * responses.
+	 * 
+	 * @param rs The rows.
+	 * 
+	 * @return The survey response.
+	 * 
+	 * @throws SQLException A column could not be read or is invalid.
+	 */
+	private SurveyResponse decodeSurveyResponse(
+			final ResultSet rs) 
+			throws SQLException {
+		
+		SurveyResponse result;
+		try {
+			result =
+				new SurveyResponse(
+					rs.getLong(idColumn),
+					campaign.getSurveys().get(rs.getString(surveyIdColumn)),
+					UUID.fromString(rs.getString(uuidColumn)),
+					rs.getString(usernameColumn),
+					rs.getString(urnColumn),
+					rs.getString(clientColumn),
+					rs.getLong(epochMillisColumn),
+					getTimeZone(rs.getString(phoneTimezoneColumn)),
+					rs.getString(launchContextColumn),
+					getLocationStatus(rs.getString(locationStatusColumn)),
+					rs.getString(locationColumn),
+					getPrivacyState(rs.getString(privacyStateColumn)));
+			
+			if(withCount) {
+				result.setCount(rs.getLong(countColumn));
+			}
+		}
+		catch(IllegalArgumentException e) {
+			throw new SQLException("The TimeZone is unknown.", e);
+		}
+		catch(DomainException e) {
+			throw new SQLException(
+				"Error creating the survey response information object.", 
+				e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the time zone with the given ID, which is only decoded the 
+	 * first time it is seen.
+	 * 
+	 * @param timeZoneId The time zone's ID.
+	 * 
+	 * @return The time zone.
+	 * 
+	 * @throws IllegalArgumentException The time zone is unknown.
+	 */
+	private DateTimeZone getTimeZone(final String timeZoneId) {
+		DateTimeZone result = timeZones.get(timeZoneId);
+		if(result == null) {
+			result = DateTimeUtils.getDateTimeZoneFromString(timeZoneId);
+			timeZones.put(timeZoneId, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the location status with the given value, which is only 
+	 * decoded the first time it is seen.
+	 * 
+	 * @param locationStatus The location status's value.
+	 * 
+	 * @return The location status.
+	 * 
+	 * @throws SQLException The location status is unknown.
+	 */
+	private LocationStatus getLocationStatus(
+			final String locationStatus)
+			throws SQLException {
+		
+		LocationStatus result = locationStatuses.get(locationStatus);
+		if(result == null) {
+			try {
+				result = LocationStatus.valueOf(locationStatus.toUpperCase());
+			}
+			catch(IllegalArgumentException e) {
+				throw new SQLException("Unknown location status.", e);
+			}
+			catch(NullPointerException e) {
+				throw new SQLException("The location status is null.", e);
+			}
+			locationStatuses.put(locationStatus, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the privacy state with the given value, which is only decoded
+	 * the first time it is seen.
+	 * 
+	 * @param privacyState The privacy state's value.
+	 * 
+	 * @return The privacy state.
+	 * 
+	 * @throws SQLException The privacy state is unknown.
+	 */
+	private PrivacyState getPrivacyState(
+			final String privacyState)
+			throws SQLException {
+		
+		PrivacyState result = privacyStates.get(privacyState);
+		if(result == null) {
+			try {
+				result = PrivacyState.getValue(privacyState);
+			}
+			catch(IllegalArgumentException e) {
+				throw new SQLException("The privacy state is unknown.", e);
+			}
+			privacyStates.put(privacyState, result);
+		}
+		return result;
+	}
+}
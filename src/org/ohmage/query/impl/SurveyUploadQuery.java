@@ -63,6 +63,7 @@ import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.query.ICampaignResponseStatsQueries;
 import org.ohmage.query.IMediaQueries;
 import org.ohmage.query.ISurveyUploadQuery;
 import org.ohmage.service.MediaServices;
@@ -85,6 +86,7 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  */
 public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUploadQuery {
 	private IMediaQueries mediaQueries;
+	private ICampaignResponseStatsQueries campaignResponseStatsQueries;
 
 	public static final String IMAGE_STORE_FORMAT = "jpg";
 	public static final String IMAGE_SCALED_EXTENSION = "-s";
@@ -135,13 +137,18 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 * @param dataSource The DataSource to use when querying the database.
 	 */
 	private SurveyUploadQuery(DataSource dataSource, 
-				IMediaQueries iMediaQueries) {
+				IMediaQueries iMediaQueries,
+				ICampaignResponseStatsQueries iCampaignResponseStatsQueries) {
 	    
 		super(dataSource);
 		if(iMediaQueries == null) {
 			throw new IllegalArgumentException("An instance of IImageQueries is a required argument.");
 		}
+		if(iCampaignResponseStatsQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignResponseStatsQueries is a required argument.");
+		}
 		this.mediaQueries = iMediaQueries;
+		this.campaignResponseStatsQueries = iCampaignResponseStatsQueries;
 	}
 	
 	/*
@@ -163,6 +170,10 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		List<Integer> duplicateIndexList = new ArrayList<Integer>();
 		int numberOfSurveys = surveyUploadList.size();
 		
+		// The number of new responses in each privacy state
+		Map<SurveyResponse.PrivacyState, Integer> responseCountChanges = 
+			new HashMap<SurveyResponse.PrivacyState, Integer>();
+		
 		// The following variables are used in logging messages when errors occur
 		SurveyResponse currentSurveyResponse = null;
 		Response currentPromptResponse = null;
@@ -202,16 +213,16 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 						    connection.prepareStatement(SQL_INSERT_SURVEY_RESPONSE, Statement.RETURN_GENERATED_KEYS);
 					    
 					    String locationString = null;
-					    Location location = surveyUpload.getLocation();
-					    if(location != null) {
-						try {
+					    try {
+						Location location = surveyUpload.getLocation();
+						if(location != null) {
 						    locationString = 
-							    location.toJson(false, LocationColumnKey.ALL_COLUMNS).toString();
-						}
-						catch(JSONException|DomainException e) {
-						    throw new SQLException(e);
+							location.toJson(false, LocationColumnKey.ALL_COLUMNS).toString();
 						}
 					    }
+					    catch(JSONException|DomainException e) {
+						throw new SQLException(e);
+					    }
 								
 					    ps.setString(1, surveyUpload.getSurveyResponseId().toString());
 					    ps.setString(2, username);
@@ -232,7 +243,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					    try {
 						ps.setString(12, surveyUpload.getLaunchContext().toJson(true).toString());
 					    }
-					    catch(JSONException e) {
+					    catch(JSONException|DomainException e) {
 						throw new SQLException("Couldn't create the JSON.", e);
 					    }
 					    
@@ -275,6 +286,11 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 				    	status);
 			    }
 			    
+			    addResponseCountChange(
+				    responseCountChanges, 
+				    surveyUpload.getPrivacyState(), 
+				    1);
+			    
 			} catch (DataIntegrityViolationException dive) { // a unique index exists only on the survey_response table
 			    if(isDuplicate(dive)) {
 				LOGGER.debug("Found a duplicate survey upload message for user " + username);				
@@ -311,6 +327,26 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 				
 		    } // for surveyIndex
 			
+		    // Add the new responses to the campaign's response counters as 
+		    // part of the same transaction.
+		    if(duplicateIndexList.size() < numberOfSurveys) {
+			try {
+			    campaignResponseStatsQueries.updateCampaignResponseStats(
+				    campaignUrn, 
+				    username, 
+				    responseCountChanges, 
+				    System.currentTimeMillis());
+			}
+			catch (DataAccessException dae) {
+			    LOGGER.error("caught DataAccessException", dae);
+			    for(File f : fileList) {
+				f.delete();
+			    }
+			    rollback(transactionManager, status);
+			    throw dae;
+			}
+		    }
+			
 		    // Finally, commit the transaction
 		    transactionManager.commit(status);
 		    LOGGER.info("Completed survey message persistence");
@@ -347,6 +383,24 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		}
 	}
 	
+	/**
+	 * Adds to the change in the number of responses in a privacy state.
+	 * 
+	 * @param changes The changes so far.
+	 * 
+	 * @param privacyState The privacy state.
+	 * 
+	 * @param change The amount to add.
+	 */
+	private static void addResponseCountChange(
+			final Map<SurveyResponse.PrivacyState, Integer> changes,
+			final SurveyResponse.PrivacyState privacyState,
+			final int change) {
+		
+		Integer current = changes.get(privacyState);
+		changes.put(privacyState, (current == null) ? change : current + change);
+	}
+	
 	private void logErrorDetails(SurveyResponse surveyResponse, Response promptResponse, String sql, String username,
 			String campaignUrn) {
 	
@@ -747,6 +801,21 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	    // The following variables are used in logging messages when errors occur
 	    SurveyResponse currentSurveyResponse = null;
 	    Response currentPromptResponse = null;
+	    
+	    // An update may move a response from one privacy state to another,
+	    // and it moves the latest upload of the new state forward.
+	    Map<SurveyResponse.PrivacyState, Integer> responseCountChanges = 
+		    new HashMap<SurveyResponse.PrivacyState, Integer>();
+	    for(SurveyResponse uploadSurvey : surveyUploadList) {
+		addResponseCountChange(
+			responseCountChanges, 
+			existingResponseMap.get(uploadSurvey.getSurveyResponseId()).getPrivacyState(), 
+			-1);
+		addResponseCountChange(
+			responseCountChanges, 
+			uploadSurvey.getPrivacyState(), 
+			1);
+	    }
 	   
 	    // Wrap all of the inserts in a transaction 
 	    DefaultTransactionDefinition def = new DefaultTransactionDefinition();
@@ -776,15 +845,15 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					PreparedStatement ps = connection.prepareStatement(sqlUpdateSurveyResponse);
 							
 					String locationString = null;
-					Location location = uploadSurvey.getLocation();
-					if(location != null) {
-					    try {
+					try {
+					    Location location = uploadSurvey.getLocation();
+					    if(location != null) {
 						locationString = 
 							location.toJson(false, LocationColumnKey.ALL_COLUMNS).toString();
 					    }
-					    catch(JSONException|DomainException e) {
-						throw new SQLException(e);
-					    }
+					}
+					catch(JSONException|DomainException e) {
+					    throw new SQLException(e);
 					}
 								
 					ps.setLong(1, uploadSurvey.getTime());
@@ -807,7 +876,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					try {
 					    ps.setString(9, uploadSurvey.getLaunchContext().toJson(true).toString());
 					}
-					catch(JSONException e) {
+					catch(JSONException|DomainException e) {
 					    throw new SQLException("Couldn't create the LaunchContext JSON.", e);
 					}
 
@@ -885,6 +954,25 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			
 		} // for surveyIndex
 		
+		// An update may change the responses' privacy states, so bring the
+		// campaign's response counters up to date as part of the same
+		// transaction.
+		try {
+		    campaignResponseStatsQueries.updateCampaignResponseStats(
+			    campaignUrn, 
+			    username, 
+			    responseCountChanges, 
+			    System.currentTimeMillis());
+		}
+		catch (DataAccessException dae) {
+		    LOGGER.error("caught DataAccessException", dae);
+		    rollback(transactionManager, status);
+		    for(File f : newFileList) {
+			f.delete();
+		    }
+		    throw dae;
+		}
+		
 		// Finally, commit the transaction
 		transactionManager.commit(status);
 		
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import javax.sql.DataSource;
+
+import org.ohmage.metrics.Metrics;
+import org.ohmage.metrics.Tracing;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.CallableStatementCallback;
+import org.springframework.jdbc.core.CallableStatementCreator;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.StatementCallback;
+
+/**
+ * A JdbcTemplate that records the number and duration of its calls in the
+ * {@link Metrics} under the name of the query class that owns it. Every
+ * query, update, and batch update goes through one of the four core
+ * "execute" methods, so only those are timed. The time includes processing
+ * the rows, because they are processed while the statement is open. Each
+ * call is also a span of the current request's trace, if it is traced.
+ *
+ * @author John Jenkins
+ */
+public class TimedJdbcTemplate extends JdbcTemplate {
+	private final String name;
+	private final String spanName;
+
+	/**
+	 * Creates a new template.
+	 *
+	 * @param dataSource The DataSource to use to query the database.
+	 *
+	 * @param name The name under which the calls are recorded.
+	 */
+	public TimedJdbcTemplate(final DataSource dataSource, final String name) {
+		super(dataSource);
+
+		this.name = name;
+		spanName = "jdbc:" + name;
+	}
+
+	/**
+	 * Times and traces the call.
+	 */
+	@Override
+	public <T> T execute(
+			final ConnectionCallback<T> action)
+			throws DataAccessException {
+
+		long start = System.nanoTime();
+		int span = Tracing.openSpan(spanName);
+		boolean failed = true;
+		try {
+			T result = super.execute(action);
+			failed = false;
+			return result;
+		}
+		finally {
+			Tracing.closeSpan(span);
+			Metrics.recordQuery(name, System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Times and traces the call.
+	 */
+	@Override
+	public <T> T execute(
+			final StatementCallback<T> action)
+			throws DataAccessException {
+
+		long start = System.nanoTime();
+		int span = Tracing.openSpan(spanName);
+		boolean failed = true;
+		try {
+			T result = super.execute(action);
+			failed = false;
+			return result;
+		}
+		finally {
+			Tracing.closeSpan(span);
+			Metrics.recordQuery(name, System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Times and traces the call.
+	 */
+	@Override
+	public <T> T execute(
+			final PreparedStatementCreator psc,
+			final PreparedStatementCallback<T> action)
+			throws DataAccessException {
+
+		long start = System.nanoTime();
+		int span = Tracing.openSpan(spanName);
+		boolean failed = true;
+		try {
+			T result = super.execute(psc, action);
+			failed = false;
+			return result;
+		}
+		finally {
+			Tracing.closeSpan(span);
+			Metrics.recordQuery(name, System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Times and traces the call.
+	 */
+	@Override
+	public <T> T execute(
+			final CallableStatementCreator csc,
+			final CallableStatementCallback<T> action)
+			throws DataAccessException {
+
+		long start = System.nanoTime();
+		int span = Tracing.openSpan(spanName);
+		boolean failed = true;
+		try {
+			T result = super.execute(csc, action);
+			failed = false;
+			return result;
+		}
+		finally {
+			Tracing.closeSpan(span);
+			Metrics.recordQuery(name, System.nanoTime() - start, failed);
+		}
+	}
+}
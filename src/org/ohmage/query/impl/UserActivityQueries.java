@@ -0,0 +1,1349 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.UserActivityStats;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IUserActivityQueries;
+import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * This class contains all of the functionality for maintaining and reading
+ * the activity counters. The Mobility counters are kept per user: one row
+ * with the time of their latest point and one row per hour with the number
+ * of points with and without a location in that hour. The survey counters
+ * are kept the same way but per user, campaign, and survey response privacy
+ * state, so that only the counters for the survey responses that a
+ * requester may see are read. Changes to the survey responses' privacy
+ * states and deletions add to and subtract from the survey counters in the
+ * same way.<br />
+ * <br />
+ * The reconciliation only recomputes the counters within its window and
+ * only for the users with counters or data in it. It works through them in
+ * batches, each in its own short transaction, and only writes the counters
+ * that are wrong.
+ *
+ * @author John Jenkins
+ */
+public final class UserActivityQueries extends Query implements IUserActivityQueries {
+	private static final long MILLIS_PER_HOUR = 1000 * 60 * 60;
+
+	/**
+	 * The maximum number of users whose counters are reconciled in a single
+	 * transaction. This keeps the statements well under the limit on the
+	 * number of parameters and the transactions short.
+	 */
+	private static final int MAX_USERS_PER_BATCH = 500;
+
+	// Limits stream data to the Mobility observer's streams.
+	private static final String SQL_WHERE_MOBILITY_STREAMS =
+		"osd.observer_stream_link_id IN (" +
+			"SELECT id FROM observer_stream_link WHERE observer_id IN (" +
+				"SELECT id " +
+				"FROM observer " +
+				"WHERE observer_id = 'edu.ucla.cens.Mobility'" +
+			")" +
+		")";
+
+	// Moves a user's latest survey response time in a campaign and privacy
+	// state forward.
+	private static final String SQL_UPDATE_LAST_SURVEY =
+		"INSERT INTO user_activity_survey_stats(" +
+			"user_id, campaign_id, privacy_state_id, last_survey_millis) " +
+		"SELECT u.id, c.id, srps.id, ? " +
+		"FROM user u, campaign c, survey_response_privacy_state srps " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ? " +
+		"ON DUPLICATE KEY UPDATE last_survey_millis = " +
+			"GREATEST(last_survey_millis, VALUES(last_survey_millis))";
+
+	// Moves a user's latest Mobility point time forward.
+	private static final String SQL_UPDATE_LAST_MOBILITY =
+		"INSERT INTO user_activity_stats(user_id, last_mobility_millis) " +
+		"SELECT id, ? " +
+		"FROM user " +
+		"WHERE username = ? " +
+		"ON DUPLICATE KEY UPDATE last_mobility_millis = " +
+			"GREATEST(COALESCE(last_mobility_millis, 0), VALUES(last_mobility_millis))";
+
+	// Adds to a user's survey response counts in a campaign and privacy
+	// state for an hour.
+	static final String SQL_INCREMENT_SURVEY_COUNTS =
+		"INSERT INTO user_activity_survey_hourly(" +
+			"user_id, campaign_id, privacy_state_id, bucket_hour, " +
+			"survey_located, survey_total) " +
+		"SELECT u.id, c.id, srps.id, ?, ?, ? " +
+		"FROM user u, campaign c, survey_response_privacy_state srps " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ? " +
+		"ON DUPLICATE KEY UPDATE " +
+			"survey_located = survey_located + VALUES(survey_located), " +
+			"survey_total = survey_total + VALUES(survey_total)";
+
+	// Subtracts from a user's survey response counts in a campaign and
+	// privacy state for an hour.
+	static final String SQL_SUBTRACT_SURVEY_COUNTS =
+		"UPDATE user_activity_survey_hourly uash " +
+			"JOIN user u ON uash.user_id = u.id " +
+			"JOIN campaign c ON uash.campaign_id = c.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON uash.privacy_state_id = srps.id " +
+		"SET uash.survey_located = " +
+				"IF(uash.survey_located > ?, uash.survey_located - ?, 0), " +
+			"uash.survey_total = " +
+				"IF(uash.survey_total > ?, uash.survey_total - ?, 0) " +
+		"WHERE uash.bucket_hour = ? " +
+		"AND u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ?";
+
+	// Recomputes a user's latest survey response time in a campaign and
+	// privacy state from the responses in it, if there are any.
+	static final String SQL_REFRESH_LAST_SURVEY =
+		"INSERT INTO user_activity_survey_stats(" +
+			"user_id, campaign_id, privacy_state_id, last_survey_millis) " +
+		"SELECT sr.user_id, sr.campaign_id, sr.privacy_state_id, " +
+			"MAX(sr.epoch_millis) " +
+		"FROM survey_response sr " +
+			"JOIN user u ON sr.user_id = u.id " +
+			"JOIN campaign c ON sr.campaign_id = c.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON sr.privacy_state_id = srps.id " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ? " +
+		"GROUP BY sr.user_id, sr.campaign_id, sr.privacy_state_id " +
+		"ON DUPLICATE KEY UPDATE " +
+			"last_survey_millis = VALUES(last_survey_millis)";
+
+	// Deletes a user's latest survey response time in a campaign and privacy
+	// state if there are no longer any responses in it.
+	static final String SQL_DELETE_EMPTY_LAST_SURVEY =
+		"DELETE uass " +
+		"FROM user_activity_survey_stats uass " +
+			"JOIN user u ON uass.user_id = u.id " +
+			"JOIN campaign c ON uass.campaign_id = c.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON uass.privacy_state_id = srps.id " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ? " +
+		"AND NOT EXISTS (" +
+			"SELECT sr.id " +
+			"FROM survey_response sr " +
+			"WHERE sr.user_id = uass.user_id " +
+			"AND sr.campaign_id = uass.campaign_id " +
+			"AND sr.privacy_state_id = uass.privacy_state_id" +
+		")";
+
+	// Adds to a user's Mobility point counts for an hour.
+	private static final String SQL_INCREMENT_MOBILITY_COUNTS =
+		"INSERT INTO user_activity_hourly(user_id, bucket_hour, mobility_located, mobility_total) " +
+		"SELECT id, ?, ?, ? " +
+		"FROM user " +
+		"WHERE username = ? " +
+		"ON DUPLICATE KEY UPDATE " +
+			"mobility_located = mobility_located + VALUES(mobility_located), " +
+			"mobility_total = mobility_total + VALUES(mobility_total)";
+
+	// Retrieves a user's latest Mobility point time and their Mobility point
+	// counts since some hour.
+	private static final String SQL_GET_MOBILITY_ACTIVITY =
+		"SELECT uas.last_mobility_millis, " +
+			"SUM(uah.mobility_located) AS mobility_located, " +
+			"SUM(uah.mobility_total) AS mobility_total " +
+		"FROM user u " +
+			"LEFT JOIN user_activity_stats uas " +
+				"ON u.id = uas.user_id " +
+			"LEFT JOIN user_activity_hourly uah " +
+				"ON u.id = uah.user_id " +
+				"AND uah.bucket_hour >= ? " +
+		"WHERE u.username = ? " +
+		"GROUP BY u.id";
+
+	// Retrieves a user's latest survey response time. The
+	// SQL_WHERE_VISIBLE_TO_REQUESTER clause may be appended.
+	private static final String SQL_GET_LAST_SURVEY =
+		"SELECT MAX(uass.last_survey_millis) " +
+		"FROM user_activity_survey_stats uass " +
+			"JOIN user u ON uass.user_id = u.id " +
+			"JOIN campaign c ON uass.campaign_id = c.id " +
+			"JOIN campaign_privacy_state cps ON c.privacy_state_id = cps.id " +
+			"JOIN campaign_running_state crs ON c.running_state_id = crs.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON uass.privacy_state_id = srps.id " +
+		"WHERE u.username = ?";
+
+	// Retrieves a user's survey response counts since some hour. The
+	// SQL_WHERE_VISIBLE_TO_REQUESTER clause may be appended.
+	private static final String SQL_GET_SURVEY_COUNTS =
+		"SELECT SUM(uash.survey_located) AS survey_located, " +
+			"SUM(uash.survey_total) AS survey_total " +
+		"FROM user_activity_survey_hourly uash " +
+			"JOIN user u ON uash.user_id = u.id " +
+			"JOIN campaign c ON uash.campaign_id = c.id " +
+			"JOIN campaign_privacy_state cps ON c.privacy_state_id = cps.id " +
+			"JOIN campaign_running_state crs ON c.running_state_id = crs.id " +
+			"JOIN survey_response_privacy_state srps " +
+				"ON uash.privacy_state_id = srps.id " +
+		"WHERE uash.bucket_hour >= ? " +
+		"AND u.username = ?";
+
+	// Limits the survey counters to those for the survey responses that a
+	// requester may see. These are the same rules as those for reading the
+	// survey responses themselves. The requester's username is the first
+	// and second parameters.
+	private static final String SQL_WHERE_VISIBLE_TO_REQUESTER =
+		" AND (" +
+			"EXISTS (" +
+				"SELECT ru.id " +
+				"FROM user ru " +
+					"JOIN user_role_campaign urc ON ru.id = urc.user_id " +
+					"JOIN user_role ur ON urc.user_role_id = ur.id " +
+				"WHERE ru.username = ? " +
+				"AND urc.campaign_id = c.id " +
+				"AND (" +
+					// The requester is a supervisor.
+					"ur.role = '" + Campaign.Role.SUPERVISOR + "' " +
+					// The requester is an analyst, the campaign is shared,
+					// and the responses aren't invisible.
+					"OR (" +
+						"ur.role = '" + Campaign.Role.ANALYST + "' " +
+						"AND cps.privacy_state = '" + Campaign.PrivacyState.SHARED + "' " +
+						"AND srps.privacy_state != '" + SurveyResponse.PrivacyState.INVISIBLE + "'" +
+					") " +
+					// The requester is an author and the responses are
+					// shared.
+					"OR (" +
+						"ur.role = '" + Campaign.Role.AUTHOR + "' " +
+						"AND srps.privacy_state = '" + SurveyResponse.PrivacyState.SHARED + "'" +
+					")" +
+				")" +
+			") " +
+			// The requester is the user, the campaign is running, and the
+			// responses aren't invisible.
+			"OR (" +
+				"u.username = ? " +
+				"AND crs.running_state = '" + Campaign.RunningState.RUNNING + "' " +
+				"AND srps.privacy_state != '" + SurveyResponse.PrivacyState.INVISIBLE + "'" +
+			")" +
+		")";
+
+	// Discards the Mobility point counts from before some hour.
+	private static final String SQL_DELETE_OLD_MOBILITY_COUNTS =
+		"DELETE FROM user_activity_hourly " +
+		"WHERE bucket_hour < ?";
+
+	// Discards the survey response counts from before some hour.
+	private static final String SQL_DELETE_OLD_SURVEY_COUNTS =
+		"DELETE FROM user_activity_survey_hourly " +
+		"WHERE bucket_hour < ?";
+
+	// Retrieves the users that have counters or data on or after some time.
+	// The parameters are the hour, the hour, the time, the time, the hour in
+	// seconds, and the time.
+	private static final String SQL_GET_ACTIVE_USERS =
+		"SELECT user_id " +
+		"FROM user_activity_hourly " +
+		"WHERE bucket_hour >= ? " +
+		"UNION " +
+		"SELECT user_id " +
+		"FROM user_activity_survey_hourly " +
+		"WHERE bucket_hour >= ? " +
+		"UNION " +
+		"SELECT user_id " +
+		"FROM user_activity_stats " +
+		"WHERE last_mobility_millis >= ? " +
+		"UNION " +
+		"SELECT user_id " +
+		"FROM user_activity_survey_stats " +
+		"WHERE last_survey_millis >= ? " +
+		"UNION " +
+		"SELECT user_id " +
+		"FROM survey_response " +
+		"WHERE upload_timestamp >= FROM_UNIXTIME(?) " +
+		"UNION " +
+		"SELECT osd.user_id " +
+		"FROM observer_stream_data osd " +
+		"WHERE " + SQL_WHERE_MOBILITY_STREAMS + " " +
+		"AND osd.time >= ? " +
+		"ORDER BY user_id";
+
+	// Locks a list of users' Mobility point counts on or after some hour.
+	// This SQL is incomplete and ends with "IN ".
+	private static final String SQL_LOCK_MOBILITY_COUNTS =
+		"SELECT user_id, bucket_hour, mobility_located, mobility_total " +
+		"FROM user_activity_hourly " +
+		"WHERE bucket_hour >= ? " +
+		"AND user_id IN ";
+
+	// Locks a list of users' survey response counts on or after some hour.
+	// This SQL is incomplete and ends with "IN ".
+	private static final String SQL_LOCK_SURVEY_COUNTS =
+		"SELECT user_id, campaign_id, privacy_state_id, bucket_hour, " +
+			"survey_located, survey_total " +
+		"FROM user_activity_survey_hourly " +
+		"WHERE bucket_hour >= ? " +
+		"AND user_id IN ";
+
+	// Locks a list of users' latest Mobility point times. This SQL is
+	// incomplete and ends with "IN ".
+	private static final String SQL_LOCK_LAST_MOBILITY =
+		"SELECT user_id, last_mobility_millis " +
+		"FROM user_activity_stats " +
+		"WHERE user_id IN ";
+
+	// Locks a list of users' latest survey response times. This SQL is
+	// incomplete and ends with "IN ".
+	private static final String SQL_LOCK_LAST_SURVEYS =
+		"SELECT user_id, campaign_id, privacy_state_id, last_survey_millis " +
+		"FROM user_activity_survey_stats " +
+		"WHERE user_id IN ";
+
+	// Completes the locking reads.
+	private static final String SQL_FOR_UPDATE =
+		" FOR UPDATE";
+
+	// Counts a list of users' Mobility points on or after some time. This is
+	// a plain, non-locking read so that it does not block uploads. This SQL
+	// is incomplete and ends with "IN ".
+	private static final String SQL_COUNT_MOBILITY =
+		"SELECT osd.user_id, " +
+			"FLOOR(osd.time / " + MILLIS_PER_HOUR + ") AS point_hour, " +
+			"SUM(osd.location_latitude IS NOT NULL), " +
+			"COUNT(*) " +
+		"FROM observer_stream_data osd " +
+		"WHERE " + SQL_WHERE_MOBILITY_STREAMS + " " +
+		"AND osd.time >= ? " +
+		"AND osd.user_id IN ";
+	private static final String SQL_GROUP_MOBILITY_COUNTS =
+		" GROUP BY osd.user_id, point_hour";
+
+	// Counts a list of users' survey responses uploaded on or after some
+	// time in seconds. This is a plain, non-locking read. This SQL is
+	// incomplete and ends with "IN ".
+	private static final String SQL_COUNT_SURVEYS =
+		"SELECT sr.user_id, sr.campaign_id, sr.privacy_state_id, " +
+			"FLOOR(UNIX_TIMESTAMP(sr.upload_timestamp) / 3600) AS upload_hour, " +
+			"SUM(sr.location IS NOT NULL), " +
+			"COUNT(*) " +
+		"FROM survey_response sr " +
+		"WHERE sr.upload_timestamp >= FROM_UNIXTIME(?) " +
+		"AND sr.user_id IN ";
+	private static final String SQL_GROUP_SURVEY_COUNTS =
+		" GROUP BY sr.user_id, sr.campaign_id, sr.privacy_state_id, upload_hour";
+
+	// Retrieves a list of users' latest Mobility point times from those on or
+	// after some time. This is a plain, non-locking read. This SQL is
+	// incomplete and ends with "IN ".
+	private static final String SQL_GET_RECENT_LAST_MOBILITY =
+		"SELECT osd.user_id, MAX(osd.time) " +
+		"FROM observer_stream_data osd " +
+		"WHERE " + SQL_WHERE_MOBILITY_STREAMS + " " +
+		"AND osd.time >= ? " +
+		"AND osd.user_id IN ";
+	private static final String SQL_GROUP_LAST_MOBILITY =
+		" GROUP BY osd.user_id";
+
+	// Retrieves a list of users' latest survey response times from those
+	// taken on or after some time. This is a plain, non-locking read. This
+	// SQL is incomplete and ends with "IN ".
+	private static final String SQL_GET_RECENT_LAST_SURVEYS =
+		"SELECT sr.user_id, sr.campaign_id, sr.privacy_state_id, " +
+			"MAX(sr.epoch_millis) " +
+		"FROM survey_response sr " +
+		"WHERE sr.epoch_millis >= ? " +
+		"AND sr.user_id IN ";
+	private static final String SQL_GROUP_LAST_SURVEYS =
+		" GROUP BY sr.user_id, sr.campaign_id, sr.privacy_state_id";
+
+	// Retrieves a user's latest Mobility point time. This is only used when
+	// the latest time is no longer in the window, which is rare.
+	private static final String SQL_GET_LAST_MOBILITY =
+		"SELECT MAX(osd.time) " +
+		"FROM observer_stream_data osd " +
+		"WHERE " + SQL_WHERE_MOBILITY_STREAMS + " " +
+		"AND osd.user_id = ?";
+
+	// Retrieves a user's latest survey response time in a campaign and
+	// privacy state. This is only used when the latest time is no longer in
+	// the window, which is rare.
+	private static final String SQL_GET_LAST_SURVEY_FOR_STATE =
+		"SELECT MAX(epoch_millis) " +
+		"FROM survey_response " +
+		"WHERE user_id = ? " +
+		"AND campaign_id = ? " +
+		"AND privacy_state_id = ?";
+
+	// Sets a user's Mobility point counts for an hour.
+	private static final String SQL_SET_MOBILITY_COUNTS =
+		"INSERT INTO user_activity_hourly(user_id, bucket_hour, mobility_located, mobility_total) " +
+		"VALUES (?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"mobility_located = VALUES(mobility_located), " +
+			"mobility_total = VALUES(mobility_total)";
+
+	// Deletes a user's Mobility point counts for an hour.
+	private static final String SQL_DELETE_MOBILITY_COUNTS =
+		"DELETE FROM user_activity_hourly " +
+		"WHERE user_id = ? " +
+		"AND bucket_hour = ?";
+
+	// Sets a user's survey response counts in a campaign and privacy state
+	// for an hour.
+	private static final String SQL_SET_SURVEY_COUNTS =
+		"INSERT INTO user_activity_survey_hourly(" +
+			"user_id, campaign_id, privacy_state_id, bucket_hour, " +
+			"survey_located, survey_total) " +
+		"VALUES (?, ?, ?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"survey_located = VALUES(survey_located), " +
+			"survey_total = VALUES(survey_total)";
+
+	// Deletes a user's survey response counts in a campaign and privacy
+	// state for an hour.
+	private static final String SQL_DELETE_SURVEY_COUNTS =
+		"DELETE FROM user_activity_survey_hourly " +
+		"WHERE user_id = ? " +
+		"AND campaign_id = ? " +
+		"AND privacy_state_id = ? " +
+		"AND bucket_hour = ?";
+
+	// Sets a user's latest Mobility point time.
+	private static final String SQL_SET_LAST_MOBILITY =
+		"INSERT INTO user_activity_stats(user_id, last_mobility_millis) " +
+		"VALUES (?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"last_mobility_millis = VALUES(last_mobility_millis)";
+
+	// Clears a user's latest Mobility point time.
+	private static final String SQL_CLEAR_LAST_MOBILITY =
+		"UPDATE user_activity_stats " +
+		"SET last_mobility_millis = NULL " +
+		"WHERE user_id = ?";
+
+	// Sets a user's latest survey response time in a campaign and privacy
+	// state.
+	private static final String SQL_SET_LAST_SURVEY =
+		"INSERT INTO user_activity_survey_stats(" +
+			"user_id, campaign_id, privacy_state_id, last_survey_millis) " +
+		"VALUES (?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"last_survey_millis = VALUES(last_survey_millis)";
+
+	// Deletes a user's latest survey response time in a campaign and privacy
+	// state.
+	private static final String SQL_DELETE_LAST_SURVEY =
+		"DELETE FROM user_activity_survey_stats " +
+		"WHERE user_id = ? " +
+		"AND campaign_id = ? " +
+		"AND privacy_state_id = ?";
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource The DataSource to use when accessing the database.
+	 */
+	private UserActivityQueries(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/**
+	 * Creates this object around a JDBC template. This is only used by the
+	 * tests.
+	 *
+	 * @param jdbcTemplate The JDBC template to use to query the database.
+	 */
+	UserActivityQueries(final JdbcTemplate jdbcTemplate) {
+		super(jdbcTemplate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserActivityQueries#recordSurveyUploads(java.lang.String, long, java.util.Collection)
+	 */
+	@Override
+	public void recordSurveyUploads(
+			final String username,
+			final long uploadMillis,
+			final Collection<SurveyResponse> surveyResponses)
+			throws DataAccessException {
+
+		if(surveyResponses.isEmpty()) {
+			return;
+		}
+
+		// Count the responses in each campaign and privacy state. The first
+		// count is the latest time, the second is the number with a location,
+		// and the third is the total. The campaigns and privacy states are
+		// visited in order so that concurrent uploads lock the counters in
+		// the same order.
+		Map<String, Map<SurveyResponse.PrivacyState, long[]>> counts =
+			new TreeMap<String, Map<SurveyResponse.PrivacyState, long[]>>();
+		for(SurveyResponse surveyResponse : surveyResponses) {
+			Map<SurveyResponse.PrivacyState, long[]> campaignCounts =
+				counts.get(surveyResponse.getCampaignId());
+			if(campaignCounts == null) {
+				campaignCounts =
+					new EnumMap<SurveyResponse.PrivacyState, long[]>(
+						SurveyResponse.PrivacyState.class);
+				counts.put(surveyResponse.getCampaignId(), campaignCounts);
+			}
+
+			long[] stateCounts =
+				campaignCounts.get(surveyResponse.getPrivacyState());
+			if(stateCounts == null) {
+				stateCounts = new long[] { Long.MIN_VALUE, 0, 0 };
+				campaignCounts.put(
+					surveyResponse.getPrivacyState(),
+					stateCounts);
+			}
+
+			stateCounts[0] = Math.max(stateCounts[0], surveyResponse.getTime());
+			if(surveyResponse.hasLocation()) {
+				stateCounts[1]++;
+			}
+			stateCounts[2]++;
+		}
+
+		long hour = uploadMillis / MILLIS_PER_HOUR;
+		List<Object[]> lastParameters = new ArrayList<Object[]>();
+		List<Object[]> countParameters = new ArrayList<Object[]>();
+		for(String campaignId : counts.keySet()) {
+			Map<SurveyResponse.PrivacyState, long[]> campaignCounts =
+				counts.get(campaignId);
+
+			for(SurveyResponse.PrivacyState privacyState : campaignCounts.keySet()) {
+				long[] stateCounts = campaignCounts.get(privacyState);
+
+				lastParameters.add(
+					new Object[] {
+						stateCounts[0],
+						username,
+						campaignId,
+						privacyState.toString()
+					});
+				countParameters.add(
+					new Object[] {
+						hour,
+						stateCounts[1],
+						stateCounts[2],
+						username,
+						campaignId,
+						privacyState.toString()
+					});
+			}
+		}
+
+		try {
+			getJdbcTemplate().batchUpdate(
+				SQL_UPDATE_LAST_SURVEY,
+				lastParameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_UPDATE_LAST_SURVEY +
+					"' for user: " +
+					username,
+				e);
+		}
+
+		try {
+			getJdbcTemplate().batchUpdate(
+				SQL_INCREMENT_SURVEY_COUNTS,
+				countParameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_INCREMENT_SURVEY_COUNTS +
+					"' for user: " +
+					username,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserActivityQueries#updateSurveyActivity(java.lang.String, java.lang.String, java.util.Map)
+	 */
+	@Override
+	public void updateSurveyActivity(
+			final String username,
+			final String campaignId,
+			final Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes)
+			throws DataAccessException {
+
+		// Visit the privacy states and hours in a fixed order so that
+		// concurrent changes lock the counters in the same order.
+		Map<SurveyResponse.PrivacyState, Map<Long, long[]>> orderedChanges =
+			new EnumMap<SurveyResponse.PrivacyState, Map<Long, long[]>>(
+				SurveyResponse.PrivacyState.class);
+		orderedChanges.putAll(changes);
+
+		for(SurveyResponse.PrivacyState privacyState : orderedChanges.keySet()) {
+			Map<Long, long[]> hourChanges =
+				new TreeMap<Long, long[]>(orderedChanges.get(privacyState));
+
+			for(Long hour : hourChanges.keySet()) {
+				long[] change = hourChanges.get(hour);
+
+				String sql;
+				Object[] parameters;
+				if(change[1] < 0) {
+					sql = SQL_SUBTRACT_SURVEY_COUNTS;
+					parameters =
+						new Object[] {
+							-change[0],
+							-change[0],
+							-change[1],
+							-change[1],
+							hour,
+							username,
+							campaignId,
+							privacyState.toString()
+						};
+				}
+				else if(change[1] > 0) {
+					sql = SQL_INCREMENT_SURVEY_COUNTS;
+					parameters =
+						new Object[] {
+							hour,
+							change[0],
+							change[1],
+							username,
+							campaignId,
+							privacyState.toString()
+						};
+				}
+				else {
+					continue;
+				}
+
+				try {
+					getJdbcTemplate().update(sql, parameters);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					throw new DataAccessException(
+						"Error executing SQL '" +
+							sql +
+							"' with parameters: " +
+							Arrays.toString(parameters),
+						e);
+				}
+			}
+
+			// Responses may have left or joined the privacy state, so its
+			// latest time may have moved either way.
+			Object[] parameters =
+				new Object[] { username, campaignId, privacyState.toString() };
+			String sql = null;
+			try {
+				sql = SQL_REFRESH_LAST_SURVEY;
+				getJdbcTemplate().update(sql, parameters);
+
+				sql = SQL_DELETE_EMPTY_LAST_SURVEY;
+				getJdbcTemplate().update(sql, parameters);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						sql +
+						"' with parameters: " +
+						Arrays.toString(parameters),
+					e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserActivityQueries#recordMobilityUploads(java.lang.String, long, java.util.Collection)
+	 */
+	@Override
+	public void recordMobilityUploads(
+			final String username,
+			final long earliestMillis,
+			final Collection<MobilityPoint> mobilityPoints)
+			throws DataAccessException {
+
+		if(mobilityPoints.isEmpty()) {
+			return;
+		}
+
+		// Count the points in each hour. The first count is the number with
+		// a location and the second is the total.
+		long lastMillis = Long.MIN_VALUE;
+		Map<Long, int[]> hourCounts = new HashMap<Long, int[]>();
+		for(MobilityPoint mobilityPoint : mobilityPoints) {
+			long time = mobilityPoint.getTime();
+			lastMillis = Math.max(lastMillis, time);
+
+			if(time < earliestMillis) {
+				continue;
+			}
+
+			Long hour = time / MILLIS_PER_HOUR;
+			int[] counts = hourCounts.get(hour);
+			if(counts == null) {
+				counts = new int[2];
+				hourCounts.put(hour, counts);
+			}
+
+			if(mobilityPoint.getLocation() != null) {
+				counts[0]++;
+			}
+			counts[1]++;
+		}
+
+		try {
+			getJdbcTemplate().update(
+				SQL_UPDATE_LAST_MOBILITY,
+				lastMillis,
+				username);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_UPDATE_LAST_MOBILITY +
+					"' with parameters: " +
+					lastMillis + ", " +
+					username,
+				e);
+		}
+
+		if(hourCounts.isEmpty()) {
+			return;
+		}
+
+		List<Object[]> parameters =
+			new ArrayList<Object[]>(hourCounts.size());
+		for(Map.Entry<Long, int[]> hourCount : hourCounts.entrySet()) {
+			int[] counts = hourCount.getValue();
+
+			parameters.add(
+				new Object[] {
+					hourCount.getKey(),
+					counts[0],
+					counts[1],
+					username
+				});
+		}
+
+		try {
+			getJdbcTemplate().batchUpdate(
+				SQL_INCREMENT_MOBILITY_COUNTS,
+				parameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_INCREMENT_MOBILITY_COUNTS +
+					"' for user: " +
+					username,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserActivityQueries#getUserActivityStats(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public UserActivityStats getUserActivityStats(
+			final String requester,
+			final String username,
+			final long earliestMillis)
+			throws DataAccessException {
+
+		long hour = earliestMillis / MILLIS_PER_HOUR;
+
+		String lastSurveySql = SQL_GET_LAST_SURVEY;
+		List<Object> lastSurveyParameters = new ArrayList<Object>(3);
+		lastSurveyParameters.add(username);
+
+		String surveyCountsSql = SQL_GET_SURVEY_COUNTS;
+		List<Object> surveyCountsParameters = new ArrayList<Object>(4);
+		surveyCountsParameters.add(hour);
+		surveyCountsParameters.add(username);
+
+		if(requester != null) {
+			lastSurveySql += SQL_WHERE_VISIBLE_TO_REQUESTER;
+			lastSurveyParameters.add(requester);
+			lastSurveyParameters.add(requester);
+
+			surveyCountsSql += SQL_WHERE_VISIBLE_TO_REQUESTER;
+			surveyCountsParameters.add(requester);
+			surveyCountsParameters.add(requester);
+		}
+
+		Long lastSurveyMillis;
+		try {
+			lastSurveyMillis =
+				getJdbcTemplate().queryForObject(
+					lastSurveySql,
+					lastSurveyParameters.toArray(),
+					Long.class);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					lastSurveySql +
+					"' with parameters: " +
+					lastSurveyParameters,
+				e);
+		}
+
+		final long[] surveyCounts = new long[2];
+		try {
+			getJdbcTemplate().query(
+				surveyCountsSql,
+				surveyCountsParameters.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Reads the sums, which are zero if there are no rows.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+
+						surveyCounts[0] = rs.getLong("survey_located");
+						surveyCounts[1] = rs.getLong("survey_total");
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					surveyCountsSql +
+					"' with parameters: " +
+					surveyCountsParameters,
+				e);
+		}
+
+		final long[] mobilityCounts = new long[2];
+		final List<Long> lastMobilityMillis = new ArrayList<Long>(1);
+		try {
+			getJdbcTemplate().query(
+				SQL_GET_MOBILITY_ACTIVITY,
+				new Object[] { hour, username },
+				new RowCallbackHandler() {
+					/**
+					 * Reads the time and the sums. The time is null and the
+					 * sums are zero if there are no rows for the user.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+
+						long millis = rs.getLong("last_mobility_millis");
+						if(! rs.wasNull()) {
+							lastMobilityMillis.add(millis);
+						}
+
+						mobilityCounts[0] = rs.getLong("mobility_located");
+						mobilityCounts[1] = rs.getLong("mobility_total");
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_MOBILITY_ACTIVITY +
+					"' with parameters: " +
+					hour + ", " +
+					username,
+				e);
+		}
+
+		return new UserActivityStats(
+			lastSurveyMillis,
+			(lastMobilityMillis.isEmpty()) ? null : lastMobilityMillis.get(0),
+			surveyCounts[0],
+			surveyCounts[1],
+			mobilityCounts[0],
+			mobilityCounts[1]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserActivityQueries#reconcileUserActivityStats(long)
+	 */
+	@Override
+	public void reconcileUserActivityStats(final long earliestMillis)
+			throws DataAccessException {
+
+		long hour = earliestMillis / MILLIS_PER_HOUR;
+		long hourMillis = hour * MILLIS_PER_HOUR;
+		long hourSeconds = hourMillis / 1000;
+
+		// Discard the counts from before the window. Each is its own short
+		// statement.
+		String sql = null;
+		try {
+			sql = SQL_DELETE_OLD_MOBILITY_COUNTS;
+			getJdbcTemplate().update(sql, hour);
+
+			sql = SQL_DELETE_OLD_SURVEY_COUNTS;
+			getJdbcTemplate().update(sql, hour);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					sql +
+					"' with the hour: " +
+					hour,
+				e);
+		}
+
+		// Only the users with counters or data in the window may have
+		// counters that are wrong.
+		List<Long> userIds;
+		Object[] parameters =
+			new Object[] {
+				hour,
+				hour,
+				hourMillis,
+				hourMillis,
+				hourSeconds,
+				hourMillis
+			};
+		try {
+			userIds =
+				getJdbcTemplate().query(
+					SQL_GET_ACTIVE_USERS,
+					parameters,
+					new SingleColumnRowMapper<Long>(Long.class));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_ACTIVE_USERS +
+					"' with parameters: " +
+					Arrays.toString(parameters),
+				e);
+		}
+
+		for(int i = 0; i < userIds.size(); i += MAX_USERS_PER_BATCH) {
+			reconcileUsers(
+				userIds.subList(
+					i,
+					Math.min(i + MAX_USERS_PER_BATCH, userIds.size())),
+				hour);
+		}
+	}
+
+	/**
+	 * Recomputes a batch of users' counters within the window in its own
+	 * transaction.<br />
+	 * <br />
+	 * The counters are locked first and the data is then read with
+	 * non-locking reads, whose snapshot is taken after the locks are held,
+	 * so an upload that updates the counters while this runs waits and adds
+	 * to the recomputed value. Nothing is cleared; only the counters that
+	 * differ from the data are written. A latest time that is in the window
+	 * but no longer matches any data is looked up without the window.
+	 *
+	 * @param userIds The users' database IDs.
+	 *
+	 * @param hour The first hour of the window.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void reconcileUsers(
+			final List<Long> userIds,
+			final long hour)
+			throws DataAccessException {
+
+		long hourMillis = hour * MILLIS_PER_HOUR;
+		long hourSeconds = hourMillis / 1000;
+		String inList = StringUtils.generateStatementPList(userIds.size());
+
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Reconciling the user activity counters.");
+
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			try {
+				// Lock the counters.
+				Map<List<Long>, long[]> mobilityCounts =
+					readCounters(
+						SQL_LOCK_MOBILITY_COUNTS + inList + SQL_FOR_UPDATE,
+						hour,
+						userIds,
+						2);
+				Map<List<Long>, long[]> surveyCounts =
+					readCounters(
+						SQL_LOCK_SURVEY_COUNTS + inList + SQL_FOR_UPDATE,
+						hour,
+						userIds,
+						4);
+				Map<List<Long>, long[]> lastMobility =
+					readCounters(
+						SQL_LOCK_LAST_MOBILITY + inList + SQL_FOR_UPDATE,
+						null,
+						userIds,
+						1);
+				Map<List<Long>, long[]> lastSurveys =
+					readCounters(
+						SQL_LOCK_LAST_SURVEYS + inList + SQL_FOR_UPDATE,
+						null,
+						userIds,
+						3);
+
+				// Recompute them from the data in the window.
+				writeCounts(
+					mobilityCounts,
+					readCounters(
+						SQL_COUNT_MOBILITY + inList + SQL_GROUP_MOBILITY_COUNTS,
+						hourMillis,
+						userIds,
+						2),
+					SQL_SET_MOBILITY_COUNTS,
+					SQL_DELETE_MOBILITY_COUNTS);
+				writeCounts(
+					surveyCounts,
+					readCounters(
+						SQL_COUNT_SURVEYS + inList + SQL_GROUP_SURVEY_COUNTS,
+						hourSeconds,
+						userIds,
+						4),
+					SQL_SET_SURVEY_COUNTS,
+					SQL_DELETE_SURVEY_COUNTS);
+				writeLastTimes(
+					lastMobility,
+					readCounters(
+						SQL_GET_RECENT_LAST_MOBILITY + inList + SQL_GROUP_LAST_MOBILITY,
+						hourMillis,
+						userIds,
+						1),
+					hourMillis,
+					SQL_GET_LAST_MOBILITY,
+					SQL_SET_LAST_MOBILITY,
+					SQL_CLEAR_LAST_MOBILITY);
+				writeLastTimes(
+					lastSurveys,
+					readCounters(
+						SQL_GET_RECENT_LAST_SURVEYS + inList + SQL_GROUP_LAST_SURVEYS,
+						hourMillis,
+						userIds,
+						3),
+					hourMillis,
+					SQL_GET_LAST_SURVEY_FOR_STATE,
+					SQL_SET_LAST_SURVEY,
+					SQL_DELETE_LAST_SURVEY);
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+
+	/**
+	 * Reads counters or counts, where each row is some key columns followed
+	 * by some value columns. Rows with a null value are skipped.
+	 *
+	 * @param sql The SQL, whose parameters are the optional first parameter
+	 * 			  and then the users' database IDs.
+	 *
+	 * @param firstParameter The first parameter or null if there is none.
+	 *
+	 * @param userIds The users' database IDs.
+	 *
+	 * @param numKeyColumns The number of key columns.
+	 *
+	 * @return The values for each key.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private Map<List<Long>, long[]> readCounters(
+			final String sql,
+			final Long firstParameter,
+			final List<Long> userIds,
+			final int numKeyColumns)
+			throws DataAccessException {
+
+		List<Object> parameters = new ArrayList<Object>(userIds.size() + 1);
+		if(firstParameter != null) {
+			parameters.add(firstParameter);
+		}
+		parameters.addAll(userIds);
+
+		final Map<List<Long>, long[]> result =
+			new HashMap<List<Long>, long[]>();
+		try {
+			getJdbcTemplate().query(
+				sql,
+				parameters.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Adds the row's values under its key.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+
+						int numColumns = rs.getMetaData().getColumnCount();
+
+						Long[] key = new Long[numKeyColumns];
+						for(int i = 0; i < numKeyColumns; i++) {
+							key[i] = rs.getLong(i + 1);
+						}
+
+						long[] values = new long[numColumns - numKeyColumns];
+						for(int i = 0; i < values.length; i++) {
+							values[i] = rs.getLong(numKeyColumns + i + 1);
+							if(rs.wasNull()) {
+								return;
+							}
+						}
+
+						result.put(Arrays.asList(key), values);
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					sql +
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the hourly counts that differ from the data and deletes those
+	 * for which there is no longer any data.
+	 *
+	 * @param existing The current counts.
+	 *
+	 * @param computed The counts from the data.
+	 *
+	 * @param setSql The SQL that sets a count. Its parameters are the key
+	 * 				 and then the values.
+	 *
+	 * @param deleteSql The SQL that deletes a count. Its parameters are the
+	 * 					key.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void writeCounts(
+			final Map<List<Long>, long[]> existing,
+			final Map<List<Long>, long[]> computed,
+			final String setSql,
+			final String deleteSql)
+			throws DataAccessException {
+
+		List<Object[]> sets = new ArrayList<Object[]>();
+		for(List<Long> key : computed.keySet()) {
+			long[] values = computed.get(key);
+			if(! Arrays.equals(values, existing.get(key))) {
+				sets.add(toParameters(key, values));
+			}
+		}
+
+		List<Object[]> deletes = new ArrayList<Object[]>();
+		for(List<Long> key : existing.keySet()) {
+			if(! computed.containsKey(key)) {
+				deletes.add(key.toArray());
+			}
+		}
+
+		batchUpdate(setSql, sets);
+		batchUpdate(deleteSql, deletes);
+	}
+
+	/**
+	 * Writes the latest times that differ from the data. A time that is not
+	 * in the window is left alone, because the data before the window
+	 * wasn't read. A time that is in the window but doesn't match the data
+	 * is looked up without the window.
+	 *
+	 * @param existing The current latest times.
+	 *
+	 * @param computed The latest times from the data in the window.
+	 *
+	 * @param windowMillis The start of the window.
+	 *
+	 * @param lookupSql The SQL that looks up the latest time for a key.
+	 *
+	 * @param setSql The SQL that sets a latest time. Its parameters are the
+	 * 				 key and then the time.
+	 *
+	 * @param clearSql The SQL that clears a latest time. Its parameters are
+	 * 				   the key.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void writeLastTimes(
+			final Map<List<Long>, long[]> existing,
+			final Map<List<Long>, long[]> computed,
+			final long windowMillis,
+			final String lookupSql,
+			final String setSql,
+			final String clearSql)
+			throws DataAccessException {
+
+		List<Object[]> sets = new ArrayList<Object[]>();
+		for(List<Long> key : computed.keySet()) {
+			long[] values = computed.get(key);
+			if(! Arrays.equals(values, existing.get(key))) {
+				sets.add(toParameters(key, values));
+			}
+		}
+
+		List<Object[]> clears = new ArrayList<Object[]>();
+		for(List<Long> key : existing.keySet()) {
+			long existingMillis = existing.get(key)[0];
+			if(computed.containsKey(key) || (existingMillis < windowMillis)) {
+				continue;
+			}
+
+			// The data at the latest time was changed or deleted.
+			Long lastMillis;
+			try {
+				lastMillis =
+					getJdbcTemplate().queryForObject(
+						lookupSql,
+						key.toArray(),
+						Long.class);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						lookupSql +
+						"' with parameters: " +
+						key,
+					e);
+			}
+
+			if(lastMillis == null) {
+				clears.add(key.toArray());
+			}
+			else {
+				sets.add(toParameters(key, new long[] { lastMillis }));
+			}
+		}
+
+		batchUpdate(setSql, sets);
+		batchUpdate(clearSql, clears);
+	}
+
+	/**
+	 * Builds the parameters for a key and its values.
+	 *
+	 * @param key The key.
+	 *
+	 * @param values The values.
+	 *
+	 * @return The key followed by the values.
+	 */
+	private static Object[] toParameters(
+			final List<Long> key,
+			final long[] values) {
+
+		Object[] result = new Object[key.size() + values.length];
+		for(int i = 0; i < key.size(); i++) {
+			result[i] = key.get(i);
+		}
+		for(int i = 0; i < values.length; i++) {
+			result[key.size() + i] = values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a statement for each set of parameters, if there are any.
+	 *
+	 * @param sql The SQL.
+	 *
+	 * @param parameters The parameters for each run.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void batchUpdate(
+			final String sql,
+			final List<Object[]> parameters)
+			throws DataAccessException {
+
+		if(parameters.isEmpty()) {
+			return;
+		}
+
+		try {
+			getJdbcTemplate().batchUpdate(sql, parameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					sql +
+					"' for " +
+					parameters.size() +
+					" counters.",
+				e);
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
+import org.ohmage.cache.VisibilityIndex;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.Clazz.Role;
 import org.ohmage.exception.DataAccessException;
@@ -584,6 +585,9 @@ public final class UserClassQueries extends Query implements IUserClassQueries {
 						"Error while committing the transaction.", 
 						e);
 			}
+			
+			// The user may now see and be seen through the class.
+			VisibilityIndex.instance().refreshUser(username);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -40,11 +40,9 @@ import org.ohmage.domain.Location.LocationColumnKey;
 import org.ohmage.domain.MobilityAggregatePoint;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.ClassifierData;
-import org.ohmage.domain.MobilityPoint.ClassifierData.ClassifierDataColumnKey;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
 import org.ohmage.domain.MobilityPoint.Mode;
 import org.ohmage.domain.MobilityPoint.PrivacyState;
-import org.ohmage.domain.MobilityPoint.SensorData.SensorDataColumnKey;
 import org.ohmage.domain.MobilityPoint.SubType;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
@@ -273,35 +271,26 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 				
 				// If it's an extended entry, add the sensor data.
 				if(SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
-					JSONObject sensorData;
+					String sensorData;
 					try {
-						sensorData = mobilityPoint.getSensorData().toJson(false, SensorDataColumnKey.ALL_COLUMNS);
-					}
-					catch(JSONException e) {
-						throw new DataAccessException(e);
+						sensorData = mobilityPoint.getSensorData().toJsonString();
 					}
 					catch(DomainException e) {
 						throw new DataAccessException(e);
 					}
 					
-					JSONObject classifierData;
+					String classifierData;
 					try {
 						ClassifierData tClassifierData = 
 								mobilityPoint.getClassifierData();
 						
 						if(tClassifierData == null) {
-							classifierData = null;
+							classifierData = "{}";
 						}
 						else {
-							classifierData = 
-									tClassifierData.toJson(
-										false,
-										ClassifierDataColumnKey.ALL_COLUMNS);
+							classifierData = tClassifierData.toJsonString();
 						}
 					}
-					catch(JSONException e) {
-						throw new DataAccessException(e);
-					}
 					catch(DomainException e) {
 						throw new DataAccessException(e);
 					}
@@ -310,8 +299,8 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 						getJdbcTemplate().update(
 								SQL_INSERT_EXTENDED,
 								mobilityPointDatabaseKeyHolder.getKey().longValue(),
-								sensorData.toString(),
-								(classifierData == null) ? (new JSONObject()).toString() : classifierData.toString(),
+								sensorData,
+								classifierData,
 								MobilityClassifier.getVersion());
 					}
 					catch(org.springframework.dao.DataAccessException e) {
@@ -321,8 +310,8 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 										SQL_INSERT_EXTENDED + 
 									"' with parameters: " +
 										mobilityPointDatabaseKeyHolder.getKey().longValue() + ", " +
-										sensorData.toString() + ", " +
-										((classifierData == null) ? (new JSONObject()).toString() : classifierData.toString()) + ", " +
+										sensorData + ", " +
+										classifierData + ", " +
 										MobilityClassifier.getVersion(),
 								e);
 					}
@@ -500,18 +489,6 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 									location = new JSONObject(locationString);
 								}
 								
-								JSONObject sensorData = null;
-								String sensorDataString = rs.getString("sensor_data");
-								if(sensorDataString != null) {
-									sensorData = new JSONObject(sensorDataString);
-								}
-								
-								JSONObject features = null;
-								String featuresString = rs.getString("features");
-								if(featuresString != null) {
-									features = new JSONObject(featuresString);
-								}
-								
 								return new MobilityPoint(
 										UUID.fromString(rs.getString("uuid")),
 										rs.getLong("epoch_millis"),
@@ -520,8 +497,8 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 										location,
 										Mode.valueOf(rs.getString("mode").toUpperCase()),
 										MobilityPoint.PrivacyState.getValue(rs.getString("privacy_state")),
-										sensorData,
-										features,
+										rs.getString("sensor_data"),
+										rs.getString("features"),
 										rs.getString("classifier_version"));
 							}
 							catch(JSONException e) {
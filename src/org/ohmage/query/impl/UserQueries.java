@@ -18,26 +18,35 @@ package org.ohmage.query.impl;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.cache.VisibilityIndex;
 import org.ohmage.domain.Clazz;
+import org.ohmage.domain.NewUser;
 import org.ohmage.domain.UserInformation;
 import org.ohmage.domain.UserInformation.UserPersonal;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
+import org.ohmage.query.IClassQueries;
 import org.ohmage.query.IUserQueries;
 import org.ohmage.query.impl.QueryResultsList.QueryResultListBuilder;
+import org.ohmage.util.CompressedBitmap;
 import org.ohmage.util.StringUtils;
-import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -363,6 +372,44 @@ public class UserQueries extends Query implements IUserQueries {
 		"SET accepted_timestamp = ? " +
 		"WHERE registration_id = ?";
 	
+	// Deletes the user's stream data. Once the table is partitioned it can't
+	// have foreign keys, so the data isn't deleted along with the user.
+	private static final String SQL_DELETE_USER_STREAM_DATA =
+		"DELETE osd " +
+		"FROM user u, observer_stream_data osd " +
+		"WHERE u.username = ? " +
+		"AND u.id = osd.user_id";
+	
+	// Deletes every user's stream data for the streams of the observers that
+	// the user owns. Deleting the user deletes those observers and their 
+	// links to their streams, which no longer deletes the data that 
+	// references the links now that the data is partitioned.
+	private static final String SQL_DELETE_USER_OBSERVER_STREAM_DATA =
+		"DELETE osd " +
+		"FROM user u, observer o, observer_stream_link osl, " +
+			"observer_stream_data osd " +
+		"WHERE u.username = ? " +
+		"AND u.id = o.user_id " +
+		"AND o.id = osl.observer_id " +
+		"AND osl.id = osd.observer_stream_link_id";
+	
+	// Deletes the extended information of the user's Mobility points, which
+	// isn't deleted along with the points once they are partitioned.
+	private static final String SQL_DELETE_USER_MOBILITY_EXTENDED =
+		"DELETE me " +
+		"FROM user u, mobility m, mobility_extended me " +
+		"WHERE u.username = ? " +
+		"AND u.id = m.user_id " +
+		"AND m.id = me.mobility_id";
+	
+	// Deletes the user's Mobility points, which aren't deleted along with the
+	// user once they are partitioned.
+	private static final String SQL_DELETE_USER_MOBILITY =
+		"DELETE m " +
+		"FROM user u, mobility m " +
+		"WHERE u.username = ? " +
+		"AND u.id = m.user_id";
+	
 	// Deletes the user.
 	private static final String SQL_DELETE_USER = 
 		"DELETE FROM user " +
@@ -375,13 +422,47 @@ public class UserQueries extends Query implements IUserQueries {
 		"WHERE user.id = user_personal.user_id " +
 		"AND user.username = ?";
 	
+	// Returns the usernames of the users that exist. The parameter list for
+	// the usernames must be appended.
+	private static final String SQL_GET_EXISTING_USERNAMES =
+		"SELECT username " +
+		"FROM user " +
+		"WHERE username IN ";
+	
+	// Returns the personal information that already belongs to a user. The
+	// list of rows of first name, last name, organization, and personal ID
+	// must be appended.
+	private static final String SQL_GET_EXISTING_PERSONAL_INFO =
+		"SELECT first_name, last_name, organization, personal_id " +
+		"FROM user_personal " +
+		"WHERE (first_name, last_name, organization, personal_id) IN ";
+	
+	// The maximum number of users in any one of the statements or batches
+	// when creating a batch of users, and the most visible users for which
+	// a search is limited to them in the database.
+	private static final int MAX_USERS_PER_STATEMENT = 500;
+	
+	private final IClassQueries classQueries;
+	
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource The DataSource to use to query the database.
+	 * 
+	 * @param iClassQueries The class queries, which are used to add new users
+	 * 						to classes.
 	 */
-	private UserQueries(final DataSource dataSource) {
+	private UserQueries(
+			final DataSource dataSource,
+			final IClassQueries iClassQueries) {
+		
 		super(dataSource);
+		
+		if(iClassQueries == null) {
+			throw new IllegalArgumentException("An instance of IClassQueries is a required argument.");
+		}
+		
+		classQueries = iClassQueries;
 	}
 	
 	/*
@@ -466,6 +547,9 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The new user is now visible to themselves.
+			VisibilityIndex.instance().refreshUser(username);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -685,6 +769,9 @@ public class UserQueries extends Query implements IUserQueries {
 					transactionManager.rollback(status);
 					throw new DataAccessException("Error while committing the transaction.", e);
 				}
+				
+				// The new user may see and be seen through their campaigns.
+				VisibilityIndex.instance().refreshUser(username);
 			}
 		}
 		catch(TransactionException e) {
@@ -694,6 +781,405 @@ public class UserQueries extends Query implements IUserQueries {
 		return result;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserQueries#createUsers(java.util.List, java.util.Map, boolean, java.util.Collection, org.ohmage.domain.Clazz.Role)
+	 */
+	@Override
+	public Map<String, String> createUsers(
+			final List<NewUser> users,
+			final Map<String, String> hashedPasswords,
+			final boolean storeInitialPassword,
+			final Collection<String> classIds,
+			final Clazz.Role classRole)
+			throws DataAccessException {
+		
+		boolean defaultCampaignCreationPrivilege;
+		try {
+			defaultCampaignCreationPrivilege = PreferenceCache.instance().lookup(PreferenceCache.KEY_DEFAULT_CAN_CREATE_PRIVILIEGE).equals("true");
+		}
+		catch(CacheMissException e) {
+			throw new DataAccessException("Cache doesn't know about 'known' value: " + PreferenceCache.KEY_DEFAULT_CAN_CREATE_PRIVILIEGE, e);
+		}
+		
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Creating a batch of users.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			try {
+				// Skip the users that cannot be created and insert the rest.
+				List<NewUser> creatableUsers = 
+					getCreatableUsers(users, failures);
+				
+				insertUsers(
+					creatableUsers, 
+					hashedPasswords, 
+					storeInitialPassword, 
+					defaultCampaignCreationPrivilege);
+				
+				// Add the users to the classes. The class queries use the
+				// same data source, so they take part in this transaction.
+				// The classes are refreshed in the visibility index once it
+				// has been committed.
+				if((classIds != null) && (! creatableUsers.isEmpty())) {
+					Map<String, Clazz.Role> userRoles = 
+						new HashMap<String, Clazz.Role>();
+					for(NewUser user : creatableUsers) {
+						userRoles.put(user.getUsername(), classRole);
+					}
+					
+					for(String classId : classIds) {
+						classQueries.applyClassRosterDiff(
+							classQueries
+								.getClassRosterDiff(classId, userRoles, null));
+					}
+				}
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+			
+			// The new users may see and be seen through their classes.
+			List<String> usernames = new ArrayList<String>(users.size());
+			for(NewUser user : users) {
+				usernames.add(user.getUsername());
+			}
+			VisibilityIndex visibilityIndex = VisibilityIndex.instance();
+			visibilityIndex.refreshUsers(usernames);
+			if(classIds != null) {
+				for(String classId : classIds) {
+					visibilityIndex.refreshClass(classId);
+				}
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Removes the users whose username or personal information is repeated in
+	 * the batch or already belongs to another user. The usernames and 
+	 * personal information are compared without regard to case, as the 
+	 * database compares them.
+	 * 
+	 * @param users The users in the batch.
+	 * 
+	 * @param failures The map to which the username of each user that is 
+	 * 				   removed is added along with the reason why.
+	 * 
+	 * @return The users that may be created in the order they were given.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private List<NewUser> getCreatableUsers(
+			final List<NewUser> users,
+			final Map<String, String> failures)
+			throws DataAccessException {
+		
+		// Remove the repeated usernames.
+		final Map<String, NewUser> usersByUsername = 
+			new LinkedHashMap<String, NewUser>();
+		for(NewUser user : users) {
+			String key = user.getUsername().toLowerCase();
+			
+			if(usersByUsername.containsKey(key)) {
+				failures.put(
+					user.getUsername(), 
+					"The username is repeated in the batch.");
+			}
+			else {
+				usersByUsername.put(key, user);
+			}
+		}
+		
+		// Remove the users that already exist.
+		List<String> usernames = new ArrayList<String>(usersByUsername.size());
+		for(NewUser user : usersByUsername.values()) {
+			usernames.add(user.getUsername());
+		}
+		for(int start = 0; start < usernames.size(); start += MAX_USERS_PER_STATEMENT) {
+			List<String> chunk = 
+				usernames.subList(
+					start, 
+					Math.min(start + MAX_USERS_PER_STATEMENT, usernames.size()));
+			
+			String sql = 
+				SQL_GET_EXISTING_USERNAMES + 
+					StringUtils.generateStatementPList(chunk.size());
+			
+			List<String> existingUsernames;
+			try {
+				existingUsernames = 
+					getJdbcTemplate().query(
+						sql, 
+						chunk.toArray(), 
+						new SingleColumnRowMapper<String>());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + 
+						sql + 
+						"' with parameters: " + 
+						chunk, 
+					e);
+			}
+			
+			for(String existingUsername : existingUsernames) {
+				NewUser user = 
+					usersByUsername.remove(existingUsername.toLowerCase());
+				
+				if(user != null) {
+					failures.put(user.getUsername(), "The user already exists.");
+				}
+			}
+		}
+		
+		// Remove the repeated personal information.
+		final Map<List<String>, NewUser> usersByPersonalInfo =
+			new LinkedHashMap<List<String>, NewUser>();
+		Iterator<NewUser> usersIter = usersByUsername.values().iterator();
+		while(usersIter.hasNext()) {
+			NewUser user = usersIter.next();
+			
+			UserPersonal personalInfo = user.getPersonalInfo();
+			if(personalInfo == null) {
+				continue;
+			}
+			
+			List<String> key = 
+				getPersonalInfoKey(
+					personalInfo.getFirstName(), 
+					personalInfo.getLastName(), 
+					personalInfo.getOrganization(), 
+					personalInfo.getPersonalId());
+			
+			if(usersByPersonalInfo.containsKey(key)) {
+				usersIter.remove();
+				failures.put(
+					user.getUsername(), 
+					"The personal information is repeated in the batch.");
+			}
+			else {
+				usersByPersonalInfo.put(key, user);
+			}
+		}
+		
+		// Remove the users whose personal information belongs to another 
+		// user.
+		List<NewUser> personalUsers = 
+			new ArrayList<NewUser>(usersByPersonalInfo.values());
+		for(int start = 0; start < personalUsers.size(); start += MAX_USERS_PER_STATEMENT) {
+			List<NewUser> chunk = 
+				personalUsers.subList(
+					start, 
+					Math.min(start + MAX_USERS_PER_STATEMENT, personalUsers.size()));
+			
+			StringBuilder sqlBuilder = 
+				new StringBuilder(SQL_GET_EXISTING_PERSONAL_INFO);
+			sqlBuilder.append('(');
+			List<Object> parameters = new ArrayList<Object>(chunk.size() * 4);
+			for(NewUser user : chunk) {
+				if(! parameters.isEmpty()) {
+					sqlBuilder.append(',');
+				}
+				sqlBuilder.append("(?,?,?,?)");
+				
+				UserPersonal personalInfo = user.getPersonalInfo();
+				parameters.add(personalInfo.getFirstName());
+				parameters.add(personalInfo.getLastName());
+				parameters.add(personalInfo.getOrganization());
+				parameters.add(personalInfo.getPersonalId());
+			}
+			sqlBuilder.append(')');
+			String sql = sqlBuilder.toString();
+			
+			try {
+				getJdbcTemplate().query(
+					sql, 
+					parameters.toArray(), 
+					new RowCallbackHandler() {
+						/**
+						 * Removes the user with the same personal 
+						 * information.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs)
+								throws SQLException {
+							
+							NewUser user = 
+								usersByPersonalInfo.remove(
+									getPersonalInfoKey(
+										rs.getString("first_name"), 
+										rs.getString("last_name"), 
+										rs.getString("organization"), 
+										rs.getString("personal_id")));
+							
+							if(user != null) {
+								usersByUsername.remove(
+									user.getUsername().toLowerCase());
+								failures.put(
+									user.getUsername(), 
+									"The personal information belongs to another user.");
+							}
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + 
+						sql + 
+						"' with parameters: " + 
+						parameters, 
+					e);
+			}
+		}
+		
+		return new ArrayList<NewUser>(usersByUsername.values());
+	}
+	
+	/**
+	 * Returns a key that compares personal information the way the database
+	 * does.
+	 * 
+	 * @param firstName The first name.
+	 * 
+	 * @param lastName The last name.
+	 * 
+	 * @param organization The organization.
+	 * 
+	 * @param personalId The personal ID.
+	 * 
+	 * @return The key.
+	 */
+	private static List<String> getPersonalInfoKey(
+			final String firstName,
+			final String lastName,
+			final String organization,
+			final String personalId) {
+		
+		return 
+			Arrays.asList(
+				firstName.toLowerCase(), 
+				lastName.toLowerCase(), 
+				organization.toLowerCase(), 
+				personalId.toLowerCase());
+	}
+	
+	/**
+	 * Inserts the users and their personal information with batched 
+	 * statements. This must be called within a transaction.
+	 * 
+	 * @param users The users to insert.
+	 * 
+	 * @param hashedPasswords The map of each user's username to their hashed
+	 * 						  password.
+	 * 
+	 * @param storeInitialPassword Whether or not to store each user's 
+	 * 							   plain-text password as their initial
+	 * 							   password.
+	 * 
+	 * @param defaultCampaignCreationPrivilege The campaign creation privilege
+	 * 										   for users that don't specify 
+	 * 										   one.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void insertUsers(
+			final List<NewUser> users,
+			final Map<String, String> hashedPasswords,
+			final boolean storeInitialPassword,
+			final boolean defaultCampaignCreationPrivilege)
+			throws DataAccessException {
+		
+		List<Object[]> userParameters = new ArrayList<Object[]>(users.size());
+		List<Object[]> personalParameters = new ArrayList<Object[]>();
+		for(NewUser user : users) {
+			userParameters.add(
+				new Object[] {
+					user.getUsername(),
+					hashedPasswords.get(user.getUsername()),
+					((storeInitialPassword) ? user.getPassword() : null),
+					user.getEmailAddress(),
+					((user.getAdmin() == null) ? false : user.getAdmin()),
+					((user.getEnabled() == null) ? false : user.getEnabled()),
+					((user.getNewAccount() == null) ? true : user.getNewAccount()),
+					((user.getCampaignCreationPrivilege() == null) ? 
+						defaultCampaignCreationPrivilege : 
+						user.getCampaignCreationPrivilege()),
+					false
+				});
+			
+			UserPersonal personalInfo = user.getPersonalInfo();
+			if(personalInfo != null) {
+				personalParameters.add(
+					new Object[] {
+						user.getUsername(),
+						personalInfo.getFirstName(),
+						personalInfo.getLastName(),
+						personalInfo.getOrganization(),
+						personalInfo.getPersonalId()
+					});
+			}
+		}
+		
+		batchUpdate(SQL_INSERT_USER, userParameters);
+		batchUpdate(SQL_INSERT_USER_PERSONAL, personalParameters);
+	}
+	
+	/**
+	 * Executes a statement for each set of parameters, sending at most
+	 * {@value #MAX_USERS_PER_STATEMENT} of them to the database at once.
+	 * 
+	 * @param sql The statement.
+	 * 
+	 * @param parameters The parameters for each execution.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void batchUpdate(
+			final String sql,
+			final List<Object[]> parameters)
+			throws DataAccessException {
+		
+		for(int start = 0; start < parameters.size(); start += MAX_USERS_PER_STATEMENT) {
+			try {
+				getJdbcTemplate().batchUpdate(
+					sql, 
+					parameters.subList(
+						start, 
+						Math.min(
+							start + MAX_USERS_PER_STATEMENT, 
+							parameters.size())));
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + sql + "'.", 
+					e);
+			}
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.IUserQueries#createUserRegistration(java.lang.String, java.lang.String, java.lang.String, java.lang.String)
@@ -900,6 +1386,9 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The new user may see and be seen through their campaigns.
+			VisibilityIndex.instance().refreshUser(username);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -1584,11 +2073,10 @@ public class UserQueries extends Query implements IUserQueries {
 	
 	/*
 	 * (non-Javadoc)
-	 * @see org.ohmage.query.IUserQueries#getVisibleUsersSql(java.util.Collection, java.lang.String, java.util.Collection, java.util.Collection, java.util.Collection, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, long, long)
+	 * @see org.ohmage.query.IUserQueries#getVisibleUserIds(java.lang.String, java.util.Collection, java.util.Collection, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, boolean, long, long)
 	 */
 	@Override
-	public String getVisibleUsersSql(
-		final Collection<Object> parameters,
+	public QueryResultsList<Integer> getVisibleUserIds(
 		final String requesterUsername,
 		final Collection<String> usernames,
 		final Collection<String> emailAddresses,
@@ -1608,74 +2096,30 @@ public class UserQueries extends Query implements IUserQueries {
 		final long numToReturn)
 		throws DataAccessException {
 		
-		// The initial SELECT selects everything.
+		// The users that are visible through the ACL rules and are in the
+		// given campaigns and classes come from the visibility index, so only
+		// the users' own attributes are left for the database.
+		VisibilityIndex visibilityIndex = VisibilityIndex.instance();
+		CompressedBitmap visibleUsers =
+				visibilityIndex
+					.getVisibleUsers(
+						requesterUsername, 
+						settingUpUser, 
+						campaignIds, 
+						classIds);
+		if((visibleUsers != null) && visibleUsers.isEmpty()) {
+			return (new QueryResultListBuilder<Integer>()).getQueryResult();
+		}
+		
+		// The initial SELECT selects every user.
+		Collection<Object> parameters = new LinkedList<Object>();
 		StringBuilder sql = 
 				new StringBuilder(
 						"SELECT u.id " +
 						"FROM user u " +
 							"LEFT JOIN user_personal up ON " +
-								"u.id = up.user_id, " +
-							"user ru " +
-						"WHERE ru.username = ? " +
-						// ACL
-						"AND (" +
-								settingUpUser +
-							" OR " +
-								"(u.id = ru.id)" +
-							" OR " +
-								"(ru.admin = true)" +
-							" OR EXISTS(" +
-								// If the requesting user shares a campaign
-								// with the desired user and is a 
-								// supervisor in that campaign.
-								"SELECT ru.id " +
-								"FROM user_role ur, " +
-									"user_role_campaign urc, " +
-									"user_role_campaign rurc " +
-								// The requesting user is associated with a
-								// campaign.
-								"WHERE ru.id = rurc.user_id " +
-								// The requesting user is a supervisor in
-								// that campaign.
-								"AND ur.id = rurc.user_role_id " +
-								"AND ur.role = '" +
-									Campaign.Role.SUPERVISOR.toString() +
-									"' " +
-								// The queried user is also in a campaign.
-								"AND u.id = urc.user_id " +
-								// And that campaign is the same as the one
-								// in which the requesting user is a 
-								// supervisor.
-								"AND urc.campaign_id = rurc.campaign_id" +
-							")" +
-							" OR EXISTS(" +
-								// If the requesting user shares a class 
-								// with the desired user and is privileged
-								// in that class.
-								"SELECT ru.id " +
-								"FROM user_class_role ucr, " +
-									"user_class uc, " +
-									"user_class ruc " +
-								// The requesting user is associated with a
-								// class.
-								"WHERE ru.id = ruc.user_id " +
-								// The requesting user is privileged in 
-								// that class.
-								"AND ucr.id = ruc.user_class_role_id " +
-								"AND ucr.role = '" +
-									Clazz.Role.PRIVILEGED.toString() +
-									"' " +
-								// The queried user is also in a class.
-								"AND u.id = uc.user_id " +
-								// And that class is the same as the one in
-								// which the requesting user is privileged.
-								"AND uc.class_id = ruc.class_id" +
-							")" +
-						")"
-				);
-		
-		// The initial parameter list doesn't have any items.
-		parameters.add(requesterUsername);
+								"u.id = up.user_id " +
+						"WHERE true");
 		
 		// If the list of usernames is present, add a WHERE clause component
 		// that limits the results to only those users whose exact username is
@@ -1855,42 +2299,81 @@ public class UserQueries extends Query implements IUserQueries {
 			sql.append(")");
 		}
 		
-		// If a collection of campaign IDs is present, add a WHERE clause 
-		// component that limits the results to only those in any of the  
-		// campaigns.
-		if(campaignIds != null && campaignIds.size() > 0) {
-			sql.append(
-					" AND u.id IN (" +
-						"SELECT urc.user_id " +
-						"FROM campaign c, user_role_campaign urc " +
-						"WHERE c.urn IN " +
-							StringUtils.generateStatementPList(campaignIds.size()) + " " +
-						"AND c.id = urc.campaign_id" +
-					")");
+		// Each of the attributes adds a parameter, so without any there is
+		// nothing to ask the database. Otherwise, it returns the IDs of the 
+		// users that match them, which are limited to the visible users 
+		// here. If there are only a few visible users, the database checks
+		// only them.
+		if(! parameters.isEmpty()) {
+			if(
+				(visibleUsers != null) && 
+				(visibleUsers.getCardinality() <= MAX_USERS_PER_STATEMENT)) {
+				
+				sql
+					.append(" AND u.id IN ")
+					.append(
+						StringUtils.generateStatementPList(
+							visibleUsers.getCardinality()));
+				for(int userId : visibleUsers.toArray()) {
+					parameters.add(userId);
+				}
+			}
 			
-			parameters.addAll(campaignIds);
-		}
-		
-		// If a collection of class IDs is present, add a WHERE clause 
-		// component that limits the results to only those in any of the 
-		// classes.
-		if(classIds != null && classIds.size() > 0) {			
-			sql.append(
-					" AND u.id IN (" +
-						"SELECT uc.user_id " +
-						"FROM class c, user_class uc " +
-						"WHERE c.urn IN " +
-							StringUtils.generateStatementPList(classIds.size()) + " " +
-						"AND c.id = uc.class_id" +
-					")");
+			final CompressedBitmap matchingUsers = new CompressedBitmap();
+			try {
+				getJdbcTemplate().query(
+					sql.toString(), 
+					parameters.toArray(), 
+					new RowCallbackHandler() {
+						/**
+						 * Adds the user to the matching users.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs)
+								throws SQLException {
+							
+							matchingUsers.add(rs.getInt(1));
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" + sql.toString() +
+							"' with parameters: " + parameters,
+						e);
+			}
 			
-			parameters.addAll(classIds);
+			if(visibleUsers != null) {
+				matchingUsers.and(visibleUsers);
+			}
+			visibleUsers = matchingUsers;
 		}
 		
-		// Always order the results by username to facilitate paging.
-		sql.append(" ORDER BY u.username");
+		// Page the users by their usernames.
+		return 
+			visibilityIndex.getUserPage(visibleUsers, numToSkip, numToReturn);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserQueries#getUsersSql(java.util.Collection, java.util.Collection)
+	 */
+	@Override
+	public String getUsersSql(
+			final Collection<Object> parameters,
+			final Collection<Integer> userIds) {
 		
-		return sql.toString();
+		if(userIds.isEmpty()) {
+			return "SELECT u.id FROM user u WHERE false";
+		}
+		
+		parameters.addAll(userIds);
+		return 
+			"SELECT u.id " +
+			"FROM user u " +
+			"WHERE u.id IN " + 
+				StringUtils.generateStatementPList(userIds.size());
 	}
 	
 	/**
@@ -1935,11 +2418,9 @@ public class UserQueries extends Query implements IUserQueries {
 	 * @see org.ohmage.query.IUserQueries#getUserInformation(java.lang.String, java.util.Collection, java.util.Collection, java.util.Collection, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.lang.Boolean, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, java.util.Collection, long, long)
 	 */
 	@Override
-	public QueryResultsList<UserInformation> getUserInformation(
+	public List<UserInformation> getUserInformation(
 			final String userSubSelectStmt,
-			final Collection<Object> userSubSelectParameters,
-			final long numToSkip,
-			final long numToReturn)
+			final Collection<Object> userSubSelectParameters)
 			throws DataAccessException {
 	
 
@@ -1962,62 +2443,22 @@ public class UserQueries extends Query implements IUserQueries {
 							"LEFT JOIN user_personal up ON " +
 								"u.id = up.user_id " +
 						"WHERE u.id IN ");
-		sql.append(" ( " + userSubSelectStmt + " ) ");		
+		sql.append(" ( " + userSubSelectStmt + " ) ");
+		sql.append("ORDER BY u.username");
 			
-		// Returns the results as queried by the database.
-		// Note: A different implementation is to only retrieve what's needed from 
-		// DB using LIMTI x,y and execute another query to get # of results
 		try {
 			return getJdbcTemplate().query(
 					sql.toString(), 
 					userSubSelectParameters.toArray(),
-					new ResultSetExtractor<QueryResultsList<UserInformation>>() {
-						/**
-						 * Extracts the data into the results and then returns
-						 * the total number of results found.
-						 */
-						@Override
-						public QueryResultsList<UserInformation> extractData(
-								final ResultSet rs)
-								throws SQLException,
-								org.springframework.dao.DataAccessException {
-							
-							QueryResultListBuilder<UserInformation> builder =
-									new QueryResultListBuilder<UserInformation>();
-							
-							int numSkipped = 0;
-							while(numSkipped++ < numToSkip) {
-								if(rs.next()) {
-									builder.increaseTotalNumResults();
-								}
-								else {
-									return builder.getQueryResult();
-								}
-							}
-							
-							long numReturned = 0;
-							while(numReturned++ < numToReturn) {
-								if(rs.next()) {
-									builder.addResult(mapRow(rs));
-								}
-								else {
-									return builder.getQueryResult();
-								}
-							}
-							
-							while(rs.next()) {
-								builder.increaseTotalNumResults();
-							}
-							
-							return builder.getQueryResult();
-						}
-						
+					new RowMapper<UserInformation>() {
 						/**
 						 * Creates a new UserInformation object from the 
 						 * user information.
 						 */
-						private UserInformation mapRow(
-								final ResultSet rs)
+						@Override
+						public UserInformation mapRow(
+								final ResultSet rs,
+								final int rowNum)
 								throws SQLException {
 							
 							String username = rs.getString("username");
@@ -2334,6 +2775,11 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The user may have become or stopped being an admin.
+			if(admin != null) {
+				VisibilityIndex.instance().refreshUser(username);
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -2528,15 +2974,27 @@ public class UserQueries extends Query implements IUserQueries {
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			// Delete the users.
+			// Delete the users along with their stream data, the data for
+			// their observers' streams, and their Mobility points, which may
+			// be in partitioned tables.
+			String[] deletions = 
+				new String[] {
+					SQL_DELETE_USER_STREAM_DATA,
+					SQL_DELETE_USER_OBSERVER_STREAM_DATA,
+					SQL_DELETE_USER_MOBILITY_EXTENDED,
+					SQL_DELETE_USER_MOBILITY,
+					SQL_DELETE_USER
+				};
 			for(String username : usernames) {
-				try {
-					getJdbcTemplate().update(SQL_DELETE_USER, username);
-				}
-				catch(org.springframework.dao.DataAccessException e) {
-					transactionManager.rollback(status);
-					throw new DataAccessException("Error executing the following SQL '" + SQL_DELETE_USER + "' with parameters: " + 
-							username, e);
+				for(String deletion : deletions) {
+					try {
+						getJdbcTemplate().update(deletion, username);
+					}
+					catch(org.springframework.dao.DataAccessException e) {
+						transactionManager.rollback(status);
+						throw new DataAccessException("Error executing the following SQL '" + deletion + "' with parameters: " + 
+								username, e);
+					}
 				}
 			}
 			
@@ -2548,6 +3006,9 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The users are no longer visible to anyone.
+			VisibilityIndex.instance().refreshUsers(usernames);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -18,10 +18,14 @@ package org.ohmage.query.impl;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.sql.DataSource;
@@ -30,6 +34,8 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.IUserSurveyResponseQueries;
+import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
 /**
@@ -48,6 +54,23 @@ public final class UserSurveyResponseQueries extends Query implements IUserSurve
 		"WHERE sr.uuid = ? " +
 		"AND sr.user_id = u.id";
 	
+	// Counts a list of survey responses by campaign and owner. This SQL is
+	// incomplete; the parenthetical list of IDs and the GROUP BY clause must
+	// be appended.
+	private static final String SQL_GET_SURVEY_RESPONSE_COUNTS_BY_CAMPAIGN_AND_OWNER =
+		"SELECT c.urn, u.username, COUNT(sr.id) AS count " +
+		"FROM survey_response sr " +
+			"JOIN campaign c ON sr.campaign_id = c.id " +
+			"JOIN user u ON sr.user_id = u.id " +
+		"WHERE sr.uuid IN ";
+	private static final String SQL_GROUP_BY_CAMPAIGN_AND_OWNER =
+		" GROUP BY c.urn, u.username";
+	
+	/**
+	 * The maximum number of survey response IDs in a single query.
+	 */
+	private static final int MAX_QUERY_CHUNK_SIZE = 1000;
+	
 	// Retrieves all of the survey responses for a user that are visible to a
 	// requesting user.
 	private static final String SQL_GET_SURVEY_RESPONSES_FOR_USER_FOR_REQUESTER = 
@@ -158,6 +181,77 @@ public final class UserSurveyResponseQueries extends Query implements IUserSurve
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserSurveyResponseQueries#getSurveyResponseCountsByCampaignAndOwner(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Map<String, Integer>> getSurveyResponseCountsByCampaignAndOwner(
+			final Collection<UUID> surveyResponseIds)
+			throws DataAccessException {
+		
+		final Map<String, Map<String, Integer>> result = 
+			new HashMap<String, Map<String, Integer>>();
+		
+		List<UUID> ids = new ArrayList<UUID>(surveyResponseIds);
+		for(int i = 0; i < ids.size(); i += MAX_QUERY_CHUNK_SIZE) {
+			List<UUID> chunk = 
+				ids.subList(i, Math.min(i + MAX_QUERY_CHUNK_SIZE, ids.size()));
+			
+			String sql = 
+				SQL_GET_SURVEY_RESPONSE_COUNTS_BY_CAMPAIGN_AND_OWNER +
+					StringUtils.generateStatementPList(chunk.size()) +
+					SQL_GROUP_BY_CAMPAIGN_AND_OWNER;
+			
+			List<Object> parameters = new ArrayList<Object>(chunk.size());
+			for(UUID surveyResponseId : chunk) {
+				parameters.add(surveyResponseId.toString());
+			}
+			
+			try {
+				getJdbcTemplate().query(
+					sql, 
+					parameters.toArray(), 
+					new RowCallbackHandler() {
+						/**
+						 * Adds the count to the campaign and owner's total.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs)
+								throws SQLException {
+							
+							String campaignId = rs.getString("urn");
+							String username = rs.getString("username");
+							int count = rs.getInt("count");
+							
+							Map<String, Integer> owners = 
+								result.get(campaignId);
+							if(owners == null) {
+								owners = new HashMap<String, Integer>();
+								result.put(campaignId, owners);
+							}
+							
+							Integer previous = owners.get(username);
+							owners.put(
+								username, 
+								(previous == null) ? count : previous + count);
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + 
+						sql + 
+						"' with parameters: " + 
+						parameters, 
+					e);
+			}
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Retrieves the milliseconds since epoch of the time that the most recent 
 	 * survey was completed.
@@ -21,23 +21,24 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.ohmage.domain.ServerConfig;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.service.ConfigServices;
 
 /**
- * <p>This class is responsible for updating a class.</p>
+ * <p>This class is responsible for reading the server's configuration.</p>
  * <p>There are no required parameters for this call.</p>
+ * <p>The response is built once per change to the preferences and is tagged
+ * with an entity tag, so clients that send it back in an "If-None-Match"
+ * header receive a "304 Not Modified" response.</p>
  * 
  * @author John Jenkins
  */
 public class ConfigReadRequest extends Request {
 	private static final Logger LOGGER = Logger.getLogger(ConfigReadRequest.class);
 	
-	private ServerConfig result;
+	private ResponseSnapshot result;
 	
 	/**
 	 * Default constructor.
@@ -65,7 +66,7 @@ public class ConfigReadRequest extends Request {
 		LOGGER.info("Gathering information about the system.");
 		
 		try {
-			result = ConfigServices.readServerConfiguration();
+			result = ConfigServices.readServerConfigurationSnapshot();
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -80,18 +81,6 @@ public class ConfigReadRequest extends Request {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Writing configuration read response.");
 		
-		try {
-			JSONObject response = new JSONObject();
-			response.put(JSON_KEY_DATA, (result == null) ? null : result.toJson());
-			respond(
-					httpRequest, 
-					httpResponse,
-					response);
-		}
-		catch(JSONException e) {
-			LOGGER.error("Error building the JSONObject.", e);
-			setFailed();
-			respond(httpRequest, httpResponse, null);
-		}
+		respondWithSnapshot(httpRequest, httpResponse, result);
 	}
 }
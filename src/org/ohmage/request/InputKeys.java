@@ -83,6 +83,7 @@ public final class InputKeys {
 	public static final String CLASS_WITH_USER_LIST = "with_user_list";
 	public static final String CLASS_ROLE = "class_role";
 	public static final String CLASS_NO_ORPHAN_CAMPAIGNS = "no_orphan_campaigns";
+	public static final String CLASS_DRY_RUN = "dry_run";
 	
 	// Survey Constants
 	public static final String SURVEY_ID = "survey_id";
@@ -129,6 +130,7 @@ public final class InputKeys {
 	public static final String USER = "user";
 	public static final String NEW_USERNAME = "new_username";
 	public static final String NEW_PASSWORD = "new_password";
+	public static final String NEW_USER_LIST = "new_user_list";
 	public static final String USER_LIST = "user_list";
 	public static final String USERNAME_SEARCH = "username_search";
 	public static final String USER_LIST_ADD = "user_list_add";
@@ -192,6 +194,7 @@ public final class InputKeys {
 	public static final String DESCRIPTION = "description";
 	public static final String NUM_TO_SKIP = "num_to_skip";
 	public static final String NUM_TO_RETURN = "num_to_return";
+	public static final String CONTINUATION_TOKEN = "continuation_token";
 	public static final String CAPTCHA_CHALLENGE = "recaptcha_challenge_field";
 	public static final String CAPTCHA_RESPONSE = "recaptcha_response_field";
 	public static final String REDIRECT = "redirect";
@@ -251,6 +254,10 @@ public final class InputKeys {
 	public static final String OMH_OWNER = "owner";
 	public static final String OMH_DATA = "data";
 	
+	// Export Constants
+	public static final String EXPORT_ID = "export_id";
+	public static final String EXPORT_REQUEST = "export_request";
+	
 	// Separator Constants
 	public static final String LIST_ITEM_SEPARATOR = ",";
 	public static final String ENTITY_ROLE_SEPARATOR = ";";
@@ -41,6 +41,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.jee.filter.GzipFilter;
@@ -473,6 +474,80 @@ public abstract class Request {
 		}
 	}
 	
+	/**
+	 * Writes an already serialized response. The response is tagged with its
+	 * entity tag and the client is asked to revalidate it rather than being
+	 * told not to cache it. If the client's "If-None-Match" header names the
+	 * snapshot, only a "304 Not Modified" status is sent. Otherwise, the 
+	 * already gzipped body is written if the client accepts it. If the 
+	 * request has failed, the failure message is sent instead.
+	 * 
+	 * @param httpRequest The initial HTTP request that we are processing.
+	 * 
+	 * @param httpResponse The response for this HTTP request.
+	 * 
+	 * @param snapshot The snapshot to write.
+	 */
+	protected void respondWithSnapshot(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final ResponseSnapshot snapshot) {
+		
+		if((! failed) && (snapshot == null)) {
+			LOGGER.error("The response snapshot is missing.");
+			failed = true;
+		}
+		if(failed) {
+			respond(httpRequest, httpResponse, (JSONObject) null);
+			return;
+		}
+		
+		String encoding = httpRequest.getHeader("Accept-Encoding");
+		boolean gzipped = 
+			(encoding != null) && (encoding.indexOf("gzip") >= 0);
+		
+		httpResponse.setHeader("ETag", snapshot.getETag(gzipped));
+		httpResponse.setHeader("Cache-Control", "private, no-cache");
+		httpResponse.setHeader("Vary", "Accept-Encoding");
+		
+		if(snapshot.matches(httpRequest.getHeader("If-None-Match"))) {
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		httpResponse.setContentType(snapshot.getContentType());
+		if(snapshot.getFileName() != null) {
+			httpResponse.setHeader(
+				"Content-Disposition", 
+				"attachment; filename=" + snapshot.getFileName());
+		}
+		if(gzipped) {
+			httpResponse.setHeader("Content-Encoding", "gzip");
+		}
+		
+		byte[] body = snapshot.getBody(gzipped);
+		httpResponse.setContentLength(body.length);
+		
+		OutputStream outputStream = null;
+		try {
+			outputStream = httpResponse.getOutputStream();
+			outputStream.write(body);
+		}
+		catch(IOException e) {
+			LOGGER.error("Unable to write response message. Aborting.", e);
+		}
+		finally {
+			if(outputStream != null) {
+				try {
+					outputStream.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn("Unable to close the output stream.", e);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * <p>
 	 * Retrieves a parameter from either parts or the servlet container's
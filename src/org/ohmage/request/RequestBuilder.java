@@ -52,9 +52,14 @@ import org.ohmage.request.document.DocumentDeletionRequest;
 import org.ohmage.request.document.DocumentReadContentsRequest;
 import org.ohmage.request.document.DocumentReadRequest;
 import org.ohmage.request.document.DocumentUpdateRequest;
+import org.ohmage.request.export.ExportCreateRequest;
+import org.ohmage.request.export.ExportDownloadRequest;
+import org.ohmage.request.export.ExportReadRequest;
 import org.ohmage.request.image.ImageBatchZipReadRequest;
 import org.ohmage.request.image.ImageReadRequest;
 import org.ohmage.request.media.MediaReadRequest;
+import org.ohmage.request.metrics.MetricsReadRequest;
+import org.ohmage.request.metrics.TraceReadRequest;
 import org.ohmage.request.mobility.MobilityAggregateReadRequest;
 import org.ohmage.request.mobility.MobilityDatesReadRequest;
 import org.ohmage.request.mobility.MobilityReadChunkedRequest;
@@ -89,6 +94,7 @@ import org.ohmage.request.survey.annotation.SurveyResponseAnnotationCreationRequ
 import org.ohmage.request.survey.annotation.SurveyResponseAnnotationReadRequest;
 import org.ohmage.request.user.UserActivationRequest;
 import org.ohmage.request.user.UserChangePasswordRequest;
+import org.ohmage.request.user.UserBatchCreationRequest;
 import org.ohmage.request.user.UserCreationRequest;
 import org.ohmage.request.user.UserDeletionRequest;
 import org.ohmage.request.user.UserInfoReadRequest;
@@ -123,6 +129,47 @@ public final class RequestBuilder implements ServletContextAware {
 	private static final Logger LOGGER = 
 		Logger.getLogger(RequestBuilder.class);
 	
+	/**
+	 * The classes of requests that are processed separately so that one class
+	 * of slow requests cannot starve the others.
+	 * 
+	 * @author John Jenkins
+	 */
+	public static enum RouteClass {
+		/**
+		 * Uploads of data from the phones and other devices.
+		 */
+		UPLOAD,
+		/**
+		 * Reads that are expected to be quick.
+		 */
+		READ,
+		/**
+		 * Reads that may return a large amount of data or require a lot of
+		 * computation, such as CSV exports and visualizations.
+		 */
+		EXPORT,
+		/**
+		 * Authentication and account activation.
+		 */
+		AUTH,
+		/**
+		 * Everything else, which is mostly the creation, modification, and
+		 * deletion of campaigns, classes, users, etc.
+		 */
+		ADMIN;
+		
+		/**
+		 * Returns the lower-case name of this route class.
+		 * 
+		 * @return The lower-case name of this route class.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+	
 	// Root
 	private String apiRoot;
 	
@@ -140,6 +187,11 @@ public final class RequestBuilder implements ServletContextAware {
 	// Audit
 	private String apiAuditRead;
 	
+	// Export
+	private String apiExportCreate;
+	private String apiExportRead;
+	private String apiExportDownload;
+	
 	// Authentication
 	private String apiUserAuth;
 	private String apiUserAuthToken;
@@ -180,6 +232,10 @@ public final class RequestBuilder implements ServletContextAware {
 	// Media  
 	private String apiMediaRead;
 	
+	// Metrics
+	private String apiMetricsRead;
+	private String apiTraceRead;
+	
 	// Mobility
 	private String apiMobilityUpload;
 	private String apiMobilityRead;
@@ -216,6 +272,7 @@ public final class RequestBuilder implements ServletContextAware {
 	
 	// User
 	private String apiUserCreate;
+	private String apiUserBatchCreate;
 	private String apiUserRegister;
 	private String apiUserActivate;
 	private String apiUserPasswordReset;
@@ -302,6 +359,11 @@ public final class RequestBuilder implements ServletContextAware {
 		// Audit
 		apiAuditRead = apiRoot + "/audit/read";
 		
+		// Export
+		apiExportCreate = apiRoot + "/export/create";
+		apiExportRead = apiRoot + "/export/read";
+		apiExportDownload = apiRoot + "/export/download";
+		
 		// Authentication
 		apiUserAuth = apiRoot + "/user/auth";
 		apiUserAuthToken = apiRoot + "/user/auth_token";
@@ -342,6 +404,10 @@ public final class RequestBuilder implements ServletContextAware {
 		// Media
 		apiMediaRead = apiRoot + "/media/read";
 		
+		// Metrics
+		apiMetricsRead = apiRoot + "/metrics/read";
+		apiTraceRead = apiRoot + "/trace/read";
+		
 		// Mobility
 		apiMobilityUpload = apiRoot + "/mobility/upload";
 		apiMobilityRead = apiRoot + "/mobility/read";
@@ -378,6 +444,7 @@ public final class RequestBuilder implements ServletContextAware {
 		
 		// User
 		apiUserCreate = apiRoot + "/user/create";
+		apiUserBatchCreate = apiRoot + "/user/batch/create";
 		apiUserRegister = apiRoot + "/user/register";
 		apiUserActivate = apiRoot + "/user/activate";
 		apiUserPasswordReset = apiRoot + "/user/reset_password";
@@ -501,6 +568,16 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiAuditRead.equals(requestUri)) {
 			return new AuditReadRequest(httpRequest);
 		}
+		// Export
+		else if(apiExportCreate.equals(requestUri)) {
+			return new ExportCreateRequest(httpRequest);
+		}
+		else if(apiExportRead.equals(requestUri)) {
+			return new ExportReadRequest(httpRequest);
+		}
+		else if(apiExportDownload.equals(requestUri)) {
+			return new ExportDownloadRequest(httpRequest);
+		}
 		// Campaign
 		else if(apiCampaignAssignment.equals(requestUri)) {
 			return new CampaignAssignmentRequest(httpRequest);
@@ -569,6 +646,13 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiMediaRead.equals(requestUri)) {
 			return new MediaReadRequest(httpRequest);
 		}
+		// Metrics
+		else if(apiMetricsRead.equals(requestUri)) {
+			return new MetricsReadRequest(httpRequest);
+		}
+		else if(apiTraceRead.equals(requestUri)) {
+			return new TraceReadRequest(httpRequest);
+		}
 		// Mobility
 		else if(apiMobilityUpload.equals(requestUri)) {
 			return new MobilityUploadRequest(httpRequest);
@@ -655,6 +739,9 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiUserCreate.equals(requestUri)) {
 			return new UserCreationRequest(httpRequest);
 		}
+		else if(apiUserBatchCreate.equals(requestUri)) {
+			return new UserBatchCreationRequest(httpRequest);
+		}
 		else if(apiUserRegister.equals(requestUri)) {
 			return new UserRegistrationRequest(httpRequest);
 		}
@@ -788,6 +875,10 @@ public final class RequestBuilder implements ServletContextAware {
 				apiAudioRead.equals(uri) ||
 				// Audit
 				apiAuditRead.equals(uri) ||
+				// Export
+				apiExportCreate.equals(uri) ||
+				apiExportRead.equals(uri) ||
+				apiExportDownload.equals(uri) ||
 				// Campaign
 				apiCampaignAssignment.equals(uri) ||
 				apiCampaignCreate.equals(uri) ||
@@ -814,6 +905,9 @@ public final class RequestBuilder implements ServletContextAware {
 				apiImageBatchZipRead.equals(uri) ||
 				// Media
 				apiMediaRead.equals(uri) ||			
+				// Metrics
+				apiMetricsRead.equals(uri) ||
+				apiTraceRead.equals(uri) ||
 				// Mobility
 				apiMobilityUpload.equals(uri) ||
 				apiMobilityRead.equals(uri) ||
@@ -846,6 +940,7 @@ public final class RequestBuilder implements ServletContextAware {
 				apiSurveyResponseFunctionRead.equals(uri) ||
 				// User
 				apiUserCreate.equals(uri) ||
+				apiUserBatchCreate.equals(uri) ||
 				apiUserRegister.equals(uri) ||
 				apiUserActivate.equals(uri) ||
 				apiUserPasswordReset.equals(uri) ||
@@ -882,6 +977,145 @@ public final class RequestBuilder implements ServletContextAware {
 		return false;
 	}
 
+	/**
+	 * Returns whether or not some URI is for a request that only reads from
+	 * the database and may therefore be served from a read replica.
+	 *
+	 * @param uri The URI to check.
+	 *
+	 * @return Returns true if the URI is for a read-only request; false,
+	 * 		   otherwise.
+	 */
+	public boolean isReadOnlyUri(String uri) {
+		if(
+				// Audit
+				apiAuditRead.equals(uri) ||
+				// Stream
+				apiStreamRead.equals(uri) ||
+				// Survey Response
+				apiSurveyResponseRead.equals(uri) ||
+				// Visualization
+				apiVisualizationSurveyResponseCount.equals(uri) ||
+				apiVisualizationPromptDistribution.equals(uri) ||
+				apiVisualizationPromptTimeseries.equals(uri) ||
+				apiVisualizationUserTimeseries.equals(uri) ||
+				apiVisualizationScatterPlot.equals(uri) ||
+				apiVisualization2dDensity.equals(uri) ||
+				apiVisualizationSurveyResponsePrivacy.equals(uri) ||
+				apiVisualizationSurveyResponsePrivacyTimeseries.equals(uri)) {
+			return true;
+		}
+
+		// Everything else may write.
+		return false;
+	}
+
+	/**
+	 * Returns the class of request to which some URI belongs, which decides
+	 * how it is scheduled. Unknown URIs are {@link RouteClass#ADMIN}
+	 * requests.
+	 *
+	 * @param uri The URI to check.
+	 *
+	 * @return The URI's route class.
+	 */
+	public RouteClass getRouteClass(String uri) {
+		if(
+				apiSurveyUpload.equals(uri) ||
+				apiMobilityUpload.equals(uri) ||
+				apiStreamUpload.equals(uri) ||
+				apiOmhWrite.equals(uri) ||
+				apiDocumentCreate.equals(uri) ||
+				apiDocumentUpdate.equals(uri)) {
+			return RouteClass.UPLOAD;
+		}
+		else if(
+				// Export
+				apiExportCreate.equals(uri) ||
+				apiExportDownload.equals(uri) ||
+				// Image
+				apiImageBatchZipRead.equals(uri) ||
+				// Mobility
+				apiMobilityReadChunked.equals(uri) ||
+				apiMobilityReadCsv.equals(uri) ||
+				// OMH
+				apiOmhRead.equals(uri) ||
+				// Stream
+				apiStreamRead.equals(uri) ||
+				// Survey Response
+				apiSurveyResponseRead.equals(uri) ||
+				apiSurveyResponseFunctionRead.equals(uri) ||
+				// Visualization
+				apiVisualizationSurveyResponseCount.equals(uri) ||
+				apiVisualizationPromptDistribution.equals(uri) ||
+				apiVisualizationPromptTimeseries.equals(uri) ||
+				apiVisualizationUserTimeseries.equals(uri) ||
+				apiVisualizationScatterPlot.equals(uri) ||
+				apiVisualization2dDensity.equals(uri) ||
+				apiVisualizationSurveyResponsePrivacy.equals(uri) ||
+				apiVisualizationSurveyResponsePrivacyTimeseries.equals(uri)) {
+			return RouteClass.EXPORT;
+		}
+		else if(
+				apiUserAuth.equals(uri) ||
+				apiUserAuthToken.equals(uri) ||
+				apiUserLogout.equals(uri) ||
+				apiUserWhoAmI.equals(uri) ||
+				apiOmhAuth.equals(uri) ||
+				apiUserRegister.equals(uri) ||
+				apiUserActivate.equals(uri) ||
+				apiUserPasswordReset.equals(uri) ||
+				apiRegistrationRead.equals(uri)) {
+			return RouteClass.AUTH;
+		}
+		else if(
+				// Access Request
+				apiAccessRequestRead.equals(uri) ||
+				// Annotation
+				apiAnnotationPromptResponseRead.equals(uri) ||
+				apiAnnotationSurveyResponseRead.equals(uri) ||
+				// Media
+				apiAudioRead.equals(uri) ||
+				apiImageRead.equals(uri) ||
+				apiMediaRead.equals(uri) ||
+				apiVideoRead.equals(uri) ||
+				// Campaign
+				apiCampaignRead.equals(uri) ||
+				apiCampaignSearch.equals(uri) ||
+				// Class
+				apiClassRead.equals(uri) ||
+				apiClassRosterRead.equals(uri) ||
+				apiClassSearch.equals(uri) ||
+				// Config
+				apiConfigRead.equals(uri) ||
+				// Document
+				apiDocumentRead.equals(uri) ||
+				apiDocumentReadContents.equals(uri) ||
+				// Export
+				apiExportRead.equals(uri) ||
+				// Mobility
+				apiMobilityRead.equals(uri) ||
+				apiMobilityAggregateRead.equals(uri) ||
+				apiMobilityDatesRead.equals(uri) ||
+				// Observer
+				apiObserverRead.equals(uri) ||
+				apiObserverReadXml.equals(uri) ||
+				apiStreamInvalidRead.equals(uri) ||
+				// OMH
+				apiOmhRegistryRead.equals(uri) ||
+				apiOmhCatalog.equals(uri) ||
+				// User
+				apiUserRead.equals(uri) ||
+				apiUserInfoRead.equals(uri) ||
+				apiUserStatsRead.equals(uri) ||
+				apiUserSearch.equals(uri)) {
+			return RouteClass.READ;
+		}
+		
+		// Everything else is an administrative request.
+		return RouteClass.ADMIN;
+	}
+
 	/**
 	 * Returns the root of this web application.
 	 * 
@@ -963,6 +1197,33 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiAuditRead;
 	}
 
+	/**
+	 * Returns apiExportCreate.
+	 *
+	 * @return The apiExportCreate.
+	 */
+	public String getApiExportCreate() {
+		return apiExportCreate;
+	}
+
+	/**
+	 * Returns apiExportRead.
+	 *
+	 * @return The apiExportRead.
+	 */
+	public String getApiExportRead() {
+		return apiExportRead;
+	}
+
+	/**
+	 * Returns apiExportDownload.
+	 *
+	 * @return The apiExportDownload.
+	 */
+	public String getApiExportDownload() {
+		return apiExportDownload;
+	}
+
 	/**
 	 * Returns apiUserAuth.
 	 *
@@ -1206,6 +1467,24 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiMediaRead;
 	}
 
+	/**
+	 * Returns apiMetricsRead.
+	 *
+	 * @return The apiMetricsRead.
+	 */
+	public String getApiMetricsRead() {
+		return apiMetricsRead;
+	}
+
+	/**
+	 * Returns apiTraceRead.
+	 *
+	 * @return The apiTraceRead.
+	 */
+	public String getApiTraceRead() {
+		return apiTraceRead;
+	}
+
 	/**
 	 * Returns apiMobilityUpload.
 	 *
@@ -1368,6 +1647,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiUserCreate;
 	}
 
+	/**
+	 * Returns apiUserBatchCreate.
+	 *
+	 * @return The apiUserBatchCreate.
+	 */
+	public String getApiUserBatchCreate() {
+		return apiUserBatchCreate;
+	}
+
 	/**
 	 * Returns apiUserRegister.
 	 *
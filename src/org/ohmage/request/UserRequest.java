@@ -29,12 +29,16 @@ import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.KeycloakCache;
 import org.ohmage.cache.UserBin;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.domain.User;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.jee.filter.ClientFilter;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.metrics.Tracing;
+import org.ohmage.query.impl.ReadWriteRoutingDataSource;
 import org.ohmage.service.AuthenticationService;
 import org.ohmage.service.KeycloakServices;
 import org.ohmage.util.CookieUtils;
@@ -233,6 +237,13 @@ public abstract class UserRequest extends Request {
 	 * 		   otherwise.
 	 */
 	public final boolean authenticate(AllowNewAccount newAccountsAllowed) {
+		long start = System.nanoTime();
+		int span = Tracing.openSpan("authenticate");
+		
+		// Authentication always uses the primary, even for read-only 
+		// requests. It may create or update a Keycloak user and it must see
+		// a password or account change as soon as it is made.
+		boolean primaryOnly = ReadWriteRoutingDataSource.startPrimaryOnly();
 		try {
 			// Validate that the username and password are valid.
 			LOGGER.debug("Authenticating the user: " + getUser().getUsername());
@@ -249,6 +260,11 @@ public abstract class UserRequest extends Request {
 			e.logException(LOGGER);
 			return false;
 		}
+		finally {
+			ReadWriteRoutingDataSource.endPrimaryOnly(primaryOnly);
+			Tracing.closeSpan(span);
+			Metrics.recordAuthentication(System.nanoTime() - start);
+		}
 	}
 	
 	/**
@@ -446,6 +462,32 @@ public abstract class UserRequest extends Request {
 		super.respond(httpRequest, httpResponse, response);
 	}
 	
+	/**
+	 * Writes an already serialized response. It also adds a Set-Cookie 
+	 * header in the response for the authentication / session token if one
+	 * exists.
+	 * 
+	 * @param httpRequest The HTTP request that began this request.
+	 * 
+	 * @param httpResponse The HTTP response back to the requester.
+	 * 
+	 * @param snapshot The snapshot to write.
+	 */
+	@Override
+	protected void respondWithSnapshot(
+			final HttpServletRequest httpRequest, 
+			final HttpServletResponse httpResponse, 
+			final ResponseSnapshot snapshot) {
+		
+		// A failed response is written as JSON, which refreshes the cookie
+		// itself.
+		if((! isFailed()) && (snapshot != null)) {
+			refreshTokenCookie(httpResponse);
+		}
+		
+		super.respondWithSnapshot(httpRequest, httpResponse, snapshot);
+	}
+	
 	/**************************************************************************
 	 *  End JEE Requirements
 	 *************************************************************************/
@@ -36,6 +36,7 @@ import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Campaign.OutputFormat;
 import org.ohmage.exception.DomainException;
@@ -195,8 +196,8 @@ public class CampaignReadRequest extends UserRequest {
 	private Collection<Campaign> campaignResults;
 	
 	// For XML reads.
-	//private String xmlResult;
-	//private String campaignNameResult;
+	private String xmlCampaignId;
+	private ResponseSnapshot xmlResult;
 	
 	/**
 	 * Creates a campaign read request.
@@ -384,8 +385,8 @@ public class CampaignReadRequest extends UserRequest {
 		//campaignResults = Collections.emptyMap();
 		campaignResults = null;
 		
-		//xmlResult = "";
-		//campaignNameResult = "";
+		xmlCampaignId = null;
+		xmlResult = null;
 	}
 
 	/**
@@ -400,6 +401,34 @@ public class CampaignReadRequest extends UserRequest {
 		}
 		
 		try {
+			// The XML doesn't need any of the other information about the
+			// campaign, so it is read from a snapshot that is only rebuilt
+			// when the campaign or the user's masks change.
+			if(OutputFormat.XML.equals(outputFormat)) {
+				LOGGER.info("Getting the campaign XML.");
+				Map<String, String> versions = 
+					UserCampaignServices.instance().getCampaignXmlVersions(
+						getUser().getUsername(), 
+						campaignIds, 
+						classIds, 
+						nameTokens, 
+						descriptionTokens, 
+						startDate, 
+						endDate, 
+						privacyState, 
+						runningState, 
+						role);
+				
+				xmlCampaignId = versions.keySet().iterator().next();
+				xmlResult =
+					UserCampaignServices.instance().getCampaignXmlSnapshot(
+						getUser().getUsername(), 
+						xmlCampaignId, 
+						versions.get(xmlCampaignId));
+				
+				return;
+			}
+			
 			LOGGER.info("Getting the campaign information.");
 			campaignResults =
 				UserCampaignServices.instance().getCampaignInformation(
@@ -416,19 +445,6 @@ public class CampaignReadRequest extends UserRequest {
 						OutputFormat.LONG.equals(outputFormat) || OutputFormat.SHORT.equals(outputFormat),  // class info 
 						OutputFormat.LONG.equals(outputFormat), // user info
 						OutputFormat.LONG.equals(outputFormat));  // response count info
-			
-			// If this is a request for XML and there were no campaigns visible
-			// to the user based on the parameters, we need to report that
-			// rather than attempt to attach an empty file.
-			if(
-				OutputFormat.XML.equals(outputFormat) && 
-				(campaignResults.size() == 0)) {
-				
-				throw
-					new ServiceException(
-						ErrorCode.CAMPAIGN_INVALID_ID,
-						"No campaigns were found.");
-			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -443,6 +459,13 @@ public class CampaignReadRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Responding to the campaign read request.");
 		
+		// The XML is written from its snapshot, which is tagged so that
+		// clients that already have it aren't sent it again.
+		if(OutputFormat.XML.equals(outputFormat)) {
+			respondWithSnapshot(httpRequest, httpResponse, xmlResult);
+			return;
+		}
+		
 		// Creates the writer that will write the response, success or fail.
 		Writer writer;
 		try {
@@ -560,30 +583,6 @@ public class CampaignReadRequest extends UserRequest {
 					responseText = getFailureMessage();
 				}
 			}
-			else if(OutputFormat.XML.equals(outputFormat)) {
-				// Get the singular result.
-				Campaign campaign = 
-					campaignResults.iterator().next();
-				
-				// Set the type and force the browser to download it as the 
-				// last step before beginning to stream the response.
-				httpResponse.setContentType("text/xml");
-				httpResponse
-					.setHeader(
-						"Content-Disposition",
-						"attachment; filename=" + campaign.getName() + ".xml");
-				
-				try {
-					responseText = campaign.getXml();
-				}
-				catch(DomainException e) {
-					LOGGER
-						.error(
-							"There was an error generating the campaign mask.",
-							e);
-					setFailed();
-				}
-			}
 			else {
 				// Set the response's content type to "application/json".
 				httpResponse.setContentType("application/json");
@@ -632,6 +631,9 @@ public class CampaignReadRequest extends UserRequest {
 				campaignIds.add(campaign.getId());
 			}
 		}
+		if(xmlResult != null) {
+			campaignIds.add(xmlCampaignId);
+		}
 		
 		// If any campaign IDs were found, add an entry into the audit 
 		// information where the key distinguishes this as a result and the
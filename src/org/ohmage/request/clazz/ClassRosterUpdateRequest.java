@@ -27,7 +27,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ClassRosterDiff;
 import org.ohmage.domain.Clazz;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -72,6 +74,13 @@ import org.ohmage.validator.ClassValidators;
  *     each time the user's role in that class was changed.</td>
  *     <td>true</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLASS_DRY_RUN}</td>
+ *     <td>If true, the classes are not changed. Instead, the changes that
+ *     would have been made are returned, one per class, under 
+ *     {@link #KEY_DIFF}. The default is false.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author John Jenkins
@@ -85,9 +94,17 @@ public class ClassRosterUpdateRequest extends UserRequest {
 	 */
 	public static final String KEY_WARNING_MESSAGES = "warning_messages";
 	
+	/**
+	 * The key used in the returned JSON for the JSONArray of changes when 
+	 * this is a dry run.
+	 */
+	public static final String KEY_DIFF = "diff";
+	
 	private final Map<String, Map<String, Clazz.Role>> roster;
+	private final boolean dryRun;
 	
 	private List<String> warningMessages;
+	private List<ClassRosterDiff> diffs;
 	
 	/**
 	 * Creates a new class roster update request.
@@ -106,6 +123,7 @@ public class ClassRosterUpdateRequest extends UserRequest {
 		LOGGER.info("Create a class roster update request.");
 		
 		Map<String, Map<String, Clazz.Role>> tRoster = null;
+		boolean tDryRun = false;
 		
 		try {
 			tRoster = ClassValidators.validateClassRoster(getMultipartValue(httpRequest, InputKeys.ROSTER));
@@ -113,6 +131,17 @@ public class ClassRosterUpdateRequest extends UserRequest {
 				setFailed(ErrorCode.CLASS_INVALID_ROSTER, "The class roster is missing.");
 				throw new ValidationException("The class roster is missing.");
 			}
+			
+			String[] t = getParameterValues(InputKeys.CLASS_DRY_RUN);
+			if(t.length > 1) {
+				throw new ValidationException(
+						ErrorCode.CLASS_INVALID_DRY_RUN_VALUE,
+						"Multiple dry run values were given: " +
+							InputKeys.CLASS_DRY_RUN);
+			}
+			else if(t.length == 1) {
+				tDryRun = ClassValidators.validateDryRunValue(t[0]);
+			}
 		}
 		catch(ValidationException e) {
 			e.failRequest(this);
@@ -120,6 +149,7 @@ public class ClassRosterUpdateRequest extends UserRequest {
 		}
 		
 		roster = tRoster;
+		dryRun = tDryRun;
 		warningMessages = new LinkedList<String>();
 	}
 
@@ -150,8 +180,14 @@ public class ClassRosterUpdateRequest extends UserRequest {
 			}
 			UserServices.instance().verifyUsersExist(uniqueUsers, true);
 			
-			LOGGER.info("Updating the classes via the roster.");
-			warningMessages = ClassServices.instance().updateClassViaRoster(roster);
+			if(dryRun) {
+				LOGGER.info("Computing the changes the roster would make.");
+				diffs = ClassServices.instance().getClassRosterDiffs(roster);
+			}
+			else {
+				LOGGER.info("Updating the classes via the roster.");
+				warningMessages = ClassServices.instance().updateClassViaRoster(roster);
+			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -161,10 +197,27 @@ public class ClassRosterUpdateRequest extends UserRequest {
 
 	/**
 	 * Responds to the user's request with either success and a List of warning
-	 * messages or failure and a failure message.
+	 * messages, or the changes if this was a dry run, or failure and a failure
+	 * message.
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		super.respond(httpRequest, httpResponse, KEY_WARNING_MESSAGES, new JSONArray(warningMessages));
+		if(dryRun && (diffs != null)) {
+			JSONArray result = new JSONArray();
+			try {
+				for(ClassRosterDiff diff : diffs) {
+					result.put(diff.toJson());
+				}
+			}
+			catch(JSONException e) {
+				LOGGER.error("Error building the class roster changes.", e);
+				setFailed();
+			}
+			
+			super.respond(httpRequest, httpResponse, KEY_DIFF, result);
+		}
+		else {
+			super.respond(httpRequest, httpResponse, KEY_WARNING_MESSAGES, new JSONArray(warningMessages));
+		}
 	}
 }
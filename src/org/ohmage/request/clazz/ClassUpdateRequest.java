@@ -26,8 +26,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ClassRosterDiff;
 import org.ohmage.domain.Clazz;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -88,6 +90,13 @@ import org.ohmage.validator.UserValidators;
  *       {@value org.ohmage.request.InputKeys#LIST_ITEM_SEPARATOR}.</td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLASS_DRY_RUN}</td>
+ *     <td>If true, the class is not changed. Instead, the changes to its
+ *       users that would have been made are returned under 
+ *       {@link #KEY_DIFF}. The default is false.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author John Jenkins
@@ -95,11 +104,20 @@ import org.ohmage.validator.UserValidators;
 public class ClassUpdateRequest extends UserRequest {
 	private static final Logger LOGGER = Logger.getLogger(ClassUpdateRequest.class);
 	
+	/**
+	 * The key used in the returned JSON for the changes when this is a dry
+	 * run.
+	 */
+	public static final String KEY_DIFF = "diff";
+	
 	private final String classId;
 	private final String className;
 	private final String classDescription;
 	private final Map<String, Clazz.Role> usersToAdd;
 	private final Collection<String> usersToRemove;
+	private final boolean dryRun;
+	
+	private ClassRosterDiff diff;
 	
 	/**
 	 * Creates a new class update request.
@@ -120,6 +138,7 @@ public class ClassUpdateRequest extends UserRequest {
 		String tempClassDescription = null;
 		Map<String, Clazz.Role> tempUsersToAdd = null;
 		Set<String> tempUsersToRemove = null;
+		boolean tempDryRun = false;
 		
 		if(! isFailed()) {
 			try {
@@ -156,6 +175,12 @@ public class ClassUpdateRequest extends UserRequest {
 					setFailed(ErrorCode.USER_INVALID_USERNAME, "Multiple username list parameters were found.");
 					throw new ValidationException("Multiple username list parameters were found.");
 				}
+				
+				tempDryRun = ClassValidators.validateDryRunValue(httpRequest.getParameter(InputKeys.CLASS_DRY_RUN));
+				if((httpRequest.getParameter(InputKeys.CLASS_DRY_RUN) != null) && (httpRequest.getParameterValues(InputKeys.CLASS_DRY_RUN).length > 1)) {
+					setFailed(ErrorCode.CLASS_INVALID_DRY_RUN_VALUE, "Multiple dry run parameters were found.");
+					throw new ValidationException("Multiple dry run parameters were found.");
+				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -168,6 +193,7 @@ public class ClassUpdateRequest extends UserRequest {
 		classDescription = tempClassDescription;
 		usersToAdd = tempUsersToAdd;
 		usersToRemove = tempUsersToRemove;
+		dryRun = tempDryRun;
 	}
 
 	/**
@@ -232,8 +258,14 @@ public class ClassUpdateRequest extends UserRequest {
 				}
 			}
 			
-			LOGGER.info("Updating the class.");
-			ClassServices.instance().updateClass(classId, className, classDescription, usersToAdd, usersToRemove);
+			if(dryRun) {
+				LOGGER.info("Computing the changes to the class' users.");
+				diff = ClassServices.instance().getClassUpdateDiff(classId, usersToAdd, usersToRemove);
+			}
+			else {
+				LOGGER.info("Updating the class.");
+				ClassServices.instance().updateClass(classId, className, classDescription, usersToAdd, usersToRemove);
+			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -242,11 +274,26 @@ public class ClassUpdateRequest extends UserRequest {
 	}
 
 	/**
-	 * Responds with success if everything worked or with an error code and
-	 * explanation should something have failed.
+	 * Responds with success, and the changes if this was a dry run, if 
+	 * everything worked or with an error code and explanation should 
+	 * something have failed.
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		super.respond(httpRequest, httpResponse, (JSONObject) null);
+		if(dryRun && (diff != null)) {
+			JSONObject result = null;
+			try {
+				result = diff.toJson();
+			}
+			catch(JSONException e) {
+				LOGGER.error("Error building the class changes.", e);
+				setFailed();
+			}
+			
+			super.respond(httpRequest, httpResponse, KEY_DIFF, result);
+		}
+		else {
+			super.respond(httpRequest, httpResponse, (JSONObject) null);
+		}
 	}
 }
@@ -17,6 +17,7 @@ package org.ohmage.request.document;
 
 import java.io.BufferedWriter;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,6 +38,7 @@ import org.ohmage.service.DocumentServices;
 import org.ohmage.service.UserDocumentServices;
 import org.ohmage.service.UserServices;
 import org.ohmage.util.CookieUtils;
+import org.ohmage.util.FileResponseUtils;
 import org.ohmage.validator.DocumentValidators;
 
 /**
@@ -70,6 +72,7 @@ public class DocumentReadContentsRequest extends UserRequest {
 	private final String documentId;
 	
 	private String documentName;
+	private File contentsFile;
 	private InputStream contentsStream;
 	
 	/**
@@ -106,6 +109,7 @@ public class DocumentReadContentsRequest extends UserRequest {
 		
 		documentId = tempDocumentId;
 		
+		contentsFile = null;
 		contentsStream = null;
 	}
 
@@ -138,7 +142,10 @@ public class DocumentReadContentsRequest extends UserRequest {
 			documentName = DocumentServices.instance().getDocumentName(documentId);
 			
 			LOGGER.info("Retrieving the document's contents.");
-			contentsStream = DocumentServices.instance().getDocumentInputStream(documentId);
+			contentsFile = DocumentServices.instance().getDocumentFile(documentId);
+			if(contentsFile == null) {
+				contentsStream = DocumentServices.instance().getDocumentInputStream(documentId);
+			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -157,6 +164,30 @@ public class DocumentReadContentsRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Writing read document contents response.");
 		
+		// Documents stored in local files are sent directly from the file,
+		// which handles conditional and partial requests. Documents may be
+		// updated, so they are revalidated on each request.
+		if((! isFailed()) && (contentsFile != null)) {
+			setDownloadHeaders(httpResponse);
+			
+			try {
+				FileResponseUtils.sendFile(
+					httpRequest, 
+					httpResponse, 
+					contentsFile, 
+					FileResponseUtils.buildFileEtag(contentsFile), 
+					false, 
+					FileResponseUtils.isCompressible(null, documentName));
+			}
+			catch(IOException e) {
+				LOGGER.error(
+					"The contents of the file could not be read or written to the response.",
+					e);
+				setFailed();
+			}
+			return;
+		}
+		
 		// Creates the writer that will write the response, success or fail.
 		OutputStream os;
 		try {
@@ -194,21 +225,7 @@ public class DocumentReadContentsRequest extends UserRequest {
 				}
 			}
 			else {
-				// Set the type and force the browser to download it as the 
-				// last step before beginning to stream the response.
-				httpResponse.setContentType("ohmage/document");
-				httpResponse.setHeader("Content-Disposition", "attachment; filename=\"" + documentName + "\"");
-				
-				// If available, set the token.
-				if(getUser() != null) {
-					final String token = getUser().getToken(); 
-					if(token != null) {
-						CookieUtils.setCookieValue(
-							httpResponse, 
-							InputKeys.AUTH_TOKEN, 
-							token);
-					}
-				}
+				setDownloadHeaders(httpResponse);
 				
 				// Set the output stream to the response.
 				DataOutputStream dos = new DataOutputStream(os);
@@ -258,4 +275,26 @@ public class DocumentReadContentsRequest extends UserRequest {
 			}
 		}
 	}
+	
+	/**
+	 * Sets the type and forces the browser to download the document as the
+	 * last step before beginning to stream the response. If available, the
+	 * token is also set.
+	 * 
+	 * @param httpResponse The response to which the headers are added.
+	 */
+	private void setDownloadHeaders(final HttpServletResponse httpResponse) {
+		httpResponse.setContentType("ohmage/document");
+		httpResponse.setHeader("Content-Disposition", "attachment; filename=\"" + documentName + "\"");
+		
+		if(getUser() != null) {
+			final String token = getUser().getToken(); 
+			if(token != null) {
+				CookieUtils.setCookieValue(
+					httpResponse, 
+					InputKeys.AUTH_TOKEN, 
+					token);
+			}
+		}
+	}
 }
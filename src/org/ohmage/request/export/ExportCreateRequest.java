@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.export;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.Request;
+import org.ohmage.request.UserRequest;
+import org.ohmage.request.observer.StreamReadRequest;
+import org.ohmage.request.survey.SurveyResponseReadRequest;
+import org.ohmage.service.ExportJobServices;
+import org.ohmage.validator.ExportValidators;
+
+/**
+ * <p>Submits a survey response or stream read as an export job. The read is
+ * run in the background and its response is written to a compressed file
+ * that may be downloaded once the job is complete. If the user already has a
+ * job with identical parameters that hasn't failed or expired, that job is
+ * returned instead of a new one.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#EXPORT_REQUEST}</td>
+ *     <td>The read to export, either "survey_response/read" or
+ *     "stream/read".</td>
+ *     <td>true</td>
+ *   </tr>
+ * </table>
+ * <p>All of the other parameters are those of the read being exported and
+ * are validated now so that an invalid read is rejected immediately.</p>
+ *
+ * @author John Jenkins
+ */
+public class ExportCreateRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(ExportCreateRequest.class);
+
+	private final ExportJob.Type type;
+
+	private ExportJob job = null;
+
+	/**
+	 * Creates a new export creation request.
+	 *
+	 * @param httpRequest A HttpServletRequest that contains the parameters for
+	 * 					  this request.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public ExportCreateRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, false, TokenLocation.EITHER, null);
+
+		ExportJob.Type tType = null;
+
+		if(! isFailed()) {
+			LOGGER.info("Creating an export creation request.");
+			String[] t;
+
+			try {
+				t = getParameterValues(InputKeys.EXPORT_REQUEST);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_REQUEST,
+						"Multiple export requests were given: " +
+							InputKeys.EXPORT_REQUEST);
+				}
+				else if(t.length == 1) {
+					tType = ExportValidators.validateExportRequest(t[0]);
+				}
+				if(tType == null) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_REQUEST,
+						"The request to export is missing: " +
+							InputKeys.EXPORT_REQUEST);
+				}
+
+				// Build the read now so that its parameters are validated
+				// before the job is accepted.
+				Request exportRequest;
+				switch(tType) {
+				case SURVEY_RESPONSE_READ:
+					exportRequest = new SurveyResponseReadRequest(httpRequest);
+					break;
+
+				case STREAM_READ:
+					exportRequest = new StreamReadRequest(httpRequest);
+					break;
+
+				default:
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_REQUEST,
+						"The request may not be exported: " + tType);
+				}
+
+				if(exportRequest.isFailed()) {
+					setFailed(
+						exportRequest.getAnnotator().getErrorCode(),
+						exportRequest.getAnnotator().getErrorText());
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		type = tType;
+	}
+
+	/**
+	 * Authenticates the user and submits the job.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing an export creation request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Submitting the export job.");
+			job =
+				ExportJobServices.instance().submitJob(
+					getUser().getUsername(),
+					getClient(),
+					type,
+					getParameters());
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Responds with the job.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to an export creation request.");
+
+		JSONObject result = null;
+		if(job != null) {
+			try {
+				result = job.toJson();
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the response.", e);
+				setFailed();
+			}
+		}
+
+		super.respond(httpRequest, httpResponse, (JSONObject) null, result);
+	}
+}
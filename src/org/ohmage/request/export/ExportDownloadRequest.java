@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.ExportJobServices;
+import org.ohmage.util.CookieUtils;
+import org.ohmage.util.FileResponseUtils;
+import org.ohmage.validator.ExportValidators;
+
+/**
+ * <p>Downloads the result of a completed export job. The result is the
+ * gzip-compressed response of the exported read. A single byte range may be
+ * requested with the standard HTTP "Range" header, which allows a client to
+ * resume an interrupted download.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#EXPORT_ID}</td>
+ *     <td>The export job's unique identifier.</td>
+ *     <td>true</td>
+ *   </tr>
+ * </table>
+ *
+ * @author John Jenkins
+ */
+public class ExportDownloadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(ExportDownloadRequest.class);
+
+	private final UUID exportId;
+
+	private ExportJob job = null;
+	private File file = null;
+
+	/**
+	 * Creates a new export download request.
+	 *
+	 * @param httpRequest A HttpServletRequest that contains the parameters for
+	 * 					  this request.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public ExportDownloadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, false, TokenLocation.EITHER, null);
+
+		UUID tExportId = null;
+
+		if(! isFailed()) {
+			LOGGER.info("Creating an export download request.");
+			String[] t;
+
+			try {
+				t = getParameterValues(InputKeys.EXPORT_ID);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_ID,
+						"Multiple export IDs were given: " +
+							InputKeys.EXPORT_ID);
+				}
+				else if(t.length == 1) {
+					tExportId = ExportValidators.validateId(t[0]);
+				}
+				if(tExportId == null) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_ID,
+						"The export's ID was missing: " + InputKeys.EXPORT_ID);
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		exportId = tExportId;
+	}
+
+	/**
+	 * Authenticates the user, retrieves the job, and verifies that it is
+	 * complete.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing an export download request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Retrieving the export job.");
+			job =
+				ExportJobServices.instance().getJob(
+					getUser().getUsername(),
+					exportId);
+
+			LOGGER.info("Verifying that the export job is complete.");
+			if(! ExportJob.Status.COMPLETE.equals(job.getStatus())) {
+				throw new ServiceException(
+					ErrorCode.EXPORT_NOT_COMPLETE,
+					"The export job is " + job.getStatus() + ": " + exportId);
+			}
+
+			file = ExportJobServices.instance().getExportFile(exportId);
+			if(! file.isFile()) {
+				throw new ServiceException(
+					ErrorCode.EXPORT_INVALID_ID,
+					"The export job's file no longer exists: " + exportId);
+			}
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Writes the file, or the requested range of it, to the response. A
+	 * client resuming a download may send "If-Range" with the entity tag it
+	 * was given.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to an export download request.");
+
+		if(isFailed()) {
+			super.respond(httpRequest, httpResponse, (JSONObject) null);
+			return;
+		}
+
+		httpResponse.setContentType("application/gzip");
+		httpResponse.setHeader(
+			"Content-Disposition",
+			"attachment; filename=" + job.getFileName());
+
+		// If available, set the token.
+		if(getUser() != null) {
+			final String token = getUser().getToken();
+			if(token != null) {
+				CookieUtils.setCookieValue(
+						httpResponse,
+						InputKeys.AUTH_TOKEN,
+						token);
+			}
+		}
+
+		// The file never changes once the job is complete, so its ID is its
+		// entity tag. It is already compressed.
+		try {
+			FileResponseUtils.sendFile(
+				httpRequest,
+				httpResponse,
+				file,
+				FileResponseUtils.buildImmutableEtag(exportId, null),
+				true,
+				false);
+		}
+		catch(IOException e) {
+			LOGGER.error(
+				"The contents of the file could not be read or written to the response.",
+				e);
+			setFailed();
+		}
+	}
+}
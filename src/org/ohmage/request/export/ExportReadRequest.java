@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.export;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.ExportJobServices;
+import org.ohmage.validator.ExportValidators;
+
+/**
+ * <p>Reads the status of one of the user's export jobs.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#EXPORT_ID}</td>
+ *     <td>The export job's unique identifier.</td>
+ *     <td>true</td>
+ *   </tr>
+ * </table>
+ *
+ * @author John Jenkins
+ */
+public class ExportReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(ExportReadRequest.class);
+
+	private final UUID exportId;
+
+	private ExportJob job = null;
+
+	/**
+	 * Creates a new export read request.
+	 *
+	 * @param httpRequest A HttpServletRequest that contains the parameters for
+	 * 					  this request.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public ExportReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, false, TokenLocation.EITHER, null);
+
+		UUID tExportId = null;
+
+		if(! isFailed()) {
+			LOGGER.info("Creating an export read request.");
+			String[] t;
+
+			try {
+				t = getParameterValues(InputKeys.EXPORT_ID);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_ID,
+						"Multiple export IDs were given: " +
+							InputKeys.EXPORT_ID);
+				}
+				else if(t.length == 1) {
+					tExportId = ExportValidators.validateId(t[0]);
+				}
+				if(tExportId == null) {
+					throw new ValidationException(
+						ErrorCode.EXPORT_INVALID_ID,
+						"The export's ID was missing: " + InputKeys.EXPORT_ID);
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		exportId = tExportId;
+	}
+
+	/**
+	 * Authenticates the user and retrieves the job.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing an export read request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Retrieving the export job.");
+			job =
+				ExportJobServices.instance().getJob(
+					getUser().getUsername(),
+					exportId);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Responds with the job.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to an export read request.");
+
+		JSONObject result = null;
+		if(job != null) {
+			try {
+				result = job.toJson();
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the response.", e);
+				setFailed();
+			}
+		}
+
+		super.respond(httpRequest, httpResponse, (JSONObject) null, result);
+	}
+}
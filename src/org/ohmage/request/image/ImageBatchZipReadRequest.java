@@ -1,31 +1,24 @@
 package org.ohmage.request.image;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.UUID;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
-import org.ohmage.domain.campaign.PromptResponse;
-import org.ohmage.domain.campaign.RepeatableSetResponse;
-import org.ohmage.domain.campaign.Response;
-import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.campaign.PromptResponseImage;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
 import org.ohmage.request.survey.SurveyResponseRequest;
-import org.ohmage.service.ImageServices;
+import org.ohmage.validator.ImageValidators;
 
 /**
  * <p>Reads all of the images for a campaign that match the given criteria and
@@ -91,6 +84,22 @@ import org.ohmage.service.ImageServices;
  *       </td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_RETURN}</td>
+ *     <td>The maximum number of images to return, up to 
+ *       {@value org.ohmage.domain.Image#MAX_NUM_TO_ZIP}. If this is given 
+ *       and there are more images, the 
+ *       {@value #HEADER_CONTINUATION_TOKEN} header will contain a token that
+ *       can be given to retrieve the next images. If it is not given, all of
+ *       the images are returned.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CONTINUATION_TOKEN}</td>
+ *     <td>A token from a previous response. Only the images after the ones
+ *       in that response are returned.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  *
  * @author John Jenkins
@@ -99,7 +108,29 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 	private static final Logger LOGGER = 
 			Logger.getLogger(ImageBatchZipReadRequest.class);
 	
-	private final Map<UUID, URL> imageUrls;
+	/**
+	 * The response header that contains the token to use to retrieve the 
+	 * next images when only some of them were returned.
+	 */
+	public static final String HEADER_CONTINUATION_TOKEN = 
+		"X-Ohmage-Continuation-Token";
+	
+	/**
+	 * The number of image references to read from the database at a time 
+	 * when all of the images are being returned.
+	 */
+	private static final int PAGE_SIZE = 500;
+	
+	/**
+	 * The size of the buffer between the ZIP stream and the response.
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 65536;
+	
+	private final Integer numToReturn;
+	private final long continueAfter;
+	
+	private List<PromptResponseImage> images;
+	private String continuationToken;
 	
 	/**
 	 * Creates a new ImageBatchZipReadRequest.
@@ -114,55 +145,82 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 	public ImageBatchZipReadRequest(final HttpServletRequest httpRequest) throws IOException, InvalidRequestException {
 		super(httpRequest);
 		
-		// There are no parameters specific to this API that aren't covered in
-		// the SurveyResponseRequest.
+		Integer tNumToReturn = null;
+		Long tContinueAfter = null;
+		
 		if(! isFailed()) {
 			LOGGER.info("Creating an image ZIP read request.");
+			String[] t;
+			
+			try {
+				t = getParameterValues(InputKeys.NUM_TO_RETURN);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+							"Multiple numbers to return were given: " +
+								InputKeys.NUM_TO_RETURN);
+				}
+				else if(t.length == 1) {
+					tNumToReturn = ImageValidators.validateNumToZip(t[0]);
+				}
+				
+				t = getParameterValues(InputKeys.CONTINUATION_TOKEN);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.IMAGE_INVALID_CONTINUATION_TOKEN,
+							"Multiple continuation tokens were given: " +
+								InputKeys.CONTINUATION_TOKEN);
+				}
+				else if(t.length == 1) {
+					tContinueAfter = 
+						ImageValidators.validateContinuationToken(t[0]);
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
 		}
 		
-		imageUrls = new HashMap<UUID, URL>();
+		numToReturn = tNumToReturn;
+		continueAfter = (tContinueAfter == null) ? -1 : tContinueAfter;
+		
+		images = Collections.emptyList();
+		continuationToken = null;
 	}
 	
 	/**
-	 * Gathers all of the image IDs and their associated URLs.
+	 * Gathers the first of the references to the images. If only some of the
+	 * images were requested, all of them are gathered and the continuation
+	 * token is created if there are more; otherwise, the remaining references
+	 * are gathered while the response is being written.
 	 */
 	@Override
 	public void service() {
 		LOGGER.info("Servicing a image ZIP read request.");
 		
-		// We only need the prompt response.
-		Collection<SurveyResponse.ColumnKey> promptResponseColumn =
-				new ArrayList<SurveyResponse.ColumnKey>(1);
-		promptResponseColumn.add(SurveyResponse.ColumnKey.PROMPT_RESPONSE);
-		
-		super.service(
-				promptResponseColumn, 
-				"photo",
-				null,
-				false, 
-				0, 
-				Long.MAX_VALUE);
-		if(isFailed()) {
+		if(! serviceCampaign()) {
 			return;
 		}
 		
-		LOGGER.info("Gathering the UUIDs from the survey responses.");
-		Collection<UUID> imageIds = new HashSet<UUID>();
-		for(SurveyResponse surveyResponse : getSurveyResponses()) {
-			imageIds.addAll(getImageIds(surveyResponse.getResponses().values()));
-		}
-		
-		LOGGER.info("Getting the URL for each UUID.");
 		try {
-			for(UUID imageId : imageIds) {
-				URL imageUrl = ImageServices.instance().getImageUrl(imageId);
-				if(imageUrl == null) {
-					LOGGER.debug(
-							"The image doesn't have a URL: " + 
-								imageId.toString());
-				}
-				else {
-					imageUrls.put(imageId, imageUrl);
+			if(numToReturn == null) {
+				LOGGER.info("Gathering the first page of images.");
+				images = readPromptResponseImages(continueAfter, PAGE_SIZE);
+			}
+			else {
+				LOGGER.info("Gathering the requested images.");
+				images = 
+					readPromptResponseImages(continueAfter, numToReturn + 1);
+				
+				if(images.size() > numToReturn) {
+					images = images.subList(0, numToReturn);
+					continuationToken = 
+						Long.toString(
+							(numToReturn == 0) ?
+								Math.max(continueAfter, 0) :
+								images.get(numToReturn - 1)
+									.getPromptResponseId());
 				}
 			}
 		}
@@ -172,9 +230,9 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * @see org.ohmage.request.Request#respond(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	/**
+	 * Streams the images into a ZIP file. Images that cannot be read are 
+	 * skipped.
 	 */
 	@Override
 	public void respond(
@@ -189,156 +247,78 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 		
 		// We are going to try to write the response, so we will need to set
 		// the header to indicate that this will be an attachment.
+		httpResponse.setContentType("application/zip");
 		httpResponse.setHeader(
 				"Content-Disposition", 
 				"attachment; filename=images.zip");
+		if(continuationToken != null) {
+			httpResponse.setHeader(
+				HEADER_CONTINUATION_TOKEN, 
+				continuationToken);
+		}
 		
-		// Create the zip stream to the outside world.
-		ZipOutputStream zipStream = null;
+		// The images are already compressed, so the response is never 
+		// compressed again.
+		OutputStream outputStream;
 		try {
-			zipStream = 
-					new ZipOutputStream(
-						getOutputStream(httpRequest, httpResponse));
+			outputStream = 
+				new BufferedOutputStream(
+					httpResponse.getOutputStream(), 
+					OUTPUT_BUFFER_SIZE);
 		}
 		catch(IOException e) {
 			LOGGER.error("Unable to write response message. Aborting.", e);
 			return;
 		}
 		
-		// Stream each image into the input of the ZIP stream.
-		int lengthRead;
-		byte[] buffer = new byte[4096];
-		for(UUID imageId : imageUrls.keySet()) {
-			// First, attempt to connect to the image. If this cannot be done,
-			// we will simply skip this image and not return it in the ZIP 
-			// file.
-			InputStream imageStream;
-			try {
-				URL imageUrl = imageUrls.get(imageId);
-				imageStream = imageUrl.openStream();
-			}
-			catch(IOException e) {
-				LOGGER.info(
-						"The image does not exist, so it will not be added to the ZIP file: " +
-							imageId.toString(),
-						e);
-				continue;
-			}
-			
-			// Next, we create a new entry in the ZIP file for this image.
-			try {
-				zipStream.putNextEntry(new ZipEntry(imageId.toString() + ".png"));
-			}
-			catch(IOException e) {
-				LOGGER.error(
-						"Unable to add an entry to the stream: " +
-							imageId.toString(),
-						e);
-				break;
-			}
-			
-			// Attempt to read from the image buffer and shuffle it into the 
-			// ZIP file buffer.
-			try {
-				while((lengthRead = imageStream.read(buffer)) != -1) {
-					try {
-						zipStream.write(buffer, 0, lengthRead);
-					}
-					catch(IOException e) {
-						LOGGER.error(
-								"There was a problem writing the response: " +
-									imageId.toString(),
-								e);
-						break;
-					}
+		ImageZipWriter zipWriter = new ImageZipWriter(outputStream);
+		try {
+			List<PromptResponseImage> page = images;
+			while(true) {
+				for(PromptResponseImage image : page) {
+					zipWriter.add(image);
 				}
-			}
-			catch(IOException e) {
-				LOGGER.error(
-						"There was a problem reading the image's contents: " +
-							imageId.toString(),
-						e);
-				break;
-			}
-			
-			// Once we have copied the entire image into the buffer, we can 
-			// close it. If it fails to close, we don't really care because we
-			// have supposedly read everything we need.
-			try {
-				imageStream.close();	
-			}
-			catch(IOException e) {
-				LOGGER.error(
-						"There was a problem closing the connection to the image: " +
-							imageId.toString(),
-						e);
 				
-				// We don't abort here, because everything should have been
-				// successfully written to to the stream. Therefore, we should
-				// log that it happened, but we can safely continue.
+				// If only some of the images were requested or this was 
+				// the last page, we are done.
+				if((numToReturn != null) || (page.size() < PAGE_SIZE)) {
+					break;
+				}
+				
+				page = 
+					readPromptResponseImages(
+						page.get(page.size() - 1).getPromptResponseId(), 
+						PAGE_SIZE);
 			}
 			
-			// Finally, close this entry in the ZIP file.
-			try {
-				zipStream.closeEntry();
-			}
-			catch(IOException e) {
-				LOGGER.error(
-						"There was a problem closing this image's entry: " +
-							imageId.toString(),
-						e);
-				break;
-			}
+			zipWriter.finish();
+			LOGGER.info(
+				"Wrote " + zipWriter.getNumWritten() + " images.");
 		}
-		
-		// No matter what happens, we still try to flush what we did write to
-		// the output stream.
-		try {
-			zipStream.flush();
-		}
-		catch(IOException e) {
-			LOGGER.error("Couldn't flush the stream.", e);
-		}
-		
-		// Finally, we always want to close the stream.
-		try {
-			zipStream.close();
+		catch(ServiceException e) {
+			zipWriter.abort();
+			LOGGER.error(
+				"Unable to read the next images after prompt response " + 
+					zipWriter.getLastPromptResponseId() +
+					". Aborting.", 
+				e);
 		}
 		catch(IOException e) {
-			LOGGER.error("Couldn't close the stream.", e);
+			zipWriter.abort();
+			LOGGER.error(
+				"Unable to write the images after prompt response " + 
+					zipWriter.getLastPromptResponseId() +
+					". Aborting.", 
+				e);
 		}
-	}
-	
-	/**
-	 * Cycles through a collection of responses and retrieves the photo prompt
-	 * response's UUIDs.
-	 * 
-	 * @param responses The collection of responses.
-	 * 
-	 * @return The photo UUIDs for those responses.
-	 */
-	private Collection<UUID> getImageIds(
-			final Collection<Response> responses) {
-		
-		Collection<UUID> result = new LinkedList<UUID>();
-		
-		for(Response response : responses) {
-			if(response instanceof PromptResponse) {
-				Object responseObject = response.getResponse();
-				
-				if(responseObject instanceof UUID) {
-					result.add((UUID) response.getResponse());	
-				}
+		finally {
+			// Finally, we always want to close the stream.
+			try {
+				outputStream.close();
 			}
-			else if(response instanceof RepeatableSetResponse) {
-				for(Map<Integer, Response> iteration :
-					((RepeatableSetResponse) response).getResponseGroups().values()) {
-					
-					result.addAll(getImageIds(iteration.values()));
-				}
+			catch(IOException e) {
+				LOGGER.error("Couldn't close the stream.", e);
 			}
 		}
-		
-		return result;
 	}
-}
\ No newline at end of file
+}
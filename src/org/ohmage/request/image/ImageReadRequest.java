@@ -16,6 +16,7 @@
 package org.ohmage.request.image;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -39,6 +40,7 @@ import org.ohmage.service.ImageServices;
 import org.ohmage.service.UserImageServices;
 import org.ohmage.service.UserServices;
 import org.ohmage.util.CookieUtils;
+import org.ohmage.util.FileResponseUtils;
 import org.ohmage.validator.ImageValidators;
 
 /**
@@ -194,24 +196,38 @@ public class ImageReadRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Writing the image read response.");
 		
-		if(ANDROID_CLIENT_NAME.equals(getClient())) {
-
-			// TODO move to web server configuration for all image file types?
-			// For now, this allows images to be stored by clients for one year
-			// and specifies private to disable intermediaries from caching the
-			// image. (HTTP 1.1)
-			httpResponse.setHeader("Cache-Control", "max-age=1051200, private");  
-						
-		} else {
-
-			// Sets the HTTP headers to disable caching
-			expireResponse(httpResponse);
+		// Images stored in local files are sent with their own caching
+		// headers, so those are only set here for the other cases.
+		File imageFile = null;
+		try {
+			if((image != null) && (! isFailed())) {
+				imageFile = image.getFile(size);
+			}
+		}
+		catch(DomainException e) {
+			LOGGER.error("Could not locate the image.", e);
+		}
+		
+		if(imageFile == null) {
+			if(ANDROID_CLIENT_NAME.equals(getClient())) {
+	
+				// TODO move to web server configuration for all image file types?
+				// For now, this allows images to be stored by clients for one year
+				// and specifies private to disable intermediaries from caching the
+				// image. (HTTP 1.1)
+				httpResponse.setHeader("Cache-Control", "max-age=1051200, private");  
+							
+			} else {
+	
+				// Sets the HTTP headers to disable caching
+				expireResponse(httpResponse);
+			}
 		}
 				
 		// Open the connection to the image if it is not null.
 		InputStream imageStream = null;
 		try {
-			if(image != null) {
+			if((image != null) && (imageFile == null)) {
 				imageStream = image.getInputStream(size);
 			}
 		}
@@ -236,9 +252,6 @@ public class ImageReadRequest extends UserRequest {
 				// some sort of image inspection to figure out what this should
 				// be.
 				httpResponse.setContentType(image.getContentType(size));
-				httpResponse.setHeader(
-						"Content-Length", 
-						new Long(image.getSizeBytes(size)).toString());
 				
 				// If available, set the token.
 				if(getUser() != null) {
@@ -250,6 +263,26 @@ public class ImageReadRequest extends UserRequest {
 								token);
 					}
 				}
+				
+				// Images never change once they are created, so clients may
+				// cache them and ask for only part of them. They are already
+				// compressed.
+				if(imageFile != null) {
+					FileResponseUtils.sendFile(
+						httpRequest, 
+						httpResponse, 
+						imageFile, 
+						FileResponseUtils.buildImmutableEtag(
+							imageId, 
+							size.getName()), 
+						true, 
+						false);
+					return;
+				}
+				
+				httpResponse.setHeader(
+						"Content-Length", 
+						new Long(image.getSizeBytes(size)).toString());
 
 				// Creates the writer that will write the response, success or 
 				// fail.
@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.Media;
+import org.ohmage.domain.campaign.PromptResponseImage;
+
+/**
+ * <p>Writes images into a ZIP stream in the order in which they are added.
+ * </p>
+ *
+ * <p>While one image is being written, the next few are being prepared by a
+ * small, shared pool of threads. Preparing an image means opening it,
+ * computing its checksum, and inspecting its first bytes. For images stored
+ * in local files, this also brings the file into the file system's cache, so
+ * writing it afterwards is cheap; other images are buffered in memory.</p>
+ *
+ * <p>JPEG, PNG, and GIF images are already compressed, so they are written
+ * with the {@link ZipEntry#STORED} method instead of being compressed a
+ * second time. Anything else is deflated.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author John Jenkins
+ */
+final class ImageZipWriter {
+	private static final Logger LOGGER = Logger.getLogger(ImageZipWriter.class);
+
+	/**
+	 * The number of threads shared by all writers for preparing images.
+	 */
+	private static final int NUM_READ_AHEAD_THREADS = 4;
+
+	/**
+	 * The number of images that each writer may have prepared, or being
+	 * prepared, ahead of the one it is writing.
+	 */
+	private static final int READ_AHEAD = 8;
+
+	/**
+	 * The size of the buffer used to read and copy the images.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * The suffix for each entry's name.
+	 */
+	private static final String ENTRY_SUFFIX = ".png";
+
+	/**
+	 * The pool that prepares the images.
+	 */
+	private static final ExecutorService READ_AHEAD_POOL =
+		Executors.newFixedThreadPool(
+			NUM_READ_AHEAD_THREADS,
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				/**
+				 * Creates daemon threads so that the pool never prevents
+				 * the container from shutting down.
+				 */
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					Thread result =
+						new Thread(
+							runnable,
+							"image-zip-read-ahead-" +
+								count.incrementAndGet());
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/**
+	 * An image whose checksum and size are known and which is ready to be
+	 * written.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class PreparedImage {
+		private final PromptResponseImage image;
+		private final File file;
+		private final byte[] contents;
+		private final long size;
+		private final long crc;
+		private final boolean compressed;
+
+		/**
+		 * Creates a prepared image.
+		 *
+		 * @param image The reference to the image.
+		 *
+		 * @param file The local file with the image's contents or null if
+		 * 			   the contents are given.
+		 *
+		 * @param contents The image's contents or null if the file is given.
+		 *
+		 * @param size The number of bytes in the image.
+		 *
+		 * @param crc The CRC-32 of the image's contents.
+		 *
+		 * @param compressed Whether or not the contents are already
+		 * 					 compressed.
+		 */
+		private PreparedImage(
+				final PromptResponseImage image,
+				final File file,
+				final byte[] contents,
+				final long size,
+				final long crc,
+				final boolean compressed) {
+
+			this.image = image;
+			this.file = file;
+			this.contents = contents;
+			this.size = size;
+			this.crc = crc;
+			this.compressed = compressed;
+		}
+	}
+
+	private final ZipOutputStream zipStream;
+	private final LinkedList<Future<PreparedImage>> pending =
+		new LinkedList<Future<PreparedImage>>();
+	private final Set<UUID> seen = new HashSet<UUID>();
+
+	private long lastPromptResponseId = -1;
+	private int numWritten = 0;
+
+	/**
+	 * Creates a new writer.
+	 *
+	 * @param outputStream The stream to which the ZIP is written.
+	 */
+	ImageZipWriter(final OutputStream outputStream) {
+		zipStream = new ZipOutputStream(outputStream);
+	}
+
+	/**
+	 * Adds an image to the ZIP. It will begin to be prepared immediately, but
+	 * it will be written only after all of the images added before it. An
+	 * image that was already added is ignored.
+	 *
+	 * @param image The reference to the image.
+	 *
+	 * @throws IOException There was an error writing a previously added
+	 * 					   image.
+	 */
+	void add(final PromptResponseImage image) throws IOException {
+		if(! seen.add(image.getImageId())) {
+			return;
+		}
+
+		pending.add(
+			READ_AHEAD_POOL.submit(
+				new Callable<PreparedImage>() {
+					/**
+					 * Prepares the image.
+					 */
+					@Override
+					public PreparedImage call() {
+						return prepare(image);
+					}
+				}));
+
+		while(pending.size() > READ_AHEAD) {
+			writeNext();
+		}
+	}
+
+	/**
+	 * Writes all of the remaining images and finishes the ZIP. This does not
+	 * close the underlying stream.
+	 *
+	 * @throws IOException There was an error writing the ZIP.
+	 */
+	void finish() throws IOException {
+		while(! pending.isEmpty()) {
+			writeNext();
+		}
+
+		zipStream.finish();
+		zipStream.flush();
+	}
+
+	/**
+	 * Cancels any images that are still being prepared. This should be called
+	 * if the ZIP cannot be finished.
+	 */
+	void abort() {
+		for(Future<PreparedImage> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Returns the identifier of the last prompt response whose image was
+	 * written or skipped because it could not be read. Continuing after this
+	 * identifier will not repeat any image.
+	 *
+	 * @return The prompt response's identifier or -1 if no image has been
+	 * 		   written or skipped.
+	 */
+	long getLastPromptResponseId() {
+		return lastPromptResponseId;
+	}
+
+	/**
+	 * Returns the number of images that have been written.
+	 *
+	 * @return The number of images that have been written.
+	 */
+	int getNumWritten() {
+		return numWritten;
+	}
+
+	/**
+	 * Waits for the oldest pending image to be prepared and then writes it.
+	 * If it could not be prepared, it is skipped.
+	 *
+	 * @throws IOException There was an error writing the image.
+	 */
+	private void writeNext() throws IOException {
+		Future<PreparedImage> future = pending.removeFirst();
+
+		PreparedImage preparedImage;
+		try {
+			preparedImage = future.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+				"Interrupted while waiting for an image.");
+		}
+		catch(ExecutionException e) {
+			LOGGER.error("There was a problem preparing an image.", e);
+			return;
+		}
+
+		if((preparedImage.file == null) && (preparedImage.contents == null)) {
+			lastPromptResponseId =
+				preparedImage.image.getPromptResponseId();
+			return;
+		}
+
+		String imageId = preparedImage.image.getImageId().toString();
+		ZipEntry entry = new ZipEntry(imageId + ENTRY_SUFFIX);
+		if(preparedImage.compressed) {
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(preparedImage.size);
+			entry.setCompressedSize(preparedImage.size);
+			entry.setCrc(preparedImage.crc);
+		}
+		else {
+			entry.setMethod(ZipEntry.DEFLATED);
+		}
+		zipStream.putNextEntry(entry);
+
+		if(preparedImage.contents != null) {
+			zipStream.write(preparedImage.contents);
+		}
+		else {
+			InputStream imageStream =
+				new FileInputStream(preparedImage.file);
+			try {
+				byte[] buffer = new byte[CHUNK_SIZE];
+				int lengthRead;
+				while((lengthRead = imageStream.read(buffer)) != -1) {
+					zipStream.write(buffer, 0, lengthRead);
+				}
+			}
+			finally {
+				try {
+					imageStream.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn(
+						"There was a problem closing the image: " + imageId,
+						e);
+				}
+			}
+		}
+
+		zipStream.closeEntry();
+		lastPromptResponseId = preparedImage.image.getPromptResponseId();
+		numWritten++;
+	}
+
+	/**
+	 * Reads an image once to compute its checksum and size and to determine
+	 * whether or not it is already compressed. If the image is in a local
+	 * file, only the file is kept; otherwise, its contents are kept.
+	 *
+	 * @param image The reference to the image.
+	 *
+	 * @return The prepared image. If the image could not be read, both its
+	 * 		   file and contents will be null.
+	 */
+	private static PreparedImage prepare(final PromptResponseImage image) {
+		File file = Media.getLocalFile(image.getUrl());
+
+		InputStream imageStream = null;
+		try {
+			imageStream =
+				(file == null) ?
+					image.getUrl().openStream() :
+					new FileInputStream(file);
+
+			ByteArrayOutputStream contents =
+				(file == null) ? new ByteArrayOutputStream() : null;
+			CRC32 crc = new CRC32();
+			byte[] header = new byte[4];
+			long size = 0;
+
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int lengthRead;
+			while((lengthRead = imageStream.read(buffer)) != -1) {
+				if(size < header.length) {
+					System.arraycopy(
+						buffer,
+						0,
+						header,
+						(int) size,
+						(int) Math.min(header.length - size, lengthRead));
+				}
+
+				crc.update(buffer, 0, lengthRead);
+				if(contents != null) {
+					contents.write(buffer, 0, lengthRead);
+				}
+				size += lengthRead;
+			}
+
+			return
+				new PreparedImage(
+					image,
+					file,
+					(contents == null) ? null : contents.toByteArray(),
+					size,
+					crc.getValue(),
+					isCompressedImage(header));
+		}
+		catch(IOException e) {
+			LOGGER.info(
+				"The image could not be read, so it will not be added to the ZIP file: " +
+					image.getImageId().toString(),
+				e);
+			return new PreparedImage(image, null, null, 0, 0, false);
+		}
+		finally {
+			if(imageStream != null) {
+				try {
+					imageStream.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn(
+						"There was a problem closing the image: " +
+							image.getImageId().toString(),
+						e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the first bytes of an image to determine if it is a JPEG, PNG,
+	 * or GIF, all of which are already compressed.
+	 *
+	 * @param header The first four bytes of the image.
+	 *
+	 * @return Whether or not the image is already compressed.
+	 */
+	private static boolean isCompressedImage(final byte[] header) {
+		// JPEG: FF D8 FF
+		if(
+			(header[0] == (byte) 0xFF) &&
+			(header[1] == (byte) 0xD8) &&
+			(header[2] == (byte) 0xFF)) {
+
+			return true;
+		}
+		// PNG: 89 'P' 'N' 'G'
+		if(
+			(header[0] == (byte) 0x89) &&
+			(header[1] == 'P') &&
+			(header[2] == 'N') &&
+			(header[3] == 'G')) {
+
+			return true;
+		}
+		// GIF: 'G' 'I' 'F' '8'
+		if(
+			(header[0] == 'G') &&
+			(header[1] == 'I') &&
+			(header[2] == 'F') &&
+			(header[3] == '8')) {
+
+			return true;
+		}
+
+		return false;
+	}
+}
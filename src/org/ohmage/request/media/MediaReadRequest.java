@@ -1,6 +1,7 @@
 package org.ohmage.request.media;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,6 +25,7 @@ import org.ohmage.service.ImageServices;
 import org.ohmage.service.MediaServices;
 import org.ohmage.service.UserMediaServices;
 import org.ohmage.util.CookieUtils;
+import org.ohmage.util.FileResponseUtils;
 import org.ohmage.validator.ImageValidators;
 import org.ohmage.validator.MediaValidators;
 
@@ -156,43 +158,52 @@ public class MediaReadRequest extends UserRequest {
 
 		LOGGER.info("Responding to a media read request.");
 		
-		// Sets the HTTP headers to disable caching
-		expireResponse(httpResponse);
-				
 		// Open the connection to the media if it is not null.
 		InputStream mediaStream = null;
 			
 		try {
 			if(isFailed()) {
+				// Sets the HTTP headers to disable caching
+				expireResponse(httpResponse);
+				
 				httpResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 				super.respond(httpRequest, httpResponse, (JSONObject) null);
 			}
 			else {
+				String contentType;
+				String fileName;
+				File file;
+				String etag;
+				long fileSize;
 				
 				if (imageSize == null) {
+					contentType = media.getContentType();
+					fileName = media.getFileName();
+					file = media.getFile();
+					etag = FileResponseUtils.buildImmutableEtag(mediaId, null);
+					fileSize = media.getFileSize();
 					
-					mediaStream = media.getContentStream();
-					String contentType = media.getContentType();
-					
-					// set content type
-					if (contentType != null)
-						httpResponse.setContentType(contentType);
 					// only set content-disposition if media is not video/image/audio
-					if (contentType.startsWith("application") || contentType.startsWith("text"))
+					if ((contentType != null) && 
+						(contentType.startsWith("application") || contentType.startsWith("text")))
 						httpResponse.setHeader("Content-Disposition", 
-								"attachment; filename=" + media.getFileName());
-					
-					httpResponse.setHeader("Content-Length", 
-						new Long(media.getFileSize()).toString());
+								"attachment; filename=" + fileName);
 
 				} else { // it is an image/read request
-					mediaStream =  image.getInputStream(imageSize);
-					httpResponse.setContentType(image.getContentType(imageSize));
-					httpResponse.setHeader("Content-Length", 
-							new Long(image.getSizeBytes(imageSize)).toString());
-					
+					contentType = image.getContentType(imageSize);
+					fileName = null;
+					file = image.getFile(imageSize);
+					etag = 
+						FileResponseUtils.buildImmutableEtag(
+							mediaId, 
+							imageSize.getName());
+					fileSize = image.getSizeBytes(imageSize);
 				}
 				
+				// set content type
+				if (contentType != null)
+					httpResponse.setContentType(contentType);
+				
 				// If available, set the token.
 				if(getUser() != null) {
 					final String token = getUser().getToken(); 
@@ -203,6 +214,31 @@ public class MediaReadRequest extends UserRequest {
 								token);
 					}
 				}
+				
+				// Media never change once they are created, so clients may
+				// cache them and ask for only part of them.
+				if(file != null) {
+					FileResponseUtils.sendFile(
+						httpRequest, 
+						httpResponse, 
+						file, 
+						etag, 
+						true, 
+						FileResponseUtils.isCompressible(
+							contentType, 
+							fileName));
+					return;
+				}
+				
+				// Sets the HTTP headers to disable caching
+				expireResponse(httpResponse);
+				httpResponse.setHeader("Content-Length", 
+					Long.toString(fileSize));
+				
+				mediaStream = 
+					(imageSize == null) ? 
+						media.getContentStream() : 
+						image.getInputStream(imageSize);
 
 				// Creates the writer that will write the response, success or 
 				// fail.
@@ -242,6 +278,7 @@ public class MediaReadRequest extends UserRequest {
 		catch(DomainException e) {
 			LOGGER.error("Could not connect to the media file.", e);
 			this.setFailed(ErrorCode.SYSTEM_GENERAL_ERROR, "File not found.");
+			expireResponse(httpResponse);
 			httpResponse.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			super.respond(httpRequest, httpResponse, (JSONObject) null);
 			return;
@@ -263,6 +300,23 @@ public class MediaReadRequest extends UserRequest {
 					LOGGER.info("Could not close the stream.");
 				}
 			}
+			
+			// The media opens its stream when it is created, so it must be
+			// closed even if it was never read.
+			if(media != null) {
+				try {
+					media.getContentStream().close();
+				}
+				catch(DomainException e) {
+					LOGGER.info("Could not close the media stream.");
+				}
+				catch(IOException e) {
+					LOGGER.info("Could not close the media stream.");
+				}
+			}
+			if(image != null) {
+				image.closeImageStreams();
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.metrics.Metrics;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.UserServices;
+
+/**
+ * <p>Reads the server's performance metrics: the latency of each route and
+ * each of its phases, the latency of the queries, the hit ratios of the
+ * caches, and the current state of the thread and connection pools. The
+ * metrics are kept since the server was started. In order to read them the
+ * user must be an admin.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#OUTPUT_FORMAT}</td>
+ *     <td>Either {@value #OUTPUT_FORMAT_JSON}, the default, for the usual
+ *       JSON response or {@value #OUTPUT_FORMAT_PROMETHEUS} for the
+ *       Prometheus text exposition format.</td>
+ *     <td>false</td>
+ *   </tr>
+ * </table>
+ *
+ * @author John Jenkins
+ */
+public class MetricsReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(MetricsReadRequest.class);
+
+	/**
+	 * The output format for the JSON response.
+	 */
+	public static final String OUTPUT_FORMAT_JSON = "json";
+	/**
+	 * The output format for the Prometheus text exposition format.
+	 */
+	public static final String OUTPUT_FORMAT_PROMETHEUS = "prometheus";
+
+	private static final String PROMETHEUS_CONTENT_TYPE =
+		"text/plain; version=0.0.4; charset=utf-8";
+
+	private final boolean prometheus;
+
+	/**
+	 * Creates a metrics read request.
+	 *
+	 * @param httpRequest The HttpServletRequest with the parameters.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public MetricsReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, null, TokenLocation.EITHER, null);
+
+		LOGGER.info("Creating a metrics read request.");
+
+		boolean tPrometheus = false;
+
+		if(! isFailed()) {
+			try {
+				String[] t = getParameterValues(InputKeys.OUTPUT_FORMAT);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.SERVER_INVALID_OUTPUT_FORMAT,
+						"Multiple output formats were found: " +
+							InputKeys.OUTPUT_FORMAT);
+				}
+				else if(t.length == 1) {
+					String format = t[0].trim().toLowerCase();
+					if(OUTPUT_FORMAT_PROMETHEUS.equals(format)) {
+						tPrometheus = true;
+					}
+					else if(! OUTPUT_FORMAT_JSON.equals(format)) {
+						throw new ValidationException(
+							ErrorCode.SERVER_INVALID_OUTPUT_FORMAT,
+							"The output format is unknown: " + t[0]);
+					}
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		prometheus = tPrometheus;
+	}
+
+	/**
+	 * Services the request.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the metrics read request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Verifying the user is an admin.");
+			UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Replies to the request with the metrics as they are when the response
+	 * is written.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to the metrics read request.");
+
+		if(isFailed() || (! prometheus)) {
+			JSONObject result = null;
+			if(! isFailed()) {
+				try {
+					result = Metrics.toJson();
+				}
+				catch(JSONException e) {
+					LOGGER.error("Could not build the metrics.", e);
+					setFailed();
+				}
+			}
+
+			respond(httpRequest, httpResponse, (JSONObject) null, result);
+			return;
+		}
+
+		refreshTokenCookie(httpResponse);
+		expireResponse(httpResponse);
+		httpResponse.setContentType(PROMETHEUS_CONTENT_TYPE);
+
+		Writer writer = null;
+		try {
+			writer =
+				new BufferedWriter(
+					new OutputStreamWriter(
+						getOutputStream(httpRequest, httpResponse),
+						"UTF-8"));
+
+			writer.write(Metrics.toPrometheus());
+		}
+		catch(IOException e) {
+			LOGGER.error("Unable to write response message. Aborting.", e);
+		}
+		finally {
+			if(writer != null) {
+				try {
+					writer.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn("Unable to close the writer.", e);
+				}
+			}
+		}
+	}
+}
@@ -19,12 +19,17 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonStreamContext;
+import org.codehaus.jackson.JsonToken;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,6 +47,7 @@ import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
 import org.ohmage.request.observer.StreamUploadRequest;
 import org.ohmage.service.ObserverServices;
+import org.ohmage.service.UserActivityServices;
 
 /**
  * <p>Creates a new Mobility data point. There are no restrictions on who can
@@ -159,6 +165,8 @@ import org.ohmage.service.ObserverServices;
 public class MobilityUploadRequest extends Request {
 	private static final Logger LOGGER = Logger.getLogger(MobilityUploadRequest.class);
 	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
 	private static final String OBSERVER_ID = "edu.ucla.cens.Mobility";
 	private static final long OBSERVER_VERSION = 2012061300;
 
@@ -168,6 +176,7 @@ public class MobilityUploadRequest extends Request {
 	private static final String JSON_KEY_INVALID_INDICIES = "invalid_indicies";
 	
 	private final Collection<String> validIds;
+	private final Collection<MobilityPoint> validPoints;
 	private final Map<Integer, String> invalidPointsMap;
 	private final Collection<JSONObject> invalidPointsJson;
 	
@@ -190,6 +199,7 @@ public class MobilityUploadRequest extends Request {
 		LOGGER.info("Creating a Mobility upload request.");
 		
 		validIds = new LinkedList<String>();
+		validPoints = new LinkedList<MobilityPoint>();
 		invalidPointsMap = new HashMap<Integer, String>();
 		invalidPointsJson = new LinkedList<JSONObject>();
 		
@@ -211,44 +221,10 @@ public class MobilityUploadRequest extends Request {
 							ErrorCode.MOBILITY_INVALID_DATA);
 				}
 				else {
-					JSONArray jsonDataArray;
-					try {
-						jsonDataArray = new JSONArray(dataArray[0]);
-					}
-					catch(JSONException e) {
-						throw new ValidationException(
-							ErrorCode.MOBILITY_INVALID_DATA,
-							"The data is not well formed.",
-							e);
-					}
-					
 					JSONArray resultDataArray = new JSONArray();
-					for(int i = 0; i < jsonDataArray.length(); i++) {
-						JSONObject pointJson;
-						try {
-							pointJson = jsonDataArray.getJSONObject(i);
-						}
-						catch(JSONException e) {
-							throw new ValidationException(
-								ErrorCode.MOBILITY_INVALID_DATA,
-								"A Mobility data point was not a JSON object.",
-								e);
-						}
-						
-						MobilityPoint point;
-						try {
-							point = 
-								new MobilityPoint(
-									pointJson,
-									MobilityPoint.PrivacyState.PRIVATE);
-						}
-						catch(DomainException e) {
-							invalidPointsMap.put(i, e.getMessage());
-							invalidPointsJson.add(pointJson);
-							continue;
-						}
-
+					for(MobilityPoint point : decodePoints(dataArray[0])) {
 						validIds.add(point.getId().toString());
+						validPoints.add(point);
 						
 						try {
 							JSONObject jsonPoint = new JSONObject();
@@ -340,6 +316,78 @@ public class MobilityUploadRequest extends Request {
 		
 		streamUploadRequest = tStreamUploadRequest;
 	}
+	
+	/**
+	 * Decodes the uploaded Mobility points with a single parser. The points
+	 * are decoded straight from the parser, and only the invalid ones are
+	 * read into JSONObjects, which are kept for the audit.
+	 * 
+	 * @param data The uploaded JSON array of Mobility points.
+	 * 
+	 * @return The valid Mobility points.
+	 * 
+	 * @throws ValidationException The data is not a well-formed JSON array 
+	 * 							   or one of its points is not a JSON object.
+	 */
+	private List<MobilityPoint> decodePoints(
+			final String data)
+			throws ValidationException {
+		
+		List<MobilityPoint> result = new LinkedList<MobilityPoint>();
+		try {
+			JsonParser parser = JSON_FACTORY.createJsonParser(data);
+			if(parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new ValidationException(
+					ErrorCode.MOBILITY_INVALID_DATA,
+					"The data is not well formed.");
+			}
+			JsonStreamContext arrayContext = parser.getParsingContext();
+			
+			for(int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+				if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+					throw new ValidationException(
+						ErrorCode.MOBILITY_INVALID_DATA,
+						"A Mobility data point was not a JSON object.");
+				}
+				int start = (int) parser.getTokenLocation().getCharOffset();
+				
+				try {
+					result.add(
+						new MobilityPoint(
+							parser,
+							MobilityPoint.PrivacyState.PRIVATE));
+				}
+				catch(DomainException e) {
+					// Skip the rest of the point, wherever the decoder 
+					// stopped, and keep its text.
+					while(parser.getParsingContext() != arrayContext) {
+						parser.nextToken();
+					}
+					int end = (int) parser.getCurrentLocation().getCharOffset();
+					
+					invalidPointsMap.put(i, e.getMessage());
+					try {
+						invalidPointsJson.add(
+							new JSONObject(data.substring(start, end)));
+					}
+					catch(JSONException notObject) {
+						throw new ValidationException(
+							ErrorCode.MOBILITY_INVALID_DATA,
+							"A Mobility data point was not a JSON object.",
+							notObject);
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new ValidationException(
+				ErrorCode.MOBILITY_INVALID_DATA,
+				"The data is not well formed.",
+				e);
+		}
+		
+		return result;
+	}
 
 	/**
 	 * Services the request.
@@ -362,6 +410,20 @@ public class MobilityUploadRequest extends Request {
 				
 			LOGGER.info("Delegating to the stream upload service layer.");
 			streamUploadRequest.service();
+			
+			if((! isFailed()) && (! streamUploadRequest.isFailed())) {
+				// The counters are periodically recomputed, so a failure here
+				// doesn't fail the upload.
+				try {
+					LOGGER.info("Updating the user's activity counters.");
+					UserActivityServices.instance().recordMobilityUploads(
+						streamUploadRequest.getUser().getUsername(), 
+						validPoints);
+				}
+				catch(ServiceException e) {
+					LOGGER.warn("The user's activity counters could not be updated.", e);
+				}
+			}
 		}
 	}
 
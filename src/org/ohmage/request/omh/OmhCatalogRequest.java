@@ -333,9 +333,8 @@ public class OmhCatalogRequest extends UserRequest {
 						String.valueOf(stream.getVersion()));
 					
 					// Set the payload definition.
-					generator.writeObjectField(
-						"payload_definition", 
-						stream.getSchema().readValueAsTree());
+					generator.writeFieldName("payload_definition");
+					generator.writeRawValue(stream.getSchemaJson());
 					
 					// Set this as not being summarizable. This would be an
 					// interesting and potentially useful feature, but it would
@@ -386,9 +386,8 @@ public class OmhRegistryReadRequest extends Request {
 						String.valueOf(stream.getVersion()));
 					
 					// Set the payload definition.
-					generator.writeObjectField(
-						"payload_definition", 
-						stream.getSchema().readValueAsTree());
+					generator.writeFieldName("payload_definition");
+					generator.writeRawValue(stream.getSchemaJson());
 
 					// End this "payload ID's" object.
 					generator.writeEndObject();
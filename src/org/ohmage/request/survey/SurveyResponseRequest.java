@@ -16,6 +16,7 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.PromptResponseImage;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
 import org.ohmage.exception.InvalidRequestException;
@@ -415,24 +416,7 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		}
 		
 		try {
-		    LOGGER.info("Retrieving campaign configuration.");
-			campaign = CampaignServices.instance().getCampaign(campaignId);
-			if(campaign == null) {
-				throw
-					new ServiceException(
-						ErrorCode.CAMPAIGN_INVALID_ID,
-						"The campaign does not exist.");
-			}
-			
-			if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
-				LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
-			}
-			
-			if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
-				LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
-			}
+			retrieveCampaign();
 		    
 			LOGGER.info("Dispatching to the data layer.");
 			surveyResponseCount = 
@@ -475,6 +459,67 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		}
 	}
 	
+	/**
+	 * Authenticates the requester and retrieves the campaign, verifying that
+	 * the requested survey and prompt IDs belong to it. This is for requests
+	 * that do not read the survey responses themselves but gather some other
+	 * information about them, e.g.
+	 * {@link #readPromptResponseImages(long, long)}.
+	 * 
+	 * @return True if the campaign was retrieved; false if the request 
+	 * 		   failed.
+	 */
+	protected boolean serviceCampaign() {
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return false;
+		}
+		
+		try {
+			retrieveCampaign();
+			return true;
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads a page of references to the images from the photo prompt 
+	 * responses that match this request's parameters. This must only be called
+	 * after {@link #serviceCampaign()} has succeeded.
+	 * 
+	 * @param afterPromptResponseId Only references from prompt responses 
+	 * 								after this one are returned. Use -1 to 
+	 * 								begin with the first one.
+	 * 
+	 * @param limit The maximum number of references to return.
+	 * 
+	 * @return The references ordered by their prompt response.
+	 * 
+	 * @throws ServiceException There was an error reading the references.
+	 */
+	protected List<PromptResponseImage> readPromptResponseImages(
+			final long afterPromptResponseId,
+			final long limit)
+			throws ServiceException {
+		
+		return SurveyResponseServices.instance().readPromptResponseImages(
+				campaign,
+				getUser().getUsername(),
+				surveyResponseIds,
+				(URN_SPECIAL_ALL_LIST.equals(usernames) ? null : usernames), 
+				startDate, 
+				endDate, 
+				privacyState, 
+				(URN_SPECIAL_ALL_LIST.equals(surveyIds)) ? null : surveyIds, 
+				(URN_SPECIAL_ALL_LIST.equals(promptIds)) ? null : promptIds,
+				promptResponseSearchTokens,
+				afterPromptResponseId,
+				limit);
+	}
+	
 	/**
 	 * The campaign's unique identifier as supplied by the requester.
 	 * 
@@ -535,4 +580,32 @@ public abstract class SurveyResponseRequest extends UserRequest {
 	public long getSurveyResponseCount() {
 		return surveyResponseCount;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Retrieves the campaign and verifies that the requested prompt and 
+	 * survey IDs belong to it.
+	 * 
+	 * @throws ServiceException The campaign doesn't exist, one of the IDs
+	 * 							doesn't belong to it, or there was an error.
+	 */
+	private void retrieveCampaign() throws ServiceException {
+	    LOGGER.info("Retrieving campaign configuration.");
+		campaign = CampaignServices.instance().getCampaign(campaignId);
+		if(campaign == null) {
+			throw
+				new ServiceException(
+					ErrorCode.CAMPAIGN_INVALID_ID,
+					"The campaign does not exist.");
+		}
+		
+		if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
+			LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
+			SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
+		}
+		
+		if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
+			LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
+			SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
+		}
+	}
+}
@@ -24,6 +24,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.SurveyResponse;
@@ -35,6 +37,7 @@ import org.ohmage.request.UserRequest;
 import org.ohmage.service.SurveyResponseServices;
 import org.ohmage.service.UserServices;
 import org.ohmage.service.UserSurveyResponseServices;
+import org.ohmage.validator.CampaignValidators;
 import org.ohmage.validator.SurveyResponseValidators;
 
 /**
@@ -72,8 +75,37 @@ import org.ohmage.validator.SurveyResponseValidators;
  *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#SURVEY_RESPONSE_ID_LIST}</td>
  *     <td>A list of survey responses' unique identifier.</td>
- *     <td>Either this or {@value org.ohmage.request.InputKeys#SURVEY_ID} but
- *       not both.</td>
+ *     <td>Either this, {@value org.ohmage.request.InputKeys#SURVEY_ID}, or
+ *       {@value org.ohmage.request.InputKeys#CAMPAIGN_URN}.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CAMPAIGN_URN}</td>
+ *     <td>Instead of a list of survey responses, updates all of the survey
+ *       responses in this campaign that match the user list and dates
+ *       below. The responses are updated with a single statement, so this
+ *       should be favored when updating a large number of them.</td>
+ *     <td>Either this or
+ *       {@value org.ohmage.request.InputKeys#SURVEY_RESPONSE_ID_LIST}.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#USER_LIST}</td>
+ *     <td>With {@value org.ohmage.request.InputKeys#CAMPAIGN_URN}, limits
+ *       the update to these users' survey responses. This may be 
+ *       {@value org.ohmage.request.survey.SurveyResponseRequest#URN_SPECIAL_ALL}
+ *       for all users, which is the default.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#START_DATE}</td>
+ *     <td>With {@value org.ohmage.request.InputKeys#CAMPAIGN_URN}, limits
+ *       the update to the survey responses on or after this date.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#END_DATE}</td>
+ *     <td>With {@value org.ohmage.request.InputKeys#CAMPAIGN_URN}, limits
+ *       the update to the survey responses on or before this date.</td>
+ *     <td>false</td>
  *   </tr>
  *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#PRIVACY_STATE}</td>
@@ -88,9 +120,18 @@ import org.ohmage.validator.SurveyResponseValidators;
 public class SurveyResponseUpdateRequest extends UserRequest {
 	private static final Logger LOGGER = Logger.getLogger(SurveyResponseUpdateRequest.class);
 	
+	private static final String JSON_KEY_COUNT = "count";
+	
 	private final Set<UUID> surveyResponseIds;
 	private final SurveyResponse.PrivacyState privacyState;
 	
+	private final String campaignId;
+	private final Set<String> usernames;
+	private final DateTime startDate;
+	private final DateTime endDate;
+	
+	private int numUpdated = 0;
+	
 	/**
 	 * Creates a survey response delete request.
 	 * 
@@ -110,6 +151,11 @@ public class SurveyResponseUpdateRequest extends UserRequest {
 		Set<UUID> tSurveyResponseIds = null;
 		SurveyResponse.PrivacyState tPrivacyState = null;
 		
+		String tCampaignId = null;
+		Set<String> tUsernames = null;
+		DateTime tStartDate = null;
+		DateTime tEndDate = null;
+		
 		if(! isFailed()) {
 			try {
 				
@@ -171,13 +217,87 @@ public class SurveyResponseUpdateRequest extends UserRequest {
 									surveyIds[0]);
 				}
 				
-				if(tSurveyResponseIds == null) {
+				// Instead of a list of survey responses, the update may be
+				// for all of the survey responses in a campaign that match
+				// some filters.
+				surveyIds = getParameterValues(InputKeys.CAMPAIGN_URN);
+				if(surveyIds.length > 1) {
+					throw new ValidationException(
+							ErrorCode.CAMPAIGN_INVALID_ID, 
+							"Multiple campaign IDs were found: " + 
+									InputKeys.CAMPAIGN_URN);
+				}
+				else if(surveyIds.length == 1) {
+					tCampaignId = 
+							CampaignValidators.validateCampaignId(
+									surveyIds[0]);
+				}
+				
+				if((tSurveyResponseIds != null) && (tCampaignId != null)) {
+					throw new ValidationException(
+							ErrorCode.SURVEY_INVALID_SURVEY_ID,
+							"Conflicting parameters were given, " +
+									InputKeys.SURVEY_RESPONSE_ID_LIST +
+								" and " +
+									InputKeys.CAMPAIGN_URN +
+								".");
+				}
+				else if((tSurveyResponseIds == null) && (tCampaignId == null)) {
 					throw new ValidationException(
 							ErrorCode.SURVEY_INVALID_SURVEY_ID,
 							"A parameter was missing: " +
 									InputKeys.SURVEY_RESPONSE_ID_LIST);
 				}
 				
+				if(tCampaignId != null) {
+					surveyIds = getParameterValues(InputKeys.USER_LIST);
+					if(surveyIds.length > 1) {
+						throw new ValidationException(
+								ErrorCode.SURVEY_MALFORMED_USER_LIST, 
+								"Mutliple user lists were given: " + 
+										InputKeys.USER_LIST);
+					}
+					else if(surveyIds.length == 1) {
+						tUsernames = 
+								SurveyResponseValidators.validateUsernames(
+										surveyIds[0]);
+						
+						// All users is the same as no user list.
+						if((tUsernames != null) && 
+								tUsernames.contains(
+									SurveyResponseRequest.URN_SPECIAL_ALL)) {
+							
+							tUsernames = null;
+						}
+					}
+					
+					surveyIds = getParameterValues(InputKeys.START_DATE);
+					if(surveyIds.length > 1) {
+						throw new ValidationException(
+								ErrorCode.SERVER_INVALID_DATE, 
+								"Multiple start dates were given: " + 
+										InputKeys.START_DATE);
+					}
+					else if(surveyIds.length == 1) {
+						tStartDate = 
+								SurveyResponseValidators.validateStartDate(
+										surveyIds[0]);
+					}
+					
+					surveyIds = getParameterValues(InputKeys.END_DATE);
+					if(surveyIds.length > 1) {
+						throw new ValidationException(
+								ErrorCode.SERVER_INVALID_DATE, 
+								"Multiple end dates were given: " + 
+										InputKeys.END_DATE);
+					}
+					else if(surveyIds.length == 1) {
+						tEndDate = 
+								SurveyResponseValidators.validateEndDate(
+										surveyIds[0]);
+					}
+				}
+				
 				LOGGER.info("Validating privacy_state parameter.");
 				String[] privacyStates = getParameterValues(InputKeys.PRIVACY_STATE);
 				if(privacyStates.length == 0) {
@@ -205,6 +325,11 @@ public class SurveyResponseUpdateRequest extends UserRequest {
 		
 		surveyResponseIds = tSurveyResponseIds;
 		privacyState = tPrivacyState;
+		
+		campaignId = tCampaignId;
+		usernames = tUsernames;
+		startDate = tStartDate;
+		endDate = tEndDate;
 	}
 
 	/**
@@ -224,20 +349,43 @@ public class SurveyResponseUpdateRequest extends UserRequest {
 				UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
 			}
 			catch(ServiceException e) {
-				LOGGER.info("Verifying that the user is allowed to update the survey response.");
-				for(UUID surveyResponseId : surveyResponseIds) {
+				if(campaignId == null) {
+					LOGGER.info("Verifying that the user is allowed to update the survey responses.");
+					UserSurveyResponseServices
+						.instance()
+							.verifyUserCanUpdateOrDeleteSurveyResponses(
+									this.getUser().getUsername(), 
+									surveyResponseIds);
+				}
+				else {
+					LOGGER.info("Verifying that the user is allowed to update the survey responses in the campaign.");
 					UserSurveyResponseServices
 						.instance()
-							.verifyUserCanUpdateOrDeleteSurveyResponse(
+							.verifyUserCanUpdateOrDeleteSurveyResponsesInCampaign(
 									this.getUser().getUsername(), 
-									surveyResponseId);
+									campaignId, 
+									usernames);
 				}
 			}
 			
-			LOGGER.info("Updating the survey response.");
-			SurveyResponseServices.instance().updateSurveyResponsesPrivacyState(
-					this.surveyResponseIds, 
-					this.privacyState);
+			if(campaignId == null) {
+				LOGGER.info("Updating the survey responses.");
+				numUpdated =
+					SurveyResponseServices.instance().updateSurveyResponsesPrivacyState(
+							this.surveyResponseIds, 
+							this.privacyState);
+			}
+			else {
+				LOGGER.info("Updating the survey responses in the campaign.");
+				numUpdated =
+					SurveyResponseServices.instance().updateSurveyResponsesPrivacyState(
+							campaignId, 
+							usernames, 
+							startDate, 
+							endDate, 
+							null, 
+							privacyState);
+			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -250,6 +398,19 @@ public class SurveyResponseUpdateRequest extends UserRequest {
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		super.respond(httpRequest, httpResponse, (JSONObject) null);
+		// Report how many survey responses actually changed.
+		JSONObject metadata = null;
+		if(! isFailed()) {
+			try {
+				metadata = new JSONObject();
+				metadata.put(JSON_KEY_COUNT, numUpdated);
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the metadata.", e);
+				setFailed();
+			}
+		}
+		
+		super.respond(httpRequest, httpResponse, metadata, null);
 	}
 }
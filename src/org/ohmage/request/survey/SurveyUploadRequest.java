@@ -50,6 +50,7 @@ import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.CampaignServices;
 import org.ohmage.service.SurveyResponseServices;
+import org.ohmage.service.UserActivityServices;
 import org.ohmage.service.UserCampaignServices;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
@@ -550,6 +551,18 @@ public class SurveyUploadRequest extends UserRequest {
 					fileContentsMap);
 
 			    LOGGER.info("Found " + duplicateIndexList.size() + " duplicate survey uploads");
+			    
+			    LOGGER.info("Updating the user's activity counters.");
+			    List<SurveyResponse> createdSurveyResponses = 
+			    	new ArrayList<SurveyResponse>(surveyResponses.size());
+			    for(int i = 0; i < surveyResponses.size(); i++) {
+			    	if(! duplicateIndexList.contains(i)) {
+			    		createdSurveyResponses.add(surveyResponses.get(i));
+			    	}
+			    }
+			    recordActivity(
+			    	((owner == null) ? getUser().getUsername() : owner), 
+			    	createdSurveyResponses);
 			}
 		}
 		catch(ServiceException e) {
@@ -559,6 +572,29 @@ public class SurveyUploadRequest extends UserRequest {
 		
 	}
 
+	/**
+	 * Adds the created survey responses to the user's activity counters. The
+	 * counters are periodically recomputed, so a failure here is logged 
+	 * instead of failing the upload.
+	 * 
+	 * @param username The username of the user that owns the responses.
+	 * 
+	 * @param createdSurveyResponses The survey responses that were created.
+	 */
+	private void recordActivity(
+			final String username,
+			final List<SurveyResponse> createdSurveyResponses) {
+		
+		try {
+			UserActivityServices.instance().recordSurveyUploads(
+				username, 
+				createdSurveyResponses);
+		}
+		catch(ServiceException e) {
+			LOGGER.warn("The user's activity counters could not be updated.", e);
+		}
+	}
+
 	/**
 	 * Responds to the image upload request with success or a failure message
 	 * that contains a failure code and failure text.
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.user;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.Clazz;
+import org.ohmage.domain.NewUser;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.ClassServices;
+import org.ohmage.service.UserServices;
+import org.ohmage.validator.ClassValidators;
+import org.ohmage.validator.UserValidators;
+
+/**
+ * <p>Creates a batch of new users and, optionally, adds them to classes.
+ * Each user that cannot be created, because it is invalid or its username or
+ * personal information is taken, is reported and the rest are still created.
+ * The requester must be an admin.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NEW_USER_LIST}</td>
+ *     <td>A JSON array of JSON objects, one for each new user. Each object
+ *       must have a {@value org.ohmage.request.InputKeys#USERNAME} and
+ *       {@value org.ohmage.request.InputKeys#PASSWORD} and may have an
+ *       {@value org.ohmage.request.InputKeys#EMAIL_ADDRESS},
+ *       {@value org.ohmage.request.InputKeys#USER_ADMIN},
+ *       {@value org.ohmage.request.InputKeys#USER_ENABLED},
+ *       {@value org.ohmage.request.InputKeys#NEW_ACCOUNT},
+ *       {@value org.ohmage.request.InputKeys#CAMPAIGN_CREATION_PRIVILEGE},
+ *       and all of {@value org.ohmage.request.InputKeys#FIRST_NAME},
+ *       {@value org.ohmage.request.InputKeys#LAST_NAME},
+ *       {@value org.ohmage.request.InputKeys#ORGANIZATION}, and
+ *       {@value org.ohmage.request.InputKeys#PERSONAL_ID}.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLASS_URN_LIST}</td>
+ *     <td>A list of classes to which the new users will be added.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLASS_ROLE}</td>
+ *     <td>The new users' role in the classes. The default is
+ *       {@link org.ohmage.domain.Clazz.Role#RESTRICTED}.</td>
+ *     <td>false</td>
+ *   </tr>
+ * </table>
+ *
+ * @author John Jenkins
+ */
+public class UserBatchCreationRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(UserBatchCreationRequest.class);
+
+	private static final String JSON_KEY_CREATED = "created";
+	private static final String JSON_KEY_FAILED = "failed";
+	private static final String JSON_KEY_USERNAME = "username";
+	private static final String JSON_KEY_REASON = "reason";
+
+	private final List<NewUser> newUsers;
+	private final Set<String> classIds;
+	private final Clazz.Role classRole;
+
+	/**
+	 * The users that were invalid before the request was serviced along with
+	 * the reasons why. A user is given as its username, if it had one.
+	 */
+	private final List<String[]> invalidUsers;
+
+	private Map<String, String> failedUsers;
+
+	/**
+	 * Creates a user batch creation request.
+	 *
+	 * @param httpRequest The HttpServletRequest with the parameters.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public UserBatchCreationRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, null, TokenLocation.PARAMETER, null);
+
+		List<NewUser> tNewUsers = new ArrayList<NewUser>();
+		Set<String> tClassIds = null;
+		Clazz.Role tClassRole = null;
+		List<String[]> tInvalidUsers = new ArrayList<String[]>();
+
+		if(! isFailed()) {
+			LOGGER.info("Creating a user batch creation request.");
+
+			try {
+				String[] t;
+
+				t = getParameterValues(InputKeys.NEW_USER_LIST);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.USER_INVALID_NEW_USER_LIST,
+							"Multiple new user lists were given: " +
+								InputKeys.NEW_USER_LIST);
+				}
+				else if(t.length == 1) {
+					List<JSONObject> users =
+							UserValidators.validateNewUserList(t[0]);
+
+					if(users == null) {
+						throw new ValidationException(
+								ErrorCode.USER_INVALID_NEW_USER_LIST,
+								"The list of new users is empty: " +
+									InputKeys.NEW_USER_LIST);
+					}
+
+					// Validate each user on its own so that an invalid user
+					// is reported instead of failing the whole request.
+					// Repeated usernames are reported here so that each
+					// failure in the response refers to a single user.
+					Set<String> usernames = new HashSet<String>();
+					for(JSONObject user : users) {
+						String username =
+								user.optString(InputKeys.USERNAME, null);
+
+						try {
+							NewUser newUser =
+									UserValidators.validateNewUser(user);
+
+							if(
+								usernames.add(
+									newUser.getUsername().toLowerCase())) {
+								
+								tNewUsers.add(newUser);
+							}
+							else {
+								tInvalidUsers.add(
+									new String[] {
+										username,
+										"The username is repeated in the batch."
+									});
+							}
+						}
+						catch(ValidationException e) {
+							tInvalidUsers.add(
+								new String[] { username, e.getMessage() });
+						}
+					}
+				}
+				else {
+					throw new ValidationException(
+							ErrorCode.USER_INVALID_NEW_USER_LIST,
+							"Missing the required list of new users: " +
+								InputKeys.NEW_USER_LIST);
+				}
+
+				t = getParameterValues(InputKeys.CLASS_URN_LIST);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.CLASS_INVALID_ID,
+							"Multiple class ID lists were given: " +
+								InputKeys.CLASS_URN_LIST);
+				}
+				else if(t.length == 1) {
+					tClassIds = ClassValidators.validateClassIdList(t[0]);
+				}
+
+				t = getParameterValues(InputKeys.CLASS_ROLE);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.CLASS_INVALID_ROLE,
+							"Multiple class roles were given: " +
+								InputKeys.CLASS_ROLE);
+				}
+				else if(t.length == 1) {
+					tClassRole = ClassValidators.validateClassRole(t[0]);
+				}
+
+				if(tClassRole == null) {
+					tClassRole = Clazz.Role.RESTRICTED;
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		newUsers = tNewUsers;
+		classIds = tClassIds;
+		classRole = tClassRole;
+		invalidUsers = tInvalidUsers;
+
+		failedUsers = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Services the request.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the user batch creation request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Verifying that the requesting user is an admin.");
+			UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
+
+			if(classIds != null) {
+				LOGGER.info("Verifying that the classes exist.");
+				ClassServices.instance().checkClassesExistence(classIds, true);
+			}
+
+			LOGGER.info("Creating the users.");
+			failedUsers =
+				UserServices
+					.instance()
+					.createUsers(newUsers, false, classIds, classRole);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Responds with the usernames of the users that were created and each
+	 * user that was not created along with the reason why.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		JSONObject result = new JSONObject();
+
+		if(! isFailed()) {
+			try {
+				JSONArray created = new JSONArray();
+				for(NewUser user : newUsers) {
+					if(! failedUsers.containsKey(user.getUsername())) {
+						created.put(user.getUsername());
+					}
+				}
+				result.put(JSON_KEY_CREATED, created);
+
+				JSONArray failed = new JSONArray();
+				for(String[] invalidUser : invalidUsers) {
+					failed.put(
+						createFailure(invalidUser[0], invalidUser[1]));
+				}
+				for(String username : failedUsers.keySet()) {
+					failed.put(
+						createFailure(username, failedUsers.get(username)));
+				}
+				result.put(JSON_KEY_FAILED, failed);
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the response.", e);
+				setFailed();
+			}
+		}
+
+		super.respond(httpRequest, httpResponse, JSON_KEY_DATA, result);
+	}
+
+	/**
+	 * Creates the JSON object that describes a user that was not created.
+	 *
+	 * @param username The user's username, which may be null.
+	 *
+	 * @param reason The reason the user was not created.
+	 *
+	 * @return The JSON object.
+	 *
+	 * @throws JSONException There was an error building the object.
+	 */
+	private static JSONObject createFailure(
+			final String username,
+			final String reason)
+			throws JSONException {
+
+		JSONObject failure = new JSONObject();
+		failure.put(JSON_KEY_USERNAME, username);
+		failure.put(JSON_KEY_REASON, reason);
+		return failure;
+	}
+}
@@ -24,14 +24,16 @@ import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.UserActivityStats;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
+import org.ohmage.service.UserActivityServices;
 import org.ohmage.service.UserCampaignServices;
 import org.ohmage.service.UserMobilityServices;
-import org.ohmage.service.UserSurveyResponseServices;
+import org.ohmage.service.UserServices;
 import org.ohmage.validator.CampaignValidators;
 import org.ohmage.validator.UserValidators;
 
@@ -41,7 +43,14 @@ import org.ohmage.validator.UserValidators;
  * have sufficient permissions to view the user's survey responses, at least 
  * the shared ones, and their Mobility points, at least the shared ones. The
  * user may authenticate themselves with a username and password or by 
- * supplying an authentication token.
+ * supplying an authentication token.<br />
+ * <br />
+ * The statistics are read from the user's activity counters, which are 
+ * updated as data is uploaded and periodically recomputed from the data, and
+ * the past day's percentages are counted to the hour. The survey counters 
+ * are kept for each campaign and survey response privacy state, so only 
+ * those for the survey responses that the requester may see are counted. 
+ * Admins may see all of them.
  * <table border="1">
  *   <tr>
  *     <td>Parameter Name</td>
@@ -100,6 +109,9 @@ public class UserStatsReadRequest extends UserRequest {
 	
 	private static final Double DEFAULT_VALUE_IF_NO_MOBILITY_UPLOADS = Double.MAX_VALUE;
 	private static final Double DEFAULT_VALUE_IF_NO_MOBILITY_UPLOADS_IN_LAST_DAY = -1.0;
+	private static final Double DEFAULT_VALUE_IF_NO_SURVEY_UPLOADS_IN_LAST_DAY = -1.0;
+	
+	private static final long MILLIS_IN_A_HOUR = 60 * 60 * 1000;
 	
 	// Parameters
 	private final String campaignId;
@@ -183,17 +195,37 @@ public class UserStatsReadRequest extends UserRequest {
 			LOGGER.info("Verifying that the requester has permissions to view the mobility information.");
 			UserMobilityServices.instance().requesterCanViewUsersMobilityData(getUser().getUsername(), username);
 			
-			LOGGER.info("Gathering the number of hours since the last survey upload.");
-			hoursSinceLastSurveyUpload = UserSurveyResponseServices.instance().getHoursSinceLastSurveyUplaod(getUser().getUsername(), username);
+			// Admins may see all of the user's survey responses. Everyone
+			// else only has the survey responses that they may see counted.
+			String requester = getUser().getUsername();
+			if(UserServices.instance().isUserAnAdmin(requester)) {
+				requester = null;
+			}
+			
+			LOGGER.info("Gathering the user's activity counters.");
+			UserActivityStats stats = UserActivityServices.instance().getUserActivityStats(requester, username);
+			
+			long now = System.currentTimeMillis();
+			
+			Long lastSurveyMillis = stats.getLastSurveyMillis();
+			hoursSinceLastSurveyUpload = 
+					(lastSurveyMillis == null) ? 
+							Double.MAX_VALUE : 
+							new Double(now - lastSurveyMillis) / new Double(MILLIS_IN_A_HOUR);
 			
-			LOGGER.info("Gathering the number of hours since the last Mobility upload.");
-			hoursSinceLastMobilityUpload = UserMobilityServices.instance().getHoursSinceLastMobilityUpload(username);
+			Double surveyLocationPercentage = stats.getSurveyLocationPercentage();
+			pastDaySuccessfulSurveyLocationUpdatesPercentage = 
+					(surveyLocationPercentage == null) ? 
+							DEFAULT_VALUE_IF_NO_SURVEY_UPLOADS_IN_LAST_DAY : 
+							surveyLocationPercentage;
 			
-			LOGGER.info("Gathering the percentage of successful location uploads from surveys in the last day.");
-			pastDaySuccessfulSurveyLocationUpdatesPercentage = UserSurveyResponseServices.instance().getPercentageOfNonNullLocationsOverPastDay(getUser().getUsername(), username);
+			Long lastMobilityMillis = stats.getLastMobilityMillis();
+			hoursSinceLastMobilityUpload = 
+					(lastMobilityMillis == null) ? 
+							null : 
+							new Double(now - lastMobilityMillis) / new Double(MILLIS_IN_A_HOUR);
 			
-			LOGGER.info("Gathering the percentage of successful location updates from Mobility in the last day.");
-			pastDatSuccessfulMobilityLocationUpdatesPercentage = UserMobilityServices.instance().getPercentageOfNonNullLocationsOverPastDay(username);
+			pastDatSuccessfulMobilityLocationUpdatesPercentage = stats.getMobilityLocationPercentage();
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
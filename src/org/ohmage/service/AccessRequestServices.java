@@ -18,10 +18,6 @@ package org.ohmage.service;
 
 import java.util.Collection;
 
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.MimeMessage;
-
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONObject;
@@ -34,7 +30,6 @@ import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.query.impl.AccessRequestQueries;
-import org.ohmage.util.MailUtils;
 
 
 /**
@@ -319,11 +314,6 @@ public final class AccessRequestServices {
 		}
 		
 		try {		
-			// Get the session.
-			Session smtpSession = MailUtils.getMailSession();
-			// Create the message.
-			MimeMessage message = new MimeMessage(smtpSession);
-
 			try {
 				if (notifiedAdmin) 
 					recipient = PreferenceCache.instance().lookup(PreferenceCache.KEY_MAIL_ADMIN_ADDRESS);
@@ -335,11 +325,6 @@ public final class AccessRequestServices {
 				recipient = LOCAL_ADMIN_ADDRESS;
 			}	
 			
-			// set up properties
-			MailUtils.setMailMessageFrom(message, PreferenceCache.KEY_MAIL_ACCESS_REQUEST_SENDER);
-			MailUtils.setMailMessageTo(message, recipient);
-			MailUtils.setMailMessageSubject(message, PreferenceCache.KEY_MAIL_ACCESS_REQUEST_SUBJECT);
-			
 			StringBuilder content = new StringBuilder();
 
 			if (notifiedAdmin) {
@@ -357,18 +342,13 @@ public final class AccessRequestServices {
 						"Can't generate the html content of the request",
 						e);				
 			}
-			try {
-				// Set the content of the message.
-				message.setContent(content.toString(), "text/html");
-			}
-			catch(MessagingException e) {
-				throw new ServiceException(
-						"There was an error constructing the message.",
-						e);
-			}
-			
-			// send message
-			MailUtils.sendMailMessage(smtpSession, message);
+			// Queue the message. It is sent in the background so that a slow
+			// mail server doesn't hold up the request.
+			MailServices.instance().queueMail(
+				PreferenceCache.KEY_MAIL_ACCESS_REQUEST_SENDER,
+				recipient,
+				PreferenceCache.KEY_MAIL_ACCESS_REQUEST_SUBJECT,
+				content.toString());
 			
 		} catch (ServiceException e) {
 			LOGGER.warn("Unable to send notification to " + recipient, e);		
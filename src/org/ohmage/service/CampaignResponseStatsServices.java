@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.ICampaignResponseStatsQueries;
+
+/**
+ * This class contains the services that maintain the per-campaign survey
+ * response counters. The counters are updated along with the survey
+ * responses and are periodically recomputed to correct for anything that was
+ * changed by other means.
+ *
+ * @author John Jenkins
+ */
+public class CampaignResponseStatsServices {
+	private static CampaignResponseStatsServices instance;
+
+	private ICampaignResponseStatsQueries campaignResponseStatsQueries;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iCampaignResponseStatsQueries is
+	 * null
+	 */
+	private CampaignResponseStatsServices(
+			final ICampaignResponseStatsQueries iCampaignResponseStatsQueries) {
+
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iCampaignResponseStatsQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignResponseStatsQueries is required.");
+		}
+
+		campaignResponseStatsQueries = iCampaignResponseStatsQueries;
+
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static CampaignResponseStatsServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Recomputes every campaign's counters from its survey responses.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void reconcileCampaignResponseStats() throws ServiceException {
+		try {
+			campaignResponseStatsQueries.reconcileCampaignResponseStats();
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+}
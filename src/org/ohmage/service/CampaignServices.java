@@ -37,6 +37,7 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ResponseSnapshotCache;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.exception.DataAccessException;
@@ -44,6 +45,7 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.query.ICampaignImageQueries;
 import org.ohmage.query.ICampaignQueries;
+import org.ohmage.query.ICampaignSurveyResponseQueries;
 import org.ohmage.query.IImageQueries;
 import org.ohmage.query.IUserCampaignQueries;
 import org.ohmage.query.impl.QueryResultsList;
@@ -62,6 +64,7 @@ public class CampaignServices {
 	private ICampaignQueries campaignQueries;
 	private ICampaignImageQueries campaignImageQueries;
 	private IImageQueries imageQueries;
+	private ICampaignSurveyResponseQueries campaignSurveyResponseQueries;
 	
 	/**
 	 * Default constructor. Privately instantiated via dependency injection
@@ -74,7 +77,8 @@ public class CampaignServices {
 	 */
 	private CampaignServices(ICampaignQueries iCampaignQueries,
 			ICampaignImageQueries iCampaignImageQueries,
-			IImageQueries iImageQueries) {
+			IImageQueries iImageQueries,
+			ICampaignSurveyResponseQueries iCampaignSurveyResponseQueries) {
 		
 		if(instance != null) {
 			throw new IllegalStateException("An instance of this class already exists.");
@@ -88,10 +92,14 @@ public class CampaignServices {
 		if(iImageQueries == null) {
 			throw new IllegalArgumentException("An instance of IImageQueries is a required argument.");
 		}
+		if(iCampaignSurveyResponseQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignSurveyResponseQueries is a required argument.");
+		}
 		
 		campaignQueries = iCampaignQueries;
 		campaignImageQueries = iCampaignImageQueries;
 		imageQueries = iImageQueries;
+		campaignSurveyResponseQueries = iCampaignSurveyResponseQueries;
 		
 		instance = this;
 	}
@@ -242,6 +250,56 @@ public class CampaignServices {
 		}
 	}
 
+	/**
+	 * Retrieves an opaque value that changes whenever the campaign's survey
+	 * responses are uploaded, updated, or deleted.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @return The version of the campaign's survey response data.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public String getSurveyResponseDataVersion(final String campaignId)
+			throws ServiceException {
+		
+		try {
+			return campaignSurveyResponseQueries
+					.getSurveyResponseDataVersion(campaignId);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Retrieves an opaque value that changes whenever the user's access to
+	 * the campaign's survey responses may have changed, e.g. their campaign
+	 * or class roles or the campaign's privacy state.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The version of the user's access to the campaign's survey
+	 * 		   responses.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public String getSurveyResponseAccessVersion(
+			final String campaignId,
+			final String username)
+			throws ServiceException {
+		
+		try {
+			return campaignSurveyResponseQueries
+					.getSurveyResponseAccessVersion(campaignId, username);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Ensures that the prompt ID exists in the campaign XML of the campaign.
 	 * 
@@ -631,6 +689,10 @@ public class CampaignServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		
+		// The old snapshots can no longer be read, so they are dropped rather
+		// than waiting to be evicted.
+		ResponseSnapshotCache.instance().invalidateCampaign(campaignId);
 	}
 		
 	/**
@@ -659,6 +721,7 @@ public class CampaignServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		ResponseSnapshotCache.instance().invalidateCampaign(campaignId);
 		
 		// If the transaction succeeded, delete all of the images from the 
 		// disk.
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ClassRosterDiff;
 import org.ohmage.domain.Clazz;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
@@ -477,6 +478,58 @@ public final class ClassServices {
 		}
 	}
 	
+	/**
+	 * Works out the changes that updating a class' users would make without
+	 * making them.
+	 * 
+	 * @param classId The unique identifier for the class.
+	 * 
+	 * @param usersToAdd A Map of usernames to the roles they should have in
+	 * 					 the class or null.
+	 * 
+	 * @param usersToRemove The usernames of the users that should be 
+	 * 						disassociated with the class or null.
+	 * 
+	 * @return The changes that would be made.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public ClassRosterDiff getClassUpdateDiff(final String classId, 
+			final Map<String, Clazz.Role> usersToAdd, 
+			final Collection<String> usersToRemove) throws ServiceException {
+		
+		try {
+			return classQueries.getClassRosterDiff(classId, usersToAdd, usersToRemove);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Works out the changes that updating classes via a class roster would 
+	 * make without making them. Each class' changes account for the changes
+	 * of the classes before it, as {@link #updateClassViaRoster(Map)} would
+	 * make them.
+	 * 
+	 * @param roster A Map of class IDs to Maps of usernames to class roles.
+	 * 
+	 * @return The changes that would be made to each of the classes.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<ClassRosterDiff> getClassRosterDiffs(
+			final Map<String, Map<String, Clazz.Role>> roster) 
+			throws ServiceException {
+		
+		try {
+			return classQueries.getClassRosterDiffs(roster);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	
 	/**
 	 * Check whether deleting this class will result in orphan campaigns.
@@ -15,11 +15,16 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.ohmage.cache.KeycloakCache;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.cache.ResponseSnapshotCache;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.cache.UserBin;
 import org.ohmage.domain.ServerConfig;
 import org.ohmage.domain.campaign.SurveyResponse;
@@ -27,6 +32,7 @@ import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.jee.servlet.RequestServlet;
+import org.ohmage.request.Request;
 import org.ohmage.util.StringUtils;
 
 /**
@@ -206,4 +212,58 @@ public class ConfigServices {
 			throw new ServiceException(e);
 		}
 	}
+	
+	/**
+	 * Returns the complete, successful response to a configuration read as a
+	 * snapshot. The snapshot is only rebuilt when the preferences have 
+	 * changed since it was last built.
+	 * 
+	 * @return The snapshot of the server's configuration.
+	 * 
+	 * @throws ServiceException Thrown if there is an error reading from the
+	 * 							cache, decoding a value from it, or building
+	 * 							the response.
+	 */
+	public static ResponseSnapshot readServerConfigurationSnapshot()
+			throws ServiceException {
+		
+		ResponseSnapshotCache cache = ResponseSnapshotCache.instance();
+		
+		// Get the version before reading the configuration so that, if the
+		// preferences change while the snapshot is being built, the snapshot
+		// is stored under the older version and is rebuilt on the next read.
+		long version = PreferenceCache.instance().getVersion();
+		ResponseSnapshot result = cache.getServerConfig(version);
+		if(result != null) {
+			return result;
+		}
+		
+		LOGGER.info("Building a new snapshot of the server's configuration.");
+		ServerConfig config = readServerConfiguration();
+		try {
+			JSONObject response = new JSONObject();
+			response.put(Request.JSON_KEY_RESULT, Request.RESULT_SUCCESS);
+			response.put(Request.JSON_KEY_DATA, config.toJson());
+			
+			result = 
+				new ResponseSnapshot(
+					"application/json", 
+					null, 
+					response.toString().getBytes("UTF-8"));
+		}
+		catch(JSONException e) {
+			throw new ServiceException(
+				"The configuration could not be converted to JSON.", 
+				e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new ServiceException("UTF-8 is unknown.", e);
+		}
+		catch(DomainException e) {
+			throw new ServiceException(e);
+		}
+		
+		cache.putServerConfig(version, result);
+		return result;
+	}
 }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -25,6 +26,7 @@ import java.util.Map;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Document;
+import org.ohmage.domain.Media;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.query.IDocumentQueries;
@@ -207,6 +209,39 @@ public class DocumentServices {
 		}
 	}
 	
+	/**
+	 * Retrieves the local file that contains a document's contents.
+	 * 
+	 * @param documentId The document's unique identifier.
+	 * 
+	 * @return The file or null if the contents are not stored in a local 
+	 * 		   file, in which case 
+	 * 		   {@link #getDocumentInputStream(String)} should be used.
+	 * 
+	 * @throws ServiceException The document doesn't exist or there was an
+	 * 							error.
+	 */
+	public File getDocumentFile(final String documentId) 
+			throws ServiceException {
+		
+		try {
+			String documentUrl = documentQueries.getDocumentUrl(documentId);
+			if(documentUrl == null) {
+				throw new ServiceException(
+					ErrorCode.DOCUMENT_INVALID_ID,
+					"The document doesn't exist.");
+			}
+			
+			return Media.getLocalFile(new URL(documentUrl));
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+		catch(MalformedURLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Retrieves an InputStream to the contents of the document. This may be 
 	 * the contents of any URL, so it should be closed as soon as it is no 
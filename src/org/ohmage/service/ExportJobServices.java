@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ExportJobProcessor;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IExportJobQueries;
+import org.ohmage.request.InputKeys;
+
+/**
+ * This class contains the services for export jobs. Requests only submit
+ * jobs, which are persisted in the database, and the
+ * {@link ExportJobProcessor} runs them in the background.
+ *
+ * @author John Jenkins
+ */
+public class ExportJobServices {
+	private static final Logger LOGGER =
+		Logger.getLogger(ExportJobServices.class);
+
+	/**
+	 * The number of milliseconds that a job and its file are kept after it
+	 * was submitted or, once it has finished, after it finished.
+	 */
+	private static final long EXPIRATION_MILLIS = 1000L * 60 * 60 * 24 * 7;
+
+	/**
+	 * The extension of a finished export file.
+	 */
+	private static final String EXTENSION = ".gz";
+
+	/**
+	 * The extension of an export file that is still being written.
+	 */
+	private static final String EXTENSION_PARTIAL = ".part";
+
+	private static final String ENCODING = "UTF-8";
+
+	private static ExportJobServices instance;
+
+	private IExportJobQueries exportJobQueries;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iExportJobQueries is null
+	 */
+	private ExportJobServices(final IExportJobQueries iExportJobQueries) {
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iExportJobQueries == null) {
+			throw new IllegalArgumentException("An instance of IExportJobQueries is required.");
+		}
+
+		exportJobQueries = iExportJobQueries;
+
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static ExportJobServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Submits a job. If the user already has a job with identical parameters
+	 * that hasn't failed or expired, that job is returned instead.
+	 *
+	 * @param username The username of the user submitting the job.
+	 *
+	 * @param client The client submitting the job.
+	 *
+	 * @param type The read request to export.
+	 *
+	 * @param parameters All of the parameters given with the submission. The
+	 * 					 authentication parameters are not kept.
+	 *
+	 * @return The new or existing job.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public ExportJob submitJob(
+			final String username,
+			final String client,
+			final ExportJob.Type type,
+			final Map<String, String[]> parameters)
+			throws ServiceException {
+
+		Map<String, String[]> jobParameters =
+			new HashMap<String, String[]>(parameters);
+		jobParameters.remove(InputKeys.AUTH_TOKEN);
+		jobParameters.remove(InputKeys.EXPORT_REQUEST);
+		if(jobParameters.remove(InputKeys.PASSWORD) != null) {
+			jobParameters.remove(InputKeys.USER);
+		}
+
+		String parametersHash = buildParametersHash(type, jobParameters);
+		long now = System.currentTimeMillis();
+
+		try {
+			ExportJob existing =
+				exportJobQueries.getJobByParameters(
+					username,
+					parametersHash,
+					now);
+			if(existing != null) {
+				LOGGER.info(
+					"Reusing the identical export job: " + existing.getId());
+				return existing;
+			}
+
+			UUID id = UUID.randomUUID();
+			exportJobQueries.createJob(
+				id,
+				username,
+				type,
+				client,
+				jobParameters,
+				parametersHash,
+				now,
+				now + EXPIRATION_MILLIS);
+
+			ExportJobProcessor.wakeUp();
+
+			return exportJobQueries.getJob(id);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Retrieves a job that belongs to a user.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return The job.
+	 *
+	 * @throws ServiceException The job doesn't exist, it belongs to another
+	 * 							user, or there was an error.
+	 */
+	public ExportJob getJob(
+			final String username,
+			final UUID id)
+			throws ServiceException {
+
+		try {
+			ExportJob result = exportJobQueries.getJob(id);
+
+			if(result == null) {
+				throw new ServiceException(
+					ErrorCode.EXPORT_INVALID_ID,
+					"The export job does not exist: " + id);
+			}
+			else if(! result.getUsername().equals(username)) {
+				throw new ServiceException(
+					ErrorCode.EXPORT_INSUFFICIENT_PERMISSIONS,
+					"The user does not own the export job: " + id);
+			}
+
+			return result;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Retrieves the queued jobs, oldest first.
+	 *
+	 * @param limit The maximum number of jobs to return.
+	 *
+	 * @return The queued jobs.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public List<ExportJob> getQueuedJobs(
+			final int limit)
+			throws ServiceException {
+
+		try {
+			return exportJobQueries.getQueuedJobs(limit);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Marks a queued job as running.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return True if the job was started; false if it was no longer queued.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public boolean startJob(final UUID id) throws ServiceException {
+		try {
+			return exportJobQueries.startJob(id);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Marks a job as complete. Its file must already be in place.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param contentType The content type of the read request's response.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public void completeJob(
+			final UUID id,
+			final String contentType)
+			throws ServiceException {
+
+		long now = System.currentTimeMillis();
+
+		try {
+			exportJobQueries.completeJob(
+				id,
+				contentType,
+				getExportFile(id).length(),
+				now,
+				now + EXPIRATION_MILLIS);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Marks a job as failed and removes any partial file.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @param error Why the job failed.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public void failJob(
+			final UUID id,
+			final String error)
+			throws ServiceException {
+
+		deleteFiles(id);
+
+		long now = System.currentTimeMillis();
+
+		try {
+			exportJobQueries.failJob(id, error, now, now + EXPIRATION_MILLIS);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Queues the jobs that were running when the server last stopped so that
+	 * they will be run again from the beginning.
+	 *
+	 * @return The number of jobs that were queued.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public int resumeInterruptedJobs() throws ServiceException {
+		try {
+			return exportJobQueries.requeueRunningJobs();
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Deletes the jobs that have expired and their files.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public void deleteExpiredJobs() throws ServiceException {
+		try {
+			for(UUID id :
+					exportJobQueries.getExpiredJobIds(
+						System.currentTimeMillis())) {
+
+				deleteFiles(id);
+				exportJobQueries.deleteJob(id);
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Returns the file to which a job's results are written once they are
+	 * complete.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return The file, which may not exist.
+	 *
+	 * @throws ServiceException The export directory is not configured or
+	 * 							could not be created.
+	 */
+	public File getExportFile(final UUID id) throws ServiceException {
+		return new File(getExportDirectory(), id.toString() + EXTENSION);
+	}
+
+	/**
+	 * Returns the file to which a job's results are written while it is
+	 * running.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @return The file, which may not exist.
+	 *
+	 * @throws ServiceException The export directory is not configured or
+	 * 							could not be created.
+	 */
+	public File getPartialExportFile(final UUID id) throws ServiceException {
+		return
+			new File(
+				getExportDirectory(),
+				id.toString() + EXTENSION + EXTENSION_PARTIAL);
+	}
+
+	/**
+	 * Builds the hash of a job's type and parameters. The parameters are
+	 * sorted so that the same request always has the same hash regardless of
+	 * the order in which its parameters were given.
+	 *
+	 * @param type The job's type.
+	 *
+	 * @param parameters The job's parameters.
+	 *
+	 * @return The hash as a hexadecimal string.
+	 */
+	private static String buildParametersHash(
+			final ExportJob.Type type,
+			final Map<String, String[]> parameters) {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(type.toString()).append('\n');
+
+		for(Map.Entry<String, String[]> parameter :
+				new TreeMap<String, String[]>(parameters).entrySet()) {
+
+			// The client doesn't change the results.
+			if(InputKeys.CLIENT.equals(parameter.getKey())) {
+				continue;
+			}
+
+			for(String value : parameter.getValue()) {
+				builder
+					.append(parameter.getKey())
+					.append('=')
+					.append(value)
+					.append('\n');
+			}
+		}
+
+		try {
+			byte[] digest =
+				MessageDigest
+					.getInstance("SHA-256")
+					.digest(builder.toString().getBytes(ENCODING));
+
+			StringBuilder result = new StringBuilder(digest.length * 2);
+			for(byte b : digest) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is unknown.", e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is unknown.", e);
+		}
+	}
+
+	/**
+	 * Returns the export directory, creating it if necessary.
+	 *
+	 * @return The export directory.
+	 *
+	 * @throws ServiceException The export directory is not configured or
+	 * 							could not be created.
+	 */
+	private static File getExportDirectory() throws ServiceException {
+		File result;
+		try {
+			result =
+				new File(
+					PreferenceCache.instance().lookup(
+						PreferenceCache.KEY_EXPORT_DIRECTORY));
+		}
+		catch(CacheMissException e) {
+			throw new ServiceException(
+				"The export directory is not configured: " +
+					PreferenceCache.KEY_EXPORT_DIRECTORY,
+				e);
+		}
+
+		if((! result.isDirectory()) && (! result.mkdirs())) {
+			throw new ServiceException(
+				"The export directory could not be created: " +
+					result.getAbsolutePath());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Deletes a job's finished and partial files, if they exist.
+	 *
+	 * @param id The job's unique identifier.
+	 *
+	 * @throws ServiceException The export directory is not configured or
+	 * 							could not be created.
+	 */
+	private void deleteFiles(final UUID id) throws ServiceException {
+		File file = getExportFile(id);
+		if(file.exists() && (! file.delete())) {
+			LOGGER.warn(
+				"The export file could not be deleted: " +
+					file.getAbsolutePath());
+		}
+
+		File partialFile = getPartialExportFile(id);
+		if(partialFile.exists() && (! partialFile.delete())) {
+			LOGGER.warn(
+				"The partial export file could not be deleted: " +
+					partialFile.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.ohmage.cache.MailQueueProcessor;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.QueuedMail;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IMailQueueQueries;
+
+/**
+ * This class contains the services for the outbound mail queue. Requests 
+ * only add messages to the queue, which is persisted in the database, and
+ * the {@link MailQueueProcessor} sends them in the background.
+ *
+ * @author John Jenkins
+ */
+public class MailServices {
+	/**
+	 * The MIME type of all of the messages that are sent.
+	 */
+	private static final String CONTENT_TYPE_HTML = "text/html";
+
+	/**
+	 * The number of milliseconds to wait before the first retry. Each retry
+	 * after that waits twice as long as the one before it.
+	 */
+	private static final long INITIAL_RETRY_MILLIS = 1000 * 60;
+
+	/**
+	 * The most number of milliseconds to wait between retries.
+	 */
+	private static final long MAX_RETRY_MILLIS = 1000 * 60 * 60;
+
+	/**
+	 * The number of failed attempts after which a message is given up on.
+	 */
+	private static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * How long a processor's claim on a message lasts. If it dies before
+	 * recording whether the message was sent, the message is due again after
+	 * this long.
+	 */
+	private static final long CLAIM_MILLIS = 1000 * 60 * 10;
+
+	private static MailServices instance;
+
+	private IMailQueueQueries mailQueueQueries;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iMailQueueQueries is null
+	 */
+	private MailServices(final IMailQueueQueries iMailQueueQueries) {
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iMailQueueQueries == null) {
+			throw new IllegalArgumentException("An instance of IMailQueueQueries is required.");
+		}
+
+		mailQueueQueries = iMailQueueQueries;
+
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static MailServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Adds an HTML message to the outbound mail queue. The sender and subject
+	 * are looked up in the preferences now, so a missing preference or an
+	 * invalid address is reported to the caller instead of the message
+	 * failing later.
+	 *
+	 * @param senderKey The preference key for the sender's address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subjectKey The preference key for the subject.
+	 *
+	 * @param content The message's HTML body.
+	 *
+	 * @throws ServiceException A preference was missing, an address was
+	 * 							invalid, or the message could not be queued.
+	 */
+	public void queueMail(
+			final String senderKey,
+			final String recipient,
+			final String subjectKey,
+			final String content)
+			throws ServiceException {
+
+		queueMail(senderKey, recipient, subjectKey, content, null);
+	}
+
+	/**
+	 * Adds an HTML message to the outbound mail queue.
+	 *
+	 * @param senderKey The preference key for the sender's address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subjectKey The preference key for the subject.
+	 *
+	 * @param content The message's HTML body.
+	 *
+	 * @param passwordRecoveryUsername The username of the user whose new
+	 * 								   password should be added to the body
+	 * 								   when it is sent or null.
+	 *
+	 * @throws ServiceException A preference was missing, an address was
+	 * 							invalid, or the message could not be queued.
+	 */
+	private void queueMail(
+			final String senderKey,
+			final String recipient,
+			final String subjectKey,
+			final String content,
+			final String passwordRecoveryUsername)
+			throws ServiceException {
+
+		String sender = lookupPreference(senderKey);
+		String subject = lookupPreference(subjectKey);
+
+		try {
+			new InternetAddress(sender, true);
+		}
+		catch(AddressException e) {
+			throw new ServiceException(
+					"The origin address is not a valid email address.",
+					e);
+		}
+
+		try {
+			new InternetAddress(recipient, true);
+		}
+		catch(AddressException e) {
+			throw new ServiceException(
+					"The destination address is not a valid email address.",
+					e);
+		}
+
+		try {
+			mailQueueQueries.queueMail(
+				sender,
+				recipient,
+				subject,
+				content,
+				CONTENT_TYPE_HTML,
+				passwordRecoveryUsername,
+				System.currentTimeMillis());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+
+		MailQueueProcessor.wakeUp();
+	}
+
+	/**
+	 * Adds a password recovery message to the outbound mail queue. The new
+	 * password is not part of the queued message. It is created when the
+	 * message is sent, see {@link #getContent(QueuedMail)}, so that it is
+	 * never stored in the queue.
+	 *
+	 * @param senderKey The preference key for the sender's address.
+	 *
+	 * @param recipient The recipient's email address.
+	 *
+	 * @param subjectKey The preference key for the subject.
+	 *
+	 * @param content The message's HTML body, to which the new password will
+	 * 				  be added.
+	 *
+	 * @param username The username of the user whose password is being
+	 * 				   recovered.
+	 *
+	 * @throws ServiceException A preference was missing, an address was
+	 * 							invalid, or the message could not be queued.
+	 */
+	public void queuePasswordRecoveryMail(
+			final String senderKey,
+			final String recipient,
+			final String subjectKey,
+			final String content,
+			final String username)
+			throws ServiceException {
+
+		queueMail(senderKey, recipient, subjectKey, content, username);
+	}
+
+	/**
+	 * Returns the body to send for a queued message. For a password recovery
+	 * message, this gives the user a new temporary password and adds it to
+	 * the body, so each attempt to send the message sends a new password and
+	 * only the latest one works.
+	 *
+	 * @param mail The message.
+	 *
+	 * @return The body to send.
+	 *
+	 * @throws ServiceException The user's password could not be reset.
+	 */
+	public String getContent(final QueuedMail mail) throws ServiceException {
+		String username = mail.getPasswordRecoveryUsername();
+		if(username == null) {
+			return mail.getContent();
+		}
+
+		return
+			mail.getContent() +
+				"<br /><br />" +
+				UserServices.instance().resetTemporaryPassword(username);
+	}
+
+	/**
+	 * Returns the messages that are due to be sent after claiming each of
+	 * them, so that another processor reading the same queue does not send
+	 * them as well. Messages that someone else claimed first are left out.
+	 *
+	 * @param limit The maximum number of messages to return.
+	 *
+	 * @return The claimed messages, oldest first.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<QueuedMail> getDueMail(final int limit)
+			throws ServiceException {
+
+		try {
+			long now = System.currentTimeMillis();
+
+			List<QueuedMail> result = new ArrayList<QueuedMail>();
+			for(QueuedMail mail : mailQueueQueries.getDueMail(now, limit)) {
+				if(mailQueueQueries.claimMail(mail.getId(), now, CLAIM_MILLIS)) {
+					result.add(mail);
+				}
+			}
+			return result;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Removes a message that was sent from the queue.
+	 *
+	 * @param mail The message.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void markMailSent(final QueuedMail mail) throws ServiceException {
+		try {
+			mailQueueQueries.deleteMail(mail.getId());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Records that sending a message failed and schedules the next attempt,
+	 * backing off exponentially, or gives up on the message if it has failed
+	 * too many times.
+	 *
+	 * @param mail The message.
+	 *
+	 * @param error A description of the failure.
+	 *
+	 * @return True if the message will be retried; false if it was given up
+	 * 		   on.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public boolean markMailFailed(
+			final QueuedMail mail,
+			final String error)
+			throws ServiceException {
+
+		int attempts = mail.getAttempts() + 1;
+
+		Long nextAttemptMillis = null;
+		if(attempts < MAX_ATTEMPTS) {
+			long delay = INITIAL_RETRY_MILLIS;
+			for(int i = 1; (i < attempts) && (delay < MAX_RETRY_MILLIS); i++) {
+				delay *= 2;
+			}
+
+			nextAttemptMillis =
+				System.currentTimeMillis() + Math.min(delay, MAX_RETRY_MILLIS);
+		}
+
+		try {
+			mailQueueQueries.recordMailFailure(
+				mail.getId(),
+				nextAttemptMillis,
+				error);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+
+		return nextAttemptMillis != null;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be sent.
+	 *
+	 * @return The number of pending messages.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public long getPendingMailCount() throws ServiceException {
+		try {
+			return mailQueueQueries.getPendingMailCount();
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Looks up a mail preference.
+	 *
+	 * @param key The preference's key.
+	 *
+	 * @return The preference's value.
+	 *
+	 * @throws ServiceException The preference does not exist.
+	 */
+	private static String lookupPreference(final String key)
+			throws ServiceException {
+
+		try {
+			return PreferenceCache.instance().lookup(key);
+		}
+		catch(CacheMissException e) {
+			throw new ServiceException(
+				"The mail property is not in the preference table: " + key,
+				e);
+		}
+	}
+}
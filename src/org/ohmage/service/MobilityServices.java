@@ -15,11 +15,16 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
@@ -34,6 +39,7 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.query.IUserMobilityQueries;
 import org.ohmage.query.IUserQueries;
 
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
 import edu.ucla.cens.mobilityclassifier.Classification;
 import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
 import edu.ucla.cens.mobilityclassifier.Sample;
@@ -52,6 +58,22 @@ public final class MobilityServices {
 	private static final long MAX_MILLIS_OF_PREVIOUS_WIFI_DATA = 
 			1000 * 60 * 10;
 	
+	/**
+	 * The classifier's modes that the WiFi comparison may return.
+	 */
+	private static final String CLASSIFIER_STILL = "still";
+	private static final String CLASSIFIER_DRIVE = "drive";
+	private static final String CLASSIFIER_UNKNOWN = "unknown";
+	
+	/**
+	 * The pool that computes the classifier's features. It is shared by all
+	 * requests, so the number of threads computing features is bounded by
+	 * the number of processors no matter how many requests are reading 
+	 * Mobility data at once.
+	 */
+	private static final ForkJoinPool CLASSIFICATION_POOL =
+		new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
 	private static MobilityServices instance;
 	private IUserQueries userQueries;
 	private IUserMobilityQueries userMobilityQueries;
@@ -124,9 +146,14 @@ public final class MobilityServices {
 	
 	/**
 	 * Runs the classifier against all of the Mobility points in the list.
+	 * The classifier's accelerometer features only depend on the point 
+	 * itself, so they are computed in parallel. The WiFi comparison depends
+	 * on the points that came before it, so it is then done in order, which
+	 * is cheap because each point's access points were already reduced to 
+	 * their strongest SSIDs while its features were being computed.
 	 * 
 	 * @param mobilityPoints The Mobility points that are to be classified by
-	 * 						 the server.
+	 * 						 the server. They must be in chronological order.
 	 * 
 	 * @throws ServiceException Thrown if there is an error with the 
 	 * 							classification service.
@@ -136,67 +163,342 @@ public final class MobilityServices {
 			final List<MobilityPoint> mobilityPoints) 
 			throws ServiceException {
 		
+		classify(mobilityPoints);
+	}
+	
+	/**
+	 * Runs the classifier against all of the Mobility points in the list.
+	 * 
+	 * @param mobilityPoints The Mobility points in chronological order.
+	 * 
+	 * @throws ServiceException Thrown if there is an error with the 
+	 * 							classification service.
+	 * 
+	 * @see #classifyData(String, List)
+	 */
+	static void classify(
+			final List<MobilityPoint> mobilityPoints) 
+			throws ServiceException {
+		
 		// If the list is empty, just exit.
-		if(mobilityPoints == null) {
+		if((mobilityPoints == null) || mobilityPoints.isEmpty()) {
 			return;
 		}
 		
-		// Create a new classifier.
-		MobilityClassifier classifier = new MobilityClassifier();
-				
+		// Compute the features for each of the points in parallel.
+		ExtractedFeatures[] features = 
+				new ExtractedFeatures[mobilityPoints.size()];
+		CLASSIFICATION_POOL.invoke(
+				new FeatureExtractor(
+						mobilityPoints, 
+						features, 
+						0, 
+						mobilityPoints.size()));
+		
 		// Create place holders for the previous data.
 		String previousWifiMode = null;
-		List<WifiScan> previousWifiScans = new LinkedList<WifiScan>();
+		LinkedList<ExtractedFeatures> previousWifiScans = 
+				new LinkedList<ExtractedFeatures>();
 		
-		// This is a bit more involved now that we are doing everything through
-		// the observers.
-		/*
-		if(mobilityPoints.size() > 0) {
-			try {
-				MobilityPoint firstPoint = mobilityPoints.get(0);
-				DateTime startDate = new DateTime();
-
-				startDate = 
-						new DateTime(
-							firstPoint.getTime() -
-							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA);
-
-				List<MobilityPoint> previousPoints = 
-						userMobilityQueries.getMobilityInformation(
-							uploadersUsername, 
-							startDate, 
-							new DateTime(firstPoint.getTime()), 
-							null, 
-							null, 
-							null);
-
-				for(MobilityPoint previousPoint : previousPoints) {
-					try {
-						previousWifiScans.add(previousPoint.getWifiScan());
-					}
-					catch(DomainException e) {
-						// This point does not have a WifiScan, so we will skip
-						// it.
-					}
+		// For each of the Mobility points,
+		int numPoints = mobilityPoints.size();
+		for(int i = 0; i < numPoints; i++) {
+			ExtractedFeatures pointFeatures = features[i];
+			
+			// If the point was an error or not sensor data, it wasn't 
+			// classified.
+			if(pointFeatures == null) {
+				continue;
+			}
+			else if(pointFeatures.exception != null) {
+				throw pointFeatures.exception;
+			}
+			
+			MobilityPoint mobilityPoint = mobilityPoints.get(i);
+			Classification classification = pointFeatures.classification;
+			
+			// Prune out the old WifiScans that are more than 10 minutes 
+			// old.
+			long minPreviousTime = 
+					mobilityPoint.getTime() - 
+						MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
+			Iterator<ExtractedFeatures> previousWifiScansIter = 
+					previousWifiScans.iterator();
+			while(previousWifiScansIter.hasNext()) {
+				if(previousWifiScansIter.next().wifiTime < minPreviousTime) {
+					previousWifiScansIter.remove();
+				}
+				else {
+					// Given the fact that the list is ordered, we can now
+					// be assured that all of the remaining WiFi scans are
+					// invalid.
+					break;
 				}
 			}
-			catch(DataAccessException e) {
-				throw new ServiceException(e);
+			
+			// Compare the WiFi data to the previous WiFi data and let it 
+			// override the accelerometer's mode for the modes that it is 
+			// better at detecting. This is the same as what the classifier 
+			// would do if it were given the WiFi data itself.
+			String mode = classification.getMode();
+			String wifiMode = null;
+			if(classification.hasFeatures()) {
+				wifiMode = 
+						(pointFeatures.wifiScan == null) ?
+							CLASSIFIER_UNKNOWN :
+							checkWifi(
+								pointFeatures, 
+								previousWifiScans, 
+								previousWifiMode);
+				
+				if(MobilityClassifier.wifiChecking && 
+						(! CLASSIFIER_UNKNOWN.equals(wifiMode)) &&
+						(CLASSIFIER_DRIVE.equals(mode) || 
+							CLASSIFIER_STILL.equals(mode))) {
+					
+					mode = wifiMode;
+				}
+			}
+			
+			// Update the place holders for the previous data.
+			if(pointFeatures.wifiScan != null) {
+				previousWifiScans.add(pointFeatures);
+			}
+			previousWifiMode = wifiMode;
+			
+			// If the classification generated some results, pull them out
+			// and store them in the Mobility point.
+			if(classification.hasFeatures()) {
+				try {
+					mobilityPoint.setClassifierData(
+							classification.getFft(), 
+							classification.getVariance(),
+							classification.getAverage(), 
+							MobilityPoint.Mode.valueOf(mode.toUpperCase()));
+				}
+				catch(DomainException e) {
+					throw new ServiceException(
+							"There was a problem reading the classification's information.", 
+							e);
+				}
+			}
+			// If the features don't exist, then create the classifier data
+			// with only the mode.
+			else {
+				try {
+					mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(mode.toUpperCase()));
+				}
+				catch(DomainException e) {
+					throw new ServiceException(
+							"There was a problem reading the classification's mode.", 
+							e);
+				}
 			}
 		}
-		*/
-
-		// For each of the Mobility points,
-		for(MobilityPoint mobilityPoint : mobilityPoints) {
-			// If the data point is of type error, don't attempt to classify 
-			// it.
-			if(mobilityPoint.getMode().equals(Mode.ERROR)) {
-				continue;
+	}
+	
+	/**
+	 * Compares a point's WiFi scan to the previous WiFi scans in the same way
+	 * that the classifier does, which is that the point is still if enough of
+	 * its strongest SSIDs were also among the previous scans' strongest 
+	 * SSIDs and it is driving otherwise.
+	 * 
+	 * This reimplements the WiFi comparison of mobility-classifier-1.3.7,
+	 * the version in the lib directory, so that the classifier's features
+	 * can be computed in parallel. It must be checked against the
+	 * classifier whenever the library is upgraded, which
+	 * MobilityServicesTest does by classifying the same traces with both.
+	 * 
+	 * @param current The point whose WiFi scan is being checked.
+	 * 
+	 * @param previous The previous points' WiFi scans in chronological order.
+	 * 
+	 * @param previousMode The WiFi mode of the previous point, which may be
+	 * 					   null.
+	 * 
+	 * @return The WiFi mode, which is one of the classifier's "still", 
+	 * 		   "drive", or "unknown".
+	 */
+	private static String checkWifi(
+			final ExtractedFeatures current,
+			final LinkedList<ExtractedFeatures> previous,
+			final String previousMode) {
+		
+		if(previous.isEmpty()) {
+			return CLASSIFIER_UNKNOWN;
+		}
+		
+		long time = current.wifiTime;
+		long minTime = time - MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
+		
+		long lastTime = previous.getLast().wifiTime;
+		if(lastTime == time) {
+			// There is no new WiFi data, so the mode hasn't changed.
+			if(CLASSIFIER_STILL.equals(previousMode) || 
+					CLASSIFIER_DRIVE.equals(previousMode)) {
+				
+				return previousMode;
+			}
+			return CLASSIFIER_UNKNOWN;
+		}
+		else if(lastTime < minTime) {
+			return CLASSIFIER_UNKNOWN;
+		}
+		
+		// Only the first scan at any given time counts.
+		Set<Long> previousTimes = new HashSet<Long>();
+		Set<String> previousSsids = new HashSet<String>();
+		for(ExtractedFeatures scan : previous) {
+			if((scan.wifiTime >= minTime) && previousTimes.add(scan.wifiTime)) {
+				previousSsids.addAll(scan.strongestSsids);
+			}
+		}
+		
+		int same = 0;
+		int total = 0;
+		for(String ssid : current.strongestSsids) {
+			if(previousSsids.contains(ssid)) {
+				same++;
+			}
+			total++;
+		}
+		
+		if(total == 0) {
+			return CLASSIFIER_UNKNOWN;
+		}
+		
+		int threshold = 2;
+		if(total == 1) {
+			threshold = 0;
+		}
+		else if(total <= 3) {
+			threshold = 1;
+		}
+		
+		return (same <= threshold) ? CLASSIFIER_DRIVE : CLASSIFIER_STILL;
+	}
+	
+	/**
+	 * Returns the SSIDs of the access points in a WiFi scan whose strength is
+	 * at least the average strength. The average is computed exactly as the
+	 * classifier computes it, including its truncation to an integer, so 
+	 * that the result is the same.
+	 * 
+	 * @param wifiScan The WiFi scan.
+	 * 
+	 * @return The SSIDs, in the order of the access points.
+	 */
+	private static List<String> getStrongestSsids(final WifiScan wifiScan) {
+		List<AccessPoint> accessPoints = wifiScan.getAccessPoints();
+		List<String> result = new ArrayList<String>(accessPoints.size());
+		if(accessPoints.isEmpty()) {
+			return result;
+		}
+		
+		int strengthSum = 0;
+		for(AccessPoint accessPoint : accessPoints) {
+			strengthSum += accessPoint.getStrength();
+		}
+		double average = strengthSum / accessPoints.size();
+		
+		for(AccessPoint accessPoint : accessPoints) {
+			if(accessPoint.getStrength() >= average) {
+				result.add(accessPoint.getSsid());
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * The parts of a point's classification that only depend on the point
+	 * itself.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class ExtractedFeatures {
+		private Classification classification = null;
+		private WifiScan wifiScan = null;
+		private long wifiTime = 0;
+		private List<String> strongestSsids = null;
+		private ServiceException exception = null;
+	}
+	
+	/**
+	 * Computes the features of a range of points by splitting the range until
+	 * each task has at most {@link #POINTS_PER_TASK} points. The features are
+	 * computed without the WiFi data, so the classifier's mode is the 
+	 * accelerometer's mode.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class FeatureExtractor extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The number of points at which a range is no longer split.
+		 */
+		private static final int POINTS_PER_TASK = 16;
+		
+		private final List<MobilityPoint> mobilityPoints;
+		private final ExtractedFeatures[] features;
+		private final int start;
+		private final int end;
+		
+		/**
+		 * Creates a task to compute the features of a range of points.
+		 * 
+		 * @param mobilityPoints The points.
+		 * 
+		 * @param features The array into which each point's features are 
+		 * 				   placed at the same index. They are left null if
+		 * 				   the point is not classified.
+		 * 
+		 * @param start The index of the first point in the range, inclusive.
+		 * 
+		 * @param end The index of the last point in the range, exclusive.
+		 */
+		private FeatureExtractor(
+				final List<MobilityPoint> mobilityPoints,
+				final ExtractedFeatures[] features,
+				final int start,
+				final int end) {
+			
+			this.mobilityPoints = mobilityPoints;
+			this.features = features;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/**
+		 * Computes the features if the range is small enough or splits the
+		 * range in half otherwise.
+		 */
+		@Override
+		protected void compute() {
+			if((end - start) > POINTS_PER_TASK) {
+				int middle = (start + end) >>> 1;
+				invokeAll(
+					new FeatureExtractor(mobilityPoints, features, start, middle),
+					new FeatureExtractor(mobilityPoints, features, middle, end));
+				return;
 			}
 			
-			// If the SubType is sensor data,
-			if(MobilityPoint.SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
-				SensorData currSensorData = mobilityPoint.getSensorData();
+			MobilityClassifier classifier = new MobilityClassifier();
+			for(int i = start; i < end; i++) {
+				MobilityPoint mobilityPoint = mobilityPoints.get(i);
+				
+				// If the data point is of type error or isn't sensor data, 
+				// don't attempt to classify it.
+				if(mobilityPoint.getMode().equals(Mode.ERROR) ||
+						(! MobilityPoint.SubType.SENSOR_DATA.equals(
+							mobilityPoint.getSubType()))) {
+					
+					continue;
+				}
+				
+				ExtractedFeatures result = new ExtractedFeatures();
+				features[i] = result;
 				
 				// Get the Samples from this new point.
 				List<Sample> samples;
@@ -204,89 +506,37 @@ public final class MobilityServices {
 					samples = mobilityPoint.getSamples();
 				}
 				catch(DomainException e) {
-					throw new ServiceException(
-							"There was a problem retrieving the samples.",
-							e);
+					result.exception = 
+							new ServiceException(
+								"There was a problem retrieving the samples.",
+								e);
+					continue;
 				}
 				
 				// Get the new WifiScan from this new point.
-				WifiScan wifiScan;
-				if(mobilityPoint.getSensorData().getWifiData() == null) {
-					wifiScan = null;
-				}
-				else {
+				if(mobilityPoint.getSensorData().getWifiData() != null) {
 					try {
-						wifiScan = mobilityPoint.getWifiScan();
+						result.wifiScan = mobilityPoint.getWifiScan();
 					} 
 					catch(DomainException e) {
-						throw new ServiceException(
-								"The Mobility point does not contain WiFi data.",
-								e);
+						result.exception = 
+								new ServiceException(
+									"The Mobility point does not contain WiFi data.",
+									e);
+						continue;
 					}
+					result.wifiTime = result.wifiScan.getTime();
+					result.strongestSsids = 
+							getStrongestSsids(result.wifiScan);
 				}
 				
-				// Prune out the old WifiScans that are more than 10 minutes 
-				// old.
-				long minPreviousTime = 
-						mobilityPoint.getTime() - 
-							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
-				Iterator<WifiScan> previousWifiScansIter = 
-						previousWifiScans.iterator();
-				while(previousWifiScansIter.hasNext()) {
-					if(previousWifiScansIter.next().getTime() < minPreviousTime) {
-						previousWifiScansIter.remove();
-					}
-					else {
-						// Given the fact that the list is ordered, we can now
-						// be assured that all of the remaining WiFi scans are
-						// invalid.
-						break;
-					}
-				}
-
-				// Classify the data.
-				Classification classification =
+				result.classification = 
 						classifier.classify(
 								samples,
-								currSensorData.getSpeed(),
-								wifiScan,
-								previousWifiScans,
-								previousWifiMode);
-				
-				// Update the place holders for the previous data.
-				if(wifiScan != null) {
-					previousWifiScans.add(wifiScan);
-				}
-				previousWifiMode = classification.getWifiMode();
-				
-				// If the classification generated some results, pull them out
-				// and store them in the Mobility point.
-				if(classification.hasFeatures()) {
-					try {
-						mobilityPoint.setClassifierData(
-								classification.getFft(), 
-								classification.getVariance(),
-								classification.getAverage(), 
-								MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's information.", 
-								e);
-					}
-				}
-				// If the features don't exist, then create the classifier data
-				// with only the mode.
-				else {
-					try {
-						mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's mode.", 
-								e);
-					}
-				}
+								mobilityPoint.getSensorData().getSpeed(),
+								null,
+								null,
+								null);
 			}
 		}
 	}
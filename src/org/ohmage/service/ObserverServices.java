@@ -9,6 +9,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonNode;
@@ -691,8 +692,9 @@ public class ObserverServices {
 	/**
 	 * Prunes the duplicates from the collection of data elements. A duplicate
 	 * is defined as a point with an ID whose ID already exists for the given
-	 * user and for the associated stream. This will not remove duplicates in
-	 * a single upload.
+	 * user and for the associated stream, whether it is in the stream data,
+	 * a columnar stream's chunks, or the archive. Points that are repeated
+	 * within this upload are also removed, keeping the first.
 	 *  
 	 * @param username The username of the user that will own these points.
 	 * 
@@ -712,6 +714,14 @@ public class ObserverServices {
 			// Get the IDs for each stream from this upload's data.
 			Map<String, Collection<String>> uploadIds = 
 				new HashMap<String, Collection<String>>();
+			
+			// The columnar streams with IDs in this upload along with the
+			// range of the adjusted times of each stream's points and 
+			// whether or not some of its points have no timestamp.
+			Set<String> columnarStreamIds = new HashSet<String>();
+			Map<String, Long[]> ranges = new HashMap<String, Long[]>();
+			Set<String> withoutTime = new HashSet<String>();
+			
 			for(DataStream dataStream : data) {
 				MetaData dataStreamMetaData = dataStream.getMetaData();
 				
@@ -728,12 +738,43 @@ public class ObserverServices {
 							uploadIds.put(stream.getId(), streamIds);
 						}
 						streamIds.add(id);
+						
+						if(
+							Stream.Storage.COLUMNAR.equals(
+								stream.getStorage())) {
+							
+							columnarStreamIds.add(stream.getId());
+						}
+						
+						DateTime timestamp = 
+							dataStreamMetaData.getTimestamp();
+						if(timestamp == null) {
+							withoutTime.add(stream.getId());
+							continue;
+						}
+						
+						long timeAdjusted =
+							timestamp.getMillis() + 
+							timestamp.getZone().getOffset(timestamp);
+						Long[] range = ranges.get(stream.getId());
+						if(range == null) {
+							ranges.put(
+								stream.getId(), 
+								new Long[] { timeAdjusted, timeAdjusted });
+						}
+						else {
+							range[0] = Math.min(range[0], timeAdjusted);
+							range[1] = Math.max(range[1], timeAdjusted);
+						}
 					}
 				}
 			}
 			
 			// Get the existing IDs for each stream that are also in this 
-			// upload's IDs.
+			// upload's IDs. A columnar stream's IDs are in its chunks, and
+			// another stream's old IDs may have been archived, both of which
+			// are found by the range of adjusted times of this upload's 
+			// points.
 			Collection<String> duplicateIds = new HashSet<String>();
 			for(String streamId : uploadIds.keySet()) {
 				duplicateIds.addAll( 
@@ -742,9 +783,39 @@ public class ObserverServices {
 						observerId,
 						streamId,
 						uploadIds.get(streamId)));
+				
+				Long[] range = ranges.get(streamId);
+				Long start = (range == null) ? null : range[0];
+				Long end = (range == null) ? null : range[1];
+				if(columnarStreamIds.contains(streamId)) {
+					duplicateIds.addAll(
+						observerQueries.getDuplicateChunkIds(
+							username,
+							observerId,
+							streamId,
+							start,
+							end,
+							withoutTime.contains(streamId),
+							uploadIds.get(streamId)));
+				}
+				else {
+					duplicateIds.addAll(
+						observerQueries.getDuplicateArchivedIds(
+							username,
+							observerId,
+							streamId,
+							start,
+							end,
+							withoutTime.contains(streamId),
+							uploadIds.get(streamId)));
+				}
 			}
 			
-			// Remove any of this upload's IDs that already exist.
+			// Remove any of this upload's IDs that already exist as well as
+			// any that are repeated within this upload, which the stream 
+			// data's unique key would otherwise reject.
+			Map<String, Set<String>> storedIds = 
+				new HashMap<String, Set<String>>();
 			Iterator<DataStream> dataIter = data.iterator();
 			while(dataIter.hasNext()) {
 				DataStream dataStream = dataIter.next();
@@ -752,8 +823,20 @@ public class ObserverServices {
 				
 				if(dataStreamMetaData != null) {
 					String id = dataStreamMetaData.getId();
+					if(id == null) {
+						continue;
+					}
+					
+					Set<String> streamIds = 
+						storedIds.get(dataStream.getStream().getId());
+					if(streamIds == null) {
+						streamIds = new HashSet<String>();
+						storedIds.put(
+							dataStream.getStream().getId(), 
+							streamIds);
+					}
 				
-					if((id != null) && (duplicateIds.contains(id))) {
+					if(duplicateIds.contains(id) || (! streamIds.add(id))) {
 						dataIter.remove();
 					}
 				}
@@ -0,0 +1,390 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.TablePartition;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IStreamPartitionQueries;
+
+/**
+ * <p>This class contains the services that manage the monthly partitions of
+ * the tables that are partitioned by time, observer_stream_data by its
+ * adjusted time and mobility by its time, and that archive the old stream
+ * data.</p>
+ *
+ * <p>Each partitioned table always has partitions for the next few months,
+ * so that new data never has to be put in the catch-all last partition.
+ * Once every point in a partition of observer_stream_data is older than the
+ * "stream_archive_age_days" preference, the partition is written to chunk
+ * files under the "stream_archive_directory" preference and dropped. Stream
+ * data is not archived unless both preferences are set.</p>
+ *
+ * <p>The tables are only partitioned once the V20 migration has been
+ * applied. Until then, this does nothing.</p>
+ *
+ * @author John Jenkins
+ */
+public class StreamPartitionServices {
+	private static final Logger LOGGER =
+		Logger.getLogger(StreamPartitionServices.class);
+
+	/**
+	 * The table of stream data, which is partitioned and archived.
+	 */
+	public static final String TABLE_STREAM_DATA = "observer_stream_data";
+
+	/**
+	 * The table of Mobility points, which is partitioned but not archived.
+	 */
+	public static final String TABLE_MOBILITY = "mobility";
+
+	/**
+	 * The number of months after the current one for which there should
+	 * always be partitions.
+	 */
+	private static final int MONTHS_AHEAD = 3;
+
+	/**
+	 * The name of a month's partition, "p" followed by the month.
+	 */
+	private static final DateTimeFormatter PARTITION_NAME =
+		DateTimeFormat.forPattern("'p'yyyyMM").withZone(DateTimeZone.UTC);
+
+	private static final long MILLIS_IN_A_DAY = 24L * 60 * 60 * 1000;
+
+	private static StreamPartitionServices instance;
+
+	private IStreamPartitionQueries streamPartitionQueries;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iStreamPartitionQueries is null
+	 */
+	private StreamPartitionServices(
+			final IStreamPartitionQueries iStreamPartitionQueries) {
+
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iStreamPartitionQueries == null) {
+			throw new IllegalArgumentException("An instance of IStreamPartitionQueries is required.");
+		}
+
+		streamPartitionQueries = iStreamPartitionQueries;
+
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static StreamPartitionServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Adds the partitions for the coming months to each partitioned table
+	 * and archives the stream data partitions that are old enough. Every
+	 * server does this, but only one at a time; a server that finds another
+	 * doing it skips this run.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void managePartitions() throws ServiceException {
+		final long now = System.currentTimeMillis();
+
+		try {
+			boolean ran =
+				streamPartitionQueries.runWithPartitionLock(
+					new IStreamPartitionQueries.LockedTask() {
+						/**
+						 * Manages the partitions.
+						 */
+						@Override
+						public void run() throws DataAccessException {
+							addFuturePartitions(TABLE_STREAM_DATA, now);
+							addFuturePartitions(TABLE_MOBILITY, now);
+
+							archiveStreamData(now);
+						}
+					});
+
+			if(! ran) {
+				LOGGER.info(
+					"Another server is managing the partitions, so this " +
+						"one is not.");
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Returns the archived stream data files of users.
+	 *
+	 * @param usernames The users' usernames.
+	 *
+	 * @return The files.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public Collection<File> getArchiveFiles(
+			final Collection<String> usernames)
+			throws ServiceException {
+
+		try {
+			Collection<File> result = new ArrayList<File>();
+			for(String username : usernames) {
+				result.addAll(
+					streamPartitionQueries.getArchiveFiles(username));
+			}
+			return result;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Deletes archived stream data files, such as those of users that were
+	 * deleted. A file that can't be deleted is only logged.
+	 *
+	 * @param files The files.
+	 */
+	public void deleteArchiveFiles(final Collection<File> files) {
+		for(File file : files) {
+			if(file.exists() && (! file.delete())) {
+				LOGGER.warn(
+					"The archived stream data could not be deleted: " +
+						file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Adds partitions to a table so that it has a partition for each month
+	 * through {@link #MONTHS_AHEAD} months from now.
+	 *
+	 * @param table The table.
+	 *
+	 * @param now The current time.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void addFuturePartitions(
+			final String table,
+			final long now)
+			throws DataAccessException {
+
+		List<TablePartition> partitions =
+			streamPartitionQueries.getPartitions(table);
+		if(partitions.isEmpty()) {
+			// This is a misconfigured database, such as one created before
+			// the tables were partitioned, and nothing will ever be archived
+			// from it, so it must not go unnoticed.
+			LOGGER.error(
+				"The table is not partitioned, so its partitions cannot be " +
+					"managed and its old data will not be archived. Apply " +
+					"the V20 migration to partition it: " +
+					table);
+			return;
+		}
+
+		Long highestBound = null;
+		for(TablePartition partition : partitions) {
+			Long upperBound = partition.getUpperBound();
+			if(
+				(upperBound != null) &&
+				((highestBound == null) || (upperBound > highestBound))) {
+
+				highestBound = upperBound;
+			}
+		}
+
+		DateTime thisMonth = getStartOfMonth(now);
+		DateTime lastBound = thisMonth.plusMonths(MONTHS_AHEAD + 1);
+		DateTime bound =
+			(highestBound == null) ?
+				thisMonth.plusMonths(1) :
+				getStartOfMonth(highestBound).plusMonths(1);
+
+		List<TablePartition> newPartitions = new ArrayList<TablePartition>();
+		while(! bound.isAfter(lastBound)) {
+			newPartitions.add(
+				new TablePartition(
+					PARTITION_NAME.print(bound.minusMonths(1)),
+					bound.getMillis()));
+			bound = bound.plusMonths(1);
+		}
+
+		if(! newPartitions.isEmpty()) {
+			LOGGER.info(
+				"Adding " + newPartitions.size() + " partitions to " +
+					table + ".");
+			streamPartitionQueries.addPartitions(
+				table,
+				partitions.get(partitions.size() - 1),
+				newPartitions);
+		}
+	}
+
+	/**
+	 * Archives and drops the stream data partitions whose data are all older
+	 * than the archive age.
+	 *
+	 * @param now The current time.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	private void archiveStreamData(final long now) throws DataAccessException {
+		String directoryString =
+			getPreference(PreferenceCache.KEY_STREAM_ARCHIVE_DIRECTORY);
+		String ageString =
+			getPreference(PreferenceCache.KEY_STREAM_ARCHIVE_AGE_DAYS);
+		if((directoryString == null) || (ageString == null)) {
+			return;
+		}
+
+		long ageDays;
+		try {
+			ageDays = Long.parseLong(ageString.trim());
+		}
+		catch(NumberFormatException e) {
+			LOGGER.warn(
+				"The stream archive age is not a whole number: " + ageString);
+			return;
+		}
+		if(ageDays <= 0) {
+			return;
+		}
+
+		archiveStreamData(new File(directoryString), ageDays, now);
+	}
+
+	/**
+	 * Archives and drops the stream data partitions whose data are all older
+	 * than an age.
+	 *
+	 * @param directory The directory under which the chunks are written,
+	 * 					which is created if it doesn't exist.
+	 *
+	 * @param ageDays The number of days after which data is archived.
+	 *
+	 * @param now The current time.
+	 *
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	void archiveStreamData(
+			final File directory,
+			final long ageDays,
+			final long now)
+			throws DataAccessException {
+
+		if((! directory.isDirectory()) && (! directory.mkdirs())) {
+			LOGGER.error(
+				"The stream archive directory could not be created: " +
+					directory.getAbsolutePath());
+			return;
+		}
+
+		// The adjusted times are the points' local times, so they are
+		// compared against the start of a month as if they were UTC.
+		long cutoff =
+			getStartOfMonth(now - (ageDays * MILLIS_IN_A_DAY)).getMillis();
+
+		List<TablePartition> partitions =
+			streamPartitionQueries.getPartitions(TABLE_STREAM_DATA);
+
+		// The last partition is never archived, because a table must have at
+		// least one partition.
+		Long lowerBound = null;
+		for(int i = 0; i < partitions.size() - 1; i++) {
+			TablePartition partition = partitions.get(i);
+			Long upperBound = partition.getUpperBound();
+			if((upperBound == null) || (upperBound > cutoff)) {
+				break;
+			}
+
+			// If the server stops between archiving the partition and
+			// dropping it, the partition is archived again the next time,
+			// replacing its chunks.
+			LOGGER.info(
+				"Archiving the stream data partition " +
+					partition.getName() + ".");
+			streamPartitionQueries.archiveStreamDataPartition(
+				partition,
+				lowerBound,
+				directory);
+			streamPartitionQueries.dropPartition(TABLE_STREAM_DATA, partition);
+
+			lowerBound = upperBound;
+		}
+	}
+
+	/**
+	 * Returns the start of the month that contains a time, in UTC.
+	 *
+	 * @param millis The time.
+	 *
+	 * @return The start of its month.
+	 */
+	private static DateTime getStartOfMonth(final long millis) {
+		return
+			new DateTime(millis, DateTimeZone.UTC)
+				.withDayOfMonth(1)
+				.withTimeAtStartOfDay();
+	}
+
+	/**
+	 * Reads a preference.
+	 *
+	 * @param key The preference's key.
+	 *
+	 * @return The preference's value or null if it is not set.
+	 */
+	private static String getPreference(final String key) {
+		try {
+			String value = PreferenceCache.instance().lookup(key);
+			return ((value == null) || (value.trim().length() == 0)) ?
+				null :
+				value;
+		}
+		catch(CacheMissException e) {
+			// This is acceptable. It simply tells us not to archive.
+			return null;
+		}
+	}
+}
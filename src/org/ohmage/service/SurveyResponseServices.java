@@ -34,6 +34,7 @@ import org.ohmage.domain.Image;
 import org.ohmage.domain.Video;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.PromptResponse;
+import org.ohmage.domain.campaign.PromptResponseImage;
 import org.ohmage.domain.campaign.RepeatableSetResponse;
 import org.ohmage.domain.campaign.Response;
 import org.ohmage.domain.campaign.SurveyResponse;
@@ -460,26 +461,158 @@ public final class SurveyResponseServices {
 		}
 	}
 	
+	/**
+	 * Retrieves a page of references to the images from the photo prompt 
+	 * responses that match the given criteria. The same ACLs are applied as
+	 * when reading survey responses, but only the information needed to
+	 * locate each image is retrieved.
+	 * 
+	 * @param campaign The campaign to which the survey responses must belong.
+	 * 				   Required.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 				   Required.
+	 * 
+	 * @param surveyResponseIds The set of survey response IDs to which the
+	 * 							results are limited. Optional.
+	 * 
+	 * @param usernames A collection of usernames to which the results must 
+	 * 					belong to any of them. Optional.
+	 * 
+	 * @param startDate A date to which all responses must be on or after. 
+	 * 					Optional.
+	 * 
+	 * @param endDate A date to which all responses must be on or before.
+	 * 				  Optional.
+	 * 
+	 * @param privacyState A survey response privacy state that limits the 
+	 * 					   results to only those with this privacy state.
+	 * 					   Optional.
+	 * 
+	 * @param surveyIds A collection of survey response IDs to which the 
+	 * 					results must belong to any of them. Optional.
+	 * 
+	 * @param promptIds A collection of prompt response IDs to which the 
+	 * 					results must belong to any of them. Optional.
+	 * 
+	 * @param promptResponseSearchTokens The set of tokens to use against the
+	 * 									 prompt response values. Optional.
+	 * 
+	 * @param afterPromptResponseId Only references from prompt responses 
+	 * 								after this one are returned. Use -1 to 
+	 * 								begin with the first one.
+	 * 
+	 * @param limit The maximum number of references to return.
+	 * 
+	 * @return The, possibly empty, list of references ordered by their prompt
+	 * 		   response.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<PromptResponseImage> readPromptResponseImages(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate, 
+			final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState, 
+			final Collection<String> surveyIds, 
+			final Collection<String> promptIds, 
+			final Set<String> promptResponseSearchTokens,
+			final long afterPromptResponseId,
+			final long limit) 
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.retrievePromptResponseImages(
+					campaign, 
+					username,
+					surveyResponseIds,
+					usernames, 
+					startDate, 
+					endDate, 
+					privacyState, 
+					surveyIds, 
+					promptIds, 
+					promptResponseSearchTokens,
+					afterPromptResponseId,
+					limit);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Updates the privacy state on a survey.
 	 * 
 	 * @param surveyResponseIds  The key for the survey responses to update.
 	 * @param privacyState  The new privacy state value.
+	 * @return The number of survey responses whose privacy state changed.
 	 * @throws ServiceException  If an error occurs.
 	 */
-	public void updateSurveyResponsesPrivacyState(
+	public int updateSurveyResponsesPrivacyState(
 			final Set<UUID> surveyResponseIds, 
 			final SurveyResponse.PrivacyState privacyState) 
 			throws ServiceException {
 		
 		try {
-			surveyResponseQueries.updateSurveyResponsesPrivacyState(surveyResponseIds, privacyState);
+			return surveyResponseQueries.updateSurveyResponsesPrivacyState(surveyResponseIds, privacyState);
 		} 
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
 	}
 	
+	/**
+	 * Updates the privacy state on all of the survey responses in a campaign
+	 * that match some filters without first reading their IDs.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param usernames Limits the update to these users' survey responses.
+	 * 					Null or empty means all users.
+	 * 
+	 * @param startDate Limits the update to the survey responses on or after
+	 * 					this date. Optional.
+	 * 
+	 * @param endDate Limits the update to the survey responses on or before
+	 * 				  this date. Optional.
+	 * 
+	 * @param privacyState Limits the update to the survey responses with 
+	 * 					   this privacy state. Optional.
+	 * 
+	 * @param newPrivacyState The new privacy state.
+	 * 
+	 * @return The number of survey responses whose privacy state changed.
+	 * 
+	 * @throws ServiceException If an error occurs.
+	 */
+	public int updateSurveyResponsesPrivacyState(
+			final String campaignId,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final SurveyResponse.PrivacyState newPrivacyState)
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.updateSurveyResponsesPrivacyState(
+				campaignId, 
+				usernames, 
+				startDate, 
+				endDate, 
+				privacyState, 
+				newPrivacyState);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Deletes all of the images associated with a survey response then deletes
 	 * the survey response itself.
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.Collection;
+
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.UserActivityStats;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IUserActivityQueries;
+
+/**
+ * This class contains the services that maintain and read the per-user
+ * activity counters. The counters are updated as data is uploaded and are
+ * periodically recomputed from the data to correct for anything that was
+ * changed or deleted by other means.
+ *
+ * @author John Jenkins
+ */
+public class UserActivityServices {
+	private static final long MILLIS_IN_A_HOUR = 60 * 60 * 1000;
+	private static final int HOURS_IN_A_DAY = 24;
+
+	private static UserActivityServices instance;
+
+	private IUserActivityQueries userActivityQueries;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iUserActivityQueries is null
+	 */
+	private UserActivityServices(
+			final IUserActivityQueries iUserActivityQueries) {
+
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iUserActivityQueries == null) {
+			throw new IllegalArgumentException("An instance of IUserActivityQueries is required.");
+		}
+
+		userActivityQueries = iUserActivityQueries;
+
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static UserActivityServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Adds survey responses that were just uploaded to their owner's
+	 * counters.
+	 *
+	 * @param username The username of the user that owns the responses.
+	 *
+	 * @param surveyResponses The survey responses that were created.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void recordSurveyUploads(
+			final String username,
+			final Collection<SurveyResponse> surveyResponses)
+			throws ServiceException {
+
+		try {
+			userActivityQueries.recordSurveyUploads(
+				username,
+				System.currentTimeMillis(),
+				surveyResponses);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Adds Mobility points that were just uploaded to their owner's counters.
+	 *
+	 * @param username The username of the user that owns the points.
+	 *
+	 * @param mobilityPoints The Mobility points that were uploaded.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void recordMobilityUploads(
+			final String username,
+			final Collection<MobilityPoint> mobilityPoints)
+			throws ServiceException {
+
+		try {
+			userActivityQueries.recordMobilityUploads(
+				username,
+				getPastDayMillis(),
+				mobilityPoints);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Retrieves a user's activity counters. The counts cover the past day, to
+	 * the hour. The survey counters only cover the survey responses that the
+	 * requester may see.
+	 *
+	 * @param requester The requester's username or null if they may see all
+	 * 					of the user's survey responses.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @return The user's activity.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public UserActivityStats getUserActivityStats(
+			final String requester,
+			final String username)
+			throws ServiceException {
+
+		try {
+			return userActivityQueries.getUserActivityStats(
+				requester,
+				username,
+				getPastDayMillis());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Recomputes the past day's counters from the data.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void reconcileUserActivityStats() throws ServiceException {
+		try {
+			userActivityQueries.reconcileUserActivityStats(getPastDayMillis());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Returns the time one day ago.
+	 *
+	 * @return The number of milliseconds since the epoch one day ago.
+	 */
+	private static long getPastDayMillis() {
+		return System.currentTimeMillis() - (HOURS_IN_A_DAY * MILLIS_IN_A_HOUR);
+	}
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.io.UnsupportedEncodingException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,6 +28,8 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ResponseSnapshotCache;
+import org.ohmage.domain.ResponseSnapshot;
 import org.ohmage.domain.UserInformation.UserPersonal;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.CampaignMask;
@@ -1196,6 +1199,172 @@ public class UserCampaignServices {
 		}
 	}
 	
+	/**
+	 * Returns the versions of the XML of the campaigns that match the 
+	 * criteria and are visible to the user.
+	 * 
+	 * @param username The requesting user's username.
+	 * 
+	 * @param campaignIds Limits the results to only these campaigns. This is
+	 * 					  optional and may be null.
+	 * 
+	 * @param classIds Limits the results to only those campaigns associated
+	 * 				   with any of these classes. This is optional and may be
+	 * 				   null.
+	 * 
+	 * @param nameTokens Limits the results to only those campaigns whose name
+	 * 					 contains at least one of the tokens.
+	 * 
+	 * @param descriptionTokens Limits the results to only those campaigns 
+	 * 							whose description contains at least one of the
+	 * 							tokens.
+	 * 
+	 * @param startDate Limits the results to only those campaigns that were
+	 * 					created on or after this date.
+	 * 
+	 * @param endDate Limits the results to only those campaigns that were 
+	 * 				  created on or before this date.
+	 * 
+	 * @param privacyState Limits the results to only those campaigns that 
+	 * 					   have this privacy state.
+	 * 
+	 * @param runningState Limits the results to only those campaigns that 
+	 * 					   have this running state.
+	 * 
+	 * @param role Limits the results to only those campaigns where the user
+	 * 			   has this role.
+	 * 
+	 * @return A map of the campaigns' unique identifiers to the versions of
+	 * 		   the XML that the user would read.
+	 * 
+	 * @throws ServiceException No campaigns matched the criteria or there was
+	 * 							an error.
+	 */
+	public Map<String, String> getCampaignXmlVersions(
+			final String username, 
+			final Collection<String> campaignIds, 
+			final Collection<String> classIds,
+			final Collection<String> nameTokens,
+			final Collection<String> descriptionTokens,
+			final DateTime startDate, final DateTime endDate, 
+			final Campaign.PrivacyState privacyState, 
+			final Campaign.RunningState runningState, 
+			final Campaign.Role role)
+			throws ServiceException {
+		
+		try {
+			Collection<Object> campaignSqlParameters = new LinkedList<Object>();
+			
+			String campaignSqlStmt = 
+					campaignQueries.getVisibleCampaignsSql(
+							campaignSqlParameters,
+							username,
+							campaignIds, 
+							classIds, 
+							nameTokens, 
+							descriptionTokens,
+							startDate,
+							endDate, 
+							privacyState, 
+							runningState, 
+							role);
+			
+			Map<String, String> result =
+				campaignQueries.getCampaignXmlVersions(
+					campaignSqlStmt, 
+					campaignSqlParameters, 
+					username);
+			
+			if(result.size() == 0) {
+				throw
+					new ServiceException(
+						ErrorCode.CAMPAIGN_INVALID_ID,
+						"No campaigns were found.");
+			}
+			
+			return result;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Returns a snapshot of the XML of a campaign as read by a user, with the
+	 * user's most recent mask applied. The snapshot is only built if there 
+	 * isn't already one of the same version, so the version should come from
+	 * {@link #getCampaignXmlVersions(String, Collection, Collection, Collection, Collection, DateTime, DateTime, Campaign.PrivacyState, Campaign.RunningState, Campaign.Role)},
+	 * which also checks that the user may read the campaign.
+	 * 
+	 * @param username The requesting user's username.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param version The version of the campaign's XML.
+	 * 
+	 * @return The snapshot of the campaign's XML.
+	 * 
+	 * @throws ServiceException The campaign is no longer visible to the user
+	 * 							or there was an error.
+	 */
+	public ResponseSnapshot getCampaignXmlSnapshot(
+			final String username,
+			final String campaignId,
+			final String version)
+			throws ServiceException {
+		
+		ResponseSnapshotCache cache = ResponseSnapshotCache.instance();
+		
+		ResponseSnapshot result = cache.getCampaignXml(campaignId, version);
+		if(result != null) {
+			return result;
+		}
+		
+		LOGGER.info("Building a new snapshot of the XML of campaign: " + campaignId);
+		Collection<Campaign> campaigns =
+			getCampaignInformation(
+				username, 
+				Collections.singletonList(campaignId), 
+				null, 
+				null, 
+				null, 
+				null, 
+				null, 
+				null, 
+				null, 
+				null, 
+				false, 
+				false, 
+				false);
+		
+		if(campaigns.size() == 0) {
+			throw
+				new ServiceException(
+					ErrorCode.CAMPAIGN_INVALID_ID,
+					"No campaigns were found.");
+		}
+		Campaign campaign = campaigns.iterator().next();
+		
+		try {
+			result = 
+				new ResponseSnapshot(
+					"text/xml", 
+					campaign.getName() + ".xml", 
+					campaign.getXml().getBytes("UTF-8"));
+		}
+		catch(DomainException e) {
+			throw new ServiceException(
+				"There was an error generating the campaign mask.",
+				e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new ServiceException("UTF-8 is unknown.", e);
+		}
+		
+		cache.putCampaignXml(campaignId, version, result);
+		return result;
+	}
+	
 	/**
 	 * Verifies that some user is allowed to read the list of users in a 
 	 * campaign.
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -42,6 +43,9 @@ import org.ohmage.query.IUserDocumentQueries;
  * @author Hongsuda T.
  */
 public class UserDocumentServices {
+	// The most documents that are read by their IDs in one query.
+	private static final int MAX_DOCUMENTS_PER_QUERY = 500;
+	
 	private static UserDocumentServices instance;
 	
 	private ICampaignDocumentQueries campaignDocumentQueries;
@@ -356,10 +360,8 @@ public class UserDocumentServices {
 			throws ServiceException {
 			
 		try {
-			Collection<Object> docSqlParameters = new LinkedList<Object>();
-			
-			String docSqlStmt = documentQueries.getVisibleDocumentsSql(
-					docSqlParameters,
+			// First get a list of all documents that are visible through the ACL rules.
+			List<Integer> documentIds = documentQueries.getVisibleDocumentIds(
 					requesterUsername, 
 					personalDocuments, 
 					campaignIds, 
@@ -369,28 +371,49 @@ public class UserDocumentServices {
 					startDate,
 					endDate);
 			
-			// First get a list of all documents that are visible through the ACL rules.
-			List<Document> result = documentQueries.getDocumentInformation(
-					docSqlStmt,
-					docSqlParameters,
-					requesterUsername);
-	
-			if (result.size() == 0)
-				return result; 
+			List<Document> result = new ArrayList<Document>(documentIds.size());
+			Map<String, Document.Role> userRoleMap = 
+					new HashMap<String, Document.Role>();
+			Map<String, Collection<UserContainerRole>> userClassRoles = 
+					new HashMap<String, Collection<UserContainerRole>>();
+			Map<String, Collection<UserContainerRole>> userCampaignRoles = 
+					new HashMap<String, Collection<UserContainerRole>>();
 			
-			// Assuming that the list of doc have passed the ACL rules, 
-			// update the roles data associated with those document.
-			// 1. data derived from userDocument relationship
-			Map<String, Document.Role> userRoleMap = userDocumentQueries.
-					getDocumentRoleForDocumentsSpecificToUser(docSqlStmt, docSqlParameters, requesterUsername);
-
-			// 2. data derived from ClassDocument relationship
-			Map<String, Collection<UserContainerRole>> userClassRoles = classDocumentQueries.
-					getClassesAndRolesForDocuments(docSqlStmt, docSqlParameters, requesterUsername);
-
-			// 3. data derived from DocumentCampaign relationship
-			Map<String, Collection<UserContainerRole>> userCampaignRoles = campaignDocumentQueries.
-					getCampaignsAndRolesForDocuments(docSqlStmt, docSqlParameters, requesterUsername);
+			// Read the documents by their primary keys, a bounded number at
+			// a time.
+			for(int start = 0; start < documentIds.size(); start += MAX_DOCUMENTS_PER_QUERY) {
+				Collection<Object> docSqlParameters = new LinkedList<Object>();
+				String docSqlStmt = documentQueries.getDocumentsSql(
+						docSqlParameters,
+						documentIds.subList(
+								start, 
+								Math.min(
+										start + MAX_DOCUMENTS_PER_QUERY, 
+										documentIds.size())));
+				
+				List<Document> documents = documentQueries.getDocumentInformation(
+						docSqlStmt,
+						docSqlParameters,
+						requesterUsername);
+				if(documents.isEmpty()) {
+					continue;
+				}
+				result.addAll(documents);
+				
+				// Assuming that the list of doc have passed the ACL rules, 
+				// update the roles data associated with those document.
+				// 1. data derived from userDocument relationship
+				userRoleMap.putAll(userDocumentQueries.
+						getDocumentRoleForDocumentsSpecificToUser(docSqlStmt, docSqlParameters, requesterUsername));
+	
+				// 2. data derived from ClassDocument relationship
+				userClassRoles.putAll(classDocumentQueries.
+						getClassesAndRolesForDocuments(docSqlStmt, docSqlParameters, requesterUsername));
+	
+				// 3. data derived from DocumentCampaign relationship
+				userCampaignRoles.putAll(campaignDocumentQueries.
+						getCampaignsAndRolesForDocuments(docSqlStmt, docSqlParameters, requesterUsername));
+			}
 		
 			
 			for (Document doc : result) {
@@ -493,10 +516,8 @@ public class UserDocumentServices {
 			throws ServiceException {
 		
 		try {
-			Collection<Object> docSqlParameters = new LinkedList<Object>();
-			
-			String docSqlStmt = documentQueries.getVisibleDocumentsSql(
-					docSqlParameters,
+			// First get a list of all documents that are visible through the ACL rules.
+			List<Integer> documentIds = documentQueries.getVisibleDocumentIds(
 					requesterUsername, 
 					personalDocuments, 
 					campaignIds, 
@@ -505,14 +526,24 @@ public class UserDocumentServices {
 					descriptionTokens,
 					null,
 					null);
-			// First get a list of all documents that are visible through the ACL rules.
-
 			
-			List<Document> result =
-				documentQueries.getDocumentInformation(
-					docSqlStmt,
-					docSqlParameters,
-					requesterUsername);
+			List<Document> result = new ArrayList<Document>(documentIds.size());
+			for(int start = 0; start < documentIds.size(); start += MAX_DOCUMENTS_PER_QUERY) {
+				Collection<Object> docSqlParameters = new LinkedList<Object>();
+				String docSqlStmt = documentQueries.getDocumentsSql(
+						docSqlParameters,
+						documentIds.subList(
+								start, 
+								Math.min(
+										start + MAX_DOCUMENTS_PER_QUERY, 
+										documentIds.size())));
+				
+				result.addAll(
+					documentQueries.getDocumentInformation(
+						docSqlStmt,
+						docSqlParameters,
+						requesterUsername));
+			}
 			
 			for(Document document : result) {
 				String documentId = document.getDocumentId();
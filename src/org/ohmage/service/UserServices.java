@@ -16,6 +16,7 @@
 package org.ohmage.service;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
@@ -26,10 +27,12 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,15 +40,14 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.mail.Message;
-import javax.mail.MessagingException;
 import javax.mail.NoSuchProviderException;
 import javax.mail.SendFailedException;
-import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 import com.sun.mail.smtp.SMTPTransport;
 
 import jbcrypt.BCrypt;
@@ -60,6 +62,7 @@ import org.ohmage.cache.PreferenceCache;
 import org.ohmage.cache.UserBin;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.KeycloakUser;
+import org.ohmage.domain.NewUser;
 import org.ohmage.domain.User;
 import org.ohmage.domain.UserInformation;
 import org.ohmage.domain.UserInformation.UserPersonal;
@@ -78,7 +81,6 @@ import org.ohmage.query.impl.QueryResultsList;
 import org.ohmage.request.InputKeys;
 import org.ohmage.util.CookieUtils;
 import org.ohmage.util.StringUtils;
-import org.ohmage.util.MailUtils;
 
 
 
@@ -105,6 +107,14 @@ public final class UserServices {
 	
 	private static final long REGISTRATION_DURATION = 1000 * 60 * 60 * 24;
 	
+	/**
+	 * The pool on which the passwords are hashed when creating a batch of 
+	 * users. Hashing only uses the CPU, so there is one thread per processor
+	 * no matter how many batches are being created at once.
+	 */
+	private static final ForkJoinPool PASSWORD_HASHING_POOL =
+		new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
 	final static char[] CHARS_TEMPORARY_PASSWORD = 
 			new char[] { 
 				'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l',
@@ -299,6 +309,166 @@ public final class UserServices {
 		}
 	}
 	
+	/**
+	 * Creates a batch of users. Their passwords are hashed in parallel and 
+	 * then they are all created in a single transaction. A user that cannot 
+	 * be created is skipped and reported without affecting the others.
+	 * 
+	 * @param users The users to create.
+	 * 
+	 * @param storeInitialPassword Whether or not to store each user's 
+	 * 							   plain-text password as their initial
+	 * 							   password.
+	 * 
+	 * @param classIds The classes to which the new users should be added, 
+	 * 				   which may be null.
+	 * 
+	 * @param classRole The new users' role in the classes. This is required
+	 * 					if any classes are given.
+	 * 
+	 * @return A map of the username of each user that was not created to the
+	 * 		   reason why.
+	 * 
+	 * @throws ServiceException There was an error, and none of the users were
+	 * 							created.
+	 */
+	public Map<String, String> createUsers(
+			final List<NewUser> users,
+			final boolean storeInitialPassword,
+			final Collection<String> classIds,
+			final Clazz.Role classRole)
+			throws ServiceException {
+		
+		String[] hashedPasswords = hashPasswords(users);
+		
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		List<NewUser> hashedUsers = new ArrayList<NewUser>(users.size());
+		Map<String, String> hashedPasswordMap = new HashMap<String, String>();
+		for(int i = 0; i < hashedPasswords.length; i++) {
+			NewUser user = users.get(i);
+			
+			if(hashedPasswords[i] == null) {
+				failures.put(
+					user.getUsername(), 
+					"The password could not be hashed.");
+			}
+			else {
+				hashedUsers.add(user);
+				
+				// If the username is repeated, only the first user may be
+				// created.
+				if(! hashedPasswordMap.containsKey(user.getUsername())) {
+					hashedPasswordMap.put(
+						user.getUsername(), 
+						hashedPasswords[i]);
+				}
+			}
+		}
+		
+		try {
+			failures.putAll(
+				userQueries
+					.createUsers(
+						hashedUsers, 
+						hashedPasswordMap, 
+						storeInitialPassword, 
+						classIds, 
+						classRole));
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Hashes the users' passwords in parallel on the shared pool.
+	 * 
+	 * @param users The users.
+	 * 
+	 * @return Each user's hashed password at the same index as the user or
+	 * 		   null if their password could not be hashed.
+	 */
+	static String[] hashPasswords(final List<NewUser> users) {
+		String[] result = new String[users.size()];
+		if(! users.isEmpty()) {
+			PASSWORD_HASHING_POOL.invoke(
+				new PasswordHasher(users, result, 0, users.size()));
+		}
+		return result;
+	}
+	
+	/**
+	 * Hashes the passwords of a range of users by splitting the range until
+	 * each task hashes a single password. Each hash takes far longer than
+	 * splitting, so splitting all of the way down keeps every thread busy
+	 * until the last hash.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class PasswordHasher extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<NewUser> users;
+		private final String[] hashedPasswords;
+		private final int start;
+		private final int end;
+		
+		/**
+		 * Creates a task to hash the passwords of a range of users.
+		 * 
+		 * @param users The users.
+		 * 
+		 * @param hashedPasswords The array into which each user's hashed 
+		 * 						  password is placed at the same index. The
+		 * 						  hash is left null if it cannot be created.
+		 * 
+		 * @param start The index of the first user in the range, inclusive.
+		 * 
+		 * @param end The index of the last user in the range, exclusive.
+		 */
+		private PasswordHasher(
+				final List<NewUser> users,
+				final String[] hashedPasswords,
+				final int start,
+				final int end) {
+			
+			this.users = users;
+			this.hashedPasswords = hashedPasswords;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/**
+		 * Hashes the password if there is only one user in the range or splits
+		 * the range in half otherwise.
+		 */
+		@Override
+		protected void compute() {
+			if((end - start) > 1) {
+				int middle = (start + end) >>> 1;
+				invokeAll(
+					new PasswordHasher(users, hashedPasswords, start, middle),
+					new PasswordHasher(users, hashedPasswords, middle, end));
+				return;
+			}
+			
+			try {
+				hashedPasswords[start] = 
+					BCrypt.hashpw(
+						users.get(start).getPassword(), 
+						BCrypt.gensalt(User.BCRYPT_COMPLEXITY));
+			}
+			catch(IllegalArgumentException e) {
+				LOGGER.warn(
+					"The password could not be hashed for user: " + 
+						users.get(start).getUsername(), 
+					e);
+			}
+		}
+	}
+	
 	/**
 	 * Registers the user in the system by first creating the user whose 
 	 * account is disabled. It then creates an entry in the registration cache
@@ -421,32 +591,16 @@ public final class UserServices {
 				registrationText
 					.replace(MAIL_REGISTRATION_TEXT_TOS, termsOfService);
 			
-			// Get the session.
-			Session smtpSession = MailUtils.getMailSession();
-			// Create the message.
-			MimeMessage message = new MimeMessage(smtpSession);
-			
+			// Queue the message. It is sent in the background so that a slow
+			// mail server doesn't hold up the request.
 			try {
-				// set up properties
-				MailUtils.setMailMessageTo(message, emailAddress);
-				MailUtils.setMailMessageFrom(message, PreferenceCache.KEY_MAIL_REGISTRATION_SENDER);
-				MailUtils.setMailMessageSubject(message, PreferenceCache.KEY_MAIL_REGISTRATION_SUBJECT);	
-
-				try {
-					// Set the content of the message.
-					message.setContent(registrationText, "text/html");
-				}
-				catch(MessagingException e) {
-					throw new ServiceException(
-							"There was an error constructing the message.",
-							e);
-				}
-					
-				// send message
-				MailUtils.sendMailMessage(smtpSession, message);
-
+				MailServices.instance().queueMail(
+					PreferenceCache.KEY_MAIL_REGISTRATION_SENDER,
+					emailAddress,
+					PreferenceCache.KEY_MAIL_REGISTRATION_SUBJECT,
+					registrationText);
 			} catch (ServiceException e) {
-				throw new ServiceException("Cannot successfully send the password recovery notification.", e);
+				throw new ServiceException("Cannot successfully queue the registration notification.", e);
 			}
 
 			/*
@@ -1472,9 +1626,7 @@ public final class UserServices {
 		}
 		
 		try {
-			Collection<Object> userSubSelectParameters = new LinkedList<Object>();
-			String userSubSelectStmt = userQueries.getVisibleUsersSql(
-					userSubSelectParameters,
+			QueryResultsList<Integer> userIds = userQueries.getVisibleUserIds(
 					requesterUsername,
 					usernameCompilation,
 					emailAddressCompilation, 
@@ -1492,18 +1644,18 @@ public final class UserServices {
 					false,
 					numToSkip, 
 					numToReturn);
-	
 			
-			QueryResultsList<UserInformation> result =
+			Collection<Object> userSubSelectParameters = new LinkedList<Object>();
+			String userSubSelectStmt = userQueries.getUsersSql(
+					userSubSelectParameters, 
+					userIds.getResults());
+			
+			results.addAll(
 					userQueries.getUserInformation(
 							userSubSelectStmt,
-							userSubSelectParameters,
-							numToSkip, 
-							numToReturn);
+							userSubSelectParameters));
 			
-			results.addAll(result.getResults());
-			
-			return result.getTotalNumResults();
+			return userIds.getTotalNumResults();
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -1636,9 +1788,7 @@ public final class UserServices {
 				personalIdTokens.add('%' + partialPersonalId + '%');
 			}
 
-			Collection<Object> userSubSelectParameters = new LinkedList<Object>();
-			String userSubSelectStmt = userQueries.getVisibleUsersSql(
-					userSubSelectParameters,
+			QueryResultsList<Integer> userIds = userQueries.getVisibleUserIds(
 					requesterUsername,
 					usernameTokens,
 					emailAddressTokens, 
@@ -1656,10 +1806,16 @@ public final class UserServices {
 					false,
 					numToSkip, 
 					numToReturn);
-					
-			QueryResultsList<UserInformation> result =
+			
+			// Only the users in the page are read from here on.
+			Collection<Object> userSubSelectParameters = new LinkedList<Object>();
+			String userSubSelectStmt = userQueries.getUsersSql(
+					userSubSelectParameters, 
+					userIds.getResults());
+			
+			List<UserInformation> result =
 				userQueries.getUserInformation(
-						userSubSelectStmt, userSubSelectParameters, numToSkip, numToReturn);
+						userSubSelectStmt, userSubSelectParameters);
 			
 			
 			// Retrieve campaign info (batch operation)
@@ -1675,7 +1831,7 @@ public final class UserServices {
 			// loop through the result, add class and roles to each UserInformation
 			try {
 				
-				for(UserInformation currResult : result.getResults()) {
+				for(UserInformation currResult : result) {
 					
 					// update campaign info 
 					Map<String, Set<Campaign.Role>> campaignRoles = userCampaignMap.get(currResult.getUsername());
@@ -1693,9 +1849,9 @@ public final class UserServices {
 			}
 
 			
-			results.addAll(result.getResults());
+			results.addAll(result);
 
-			return result.getTotalNumResults();
+			return userIds.getTotalNumResults();
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -1737,13 +1893,13 @@ public final class UserServices {
 		personalIdSet.add(personalInformation.getPersonalId());
 		
 		// Query for the users.
-		QueryResultsList<UserInformation> queryResult;
+		QueryResultsList<Integer> userIds;
+		List<UserInformation> users;
 		
 		Collection<Object> userSubSelectParameters = new LinkedList<Object>();
 
 		try {
-			String userSubSelectStmt = userQueries.getVisibleUsersSql(
-					userSubSelectParameters,
+			userIds = userQueries.getVisibleUserIds(
 					requesterUsername,
 					null,
 					null, 
@@ -1762,23 +1918,25 @@ public final class UserServices {
 					0, 
 					2);
 
-			queryResult =
+			String userSubSelectStmt = userQueries.getUsersSql(
+					userSubSelectParameters, 
+					userIds.getResults());
+			users =
 				userQueries.getUserInformation(
 						userSubSelectStmt,
-						userSubSelectParameters,		
-						0, 
-						2);
+						userSubSelectParameters);
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
 		
 		// Return the result.
-		switch((int) queryResult.getTotalNumResults()) {
+		switch((int) userIds.getTotalNumResults()) {
 		case 0:
 			return null;
 		case 1:
-			return queryResult.getResults().get(0);
+			// The user may have been deleted since they were paged.
+			return users.isEmpty() ? null : users.get(0);
 		default:
 			throw
 				new ServiceException(
@@ -2013,8 +2171,9 @@ public final class UserServices {
 	}
 	
 	/**
-	 * Resets a user's password. This is done by first updating the user's 
-	 * information and then by sending an email to the user.
+	 * Resets a user's password. This is done by queueing an email to the 
+	 * user. The user is given a new password when it is sent, so the new 
+	 * password is never stored in the mail queue.
 	 * 
 	 * @param username The user's username.
 	 * 
@@ -2023,8 +2182,6 @@ public final class UserServices {
 	public void resetPassword(final String username)
 			throws ServiceException {
 			
-		String newPassword = generateRandomTemporaryPassword();
-		
 		String emailAddress;
 		try {
 			emailAddress = userQueries.getEmailAddress(username);
@@ -2039,51 +2196,29 @@ public final class UserServices {
 		}
 		
 		try {
-			userQueries.updateUserPassword(
-					username, 
-					BCrypt.hashpw(newPassword, BCrypt.gensalt(13)), 
-					true);
-		}
-		catch(DataAccessException e) {
-			throw new ServiceException(e);
-		}
-		
-		// Get the session.
-		Session smtpSession = MailUtils.getMailSession();
-		// Create the message.
-		MimeMessage message = new MimeMessage(smtpSession);
-		
-		try {
-			// set up properties
-			MailUtils.setMailMessageTo(message, emailAddress);
-			MailUtils.setMailMessageFrom(message, PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_SENDER);
-			MailUtils.setMailMessageSubject(message, PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_SUBJECT);	
-
+			String content;
 			try {
-				message.setContent(
+				content =
 						PreferenceCache.instance().lookup(
-							PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_TEXT) +
-							"<br /><br />" +
-							newPassword, 
-						"text/html");
+							PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_TEXT);
 			}
 			catch(CacheMissException e) {
 				throw new ServiceException(
 						"The mail property is not in the preference table: " +
-							PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_SUBJECT,
-						e);
-			}
-			catch(MessagingException e) {
-				throw new ServiceException(
-						"Could not set the HTML portion of the message.", 
+							PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_TEXT,
 						e);
 			}
 			
-			// send message
-			MailUtils.sendMailMessage(smtpSession, message);
+			// Queue the message. The new password is added when it is sent.
+			MailServices.instance().queuePasswordRecoveryMail(
+				PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_SENDER,
+				emailAddress,
+				PreferenceCache.KEY_MAIL_PASSWORD_RECOVERY_SUBJECT,
+				content,
+				username);
 
 		} catch (ServiceException e) {
-			throw new ServiceException("Cannot successfully send the password recovery notification.", e);
+			throw new ServiceException("Cannot successfully queue the password recovery notification.", e);
 		}
 		
 		/*// Add the recipient.
@@ -2244,6 +2379,10 @@ public final class UserServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		
+		// Retrieve the users' archived stream data, which is also deleted.
+		Collection<File> streamArchiveFiles = 
+			StreamPartitionServices.instance().getArchiveFiles(usernames);
 				
 		try {
 			userQueries.deleteUsers(usernames);
@@ -2262,6 +2401,38 @@ public final class UserServices {
 		for(URL imageUrl : imageUrls) {
 			imageQueries.deleteImageDiskOnly(imageUrl);
 		}
+		StreamPartitionServices
+			.instance()
+			.deleteArchiveFiles(streamArchiveFiles);
+	}
+	
+	/**
+	 * Gives a user a new, random temporary password, which they must change
+	 * the next time they log in. This is called when their password recovery
+	 * message is sent.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The plaintext password.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public String resetTemporaryPassword(final String username)
+			throws ServiceException {
+		
+		String newPassword = generateRandomTemporaryPassword();
+		
+		try {
+			userQueries.updateUserPassword(
+					username, 
+					BCrypt.hashpw(newPassword, BCrypt.gensalt(13)), 
+					true);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+		
+		return newPassword;
 	}
 	
 	/**
@@ -15,7 +15,9 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
 import java.util.UUID;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
@@ -132,6 +134,113 @@ public class UserSurveyResponseServices {
 		}
 	}
 	
+	/**
+	 * Verifies that the requesting user has sufficient permissions to update
+	 * or delete all of a set of survey responses. The rules are the same as
+	 * {@link #verifyUserCanUpdateOrDeleteSurveyResponse(String, UUID)}, but
+	 * the responses are checked per campaign instead of one at a time.
+	 * 
+	 * @param requesterUsername The username of the user that is attempting to
+	 * 							modify the survey responses.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @throws ServiceException Thrown if there is an error, if any of the
+	 * 							survey responses don't exist, or if the user
+	 * 							doesn't have sufficient permissions to modify
+	 * 							any of them.
+	 */
+	public void verifyUserCanUpdateOrDeleteSurveyResponses(
+			final String requesterUsername,
+			final Collection<UUID> surveyResponseIds)
+			throws ServiceException {
+		
+		try {
+			Map<String, Map<String, Integer>> counts =
+				userSurveyResponseQueries
+					.getSurveyResponseCountsByCampaignAndOwner(
+						surveyResponseIds);
+			
+			int numFound = 0;
+			for(String campaignId : counts.keySet()) {
+				Map<String, Integer> owners = counts.get(campaignId);
+				for(Integer count : owners.values()) {
+					numFound += count;
+				}
+				
+				if(userCampaignQueries.getUserCampaignRoles(requesterUsername, campaignId).contains(Campaign.Role.SUPERVISOR)) {
+					continue;
+				}
+				
+				if(	(owners.size() == 1) &&
+					owners.containsKey(requesterUsername) &&
+					Campaign.RunningState.RUNNING.equals(campaignQueries.getCampaignRunningState(campaignId))) {
+					
+					continue;
+				}
+				
+				throw new ServiceException(
+						ErrorCode.SURVEY_INSUFFICIENT_PERMISSIONS, 
+						"The user does not have sufficient permissions to modify this survey response.");
+			}
+			
+			// The survey responses that don't exist can't be modified.
+			if(numFound < surveyResponseIds.size()) {
+				throw new ServiceException(
+						ErrorCode.SURVEY_INSUFFICIENT_PERMISSIONS, 
+						"The user does not have sufficient permissions to modify this survey response.");
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Verifies that the requesting user may update or delete all of the
+	 * survey responses in a campaign from a set of users. Supervisors may
+	 * modify everyone's responses. Other users may only modify their own
+	 * responses and only while the campaign is running.
+	 * 
+	 * @param requesterUsername The username of the user that is attempting to
+	 * 							modify the survey responses.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param usernames The users whose survey responses will be modified. 
+	 * 					Null or empty means all users.
+	 * 
+	 * @throws ServiceException Thrown if there is an error or if the user 
+	 * 							doesn't have sufficient permissions.
+	 */
+	public void verifyUserCanUpdateOrDeleteSurveyResponsesInCampaign(
+			final String requesterUsername,
+			final String campaignId,
+			final Collection<String> usernames)
+			throws ServiceException {
+		
+		try {
+			if(userCampaignQueries.getUserCampaignRoles(requesterUsername, campaignId).contains(Campaign.Role.SUPERVISOR)) {
+				return;
+			}
+			
+			if(	(usernames != null) &&
+				(usernames.size() == 1) &&
+				usernames.contains(requesterUsername) &&
+				Campaign.RunningState.RUNNING.equals(campaignQueries.getCampaignRunningState(campaignId))) {
+				
+				return;
+			}
+			
+			throw new ServiceException(
+					ErrorCode.SURVEY_INSUFFICIENT_PERMISSIONS, 
+					"The user does not have sufficient permissions to modify the survey responses in this campaign.");
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Retrieves the number of hours since the last uploaded survey was taken
 	 * that is visible to the requesting user.
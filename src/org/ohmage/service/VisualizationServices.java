@@ -15,19 +15,30 @@
  ******************************************************************************/
 package org.ohmage.service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.cache.VisualizationCache;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
@@ -98,6 +109,36 @@ public class VisualizationServices {
 	
 	private static final String ENCODING = "UTF-8";
 	
+	/**
+	 * The maximum number of simultaneous connections to the visualization
+	 * server.
+	 */
+	private static final int MAX_CONNECTIONS = 20;
+	/**
+	 * The number of milliseconds to wait for a connection to the 
+	 * visualization server.
+	 */
+	private static final int CONNECT_TIMEOUT = 10 * 1000;
+	/**
+	 * The number of milliseconds to wait for the visualization server to
+	 * respond.
+	 */
+	private static final int READ_TIMEOUT = 2 * 60 * 1000;
+	/**
+	 * The client parameter for the number of milliseconds to wait for a
+	 * pooled connection. This library version only defines it in its
+	 * deprecated connection manager parameters. Later versions define it as
+	 * ClientPNames.CONN_MANAGER_TIMEOUT.
+	 */
+	private static final String CONN_MANAGER_TIMEOUT =
+		"http.conn-manager.timeout";
+	
+	/**
+	 * The client shared by all requests to the visualization server.
+	 */
+	private static final HttpClient HTTP_CLIENT =
+		buildHttpClient(CONNECT_TIMEOUT, READ_TIMEOUT);
+	
 	/**
 	 * Default constructor. Made private so that it cannot be instantiated.
 	 */
@@ -105,7 +146,8 @@ public class VisualizationServices {
 
 	/**
 	 * Sends a request to the visualization server and returns the image as a
-	 * byte array that was returned by the visualization server.
+	 * byte array that was returned by the visualization server. The images 
+	 * are cached until the campaign's survey responses change.
 	 * 
 	 * @param requestPath The additional path beyond the base URI that is 
 	 * 					  stored in the database. An example would be, if the
@@ -115,6 +157,9 @@ public class VisualizationServices {
 	 * 					  would result in a URL of
 	 * 					  "https://viz.server/com/R/visualizations/survey_response_count?param1=...".
 	 * 
+	 * @param username The requesting user's username. This is used to keep
+	 * 				   the cached images of different users apart.
+	 * 
 	 * @param userToken The authentication token for the requesting user that
 	 * 					will be passed on to the visualization server to 
 	 * 					perform subsequent requests on our behalf.
@@ -137,7 +182,7 @@ public class VisualizationServices {
 	 * @throws ServiceException Thrown if there is an error.
 	 */
 	public static byte[] sendVisualizationRequest(final String requestPath, 
-			final String userToken, final String campaignId, final int width, 
+			final String username, final String userToken, final String campaignId, final int width, 
 			final int height, final Map<String, String> parameters) 
 			throws ServiceException {
 		
@@ -160,7 +205,7 @@ public class VisualizationServices {
 		urlBuilder.append(requestPath);
 		
 		// Generate the URL String.
-		String urlString = urlBuilder.toString();
+		final String urlString = urlBuilder.toString();
 		
 		// Build this server's URL.
 		StringBuilder parameterBuilder = new StringBuilder();
@@ -236,76 +281,176 @@ public class VisualizationServices {
 					e);
 		}
 		
+		// Use the cached image if there is one. Otherwise, make the request.
+		// Identical concurrent requests are sent to the visualization server
+		// only once.
+		final String parameterString = parameterBuilder.toString();
+		String key =
+			VisualizationCache.buildKey(
+				urlString, 
+				username, 
+				campaignId, 
+				width, 
+				height, 
+				parameters, 
+				CampaignServices
+					.instance().getSurveyResponseDataVersion(campaignId),
+				CampaignServices
+					.instance()
+					.getSurveyResponseAccessVersion(campaignId, username));
+		
+		return VisualizationCache.instance().get(
+			key,
+			new Callable<byte[]>() {
+				/**
+				 * Makes the request to the visualization server.
+				 */
+				@Override
+				public byte[] call() throws ServiceException {
+					return
+						makeRequest(HTTP_CLIENT, urlString, parameterString);
+				}
+			});
+	}
+	
+	/**
+	 * Posts the parameters to the visualization server and returns the 
+	 * resulting image.
+	 * 
+	 * @param client The client that sends the request.
+	 * 
+	 * @param urlString The URL of the visualization.
+	 * 
+	 * @param parameterString The URL-encoded parameters.
+	 * 
+	 * @return The image.
+	 * 
+	 * @throws ServiceException Thrown if there is an error communicating with
+	 * 							the visualization server or it returns an
+	 * 							error.
+	 */
+	static byte[] makeRequest(
+			final HttpClient client,
+			final String urlString,
+			final String parameterString)
+			throws ServiceException {
+		
+		HttpPost post;
 		try {
-			// Connect to the visualization server.
-			URL url = new URL(urlString);
-			HttpURLConnection urlConnection = 
-					(HttpURLConnection) url.openConnection();
-			
-			urlConnection.setDoOutput(true);
-			urlConnection.setDoInput(true);
-			urlConnection.setInstanceFollowRedirects(true);
-			urlConnection.setRequestMethod("POST");
-			urlConnection.setRequestProperty(
-					"Content-Length", 
-					Integer.toString(parameterBuilder.length()));
-			
-			DataOutputStream output = 
-					new DataOutputStream(urlConnection.getOutputStream());
-			output.writeBytes(parameterBuilder.toString());
-			output.flush();
-			output.close();
+			post = new HttpPost(urlString);
+			StringEntity entity = new StringEntity(parameterString, ENCODING);
+			entity.setContentType("application/x-www-form-urlencoded");
+			post.setEntity(entity);
+		}
+		catch(IllegalArgumentException e) {
+			throw new ServiceException(
+					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
+					"Built a malformed URL: " + urlString, 
+					e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new ServiceException(
+					"UTF-8 encoding is unknown.",
+					e);
+		}
+		
+		try {
+			HttpResponse response = client.execute(post);
+			HttpEntity responseEntity = response.getEntity();
+			int statusCode = response.getStatusLine().getStatusCode();
 			
 			// If a non-200 response was returned, get the text from the 
 			// response.
-			if(urlConnection.getResponseCode() != 200) {
-				// Get the error text.
-				ByteArrayOutputStream errorByteStream = new ByteArrayOutputStream();
-				InputStream errorStream = urlConnection.getErrorStream();
-				byte[] chunk = new byte[4096];
-				int amountRead;
-				while((amountRead = errorStream.read(chunk)) != -1) {
-					errorByteStream.write(chunk, 0, amountRead);
-				}
-				errorStream.close();
+			if(statusCode != 200) {
+				String error = 
+						(responseEntity == null) ? 
+							"" : 
+							EntityUtils.toString(responseEntity);
 				
 				// Echo the error.
 				throw new ServiceException(
 						ErrorCode.VISUALIZATION_GENERAL_ERROR,
 						"There was an error. Please, try again later.",
 						"The server returned the HTTP error code '" + 
-							urlConnection.getResponseCode() + 
+							statusCode + 
 							"' with the error '" + 
-							errorByteStream.toString() + 
+							error + 
 							"': " + 
 							urlString);
 			}
 			
-			// Build the response.
-			InputStream reader = urlConnection.getInputStream();
-			
-			// Generate the byte array.
-			ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-			byte[] chunk = new byte[4096];
-			int amountRead = 0;
-			while((amountRead = reader.read(chunk)) != -1) {
-				byteArrayStream.write(chunk, 0, amountRead);
+			// Reading the whole entity returns the connection to the pool.
+			if(responseEntity == null) {
+				return new byte[0];
 			}
-			reader.close();
-			
-			return byteArrayStream.toByteArray();
-		}
-		catch(MalformedURLException e) {
-			throw new ServiceException(
-					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
-					"Built a malformed URL: " + urlString, 
-					e);
+			return EntityUtils.toByteArray(responseEntity);
 		}
 		catch(IOException e) {
+			// Make sure the connection isn't returned to the pool in an
+			// unknown state.
+			post.abort();
+			
 			throw new ServiceException(
 					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
 					"Error while communicating with the visualization server.",
 					e);
 		}
 	}
+	
+	/**
+	 * Builds the client that is shared by all requests to the visualization
+	 * server. Its connections are pooled and kept alive between requests.
+	 * 
+	 * @param connectTimeout The number of milliseconds to wait for a
+	 * 						 connection, either a new one or one from the
+	 * 						 pool.
+	 * 
+	 * @param readTimeout The number of milliseconds to wait for the server
+	 * 					  to respond.
+	 * 
+	 * @return The HTTP client.
+	 */
+	static HttpClient buildHttpClient(
+			final int connectTimeout,
+			final int readTimeout) {
+		
+		ThreadSafeClientConnManager connectionManager =
+				new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+		
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+		HttpParams params = client.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+		HttpConnectionParams.setSoTimeout(params, readTimeout);
+		params.setLongParameter(CONN_MANAGER_TIMEOUT, connectTimeout);
+		
+		// Follow redirects for the POSTs the same as HttpURLConnection did.
+		client.setRedirectStrategy(
+			new DefaultRedirectStrategy() {
+				/**
+				 * Treats every redirect with a location as a redirect.
+				 */
+				@Override
+				public boolean isRedirected(
+						final HttpRequest request,
+						final HttpResponse response,
+						final HttpContext context)
+						throws ProtocolException {
+					
+					if(super.isRedirected(request, response, context)) {
+						return true;
+					}
+					
+					int statusCode = response.getStatusLine().getStatusCode();
+					return 
+						((statusCode == HttpStatus.SC_MOVED_PERMANENTLY) ||
+						 (statusCode == HttpStatus.SC_MOVED_TEMPORARILY) ||
+						 (statusCode == HttpStatus.SC_TEMPORARY_REDIRECT)) &&
+						(response.getFirstHeader("location") != null);
+				}
+			});
+		
+		return client;
+	}
 }
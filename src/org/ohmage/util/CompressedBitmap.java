@@ -0,0 +1,834 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A compressed set of non-negative integers, such as database IDs.
+ * </p>
+ * 
+ * <p>
+ * The integers are grouped into chunks by their upper 16 bits. A chunk with
+ * few integers stores their lower 16 bits in a sorted array and a chunk with
+ * many stores them in a bitmap of 2^16 bits, so sparse and dense ranges of
+ * IDs both take little space and unions and intersections work on whole
+ * chunks at a time.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class CompressedBitmap {
+	/**
+	 * The largest number of integers that a chunk stores in an array. Past
+	 * this, the array would be larger than the bitmap.
+	 */
+	private static final int MAX_ARRAY_CARDINALITY = 4096;
+	
+	/**
+	 * The number of longs in a chunk's bitmap.
+	 */
+	private static final int BITMAP_LENGTH = 1 << 10;
+	
+	/**
+	 * The initial number of chunks for which there is room.
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+	
+	/**
+	 * The upper 16 bits of each chunk's integers, in ascending order.
+	 */
+	private char[] keys;
+	
+	/**
+	 * Each chunk's integers. Each is either a char[] of the lower 16 bits in
+	 * ascending order, which may have unused room at the end, or a long[] 
+	 * bitmap of the lower 16 bits.
+	 */
+	private Object[] chunks;
+	
+	/**
+	 * The number of integers in each chunk, which is never zero.
+	 */
+	private int[] cardinalities;
+	
+	/**
+	 * The number of chunks.
+	 */
+	private int size;
+	
+	/**
+	 * Creates an empty bitmap.
+	 */
+	public CompressedBitmap() {
+		this(INITIAL_CAPACITY);
+	}
+	
+	/**
+	 * Creates an empty bitmap with room for some number of chunks.
+	 * 
+	 * @param capacity The number of chunks.
+	 */
+	private CompressedBitmap(final int capacity) {
+		keys = new char[capacity];
+		chunks = new Object[capacity];
+		cardinalities = new int[capacity];
+		size = 0;
+	}
+	
+	/**
+	 * Creates a bitmap with the given integers.
+	 * 
+	 * @param values The integers, in any order and which may be repeated.
+	 * 
+	 * @return The bitmap.
+	 * 
+	 * @throws IllegalArgumentException One of the integers is negative.
+	 */
+	public static CompressedBitmap of(final int... values) {
+		CompressedBitmap result = new CompressedBitmap();
+		for(int value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a new bitmap with the integers that are in either bitmap.
+	 * 
+	 * @param first The first bitmap.
+	 * 
+	 * @param second The second bitmap.
+	 * 
+	 * @return The new bitmap.
+	 */
+	public static CompressedBitmap or(
+			final CompressedBitmap first,
+			final CompressedBitmap second) {
+		
+		CompressedBitmap result = first.copy();
+		result.or(second);
+		return result;
+	}
+	
+	/**
+	 * Returns a new bitmap with the integers that are in both bitmaps.
+	 * 
+	 * @param first The first bitmap.
+	 * 
+	 * @param second The second bitmap.
+	 * 
+	 * @return The new bitmap.
+	 */
+	public static CompressedBitmap and(
+			final CompressedBitmap first,
+			final CompressedBitmap second) {
+		
+		CompressedBitmap result = first.copy();
+		result.and(second);
+		return result;
+	}
+	
+	/**
+	 * Adds an integer.
+	 * 
+	 * @param value The integer.
+	 * 
+	 * @return True if the integer was added or false if it was already in 
+	 * 		   the bitmap.
+	 * 
+	 * @throws IllegalArgumentException The integer is negative.
+	 */
+	public boolean add(final int value) {
+		if(value < 0) {
+			throw new IllegalArgumentException(
+				"The value cannot be negative: " + value);
+		}
+		
+		char key = (char) (value >>> 16);
+		char low = (char) value;
+		
+		int index = findChunk(key);
+		if(index < 0) {
+			index = -index - 1;
+			insertChunk(index, key, new char[] { low }, 1);
+			return true;
+		}
+		
+		Object chunk = chunks[index];
+		int cardinality = cardinalities[index];
+		if(chunk instanceof long[]) {
+			long[] bitmap = (long[]) chunk;
+			long mask = 1L << low;
+			if((bitmap[low >>> 6] & mask) != 0) {
+				return false;
+			}
+			bitmap[low >>> 6] |= mask;
+		}
+		else {
+			char[] array = (char[]) chunk;
+			int position = Arrays.binarySearch(array, 0, cardinality, low);
+			if(position >= 0) {
+				return false;
+			}
+			position = -position - 1;
+			
+			if(cardinality == MAX_ARRAY_CARDINALITY) {
+				long[] bitmap = toBitmap(array, cardinality);
+				bitmap[low >>> 6] |= 1L << low;
+				chunks[index] = bitmap;
+			}
+			else {
+				if(cardinality == array.length) {
+					char[] newArray = 
+						new char[
+							Math.min(
+								cardinality * 2, 
+								MAX_ARRAY_CARDINALITY)];
+					System.arraycopy(array, 0, newArray, 0, position);
+					System.arraycopy(
+						array, 
+						position, 
+						newArray, 
+						position + 1, 
+						cardinality - position);
+					array = newArray;
+					chunks[index] = array;
+				}
+				else {
+					System.arraycopy(
+						array, 
+						position, 
+						array, 
+						position + 1, 
+						cardinality - position);
+				}
+				array[position] = low;
+			}
+		}
+		
+		cardinalities[index] = cardinality + 1;
+		return true;
+	}
+	
+	/**
+	 * Removes an integer.
+	 * 
+	 * @param value The integer.
+	 * 
+	 * @return True if the integer was removed or false if it wasn't in the
+	 * 		   bitmap.
+	 */
+	public boolean remove(final int value) {
+		if(value < 0) {
+			return false;
+		}
+		
+		char key = (char) (value >>> 16);
+		char low = (char) value;
+		
+		int index = findChunk(key);
+		if(index < 0) {
+			return false;
+		}
+		
+		Object chunk = chunks[index];
+		int cardinality = cardinalities[index];
+		if(chunk instanceof long[]) {
+			long[] bitmap = (long[]) chunk;
+			long mask = 1L << low;
+			if((bitmap[low >>> 6] & mask) == 0) {
+				return false;
+			}
+			bitmap[low >>> 6] &= ~mask;
+			
+			if((cardinality - 1) <= MAX_ARRAY_CARDINALITY) {
+				chunks[index] = toArray(bitmap, cardinality - 1);
+			}
+		}
+		else {
+			char[] array = (char[]) chunk;
+			int position = Arrays.binarySearch(array, 0, cardinality, low);
+			if(position < 0) {
+				return false;
+			}
+			System.arraycopy(
+				array, 
+				position + 1, 
+				array, 
+				position, 
+				cardinality - position - 1);
+		}
+		
+		if(cardinality == 1) {
+			removeChunk(index);
+		}
+		else {
+			cardinalities[index] = cardinality - 1;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns whether or not an integer is in the bitmap.
+	 * 
+	 * @param value The integer.
+	 * 
+	 * @return Whether or not the integer is in the bitmap.
+	 */
+	public boolean contains(final int value) {
+		if(value < 0) {
+			return false;
+		}
+		
+		int index = findChunk((char) (value >>> 16));
+		if(index < 0) {
+			return false;
+		}
+		
+		char low = (char) value;
+		Object chunk = chunks[index];
+		if(chunk instanceof long[]) {
+			return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+		}
+		else {
+			return 
+				Arrays.binarySearch(
+					(char[]) chunk, 
+					0, 
+					cardinalities[index], 
+					low) >= 0;
+		}
+	}
+	
+	/**
+	 * Adds all of the integers in another bitmap to this one.
+	 * 
+	 * @param other The other bitmap, which is not changed.
+	 */
+	public void or(final CompressedBitmap other) {
+		if(other.size == 0) {
+			return;
+		}
+		
+		CompressedBitmap result = new CompressedBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+		while((i < size) || (j < other.size)) {
+			if((j == other.size) || ((i < size) && (keys[i] < other.keys[j]))) {
+				result.appendChunk(keys[i], chunks[i], cardinalities[i]);
+				i++;
+			}
+			else if((i == size) || (other.keys[j] < keys[i])) {
+				result.appendChunk(
+					other.keys[j], 
+					copyChunk(other.chunks[j], other.cardinalities[j]), 
+					other.cardinalities[j]);
+				j++;
+			}
+			else {
+				result.appendOr(
+					keys[i], 
+					chunks[i], 
+					cardinalities[i], 
+					other.chunks[j], 
+					other.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		
+		replaceWith(result);
+	}
+	
+	/**
+	 * Removes all of the integers that are not in another bitmap from this
+	 * one.
+	 * 
+	 * @param other The other bitmap, which is not changed.
+	 */
+	public void and(final CompressedBitmap other) {
+		CompressedBitmap result = 
+			new CompressedBitmap(
+				Math.max(1, Math.min(size, other.size)));
+		int i = 0;
+		int j = 0;
+		while((i < size) && (j < other.size)) {
+			if(keys[i] < other.keys[j]) {
+				i++;
+			}
+			else if(other.keys[j] < keys[i]) {
+				j++;
+			}
+			else {
+				result.appendAnd(
+					keys[i], 
+					chunks[i], 
+					cardinalities[i], 
+					other.chunks[j], 
+					other.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		
+		replaceWith(result);
+	}
+	
+	/**
+	 * Returns whether or not the bitmap is empty.
+	 * 
+	 * @return Whether or not the bitmap is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the number of integers in the bitmap.
+	 * 
+	 * @return The number of integers in the bitmap.
+	 */
+	public int getCardinality() {
+		int result = 0;
+		for(int i = 0; i < size; i++) {
+			result += cardinalities[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the integers in the bitmap.
+	 * 
+	 * @return The integers in ascending order.
+	 */
+	public int[] toArray() {
+		int[] result = new int[getCardinality()];
+		int position = 0;
+		for(int i = 0; i < size; i++) {
+			int high = keys[i] << 16;
+			Object chunk = chunks[i];
+			if(chunk instanceof long[]) {
+				long[] bitmap = (long[]) chunk;
+				for(int word = 0; word < BITMAP_LENGTH; word++) {
+					long bits = bitmap[word];
+					while(bits != 0) {
+						result[position++] = 
+							high | 
+							(word << 6) | 
+							Long.numberOfTrailingZeros(bits);
+						bits &= bits - 1;
+					}
+				}
+			}
+			else {
+				char[] array = (char[]) chunk;
+				for(int k = 0; k < cardinalities[i]; k++) {
+					result[position++] = high | array[k];
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of this bitmap.
+	 * 
+	 * @return A copy of this bitmap.
+	 */
+	public CompressedBitmap copy() {
+		CompressedBitmap result = 
+			new CompressedBitmap(Math.max(INITIAL_CAPACITY, size));
+		for(int i = 0; i < size; i++) {
+			result.appendChunk(
+				keys[i], 
+				copyChunk(chunks[i], cardinalities[i]), 
+				cardinalities[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the integers as a comma-separated list.
+	 * 
+	 * @return The integers as a comma-separated list in ascending order.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for(int value : toArray()) {
+			if(result.length() > 0) {
+				result.append(',');
+			}
+			result.append(value);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Returns the index of a chunk.
+	 * 
+	 * @param key The upper 16 bits of the chunk's integers.
+	 * 
+	 * @return The chunk's index or, if there is no such chunk, 
+	 * 		   (-(insertion point) - 1).
+	 */
+	private int findChunk(final char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	/**
+	 * Inserts a chunk.
+	 * 
+	 * @param index The index at which to insert the chunk.
+	 * 
+	 * @param key The upper 16 bits of the chunk's integers.
+	 * 
+	 * @param chunk The chunk.
+	 * 
+	 * @param cardinality The number of integers in the chunk.
+	 */
+	private void insertChunk(
+			final int index, 
+			final char key, 
+			final Object chunk, 
+			final int cardinality) {
+		
+		if(size == keys.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			chunks = Arrays.copyOf(chunks, capacity);
+			cardinalities = Arrays.copyOf(cardinalities, capacity);
+		}
+		
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(chunks, index, chunks, index + 1, size - index);
+		System.arraycopy(
+			cardinalities, 
+			index, 
+			cardinalities, 
+			index + 1, 
+			size - index);
+		
+		keys[index] = key;
+		chunks[index] = chunk;
+		cardinalities[index] = cardinality;
+		size++;
+	}
+	
+	/**
+	 * Adds a chunk after all of the existing chunks.
+	 * 
+	 * @param key The upper 16 bits of the chunk's integers, which must be
+	 * 			  greater than all of the existing chunks' keys.
+	 * 
+	 * @param chunk The chunk.
+	 * 
+	 * @param cardinality The number of integers in the chunk, which must not
+	 * 					  be zero.
+	 */
+	private void appendChunk(
+			final char key, 
+			final Object chunk, 
+			final int cardinality) {
+		
+		insertChunk(size, key, chunk, cardinality);
+	}
+	
+	/**
+	 * Removes a chunk.
+	 * 
+	 * @param index The index of the chunk.
+	 */
+	private void removeChunk(final int index) {
+		int numMoved = size - index - 1;
+		System.arraycopy(keys, index + 1, keys, index, numMoved);
+		System.arraycopy(chunks, index + 1, chunks, index, numMoved);
+		System.arraycopy(
+			cardinalities, 
+			index + 1, 
+			cardinalities, 
+			index, 
+			numMoved);
+		
+		size--;
+		chunks[size] = null;
+	}
+	
+	/**
+	 * Adds the union of two chunks after all of the existing chunks.
+	 * 
+	 * @param key The upper 16 bits of both chunks' integers.
+	 * 
+	 * @param first The first chunk, which may be reused.
+	 * 
+	 * @param firstCardinality The number of integers in the first chunk.
+	 * 
+	 * @param second The second chunk, which is not changed.
+	 * 
+	 * @param secondCardinality The number of integers in the second chunk.
+	 */
+	private void appendOr(
+			final char key,
+			final Object first,
+			final int firstCardinality,
+			final Object second,
+			final int secondCardinality) {
+		
+		if((first instanceof char[]) && (second instanceof char[])) {
+			char[] a = (char[]) first;
+			char[] b = (char[]) second;
+			char[] merged = new char[firstCardinality + secondCardinality];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while((i < firstCardinality) && (j < secondCardinality)) {
+				if(a[i] < b[j]) {
+					merged[k++] = a[i++];
+				}
+				else if(b[j] < a[i]) {
+					merged[k++] = b[j++];
+				}
+				else {
+					merged[k++] = a[i++];
+					j++;
+				}
+			}
+			while(i < firstCardinality) {
+				merged[k++] = a[i++];
+			}
+			while(j < secondCardinality) {
+				merged[k++] = b[j++];
+			}
+			
+			if(k > MAX_ARRAY_CARDINALITY) {
+				appendChunk(key, toBitmap(merged, k), k);
+			}
+			else {
+				appendChunk(key, merged, k);
+			}
+			return;
+		}
+		
+		long[] bitmap;
+		Object other;
+		int otherCardinality;
+		if(first instanceof long[]) {
+			bitmap = (long[]) first;
+			other = second;
+			otherCardinality = secondCardinality;
+		}
+		else {
+			bitmap = (long[]) copyChunk(second, secondCardinality);
+			other = first;
+			otherCardinality = firstCardinality;
+		}
+		
+		if(other instanceof long[]) {
+			long[] otherBitmap = (long[]) other;
+			for(int word = 0; word < BITMAP_LENGTH; word++) {
+				bitmap[word] |= otherBitmap[word];
+			}
+		}
+		else {
+			char[] otherArray = (char[]) other;
+			for(int k = 0; k < otherCardinality; k++) {
+				bitmap[otherArray[k] >>> 6] |= 1L << otherArray[k];
+			}
+		}
+		
+		appendChunk(key, bitmap, countBits(bitmap));
+	}
+	
+	/**
+	 * Adds the intersection of two chunks after all of the existing chunks
+	 * unless it is empty.
+	 * 
+	 * @param key The upper 16 bits of both chunks' integers.
+	 * 
+	 * @param first The first chunk, which may be reused.
+	 * 
+	 * @param firstCardinality The number of integers in the first chunk.
+	 * 
+	 * @param second The second chunk, which is not changed.
+	 * 
+	 * @param secondCardinality The number of integers in the second chunk.
+	 */
+	private void appendAnd(
+			final char key,
+			final Object first,
+			final int firstCardinality,
+			final Object second,
+			final int secondCardinality) {
+		
+		if((first instanceof long[]) && (second instanceof long[])) {
+			long[] bitmap = (long[]) first;
+			long[] otherBitmap = (long[]) second;
+			for(int word = 0; word < BITMAP_LENGTH; word++) {
+				bitmap[word] &= otherBitmap[word];
+			}
+			
+			int cardinality = countBits(bitmap);
+			if(cardinality > MAX_ARRAY_CARDINALITY) {
+				appendChunk(key, bitmap, cardinality);
+			}
+			else if(cardinality > 0) {
+				appendChunk(key, toArray(bitmap, cardinality), cardinality);
+			}
+			return;
+		}
+		
+		// At least one of the chunks is an array, so the result is at most
+		// as large as it.
+		char[] array;
+		int arrayCardinality;
+		Object other;
+		if(first instanceof char[]) {
+			array = (char[]) first;
+			arrayCardinality = firstCardinality;
+			other = second;
+		}
+		else {
+			array = (char[]) second;
+			arrayCardinality = secondCardinality;
+			other = first;
+		}
+		
+		char[] result = new char[arrayCardinality];
+		int k = 0;
+		if(other instanceof long[]) {
+			long[] bitmap = (long[]) other;
+			for(int i = 0; i < arrayCardinality; i++) {
+				if((bitmap[array[i] >>> 6] & (1L << array[i])) != 0) {
+					result[k++] = array[i];
+				}
+			}
+		}
+		else {
+			char[] otherArray = (char[]) other;
+			int otherCardinality = 
+				(other == first) ? firstCardinality : secondCardinality;
+			int i = 0;
+			int j = 0;
+			while((i < arrayCardinality) && (j < otherCardinality)) {
+				if(array[i] < otherArray[j]) {
+					i++;
+				}
+				else if(otherArray[j] < array[i]) {
+					j++;
+				}
+				else {
+					result[k++] = array[i++];
+					j++;
+				}
+			}
+		}
+		
+		if(k > 0) {
+			appendChunk(key, result, k);
+		}
+	}
+	
+	/**
+	 * Replaces the contents of this bitmap with the contents of another.
+	 * 
+	 * @param other The other bitmap, which must not be used afterwards.
+	 */
+	private void replaceWith(final CompressedBitmap other) {
+		keys = other.keys;
+		chunks = other.chunks;
+		cardinalities = other.cardinalities;
+		size = other.size;
+	}
+	
+	/**
+	 * Copies a chunk.
+	 * 
+	 * @param chunk The chunk.
+	 * 
+	 * @param cardinality The number of integers in the chunk.
+	 * 
+	 * @return The copy.
+	 */
+	private static Object copyChunk(final Object chunk, final int cardinality) {
+		if(chunk instanceof long[]) {
+			return ((long[]) chunk).clone();
+		}
+		else {
+			return Arrays.copyOf((char[]) chunk, cardinality);
+		}
+	}
+	
+	/**
+	 * Converts a chunk's array to a bitmap.
+	 * 
+	 * @param array The array.
+	 * 
+	 * @param cardinality The number of integers in the array.
+	 * 
+	 * @return The bitmap.
+	 */
+	private static long[] toBitmap(final char[] array, final int cardinality) {
+		long[] result = new long[BITMAP_LENGTH];
+		for(int i = 0; i < cardinality; i++) {
+			result[array[i] >>> 6] |= 1L << array[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * Converts a chunk's bitmap to an array.
+	 * 
+	 * @param bitmap The bitmap.
+	 * 
+	 * @param cardinality The number of bits that are set in the bitmap.
+	 * 
+	 * @return The array.
+	 */
+	private static char[] toArray(final long[] bitmap, final int cardinality) {
+		char[] result = new char[cardinality];
+		int position = 0;
+		for(int word = 0; word < BITMAP_LENGTH; word++) {
+			long bits = bitmap[word];
+			while(bits != 0) {
+				result[position++] = 
+					(char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts the bits that are set in a chunk's bitmap.
+	 * 
+	 * @param bitmap The bitmap.
+	 * 
+	 * @return The number of bits that are set.
+	 */
+	private static int countBits(final long[] bitmap) {
+		int result = 0;
+		for(long word : bitmap) {
+			result += Long.bitCount(word);
+		}
+		return result;
+	}
+}
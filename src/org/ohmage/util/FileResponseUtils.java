@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Utilities for writing files to an HTTP response. This handles conditional
+ * requests ("If-None-Match" and "If-Modified-Since"), single byte-range
+ * requests ("Range" and "If-Range"), and compression for the content types
+ * that benefit from it.
+ *
+ * @author John Jenkins
+ */
+public final class FileResponseUtils {
+	/**
+	 * The number of seconds for which a client may cache immutable content.
+	 */
+	private static final long IMMUTABLE_MAX_AGE_SECONDS =
+		60L * 60L * 24L * 365L;
+
+	/**
+	 * The prefix of a byte range in the "Range" header.
+	 */
+	private static final String RANGE_PREFIX = "bytes=";
+
+	/**
+	 * The content type prefixes of data that is already compressed.
+	 */
+	private static final String[] INCOMPRESSIBLE_CONTENT_TYPES = {
+		"image/", "audio/", "video/",
+		"application/zip", "application/gzip", "application/x-gzip",
+		"application/pdf", "application/octet-stream"
+	};
+	/**
+	 * The content types of data that is worth compressing, beyond "text/".
+	 */
+	private static final String[] COMPRESSIBLE_CONTENT_TYPES = {
+		"application/json", "application/xml", "application/javascript",
+		"application/x-javascript", "image/svg+xml"
+	};
+	/**
+	 * The file extensions of data that is already compressed.
+	 */
+	private static final String[] INCOMPRESSIBLE_EXTENSIONS = {
+		"jpg", "jpeg", "png", "gif", "webp",
+		"mp3", "m4a", "aac", "ogg", "3gp", "amr",
+		"mp4", "m4v", "mov", "webm",
+		"zip", "gz", "tgz", "bz2", "7z", "rar", "jar",
+		"pdf", "docx", "xlsx", "pptx", "odt", "ods"
+	};
+
+	/**
+	 * A single, inclusive byte range.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ByteRange {
+		private final long start;
+		private final long end;
+
+		/**
+		 * Creates a new byte range.
+		 *
+		 * @param start The first byte.
+		 *
+		 * @param end The last byte, inclusive.
+		 */
+		private ByteRange(final long start, final long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Returns the number of bytes in this range.
+		 *
+		 * @return The number of bytes in this range.
+		 */
+		private long getLength() {
+			return end - start + 1;
+		}
+	}
+
+	/**
+	 * Default constructor. Private so that it cannot be instantiated.
+	 */
+	private FileResponseUtils() {}
+
+	/**
+	 * Builds a strong entity tag for content that never changes once it has
+	 * been created, e.g. media keyed by their UUID.
+	 *
+	 * @param id The content's unique identifier.
+	 *
+	 * @param variant An optional variant of the content, e.g. the size of an
+	 * 				  image.
+	 *
+	 * @return The entity tag including its quotes.
+	 */
+	public static String buildImmutableEtag(
+			final Object id,
+			final String variant) {
+
+		return "\"" + id + ((variant == null) ? "" : "-" + variant) + "\"";
+	}
+
+	/**
+	 * Builds an entity tag for a file whose contents may change.
+	 *
+	 * @param file The file.
+	 *
+	 * @return The entity tag including its quotes.
+	 */
+	public static String buildFileEtag(final File file) {
+		return
+			"\"" +
+			Long.toHexString(file.length()) +
+			"-" +
+			Long.toHexString(file.lastModified()) +
+			"\"";
+	}
+
+	/**
+	 * Returns whether or not content is worth compressing based on its
+	 * content type and, if the content type is unknown or generic, its file
+	 * name.
+	 *
+	 * @param contentType The content's MIME type. This may be null.
+	 *
+	 * @param fileName The content's file name. This may be null.
+	 *
+	 * @return Whether or not the content should be compressed.
+	 */
+	public static boolean isCompressible(
+			final String contentType,
+			final String fileName) {
+
+		if(contentType != null) {
+			String type = contentType.toLowerCase();
+
+			if(type.startsWith("text/")) {
+				return true;
+			}
+			for(String compressible : COMPRESSIBLE_CONTENT_TYPES) {
+				if(type.startsWith(compressible)) {
+					return true;
+				}
+			}
+			for(String incompressible : INCOMPRESSIBLE_CONTENT_TYPES) {
+				if(type.startsWith(incompressible)) {
+					return false;
+				}
+			}
+		}
+
+		if(fileName != null) {
+			int extensionStart = fileName.lastIndexOf('.');
+			if(extensionStart >= 0) {
+				String extension =
+					fileName.substring(extensionStart + 1).toLowerCase();
+
+				for(String incompressible : INCOMPRESSIBLE_EXTENSIONS) {
+					if(incompressible.equals(extension)) {
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes a file to the response. The caller must have already set any
+	 * other headers, e.g. the content type, content disposition, and cookies.
+	 * <ul>
+	 *   <li>The "ETag" and "Last-Modified" headers are set and, if the client
+	 *     already has this version, a "304 Not Modified" is returned.</li>
+	 *   <li>A single byte range is served as a "206 Partial Content". Range
+	 *     requests with multiple ranges are served in their entirety.</li>
+	 *   <li>Complete responses are compressed if the client accepts it and
+	 *     'compress' is true.</li>
+	 *   <li>Uncompressed responses are transferred through a file channel
+	 *     with their "Content-Length" set.</li>
+	 * </ul>
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @param httpResponse The HTTP response.
+	 *
+	 * @param file The file to send.
+	 *
+	 * @param etag The file's entity tag, including its quotes.
+	 *
+	 * @param immutable Whether or not the file will never change. If so, the
+	 * 					client is allowed to cache it without revalidating.
+	 * 					Otherwise, the client must revalidate every time.
+	 *
+	 * @param compress Whether or not the file should be compressed if the
+	 * 				   client accepts it.
+	 *
+	 * @throws IOException There was an error reading the file or writing to
+	 * 					   the response.
+	 */
+	public static void sendFile(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final File file,
+			final String etag,
+			final boolean immutable,
+			final boolean compress)
+			throws IOException {
+
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		// These are private because every read is authorized.
+		if(immutable) {
+			httpResponse.setHeader(
+				"Cache-Control",
+				"private, max-age=" + IMMUTABLE_MAX_AGE_SECONDS);
+		}
+		else {
+			httpResponse.setHeader("Cache-Control", "private, no-cache");
+		}
+		httpResponse.setHeader("ETag", etag);
+		httpResponse.setDateHeader("Last-Modified", lastModified);
+		httpResponse.setHeader("Accept-Ranges", "bytes");
+
+		if(isNotModified(httpRequest, etag, lastModified)) {
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		// Determine the range to send.
+		ByteRange range = null;
+		String rangeHeader = httpRequest.getHeader("Range");
+		if((rangeHeader != null) &&
+			isIfRangeSatisfied(httpRequest, etag, lastModified)) {
+
+			range = parseRange(rangeHeader, length);
+
+			// The range was syntactically valid, but none of it is within the
+			// file.
+			if((range != null) && (range.start >= length)) {
+				httpResponse.setHeader("Content-Range", "bytes */" + length);
+				httpResponse.setStatus(
+					HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+
+		if(range == null) {
+			range = new ByteRange(0, length - 1);
+		}
+		else {
+			httpResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			httpResponse.setHeader(
+				"Content-Range",
+				"bytes " + range.start + "-" + range.end + "/" + length);
+		}
+
+		// Compress only complete responses.
+		String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
+		if(compress &&
+			(range.getLength() == length) &&
+			(acceptEncoding != null) &&
+			(acceptEncoding.indexOf("gzip") >= 0)) {
+
+			httpResponse.setHeader("Content-Encoding", "gzip");
+			httpResponse.setHeader("Vary", "Accept-Encoding");
+
+			OutputStream os =
+				new GZIPOutputStream(httpResponse.getOutputStream());
+			try {
+				transfer(file, range, Channels.newChannel(os));
+			}
+			finally {
+				os.close();
+			}
+			return;
+		}
+
+		httpResponse.setHeader(
+			"Content-Length",
+			Long.toString(range.getLength()));
+
+		OutputStream os = httpResponse.getOutputStream();
+		try {
+			transfer(file, range, Channels.newChannel(os));
+		}
+		finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Returns whether or not the client's cached version is current based on
+	 * its "If-None-Match" header or, if that is missing, its
+	 * "If-Modified-Since" header.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @param etag The current entity tag.
+	 *
+	 * @param lastModified The current last modified time in milliseconds.
+	 *
+	 * @return True if the client's version is current.
+	 */
+	public static boolean isNotModified(
+			final HttpServletRequest httpRequest,
+			final String etag,
+			final long lastModified) {
+
+		String ifNoneMatch = httpRequest.getHeader("If-None-Match");
+		if(ifNoneMatch != null) {
+			return matchesEtag(ifNoneMatch, etag);
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = httpRequest.getDateHeader("If-Modified-Since");
+		}
+		catch(IllegalArgumentException e) {
+			return false;
+		}
+
+		// HTTP dates only have a resolution of seconds.
+		return
+			(ifModifiedSince != -1) &&
+			((lastModified / 1000) <= (ifModifiedSince / 1000));
+	}
+
+	/**
+	 * Returns whether or not an "If-None-Match" header value matches an
+	 * entity tag.
+	 *
+	 * @param headerValue The header's value.
+	 *
+	 * @param etag The entity tag.
+	 *
+	 * @return True if the header matches the entity tag.
+	 */
+	public static boolean matchesEtag(
+			final String headerValue,
+			final String etag) {
+
+		for(String candidate : headerValue.split(",")) {
+			String trimmed = candidate.trim();
+			if(trimmed.startsWith("W/")) {
+				trimmed = trimmed.substring(2);
+			}
+
+			if("*".equals(trimmed) || etag.equals(trimmed)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns whether or not the "If-Range" condition, if any, is satisfied,
+	 * in which case the range should be honored.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @param etag The current entity tag.
+	 *
+	 * @param lastModified The current last modified time in milliseconds.
+	 *
+	 * @return True if the range should be honored.
+	 */
+	private static boolean isIfRangeSatisfied(
+			final HttpServletRequest httpRequest,
+			final String etag,
+			final long lastModified) {
+
+		String ifRange = httpRequest.getHeader("If-Range");
+		if(ifRange == null) {
+			return true;
+		}
+
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag.equals(ifRange.trim());
+		}
+
+		try {
+			long date = httpRequest.getDateHeader("If-Range");
+			return (lastModified / 1000) <= (date / 1000);
+		}
+		catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses a "Range" header with a single byte range.
+	 *
+	 * @param rangeHeader The header's value.
+	 *
+	 * @param length The length of the content.
+	 *
+	 * @return The range clipped to the content's length, a range whose start
+	 * 		   is beyond the content if the range cannot be satisfied, or
+	 * 		   null if the header is invalid or asks for multiple ranges, in
+	 * 		   which case it should be ignored.
+	 */
+	private static ByteRange parseRange(
+			final String rangeHeader,
+			final long length) {
+
+		if(! rangeHeader.startsWith(RANGE_PREFIX)) {
+			return null;
+		}
+
+		String spec = rangeHeader.substring(RANGE_PREFIX.length()).trim();
+		if(spec.indexOf(',') >= 0) {
+			return null;
+		}
+
+		int dash = spec.indexOf('-');
+		if(dash < 0) {
+			return null;
+		}
+
+		try {
+			String startString = spec.substring(0, dash).trim();
+			String endString = spec.substring(dash + 1).trim();
+
+			// A suffix range, e.g. "-500" for the last 500 bytes.
+			if(startString.length() == 0) {
+				long suffixLength = Long.parseLong(endString);
+				if(suffixLength <= 0) {
+					return new ByteRange(length, length);
+				}
+
+				return
+					new ByteRange(
+						Math.max(0, length - suffixLength),
+						length - 1);
+			}
+
+			long start = Long.parseLong(startString);
+			long end =
+				(endString.length() == 0) ?
+					length - 1 :
+					Math.min(Long.parseLong(endString), length - 1);
+
+			if(start < 0) {
+				return null;
+			}
+			// The range begins after the content ends.
+			else if(start >= length) {
+				return new ByteRange(start, start);
+			}
+			else if(end < start) {
+				return null;
+			}
+
+			return new ByteRange(start, end);
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Transfers a range of a file to a channel.
+	 *
+	 * @param file The file.
+	 *
+	 * @param range The range of the file to transfer.
+	 *
+	 * @param target The channel to which the data should be written.
+	 *
+	 * @throws IOException There was an error reading or writing.
+	 */
+	private static void transfer(
+			final File file,
+			final ByteRange range,
+			final WritableByteChannel target)
+			throws IOException {
+
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+
+			long position = range.start;
+			long remaining = range.getLength();
+			while(remaining > 0) {
+				long transferred =
+					channel.transferTo(position, remaining, target);
+
+				// The file was truncated beneath us.
+				if(transferred <= 0) {
+					throw new IOException(
+						"The file ended before the range was sent: " +
+							file.getAbsolutePath());
+				}
+
+				position += transferred;
+				remaining -= transferred;
+			}
+		}
+		finally {
+			input.close();
+		}
+	}
+}
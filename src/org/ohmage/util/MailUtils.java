@@ -24,6 +24,7 @@ import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
 
 import com.sun.mail.smtp.SMTPTransport;
 
@@ -182,42 +183,81 @@ public class MailUtils {
 	
 	
 	/**
-	 * Sends a mail message.
+	 * Creates a new message.
 	 * 
-	 * @param smtpSession The session used to create the message.
+	 * @param smtpSession The session the message will be sent with.
 	 * 
-	 * @param message The message to be sent.
+	 * @param sender The sender's email address.
 	 * 
-	 * @throws ServiceException There was a problem creating the connection to
-	 * 							the mail server or sending the message.
+	 * @param recipient The recipient's email address.
+	 * 
+	 * @param subject The message's subject.
+	 * 
+	 * @param content The message's body.
+	 * 
+	 * @param contentType The MIME type of the body.
+	 * 
+	 * @return The message, ready to be sent.
+	 * 
+	 * @throws ServiceException One of the addresses was invalid or the 
+	 * 							message could not be built.
 	 */
-	public static void sendMailMessage(Session smtpSession, Message message) throws ServiceException {
-
-		// If use Transport.send(), no need to save the message. 
-		// Otherwise, save the message before sending.  
+	public static Message createMailMessage(
+			final Session smtpSession,
+			final String sender,
+			final String recipient,
+			final String subject,
+			final String content,
+			final String contentType)
+			throws ServiceException {
+		
+		MimeMessage message = new MimeMessage(smtpSession);
+		
 		try {
-			message.saveChanges();
+			message.setFrom(new InternetAddress(sender));
+		}
+		catch(AddressException e) {
+			throw new ServiceException(
+					"The origin address is not a valid email address.",
+					e);
 		}
 		catch(MessagingException e) {
 			throw new ServiceException(
-					"Could not save the changes to the message.",
+					"Could not update the sender's email address.",
 					e);
 		}
 		
-
-		// Get the transport from the session.
-		SMTPTransport transport;
+		setMailMessageTo(message, recipient);
+		
 		try {
-			transport = 
-					(SMTPTransport) smtpSession.getTransport(MAIL_PROTOCOL);
+			message.setSubject(subject);
+			message.setContent(content, contentType);
+			message.saveChanges();
 		}
-		catch(NoSuchProviderException e) {
+		catch(MessagingException e) {
 			throw new ServiceException(
-					"There is no provider for SMTP. " +
-						"This means the library has changed as it has built-in support for SMTP.",
+					"There was an error constructing the message.",
 					e);
 		}
-
+		
+		return message;
+	}
+	
+	/**
+	 * Creates a connection to the mail server using the credentials in the
+	 * preferences, if authentication is enabled. The connection may be used
+	 * to send any number of messages and must be closed by the caller.
+	 * 
+	 * @param smtpSession The session to connect with.
+	 * 
+	 * @return The connected transport.
+	 * 
+	 * @throws ServiceException There was a problem connecting.
+	 */
+	public static SMTPTransport connectTransport(
+			final Session smtpSession)
+			throws ServiceException {
+		
 		Boolean auth = null;
 		try {
 			auth = StringUtils.decodeBoolean(
@@ -256,6 +296,49 @@ public class MailUtils {
 					e);
 			}
 			
+			return connectTransport(smtpSession, mailUsername, mailPassword);
+		}
+		else {
+			return connectTransport(smtpSession, null, null);
+		}
+	}
+	
+	/**
+	 * Creates a connection to the mail server. The connection may be used to
+	 * send any number of messages and must be closed by the caller.
+	 * 
+	 * @param smtpSession The session to connect with. Its properties say 
+	 * 					  which server to connect to.
+	 * 
+	 * @param mailUsername The username to authenticate with or null if the
+	 * 					   server does not require authentication.
+	 * 
+	 * @param mailPassword The password to authenticate with.
+	 * 
+	 * @return The connected transport.
+	 * 
+	 * @throws ServiceException There was a problem connecting.
+	 */
+	public static SMTPTransport connectTransport(
+			final Session smtpSession,
+			final String mailUsername,
+			final String mailPassword)
+			throws ServiceException {
+		
+		// Get the transport from the session.
+		SMTPTransport transport;
+		try {
+			transport = 
+					(SMTPTransport) smtpSession.getTransport(MAIL_PROTOCOL);
+		}
+		catch(NoSuchProviderException e) {
+			throw new ServiceException(
+					"There is no provider for SMTP. " +
+						"This means the library has changed as it has built-in support for SMTP.",
+					e);
+		}
+		
+		if(mailUsername != null) {
 			try {
 				transport.connect(
 						smtpSession.getProperty(MAIL_PROPERTY_HOST), 
@@ -279,6 +362,33 @@ public class MailUtils {
 			}
 		}
 		
+		return transport;
+	}
+	
+	/**
+	 * Sends a mail message over its own connection.
+	 * 
+	 * @param smtpSession The session used to create the message.
+	 * 
+	 * @param message The message to be sent.
+	 * 
+	 * @throws ServiceException There was a problem creating the connection to
+	 * 							the mail server or sending the message.
+	 */
+	public static void sendMailMessage(Session smtpSession, Message message) throws ServiceException {
+
+		// If use Transport.send(), no need to save the message. 
+		// Otherwise, save the message before sending.  
+		try {
+			message.saveChanges();
+		}
+		catch(MessagingException e) {
+			throw new ServiceException(
+					"Could not save the changes to the message.",
+					e);
+		}
+		
+		SMTPTransport transport = connectTransport(smtpSession);
 
 		try {
 			transport.sendMessage(message, message.getAllRecipients());
@@ -293,14 +403,14 @@ public class MailUtils {
 					"There was a problem while sending the message.",
 					e);
 		}
-		
-		try {
-			transport.close();
-		}
-		catch(MessagingException e) {
-			throw new ServiceException(
-					"After sending the message there was an error closing the connection.",
-					e);
+		finally {
+			try {
+				transport.close();
+			}
+			catch(MessagingException e) {
+				// The message was sent, or its failure is being reported,
+				// so a failure to close is not worth reporting.
+			}
 		}
 	}
 
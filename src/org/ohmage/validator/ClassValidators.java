@@ -398,6 +398,35 @@ public final class ClassValidators {
 		return result;
 	}
 
+	/**
+	 * Validates that the "dry run" value is a valid boolean. If it is null or
+	 * whitespace only, false is returned.
+	 * 
+	 * @param value The boolean value to validate.
+	 * 
+	 * @return A boolean generated from this value.
+	 * 
+	 * @throws ValidationException The value could not be decoded.
+	 */
+	public static boolean validateDryRunValue(
+			final String value)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return false;
+		}
+		
+		Boolean result = StringUtils.decodeBoolean(value);
+		if(result == null) {
+			throw new ValidationException(
+					ErrorCode.CLASS_INVALID_DRY_RUN_VALUE,
+					"The \"dry run\" value is not a valid boolean: " +
+						value);
+		}
+		
+		return result;
+	}
+
 	/**
 	 * Validates that the number of classes to skip is a non-negative number.
 	 * 
@@ -0,0 +1,83 @@
+package org.ohmage.validator;
+
+import java.util.UUID;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.util.StringUtils;
+
+/**
+ * Class for validating export job values.
+ *
+ * @author John Jenkins
+ */
+public class ExportValidators {
+	/**
+	 * Default constructor. Private so that it cannot be instantiated.
+	 */
+	private ExportValidators() {}
+
+	/**
+	 * Validates that an export job's ID is a valid ID. If it is null or
+	 * whitespace only, null is returned. Otherwise, the UUID is returned or
+	 * an exception is thrown.
+	 *
+	 * @param exportId The export job's ID.
+	 *
+	 * @return Returns null if the ID is null or whitespace only; otherwise,
+	 * 		   the ID is returned.
+	 *
+	 * @throws ValidationException Thrown if the ID is not null, not
+	 * 							   whitespace only, and not a valid ID.
+	 */
+	public static UUID validateId(
+			final String exportId)
+			throws ValidationException {
+
+		if(StringUtils.isEmptyOrWhitespaceOnly(exportId)) {
+			return null;
+		}
+
+		try {
+			return UUID.fromString(exportId);
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+					ErrorCode.EXPORT_INVALID_ID,
+					"The export ID is not a valid ID: " + exportId);
+		}
+	}
+
+	/**
+	 * Validates that the request to export is one that may be exported. If it
+	 * is null or whitespace only, null is returned.
+	 *
+	 * @param exportRequest The request to export, e.g.
+	 * 						"survey_response/read".
+	 *
+	 * @return Returns null if the request is null or whitespace only;
+	 * 		   otherwise, the type of the export is returned.
+	 *
+	 * @throws ValidationException Thrown if the request is not null, not
+	 * 							   whitespace only, and not a request that
+	 * 							   may be exported.
+	 */
+	public static ExportJob.Type validateExportRequest(
+			final String exportRequest)
+			throws ValidationException {
+
+		if(StringUtils.isEmptyOrWhitespaceOnly(exportRequest)) {
+			return null;
+		}
+
+		try {
+			return ExportJob.Type.getValue(exportRequest.trim());
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+					ErrorCode.EXPORT_INVALID_REQUEST,
+					"The request may not be exported: " + exportRequest);
+		}
+	}
+}
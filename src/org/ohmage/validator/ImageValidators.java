@@ -103,6 +103,95 @@ public final class ImageValidators {
 		}
 	}
 	
+	/**
+	 * Validates that a number of images to return in one page of a batch ZIP
+	 * read is a non-negative number less than or equal to 
+	 * {@link Image#MAX_NUM_TO_ZIP}. If it is null or whitespace only, null is
+	 * returned, meaning that all of the images should be returned.
+	 * 
+	 * @param value The value to be validated.
+	 * 
+	 * @return Returns null if the value is null or whitespace only; 
+	 * 		   otherwise, a number between 0 and {@link Image#MAX_NUM_TO_ZIP}.
+	 * 
+	 * @throws ValidationException The number was not valid.
+	 */
+	public static Integer validateNumToZip(final String value)
+			throws ValidationException {
+		
+		LOGGER.info("Validating that a number of images to return is valid.");
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		try {
+			int numToReturn = Integer.decode(value.trim());
+			
+			if(numToReturn < 0) {
+				throw new ValidationException(
+						ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+						"The number of images to return cannot be negative: " +
+							value);
+			}
+			else if(numToReturn > Image.MAX_NUM_TO_ZIP) {
+				throw new ValidationException(
+						ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+						"The number of images to return is greater than the max allowed: " +
+							Image.MAX_NUM_TO_ZIP);
+			}
+			
+			return numToReturn;
+		}
+		catch(NumberFormatException e) {
+			throw new ValidationException(
+					ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+					"The number of images to return is not a number: " +
+						value,
+					e);
+		}
+	}
+	
+	/**
+	 * Validates a continuation token that was returned by a previous batch
+	 * ZIP read. If it is null or whitespace only, null is returned.
+	 * 
+	 * @param value The continuation token to be validated.
+	 * 
+	 * @return Returns null if the token is null or whitespace only; 
+	 * 		   otherwise, the position after which the read should continue.
+	 * 
+	 * @throws ValidationException The token was not a valid continuation 
+	 * 							   token.
+	 */
+	public static Long validateContinuationToken(final String value)
+			throws ValidationException {
+		
+		LOGGER.info("Validating a continuation token.");
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		try {
+			long position = Long.parseLong(value.trim());
+			
+			if(position < 0) {
+				throw new ValidationException(
+						ErrorCode.IMAGE_INVALID_CONTINUATION_TOKEN,
+						"The continuation token is not valid: " + value);
+			}
+			
+			return position;
+		}
+		catch(NumberFormatException e) {
+			throw new ValidationException(
+					ErrorCode.IMAGE_INVALID_CONTINUATION_TOKEN,
+					"The continuation token is not valid: " + value,
+					e);
+		}
+	}
+	
 	/**
 	 * Validates that an image's contents as a byte array are decodable as an 
 	 * image.
@@ -15,13 +15,21 @@
  ******************************************************************************/
 package org.ohmage.validator;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.NewUser;
 import org.ohmage.domain.User;
+import org.ohmage.domain.UserInformation.UserPersonal;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.user.UserSetupRequest;
@@ -981,5 +989,150 @@ public final class UserValidators {
 		}
 	}
 	
-
+	/**
+	 * Validates that a list of new users is a JSON array of JSON objects. The
+	 * users themselves are validated separately by 
+	 * {@link #validateNewUser(JSONObject)} so that one invalid user doesn't
+	 * invalidate the entire list.
+	 * 
+	 * @param value The String representation of the list.
+	 * 
+	 * @return Returns null if the value is null or whitespace only; otherwise,
+	 * 		   it returns the list of users' JSON objects.
+	 * 
+	 * @throws ValidationException Thrown if the list is not a JSON array or 
+	 * 							   any of its elements is not a JSON object.
+	 */
+	public static List<JSONObject> validateNewUserList(final String value)
+			throws ValidationException {
+		
+		LOGGER.info("Validating a list of new users.");
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		JSONArray array;
+		try {
+			array = new JSONArray(value.trim());
+		}
+		catch(JSONException e) {
+			throw new ValidationException(
+					ErrorCode.USER_INVALID_NEW_USER_LIST, 
+					"The list of new users is not a JSON array.", 
+					e);
+		}
+		
+		List<JSONObject> result = new ArrayList<JSONObject>(array.length());
+		for(int i = 0; i < array.length(); i++) {
+			JSONObject user = array.optJSONObject(i);
+			if(user == null) {
+				throw new ValidationException(
+						ErrorCode.USER_INVALID_NEW_USER_LIST, 
+						"The new user at index " + i + " is not a JSON object.");
+			}
+			
+			result.add(user);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Validates a new user from a list of new users. Its keys and values are
+	 * the same as the parameters when creating a single user: a username and
+	 * password are required; the email address, admin, enabled, new account,
+	 * and campaign creation privilege are optional; and the first name, last 
+	 * name, organization, and personal ID are optional but must all be given 
+	 * if any of them are.
+	 * 
+	 * @param user The user's JSON object.
+	 * 
+	 * @return The new user.
+	 * 
+	 * @throws ValidationException Thrown if any of the user's values are 
+	 * 							   missing or invalid.
+	 */
+	public static NewUser validateNewUser(final JSONObject user)
+			throws ValidationException {
+		
+		LOGGER.info("Validating a new user.");
+		
+		String username = 
+				validateUsername(user.optString(InputKeys.USERNAME, null));
+		if(username == null) {
+			throw new ValidationException(
+					ErrorCode.USER_INVALID_USERNAME, 
+					"Missing the required username for the new user: " + 
+						InputKeys.USERNAME);
+		}
+		
+		String password = 
+				validatePlaintextPassword(
+						user.optString(InputKeys.PASSWORD, null));
+		if(password == null) {
+			throw new ValidationException(
+					ErrorCode.USER_INVALID_PASSWORD, 
+					"Missing the required password for the new user: " + 
+						InputKeys.PASSWORD);
+		}
+		
+		String firstName = 
+				validateFirstName(user.optString(InputKeys.FIRST_NAME, null));
+		String lastName = 
+				validateLastName(user.optString(InputKeys.LAST_NAME, null));
+		String organization = 
+				validateOrganization(
+						user.optString(InputKeys.ORGANIZATION, null));
+		String personalId = 
+				validatePersonalId(user.optString(InputKeys.PERSONAL_ID, null));
+		
+		UserPersonal personalInfo = null;
+		if(
+				(firstName != null) || 
+				(lastName != null) || 
+				(organization != null) || 
+				(personalId != null)) {
+			
+			try {
+				personalInfo = 
+						new UserPersonal(
+								firstName, 
+								lastName, 
+								organization, 
+								personalId);
+			}
+			catch(DomainException e) {
+				throw new ValidationException(
+						ErrorCode.USER_INVALID_NEW_USER_LIST, 
+						"The first name, last name, organization, and personal ID must all be given if any of them are.", 
+						e);
+			}
+		}
+		
+		try {
+			return new NewUser(
+					username, 
+					password, 
+					validateEmailAddress(
+							user.optString(InputKeys.EMAIL_ADDRESS, null)), 
+					validateAdminValue(
+							user.optString(InputKeys.USER_ADMIN, null)), 
+					validateEnabledValue(
+							user.optString(InputKeys.USER_ENABLED, null)), 
+					validateNewAccountValue(
+							user.optString(InputKeys.NEW_ACCOUNT, null)), 
+					validateCampaignCreationPrivilegeValue(
+							user.optString(
+									InputKeys.CAMPAIGN_CREATION_PRIVILEGE, 
+									null)), 
+					personalInfo);
+		}
+		catch(DomainException e) {
+			throw new ValidationException(
+					ErrorCode.USER_INVALID_NEW_USER_LIST, 
+					"The new user is invalid.", 
+					e);
+		}
+	}
 }
\ No newline at end of file
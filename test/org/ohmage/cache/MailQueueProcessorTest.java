@@ -0,0 +1,932 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.mail.Session;
+
+import jbcrypt.BCrypt;
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.QueuedMail;
+import org.ohmage.query.IImageQueries;
+import org.ohmage.query.IMailQueueQueries;
+import org.ohmage.query.IUserCampaignQueries;
+import org.ohmage.query.IUserClassQueries;
+import org.ohmage.query.IUserImageQueries;
+import org.ohmage.query.IUserQueries;
+import org.ohmage.service.MailServices;
+import org.ohmage.service.UserServices;
+
+/**
+ * Runs the mail queue processor against a local SMTP stand-in and an
+ * in-memory queue to test that messages are sent over a kept connection,
+ * that failures are retried with a backoff, that a message claimed by
+ * another processor is not sent twice, and that a password recovery
+ * message's new password is only created when it is sent.
+ *
+ * @author John Jenkins
+ */
+public class MailQueueProcessorTest extends TestCase {
+	/**
+	 * How long to wait for the processor before failing.
+	 */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * One minute.
+	 */
+	private static final long MINUTE = 1000 * 60;
+
+	/**
+	 * The queue behind the mail services. The services are a singleton, so
+	 * they are only created once and the queue is cleared for each test.
+	 */
+	private static final Queue QUEUE = new Queue();
+
+	/**
+	 * The password hashes that were stored for users by the user services.
+	 */
+	private static final List<String[]> PASSWORD_UPDATES =
+		Collections.synchronizedList(new ArrayList<String[]>());
+
+	static {
+		try {
+			// Spring creates the services through their private
+			// constructors, so the test does the same.
+			Constructor<MailServices> constructor =
+				MailServices.class.getDeclaredConstructor(
+					IMailQueueQueries.class);
+			constructor.setAccessible(true);
+			constructor.newInstance(QUEUE);
+
+			Constructor<UserServices> userConstructor =
+				UserServices.class.getDeclaredConstructor(
+					IUserQueries.class,
+					IUserCampaignQueries.class,
+					IUserClassQueries.class,
+					IUserImageQueries.class,
+					IImageQueries.class);
+			userConstructor.setAccessible(true);
+			userConstructor.newInstance(
+				userQueries(),
+				stub(IUserCampaignQueries.class),
+				stub(IUserClassQueries.class),
+				stub(IUserImageQueries.class),
+				stub(IImageQueries.class));
+		}
+		catch(Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The SMTP stand-in for the current test.
+	 */
+	private SmtpServer server;
+
+	/**
+	 * Starts the SMTP stand-in and clears the queue.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		QUEUE.clear();
+		PASSWORD_UPDATES.clear();
+		server = new SmtpServer();
+	}
+
+	/**
+	 * Stops the SMTP stand-in.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	/**
+	 * Tests that the queued messages are sent and removed from the queue and
+	 * that each sender keeps its connection open between messages.
+	 */
+	@Test
+	public void testSend() throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for(int i = 0; i < 6; i++) {
+			ids.add(QUEUE.add("user" + i + "@example.com"));
+		}
+
+		MailQueueProcessor processor = start();
+		try {
+			for(long id : ids) {
+				Assert.assertTrue(QUEUE.awaitRemoved(id));
+			}
+		}
+		finally {
+			processor.destroy();
+		}
+
+		Assert.assertEquals(6, server.getRecipients().size());
+		Assert.assertTrue(server.getConnectionCount() <= 2);
+	}
+
+	/**
+	 * Tests that a rejected message is rescheduled a minute out with its
+	 * error, and that it is sent once the retry is due.
+	 */
+	@Test
+	public void testRetry() throws Exception {
+		server.reject("bounce@example.com");
+		long id = QUEUE.add("bounce@example.com");
+
+		MailQueueProcessor processor = start();
+		try {
+			long before = System.currentTimeMillis();
+			Assert.assertTrue(QUEUE.awaitAttempts(id, 1));
+			long after = System.currentTimeMillis();
+
+			Queue.Row row = QUEUE.get(id);
+			Assert.assertEquals(Queue.PENDING, row.status);
+			Assert.assertNotNull(row.lastError);
+			Assert.assertTrue(row.nextAttemptMillis >= before + MINUTE - 1000);
+			Assert.assertTrue(row.nextAttemptMillis <= after + MINUTE);
+			Assert.assertFalse(row.content.isEmpty());
+			Assert.assertTrue(server.getRecipients().isEmpty());
+
+			// The mail server comes back and the retry comes due.
+			server.accept("bounce@example.com");
+			QUEUE.makeDue(id);
+			MailQueueProcessor.wakeUp();
+
+			Assert.assertTrue(QUEUE.awaitRemoved(id));
+		}
+		finally {
+			processor.destroy();
+		}
+
+		Assert.assertEquals(
+			Collections.singletonList("bounce@example.com"),
+			server.getRecipients());
+	}
+
+	/**
+	 * Tests that each failure doubles the wait, up to an hour, and that the
+	 * message is given up on and its content cleared after ten attempts.
+	 */
+	@Test
+	public void testBackoff() throws Exception {
+		long id = QUEUE.add("user@example.com");
+		long[] expected = { 1, 2, 4, 8, 16, 32, 60, 60, 60 };
+
+		for(int attempts = 0; attempts < expected.length; attempts++) {
+			long before = System.currentTimeMillis();
+			Assert.assertTrue(
+				MailServices.instance().markMailFailed(
+					QUEUE.get(id).toQueuedMail(),
+					"Failed."));
+			long after = System.currentTimeMillis();
+
+			Queue.Row row = QUEUE.get(id);
+			Assert.assertEquals(attempts + 1, row.attempts);
+			Assert.assertTrue(
+				row.nextAttemptMillis >= before + expected[attempts] * MINUTE);
+			Assert.assertTrue(
+				row.nextAttemptMillis <= after + expected[attempts] * MINUTE);
+		}
+
+		Assert.assertFalse(
+			MailServices.instance().markMailFailed(
+				QUEUE.get(id).toQueuedMail(),
+				"Failed."));
+		Queue.Row row = QUEUE.get(id);
+		Assert.assertEquals(10, row.attempts);
+		Assert.assertEquals(Queue.FAILED, row.status);
+		Assert.assertEquals("", row.content);
+
+		// It is no longer due.
+		QUEUE.makeDue(id);
+		Assert.assertTrue(MailServices.instance().getDueMail(10).isEmpty());
+	}
+
+	/**
+	 * Tests that a message that another processor claims between reading
+	 * the queue and claiming it is left to that processor, and that a claim
+	 * whose outcome was never recorded comes due again once it expires.
+	 */
+	@Test
+	public void testClaiming() throws Exception {
+		long claimed = QUEUE.add("claimed@example.com");
+		long other = QUEUE.add("other@example.com");
+
+		// Another processor reads the same messages and claims this one
+		// first.
+		QUEUE.claimFirstElsewhere(claimed);
+
+		MailQueueProcessor processor = start();
+		try {
+			Assert.assertTrue(QUEUE.awaitRemoved(other));
+
+			Queue.Row row = QUEUE.get(claimed);
+			Assert.assertEquals(Queue.SENDING, row.status);
+			Assert.assertTrue(
+				row.nextAttemptMillis > System.currentTimeMillis() + MINUTE);
+			Assert.assertEquals(
+				Collections.singletonList("other@example.com"),
+				server.getRecipients());
+
+			// The other processor died without recording the outcome. Once
+			// its claim expires, the message is claimed and sent again.
+			QUEUE.makeDue(claimed);
+			MailQueueProcessor.wakeUp();
+
+			Assert.assertTrue(QUEUE.awaitRemoved(claimed));
+		}
+		finally {
+			processor.destroy();
+		}
+
+		Assert.assertEquals(
+			2,
+			new HashSet<String>(server.getRecipients()).size());
+	}
+
+	/**
+	 * Tests that a password recovery message is queued without a password,
+	 * that each attempt to send it gives the user a new temporary password,
+	 * and that the message that is sent has the password that was stored
+	 * last.
+	 */
+	@Test
+	public void testPasswordRecovery() throws Exception {
+		String content = "<p>Login with your new password below.</p>";
+
+		server.reject("forgot@example.com");
+		QUEUE.queueMail(
+			"ohmage@example.com",
+			"forgot@example.com",
+			"Password Recovery",
+			content,
+			"text/html",
+			"user.a",
+			System.currentTimeMillis());
+		long id = QUEUE.getLastId();
+
+		// Nothing is changed until the message is sent.
+		Assert.assertTrue(PASSWORD_UPDATES.isEmpty());
+
+		MailQueueProcessor processor = start();
+		try {
+			// The first attempt is rejected after the password was reset.
+			Assert.assertTrue(QUEUE.awaitAttempts(id, 1));
+			Assert.assertEquals(1, PASSWORD_UPDATES.size());
+			Assert.assertEquals(content, QUEUE.get(id).content);
+
+			server.accept("forgot@example.com");
+			QUEUE.makeDue(id);
+			MailQueueProcessor.wakeUp();
+
+			Assert.assertTrue(QUEUE.awaitRemoved(id));
+		}
+		finally {
+			processor.destroy();
+		}
+
+		Assert.assertEquals(2, PASSWORD_UPDATES.size());
+		for(String[] update : PASSWORD_UPDATES) {
+			Assert.assertEquals("user.a", update[0]);
+		}
+
+		List<String> messages = server.getMessages();
+		Assert.assertEquals(1, messages.size());
+
+		String message = messages.get(0);
+		Assert.assertTrue(message, message.contains(content));
+		int start = message.indexOf("<br /><br />");
+		Assert.assertTrue(message, start >= 0);
+		String password =
+			message.substring(start + "<br /><br />".length()).trim();
+
+		// Only the password from the attempt that was sent works.
+		Assert.assertEquals(32, password.length());
+		Assert.assertFalse(
+			BCrypt.checkpw(password, PASSWORD_UPDATES.get(0)[1]));
+		Assert.assertTrue(
+			BCrypt.checkpw(password, PASSWORD_UPDATES.get(1)[1]));
+	}
+
+	/**
+	 * Creates user queries that record the password updates and do nothing
+	 * else.
+	 *
+	 * @return The user queries.
+	 */
+	private static IUserQueries userQueries() {
+		return (IUserQueries) Proxy.newProxyInstance(
+			IUserQueries.class.getClassLoader(),
+			new Class<?>[] { IUserQueries.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(
+						final Object proxy,
+						final Method method,
+						final Object[] args) {
+
+					if("updateUserPassword".equals(method.getName())) {
+						PASSWORD_UPDATES.add(
+							new String[] {
+								(String) args[0],
+								(String) args[1] });
+					}
+					return null;
+				}
+			});
+	}
+
+	/**
+	 * Creates an implementation of an interface that does nothing.
+	 *
+	 * @param type The interface.
+	 *
+	 * @return The implementation.
+	 */
+	private static <T> T stub(final Class<T> type) {
+		return type.cast(
+			Proxy.newProxyInstance(
+				type.getClassLoader(),
+				new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						return null;
+					}
+				}));
+	}
+
+	/**
+	 * Creates a processor that sends to the SMTP stand-in and tells it that
+	 * mail was queued.
+	 *
+	 * @return The processor, which must be destroyed.
+	 */
+	private MailQueueProcessor start() {
+		Properties properties = new Properties();
+		properties.put("mail.smtp.host", "127.0.0.1");
+		properties.put("mail.smtp.port", Integer.toString(server.getPort()));
+		properties.put("mail.smtp.connectiontimeout", "5000");
+		properties.put("mail.smtp.timeout", "5000");
+
+		MailQueueProcessor processor =
+			new MailQueueProcessor(
+				Session.getInstance(properties),
+				TIMEOUT_MILLIS * 10);
+		MailQueueProcessor.wakeUp();
+
+		return processor;
+	}
+
+	/**
+	 * An in-memory mail queue with the same claiming rules as the database
+	 * queue.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Queue implements IMailQueueQueries {
+		private static final String PENDING = "pending";
+		private static final String SENDING = "sending";
+		private static final String FAILED = "failed";
+
+		/**
+		 * A message in the queue.
+		 *
+		 * @author John Jenkins
+		 */
+		private static final class Row {
+			private final long id;
+			private final String recipient;
+			private String content = "<p>Hello.</p>";
+			private String passwordRecoveryUsername = null;
+			private String status = PENDING;
+			private int attempts = 0;
+			private long nextAttemptMillis;
+			private String lastError = null;
+
+			/**
+			 * Creates a message that is due now.
+			 *
+			 * @param id The message's ID.
+			 *
+			 * @param recipient The recipient's address.
+			 */
+			private Row(final long id, final String recipient) {
+				this.id = id;
+				this.recipient = recipient;
+				nextAttemptMillis = System.currentTimeMillis();
+			}
+
+			/**
+			 * Returns the message as it is read from the queue.
+			 *
+			 * @return The message.
+			 */
+			private QueuedMail toQueuedMail() {
+				return new QueuedMail(
+					id,
+					"ohmage@example.com",
+					recipient,
+					"Test",
+					content,
+					"text/html",
+					passwordRecoveryUsername,
+					attempts);
+			}
+		}
+
+		private final Map<Long, Row> rows = new TreeMap<Long, Row>();
+		private long nextId = 1;
+		private Long claimFirstElsewhere = null;
+
+		/**
+		 * Empties the queue.
+		 */
+		private synchronized void clear() {
+			rows.clear();
+			claimFirstElsewhere = null;
+		}
+
+		/**
+		 * Adds a message that is due now.
+		 *
+		 * @param recipient The recipient's address.
+		 *
+		 * @return The message's ID.
+		 */
+		private synchronized long add(final String recipient) {
+			long id = nextId++;
+			rows.put(id, new Row(id, recipient));
+			return id;
+		}
+
+		/**
+		 * Returns the ID of the message that was added last.
+		 *
+		 * @return The message's ID.
+		 */
+		private synchronized long getLastId() {
+			return nextId - 1;
+		}
+
+		/**
+		 * Returns a message.
+		 *
+		 * @param id The message's ID.
+		 *
+		 * @return The message or null if it was removed.
+		 */
+		private synchronized Row get(final long id) {
+			return rows.get(id);
+		}
+
+		/**
+		 * Makes a message due now, as if its retry or claim had expired.
+		 *
+		 * @param id The message's ID.
+		 */
+		private synchronized void makeDue(final long id) {
+			rows.get(id).nextAttemptMillis = System.currentTimeMillis();
+		}
+
+		/**
+		 * Makes another processor claim a message just before the next
+		 * attempt to claim it, as if both had read it from the queue.
+		 *
+		 * @param id The message's ID.
+		 */
+		private synchronized void claimFirstElsewhere(final long id) {
+			claimFirstElsewhere = id;
+		}
+
+		/**
+		 * Waits for a message to be removed.
+		 *
+		 * @param id The message's ID.
+		 *
+		 * @return Whether or not it was removed in time.
+		 */
+		private synchronized boolean awaitRemoved(final long id)
+				throws InterruptedException {
+
+			long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while(rows.containsKey(id)) {
+				long remaining = end - System.currentTimeMillis();
+				if(remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+
+		/**
+		 * Waits for a message to have failed a number of times.
+		 *
+		 * @param id The message's ID.
+		 *
+		 * @param attempts The number of failed attempts.
+		 *
+		 * @return Whether or not it failed that many times in time.
+		 */
+		private synchronized boolean awaitAttempts(
+				final long id,
+				final int attempts)
+				throws InterruptedException {
+
+			long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while(rows.get(id).attempts < attempts) {
+				long remaining = end - System.currentTimeMillis();
+				if(remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+
+		/**
+		 * Adds a message.
+		 */
+		@Override
+		public synchronized void queueMail(
+				final String sender,
+				final String recipient,
+				final String subject,
+				final String content,
+				final String contentType,
+				final String passwordRecoveryUsername,
+				final long nowMillis) {
+
+			Row row = rows.get(add(recipient));
+			row.content = content;
+			row.passwordRecoveryUsername = passwordRecoveryUsername;
+		}
+
+		/**
+		 * Returns the pending and claimed messages that are due.
+		 */
+		@Override
+		public synchronized List<QueuedMail> getDueMail(
+				final long nowMillis,
+				final int limit) {
+
+			List<QueuedMail> result = new ArrayList<QueuedMail>();
+			for(Row row : rows.values()) {
+				if(result.size() == limit) {
+					break;
+				}
+				if((! FAILED.equals(row.status)) &&
+					(row.nextAttemptMillis <= nowMillis)) {
+
+					result.add(row.toQueuedMail());
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Claims a message if it is still due.
+		 */
+		@Override
+		public synchronized boolean claimMail(
+				final long id,
+				final long nowMillis,
+				final long claimMillis) {
+
+			if((claimFirstElsewhere != null) &&
+				(claimFirstElsewhere == id)) {
+
+				claimFirstElsewhere = null;
+				claimMail(id, nowMillis, claimMillis);
+			}
+
+			Row row = rows.get(id);
+			if((row == null) ||
+				FAILED.equals(row.status) ||
+				(row.nextAttemptMillis > nowMillis)) {
+
+				return false;
+			}
+
+			row.status = SENDING;
+			row.nextAttemptMillis = nowMillis + claimMillis;
+			notifyAll();
+			return true;
+		}
+
+		/**
+		 * Removes a message.
+		 */
+		@Override
+		public synchronized void deleteMail(final long id) {
+			rows.remove(id);
+			notifyAll();
+		}
+
+		/**
+		 * Records a failure.
+		 */
+		@Override
+		public synchronized void recordMailFailure(
+				final long id,
+				final Long nextAttemptMillis,
+				final String error) {
+
+			Row row = rows.get(id);
+			row.attempts++;
+			row.lastError = error;
+			if(nextAttemptMillis == null) {
+				row.status = FAILED;
+				row.content = "";
+			}
+			else {
+				row.status = PENDING;
+				row.nextAttemptMillis = nextAttemptMillis;
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Counts the messages that haven't been sent or given up on.
+		 */
+		@Override
+		public synchronized long getPendingMailCount() {
+			long result = 0;
+			for(Row row : rows.values()) {
+				if(! FAILED.equals(row.status)) {
+					result++;
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A minimal SMTP server that accepts every message except those to the
+	 * addresses it was told to reject, which it rejects as unknown users.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class SmtpServer implements Runnable {
+		private final ServerSocket socket;
+		private final Set<String> rejected =
+			Collections.synchronizedSet(new HashSet<String>());
+		private final List<String> recipients =
+			Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> messages =
+			Collections.synchronizedList(new ArrayList<String>());
+		private volatile int connections = 0;
+
+		/**
+		 * Starts the server on a free local port.
+		 *
+		 * @throws IOException The port could not be opened.
+		 */
+		private SmtpServer() throws IOException {
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+			Thread thread = new Thread(this, "SMTP Stand-in");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Returns the port the server is listening on.
+		 *
+		 * @return The port.
+		 */
+		private int getPort() {
+			return socket.getLocalPort();
+		}
+
+		/**
+		 * Rejects the messages to an address.
+		 *
+		 * @param address The address.
+		 */
+		private void reject(final String address) {
+			rejected.add(address);
+		}
+
+		/**
+		 * Accepts the messages to an address again.
+		 *
+		 * @param address The address.
+		 */
+		private void accept(final String address) {
+			rejected.remove(address);
+		}
+
+		/**
+		 * Returns the recipients of the accepted messages.
+		 *
+		 * @return The recipients in the order the messages were accepted.
+		 */
+		private List<String> getRecipients() {
+			synchronized(recipients) {
+				return new ArrayList<String>(recipients);
+			}
+		}
+
+		/**
+		 * Returns the accepted messages, with their headers.
+		 *
+		 * @return The messages in the order they were accepted.
+		 */
+		private List<String> getMessages() {
+			synchronized(messages) {
+				return new ArrayList<String>(messages);
+			}
+		}
+
+		/**
+		 * Returns the number of connections that have been made.
+		 *
+		 * @return The number of connections.
+		 */
+		private int getConnectionCount() {
+			return connections;
+		}
+
+		/**
+		 * Stops accepting connections.
+		 */
+		private void close() throws IOException {
+			socket.close();
+		}
+
+		/**
+		 * Accepts connections and serves each on its own thread.
+		 */
+		@Override
+		public void run() {
+			while(! socket.isClosed()) {
+				final Socket client;
+				try {
+					client = socket.accept();
+				}
+				catch(IOException e) {
+					return;
+				}
+				connections++;
+
+				Thread thread = new Thread("SMTP Stand-in Connection") {
+					@Override
+					public void run() {
+						try {
+							serve(client);
+						}
+						catch(IOException e) {
+							// The client went away.
+						}
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		/**
+		 * Answers one client's commands until it quits.
+		 *
+		 * @param client The client's connection.
+		 *
+		 * @throws IOException There was an error talking to the client.
+		 */
+		private void serve(final Socket client) throws IOException {
+			try {
+				BufferedReader in =
+					new BufferedReader(
+						new InputStreamReader(
+							client.getInputStream(),
+							"US-ASCII"));
+				Writer out =
+					new OutputStreamWriter(
+						client.getOutputStream(),
+						"US-ASCII");
+
+				reply(out, "220 localhost SMTP stand-in");
+
+				String recipient = null;
+				String line;
+				while((line = in.readLine()) != null) {
+					String command = line.toUpperCase();
+
+					if(command.startsWith("EHLO") ||
+						command.startsWith("HELO")) {
+
+						reply(out, "250 localhost");
+					}
+					else if(command.startsWith("MAIL FROM:")) {
+						recipient = null;
+						reply(out, "250 OK");
+					}
+					else if(command.startsWith("RCPT TO:")) {
+						String address =
+							line
+								.substring("RCPT TO:".length())
+								.replace("<", "")
+								.replace(">", "")
+								.trim();
+
+						if(rejected.contains(address)) {
+							reply(out, "550 No such user: " + address);
+						}
+						else {
+							recipient = address;
+							reply(out, "250 OK");
+						}
+					}
+					else if(command.equals("DATA")) {
+						reply(out, "354 End data with <CR><LF>.<CR><LF>");
+						StringBuilder message = new StringBuilder();
+						while(((line = in.readLine()) != null) &&
+							(! ".".equals(line))) {
+
+							message.append(line).append('\n');
+						}
+						messages.add(message.toString());
+						recipients.add(recipient);
+						reply(out, "250 OK");
+					}
+					else if(command.equals("QUIT")) {
+						reply(out, "221 Bye");
+						return;
+					}
+					else if(command.equals("RSET") ||
+						command.equals("NOOP")) {
+
+						reply(out, "250 OK");
+					}
+					else {
+						reply(out, "502 Command not implemented");
+					}
+				}
+			}
+			finally {
+				client.close();
+			}
+		}
+
+		/**
+		 * Writes a reply.
+		 *
+		 * @param out The client's connection.
+		 *
+		 * @param reply The reply.
+		 *
+		 * @throws IOException There was an error writing the reply.
+		 */
+		private static void reply(final Writer out, final String reply)
+				throws IOException {
+
+			out.write(reply);
+			out.write("\r\n");
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.ResponseSnapshot;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests the snapshots' entity tags, that the cache only returns a snapshot
+ * for the version from which it was built, and that the preferences' version
+ * only changes when they do.
+ *
+ * @author John Jenkins
+ */
+public class ResponseSnapshotCacheTest extends TestCase {
+	/**
+	 * The MD5 digest of "abc".
+	 */
+	private static final String ABC_DIGEST =
+		"900150983cd24fb0d6963f7d28e17f72";
+
+	/**
+	 * The cache is a singleton, so it is only created once and each test
+	 * uses its own campaigns.
+	 */
+	private static final ResponseSnapshotCache CACHE;
+
+	static {
+		try {
+			// Spring creates the cache through its private constructor, so
+			// the test does the same.
+			Constructor<ResponseSnapshotCache> constructor =
+				ResponseSnapshotCache.class.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			CACHE = constructor.newInstance();
+		}
+		catch(Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Tests that the entity tags are quoted digests of the body, that the
+	 * gzipped body has its own tag, and that the gzipped body is the body.
+	 */
+	@Test
+	public void testETags() throws DomainException, IOException {
+		ResponseSnapshot snapshot = snapshot("abc");
+
+		Assert.assertEquals('"' + ABC_DIGEST + '"', snapshot.getETag(false));
+		Assert.assertEquals(
+			'"' + ABC_DIGEST + "-gzip\"",
+			snapshot.getETag(true));
+		Assert.assertEquals("application/json", snapshot.getContentType());
+		Assert.assertNull(snapshot.getFileName());
+
+		Assert.assertArrayEquals(
+			"abc".getBytes("UTF-8"),
+			snapshot.getBody(false));
+		Assert.assertArrayEquals(
+			"abc".getBytes("UTF-8"),
+			gunzip(snapshot.getBody(true)));
+
+		// The tags only depend on the body.
+		Assert.assertEquals(
+			snapshot.getETag(false),
+			snapshot("abc").getETag(false));
+		Assert.assertFalse(
+			snapshot.getETag(false).equals(snapshot("abd").getETag(false)));
+	}
+
+	/**
+	 * Tests that a snapshot matches the "If-None-Match" headers that name
+	 * either of its bodies, weakly or strongly, alone or in a list, or that
+	 * match anything, and nothing else.
+	 */
+	@Test
+	public void testMatches() throws DomainException {
+		ResponseSnapshot snapshot = snapshot("abc");
+		String eTag = snapshot.getETag(false);
+		String gzippedETag = snapshot.getETag(true);
+
+		Assert.assertTrue(snapshot.matches(eTag));
+		Assert.assertTrue(snapshot.matches(gzippedETag));
+		Assert.assertTrue(snapshot.matches("W/" + eTag));
+		Assert.assertTrue(snapshot.matches("\"other\", " + gzippedETag));
+		Assert.assertTrue(snapshot.matches("*"));
+
+		Assert.assertFalse(snapshot.matches(null));
+		Assert.assertFalse(snapshot.matches(""));
+		Assert.assertFalse(snapshot.matches("\"other\""));
+		Assert.assertFalse(snapshot.matches(ABC_DIGEST));
+		Assert.assertFalse(snapshot.matches(snapshot("abd").getETag(false)));
+	}
+
+	/**
+	 * Tests that the server's configuration is only returned for the
+	 * version from which it was built and that a newer one replaces it.
+	 */
+	@Test
+	public void testServerConfigVersion() throws DomainException {
+		ResponseSnapshot first = snapshot("first");
+		CACHE.putServerConfig(1, first);
+		Assert.assertSame(first, CACHE.getServerConfig(1));
+		Assert.assertNull(CACHE.getServerConfig(2));
+
+		ResponseSnapshot second = snapshot("second");
+		CACHE.putServerConfig(2, second);
+		Assert.assertSame(second, CACHE.getServerConfig(2));
+		Assert.assertNull(CACHE.getServerConfig(1));
+	}
+
+	/**
+	 * Tests that the version of the preferences, which the configuration's
+	 * snapshot uses, only changes when a refresh finds different keys or
+	 * values.
+	 */
+	@Test
+	public void testPreferencesVersion() {
+		Map<String, String> preferences = new HashMap<String, String>();
+		preferences.put("key", "value");
+		TestKeyValueCache cache = new TestKeyValueCache(preferences);
+
+		long version = cache.getVersion();
+		Assert.assertEquals(version, cache.getVersion());
+
+		preferences.put("key", "other");
+		Assert.assertEquals(version + 1, cache.getVersion());
+		Assert.assertEquals(version + 1, cache.getVersion());
+
+		preferences.put("other", "value");
+		Assert.assertEquals(version + 2, cache.getVersion());
+
+		preferences.remove("other");
+		Assert.assertEquals(version + 3, cache.getVersion());
+	}
+
+	/**
+	 * Tests that a campaign's XML is only returned for the version from
+	 * which it was built, that its versions are kept side by side, and that
+	 * invalidating the campaign removes all of them and nothing else.
+	 */
+	@Test
+	public void testCampaignVersions() throws DomainException {
+		String campaignId = "urn:campaign:versions";
+		String otherCampaignId = "urn:campaign:versions:other";
+
+		ResponseSnapshot unmasked = snapshot("unmasked");
+		ResponseSnapshot masked = snapshot("masked");
+		ResponseSnapshot other = snapshot("other");
+		CACHE.putCampaignXml(campaignId, "1000:", unmasked);
+		CACHE.putCampaignXml(campaignId, "1000:mask", masked);
+		CACHE.putCampaignXml(otherCampaignId, "1000:", other);
+
+		Assert.assertSame(unmasked, CACHE.getCampaignXml(campaignId, "1000:"));
+		Assert.assertSame(
+			masked,
+			CACHE.getCampaignXml(campaignId, "1000:mask"));
+		Assert.assertNull(CACHE.getCampaignXml(campaignId, "2000:"));
+
+		CACHE.invalidateCampaign(campaignId);
+		Assert.assertNull(CACHE.getCampaignXml(campaignId, "1000:"));
+		Assert.assertNull(CACHE.getCampaignXml(campaignId, "1000:mask"));
+		Assert.assertSame(
+			other,
+			CACHE.getCampaignXml(otherCampaignId, "1000:"));
+	}
+
+	/**
+	 * Tests that a campaign's versions are dropped once there are too many
+	 * of them and that the least recently used campaigns are dropped once
+	 * there are too many of those.
+	 */
+	@Test
+	public void testBounded() throws DomainException {
+		String campaignId = "urn:campaign:bounded";
+		ResponseSnapshot snapshot = snapshot("bounded");
+
+		for(int i = 0; i < 32; i++) {
+			CACHE.putCampaignXml(campaignId, Integer.toString(i), snapshot);
+		}
+		Assert.assertSame(snapshot, CACHE.getCampaignXml(campaignId, "0"));
+		CACHE.putCampaignXml(campaignId, "32", snapshot);
+		Assert.assertNull(CACHE.getCampaignXml(campaignId, "0"));
+		Assert.assertSame(snapshot, CACHE.getCampaignXml(campaignId, "32"));
+
+		// Filling the cache drops everything else.
+		String prefix = "urn:campaign:bounded:";
+		for(int i = 0; i < 256; i++) {
+			CACHE.putCampaignXml(prefix + i, "1", snapshot);
+		}
+		Assert.assertNull(CACHE.getCampaignXml(campaignId, "32"));
+
+		// Reading a campaign keeps it.
+		Assert.assertSame(snapshot, CACHE.getCampaignXml(prefix + 0, "1"));
+		CACHE.putCampaignXml(prefix + 256, "1", snapshot);
+		Assert.assertNull(CACHE.getCampaignXml(prefix + 1, "1"));
+		Assert.assertSame(snapshot, CACHE.getCampaignXml(prefix + 0, "1"));
+		Assert.assertSame(snapshot, CACHE.getCampaignXml(prefix + 256, "1"));
+	}
+
+	/**
+	 * Creates a JSON snapshot.
+	 *
+	 * @param body The body.
+	 *
+	 * @return The snapshot.
+	 */
+	private static ResponseSnapshot snapshot(final String body)
+			throws DomainException {
+
+		try {
+			return
+				new ResponseSnapshot(
+					"application/json",
+					null,
+					body.getBytes("UTF-8"));
+		}
+		catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decompresses a gzipped body.
+	 *
+	 * @param gzipped The gzipped body.
+	 *
+	 * @return The body.
+	 */
+	private static byte[] gunzip(final byte[] gzipped) throws IOException {
+		GZIPInputStream input =
+			new GZIPInputStream(new ByteArrayInputStream(gzipped));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		input.close();
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * A key-value cache that refreshes on every lookup and reads its keys
+	 * and values from a map.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class TestKeyValueCache extends KeyValueCache {
+		/**
+		 * Creates the cache.
+		 *
+		 * @param keyValues The keys and values the database returns, which
+		 * 					may be changed between lookups.
+		 */
+		private TestKeyValueCache(final Map<String, String> keyValues) {
+			super(dataSource(keyValues), -1, "SELECT", "key", "value");
+		}
+
+		/**
+		 * Returns the cache's name.
+		 */
+		@Override
+		public String getName() {
+			return "test";
+		}
+
+		/**
+		 * Creates a DataSource whose queries return the keys and values.
+		 *
+		 * @param keyValues The keys and values.
+		 *
+		 * @return The DataSource.
+		 */
+		private static DataSource dataSource(
+				final Map<String, String> keyValues) {
+
+			return proxy(DataSource.class, new InvocationHandler() {
+				@Override
+				public Object invoke(
+						final Object proxy,
+						final Method method,
+						final Object[] args) {
+
+					if("getConnection".equals(method.getName())) {
+						return proxy(Connection.class, new InvocationHandler() {
+							@Override
+							public Object invoke(
+									final Object proxy,
+									final Method method,
+									final Object[] args) {
+
+								if("createStatement".equals(method.getName())) {
+									return statement(keyValues);
+								}
+								return null;
+							}
+						});
+					}
+					return null;
+				}
+			});
+		}
+
+		/**
+		 * Creates a statement whose query returns the keys and values.
+		 *
+		 * @param keyValues The keys and values.
+		 *
+		 * @return The statement.
+		 */
+		private static Statement statement(
+				final Map<String, String> keyValues) {
+
+			return proxy(Statement.class, new InvocationHandler() {
+				@Override
+				public Object invoke(
+						final Object proxy,
+						final Method method,
+						final Object[] args) {
+
+					if("executeQuery".equals(method.getName())) {
+						final Iterator<Map.Entry<String, String>> rows =
+							new HashMap<String, String>(keyValues)
+								.entrySet()
+								.iterator();
+
+						return proxy(ResultSet.class, new InvocationHandler() {
+							private Map.Entry<String, String> row;
+
+							@Override
+							public Object invoke(
+									final Object proxy,
+									final Method method,
+									final Object[] args) {
+
+								String name = method.getName();
+								if("next".equals(name)) {
+									row = rows.hasNext() ? rows.next() : null;
+									return row != null;
+								}
+								else if("getString".equals(name)) {
+									return
+										("key".equals(args[0])) ?
+											row.getKey() :
+											row.getValue();
+								}
+								return null;
+							}
+						});
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates an implementation of an interface.
+	 *
+	 * @param type The interface.
+	 *
+	 * @param handler The implementation.
+	 *
+	 * @return The implementation.
+	 */
+	private static <T> T proxy(
+			final Class<T> type,
+			final InvocationHandler handler) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				type.getClassLoader(),
+				new Class<?>[] { type },
+				handler));
+	}
+}
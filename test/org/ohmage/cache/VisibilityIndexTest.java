@@ -0,0 +1,832 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.impl.QueryResultsList;
+import org.ohmage.query.impl.RecordingJdbcTemplate;
+import org.ohmage.util.CompressedBitmap;
+
+/**
+ * Tests the visible documents from the visibility index against the rules
+ * of the SQL that it replaced, evaluated directly over the same role rows.
+ *
+ * @author John Jenkins
+ */
+public class VisibilityIndexTest extends TestCase {
+	private static final String ALICE = "alice";
+	private static final String BOB = "bob";
+	private static final String CAROL = "carol";
+	private static final String DAVE = "dave";
+	private static final String ERIN = "erin";
+	private static final String FRANK = "Frank";
+	private static final String NOBODY = "nobody";
+
+	private static final String CAMPAIGN_A = "urn:campaign:a";
+	private static final String CAMPAIGN_B = "urn:campaign:b";
+	private static final String CLASS_A = "urn:class:a";
+	private static final String CLASS_B = "urn:class:b";
+
+	// Users: ID, username, and whether or not they are an admin.
+	private static final Object[][] USERS = {
+		{ 1, ALICE, true },
+		{ 2, BOB, false },
+		{ 3, CAROL, false },
+		{ 4, DAVE, false },
+		{ 5, ERIN, false },
+		{ 6, FRANK, false }
+	};
+
+	// Campaigns and classes: ID and URN.
+	private static final Object[][] CAMPAIGNS = {
+		{ 10, CAMPAIGN_A },
+		{ 11, CAMPAIGN_B }
+	};
+	private static final Object[][] CLASSES = {
+		{ 20, CLASS_A },
+		{ 21, CLASS_B }
+	};
+
+	// Documents: ID, UUID, and whether or not they are shared.
+	private static final Object[][] DOCUMENTS = {
+		{ 100, "doc-100", true },
+		{ 101, "doc-101", false },
+		{ 102, "doc-102", false },
+		{ 103, "doc-103", false },
+		{ 104, "doc-104", true },
+		{ 105, "doc-105", false },
+		{ 106, "doc-106", false },
+		{ 107, "doc-107", false },
+		{ 108, "doc-108", false }
+	};
+
+	// Campaign users: campaign ID, user ID, and whether or not the user is
+	// a supervisor. Carol has two roles in campaign A.
+	private static final Object[][] CAMPAIGN_USERS = {
+		{ 10, 2, false },
+		{ 10, 3, true },
+		{ 10, 3, false },
+		{ 11, 4, false }
+	};
+
+	// Class users: class ID, user ID, and whether or not the user is
+	// privileged.
+	private static final Object[][] CLASS_USERS = {
+		{ 20, 4, false },
+		{ 20, 5, true },
+		{ 21, 2, false }
+	};
+
+	// User documents: user ID, document ID, and whether or not the user is
+	// an owner.
+	private static final Object[][] USER_DOCUMENTS = {
+		{ 2, 101, true },
+		{ 2, 102, false },
+		{ 4, 103, false },
+		{ 5, 107, true }
+	};
+
+	// Campaign documents: campaign ID, document ID, and whether or not the
+	// campaign is an owner.
+	private static final Object[][] CAMPAIGN_DOCUMENTS = {
+		{ 10, 105, true },
+		{ 10, 106, false },
+		{ 11, 102, false },
+		{ 11, 100, false }
+	};
+
+	// Class documents: class ID, document ID, and whether or not the class
+	// is an owner.
+	private static final Object[][] CLASS_DOCUMENTS = {
+		{ 20, 103, false },
+		{ 20, 107, false },
+		{ 21, 106, true },
+		{ 21, 104, false },
+		{ 21, 108, false }
+	};
+
+	/**
+	 * Compares the index with the old rules for every user and combination
+	 * of parameters.
+	 */
+	@Test
+	public void testGetVisibleDocumentsMatchesSql()
+			throws DataAccessException {
+
+		VisibilityIndex index = new VisibilityIndex(new FakeJdbcTemplate());
+
+		List<Boolean> personalOptions = Arrays.asList(null, false, true);
+		List<List<String>> campaignOptions =
+			Arrays.asList(
+				null,
+				Arrays.asList(CAMPAIGN_A),
+				Arrays.asList(CAMPAIGN_A, CAMPAIGN_B),
+				Arrays.asList("urn:campaign:missing"));
+		List<List<String>> classOptions =
+			Arrays.asList(
+				null,
+				Arrays.asList(CLASS_A),
+				Arrays.asList(CLASS_B, CLASS_A));
+
+		List<String> usernames = new ArrayList<String>();
+		for(Object[] user : USERS) {
+			usernames.add((String) user[1]);
+		}
+		usernames.add(NOBODY);
+
+		for(String username : usernames) {
+			for(Boolean personal : personalOptions) {
+				for(List<String> campaignIds : campaignOptions) {
+					for(List<String> classIds : classOptions) {
+						SortedSet<Integer> expected =
+							getVisibleDocumentsSql(
+								username,
+								personal,
+								campaignIds,
+								classIds);
+						CompressedBitmap actual =
+							index.getVisibleDocuments(
+								username,
+								personal,
+								campaignIds,
+								classIds);
+
+						String message =
+							username + ", " + personal + ", " +
+								campaignIds + ", " + classIds;
+						if(expected == null) {
+							Assert.assertNull(message, actual);
+						}
+						else {
+							Assert.assertNotNull(message, actual);
+							Assert.assertEquals(
+								message,
+								expected.toString(),
+								toSet(actual).toString());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests a document that is shared with the user.
+	 */
+	@Test
+	public void testSharedDocument() throws DataAccessException {
+		VisibilityIndex index = new VisibilityIndex(new FakeJdbcTemplate());
+
+		// Dave is in campaign B, whose document 100 is shared.
+		Assert.assertTrue(
+			index.getVisibleDocuments(DAVE, null, null, null).contains(100));
+
+		// Bob is in class B, but its document 108 is private and not owned.
+		Assert.assertFalse(
+			index.getVisibleDocuments(BOB, null, null, null).contains(108));
+	}
+
+	/**
+	 * Tests documents that the user owns directly and that the user reads
+	 * through a campaign or class that owns them.
+	 */
+	@Test
+	public void testOwnedDocument() throws DataAccessException {
+		VisibilityIndex index = new VisibilityIndex(new FakeJdbcTemplate());
+
+		CompressedBitmap bob = index.getVisibleDocuments(BOB, null, null, null);
+		// Bob owns document 101 but is only a reader of document 102.
+		Assert.assertTrue(bob.contains(101));
+		Assert.assertFalse(bob.contains(102));
+		// Campaign A owns document 105 and class B owns document 106.
+		Assert.assertTrue(bob.contains(105));
+		Assert.assertTrue(bob.contains(106));
+	}
+
+	/**
+	 * Tests that supervisors and privileged users read every document of
+	 * their campaigns and classes and that admins read everything.
+	 */
+	@Test
+	public void testPrivilegedUsers() throws DataAccessException {
+		VisibilityIndex index = new VisibilityIndex(new FakeJdbcTemplate());
+
+		// Carol supervises campaign A, so she reads its unowned document 106.
+		Assert.assertTrue(
+			index.getVisibleDocuments(CAROL, null, null, null).contains(106));
+
+		// Erin is privileged in class A, so she reads Dave's document 103.
+		Assert.assertTrue(
+			index.getVisibleDocuments(ERIN, null, null, null).contains(103));
+		// Dave is in class A without privileges, so he doesn't, even though
+		// he is a reader of it.
+		Assert.assertFalse(
+			index.getVisibleDocuments(DAVE, null, null, null).contains(103));
+
+		// An admin reads every document.
+		Assert.assertNull(index.getVisibleDocuments(ALICE, null, null, null));
+	}
+
+	/**
+	 * Tests that a username that is not a user is only looked up once within
+	 * the time it is remembered and again once it is refreshed.
+	 */
+	@Test
+	public void testMissingUserIsRemembered() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		VisibilityIndex index = new VisibilityIndex(jdbcTemplate);
+
+		Assert.assertTrue(
+			index.getVisibleDocuments(NOBODY, null, null, null).isEmpty());
+		int queries = jdbcTemplate.getNumQueries();
+
+		Assert.assertTrue(
+			index.getVisibleDocuments(NOBODY, null, null, null).isEmpty());
+		Assert.assertTrue(
+			index.getVisibleUsers(NOBODY, false, null, null).isEmpty());
+		Assert.assertEquals(queries, jdbcTemplate.getNumQueries());
+
+		// Refreshing the username, e.g. after it is created, forgets it.
+		index.refreshUser(NOBODY);
+		queries = jdbcTemplate.getNumQueries();
+		index.getVisibleDocuments(NOBODY, null, null, null);
+		Assert.assertTrue(jdbcTemplate.getNumQueries() > queries);
+	}
+
+	/**
+	 * Tests that users are paged in the order of their usernames, ignoring
+	 * case, and that the total is the number of users.
+	 */
+	@Test
+	public void testUserPage() throws DataAccessException {
+		VisibilityIndex index = new VisibilityIndex(new FakeJdbcTemplate());
+		index.rebuild();
+
+		QueryResultsList<Integer> page = index.getUserPage(null, 0, 3);
+		Assert.assertEquals(Arrays.asList(1, 2, 3), page.getResults());
+		Assert.assertEquals(USERS.length, page.getTotalNumResults());
+
+		// Frank sorts after erin, not before alice, which is where a
+		// case-sensitive order would put the username.
+		page = index.getUserPage(null, 4, Long.MAX_VALUE);
+		Assert.assertEquals(Arrays.asList(5, 6), page.getResults());
+
+		page = index.getUserPage(CompressedBitmap.of(6, 2, 4, 99), 1, 5);
+		Assert.assertEquals(Arrays.asList(4, 6), page.getResults());
+		Assert.assertEquals(3, page.getTotalNumResults());
+
+		page = index.getUserPage(CompressedBitmap.of(2, 4), 5, 5);
+		Assert.assertTrue(page.getResults().isEmpty());
+		Assert.assertEquals(2, page.getTotalNumResults());
+	}
+
+	/**
+	 * Tests that a change made through one server's index is recorded and
+	 * applied by another server's index the next time it is read, but not
+	 * again by the first.
+	 */
+	@Test
+	public void testChangeFromAnotherServer() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		VisibilityIndex first = new VisibilityIndex(jdbcTemplate, 0);
+		VisibilityIndex second = new VisibilityIndex(jdbcTemplate, 0);
+
+		// Bob may not see the private document 108 in class B.
+		Assert.assertFalse(
+			first.getVisibleDocuments(BOB, null, null, null).contains(108));
+		Assert.assertFalse(
+			second.getVisibleDocuments(BOB, null, null, null).contains(108));
+
+		// It is shared through the first server.
+		jdbcTemplate.setShared("doc-108", true);
+		first.refreshDocument("doc-108");
+		Assert.assertEquals(1, jdbcTemplate.changes.size());
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-108"));
+		Assert.assertTrue(
+			first.getVisibleDocuments(BOB, null, null, null).contains(108));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-108"));
+
+		// The second server applies it once, even though it hasn't settled.
+		Assert.assertTrue(
+			second.getVisibleDocuments(BOB, null, null, null).contains(108));
+		Assert.assertEquals(2, jdbcTemplate.getNumRefreshes("doc-108"));
+		second.getVisibleDocuments(BOB, null, null, null);
+		jdbcTemplate.settle();
+		second.getVisibleDocuments(BOB, null, null, null);
+		second.getVisibleDocuments(BOB, null, null, null);
+		Assert.assertEquals(2, jdbcTemplate.getNumRefreshes("doc-108"));
+	}
+
+	/**
+	 * Tests that a change that is committed after a newer change has been
+	 * read is still applied, and that the changes from before a rebuild are
+	 * not applied after it.
+	 */
+	@Test
+	public void testLateChange() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		VisibilityIndex index = new VisibilityIndex(jdbcTemplate, 0);
+		index.rebuild();
+
+		jdbcTemplate.changes.add(
+			new Object[] { 1L, "other", "document", "doc-100", true });
+		jdbcTemplate.changes.add(
+			new Object[] { 3L, "other", "document", "doc-101", false });
+		index.getVisibleDocuments(BOB, null, null, null);
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-100"));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-101"));
+
+		// A change with a smaller ID is committed later.
+		jdbcTemplate.changes.add(
+			1,
+			new Object[] { 2L, "other", "document", "doc-102", false });
+		index.getVisibleDocuments(BOB, null, null, null);
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-100"));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-101"));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-102"));
+
+		// The index is rebuilt with every change, so none are applied again.
+		index.rebuild();
+		jdbcTemplate.settle();
+		index.getVisibleDocuments(BOB, null, null, null);
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-100"));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-101"));
+		Assert.assertEquals(1, jdbcTemplate.getNumRefreshes("doc-102"));
+	}
+
+	/**
+	 * Evaluates the rules of the SQL that the index replaced directly over
+	 * the role rows: the documents associated with the user in the
+	 * requested ways that are shared, owned by the user, or owned by or
+	 * associated with a campaign in which the user is a supervisor or a
+	 * class in which they are privileged.
+	 *
+	 * @return The visible documents or null if they are all visible.
+	 */
+	private static SortedSet<Integer> getVisibleDocumentsSql(
+			final String username,
+			final Boolean personalDocuments,
+			final Collection<String> campaignIds,
+			final Collection<String> classIds) {
+
+		SortedSet<Integer> result = new TreeSet<Integer>();
+		Object[] user = find(USERS, 1, username);
+		if(user == null) {
+			return result;
+		}
+		int userId = (Integer) user[0];
+		boolean admin = (Boolean) user[2];
+
+		// The documents associated with the user in the requested ways.
+		Set<Integer> candidates = new HashSet<Integer>();
+		if(Boolean.TRUE.equals(personalDocuments)) {
+			candidates.addAll(related(USER_DOCUMENTS, userId, false));
+		}
+		else if((campaignIds == null) && (classIds == null)) {
+			if(admin) {
+				return null;
+			}
+
+			candidates.addAll(related(USER_DOCUMENTS, userId, false));
+			for(int campaign : reverse(CAMPAIGN_USERS, userId, false)) {
+				candidates.addAll(
+					related(CAMPAIGN_DOCUMENTS, campaign, false));
+			}
+			for(int clazz : reverse(CLASS_USERS, userId, false)) {
+				candidates.addAll(related(CLASS_DOCUMENTS, clazz, false));
+			}
+		}
+		if(campaignIds != null) {
+			addMemberDocuments(
+				candidates, userId, campaignIds, CAMPAIGNS,
+				CAMPAIGN_USERS, CAMPAIGN_DOCUMENTS);
+		}
+		if(classIds != null) {
+			addMemberDocuments(
+				candidates, userId, classIds, CLASSES,
+				CLASS_USERS, CLASS_DOCUMENTS);
+		}
+
+		// The ones the user may read.
+		for(int document : candidates) {
+			if(
+				admin ||
+				(Boolean) find(DOCUMENTS, 0, document)[2] ||
+				hasRow(USER_DOCUMENTS, userId, document, true) ||
+				readsThrough(
+					userId, document, CAMPAIGN_USERS, CAMPAIGN_DOCUMENTS) ||
+				readsThrough(
+					userId, document, CLASS_USERS, CLASS_DOCUMENTS)) {
+
+				result.add(document);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the documents of the given campaigns or classes of which the user
+	 * is a member.
+	 */
+	private static void addMemberDocuments(
+			final Set<Integer> candidates,
+			final int userId,
+			final Collection<String> containerIds,
+			final Object[][] containers,
+			final Object[][] containerUsers,
+			final Object[][] containerDocuments) {
+
+		for(String containerId : containerIds) {
+			Object[] container = find(containers, 1, containerId);
+			if(container == null) {
+				continue;
+			}
+			int id = (Integer) container[0];
+			if(hasRow(containerUsers, id, userId, false)) {
+				candidates.addAll(related(containerDocuments, id, false));
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a user reads a document through one of their
+	 * campaigns or classes, which either owns the document or in which the
+	 * user is a supervisor or privileged.
+	 */
+	private static boolean readsThrough(
+			final int userId,
+			final int documentId,
+			final Object[][] containerUsers,
+			final Object[][] containerDocuments) {
+
+		for(Object[] row : containerDocuments) {
+			if(
+				((Integer) row[1] == documentId) &&
+				hasRow(containerUsers, (Integer) row[0], userId, false) &&
+				(
+					(Boolean) row[2] ||
+					hasRow(containerUsers, (Integer) row[0], userId, true))) {
+
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the row whose column has a value.
+	 */
+	private static Object[] find(
+			final Object[][] rows,
+			final int column,
+			final Object value) {
+
+		for(Object[] row : rows) {
+			if(row[column].equals(value)) {
+				return row;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether a pair is related, optionally only by flagged rows.
+	 */
+	private static boolean hasRow(
+			final Object[][] rows,
+			final int from,
+			final int to,
+			final boolean flaggedOnly) {
+
+		for(Object[] row : rows) {
+			if(
+				((Integer) row[0] == from) &&
+				((Integer) row[1] == to) &&
+				((! flaggedOnly) || (Boolean) row[2])) {
+
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the right-hand IDs related to a left-hand ID.
+	 */
+	private static Set<Integer> related(
+			final Object[][] rows,
+			final int from,
+			final boolean flaggedOnly) {
+
+		Set<Integer> result = new HashSet<Integer>();
+		for(Object[] row : rows) {
+			if(
+				((Integer) row[0] == from) &&
+				((! flaggedOnly) || (Boolean) row[2])) {
+
+
+				result.add((Integer) row[1]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the left-hand IDs related to a right-hand ID.
+	 */
+	private static Set<Integer> reverse(
+			final Object[][] rows,
+			final int to,
+			final boolean flaggedOnly) {
+
+		Set<Integer> result = new HashSet<Integer>();
+		for(Object[] row : rows) {
+			if(
+				((Integer) row[1] == to) &&
+				((! flaggedOnly) || (Boolean) row[2])) {
+
+
+				result.add((Integer) row[0]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the integers in a bitmap as a sorted set.
+	 */
+	private static SortedSet<Integer> toSet(final CompressedBitmap bitmap) {
+		SortedSet<Integer> result = new TreeSet<Integer>();
+		for(int value : bitmap.toArray()) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	/**
+	 * A template that answers the index's queries from the rows above
+	 * instead of a database and counts the queries.
+	 */
+	private static final class FakeJdbcTemplate extends RecordingJdbcTemplate {
+		// The recorded changes: ID, source, entity type, entity ID, and
+		// whether or not the change has settled.
+		private final List<Object[]> changes = new ArrayList<Object[]>();
+
+		// The documents, whose shared flags may be changed.
+		private final Object[][] documents = new Object[DOCUMENTS.length][];
+
+		/**
+		 * Copies the documents.
+		 */
+		private FakeJdbcTemplate() {
+			for(int i = 0; i < DOCUMENTS.length; i++) {
+				documents[i] = DOCUMENTS[i].clone();
+			}
+		}
+
+		/**
+		 * Shares or stops sharing a document.
+		 */
+		private void setShared(final String documentId, final boolean shared) {
+			find(documents, 1, documentId)[2] = shared;
+		}
+
+		/**
+		 * Marks every change as settled.
+		 */
+		private void settle() {
+			for(Object[] change : changes) {
+				change[4] = true;
+			}
+		}
+
+		/**
+		 * Returns the number of queries that have read the index's rows,
+		 * which is every query but those for the latest change.
+		 */
+		private int getNumQueries() {
+			int result = 0;
+			for(Recorded query : getQueries()) {
+				if(! query.getSql().startsWith("SELECT COALESCE(MAX(id), 0)")) {
+					result++;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the number of times that a document has been read to
+		 * refresh it.
+		 */
+		private int getNumRefreshes(final String documentId) {
+			int result = 0;
+			for(Recorded query : getQueries()) {
+				if(
+					query.getSql().endsWith("AND d.uuid = ?") &&
+					documentId.equals(query.getParameters().get(0))) {
+
+					result++;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the ID of the latest change or 0 if there are none.
+		 */
+		private long getLatestChange() {
+			long result = 0;
+			for(Object[] change : changes) {
+				result = Math.max(result, (Long) change[0]);
+			}
+			return result;
+		}
+
+		/**
+		 * Records a change or deletes the old changes, of which there are
+		 * none.
+		 */
+		@Override
+		protected int apply(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(sql.startsWith("INSERT INTO visibility_index_change")) {
+				changes.add(
+					new Object[] {
+						getLatestChange() + 1,
+						parameters.get(0),
+						parameters.get(1),
+						parameters.get(2),
+						false });
+				return 1;
+			}
+			else if(sql.startsWith("DELETE FROM visibility_index_change")) {
+				return 0;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Answers one of the index's queries.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(sql.startsWith("SELECT COALESCE(MAX(id), 0)")) {
+				return new Table().add(getLatestChange());
+			}
+			return new Table().addAll(getRows(sql, parameters.toArray()));
+		}
+
+		/**
+		 * Returns the rows of one of the index's queries.
+		 */
+		private List<Object[]> getRows(
+				final String sql,
+				final Object[] args) {
+
+			if(sql.contains("FROM visibility_index_change")) {
+				List<Object[]> result = new ArrayList<Object[]>();
+				for(Object[] change : changes) {
+					if((Long) change[0] > ((Number) args[0]).longValue()) {
+						result.add(change);
+					}
+				}
+				Collections.sort(
+					result,
+					new Comparator<Object[]>() {
+						/**
+						 * Orders the changes by their IDs.
+						 */
+						@Override
+						public int compare(
+								final Object[] first,
+								final Object[] second) {
+
+							return
+								((Long) first[0]).compareTo((Long) second[0]);
+						}
+					});
+				return result;
+			}
+			else if(sql.endsWith("AND d.uuid = ?")) {
+				return filtered(documents, 1, args[0]);
+			}
+			else if(sql.endsWith("AND dur.document_id = ?")) {
+				return filtered(USER_DOCUMENTS, 1, args[0]);
+			}
+			else if(
+				sql.contains("FROM document_campaign_role dcr,") &&
+				sql.endsWith("AND dcr.document_id = ?")) {
+
+				return filtered(CAMPAIGN_DOCUMENTS, 1, args[0]);
+			}
+			else if(
+				sql.contains("FROM document_class_role dcr,") &&
+				sql.endsWith("AND dcr.document_id = ?")) {
+
+				return filtered(CLASS_DOCUMENTS, 1, args[0]);
+			}
+			else if(sql.startsWith("SELECT id, username, admin FROM user")) {
+				if(sql.contains("WHERE username IN")) {
+					List<Object[]> result = new LinkedList<Object[]>();
+					for(Object[] user : USERS) {
+						if(Arrays.asList(args).contains(user[1])) {
+							result.add(user);
+						}
+					}
+					return result;
+				}
+				return unfiltered(sql, USERS);
+			}
+			else if(sql.startsWith("SELECT id, urn FROM campaign")) {
+				return unfiltered(sql, CAMPAIGNS);
+			}
+			else if(sql.startsWith("SELECT id, urn FROM class")) {
+				return unfiltered(sql, CLASSES);
+			}
+			else if(sql.contains("FROM document d,")) {
+				return unfiltered(sql, documents);
+			}
+			else if(sql.contains("FROM user_role_campaign urc,")) {
+				return unfiltered(sql, CAMPAIGN_USERS);
+			}
+			else if(sql.contains("FROM user_class uc,")) {
+				return unfiltered(sql, CLASS_USERS);
+			}
+			else if(sql.contains("FROM document_user_role dur,")) {
+				return unfiltered(sql, USER_DOCUMENTS);
+			}
+			else if(sql.contains("FROM document_campaign_role dcr,")) {
+				return unfiltered(sql, CAMPAIGN_DOCUMENTS);
+			}
+			else if(sql.contains("FROM document_class_role dcr,")) {
+				return unfiltered(sql, CLASS_DOCUMENTS);
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Returns the rows whose column has a value.
+		 */
+		private static List<Object[]> filtered(
+				final Object[][] rows,
+				final int column,
+				final Object value) {
+
+			List<Object[]> result = new ArrayList<Object[]>();
+			for(Object[] row : rows) {
+				if(row[column].equals(value)) {
+					result.add(row);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns all of a table's rows, which is only correct for the
+		 * queries that read the whole table.
+		 */
+		private static List<Object[]> unfiltered(
+				final String sql,
+				final Object[][] rows) {
+
+			if(sql.contains("?") || sql.contains(" IN ")) {
+				throw new UnsupportedOperationException(sql);
+			}
+			return Arrays.asList(rows);
+		}
+	}
+}
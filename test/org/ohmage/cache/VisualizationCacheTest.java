@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.exception.ServiceException;
+
+/**
+ * Tests the visualization cache's keys, its storage and eviction, and the
+ * coalescing of concurrent renders of the same image.
+ *
+ * @author John Jenkins
+ */
+public class VisualizationCacheTest extends TestCase {
+	/**
+	 * The visualization server URL to use in the keys.
+	 */
+	private static final String URL = "http://localhost/R/viz/survey_plot";
+
+	/**
+	 * The campaign to use in the keys.
+	 */
+	private static final String CAMPAIGN_ID = "urn:campaign:a";
+
+	/**
+	 * The number of threads that request the same image at once.
+	 */
+	private static final int CONCURRENT_REQUESTS = 8;
+
+	/**
+	 * A renderer that counts how often it is called and returns a fixed
+	 * image.
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Renderer implements Callable<byte[]> {
+		/**
+		 * The number of times the image was rendered.
+		 */
+		private final AtomicInteger calls = new AtomicInteger(0);
+
+		/**
+		 * The image to return.
+		 */
+		private final byte[] image;
+
+		/**
+		 * Creates a renderer.
+		 *
+		 * @param image The image to return.
+		 */
+		public Renderer(final byte[] image) {
+			this.image = image;
+		}
+
+		/**
+		 * Counts the call and returns the image.
+		 */
+		@Override
+		public byte[] call() throws Exception {
+			calls.incrementAndGet();
+			return image;
+		}
+	}
+
+	/**
+	 * The directory for the cache's images.
+	 */
+	private File directory;
+
+	/**
+	 * Creates an empty directory for the cache's images.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		directory =
+			Files.createTempDirectory("visualization-cache").toFile();
+	}
+
+	/**
+	 * Removes the cache's directory and its images.
+	 */
+	@Override
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Tests that the key doesn't depend on the order of the parameters but
+	 * does depend on the versions of the data and of the user's access.
+	 */
+	@Test
+	public void testKey() {
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		parameters.put("prompt_id", "mood");
+		parameters.put("start_date", "2012-01-01");
+
+		Map<String, String> reversed =
+			new TreeMap<String, String>(Collections.reverseOrder());
+		reversed.putAll(parameters);
+
+		String key = buildKey(parameters, "1:2:3", "false:1:1:2:null");
+
+		Assert.assertEquals(
+			key,
+			buildKey(reversed, "1:2:3", "false:1:1:2:null"));
+		Assert.assertFalse(
+			key.equals(buildKey(parameters, "2:5:4", "false:1:1:2:null")));
+		Assert.assertFalse(
+			key.equals(buildKey(parameters, "1:2:3", "false:1:1:2,3:null")));
+		Assert.assertFalse(
+			key.equals(buildKey(parameters, "1:2:3", "false:2:1:2:null")));
+	}
+
+	/**
+	 * Tests that a cached image is not rendered again, including by a new
+	 * cache over the same directory.
+	 *
+	 * @throws ServiceException The renderer failed.
+	 */
+	@Test
+	public void testCaching() throws ServiceException {
+		VisualizationCache cache = new VisualizationCache(directory, 1024);
+		Renderer renderer = new Renderer(new byte[] { 1, 2, 3 });
+		String key = buildKey("1:2:3");
+
+		Assert.assertArrayEquals(renderer.image, cache.get(key, renderer));
+		Assert.assertArrayEquals(renderer.image, cache.get(key, renderer));
+		Assert.assertEquals(1, renderer.calls.get());
+
+		VisualizationCache restarted =
+			new VisualizationCache(directory, 1024);
+		Assert.assertArrayEquals(
+			renderer.image,
+			restarted.get(key, renderer));
+		Assert.assertEquals(1, renderer.calls.get());
+
+		Renderer changed = new Renderer(new byte[] { 4, 5, 6 });
+		Assert.assertArrayEquals(
+			changed.image,
+			restarted.get(buildKey("2:5:4"), changed));
+		Assert.assertEquals(1, changed.calls.get());
+	}
+
+	/**
+	 * Tests that the least recently used images are evicted once the cache
+	 * is full and that images larger than the cache are never stored.
+	 *
+	 * @throws ServiceException The renderer failed.
+	 */
+	@Test
+	public void testEviction() throws ServiceException {
+		VisualizationCache cache = new VisualizationCache(directory, 10);
+		Renderer first = new Renderer(new byte[4]);
+		Renderer second = new Renderer(new byte[4]);
+		Renderer third = new Renderer(new byte[4]);
+
+		cache.get(buildKey("1"), first);
+		cache.get(buildKey("2"), second);
+
+		// Use the first image so that the second one is the oldest.
+		cache.get(buildKey("1"), first);
+		cache.get(buildKey("3"), third);
+
+		cache.get(buildKey("1"), first);
+		cache.get(buildKey("3"), third);
+		Assert.assertEquals(1, first.calls.get());
+		Assert.assertEquals(1, third.calls.get());
+
+		cache.get(buildKey("2"), second);
+		Assert.assertEquals(2, second.calls.get());
+
+		Renderer large = new Renderer(new byte[11]);
+		cache.get(buildKey("4"), large);
+		cache.get(buildKey("4"), large);
+		Assert.assertEquals(2, large.calls.get());
+	}
+
+	/**
+	 * Tests that a failed render is reported to the requester and isn't
+	 * cached.
+	 */
+	@Test
+	public void testFailure() {
+		VisualizationCache cache = new VisualizationCache(directory, 1024);
+		final AtomicInteger calls = new AtomicInteger(0);
+		Callable<byte[]> renderer =
+			new Callable<byte[]>() {
+				/**
+				 * Fails.
+				 */
+				@Override
+				public byte[] call() throws ServiceException {
+					calls.incrementAndGet();
+					throw new ServiceException("The server is down.");
+				}
+			};
+
+		for(int i = 0; i < 2; i++) {
+			try {
+				cache.get(buildKey("1"), renderer);
+				Assert.fail("The failure was not reported.");
+			}
+			catch(ServiceException e) {
+				Assert.assertEquals("The server is down.", e.getMessage());
+			}
+		}
+		Assert.assertEquals(2, calls.get());
+	}
+
+	/**
+	 * Tests that concurrent requests for the same image render it once and
+	 * all receive the result.
+	 *
+	 * @throws Exception The render failed or the test was interrupted.
+	 */
+	@Test
+	public void testCoalescing() throws Exception {
+		final VisualizationCache cache = new VisualizationCache(null, 1024);
+		final String key = buildKey("1:2:3");
+		final byte[] image = new byte[] { 1, 2, 3 };
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		final Callable<byte[]> renderer =
+			new Callable<byte[]>() {
+				/**
+				 * Waits to be released and then returns the image.
+				 */
+				@Override
+				public byte[] call() throws InterruptedException {
+					calls.incrementAndGet();
+					started.countDown();
+					release.await();
+					return image;
+				}
+			};
+
+		final List<byte[]> results =
+			Collections.synchronizedList(new ArrayList<byte[]>());
+		List<Thread> threads = new ArrayList<Thread>(CONCURRENT_REQUESTS);
+		for(int i = 0; i < CONCURRENT_REQUESTS; i++) {
+			threads.add(
+				new Thread() {
+					/**
+					 * Requests the image.
+					 */
+					@Override
+					public void run() {
+						try {
+							results.add(cache.get(key, renderer));
+						}
+						catch(ServiceException e) {
+							// The result is missing, which fails the test.
+						}
+					}
+				});
+		}
+
+		// Start one request and wait for it to begin rendering before the
+		// others are made.
+		threads.get(0).start();
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		for(Thread thread : threads.subList(1, threads.size())) {
+			thread.start();
+		}
+
+		// Wait for the others to be waiting on the render.
+		long deadline = System.currentTimeMillis() + 10000;
+		for(Thread thread : threads) {
+			while(thread.getState() != Thread.State.WAITING) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		}
+
+		release.countDown();
+		for(Thread thread : threads) {
+			thread.join(10000);
+		}
+
+		Assert.assertEquals(1, calls.get());
+		Assert.assertEquals(CONCURRENT_REQUESTS, results.size());
+		for(byte[] result : results) {
+			Assert.assertArrayEquals(image, result);
+		}
+
+		// Nothing is stored without a directory, so the next request is
+		// rendered again.
+		cache.get(key, renderer);
+		Assert.assertEquals(2, calls.get());
+	}
+
+	/**
+	 * Builds a key with fixed parameters and access.
+	 *
+	 * @param dataVersion The version of the data.
+	 *
+	 * @return The key.
+	 */
+	private static String buildKey(final String dataVersion) {
+		return
+			buildKey(
+				Collections.<String, String>emptyMap(),
+				dataVersion,
+				"false:1:1:2:null");
+	}
+
+	/**
+	 * Builds a key for a fixed user, campaign, and size.
+	 *
+	 * @param parameters The request-specific parameters.
+	 *
+	 * @param dataVersion The version of the data.
+	 *
+	 * @param accessVersion The version of the user's access.
+	 *
+	 * @return The key.
+	 */
+	private static String buildKey(
+			final Map<String, String> parameters,
+			final String dataVersion,
+			final String accessVersion) {
+
+		return
+			VisualizationCache.buildKey(
+				URL,
+				"alice",
+				CAMPAIGN_ID,
+				640,
+				480,
+				parameters,
+				dataVersion,
+				accessVersion);
+	}
+}
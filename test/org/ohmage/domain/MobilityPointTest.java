@@ -0,0 +1,449 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.Location.LocationColumnKey;
+import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.MobilityColumnKey;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.domain.MobilityPoint.PrivacyState;
+import org.ohmage.domain.MobilityPoint.SensorData;
+import org.ohmage.domain.MobilityPoint.SubType;
+import org.ohmage.exception.DomainException;
+
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests that uploaded Mobility points are decoded the same way whichever
+ * keys and field order they use, and that a decoded point written back out
+ * decodes to the same point.
+ *
+ * @author John Jenkins
+ */
+public class MobilityPointTest extends TestCase {
+	/**
+	 * The factory for the parsers that the points are decoded from.
+	 */
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/**
+	 * Compares the points' JSON.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * The location's coordinates, which are blurred when they are written
+	 * out.
+	 */
+	private static final LocationColumnKey[] COORDINATES = {
+		LocationColumnKey.LATITUDE,
+		LocationColumnKey.LONGITUDE
+	};
+
+	/**
+	 * The ID of the points.
+	 */
+	private static final String ID = "0cbb9ba5-3ae6-4dd1-9b5b-2e6f8e9fc0a1";
+
+	/**
+	 * The time of the points.
+	 */
+	private static final long TIME = 1350000000000L;
+
+	/**
+	 * Tests that a sensor data point with the long keys, whose classifier
+	 * data comes before the fields that its decoding depends on, is decoded
+	 * and survives being written back out with either set of keys.
+	 */
+	@Test
+	public void testLongKeys() throws Exception {
+		String json =
+			"{" +
+				"\"classifier_data\":{" +
+					"\"fft\":[1.5,2.5,3.5]," +
+					"\"variance\":0.25," +
+					"\"average\":9.75," +
+					"\"mode\":\"walk\"" +
+				"}," +
+				"\"id\":\"" + ID + "\"," +
+				"\"time\":" + TIME + "," +
+				"\"timezone\":\"America/Los_Angeles\"," +
+				"\"location_status\":\"valid\"," +
+				"\"location\":{" +
+					"\"latitude\":34.07," +
+					"\"longitude\":-118.44," +
+					"\"accuracy\":12.5," +
+					"\"provider\":\"gps\"," +
+					"\"time\":" + TIME + "," +
+					"\"timezone\":\"America/Los_Angeles\"" +
+				"}," +
+				"\"subtype\":\"sensor_data\"," +
+				"\"sensor_data\":{" +
+					"\"mode\":\"walk\"," +
+					"\"speed\":1.25," +
+					"\"accel_data\":[" +
+						"{\"x\":0.1,\"y\":0.2,\"z\":9.8}," +
+						"{\"x\":0.3,\"y\":0.4,\"z\":9.7}" +
+					"]," +
+					"\"wifi_data\":{" +
+						"\"time\":" + TIME + "," +
+						"\"timezone\":\"America/Los_Angeles\"," +
+						"\"scan\":[" +
+							"{\"ssid\":\"home\",\"strength\":-40}," +
+							"{\"ssid\":\"office\",\"strength\":-75}" +
+						"]" +
+					"}" +
+				"}" +
+			"}";
+
+		MobilityPoint point = decode(json);
+		Assert.assertEquals(UUID.fromString(ID), point.getId());
+		Assert.assertEquals(TIME, point.getTime());
+		Assert.assertEquals(
+			"America/Los_Angeles",
+			point.getTimezone().getID());
+		Assert.assertEquals(LocationStatus.VALID, point.getLocationStatus());
+		Assert.assertEquals(34.07, point.getLocation().getLatitude(), 0);
+		Assert.assertEquals(SubType.SENSOR_DATA, point.getSubType());
+		Assert.assertEquals(Mode.WALK, point.getMode());
+
+		SensorData sensorData = point.getSensorData();
+		Assert.assertEquals(1.25, sensorData.getSpeed(), 0);
+		Assert.assertArrayEquals(
+			new double[] { 0.1, 0.3 },
+			sensorData.getAccelX(),
+			0);
+		Assert.assertArrayEquals(
+			new double[] { 9.8, 9.7 },
+			sensorData.getAccelZ(),
+			0);
+
+		WifiScan scan = point.getWifiScan();
+		Assert.assertEquals(TIME, scan.getTime().longValue());
+		Assert.assertEquals(2, scan.getAccessPoints().size());
+
+		Assert.assertArrayEquals(
+			new double[] { 1.5, 2.5, 3.5 },
+			point.getClassifierData().getFft(),
+			0);
+		Assert.assertEquals(
+			9.75,
+			point.getClassifierData().getAverage(),
+			0);
+
+		assertRoundTrip(point);
+	}
+
+	/**
+	 * Tests that a point with the abbreviated keys is decoded to the same
+	 * point as one with the long keys.
+	 */
+	@Test
+	public void testShortKeys() throws Exception {
+		String json =
+			"{" +
+				"\"id\":\"" + ID + "\"," +
+				"\"t\":" + TIME + "," +
+				"\"tz\":\"America/Los_Angeles\"," +
+				"\"ls\":\"unavailable\"," +
+				"\"st\":\"sensor_data\"," +
+				"\"data\":{" +
+					"\"m\":\"still\"," +
+					"\"sp\":0," +
+					"\"ad\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8}]," +
+					"\"wd\":{" +
+						"\"t\":" + TIME + "," +
+						"\"tz\":\"America/Los_Angeles\"," +
+						"\"sc\":[{\"ss\":\"home\",\"st\":-40}]" +
+					"}" +
+				"}," +
+				"\"cd\":{\"fft\":[1.5],\"v\":0.5,\"a\":9.5,\"m\":\"still\"}" +
+			"}";
+
+		MobilityPoint point = decode(json);
+		Assert.assertEquals(TIME, point.getTime());
+		Assert.assertNull(point.getLocation());
+		Assert.assertEquals(Mode.STILL, point.getMode());
+		Assert.assertEquals(0, point.getSensorData().getSpeed(), 0);
+		Assert.assertEquals(
+			"home",
+			point.getWifiScan().getAccessPoints().get(0).getSsid());
+		Assert.assertEquals(0.5, point.getClassifierData().getVariance(), 0);
+
+		assertRoundTrip(point);
+
+		// The same point with the long keys.
+		MobilityPoint longPoint =
+			decode(
+				point.toJson(false, MobilityColumnKey.ALL_COLUMNS).toString());
+		Assert.assertEquals(
+			MAPPER.readTree(
+				point.toJson(true, MobilityColumnKey.ALL_COLUMNS).toString()),
+			MAPPER.readTree(
+				longPoint.toJson(
+					true,
+					MobilityColumnKey.ALL_COLUMNS).toString()));
+	}
+
+	/**
+	 * Tests that a mode-only point is decoded with either set of keys.
+	 */
+	@Test
+	public void testModeOnly() throws Exception {
+		MobilityPoint point =
+			decode(
+				"{" +
+					"\"id\":\"" + ID + "\"," +
+					"\"t\":" + TIME + "," +
+					"\"tz\":\"UTC\"," +
+					"\"ls\":\"unavailable\"," +
+					"\"st\":\"mode_only\"," +
+					"\"m\":\"drive\"" +
+				"}");
+		Assert.assertEquals(SubType.MODE_ONLY, point.getSubType());
+		Assert.assertEquals(Mode.DRIVE, point.getMode());
+		Assert.assertNull(point.getSensorData());
+
+		assertRoundTrip(point);
+	}
+
+	/**
+	 * Tests that an 'ERROR' point may be missing its speed, its WiFi data,
+	 * and parts of its accelerometer data, and that it survives being
+	 * written back out, while any other mode with the same data is invalid.
+	 */
+	@Test
+	public void testErrorPoint() throws Exception {
+		String sensorData =
+			"\"ad\":[{\"x\":0.1,\"z\":9.8},{\"x\":0.3,\"y\":0.4,\"z\":9.7}]";
+
+		MobilityPoint point =
+			decode(sensorDataPoint("\"m\":\"error\"," + sensorData));
+		Assert.assertEquals(Mode.ERROR, point.getMode());
+		Assert.assertNull(point.getSensorData().getSpeed());
+		Assert.assertNull(point.getSensorData().getWifiData());
+		Assert.assertTrue(
+			Double.isNaN(point.getSensorData().getAccelY()[0]));
+		Assert.assertEquals(0.4, point.getSensorData().getAccelY()[1], 0);
+
+		assertRoundTrip(point);
+
+		assertInvalid(
+			sensorDataPoint("\"m\":\"walk\"," + sensorData),
+			"accelerometer");
+		assertInvalid(
+			sensorDataPoint(
+				"\"m\":\"walk\",\"ad\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8}]," +
+				"\"wd\":{}"),
+			"speed");
+	}
+
+	/**
+	 * Tests that empty WiFi data is where nothing was heard and is kept as
+	 * no WiFi data, that missing WiFi data is only allowed for an 'ERROR'
+	 * point, and that WiFi data that isn't an object is treated as missing.
+	 */
+	@Test
+	public void testWifiData() throws Exception {
+		String sensorData =
+			"\"m\":\"walk\"," +
+			"\"sp\":1," +
+			"\"ad\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8}]";
+
+		MobilityPoint empty =
+			decode(sensorDataPoint(sensorData + ",\"wd\":{}"));
+		Assert.assertNull(empty.getSensorData().getWifiData());
+		assertRoundTrip(empty);
+
+		assertInvalid(sensorDataPoint(sensorData), "wifi_data");
+		assertInvalid(
+			sensorDataPoint(sensorData + ",\"wd\":[]"),
+			"wifi_data");
+
+		MobilityPoint error =
+			decode(
+				sensorDataPoint(
+					"\"m\":\"error\",\"sp\":1," +
+					"\"ad\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8}]"));
+		Assert.assertNull(error.getSensorData().getWifiData());
+		assertRoundTrip(error);
+	}
+
+	/**
+	 * Tests that the required fields of the point itself are checked.
+	 */
+	@Test
+	public void testInvalidPoints() throws Exception {
+		assertInvalid(
+			"{\"t\":" + TIME + ",\"tz\":\"UTC\",\"ls\":\"unavailable\"," +
+				"\"st\":\"mode_only\",\"m\":\"drive\"}",
+			"ID");
+		assertInvalid(
+			"{\"id\":\"" + ID + "\",\"t\":" + TIME + ",\"tz\":\"UTC\"," +
+				"\"ls\":\"valid\",\"st\":\"mode_only\",\"m\":\"drive\"}",
+			"location");
+		assertInvalid(
+			"{\"id\":\"" + ID + "\",\"t\":" + TIME + ",\"tz\":\"UTC\"," +
+				"\"ls\":\"unavailable\",\"st\":\"sensor_data\"}",
+			"data");
+	}
+
+	/**
+	 * Tests that the JSONObject constructor decodes a point the same way as
+	 * the parser.
+	 */
+	@Test
+	public void testJsonObject() throws Exception {
+		String json =
+			sensorDataPoint(
+				"\"m\":\"run\",\"sp\":3.5," +
+				"\"ad\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8}]," +
+				"\"wd\":{\"t\":" + TIME + ",\"tz\":\"UTC\"," +
+					"\"sc\":[{\"ss\":\"cafe\",\"st\":-60}]}");
+
+		MobilityPoint fromObject =
+			new MobilityPoint(new JSONObject(json), PrivacyState.PRIVATE);
+		Assert.assertEquals(
+			MAPPER.readTree(
+				decode(json).toJson(
+					false,
+					MobilityColumnKey.ALL_COLUMNS).toString()),
+			MAPPER.readTree(
+				fromObject.toJson(
+					false,
+					MobilityColumnKey.ALL_COLUMNS).toString()));
+	}
+
+	/**
+	 * Builds a sensor data point without a location.
+	 *
+	 * @param sensorData The fields of the sensor data.
+	 *
+	 * @return The point's JSON.
+	 */
+	private static String sensorDataPoint(final String sensorData) {
+		return
+			"{" +
+				"\"id\":\"" + ID + "\"," +
+				"\"t\":" + TIME + "," +
+				"\"tz\":\"UTC\"," +
+				"\"ls\":\"unavailable\"," +
+				"\"st\":\"sensor_data\"," +
+				"\"data\":{" + sensorData + "}" +
+			"}";
+	}
+
+	/**
+	 * Decodes a point from its JSON with a parser.
+	 *
+	 * @param json The point's JSON.
+	 *
+	 * @return The point.
+	 */
+	private static MobilityPoint decode(
+			final String json)
+			throws IOException, DomainException {
+
+		JsonParser parser = JSON_FACTORY.createJsonParser(json);
+		try {
+			parser.nextToken();
+			return new MobilityPoint(parser, PrivacyState.PRIVATE);
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Asserts that a point is invalid.
+	 *
+	 * @param json The point's JSON.
+	 *
+	 * @param key A key that the error's message must mention.
+	 */
+	private static void assertInvalid(
+			final String json,
+			final String key)
+			throws IOException {
+
+		try {
+			decode(json);
+			Assert.fail("The point was decoded: " + json);
+		}
+		catch(DomainException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(key));
+		}
+	}
+
+	/**
+	 * Asserts that a point written out with either set of keys decodes to
+	 * a point that is written out the same way. The location's coordinates
+	 * are blurred each time they are written out, so they are only 
+	 * compared to within the blur.
+	 *
+	 * @param point The point.
+	 */
+	private static void assertRoundTrip(
+			final MobilityPoint point)
+			throws IOException, JSONException, DomainException {
+
+		for(boolean abbreviated : new boolean[] { false, true }) {
+			String json =
+				point.toJson(
+					abbreviated,
+					MobilityColumnKey.ALL_COLUMNS).toString();
+			String roundTrip =
+				decode(json).toJson(
+					abbreviated,
+					MobilityColumnKey.ALL_COLUMNS).toString();
+
+			ObjectNode expected = (ObjectNode) MAPPER.readTree(json);
+			ObjectNode actual = (ObjectNode) MAPPER.readTree(roundTrip);
+
+			String locationKey =
+				MobilityColumnKey.LOCATION.toString(abbreviated);
+			if(expected.has(locationKey)) {
+				ObjectNode expectedLocation =
+					(ObjectNode) expected.get(locationKey);
+				ObjectNode actualLocation =
+					(ObjectNode) actual.get(locationKey);
+
+				for(LocationColumnKey coordinate : COORDINATES) {
+					String key = coordinate.toString(abbreviated);
+					Assert.assertEquals(
+						expectedLocation.remove(key).getDoubleValue(),
+						actualLocation.remove(key).getDoubleValue(),
+						0.02);
+				}
+			}
+
+			Assert.assertEquals(expected, actual);
+		}
+	}
+}
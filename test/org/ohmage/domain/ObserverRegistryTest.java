@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.Observer.Stream;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests that the registry's lookups order, filter, and page the observers
+ * and their streams the same way the observer queries do.
+ *
+ * @author John Jenkins
+ */
+public class ObserverRegistryTest extends TestCase {
+	/**
+	 * The streams of the observers. The first is shared by both versions of
+	 * the first observer.
+	 */
+	private Stream a1;
+	private Stream b1;
+	private Stream b2;
+	private Stream other;
+
+	/**
+	 * The registry of two versions of one observer and one version of
+	 * another, given out of order.
+	 */
+	private ObserverRegistry registry;
+
+	/**
+	 * Creates the registry.
+	 */
+	@Override
+	protected void setUp() throws DomainException {
+		a1 = createStream("a", 1);
+		b1 = createStream("b", 1);
+		b2 = createStream("b", 2);
+		other = createStream("a", 1);
+
+		registry =
+			new ObserverRegistry(
+				Arrays.asList(
+					createObserver("org.ohmage.z", 1, other),
+					createObserver("org.ohmage.y", 1, a1, b1),
+					createObserver("org.ohmage.y", 2, a1, b2)));
+	}
+
+	/**
+	 * Tests that the observers are ordered by ID and then from the newest
+	 * version to the oldest, and that they are filtered and paged.
+	 */
+	@Test
+	public void testGetObservers() {
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.y:2", "org.ohmage.y:1", "org.ohmage.z:1"),
+			getVersions(registry.getObservers(null, null, 0, Long.MAX_VALUE)));
+
+		// The first observer of an ID is its latest version.
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.y:2"),
+			getVersions(registry.getObservers("org.ohmage.y", null, 0, 1)));
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.y:1", "org.ohmage.z:1"),
+			getVersions(registry.getObservers(null, 1L, 0, Long.MAX_VALUE)));
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.y:1"),
+			getVersions(registry.getObservers(null, null, 1, 1)));
+		Assert.assertTrue(
+			registry.getObservers("org.ohmage.x", null, 0, 10).isEmpty());
+	}
+
+	/**
+	 * Tests that a stream shared by several versions of an observer is only
+	 * listed once, that the streams are limited to a version of their
+	 * observer, and that they are paged.
+	 */
+	@Test
+	public void testGetStreams() {
+		Map<String, Collection<Stream>> streams =
+			registry.getStreams(null, null, null, null, 0, Long.MAX_VALUE);
+		Assert.assertEquals(2, streams.size());
+		assertStreams(
+			streams.get("org.ohmage.y"),
+			a1, b1, b2);
+		assertStreams(streams.get("org.ohmage.z"), other);
+
+		assertStreams(
+			registry
+				.getStreams("org.ohmage.y", 2L, null, null, 0, Long.MAX_VALUE)
+				.get("org.ohmage.y"),
+			a1, b2);
+		assertStreams(
+			registry
+				.getStreams(null, null, "b", null, 0, Long.MAX_VALUE)
+				.get("org.ohmage.y"),
+			b1, b2);
+		assertStreams(
+			registry
+				.getStreams(null, null, "a", 1L, 1, 1)
+				.get("org.ohmage.z"),
+			other);
+	}
+
+	/**
+	 * Tests that a stream is looked up by its observer, ID, and version.
+	 */
+	@Test
+	public void testGetStream() {
+		Assert.assertSame(a1, registry.getStream("org.ohmage.y", "a", 1));
+		Assert.assertSame(b2, registry.getStream("org.ohmage.y", "b", 2));
+		Assert.assertSame(other, registry.getStream("org.ohmage.z", "a", 1));
+		Assert.assertNull(registry.getStream("org.ohmage.y", "a", 2));
+		Assert.assertNull(registry.getStream("org.ohmage.y", "c", 1));
+		Assert.assertNull(registry.getStream("org.ohmage.x", "a", 1));
+	}
+
+	/**
+	 * Asserts that the streams are exactly the expected ones, in order.
+	 */
+	private static void assertStreams(
+			final Collection<Stream> actual,
+			final Stream... expected) {
+
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.length, actual.size());
+		int i = 0;
+		for(Stream stream : actual) {
+			Assert.assertSame(expected[i++], stream);
+		}
+	}
+
+	/**
+	 * Creates an observer.
+	 */
+	private static Observer createObserver(
+			final String id,
+			final long version,
+			final Stream... streams)
+			throws DomainException {
+
+		return
+			new Observer.Builder()
+				.setId(id)
+				.setVersion(version)
+				.setName("Observer")
+				.setDescription("An observer.")
+				.setVersionString(Long.toString(version))
+				.addStreams(Arrays.asList(streams))
+				.build();
+	}
+
+	/**
+	 * Creates a stream without validating its schema.
+	 */
+	private static Stream createStream(
+			final String id,
+			final long version)
+			throws DomainException {
+
+		return
+			new Stream(
+				id,
+				version,
+				"Stream",
+				"A stream.",
+				null,
+				null,
+				null,
+				"{\"type\":\"object\",\"fields\":[]}",
+				false);
+	}
+
+	/**
+	 * Returns the IDs and versions of observers.
+	 */
+	private static List<String> getVersions(final List<Observer> observers) {
+		List<String> result = new ArrayList<String>();
+		for(Observer observer : observers) {
+			result.add(observer.getId() + ":" + observer.getVersion());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.jee.servlet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the token buckets, the Retry-After values, and the bound on the
+ * uploads that wait for one in flight to finish.
+ *
+ * @author John Jenkins
+ */
+public class AdmissionControllerTest extends TestCase {
+	/**
+	 * Tests that a user's bucket allows a burst, rejects the next upload
+	 * until a token has been added, and is refilled at its rate.
+	 */
+	@Test
+	public void testUserBucketRefill() throws InterruptedException {
+		AdmissionController controller =
+			new AdmissionController(10, 3, 0, 0, 0, 0, 0);
+
+		for(int i = 0; i < 3; i++) {
+			Assert.assertEquals(
+				AdmissionController.ADMITTED,
+				admitAndRelease(controller, "user", null));
+		}
+		Assert.assertEquals(1, admitAndRelease(controller, "user", null));
+
+		// Other users have their own buckets.
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "other", null));
+
+		// Ten tokens are added per second, so one is back after a tenth of a
+		// second, but no more than the burst are ever added.
+		Thread.sleep(150);
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "user", null));
+
+		Thread.sleep(1000);
+		for(int i = 0; i < 3; i++) {
+			Assert.assertEquals(
+				AdmissionController.ADMITTED,
+				admitAndRelease(controller, "user", null));
+		}
+		Assert.assertEquals(1, admitAndRelease(controller, "user", null));
+	}
+
+	/**
+	 * Tests that an upload without an authenticated user skips the user
+	 * buckets and is only limited by its client's bucket.
+	 */
+	@Test
+	public void testNoRequester() {
+		AdmissionController controller =
+			new AdmissionController(1, 1, 100, 5, 0, 0, 0);
+
+		for(int i = 0; i < 5; i++) {
+			Assert.assertEquals(
+				AdmissionController.ADMITTED,
+				admitAndRelease(controller, null, "phone"));
+		}
+		Assert.assertEquals(1, admitAndRelease(controller, null, "phone"));
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, null, null));
+	}
+
+	/**
+	 * Tests that the Retry-After value is the number of seconds until the
+	 * bucket will have a token, rounded up, and that an upload rejected by
+	 * its client's bucket doesn't use a token from its user's bucket.
+	 */
+	@Test
+	public void testRetryAfter() {
+		AdmissionController controller =
+			new AdmissionController(0.1, 1, 0.25, 2, 0, 0, 0);
+
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "user", "phone"));
+		Assert.assertEquals(10, admitAndRelease(controller, "user", "phone"));
+
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "other", "phone"));
+		Assert.assertEquals(4, admitAndRelease(controller, "third", "phone"));
+
+		// The token taken from the third user's bucket was given back.
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "third", null));
+	}
+
+	/**
+	 * Tests that an upload waits for one in flight to finish, that no more
+	 * than the limit of uploads wait, and that an upload that couldn't wait
+	 * doesn't use a token.
+	 */
+	@Test
+	public void testWaitingBound() throws InterruptedException {
+		final AdmissionController controller =
+			new AdmissionController(0.001, 2, 0, 0, 1, 1, 5000);
+
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			controller.admit("first", null));
+
+		final AtomicInteger waited = new AtomicInteger(-1);
+		Thread waiter =
+			new Thread() {
+				/**
+				 * Waits for the first upload to finish.
+				 */
+				@Override
+				public void run() {
+					waited.set(controller.admit("second", null));
+				}
+			};
+		waiter.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(
+			(controller.getWaiting() == 0) &&
+			(System.currentTimeMillis() < deadline)) {
+
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, controller.getWaiting());
+
+		// The queue is full, so the next upload is rejected right away with
+		// the longest it would have waited.
+		long started = System.currentTimeMillis();
+		Assert.assertEquals(5, controller.admit("third", null));
+		Assert.assertTrue(System.currentTimeMillis() - started < 1000);
+
+		controller.release();
+		waiter.join(5000);
+		Assert.assertEquals(AdmissionController.ADMITTED, waited.get());
+		Assert.assertEquals(0, controller.getWaiting());
+		controller.release();
+
+		// The third user's token was given back, so it still has both.
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "third", null));
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, "third", null));
+	}
+
+	/**
+	 * Tests that an upload that waits too long is rejected.
+	 */
+	@Test
+	public void testWaitTimeout() {
+		AdmissionController controller =
+			new AdmissionController(0, 0, 0, 0, 1, 1, 100);
+
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			controller.admit(null, null));
+
+		long started = System.currentTimeMillis();
+		Assert.assertEquals(1, controller.admit(null, null));
+		Assert.assertTrue(System.currentTimeMillis() - started >= 90);
+		Assert.assertEquals(0, controller.getWaiting());
+
+		controller.release();
+		Assert.assertEquals(
+			AdmissionController.ADMITTED,
+			admitAndRelease(controller, null, null));
+	}
+
+	/**
+	 * Asks to admit an upload and, if it is admitted, finishes it.
+	 *
+	 * @param controller The admission controller.
+	 *
+	 * @param requester The user or null.
+	 *
+	 * @param client The client or null.
+	 *
+	 * @return The result of the admission.
+	 */
+	private static int admitAndRelease(
+			final AdmissionController controller,
+			final String requester,
+			final String client) {
+
+		int result = controller.admit(requester, client);
+		if(result == AdmissionController.ADMITTED) {
+			controller.release();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.jee.servlet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.request.RequestBuilder;
+import org.ohmage.request.RequestBuilder.RouteClass;
+
+/**
+ * Tests that each route class's pool only accepts as many requests as it
+ * has threads and queue for, that a saturated pool doesn't affect another
+ * one, and that the requests are classified into the pools.
+ *
+ * @author John Jenkins
+ */
+public class RouteExecutorTest extends TestCase {
+	/**
+	 * How long to wait for the pools before failing.
+	 */
+	private static final long TIMEOUT_SECONDS = 10;
+
+	/**
+	 * Tests that a pool runs as many requests as it has threads, queues as
+	 * many as its queue holds, rejects the rest, and then runs the queued
+	 * ones.
+	 */
+	@Test
+	public void testBounded() throws Exception {
+		RouteExecutor executor = new RouteExecutor(RouteClass.UPLOAD, 2, 3);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			CountDownLatch started = new CountDownLatch(2);
+			CountDownLatch finished = new CountDownLatch(5);
+
+			for(int i = 0; i < 5; i++) {
+				Assert.assertTrue(
+					executor.submit(block(started, release, finished)));
+			}
+			Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			Assert.assertEquals(2, executor.getActiveCount());
+			Assert.assertEquals(3, executor.getQueueLength());
+
+			Assert.assertFalse(
+				executor.submit(block(started, release, finished)));
+			Assert.assertEquals(1, executor.getRejectedCount());
+
+			release.countDown();
+			Assert.assertTrue(
+				finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			awaitCompleted(executor, 5);
+
+			Assert.assertEquals(0, executor.getQueueLength());
+			Assert.assertEquals(1, executor.getRejectedCount());
+			Assert.assertTrue(executor.getMaxLatencyMillis() > 0);
+			Assert.assertTrue(
+				executor.getAverageLatencyMillis() >=
+					executor.getAverageQueueMillis());
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// Nothing is accepted once the pool has shut down.
+		Assert.assertFalse(executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				fail("A request ran after the pool shut down.");
+			}
+		}));
+	}
+
+	/**
+	 * Tests that requests in one class are still processed while another
+	 * class's pool is saturated.
+	 */
+	@Test
+	public void testIsolation() throws Exception {
+		RouteExecutor export = new RouteExecutor(RouteClass.EXPORT, 1, 1);
+		RouteExecutor read = new RouteExecutor(RouteClass.READ, 1, 1);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch finished = new CountDownLatch(2);
+
+			Assert.assertTrue(export.submit(block(started, release, finished)));
+			Assert.assertTrue(export.submit(block(started, release, finished)));
+			Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			Assert.assertFalse(export.submit(block(started, release, finished)));
+
+			final CountDownLatch readDone = new CountDownLatch(1);
+			Assert.assertTrue(read.submit(new Runnable() {
+				@Override
+				public void run() {
+					readDone.countDown();
+				}
+			}));
+			Assert.assertTrue(
+				readDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			Assert.assertEquals(0, read.getRejectedCount());
+
+			release.countDown();
+			Assert.assertTrue(
+				finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		}
+		finally {
+			export.shutdown();
+			read.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that the requests are put into the expected classes and that
+	 * unknown requests are administrative.
+	 */
+	@Test
+	public void testRouteClasses() {
+		RequestBuilder builder = new RequestBuilder();
+		builder.setServletContext(
+			(ServletContext) Proxy.newProxyInstance(
+				ServletContext.class.getClassLoader(),
+				new Class<?>[] { ServletContext.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						if("getContextPath".equals(method.getName())) {
+							return "/app";
+						}
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				}));
+
+		Assert.assertEquals(
+			RouteClass.UPLOAD,
+			builder.getRouteClass("/app/survey/upload"));
+		Assert.assertEquals(
+			RouteClass.EXPORT,
+			builder.getRouteClass("/app/survey_response/read"));
+		Assert.assertEquals(
+			RouteClass.AUTH,
+			builder.getRouteClass("/app/user/auth_token"));
+		Assert.assertEquals(
+			RouteClass.READ,
+			builder.getRouteClass("/app/campaign/read"));
+		Assert.assertEquals(
+			RouteClass.ADMIN,
+			builder.getRouteClass("/app/campaign/create"));
+		Assert.assertEquals(
+			RouteClass.ADMIN,
+			builder.getRouteClass("/app/unknown"));
+
+		// The paths are only matched under the context path.
+		Assert.assertEquals(
+			RouteClass.ADMIN,
+			builder.getRouteClass("/survey/upload"));
+	}
+
+	/**
+	 * Creates work that blocks until it is released.
+	 *
+	 * @param started Counted down when the work starts.
+	 *
+	 * @param release Awaited by the work.
+	 *
+	 * @param finished Counted down when the work finishes.
+	 *
+	 * @return The work.
+	 */
+	private static Runnable block(
+			final CountDownLatch started,
+			final CountDownLatch release,
+			final CountDownLatch finished) {
+
+		return new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					finished.countDown();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Waits for a pool to have completed a number of requests, which it
+	 * records after the work itself has finished.
+	 *
+	 * @param executor The pool.
+	 *
+	 * @param count The number of requests.
+	 */
+	private static void awaitCompleted(
+			final RouteExecutor executor,
+			final long count)
+			throws InterruptedException {
+
+		long end =
+			System.currentTimeMillis() +
+				TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		while(executor.getCompletedCount() < count) {
+			Assert.assertTrue(System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.lib.exception.ApiException;
+import org.ohmage.lib.exception.RequestErrorException;
+
+/**
+ * Tests the streaming parser for the server's responses and the iterators
+ * that page through them.
+ *
+ * @author John Jenkins
+ */
+public class OhmageApiTest extends TestCase {
+	/**
+	 * Tests that only the requested value is returned, wherever it is in the
+	 * response, and that everything else is skipped.
+	 */
+	@Test
+	public void testSuccessfulResponse() throws Exception {
+		List<JSONObject> data =
+			OhmageApi.processJsonResponse(
+				stream(
+					"{\"metadata\":{\"number_of_surveys\":2,\"items\":[1,[2]]}," +
+					"\"data\":[{\"id\":1,\"values\":{\"a\":[1,2]}},{\"id\":2}]," +
+					"\"result\":\"success\"}"),
+				"data",
+				OhmageApi.JSON_OBJECT_READER);
+
+		Assert.assertEquals(2, data.size());
+		Assert.assertEquals(1, data.get(0).getInt("id"));
+		Assert.assertEquals(
+			2,
+			data.get(0).getJSONObject("values").getJSONArray("a").getInt(1));
+		Assert.assertEquals(2, data.get(1).getInt("id"));
+
+		// Without a key, only success is checked.
+		Assert.assertNull(
+			OhmageApi.processJsonResponse(
+				stream("{\"result\":\"success\",\"data\":[{}]}"),
+				null,
+				OhmageApi.JSON_OBJECT_READER));
+	}
+
+	/**
+	 * Tests that a failed response becomes the first error's exception, even
+	 * if the errors come before the result.
+	 */
+	@Test
+	public void testFailedResponse() throws Exception {
+		try {
+			OhmageApi.processJsonResponse(
+				stream(
+					"{\"errors\":[{\"code\":\"0200\",\"text\":\"Nope.\"}," +
+					"{\"code\":\"0201\",\"text\":\"Ignored.\"}]," +
+					"\"result\":\"failure\"}"),
+				"data",
+				OhmageApi.JSON_OBJECT_READER);
+			fail("A failed response was accepted.");
+		}
+		catch(RequestErrorException e) {
+			Assert.assertEquals(
+				ErrorCode.AUTHENTICATION_FAILED,
+				e.getErrorCode());
+			Assert.assertEquals("Nope.", e.getErrorText());
+		}
+
+		try {
+			OhmageApi.processJsonResponse(
+				stream("{\"result\":\"failure\"}"),
+				"data",
+				OhmageApi.JSON_OBJECT_READER);
+			fail("A failed response without errors was accepted.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Tests that malformed responses are rejected.
+	 */
+	@Test
+	public void testInvalidResponses() throws Exception {
+		for(String response : Arrays.asList(
+				"[]",
+				"{\"data\":[]}",
+				"{\"result\":\"success\"}",
+				"{\"result\":\"success\",\"data\":[",
+				"not json")) {
+
+			try {
+				OhmageApi.processJsonResponse(
+					stream(response),
+					"data",
+					OhmageApi.JSON_OBJECT_READER);
+				fail("An invalid response was accepted: " + response);
+			}
+			catch(IllegalArgumentException e) {
+				// Passed.
+			}
+			catch(IOException e) {
+				// Passed; the content ended early.
+			}
+		}
+
+		try {
+			OhmageApi.processJsonResponse(
+				stream("{\"result\":\"success\",\"data\":[1]}"),
+				"data",
+				OhmageApi.JSON_OBJECT_READER);
+			fail("An array of non-objects was accepted.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		catch(IOException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Tests that the paging iterator reads pages only as they are needed and
+	 * stops after the last page without reading another.
+	 */
+	@Test
+	public void testPagingIterator() throws ApiException {
+		final List<Integer> pagesRead = new ArrayList<Integer>();
+		ApiIterator<Integer> iterator =
+			new OhmageApi.PagingIterator<Integer>() {
+				/**
+				 * Returns two full pages, an empty one, and a short one.
+				 */
+				@Override
+				protected List<Integer> readPage(final int pageNumber) {
+					pagesRead.add(pageNumber);
+					switch(pageNumber) {
+					case 0:
+						return Arrays.asList(1, 2);
+					case 1:
+						return Arrays.asList(3, 4);
+					case 2:
+						return Collections.emptyList();
+					case 3:
+						return Arrays.asList(5);
+					default:
+						throw new IllegalStateException(
+							"A page after the last one was read.");
+					}
+				}
+
+				/**
+				 * A page with fewer than two elements is the last one.
+				 */
+				@Override
+				protected boolean isLastPage(final List<Integer> page) {
+					return page.size() < 2;
+				}
+			};
+
+		Assert.assertTrue(iterator.hasNext());
+		Assert.assertEquals(Arrays.asList(0), pagesRead);
+
+		List<Integer> elements = new ArrayList<Integer>();
+		while(iterator.hasNext()) {
+			elements.add(iterator.next());
+		}
+
+		// The empty page is the last one.
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4), elements);
+		Assert.assertEquals(Arrays.asList(0, 1, 2), pagesRead);
+		Assert.assertFalse(iterator.hasNext());
+
+		try {
+			iterator.next();
+			fail("An element was returned after the last one.");
+		}
+		catch(NoSuchElementException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Tests that a null page ends the iteration.
+	 */
+	@Test
+	public void testPagingIteratorNullPage() throws ApiException {
+		ApiIterator<Integer> iterator =
+			new OhmageApi.PagingIterator<Integer>() {
+				/**
+				 * There are no pages.
+				 */
+				@Override
+				protected List<Integer> readPage(final int pageNumber) {
+					Assert.assertEquals(0, pageNumber);
+					return null;
+				}
+
+				/**
+				 * Never called.
+				 */
+				@Override
+				protected boolean isLastPage(final List<Integer> page) {
+					throw new IllegalStateException();
+				}
+			};
+
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	/**
+	 * Returns a stream of a string's bytes.
+	 *
+	 * @param content The string.
+	 *
+	 * @return The stream.
+	 */
+	private static InputStream stream(final String content) {
+		return new ByteArrayInputStream(content.getBytes());
+	}
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the latency histograms' percentiles are within their stated
+ * error and that the requests' phases, the caches, and the gauges are
+ * reported.
+ *
+ * @author John Jenkins
+ */
+public class MetricsTest extends TestCase {
+	/**
+	 * The largest relative error of a percentile: each power of two is split
+	 * into 16 buckets.
+	 */
+	private static final double MAX_ERROR = 1.0 / 16;
+
+	/**
+	 * The allowed difference between two latencies in seconds, which are
+	 * recorded to the microsecond.
+	 */
+	private static final double DELTA = 0.0000001;
+
+	/**
+	 * Tests that an empty histogram reports zero and that the values below
+	 * 16 microseconds are recorded exactly.
+	 */
+	@Test
+	public void testSmallValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentileSeconds(0.5), 0);
+
+		histogram.record(5000);
+		histogram.record(5999);
+		histogram.record(15000);
+		histogram.record(-1);
+
+		Assert.assertEquals(4, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentileSeconds(0), DELTA);
+		Assert.assertEquals(0.000005, histogram.getPercentileSeconds(0.5), DELTA);
+		Assert.assertEquals(0.000015, histogram.getPercentileSeconds(1), DELTA);
+		Assert.assertEquals(0.000015, histogram.getMaxSeconds(), DELTA);
+		Assert.assertEquals(0.000025, histogram.getTotalSeconds(), DELTA);
+	}
+
+	/**
+	 * Tests that each percentile is never less than the true latency and is
+	 * within the histogram's error of it.
+	 */
+	@Test
+	public void testPercentileError() {
+		int count = 100000;
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 1; i <= count; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		double[] percentiles = { 0.01, 0.1, 0.5, 0.9, 0.99, 0.999, 1 };
+		for(double percentile : percentiles) {
+			double expected = Math.ceil(percentile * count) / 1000000.0;
+			double actual = histogram.getPercentileSeconds(percentile);
+
+			Assert.assertTrue(
+				percentile + ": " + actual,
+				actual >= expected - DELTA);
+			Assert.assertTrue(
+				percentile + ": " + actual,
+				actual <= (expected * (1 + MAX_ERROR)) + DELTA);
+		}
+
+		Assert.assertEquals(0.1, histogram.getMaxSeconds(), DELTA);
+		Assert.assertEquals(
+			(count * (count + 1L) / 2) / 1000000.0,
+			histogram.getTotalSeconds(),
+			DELTA);
+	}
+
+	/**
+	 * Tests that a latency that is too long for the buckets is still the
+	 * maximum and that no percentile is reported as longer than it.
+	 */
+	@Test
+	public void testLongValues() {
+		long nanos = Long.MAX_VALUE / 2;
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000);
+		histogram.record(nanos);
+
+		double max = (nanos / 1000) / 1000000.0;
+		Assert.assertEquals(max, histogram.getMaxSeconds(), 1);
+		Assert.assertEquals(0.000001, histogram.getPercentileSeconds(0.5), DELTA);
+		Assert.assertEquals(
+			histogram.getMaxSeconds(),
+			histogram.getPercentileSeconds(1),
+			0);
+	}
+
+	/**
+	 * Tests that no latencies are lost when they are recorded concurrently.
+	 */
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final int perThread = 10000;
+
+		Thread[] threads = new Thread[4];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for(int j = 1; j <= perThread; j++) {
+						histogram.record(j * 1000L);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(threads.length * perThread, histogram.getCount());
+		Assert.assertEquals(
+			threads.length * (perThread * (perThread + 1L) / 2) / 1000000.0,
+			histogram.getTotalSeconds(),
+			DELTA);
+		Assert.assertEquals(0.01, histogram.getMaxSeconds(), DELTA);
+	}
+
+	/**
+	 * Tests that a request's authentication is taken out of its service time,
+	 * that its total is the sum of its phases, and that its failures are
+	 * counted.
+	 */
+	@Test
+	public void testRequestPhases() throws JSONException {
+		String route = "/app/metrics_test/phases";
+
+		Metrics.startRequest();
+		Metrics.recordAuthentication(2000000);
+		Metrics.recordAuthentication(1000000);
+		Metrics.endRequest(route, 1000000, 10000000, 4000000, false);
+
+		Metrics.startRequest();
+		Metrics.endRequest(route, 1000000, 10000000, 4000000, true);
+
+		JSONObject routeJson =
+			Metrics.toJson().getJSONObject("routes").getJSONObject(route);
+		Assert.assertEquals(2, routeJson.getLong("count"));
+		Assert.assertEquals(1, routeJson.getLong("failures"));
+
+		JSONObject phases = routeJson.getJSONObject("phases");
+		Assert.assertEquals(
+			0.003,
+			phases.getJSONObject("authentication").getDouble("max"),
+			DELTA);
+		Assert.assertEquals(
+			(0.007 + 0.010) / 2,
+			phases.getJSONObject("service").getDouble("mean"),
+			DELTA);
+		Assert.assertEquals(
+			0.015,
+			phases.getJSONObject("total").getDouble("max"),
+			DELTA);
+
+		String prometheus = Metrics.toPrometheus();
+		Assert.assertTrue(
+			prometheus,
+			prometheus.contains(
+				"ohmage_request_duration_seconds_count{" +
+					"route=\"" + route + "\",phase=\"total\"} 2\n"));
+		Assert.assertTrue(
+			prometheus,
+			prometheus.contains(
+				"ohmage_request_failures_total{" +
+					"route=\"" + route + "\"} 1\n"));
+	}
+
+	/**
+	 * Tests that the cache lookups and the registered gauges are reported,
+	 * and that a gauge registered again replaces the first one.
+	 */
+	@Test
+	public void testCachesAndGauges() throws JSONException {
+		String cache = "metrics_test_cache";
+		Metrics.recordCacheLookup(cache, true);
+		Metrics.recordCacheLookup(cache, true);
+		Metrics.recordCacheLookup(cache, true);
+		Metrics.recordCacheLookup(cache, false);
+
+		Metrics.registerGauge(
+			"metrics_test_gauge",
+			"A test gauge.",
+			"pool",
+			"a",
+			constant(1));
+		Metrics.registerGauge(
+			"metrics_test_gauge",
+			"A test gauge.",
+			"pool",
+			"a",
+			constant(2));
+		Metrics.registerCounter(
+			"metrics_test_total",
+			"A test counter.",
+			null,
+			null,
+			constant(3));
+
+		JSONObject json = Metrics.toJson();
+		JSONObject cacheJson = json.getJSONObject("caches").getJSONObject(cache);
+		Assert.assertEquals(3, cacheJson.getLong("hits"));
+		Assert.assertEquals(1, cacheJson.getLong("misses"));
+		Assert.assertEquals(0.75, cacheJson.getDouble("hit_ratio"), 0);
+
+		JSONObject gauges = json.getJSONObject("gauges");
+		Assert.assertEquals(
+			2,
+			gauges.getJSONObject("metrics_test_gauge").getDouble("a"),
+			0);
+		Assert.assertEquals(3, gauges.getDouble("metrics_test_total"), 0);
+
+		String prometheus = Metrics.toPrometheus();
+		Assert.assertTrue(
+			prometheus,
+			prometheus.contains(
+				"ohmage_cache_hit_ratio{cache=\"" + cache + "\"} 0.75\n"));
+		Assert.assertTrue(
+			prometheus,
+			prometheus.contains(
+				"# TYPE ohmage_metrics_test_gauge gauge\n" +
+				"ohmage_metrics_test_gauge{pool=\"a\"} 2\n"));
+		Assert.assertTrue(
+			prometheus,
+			prometheus.contains(
+				"# TYPE ohmage_metrics_test_total counter\n" +
+				"ohmage_metrics_test_total 3\n"));
+
+		try {
+			Metrics.registerGauge(
+				"metrics_test_gauge",
+				"A test gauge.",
+				"pool",
+				null,
+				constant(0));
+			fail("A gauge was registered with only a label's name.");
+		}
+		catch(IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Creates a gauge with a constant value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return The gauge.
+	 */
+	private static Gauge constant(final double value) {
+		return new Gauge() {
+			@Override
+			public double getValue() {
+				return value;
+			}
+		};
+	}
+}
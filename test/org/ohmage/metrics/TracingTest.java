@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.metrics;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the requests are sampled at the configured rate, that the spans
+ * of a traced request are nested as they were opened, and that only the
+ * slowest traces of each route are kept.
+ *
+ * @author John Jenkins
+ */
+public class TracingTest extends TestCase {
+	/**
+	 * The allowed difference between two times in seconds, which are
+	 * recorded to the nanosecond and may be rounded when they are added.
+	 */
+	private static final double DELTA = 0.000000001;
+
+	/**
+	 * Restores the default configuration.
+	 */
+	@Override
+	protected void tearDown() {
+		Tracing.configure(
+			Tracing.DEFAULT_SAMPLE_RATE,
+			Tracing.DEFAULT_TRACES_PER_ROUTE);
+	}
+
+	/**
+	 * Tests that no requests are traced with a rate of zero, that all are
+	 * with a rate of one, and that about half are with a rate of one half.
+	 */
+	@Test
+	public void testSampling() throws JSONException {
+		String route = "/app/tracing_test/sampling";
+
+		Tracing.configure(0, 10);
+		Tracing.startTrace("untraced");
+		Assert.assertEquals(Tracing.NO_SPAN, Tracing.openSpan("span"));
+		Tracing.closeSpan(Tracing.NO_SPAN);
+		Tracing.endTrace(route, false);
+		Assert.assertFalse(
+			Tracing.toJson().getJSONObject("routes").has(route));
+
+		Tracing.configure(1, 10);
+		long sampled = Tracing.toJson().getLong("sampled");
+		Tracing.startTrace("traced");
+		Assert.assertEquals(0, Tracing.openSpan("span"));
+		Tracing.endTrace(route, false);
+		Assert.assertEquals(sampled + 1, Tracing.toJson().getLong("sampled"));
+		Assert.assertEquals(1, traces(route).length());
+
+		Tracing.configure(0.5, 10);
+		sampled = Tracing.toJson().getLong("sampled");
+		int requests = 2000;
+		for(int i = 0; i < requests; i++) {
+			Tracing.startTrace(null);
+			Tracing.endTrace(route, false);
+		}
+		long traced = Tracing.toJson().getLong("sampled") - sampled;
+		Assert.assertTrue(
+			Long.toString(traced),
+			(traced > requests * 0.4) && (traced < requests * 0.6));
+	}
+
+	/**
+	 * Tests that each span's parent is the innermost span that was open
+	 * when it was opened, that the spans are timed within their parents, and
+	 * that a span that isn't closed lasts until the end of the request.
+	 */
+	@Test
+	public void testNesting() throws Exception {
+		String route = "/app/tracing_test/nesting";
+		Tracing.configure(1, 10);
+
+		Tracing.startTrace("request");
+		int request = Tracing.openSpan("request");
+		int first = Tracing.openSpan("first");
+		Tracing.closeSpan(first);
+		int second = Tracing.openSpan("second");
+		int grandchild = Tracing.openSpan("grandchild");
+		Thread.sleep(5);
+		Tracing.closeSpan(grandchild);
+		Tracing.closeSpan(second);
+		Tracing.closeSpan(request);
+		int after = Tracing.openSpan("after");
+		Tracing.closeSpan(after);
+		Tracing.openSpan("unclosed");
+		Thread.sleep(5);
+		Tracing.endTrace(route, true);
+
+		// The request is over, so nothing else is recorded.
+		Assert.assertEquals(Tracing.NO_SPAN, Tracing.openSpan("late"));
+
+		JSONObject trace = traces(route).getJSONObject(0);
+		Assert.assertEquals("request", trace.getString("request_id"));
+		Assert.assertTrue(trace.getBoolean("failed"));
+		Assert.assertEquals(0, trace.getInt("dropped_spans"));
+
+		JSONArray spans = trace.getJSONArray("spans");
+		String[] names =
+			{ "request", "first", "second", "grandchild", "after", "unclosed" };
+		int[] parents = { -1, 0, 0, 2, -1, -1 };
+		Assert.assertEquals(names.length, spans.length());
+		for(int i = 0; i < names.length; i++) {
+			JSONObject span = spans.getJSONObject(i);
+			Assert.assertEquals(i, span.getInt("id"));
+			Assert.assertEquals(names[i], span.getString("name"));
+			Assert.assertEquals(parents[i], span.getInt("parent"));
+
+			// Each span is within its parent.
+			if(parents[i] != -1) {
+				JSONObject parent = spans.getJSONObject(parents[i]);
+				Assert.assertTrue(
+					span.getDouble("offset") >= parent.getDouble("offset"));
+				Assert.assertTrue(end(span) <= end(parent) + DELTA);
+			}
+		}
+
+		Assert.assertTrue(
+			spans.getJSONObject(3).getDouble("duration") >= 0.005);
+		Assert.assertTrue(
+			spans.getJSONObject(4).getDouble("offset") >=
+				end(spans.getJSONObject(0)) - DELTA);
+
+		JSONObject unclosed = spans.getJSONObject(5);
+		Assert.assertTrue(unclosed.getDouble("duration") >= 0.005);
+		Assert.assertTrue(
+			end(unclosed) <= trace.getDouble("duration") + DELTA);
+	}
+
+	/**
+	 * Tests that the spans beyond the limit are counted but not recorded.
+	 */
+	@Test
+	public void testDroppedSpans() throws JSONException {
+		String route = "/app/tracing_test/dropped";
+		Tracing.configure(1, 10);
+
+		Tracing.startTrace(null);
+		for(int i = 0; i < 600; i++) {
+			Tracing.closeSpan(Tracing.openSpan("span"));
+		}
+		Tracing.endTrace(route, false);
+
+		JSONObject trace = traces(route).getJSONObject(0);
+		Assert.assertEquals(512, trace.getJSONArray("spans").length());
+		Assert.assertEquals(88, trace.getInt("dropped_spans"));
+	}
+
+	/**
+	 * Tests that only the slowest traces of a route are kept, slowest first.
+	 */
+	@Test
+	public void testSlowestKept() throws Exception {
+		String route = "/app/tracing_test/slowest";
+		Tracing.configure(1, 2);
+
+		trace(route, "fast", 1);
+		trace(route, "slowest", 40);
+		trace(route, "slow", 20);
+		trace(route, "faster", 0);
+
+		JSONArray traces = traces(route);
+		Assert.assertEquals(2, traces.length());
+		Assert.assertEquals(
+			"slowest",
+			traces.getJSONObject(0).getString("request_id"));
+		Assert.assertEquals(
+			"slow",
+			traces.getJSONObject(1).getString("request_id"));
+	}
+
+	/**
+	 * Tests that the configuration is validated.
+	 */
+	@Test
+	public void testConfigure() {
+		double[] sampleRates = { -0.1, 1.1 };
+		for(double sampleRate : sampleRates) {
+			try {
+				Tracing.configure(sampleRate, 10);
+				fail("An invalid sample rate was accepted: " + sampleRate);
+			}
+			catch(IllegalArgumentException e) {
+				// Passed.
+			}
+		}
+
+		try {
+			Tracing.configure(0.5, 0);
+			fail("An invalid number of traces per route was accepted.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Traces a request that takes some time.
+	 *
+	 * @param route The request's route.
+	 *
+	 * @param requestId The request's identifier.
+	 *
+	 * @param millis How long the request takes.
+	 */
+	private static void trace(
+			final String route,
+			final String requestId,
+			final long millis)
+			throws InterruptedException {
+
+		Tracing.startTrace(requestId);
+		Thread.sleep(millis);
+		Tracing.endTrace(route, false);
+	}
+
+	/**
+	 * Returns a route's kept traces.
+	 *
+	 * @param route The route.
+	 *
+	 * @return The traces, slowest first.
+	 */
+	private static JSONArray traces(final String route) throws JSONException {
+		return Tracing.toJson().getJSONObject("routes").getJSONArray(route);
+	}
+
+	/**
+	 * Returns when a span ended.
+	 *
+	 * @param span The span.
+	 *
+	 * @return The span's end as an offset from the start of the request.
+	 */
+	private static double end(final JSONObject span) throws JSONException {
+		return span.getDouble("offset") + span.getDouble("duration");
+	}
+}
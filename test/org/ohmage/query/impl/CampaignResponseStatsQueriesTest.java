@@ -0,0 +1,530 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.campaign.SurveyResponse;
+
+/**
+ * Tests applying the changes from uploads, privacy state changes, and
+ * deletions to the survey response counters and reconciling the counters
+ * with the survey responses.
+ *
+ * @author John Jenkins
+ */
+public class CampaignResponseStatsQueriesTest extends TestCase {
+	private static final String USERNAME = "user.a";
+	private static final String CAMPAIGN_ID = "urn:campaign:a";
+	private static final long UPLOAD_MILLIS = 1000000L;
+
+	/**
+	 * The database IDs of the campaigns and the users.
+	 */
+	private static final long CAMPAIGN_DB_ID = 1;
+	private static final long OTHER_CAMPAIGN_DB_ID = 2;
+	private static final long USER_DB_ID = 10;
+	private static final long OTHER_USER_DB_ID = 11;
+
+	/**
+	 * A database with the campaign_response_stats counters and the survey
+	 * responses they count.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class StatsDatabase extends RecordingJdbcTemplate {
+		private final Map<String, Long> campaignDbIds =
+			new HashMap<String, Long>();
+		private final Map<String, Long> userDbIds = new HashMap<String, Long>();
+
+		// The counters: campaign, user, and privacy state to the count and
+		// the latest upload.
+		private final Map<List<Long>, Object[]> stats =
+			new HashMap<List<Long>, Object[]>();
+
+		// The survey responses: campaign, user, privacy state, and upload.
+		private final List<Object[]> responses = new ArrayList<Object[]>();
+
+		/**
+		 * Creates the campaigns and the users.
+		 */
+		private StatsDatabase() {
+			campaignDbIds.put(CAMPAIGN_ID, CAMPAIGN_DB_ID);
+			campaignDbIds.put("urn:campaign:b", OTHER_CAMPAIGN_DB_ID);
+			userDbIds.put(USERNAME, USER_DB_ID);
+			userDbIds.put("user.b", OTHER_USER_DB_ID);
+		}
+
+		/**
+		 * Sets a counter.
+		 *
+		 * @return This database.
+		 */
+		private StatsDatabase setStats(
+				final long campaignDbId,
+				final long userDbId,
+				final SurveyResponse.PrivacyState privacyState,
+				final long count,
+				final Long lastUploadMillis) {
+
+			stats.put(
+				key(campaignDbId, userDbId, privacyState),
+				new Object[] {
+					count,
+					(lastUploadMillis == null) ?
+						null :
+						new Timestamp(lastUploadMillis) });
+			return this;
+		}
+
+		/**
+		 * Adds a survey response.
+		 *
+		 * @return This database.
+		 */
+		private StatsDatabase addResponse(
+				final long campaignDbId,
+				final long userDbId,
+				final SurveyResponse.PrivacyState privacyState,
+				final long uploadMillis) {
+
+			responses.add(
+				new Object[] {
+					campaignDbId,
+					userDbId,
+					getPrivacyStateDbId(privacyState),
+					new Timestamp(uploadMillis) });
+			return this;
+		}
+
+		/**
+		 * Lists the campaigns and counts a campaign's survey responses.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(CampaignResponseStatsQueries.SQL_GET_CAMPAIGN_DB_IDS.equals(sql)) {
+				Table result = new Table("id");
+				for(Long campaignDbId : campaignDbIds.values()) {
+					result.add(campaignDbId);
+				}
+				return result;
+			}
+			else if(
+				CampaignResponseStatsQueries.SQL_COUNT_CAMPAIGN_RESPONSES
+					.equals(sql)) {
+
+				Map<List<Long>, Object[]> counts =
+					new HashMap<List<Long>, Object[]>();
+				for(Object[] response : responses) {
+					if(! response[0].equals(parameters.get(0))) {
+						continue;
+					}
+
+					List<Long> group =
+						Arrays.asList((Long) response[1], (Long) response[2]);
+					Object[] count = counts.get(group);
+					if(count == null) {
+						count = new Object[] { 0L, response[3] };
+						counts.put(group, count);
+					}
+					count[0] = (Long) count[0] + 1;
+					count[1] =
+						latest((Timestamp) count[1], (Timestamp) response[3]);
+				}
+
+				Table result =
+					new Table(
+						"user_id",
+						"privacy_state_id",
+						"response_count",
+						"last_upload_timestamp");
+				for(List<Long> group : counts.keySet()) {
+					Object[] count = counts.get(group);
+					result.add(group.get(0), group.get(1), count[0], count[1]);
+				}
+				return result;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Changes the counters.
+		 */
+		@Override
+		protected int apply(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(CampaignResponseStatsQueries.SQL_ADD_USER_STATS.equals(sql)) {
+				List<Long> key = key(parameters.subList(2, 5));
+				long change = ((Number) parameters.get(0)).longValue();
+				Timestamp upload = (Timestamp) parameters.get(1);
+
+				Object[] counter = stats.get(key);
+				if(counter == null) {
+					stats.put(key, new Object[] { change, upload });
+				}
+				else {
+					counter[0] = (Long) counter[0] + change;
+					counter[1] = latest((Timestamp) counter[1], upload);
+				}
+				return 1;
+			}
+			else if(
+				CampaignResponseStatsQueries.SQL_SUBTRACT_USER_STATS
+					.equals(sql)) {
+
+				Object[] counter = stats.get(key(parameters.subList(2, 5)));
+				if(counter == null) {
+					return 0;
+				}
+
+				long change = ((Number) parameters.get(0)).longValue();
+				long count = (Long) counter[0];
+				counter[0] = (count > change) ? count - change : 0L;
+				return 1;
+			}
+			else if(
+				CampaignResponseStatsQueries.SQL_CLEAR_CAMPAIGN_STATS
+					.equals(sql)) {
+
+				int result = 0;
+				for(List<Long> key : stats.keySet()) {
+					if(key.get(0).equals(parameters.get(0))) {
+						stats.put(key, new Object[] { 0L, null });
+						result++;
+					}
+				}
+				return result;
+			}
+			else if(CampaignResponseStatsQueries.SQL_SET_STATS.equals(sql)) {
+				stats.put(
+					Arrays.asList(
+						(Long) parameters.get(0),
+						(Long) parameters.get(1),
+						(Long) parameters.get(2)),
+					new Object[] { parameters.get(3), parameters.get(4) });
+				return 1;
+			}
+			else if(
+				CampaignResponseStatsQueries.SQL_DELETE_EMPTY_CAMPAIGN_STATS
+					.equals(sql)) {
+
+				int result = 0;
+				Iterator<Map.Entry<List<Long>, Object[]>> entries =
+					stats.entrySet().iterator();
+				while(entries.hasNext()) {
+					Map.Entry<List<Long>, Object[]> entry = entries.next();
+					if(
+						entry.getKey().get(0).equals(parameters.get(0)) &&
+						((Long) entry.getValue()[0] == 0)) {
+
+						entries.remove();
+						result++;
+					}
+				}
+				return result;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Returns the key of a counter from a statement's campaign ID,
+		 * username, and privacy state.
+		 */
+		private List<Long> key(final List<Object> parameters) {
+			return
+				key(
+					campaignDbIds.get(parameters.get(0)),
+					userDbIds.get(parameters.get(1)),
+					SurveyResponse.PrivacyState.getValue(
+						(String) parameters.get(2)));
+		}
+
+		/**
+		 * Returns the key of a counter.
+		 */
+		private static List<Long> key(
+				final long campaignDbId,
+				final long userDbId,
+				final SurveyResponse.PrivacyState privacyState) {
+
+			return
+				Arrays.asList(
+					campaignDbId,
+					userDbId,
+					getPrivacyStateDbId(privacyState));
+		}
+
+		/**
+		 * Returns the later of two times, either of which may be null.
+		 */
+		private static Timestamp latest(
+				final Timestamp first,
+				final Timestamp second) {
+
+			if(first == null) {
+				return second;
+			}
+			else if((second == null) || first.after(second)) {
+				return first;
+			}
+			return second;
+		}
+	}
+
+	/**
+	 * Tests that an upload adds its responses to each of their privacy
+	 * states and only ever moves the latest upload forward.
+	 */
+	@Test
+	public void testUpload() throws Exception {
+		StatsDatabase database = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				1,
+				UPLOAD_MILLIS + 1);
+
+		Map<SurveyResponse.PrivacyState, Integer> changes =
+			new HashMap<SurveyResponse.PrivacyState, Integer>();
+		changes.put(SurveyResponse.PrivacyState.SHARED, 2);
+		changes.put(SurveyResponse.PrivacyState.PRIVATE, 3);
+		new CampaignResponseStatsQueries(database)
+			.updateCampaignResponseStats(
+				CAMPAIGN_ID,
+				USERNAME,
+				changes,
+				UPLOAD_MILLIS);
+
+		Map<List<Long>, Object[]> expected = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				3,
+				UPLOAD_MILLIS + 1)
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				3,
+				UPLOAD_MILLIS)
+			.stats;
+		assertStats(expected, database.stats);
+	}
+
+	/**
+	 * Tests that an upload that updates existing responses and moves them
+	 * to another privacy state subtracts them from the old one, never going
+	 * below zero, and adds them to the new one, and that the counters are
+	 * changed in the order of the privacy states.
+	 */
+	@Test
+	public void testPrivacyStateChange() throws Exception {
+		StatsDatabase database = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				2,
+				UPLOAD_MILLIS - 1);
+
+		Map<SurveyResponse.PrivacyState, Integer> changes =
+			new HashMap<SurveyResponse.PrivacyState, Integer>();
+		changes.put(SurveyResponse.PrivacyState.INVISIBLE, 1);
+		changes.put(SurveyResponse.PrivacyState.SHARED, -4);
+		changes.put(SurveyResponse.PrivacyState.PRIVATE, 3);
+		new CampaignResponseStatsQueries(database)
+			.updateCampaignResponseStats(
+				CAMPAIGN_ID,
+				USERNAME,
+				changes,
+				UPLOAD_MILLIS);
+
+		Map<List<Long>, Object[]> expected = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				3,
+				UPLOAD_MILLIS)
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				0,
+				UPLOAD_MILLIS - 1)
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.INVISIBLE,
+				1,
+				UPLOAD_MILLIS)
+			.stats;
+		assertStats(expected, database.stats);
+
+		// Concurrent uploads lock the counters in the same order.
+		List<Object> privacyStates = new ArrayList<Object>();
+		for(RecordingJdbcTemplate.Recorded update : database.getUpdates()) {
+			privacyStates.add(update.getParameters().get(4));
+		}
+		Assert.assertEquals(
+			Arrays.<Object>asList("private", "shared", "invisible"),
+			privacyStates);
+	}
+
+	/**
+	 * Tests that deleting responses only subtracts them and leaves the
+	 * latest upload alone.
+	 */
+	@Test
+	public void testDelete() throws Exception {
+		StatsDatabase database = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				5,
+				UPLOAD_MILLIS);
+
+		Map<SurveyResponse.PrivacyState, Integer> changes =
+			new HashMap<SurveyResponse.PrivacyState, Integer>();
+		changes.put(SurveyResponse.PrivacyState.PRIVATE, -1);
+		new CampaignResponseStatsQueries(database)
+			.updateCampaignResponseStats(
+				CAMPAIGN_ID,
+				USERNAME,
+				changes,
+				UPLOAD_MILLIS + 1);
+
+		Map<List<Long>, Object[]> expected = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				4,
+				UPLOAD_MILLIS)
+			.stats;
+		assertStats(expected, database.stats);
+	}
+
+	/**
+	 * Tests that reconciling sets every campaign's counters from its survey
+	 * responses and removes the counters that no longer count anything.
+	 */
+	@Test
+	public void testReconcile() throws Exception {
+		StatsDatabase database = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				5,
+				UPLOAD_MILLIS)
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				3,
+				UPLOAD_MILLIS)
+			.addResponse(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				UPLOAD_MILLIS - 2)
+			.addResponse(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				UPLOAD_MILLIS - 1)
+			.addResponse(
+				CAMPAIGN_DB_ID,
+				OTHER_USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				UPLOAD_MILLIS)
+			.addResponse(
+				OTHER_CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.INVISIBLE,
+				UPLOAD_MILLIS);
+
+		new CampaignResponseStatsQueries(database)
+			.reconcileCampaignResponseStats();
+
+		Map<List<Long>, Object[]> expected = new StatsDatabase()
+			.setStats(
+				CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.PRIVATE,
+				2,
+				UPLOAD_MILLIS - 1)
+			.setStats(
+				CAMPAIGN_DB_ID,
+				OTHER_USER_DB_ID,
+				SurveyResponse.PrivacyState.SHARED,
+				1,
+				UPLOAD_MILLIS)
+			.setStats(
+				OTHER_CAMPAIGN_DB_ID,
+				USER_DB_ID,
+				SurveyResponse.PrivacyState.INVISIBLE,
+				1,
+				UPLOAD_MILLIS)
+			.stats;
+		assertStats(expected, database.stats);
+	}
+
+	/**
+	 * Returns the database ID of a privacy state.
+	 */
+	private static long getPrivacyStateDbId(
+			final SurveyResponse.PrivacyState privacyState) {
+
+		return privacyState.ordinal() + 1;
+	}
+
+	/**
+	 * Asserts that the counters have the expected counts and latest
+	 * uploads.
+	 */
+	private static void assertStats(
+			final Map<List<Long>, Object[]> expected,
+			final Map<List<Long>, Object[]> actual) {
+
+		Assert.assertEquals(expected.keySet(), actual.keySet());
+		for(List<Long> key : expected.keySet()) {
+			Assert.assertEquals(
+				key.toString(),
+				Arrays.asList(expected.get(key)),
+				Arrays.asList(actual.get(key)));
+		}
+	}
+}
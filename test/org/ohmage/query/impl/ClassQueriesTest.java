@@ -0,0 +1,749 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.ClassRosterDiff;
+import org.ohmage.domain.Clazz;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.ICampaignClassQueries;
+import org.ohmage.util.StringUtils;
+
+/**
+ * Tests working out and applying the changes to a class' roster: granting
+ * and revoking the class' default campaign roles, keeping the roles of
+ * users that are associated with a campaign through another class,
+ * splitting the statements' lists of usernames, and working out a roster of
+ * several classes in turn.
+ *
+ * @author John Jenkins
+ */
+public class ClassQueriesTest extends TestCase {
+	private static final String CLASS_ID = "urn:class:a";
+	private static final String CLASS_B = "urn:class:b";
+	private static final String CAMPAIGN_A = "urn:campaign:a";
+	private static final String CAMPAIGN_B = "urn:campaign:b";
+
+	/**
+	 * A JDBC template that answers the roster queries from tables and
+	 * records the updates.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class FakeJdbcTemplate extends RecordingJdbcTemplate {
+		// The class' members: username and class role.
+		private final Table members = new Table("username", "role");
+
+		// The class' campaigns' default roles: campaign ID, class role, and
+		// campaign role.
+		private final Table defaultRoles =
+			new Table("urn", "class_role", "campaign_role");
+
+		// The users that are associated with the class' campaigns through
+		// another class: username and campaign ID.
+		private final Table otherClasses = new Table("username", "urn");
+
+		// The users' roles in the class' campaigns: username, campaign ID,
+		// and campaign role.
+		private final Table campaignRoles =
+			new Table("username", "urn", "role");
+
+		/**
+		 * Answers one of the roster queries.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			Assert.assertEquals(
+				Collections.<Object>singletonList(CLASS_ID),
+				parameters);
+
+			if(sql.startsWith("SELECT u.username, ucr.role")) {
+				return members;
+			}
+			else if(sql.contains("campaign_class_default_role")) {
+				return defaultRoles;
+			}
+			else if(sql.contains("occ.class_id <> c.id")) {
+				return otherClasses;
+			}
+			else if(sql.contains("user_role_campaign urc")) {
+				return campaignRoles;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Returns the usernames of each of the updates that begin with a
+		 * prefix and have the given parameters before their usernames, in
+		 * the order in which they were run.
+		 */
+		private List<List<Object>> getUsernames(
+				final String prefix,
+				final Object... parameters) {
+
+			List<List<Object>> result = new ArrayList<List<Object>>();
+			for(Recorded update : getUpdates()) {
+				String sql = update.getSql();
+				List<Object> args = update.getParameters();
+				if((! sql.startsWith(prefix)) ||
+					(! args.subList(0, parameters.length)
+						.equals(Arrays.asList(parameters)))) {
+
+					continue;
+				}
+
+				// Each username must have its own parameter.
+				List<Object> usernames =
+					args.subList(parameters.length, args.size());
+				Assert.assertTrue(
+					sql.endsWith(
+						StringUtils.generateStatementPList(usernames.size())));
+				result.add(usernames);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A database of several classes that share campaigns, whose roster
+	 * statements change the classes' members and the campaign roles, and
+	 * whose transactions may be rolled back. Every campaign has the same
+	 * default roles as {@link #addDefaultRoles(FakeJdbcTemplate, String)}
+	 * gives.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class RosterDatabase extends RecordingJdbcTemplate {
+		// The campaigns of each class.
+		private final Map<String, List<String>> classCampaigns =
+			new HashMap<String, List<String>>();
+
+		// The members of each class: username to class role.
+		private Map<String, Map<String, String>> classMembers =
+			new TreeMap<String, Map<String, String>>();
+
+		// The campaign roles: username, campaign ID, and campaign role.
+		private Set<List<Object>> campaignRoles = new HashSet<List<Object>>();
+
+		// The members and campaign roles when the transaction began.
+		private Map<String, Map<String, String>> savedMembers;
+		private Set<List<Object>> savedRoles;
+
+		private int commits = 0;
+		private int rollbacks = 0;
+
+		/**
+		 * Creates a class that is associated with campaigns.
+		 *
+		 * @return This database.
+		 */
+		private RosterDatabase addClass(
+				final String classId,
+				final String... campaignIds) {
+
+			classCampaigns.put(classId, Arrays.asList(campaignIds));
+			classMembers.put(classId, new TreeMap<String, String>());
+			return this;
+		}
+
+		/**
+		 * Adds a user to a class.
+		 *
+		 * @return This database.
+		 */
+		private RosterDatabase addMember(
+				final String classId,
+				final String username,
+				final String role) {
+
+			classMembers.get(classId).put(username, role);
+			return this;
+		}
+
+		/**
+		 * Gives a user a role in a campaign.
+		 *
+		 * @return This database.
+		 */
+		private RosterDatabase addCampaignRole(
+				final String username,
+				final String campaignId,
+				final String role) {
+
+			campaignRoles.add(Arrays.<Object>asList(username, campaignId, role));
+			return this;
+		}
+
+		/**
+		 * Answers the roster queries from the classes' current state.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			String classId = (String) parameters.get(0);
+			List<String> campaignIds = classCampaigns.get(classId);
+
+			if(sql.startsWith("SELECT u.username, ucr.role")) {
+				Table result = new Table("username", "role");
+				Map<String, String> members = classMembers.get(classId);
+				for(String username : members.keySet()) {
+					result.add(username, members.get(username));
+				}
+				return result;
+			}
+			else if(sql.contains("campaign_class_default_role")) {
+				Table result =
+					new Table("urn", "class_role", "campaign_role");
+				for(String campaignId : campaignIds) {
+					result
+						.add(campaignId, "restricted", "participant")
+						.add(campaignId, "privileged", "participant")
+						.add(campaignId, "privileged", "supervisor");
+				}
+				return result;
+			}
+			else if(sql.contains("occ.class_id <> c.id")) {
+				Set<List<Object>> rows = new HashSet<List<Object>>();
+				for(String otherClassId : classCampaigns.keySet()) {
+					if(otherClassId.equals(classId)) {
+						continue;
+					}
+					for(String campaignId : classCampaigns.get(otherClassId)) {
+						if(! campaignIds.contains(campaignId)) {
+							continue;
+						}
+						for(String username :
+								classMembers.get(otherClassId).keySet()) {
+
+							rows.add(
+								Arrays.<Object>asList(username, campaignId));
+						}
+					}
+				}
+				return toTable(rows, "username", "urn");
+			}
+			else if(sql.contains("user_role_campaign urc")) {
+				Set<List<Object>> rows = new HashSet<List<Object>>();
+				for(List<Object> role : campaignRoles) {
+					if(campaignIds.contains(role.get(1))) {
+						rows.add(role);
+					}
+				}
+				return toTable(rows, "username", "urn", "role");
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Changes the classes' members and the campaign roles.
+		 */
+		@Override
+		protected int apply(
+				final String sql,
+				final List<Object> parameters) {
+
+			String id = (String) parameters.get(0);
+			if(sql.startsWith("DELETE uc")) {
+				Map<String, String> members = classMembers.get(id);
+				for(Object username : parameters.subList(1, parameters.size())) {
+					members.remove(username);
+				}
+				return parameters.size() - 1;
+			}
+
+			String role = (String) parameters.get(1);
+			List<Object> usernames = parameters.subList(2, parameters.size());
+			if(sql.startsWith("UPDATE user_class")) {
+				Map<String, String> members = classMembers.get(id);
+				for(Object username : usernames) {
+					members.put((String) username, role);
+				}
+			}
+			else if(sql.startsWith("INSERT IGNORE INTO user_class")) {
+				Map<String, String> members = classMembers.get(id);
+				for(Object username : usernames) {
+					if(! members.containsKey(username)) {
+						members.put((String) username, role);
+					}
+				}
+			}
+			else if(sql.startsWith("DELETE urc")) {
+				for(Object username : usernames) {
+					campaignRoles.remove(
+						Arrays.<Object>asList(username, id, role));
+				}
+			}
+			else if(sql.startsWith("INSERT IGNORE INTO user_role_campaign")) {
+				for(Object username : usernames) {
+					campaignRoles.add(
+						Arrays.<Object>asList(username, id, role));
+				}
+			}
+			else {
+				throw new UnsupportedOperationException(sql);
+			}
+			return usernames.size();
+		}
+
+		/**
+		 * Saves the members and campaign roles.
+		 */
+		@Override
+		protected void begin() {
+			savedMembers = copy(classMembers);
+			savedRoles = new HashSet<List<Object>>(campaignRoles);
+		}
+
+		/**
+		 * Keeps the changes.
+		 */
+		@Override
+		protected void commit() {
+			commits++;
+		}
+
+		/**
+		 * Restores the members and campaign roles that were saved.
+		 */
+		@Override
+		protected void rollback() {
+			rollbacks++;
+			classMembers = savedMembers;
+			campaignRoles = savedRoles;
+		}
+
+		/**
+		 * Returns a copy of the classes' members.
+		 */
+		private static Map<String, Map<String, String>> copy(
+				final Map<String, Map<String, String>> members) {
+
+			Map<String, Map<String, String>> result =
+				new TreeMap<String, Map<String, String>>();
+			for(String classId : members.keySet()) {
+				result.put(
+					classId,
+					new TreeMap<String, String>(members.get(classId)));
+			}
+			return result;
+		}
+
+		/**
+		 * Builds a table from rows.
+		 */
+		private static Table toTable(
+				final Collection<List<Object>> rows,
+				final String... columns) {
+
+			Table result = new Table(columns);
+			for(List<Object> row : rows) {
+				result.add(row.toArray());
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Tests that revoking and then granting the same campaign role as a user
+	 * is removed and added back, or has their class role changed, cancels
+	 * out, that roles the users already have aren't granted again, and that
+	 * only the net changes are applied.
+	 */
+	@Test
+	public void testCancellation() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		jdbcTemplate.members
+			.add("alice", "privileged")
+			.add("bob", "restricted")
+			.add("carol", "restricted");
+		addDefaultRoles(jdbcTemplate, CAMPAIGN_A);
+		jdbcTemplate.campaignRoles
+			.add("alice", CAMPAIGN_A, "participant")
+			.add("alice", CAMPAIGN_A, "supervisor")
+			.add("bob", CAMPAIGN_A, "participant")
+			.add("carol", CAMPAIGN_A, "participant")
+			.add("dave", CAMPAIGN_A, "participant");
+
+		Map<String, Clazz.Role> toAdd =
+			new LinkedHashMap<String, Clazz.Role>();
+		toAdd.put("alice", Clazz.Role.PRIVILEGED);
+		toAdd.put("bob", Clazz.Role.PRIVILEGED);
+		toAdd.put("carol", Clazz.Role.PRIVILEGED);
+		toAdd.put("dave", Clazz.Role.RESTRICTED);
+
+		ClassQueries classQueries =
+			createClassQueries(jdbcTemplate, CAMPAIGN_A);
+		ClassRosterDiff diff =
+			classQueries.getClassRosterDiff(
+				CLASS_ID,
+				toAdd,
+				Collections.singletonList("bob"));
+
+		// Bob was removed and added back, so his role changed like Carol's.
+		Assert.assertEquals(
+			Collections.singletonMap("dave", Clazz.Role.RESTRICTED),
+			diff.getUsersAdded());
+		Assert.assertTrue(diff.getUsersRemoved().isEmpty());
+		Map<String, Clazz.Role> changed = new TreeMap<String, Clazz.Role>();
+		changed.put("bob", Clazz.Role.PRIVILEGED);
+		changed.put("carol", Clazz.Role.PRIVILEGED);
+		Assert.assertEquals(changed, diff.getUsersChanged());
+		Assert.assertEquals(1, diff.getWarningMessages().size());
+
+		// Their participant role was revoked and granted again, so only the
+		// supervisor role is new. Dave already had his participant role.
+		Assert.assertEquals(
+			Collections.singletonMap(
+				CAMPAIGN_A,
+				Collections.singletonMap(
+					Campaign.Role.SUPERVISOR,
+					new HashSet<String>(Arrays.asList("bob", "carol")))),
+			diff.getCampaignRolesGranted());
+		Assert.assertTrue(diff.getCampaignRolesRevoked().isEmpty());
+
+		classQueries.applyClassRosterDiff(diff);
+		Assert.assertEquals(
+			Arrays.asList(toSet("bob", "carol")),
+			toSets(
+				jdbcTemplate.getUsernames(
+					"UPDATE user_class", CLASS_ID, "privileged")));
+		Assert.assertEquals(
+			Arrays.asList(toSet("dave")),
+			toSets(
+				jdbcTemplate.getUsernames(
+					"INSERT IGNORE INTO user_class", CLASS_ID, "restricted")));
+		Assert.assertEquals(
+			Arrays.asList(toSet("bob", "carol")),
+			toSets(
+				jdbcTemplate.getUsernames(
+					"INSERT IGNORE INTO user_role_campaign",
+					CAMPAIGN_A,
+					"supervisor")));
+		Assert.assertEquals(3, jdbcTemplate.getUpdates().size());
+	}
+
+	/**
+	 * Tests that a user that is removed or whose role changes keeps their
+	 * roles in the campaigns with which they are also associated through
+	 * another class and loses them in the rest.
+	 */
+	@Test
+	public void testAssociatedThroughOtherClass() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		jdbcTemplate.members
+			.add("erin", "restricted")
+			.add("frank", "privileged");
+		addDefaultRoles(jdbcTemplate, CAMPAIGN_A);
+		addDefaultRoles(jdbcTemplate, CAMPAIGN_B);
+		jdbcTemplate.otherClasses
+			.add("erin", CAMPAIGN_A)
+			.add("frank", CAMPAIGN_B)
+			.add("grace", CAMPAIGN_A);
+		for(String campaignId : new String[] { CAMPAIGN_A, CAMPAIGN_B }) {
+			jdbcTemplate.campaignRoles
+				.add("erin", campaignId, "participant")
+				.add("frank", campaignId, "participant")
+				.add("frank", campaignId, "supervisor");
+		}
+
+		ClassQueries classQueries =
+			createClassQueries(jdbcTemplate, CAMPAIGN_A, CAMPAIGN_B);
+		ClassRosterDiff diff =
+			classQueries.getClassRosterDiff(
+				CLASS_ID,
+				Collections.singletonMap("frank", Clazz.Role.RESTRICTED),
+				Collections.singletonList("erin"));
+
+		Assert.assertEquals(
+			Collections.singletonList("erin"),
+			new ArrayList<String>(diff.getUsersRemoved()));
+		Assert.assertEquals(
+			Collections.singletonMap("frank", Clazz.Role.RESTRICTED),
+			diff.getUsersChanged());
+		Assert.assertTrue(diff.getCampaignRolesGranted().isEmpty());
+
+		// Erin keeps campaign A and Frank keeps campaign B through their
+		// other classes.
+		Map<String, Map<Campaign.Role, Set<String>>> revoked =
+			new HashMap<String, Map<Campaign.Role, Set<String>>>();
+		revoked.put(
+			CAMPAIGN_A,
+			Collections.singletonMap(
+				Campaign.Role.SUPERVISOR,
+				Collections.singleton("frank")));
+		revoked.put(
+			CAMPAIGN_B,
+			Collections.singletonMap(
+				Campaign.Role.PARTICIPANT,
+				Collections.singleton("erin")));
+		Assert.assertEquals(revoked, diff.getCampaignRolesRevoked());
+
+		classQueries.applyClassRosterDiff(diff);
+		Assert.assertEquals(
+			Arrays.asList(toSet("erin")),
+			toSets(jdbcTemplate.getUsernames("DELETE uc", CLASS_ID)));
+		Assert.assertEquals(
+			Arrays.asList(toSet("frank")),
+			toSets(
+				jdbcTemplate.getUsernames(
+					"DELETE urc", CAMPAIGN_A, "supervisor")));
+		Assert.assertEquals(
+			Arrays.asList(toSet("erin")),
+			toSets(
+				jdbcTemplate.getUsernames(
+					"DELETE urc", CAMPAIGN_B, "participant")));
+		Assert.assertEquals(4, jdbcTemplate.getUpdates().size());
+	}
+
+	/**
+	 * Tests that the lists of usernames are split at the limit and that every
+	 * user is in exactly one statement.
+	 */
+	@Test
+	public void testChunking() throws DataAccessException {
+		int limit = ClassQueries.MAX_USERNAMES_PER_STATEMENT;
+		int[] counts = { 1, limit, limit + 1, (2 * limit) + 201 };
+
+		for(int count : counts) {
+			FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+			addDefaultRoles(jdbcTemplate, CAMPAIGN_A);
+
+			Map<String, Clazz.Role> toAdd =
+				new LinkedHashMap<String, Clazz.Role>();
+			for(int i = 0; i < count; i++) {
+				toAdd.put("user" + i, Clazz.Role.RESTRICTED);
+			}
+
+			ClassQueries classQueries =
+				createClassQueries(jdbcTemplate, CAMPAIGN_A);
+			classQueries.applyClassRosterDiff(
+				classQueries.getClassRosterDiff(CLASS_ID, toAdd, null));
+
+			int numStatements = (count + limit - 1) / limit;
+			for(List<List<Object>> updates :
+					Arrays.asList(
+						jdbcTemplate.getUsernames(
+							"INSERT IGNORE INTO user_class",
+							CLASS_ID,
+							"restricted"),
+						jdbcTemplate.getUsernames(
+							"INSERT IGNORE INTO user_role_campaign",
+							CAMPAIGN_A,
+							"participant"))) {
+
+				String message = count + " users";
+				Assert.assertEquals(message, numStatements, updates.size());
+
+				Set<Object> usernames = new HashSet<Object>();
+				for(List<Object> update : updates) {
+					Assert.assertTrue(message, update.size() <= limit);
+					usernames.addAll(update);
+				}
+				Assert.assertEquals(message, toAdd.keySet(), usernames);
+			}
+			Assert.assertEquals(2 * numStatements, jdbcTemplate.getUpdates().size());
+		}
+	}
+
+	/**
+	 * Tests that the changes of a roster are worked out for each class as if
+	 * the classes before it had already been changed, and that none of the
+	 * changes are kept.
+	 */
+	@Test
+	public void testRosterDiffsInTurn() throws DataAccessException {
+		// Erin is privileged in the second class, through which she is a
+		// participant and a supervisor in the campaign that both share.
+		RosterDatabase database = new RosterDatabase()
+			.addClass(CLASS_ID, CAMPAIGN_A)
+			.addClass(CLASS_B, CAMPAIGN_A)
+			.addMember(CLASS_B, "erin", "privileged")
+			.addCampaignRole("erin", CAMPAIGN_A, "participant")
+			.addCampaignRole("erin", CAMPAIGN_A, "supervisor");
+		Map<String, Map<String, String>> members =
+			RosterDatabase.copy(database.classMembers);
+		Set<List<Object>> campaignRoles =
+			new HashSet<List<Object>>(database.campaignRoles);
+
+		Map<String, Map<String, Clazz.Role>> roster =
+			new LinkedHashMap<String, Map<String, Clazz.Role>>();
+		roster.put(
+			CLASS_ID,
+			Collections.singletonMap("erin", Clazz.Role.RESTRICTED));
+		roster.put(
+			CLASS_B,
+			Collections.singletonMap("erin", Clazz.Role.RESTRICTED));
+
+		List<ClassRosterDiff> diffs =
+			createClassQueries(database).getClassRosterDiffs(roster);
+		Assert.assertEquals(2, diffs.size());
+
+		// She already is a participant, so joining the first class changes
+		// nothing else.
+		ClassRosterDiff first = diffs.get(0);
+		Assert.assertEquals(CLASS_ID, first.getClassId());
+		Assert.assertEquals(
+			Collections.singletonMap("erin", Clazz.Role.RESTRICTED),
+			first.getUsersAdded());
+		Assert.assertTrue(first.getCampaignRolesGranted().isEmpty());
+		Assert.assertTrue(first.getCampaignRolesRevoked().isEmpty());
+
+		// Once she is in the first class, she is associated with the
+		// campaign through it, so she keeps her supervisor role when her
+		// role in the second class changes. Without the first class' 
+		// changes, it would have been revoked.
+		ClassRosterDiff second = diffs.get(1);
+		Assert.assertEquals(CLASS_B, second.getClassId());
+		Assert.assertEquals(
+			Collections.singletonMap("erin", Clazz.Role.RESTRICTED),
+			second.getUsersChanged());
+		Assert.assertTrue(second.getCampaignRolesGranted().isEmpty());
+		Assert.assertTrue(second.getCampaignRolesRevoked().isEmpty());
+
+		Assert.assertEquals(0, database.commits);
+		Assert.assertEquals(1, database.rollbacks);
+		Assert.assertEquals(members, database.classMembers);
+		Assert.assertEquals(campaignRoles, database.campaignRoles);
+	}
+
+	/**
+	 * Gives a campaign the default roles: restricted users are participants
+	 * and privileged users are participants and supervisors.
+	 */
+	private static void addDefaultRoles(
+			final FakeJdbcTemplate jdbcTemplate,
+			final String campaignId) {
+
+		jdbcTemplate.defaultRoles
+			.add(campaignId, "restricted", "participant")
+			.add(campaignId, "privileged", "participant")
+			.add(campaignId, "privileged", "supervisor");
+	}
+
+	/**
+	 * Creates the class queries around the template, where the class is
+	 * associated with the campaigns.
+	 */
+	private static ClassQueries createClassQueries(
+			final FakeJdbcTemplate jdbcTemplate,
+			final String... campaignIds) {
+
+		ICampaignClassQueries campaignClassQueries =
+			(ICampaignClassQueries) Proxy.newProxyInstance(
+				ICampaignClassQueries.class.getClassLoader(),
+				new Class<?>[] { ICampaignClassQueries.class },
+				new InvocationHandler() {
+					/**
+					 * Returns the class' campaigns.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						if("getCampaignsAssociatedWithClass"
+								.equals(method.getName())) {
+
+							Assert.assertEquals(CLASS_ID, args[0]);
+							return Arrays.asList(campaignIds);
+						}
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				});
+
+		return new ClassQueries(jdbcTemplate, campaignClassQueries);
+	}
+
+	/**
+	 * Creates the class queries around the database, where each class is
+	 * associated with its campaigns in the database.
+	 */
+	private static ClassQueries createClassQueries(
+			final RosterDatabase database) {
+
+		ICampaignClassQueries campaignClassQueries =
+			(ICampaignClassQueries) Proxy.newProxyInstance(
+				ICampaignClassQueries.class.getClassLoader(),
+				new Class<?>[] { ICampaignClassQueries.class },
+				new InvocationHandler() {
+					/**
+					 * Returns the class' campaigns.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						if("getCampaignsAssociatedWithClass"
+								.equals(method.getName())) {
+
+							return database.classCampaigns.get(args[0]);
+						}
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				});
+
+		return new ClassQueries(database, campaignClassQueries);
+	}
+
+	/**
+	 * Returns a set of usernames.
+	 */
+	private static Set<Object> toSet(final Object... usernames) {
+		return new HashSet<Object>(Arrays.asList(usernames));
+	}
+
+	/**
+	 * Returns each statement's usernames as a set.
+	 */
+	private static List<Set<Object>> toSets(
+			final Collection<List<Object>> updates) {
+
+		List<Set<Object>> result = new ArrayList<Set<Object>>();
+		for(List<Object> update : updates) {
+			result.add(new HashSet<Object>(update));
+		}
+		return result;
+	}
+}
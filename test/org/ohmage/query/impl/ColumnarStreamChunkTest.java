@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that points encoded as a columnar chunk are decoded with the same
+ * meta-data and data for every type of column and for the points that are
+ * kept whole as JSON.
+ *
+ * @author John Jenkins
+ */
+public class ColumnarStreamChunkTest extends TestCase {
+	/**
+	 * The time of the first point.
+	 */
+	private static final long START_TIME = 1350000000000L;
+
+	/**
+	 * The mapper that parses the expected data.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Tests columns of whole numbers, of whole numbers too large for an
+	 * integer, of whole and other numbers, and of whole numbers too large
+	 * for a double with other numbers, which are kept as JSON.
+	 */
+	@Test
+	public void testNumbers() throws IOException {
+		JsonNode schema = schema("count", "big", "value", "huge");
+		Random random = new Random(0);
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+
+		long[] edges = {
+			0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+			Integer.MAX_VALUE + 1L, Long.MAX_VALUE, Long.MIN_VALUE
+		};
+		for(int i = 0; i < 200; i++) {
+			ObjectNode data = JsonNodeFactory.instance.objectNode();
+			if(i % 7 != 3) {
+				data.put("count", random.nextInt(1000) - 500);
+			}
+			data.put("big", (i < edges.length) ? edges[i] : random.nextLong());
+			switch(i % 4) {
+			case 0:
+				data.put("value", random.nextInt());
+				break;
+			case 1:
+				data.put("value", random.nextGaussian() * 1000);
+				break;
+			case 2:
+				data.put("value", 3000000000L + i);
+				break;
+			default:
+				// Missing.
+			}
+			data.put(
+				"huge",
+				(i % 2 == 0) ? 9007199254740993L + i : -0.125 * i);
+
+			points.add(point(i, data.toString()));
+		}
+
+		assertRoundTrip(schema, points);
+	}
+
+	/**
+	 * Tests a column of strings, many of which repeat, including empty and
+	 * non-ASCII strings.
+	 */
+	@Test
+	public void testStrings() throws IOException {
+		JsonNode schema = schema("name", "label");
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+
+		String[] labels = { "", "still", "walk", "caf\u00e9 \u2603" };
+		for(int i = 0; i < 600; i++) {
+			ObjectNode data = JsonNodeFactory.instance.objectNode();
+			data.put("name", "name-" + (i % 300));
+			if(i % 5 != 0) {
+				data.put("label", labels[i % labels.length]);
+			}
+			points.add(point(i, data.toString()));
+		}
+
+		assertRoundTrip(schema, points);
+	}
+
+	/**
+	 * Tests a column of booleans with missing values.
+	 */
+	@Test
+	public void testBooleans() throws IOException {
+		JsonNode schema = schema("flag");
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+
+		for(int i = 0; i < 21; i++) {
+			ObjectNode data = JsonNodeFactory.instance.objectNode();
+			if(i % 3 != 2) {
+				data.put("flag", i % 2 == 0);
+			}
+			points.add(point(i, data.toString()));
+		}
+
+		assertRoundTrip(schema, points);
+	}
+
+	/**
+	 * Tests a column of mixed and nested values and the points that are
+	 * kept whole as JSON: those with a field that isn't in the schema, with
+	 * a null field, or whose data isn't an object. It also tests a schema
+	 * that doesn't describe an object, for which every point is kept whole.
+	 */
+	@Test
+	public void testJsonFallback() throws IOException {
+		String[] data = {
+			"{\"mixed\":1,\"other\":\"a\"}",
+			"{\"mixed\":\"one\",\"other\":\"b\"}",
+			"{\"mixed\":[1,2,{\"three\":3}]}",
+			"{\"mixed\":{\"nested\":{\"deeper\":true}},\"other\":\"c\"}",
+			"{\"mixed\":1,\"unknown\":2}",
+			"{\"mixed\":null,\"other\":\"d\"}",
+			"[1,2,3]",
+			"42",
+			"\"text\"",
+			"{}"
+		};
+
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+		for(int i = 0; i < data.length; i++) {
+			points.add(point(i, data[i]));
+		}
+
+		assertRoundTrip(schema("mixed", "other"), points);
+		assertRoundTrip(MAPPER.readTree("{\"type\":\"number\"}"), points);
+	}
+
+	/**
+	 * Tests points without any meta-data and points whose meta-data is only
+	 * partially present, mixed with points that have all of it.
+	 */
+	@Test
+	public void testNullMetaData() throws IOException {
+		JsonNode schema = schema("value");
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+
+		for(int i = 0; i < 12; i++) {
+			String data = "{\"value\":" + i + "}";
+			switch(i % 3) {
+			case 0:
+				points.add(
+					new StreamDataChunk.Point(
+						null, null, null, null, null, null, null, null, null,
+						null, data));
+				break;
+
+			case 1:
+				points.add(point(i, data));
+				break;
+
+			default:
+				points.add(
+					new StreamDataChunk.Point(
+						"uid-" + i,
+						START_TIME + i,
+						null,
+						START_TIME + i,
+						"UTC",
+						null,
+						null,
+						null,
+						null,
+						null,
+						data));
+			}
+		}
+
+		assertRoundTrip(schema, points);
+
+		String[] uids =
+			ColumnarStreamChunk.decodeUids(
+				ColumnarStreamChunk.encode(schema, points));
+		Assert.assertEquals(points.size(), uids.length);
+		for(int i = 0; i < uids.length; i++) {
+			Assert.assertEquals(points.get(i).getUid(), uids[i]);
+		}
+	}
+
+	/**
+	 * Tests that only the points whose adjusted times are within a range are
+	 * decoded and that those without an adjusted time are only decoded when
+	 * the range has no limits.
+	 */
+	@Test
+	public void testRange() throws IOException {
+		JsonNode schema = schema("value");
+		List<StreamDataChunk.Point> points =
+			new ArrayList<StreamDataChunk.Point>();
+
+		for(int i = 0; i < 10; i++) {
+			points.add(point(i, "{\"value\":" + i + "}"));
+		}
+		points.add(
+			new StreamDataChunk.Point(
+				"uid-none", null, null, null, null, null, null, null, null,
+				null, "{\"value\":-1}"));
+
+		byte[] chunk = ColumnarStreamChunk.encode(schema, points);
+		Long[][] ranges = {
+			{ null, null },
+			{ START_TIME + 3000, START_TIME + 6000 },
+			{ START_TIME + 3000, null },
+			{ null, START_TIME + 6000 },
+			{ START_TIME + 3000, START_TIME + 3000 },
+			{ START_TIME + 3001, START_TIME + 3999 },
+			{ START_TIME + 20000, null }
+		};
+		for(Long[] range : ranges) {
+			List<StreamDataChunk.Point> expected =
+				new ArrayList<StreamDataChunk.Point>();
+			for(StreamDataChunk.Point point : points) {
+				Long timeAdjusted = point.getTimeAdjusted();
+				if((range[0] == null) && (range[1] == null)) {
+					expected.add(point);
+				}
+				else if(
+					(timeAdjusted != null) &&
+					((range[0] == null) || (timeAdjusted >= range[0])) &&
+					((range[1] == null) || (timeAdjusted <= range[1]))) {
+
+					expected.add(point);
+				}
+			}
+
+			assertPoints(
+				expected,
+				ColumnarStreamChunk.decode(chunk, range[0], range[1]));
+		}
+	}
+
+	/**
+	 * Creates a schema of an object with the given fields.
+	 *
+	 * @param fieldNames The names of the fields.
+	 *
+	 * @return The schema.
+	 */
+	private static JsonNode schema(final String... fieldNames) {
+		ObjectNode result = JsonNodeFactory.instance.objectNode();
+		result.put("type", "object");
+		ArrayNode fields = result.putArray("fields");
+		for(String fieldName : fieldNames) {
+			ObjectNode field = fields.addObject();
+			field.put("name", fieldName);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a point with all of its meta-data.
+	 *
+	 * @param i The point's index, from which its meta-data is derived.
+	 *
+	 * @param data The point's data.
+	 *
+	 * @return The point.
+	 */
+	private static StreamDataChunk.Point point(final int i, final String data) {
+		long offset = ((i % 5) - 2) * 60 * 60 * 1000L;
+		return
+			new StreamDataChunk.Point(
+				"uid-" + i,
+				START_TIME + (i * 1000L),
+				offset,
+				START_TIME + (i * 1000L),
+				"GMT" + ((offset < 0) ? "" : "+") + (offset / 3600000),
+				(i % 4 == 0) ? null : "2012-10-12T00:00:0" + (i % 10) + "Z",
+				(i % 4 == 0) ? null : 34.0689 + (i * 0.0001),
+				(i % 4 == 0) ? null : -118.4452 - (i * 0.0001),
+				(i % 4 == 0) ? null : 10.5 * (i % 3),
+				(i % 4 == 0) ? null : ((i % 2 == 0) ? "gps" : "network"),
+				data);
+	}
+
+	/**
+	 * Asserts that encoding and then decoding points without a range gives
+	 * the same points.
+	 *
+	 * @param schema The stream's schema.
+	 *
+	 * @param points The points.
+	 */
+	private static void assertRoundTrip(
+			final JsonNode schema,
+			final List<StreamDataChunk.Point> points)
+			throws IOException {
+
+		assertPoints(
+			points,
+			ColumnarStreamChunk.decode(
+				ColumnarStreamChunk.encode(schema, points),
+				null,
+				null));
+	}
+
+	/**
+	 * Asserts that decoded points have the same meta-data and data as the
+	 * expected points, in the same order.
+	 *
+	 * @param expected The expected points.
+	 *
+	 * @param actual The decoded points.
+	 */
+	private static void assertPoints(
+			final List<StreamDataChunk.Point> expected,
+			final List<StreamDataChunk.Point> actual)
+			throws IOException {
+
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			StreamDataChunk.Point e = expected.get(i);
+			StreamDataChunk.Point a = actual.get(i);
+			String message = "Point " + i;
+
+			Assert.assertEquals(message, e.getUid(), a.getUid());
+			Assert.assertEquals(message, e.getTime(), a.getTime());
+			Assert.assertEquals(message, e.getTimeOffset(), a.getTimeOffset());
+			Assert.assertEquals(
+				message, e.getTimeAdjusted(), a.getTimeAdjusted());
+			Assert.assertEquals(message, e.getTimeZone(), a.getTimeZone());
+			Assert.assertEquals(
+				message, e.getLocationTimestamp(), a.getLocationTimestamp());
+			Assert.assertEquals(
+				message, e.getLocationLatitude(), a.getLocationLatitude());
+			Assert.assertEquals(
+				message, e.getLocationLongitude(), a.getLocationLongitude());
+			Assert.assertEquals(
+				message, e.getLocationAccuracy(), a.getLocationAccuracy());
+			Assert.assertEquals(
+				message, e.getLocationProvider(), a.getLocationProvider());
+
+			// The fields may be in a different order, which the nodes
+			// ignore, but their types must be the same as if the data had
+			// been parsed.
+			Assert.assertEquals(
+				message,
+				MAPPER.readTree(e.getData()),
+				MAPPER.readTree(a.getData()));
+			Assert.assertEquals(
+				message,
+				MAPPER.readTree(e.getData()),
+				a.getDataNode());
+		}
+	}
+}
@@ -0,0 +1,1342 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.DataStream;
+import org.ohmage.domain.DataStream.MetaData;
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.Observer.Stream;
+import org.ohmage.domain.ObserverRegistry;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests the bound that stops reading archived chunks once the page is full,
+ * reading pages that span the archive and the stream data table, and
+ * loading, discarding, and refreshing the registry of observers.
+ *
+ * @author John Jenkins
+ */
+public class ObserverQueriesTest extends TestCase {
+	/**
+	 * The time of the first chunk's window.
+	 */
+	private static final long START_TIME = 1350000000000L;
+
+	/**
+	 * An hour, which is also the length of a chunk's window.
+	 */
+	private static final long HOUR = 60 * 60 * 1000;
+
+	/**
+	 * The most that a point's time may differ from its adjusted time.
+	 */
+	private static final long MAX_TIME_ZONE_OFFSET_MILLIS = 14 * HOUR;
+
+	/**
+	 * The number of chunks in each trace.
+	 */
+	private static final int NUM_CHUNKS = 40;
+
+	/**
+	 * The start of the query for the archived chunks.
+	 */
+	private static final String SQL_CHUNKS =
+		"SELECT c.file_path, c.time_adjusted_min, c.time_adjusted_max " +
+		"FROM observer_stream_data_archive c ";
+
+	/**
+	 * The table of the query for the points that haven't been archived.
+	 */
+	private static final String SQL_HOT = "FROM observer_stream_data AS osd";
+
+	/**
+	 * A day, which separates the points of the archived reads.
+	 */
+	private static final long DAY = 24 * HOUR;
+
+	/**
+	 * An archived chunk of points.
+	 */
+	private static final class Chunk {
+		private final List<DataStream> points = new ArrayList<DataStream>();
+		private Long minTimeAdjusted = null;
+		private Long maxTimeAdjusted = null;
+	}
+
+	/**
+	 * A database with one user's points for one stream, both archived in
+	 * chunk files and in the stream data table. Every point is in UTC, so
+	 * its time is its adjusted time.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ArchiveDatabase extends RecordingJdbcTemplate {
+		// The archived chunks: file, minimum time, and maximum time.
+		private final List<Object[]> chunks = new ArrayList<Object[]>();
+
+		// The points in the stream data table.
+		private final List<StreamDataChunk.Point> hot =
+			new ArrayList<StreamDataChunk.Point>();
+
+		/**
+		 * Archives points in a chunk file.
+		 *
+		 * @return This database.
+		 */
+		private ArchiveDatabase addChunk(
+				final File file,
+				final StreamDataChunk.Point... points)
+				throws IOException {
+
+			StreamDataChunk.Writer writer = new StreamDataChunk.Writer(file);
+			for(StreamDataChunk.Point point : points) {
+				writer.write(point);
+			}
+			writer.close();
+
+			chunks.add(
+				new Object[] {
+					file.getAbsolutePath(),
+					writer.getMinTimeAdjusted(),
+					writer.getMaxTimeAdjusted() });
+			return this;
+		}
+
+		/**
+		 * Adds points to the stream data table.
+		 *
+		 * @return This database.
+		 */
+		private ArchiveDatabase addHot(final StreamDataChunk.Point... points) {
+			hot.addAll(Arrays.asList(points));
+			return this;
+		}
+
+		/**
+		 * Returns the parameters of the reads of the stream data table.
+		 */
+		private List<List<Object>> getHotReads() {
+			List<List<Object>> result = new ArrayList<List<Object>>();
+			for(Recorded query : getQueries()) {
+				if(query.getSql().contains(SQL_HOT)) {
+					result.add(query.getParameters());
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the chunks in the order of the page or a page of the
+		 * stream data table.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(sql.startsWith(SQL_CHUNKS)) {
+				final boolean chronological = sql.endsWith(" ASC");
+				List<Object[]> ordered = new ArrayList<Object[]>(chunks);
+				Collections.sort(
+					ordered,
+					new Comparator<Object[]>() {
+						/**
+						 * Orders the chunks by their minimum times or by
+						 * their maximum times, descending.
+						 */
+						@Override
+						public int compare(
+								final Object[] first,
+								final Object[] second) {
+
+							return
+								(chronological) ?
+									((Long) first[1]).compareTo(
+										(Long) second[1]) :
+									((Long) second[2]).compareTo(
+										(Long) first[2]);
+						}
+					});
+
+				return
+					new Table(
+							"c.file_path",
+							"c.time_adjusted_min",
+							"c.time_adjusted_max")
+						.addAll(ordered);
+			}
+			else if(sql.contains(SQL_HOT)) {
+				final boolean chronological = sql.contains(" ASC ");
+				List<StreamDataChunk.Point> ordered =
+					new ArrayList<StreamDataChunk.Point>(hot);
+				Collections.sort(
+					ordered,
+					new Comparator<StreamDataChunk.Point>() {
+						/**
+						 * Orders the points by their times.
+						 */
+						@Override
+						public int compare(
+								final StreamDataChunk.Point first,
+								final StreamDataChunk.Point second) {
+
+							return
+								(chronological) ?
+									first.getTime().compareTo(
+										second.getTime()) :
+									second.getTime().compareTo(
+										first.getTime());
+						}
+					});
+
+				Long start =
+					(Long) getParameter(
+						sql,
+						parameters,
+						"osd.time_adjusted >= ?");
+				Long end =
+					(Long) getParameter(
+						sql,
+						parameters,
+						"osd.time_adjusted <= ?");
+				for(Iterator<StreamDataChunk.Point> i = ordered.iterator();
+					i.hasNext();) {
+
+					long time = i.next().getTimeAdjusted();
+					if(
+						((start != null) && (time < start)) ||
+						((end != null) && (time > end))) {
+
+						i.remove();
+					}
+				}
+
+				int size = parameters.size();
+				int from =
+					(int) Math.min(
+						ordered.size(),
+						((Number) parameters.get(size - 2)).longValue());
+				int to =
+					(int) Math.min(
+						ordered.size() - from,
+						((Number) parameters.get(size - 1)).longValue()) +
+					from;
+
+				Table result =
+					new Table(
+						"osd.uid",
+						"osd.time",
+						"osd.time_zone",
+						"osd.location_timestamp",
+						"osd.location_latitude",
+						"osd.location_longitude",
+						"osd.location_accuracy",
+						"osd.location_provider",
+						"osd.data");
+				for(
+					StreamDataChunk.Point point :
+						ordered.subList(from, to)) {
+
+					result.add(
+						point.getUid(),
+						point.getTime(),
+						point.getTimeZone(),
+						null,
+						null,
+						null,
+						null,
+						null,
+						point.getData());
+				}
+				return result;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Returns the parameter of a condition.
+		 *
+		 * @param sql The statement.
+		 *
+		 * @param parameters The statement's parameters.
+		 *
+		 * @param condition The condition, which ends with its parameter.
+		 *
+		 * @return The parameter or null if the statement doesn't have the
+		 * 		   condition.
+		 */
+		private static Object getParameter(
+				final String sql,
+				final List<Object> parameters,
+				final String condition) {
+
+			int index = sql.indexOf(condition);
+			if(index == -1) {
+				return null;
+			}
+
+			int numBefore = 0;
+			for(int i = 0; i < index; i++) {
+				if(sql.charAt(i) == '?') {
+					numBefore++;
+				}
+			}
+			return parameters.get(numBefore);
+		}
+	}
+
+	/**
+	 * A database with the observer, observer_stream, and
+	 * observer_stream_link tables, which are changed by the observer
+	 * queries or directly, as if by another server.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ObserverDatabase extends RecordingJdbcTemplate {
+		// The observers: ID, observer ID, version, name, description, and
+		// version string.
+		private final List<Object[]> observers = new ArrayList<Object[]>();
+
+		// The streams, by ID: ID, stream ID, version, name, description,
+		// with ID, with timestamp, with location, schema, and storage.
+		private final Map<Long, Object[]> streams =
+			new LinkedHashMap<Long, Object[]>();
+
+		// The links: ID, observer's ID, and stream's ID.
+		private final List<Object[]> links = new ArrayList<Object[]>();
+
+		// The last ID of every table, which is shared so that they differ.
+		private long lastId = 0;
+
+		/**
+		 * Adds an observer and its streams, sharing the streams that are
+		 * given with their IDs.
+		 *
+		 * @param observer The observer.
+		 *
+		 * @param sharedStreams The IDs of the existing streams to link
+		 * 						instead of adding, by their stream IDs.
+		 *
+		 * @return The observer's ID.
+		 */
+		private long addObserver(
+				final Observer observer,
+				final Map<String, Long> sharedStreams) {
+
+			long observerDbId =
+				insertObserver(
+					Arrays.<Object>asList(
+						observer.getId(),
+						observer.getVersion(),
+						observer.getName(),
+						observer.getDescription(),
+						observer.getVersionString()));
+			for(Stream stream : observer.getStreams()) {
+				Long streamDbId = sharedStreams.get(stream.getId());
+				if(streamDbId == null) {
+					streamDbId =
+						insertStream(
+							Arrays.<Object>asList(
+								stream.getId(),
+								stream.getVersion(),
+								stream.getName(),
+								stream.getDescription(),
+								stream.getWithId(),
+								stream.getWithTimestamp(),
+								stream.getWithLocation(),
+								stream.getSchemaJson(),
+								stream.getStorage().toString()));
+				}
+				insertLink(observerDbId, streamDbId);
+			}
+			return observerDbId;
+		}
+
+		/**
+		 * Removes an observer and its links.
+		 */
+		private void removeObserver(final long observerDbId) {
+			for(Iterator<Object[]> i = observers.iterator(); i.hasNext();) {
+				if(((Long) i.next()[0]) == observerDbId) {
+					i.remove();
+				}
+			}
+			for(Iterator<Object[]> i = links.iterator(); i.hasNext();) {
+				if(((Long) i.next()[1]) == observerDbId) {
+					i.remove();
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of times the observers were loaded.
+		 */
+		private int getNumLoads() {
+			int result = 0;
+			for(Recorded query : getQueries()) {
+				if(ObserverQueries.SQL_GET_ALL_OBSERVERS.equals(
+					query.getSql())) {
+
+					result++;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Inserts the observers, streams, and links.
+		 */
+		@Override
+		protected int apply(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(sql.startsWith("INSERT INTO observer (")) {
+				Assert.assertEquals("user.a", parameters.get(5));
+				insertObserver(parameters.subList(0, 5));
+			}
+			else if(sql.startsWith("INSERT INTO observer_stream (")) {
+				insertStream(parameters);
+			}
+			else if(sql.startsWith("INSERT INTO observer_stream_link")) {
+				insertLink(
+					(Long) parameters.get(0),
+					(Long) parameters.get(1));
+			}
+			else {
+				throw new UnsupportedOperationException(sql);
+			}
+			return 1;
+		}
+
+		/**
+		 * Returns the ID of the last row that was inserted.
+		 */
+		@Override
+		protected Object getGeneratedKey(
+				final String sql,
+				final List<Object> parameters) {
+
+			return lastId;
+		}
+
+		/**
+		 * Answers the registry's version, the observers and streams, and a
+		 * stream's ID in the previous version of its observer.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(ObserverQueries.SQL_GET_REGISTRY_VERSION.equals(sql)) {
+				return
+					new Table()
+						.add(
+							(long) observers.size(),
+							getMaxId(observers),
+							(long) links.size(),
+							getMaxId(links));
+			}
+			else if(ObserverQueries.SQL_GET_ALL_OBSERVERS.equals(sql)) {
+				return
+					new Table(
+							"id",
+							"observer_id",
+							"version",
+							"name",
+							"description",
+							"version_string")
+						.addAll(observers);
+			}
+			else if(ObserverQueries.SQL_GET_ALL_STREAMS.equals(sql)) {
+				Table result =
+					new Table(
+						"observer_id",
+						"id",
+						"stream_id",
+						"version",
+						"name",
+						"description",
+						"with_id",
+						"with_timestamp",
+						"with_location",
+						"stream_schema",
+						"storage");
+				for(Object[] link : links) {
+					List<Object> row = new ArrayList<Object>();
+					row.add(link[1]);
+					row.addAll(Arrays.asList(streams.get(link[2])));
+					result.add(row.toArray());
+				}
+				return result;
+			}
+			else if(sql.startsWith("SELECT os.id FROM observer o, ")) {
+				// The stream in the observer's second newest version.
+				List<Object[]> versions = new ArrayList<Object[]>();
+				for(Object[] observer : observers) {
+					if(observer[1].equals(parameters.get(0))) {
+						versions.add(observer);
+					}
+				}
+				Collections.sort(
+					versions,
+					new Comparator<Object[]>() {
+						/**
+						 * Orders the observers by descending version.
+						 */
+						@Override
+						public int compare(
+								final Object[] first,
+								final Object[] second) {
+
+							return
+								((Long) second[2]).compareTo(
+									(Long) first[2]);
+						}
+					});
+
+				Table result = new Table("id");
+				for(Object[] link : links) {
+					Object[] stream = streams.get(link[2]);
+					if(
+						link[1].equals(versions.get(1)[0]) &&
+						stream[1].equals(parameters.get(2)) &&
+						stream[2].equals(parameters.get(3))) {
+
+						result.add(stream[0]);
+					}
+				}
+				return result;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Inserts an observer.
+		 *
+		 * @return Its ID.
+		 */
+		private long insertObserver(final List<Object> columns) {
+			observers.add(insert(columns));
+			return lastId;
+		}
+
+		/**
+		 * Inserts a stream.
+		 *
+		 * @return Its ID.
+		 */
+		private long insertStream(final List<Object> columns) {
+			Object[] row = insert(columns);
+			streams.put((Long) row[0], row);
+			return lastId;
+		}
+
+		/**
+		 * Inserts a link.
+		 */
+		private void insertLink(
+				final long observerDbId,
+				final long streamDbId) {
+
+			Assert.assertTrue(streams.containsKey(streamDbId));
+			links.add(
+				insert(Arrays.<Object>asList(observerDbId, streamDbId)));
+		}
+
+		/**
+		 * Creates a row with a new ID.
+		 */
+		private Object[] insert(final List<Object> columns) {
+			List<Object> row = new ArrayList<Object>();
+			row.add(++lastId);
+			row.addAll(columns);
+			return row.toArray();
+		}
+
+		/**
+		 * Returns the greatest ID of a table.
+		 */
+		private static Long getMaxId(final List<Object[]> rows) {
+			Long result = null;
+			for(Object[] row : rows) {
+				if((result == null) || ((Long) row[0] > result)) {
+					result = (Long) row[0];
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The directory for the chunks.
+	 */
+	private File directory;
+
+	/**
+	 * Creates an empty directory for the chunks.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		directory = Files.createTempDirectory("observer-queries").toFile();
+	}
+
+	/**
+	 * Removes the chunks' directory and everything in it.
+	 */
+	@Override
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Tests that the bound is exactly the largest time zone offset and that
+	 * merging chunks in the order in which they are read, stopping at the
+	 * bound, gives the same page as sorting all of the points, in both
+	 * orders and for pages of many sizes, while skipping the chunks past
+	 * small pages.
+	 */
+	@Test
+	public void testPageBound() throws DomainException {
+		Stream stream = createStream();
+
+		long time = START_TIME;
+		List<DataStream> one = new ArrayList<DataStream>();
+		one.add(createDataStream(stream, time));
+
+		Assert.assertFalse(
+			ObserverQueries.isPastPage(one, 2, true, Long.MAX_VALUE));
+		Assert.assertFalse(
+			ObserverQueries.isPastPage(
+				one, 1, true, time + MAX_TIME_ZONE_OFFSET_MILLIS));
+		Assert.assertTrue(
+			ObserverQueries.isPastPage(
+				one, 1, true, time + MAX_TIME_ZONE_OFFSET_MILLIS + 1));
+		Assert.assertFalse(
+			ObserverQueries.isPastPage(
+				one, 1, false, time - MAX_TIME_ZONE_OFFSET_MILLIS));
+		Assert.assertTrue(
+			ObserverQueries.isPastPage(
+				one, 1, false, time - MAX_TIME_ZONE_OFFSET_MILLIS - 1));
+		Assert.assertFalse(ObserverQueries.isPastPage(one, 1, true, null));
+		Assert.assertTrue(ObserverQueries.isPastPage(one, 1, false, null));
+
+		List<DataStream> untimed = new ArrayList<DataStream>();
+		untimed.add(createDataStream(stream, null));
+		Assert.assertFalse(
+			ObserverQueries.isPastPage(untimed, 1, true, Long.MAX_VALUE));
+
+		Assert.assertEquals(
+			Long.MAX_VALUE,
+			ObserverQueries.getPageEnd(10, Long.MAX_VALUE));
+
+		long[][] pages = {
+			{ 0, 1 }, { 0, 5 }, { 3, 10 }, { 25, 5 }, { 50, 20 },
+			{ 0, 1000 }, { 10, Long.MAX_VALUE }
+		};
+		for(long seed = 0; seed < 10; seed++) {
+			Random random = new Random(seed);
+			List<DataStream> hot = new ArrayList<DataStream>();
+			List<Chunk> chunks = createTrace(random, stream, hot);
+
+			for(boolean chronological : new boolean[] { true, false }) {
+				Comparator<DataStream> comparator =
+					(chronological) ?
+						ObserverQueries.DATA_STREAM_TIME_COMPARATOR :
+						Collections.reverseOrder(
+							ObserverQueries.DATA_STREAM_TIME_COMPARATOR);
+				List<Chunk> ordered = order(chunks, chronological);
+
+				for(long[] page : pages) {
+					long pageEnd = ObserverQueries.getPageEnd(page[0], page[1]);
+					String message =
+						"Seed " + seed + ", chronological " + chronological +
+						", skip " + page[0] + ", return " + page[1];
+
+					List<DataStream> expected = new ArrayList<DataStream>(hot);
+					for(Chunk chunk : chunks) {
+						expected.addAll(chunk.points);
+					}
+					Collections.sort(expected, comparator);
+					expected =
+						expected.subList(
+							(int) Math.min(expected.size(), page[0]),
+							(int) Math.min(expected.size(), pageEnd));
+
+					// Read the chunks as the queries do, starting from the
+					// table's points through the end of the page.
+					List<DataStream> result = new ArrayList<DataStream>(hot);
+					ObserverQueries.trimToPage(result, pageEnd, comparator);
+					int numRead = 0;
+					for(Chunk chunk : ordered) {
+						ObserverQueries.trimToPage(result, pageEnd, comparator);
+						Long bound =
+							(chronological) ?
+								chunk.minTimeAdjusted :
+								chunk.maxTimeAdjusted;
+						if(
+							ObserverQueries.isPastPage(
+								result, pageEnd, chronological, bound)) {
+
+							break;
+						}
+
+						result.addAll(chunk.points);
+						numRead++;
+					}
+					ObserverQueries.trimToPage(result, pageEnd, comparator);
+					List<DataStream> actual =
+						result.subList(
+							(int) Math.min(result.size(), page[0]),
+							result.size());
+
+					List<Long> expectedTimes = getTimes(expected);
+					Assert.assertEquals(
+						message, expectedTimes, getTimes(actual));
+
+					// Until the page ends with a point that has a time, every
+					// chunk may still have points in it.
+					if(
+						(pageEnd <= 30) &&
+						(expectedTimes.get(expectedTimes.size() - 1) != null)) {
+
+						Assert.assertTrue(message, numRead < ordered.size());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that a page that spans the archive and the stream data table
+	 * has the archived points and the table's points in order, in both
+	 * orders, reading the table from its start through the end of the page
+	 * and then skipping the page's start.
+	 */
+	@Test
+	public void testReadArchived() throws Exception {
+		ArchiveDatabase database = createArchive();
+		ObserverQueries queries = new ObserverQueries(database);
+		Stream stream = createStream();
+
+		Assert.assertEquals(
+			Arrays.asList("a2", "b3", "b4", "h30"),
+			getUids(
+				queries.readData(
+					stream, "user.a", "observer", null, null, null,
+					true, 2, 4)));
+		Assert.assertEquals(
+			Arrays.<Object>asList(0L, 6L),
+			getPage(database.getHotReads().get(0)));
+
+		Assert.assertEquals(
+			Arrays.asList("h30", "b4", "b3"),
+			getUids(
+				queries.readData(
+					stream, "user.a", "observer", null, null, null,
+					false, 2, 3)));
+
+		Assert.assertEquals(
+			Arrays.asList("a0", "a1", "a2", "b3", "b4", "h30", "h31", "h32"),
+			getUids(
+				queries.readData(
+					stream, "user.a", "observer", null, null, null,
+					true, 0, Long.MAX_VALUE)));
+
+		// A range is passed to the chunks, which return only the points
+		// within it.
+		Assert.assertEquals(
+			Arrays.asList("a1", "a2", "b3"),
+			getUids(
+				queries.readData(
+					stream, "user.a", "observer", null,
+					new DateTime(START_TIME + DAY, DateTimeZone.UTC),
+					new DateTime(START_TIME + (3 * DAY), DateTimeZone.UTC),
+					true, 0, 10)));
+	}
+
+	/**
+	 * Tests that the chunks past the end of a page aren't read, so a page
+	 * of recent points doesn't depend on the archive.
+	 */
+	@Test
+	public void testReadArchivedNotNeeded() throws Exception {
+		ArchiveDatabase database = createArchive();
+		ObserverQueries queries = new ObserverQueries(database);
+		Stream stream = createStream();
+
+		for(Object[] chunk : database.chunks) {
+			Assert.assertTrue(new File((String) chunk[0]).delete());
+		}
+
+		Assert.assertEquals(
+			Arrays.asList("h31", "h30"),
+			getUids(
+				queries.readData(
+					stream, "user.a", "observer", null, null, null,
+					false, 1, 2)));
+
+		// A page that does need the archive can't be read without it.
+		try {
+			queries.readData(
+				stream, "user.a", "observer", null, null, null,
+				false, 1, 3);
+			fail("A page was read without its archived points.");
+		}
+		catch(DataAccessException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Tests that, without archived chunks, the page is read from the stream
+	 * data table alone.
+	 */
+	@Test
+	public void testReadWithoutArchive() throws Exception {
+		ArchiveDatabase database =
+			new ArchiveDatabase()
+				.addHot(
+					createPoint("h0", START_TIME),
+					createPoint("h1", START_TIME + DAY),
+					createPoint("h2", START_TIME + (2 * DAY)));
+
+		Assert.assertEquals(
+			Arrays.asList("h1"),
+			getUids(
+				new ObserverQueries(database)
+					.readData(
+						createStream(), "user.a", "observer", null, null, null,
+						false, 1, 1)));
+		Assert.assertEquals(
+			Arrays.<Object>asList(1L, 1L),
+			getPage(database.getHotReads().get(0)));
+	}
+
+	/**
+	 * Tests that the registry is loaded once with every version of every
+	 * observer, newest first, and that a stream that is linked to several
+	 * versions is one stream.
+	 */
+	@Test
+	public void testRegistryLoaded() throws Exception {
+		ObserverDatabase database = new ObserverDatabase();
+		long v1 =
+			database.addObserver(
+				createObserver(
+					"org.ohmage.a", 1,
+					createStream("s1", 1), createStream("s2", 1)),
+				new HashMap<String, Long>());
+		database.addObserver(
+			createObserver("org.ohmage.b", 1, createStream("s1", 1)),
+			new HashMap<String, Long>());
+		database.addObserver(
+			createObserver(
+				"org.ohmage.a", 2,
+				createStream("s1", 1), createStream("s2", 2)),
+			getStreamIds(database, v1, "s1"));
+
+		ObserverQueries queries = new ObserverQueries(database);
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.a:2", "org.ohmage.a:1", "org.ohmage.b:1"),
+			getVersions(queries.getObservers(null, null, 0, Long.MAX_VALUE)));
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.a:2"),
+			getVersions(queries.getObservers("org.ohmage.a", null, 0, 1)));
+
+		ObserverRegistry registry = queries.getRegistry(0);
+		List<Observer> versions =
+			registry.getObservers("org.ohmage.a", null, 0, Long.MAX_VALUE);
+		Assert.assertSame(
+			versions.get(0).getStreamsMap().get("s1"),
+			versions.get(1).getStreamsMap().get("s1"));
+		Assert.assertEquals(
+			2,
+			versions.get(0).getStreamsMap().get("s2").getVersion());
+		Assert.assertNotSame(
+			registry.getStream("org.ohmage.a", "s1", 1),
+			registry.getStream("org.ohmage.b", "s1", 1));
+
+		Assert.assertEquals(1, database.getNumLoads());
+	}
+
+	/**
+	 * Tests that creating an observer and updating one each discards the
+	 * registry, so the change is seen immediately, and that an update
+	 * links the unchanged streams to the new version.
+	 */
+	@Test
+	public void testRegistryInvalidated() throws Exception {
+		ObserverDatabase database = new ObserverDatabase();
+		ObserverQueries queries = new ObserverQueries(database);
+		Assert.assertTrue(
+			queries.getObservers(null, null, 0, Long.MAX_VALUE).isEmpty());
+
+		queries.createObserver(
+			"user.a",
+			createObserver(
+				"org.ohmage.a", 1,
+				createStream("s1", 1), createStream("s2", 1)));
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.a:1"),
+			getVersions(queries.getObservers(null, null, 0, Long.MAX_VALUE)));
+		Assert.assertEquals(2, database.getNumLoads());
+
+		Map<String, Long> unchanged = new HashMap<String, Long>();
+		unchanged.put("s1", 1L);
+		queries.updateObserver(
+			"user.a",
+			createObserver(
+				"org.ohmage.a", 2,
+				createStream("s1", 1), createStream("s2", 2)),
+			unchanged);
+		List<Observer> versions =
+			queries.getObservers("org.ohmage.a", null, 0, Long.MAX_VALUE);
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.a:2", "org.ohmage.a:1"),
+			getVersions(versions));
+		Assert.assertSame(
+			versions.get(0).getStreamsMap().get("s1"),
+			versions.get(1).getStreamsMap().get("s1"));
+		Assert.assertEquals(
+			2,
+			versions.get(0).getStreamsMap().get("s2").getVersion());
+		Assert.assertEquals(3, database.getNumLoads());
+
+		// The update added one observer, one stream, and two links.
+		Assert.assertEquals(2, database.observers.size());
+		Assert.assertEquals(3, database.streams.size());
+		Assert.assertEquals(4, database.links.size());
+	}
+
+	/**
+	 * Tests that another server's changes are only looked for once the
+	 * registry has been used for the check interval, that the registry is
+	 * only reloaded when the number or greatest ID of the observers or
+	 * links has changed, and that removing one observer and adding another
+	 * is seen even though the number of them is the same.
+	 */
+	@Test
+	public void testRegistryStaleness() throws Exception {
+		ObserverDatabase database = new ObserverDatabase();
+		long b =
+			database.addObserver(
+				createObserver("org.ohmage.b", 1, createStream("s1", 1)),
+				new HashMap<String, Long>());
+		ObserverQueries queries = new ObserverQueries(database);
+
+		long now = 1000000;
+		ObserverRegistry registry = queries.getRegistry(now);
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.b:1"),
+			getVersions(registry.getObservers(null, null, 0, Long.MAX_VALUE)));
+
+		// Another server adds an observer, which isn't looked for until the
+		// interval has passed.
+		database.addObserver(
+			createObserver("org.ohmage.c", 1, createStream("s1", 1)),
+			new HashMap<String, Long>());
+		int numStatements = database.getStatements().size();
+		Assert.assertSame(
+			registry,
+			queries.getRegistry(
+				now + ObserverQueries.REGISTRY_CHECK_MILLIS - 1));
+		Assert.assertEquals(numStatements, database.getStatements().size());
+
+		now += ObserverQueries.REGISTRY_CHECK_MILLIS;
+		registry = queries.getRegistry(now);
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.b:1", "org.ohmage.c:1"),
+			getVersions(registry.getObservers(null, null, 0, Long.MAX_VALUE)));
+		Assert.assertEquals(2, database.getNumLoads());
+
+		// Without a change, the version is checked but nothing is loaded.
+		now += ObserverQueries.REGISTRY_CHECK_MILLIS;
+		numStatements = database.getStatements().size();
+		Assert.assertSame(registry, queries.getRegistry(now));
+		Assert.assertEquals(
+			numStatements + 1,
+			database.getStatements().size());
+		Assert.assertEquals(2, database.getNumLoads());
+
+		// Another server replaces one observer with another.
+		database.removeObserver(b);
+		database.addObserver(
+			createObserver("org.ohmage.d", 1, createStream("s1", 1)),
+			new HashMap<String, Long>());
+		now += ObserverQueries.REGISTRY_CHECK_MILLIS;
+		Assert.assertEquals(
+			Arrays.asList("org.ohmage.c:1", "org.ohmage.d:1"),
+			getVersions(
+				queries
+					.getRegistry(now)
+					.getObservers(null, null, 0, Long.MAX_VALUE)));
+	}
+
+	/**
+	 * Creates a trace of a chunk per hour, whose points' times are up to the
+	 * largest time zone offset from their adjusted times, a chunk of points
+	 * without times, and points in the table spread over the same times.
+	 *
+	 * @param random The source of the points.
+	 *
+	 * @param stream The points' stream.
+	 *
+	 * @param hot The list to which the table's points are added.
+	 *
+	 * @return The chunks.
+	 */
+	private static List<Chunk> createTrace(
+			final Random random,
+			final Stream stream,
+			final List<DataStream> hot)
+			throws DomainException {
+
+		List<Chunk> result = new ArrayList<Chunk>();
+		for(int window = 0; window < NUM_CHUNKS; window++) {
+			Chunk chunk = new Chunk();
+			int numPoints = 1 + random.nextInt(20);
+			for(int i = 0; i < numPoints; i++) {
+				long timeAdjusted =
+					START_TIME + (window * HOUR) + random.nextInt((int) HOUR);
+				long offset = (random.nextInt(57) - 28) * (HOUR / 2);
+
+				chunk.points.add(
+					createDataStream(stream, timeAdjusted - offset));
+				if(
+					(chunk.minTimeAdjusted == null) ||
+					(timeAdjusted < chunk.minTimeAdjusted)) {
+
+					chunk.minTimeAdjusted = timeAdjusted;
+				}
+				if(
+					(chunk.maxTimeAdjusted == null) ||
+					(timeAdjusted > chunk.maxTimeAdjusted)) {
+
+					chunk.maxTimeAdjusted = timeAdjusted;
+				}
+			}
+			result.add(chunk);
+		}
+
+		Chunk untimed = new Chunk();
+		for(int i = 0; i < 3; i++) {
+			untimed.points.add(createDataStream(stream, null));
+		}
+		result.add(untimed);
+
+		long span = (NUM_CHUNKS * HOUR) + (2 * MAX_TIME_ZONE_OFFSET_MILLIS);
+		for(int i = 0; i < 30; i++) {
+			hot.add(
+				createDataStream(
+					stream,
+					START_TIME - MAX_TIME_ZONE_OFFSET_MILLIS +
+						(long) (random.nextDouble() * span)));
+		}
+		hot.add(createDataStream(stream, null));
+
+		return result;
+	}
+
+	/**
+	 * Orders the chunks as the database does: by their earliest adjusted
+	 * times, with those without adjusted times first, or by their latest
+	 * adjusted times in reverse, with those without adjusted times last.
+	 *
+	 * @param chunks The chunks.
+	 *
+	 * @param chronological Whether the page is in chronological order.
+	 *
+	 * @return The ordered chunks.
+	 */
+	private static List<Chunk> order(
+			final List<Chunk> chunks,
+			final boolean chronological) {
+
+		List<Chunk> result = new ArrayList<Chunk>(chunks);
+		Collections.sort(
+			result,
+			new Comparator<Chunk>() {
+				@Override
+				public int compare(final Chunk first, final Chunk second) {
+					long firstBound = getBound(first);
+					long secondBound = getBound(second);
+					return
+						(firstBound < secondBound) ?
+							-1 :
+							((firstBound == secondBound) ? 0 : 1);
+				}
+
+				private long getBound(final Chunk chunk) {
+					if(chronological) {
+						return
+							(chunk.minTimeAdjusted == null) ?
+								Long.MIN_VALUE :
+								chunk.minTimeAdjusted;
+					}
+					else {
+						return
+							(chunk.maxTimeAdjusted == null) ?
+								Long.MAX_VALUE :
+								-chunk.maxTimeAdjusted;
+					}
+				}
+			});
+		return result;
+	}
+
+	/**
+	 * Creates a database with two archived chunks, the first of points
+	 * "a0" through "a2" on the first three days and the second of "b3" and
+	 * "b4" on the next two, and the points "h30" through "h32" in the stream
+	 * data table a month later.
+	 *
+	 * @return The database.
+	 */
+	private ArchiveDatabase createArchive() throws IOException {
+		return
+			new ArchiveDatabase()
+				.addChunk(
+					new File(directory, "a" + StreamDataChunk.FILE_EXTENSION),
+					createPoint("a0", START_TIME),
+					createPoint("a1", START_TIME + DAY),
+					createPoint("a2", START_TIME + (2 * DAY)))
+				.addChunk(
+					new File(directory, "b" + StreamDataChunk.FILE_EXTENSION),
+					createPoint("b3", START_TIME + (3 * DAY)),
+					createPoint("b4", START_TIME + (4 * DAY)))
+				.addHot(
+					createPoint("h31", START_TIME + (31 * DAY)),
+					createPoint("h30", START_TIME + (30 * DAY)),
+					createPoint("h32", START_TIME + (32 * DAY)));
+	}
+
+	/**
+	 * Creates a stored point in UTC.
+	 *
+	 * @param uid The point's unique identifier.
+	 *
+	 * @param time The point's time.
+	 *
+	 * @return The point.
+	 */
+	private static StreamDataChunk.Point createPoint(
+			final String uid,
+			final long time) {
+
+		return
+			new StreamDataChunk.Point(
+				uid, time, 0L, time, "UTC", null, null, null, null, null, "{}");
+	}
+
+	/**
+	 * Returns the unique identifiers of points.
+	 */
+	private static List<String> getUids(final List<DataStream> points) {
+		List<String> result = new ArrayList<String>(points.size());
+		for(DataStream point : points) {
+			result.add(point.getMetaData().getId());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the offset and limit of a read of the stream data table.
+	 */
+	private static List<Object> getPage(final List<Object> parameters) {
+		return parameters.subList(parameters.size() - 2, parameters.size());
+	}
+
+	/**
+	 * Creates an observer.
+	 *
+	 * @param id The observer's ID.
+	 *
+	 * @param version The observer's version.
+	 *
+	 * @param streams The observer's streams.
+	 *
+	 * @return The observer.
+	 */
+	private static Observer createObserver(
+			final String id,
+			final long version,
+			final Stream... streams)
+			throws DomainException {
+
+		return
+			new Observer.Builder()
+				.setId(id)
+				.setVersion(version)
+				.setName("Observer")
+				.setDescription("An observer.")
+				.setVersionString(Long.toString(version))
+				.addStreams(Arrays.asList(streams))
+				.build();
+	}
+
+	/**
+	 * Creates a stream without validating its schema.
+	 *
+	 * @param id The stream's ID.
+	 *
+	 * @param version The stream's version.
+	 *
+	 * @return The stream.
+	 */
+	private static Stream createStream(
+			final String id,
+			final long version)
+			throws DomainException {
+
+		return
+			new Stream(
+				id,
+				version,
+				"Stream",
+				"A stream.",
+				null,
+				true,
+				false,
+				"{\"type\":\"object\",\"fields\":[]}",
+				Stream.Storage.ROW,
+				false);
+	}
+
+	/**
+	 * Returns the IDs of the streams linked to an observer, by their stream
+	 * IDs.
+	 */
+	private static Map<String, Long> getStreamIds(
+			final ObserverDatabase database,
+			final long observerDbId,
+			final String... streamIds) {
+
+		List<String> wanted = Arrays.asList(streamIds);
+		Map<String, Long> result = new HashMap<String, Long>();
+		for(Object[] link : database.links) {
+			Object[] stream = database.streams.get(link[2]);
+			if(link[1].equals(observerDbId) && wanted.contains(stream[1])) {
+				result.put((String) stream[1], (Long) stream[0]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the IDs and versions of observers.
+	 */
+	private static List<String> getVersions(final List<Observer> observers) {
+		List<String> result = new ArrayList<String>();
+		for(Observer observer : observers) {
+			result.add(observer.getId() + ":" + observer.getVersion());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the times of points.
+	 *
+	 * @param points The points.
+	 *
+	 * @return Their times, which are null for the points without one.
+	 */
+	private static List<Long> getTimes(final List<DataStream> points) {
+		List<Long> result = new ArrayList<Long>(points.size());
+		for(DataStream point : points) {
+			MetaData metaData = point.getMetaData();
+			result.add(
+				((metaData == null) || (metaData.getTimestamp() == null)) ?
+					null :
+					metaData.getTimestamp().getMillis());
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a point.
+	 *
+	 * @param stream The point's stream.
+	 *
+	 * @param time The point's time or null if it has none.
+	 *
+	 * @return The point.
+	 */
+	private static DataStream createDataStream(
+			final Stream stream,
+			final Long time)
+			throws DomainException {
+
+		return
+			new DataStream(
+				stream,
+				(time == null) ?
+					null :
+					new MetaData(
+						null,
+						new DateTime(time, DateTimeZone.UTC),
+						null),
+				JsonNodeFactory.instance.objectNode());
+	}
+
+	/**
+	 * Creates the stream of the points.
+	 *
+	 * @return The stream.
+	 */
+	private static Stream createStream() throws DomainException {
+		return
+			new Stream(
+				"stream",
+				1,
+				"Stream",
+				"A stream.",
+				false,
+				true,
+				false,
+				"{\"type\":\"object\",\"fields\":[]}",
+				false);
+	}
+}
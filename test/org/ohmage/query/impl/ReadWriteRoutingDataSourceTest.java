@@ -0,0 +1,455 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Tests that read-only requests use the replica unless their token wrote
+ * recently, the replica is lagging, or it cannot be reached, and that
+ * everything else uses the primary.
+ *
+ * @author John Jenkins
+ */
+public class ReadWriteRoutingDataSourceTest extends TestCase {
+	/**
+	 * The number of seconds the replica may be behind.
+	 */
+	private static final long MAX_LAG_SECONDS = 5;
+
+	private Database primary;
+	private Database replica;
+	private ReadWriteRoutingDataSource dataSource;
+
+	/**
+	 * Creates a primary and a replica that is caught up.
+	 */
+	@Override
+	protected void setUp() {
+		primary = new Database();
+		replica = new Database();
+		replica.lag = 0L;
+	}
+
+	/**
+	 * Stops routing and forgets the writes.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		ReadWriteRoutingDataSource.endRequest(null);
+		if(dataSource != null) {
+			dataSource.destroy();
+		}
+	}
+
+	/**
+	 * Tests that everything uses the primary when there is no replica.
+	 */
+	@Test
+	public void testNoReplica() throws Exception {
+		dataSource =
+			new ReadWriteRoutingDataSource(
+				primary.dataSource,
+				replica.dataSource,
+				"",
+				MAX_LAG_SECONDS);
+
+		Assert.assertSame(primary.connection, connect(true, "token"));
+		Assert.assertSame(primary.connection, connect(false, "token"));
+		Assert.assertSame(primary.connection, connect(true, "token"));
+		Assert.assertEquals(0, replica.connections);
+	}
+
+	/**
+	 * Tests that a token's read-only requests use the primary after it
+	 * wrote, including a token that the writing request created, and that
+	 * other tokens and threads outside of a request are unaffected.
+	 */
+	@Test
+	public void testStickiness() throws Exception {
+		createWithReplica();
+
+		Assert.assertSame(replica.connection, connect(true, "a"));
+		Assert.assertSame(replica.connection, connect(true, null));
+
+		// Writes always use the primary, whatever their token.
+		Assert.assertSame(primary.connection, connect(false, "a"));
+
+		long sticky = ReadWriteRoutingDataSource.getStickyReadCount();
+		Assert.assertSame(primary.connection, connect(true, "a"));
+		Assert.assertEquals(
+			sticky + 1,
+			ReadWriteRoutingDataSource.getStickyReadCount());
+		Assert.assertSame(replica.connection, connect(true, "b"));
+
+		// A request that logs in starts without a token and ends with one.
+		ReadWriteRoutingDataSource.startRequest(false, null);
+		Assert.assertSame(primary.connection, dataSource.getConnection());
+		ReadWriteRoutingDataSource.endRequest("c");
+		Assert.assertSame(primary.connection, connect(true, "c"));
+
+		// A write without a token makes nothing sticky.
+		Assert.assertSame(primary.connection, connect(false, null));
+		Assert.assertSame(replica.connection, connect(true, null));
+
+		// A thread that isn't servicing a request uses the primary.
+		Assert.assertSame(primary.connection, dataSource.getConnection());
+	}
+
+	/**
+	 * Tests that a read-only request uses the primary while it must, e.g.
+	 * while it authenticates, and that nested calls keep the outer one's
+	 * route.
+	 */
+	@Test
+	public void testPrimaryOnly() throws Exception {
+		createWithReplica();
+
+		ReadWriteRoutingDataSource.startRequest(true, "a");
+		Assert.assertSame(replica.connection, dataSource.getConnection());
+
+		boolean outer = ReadWriteRoutingDataSource.startPrimaryOnly();
+		Assert.assertFalse(outer);
+		Assert.assertSame(primary.connection, dataSource.getConnection());
+
+		boolean inner = ReadWriteRoutingDataSource.startPrimaryOnly();
+		Assert.assertTrue(inner);
+		ReadWriteRoutingDataSource.endPrimaryOnly(inner);
+		Assert.assertSame(primary.connection, dataSource.getConnection());
+
+		ReadWriteRoutingDataSource.endPrimaryOnly(outer);
+		Assert.assertSame(replica.connection, dataSource.getConnection());
+		ReadWriteRoutingDataSource.endRequest("a");
+
+		// It was a read-only request, so it isn't sticky.
+		Assert.assertSame(replica.connection, connect(true, "a"));
+	}
+
+	/**
+	 * Tests that read-only requests use the primary while the replica is
+	 * further behind than allowed, isn't replicating, or its lag can't be
+	 * read, and use the replica again once it has caught up.
+	 */
+	@Test
+	public void testLagFallback() throws Exception {
+		createWithReplica();
+		Assert.assertSame(replica.connection, connect(true, "a"));
+
+		long fallbacks = ReadWriteRoutingDataSource.getLagFallbackCount();
+
+		replica.lag = MAX_LAG_SECONDS + 1;
+		dataSource.checkReplica();
+		Assert.assertSame(primary.connection, connect(true, "a"));
+
+		replica.lag = MAX_LAG_SECONDS;
+		dataSource.checkReplica();
+		Assert.assertSame(replica.connection, connect(true, "a"));
+
+		// Replication isn't running.
+		replica.lag = null;
+		dataSource.checkReplica();
+		Assert.assertSame(primary.connection, connect(true, "a"));
+
+		replica.lag = 0L;
+		replica.statusFails = true;
+		dataSource.checkReplica();
+		Assert.assertSame(primary.connection, connect(true, "a"));
+
+		replica.statusFails = false;
+		dataSource.checkReplica();
+		Assert.assertSame(replica.connection, connect(true, "a"));
+
+		Assert.assertEquals(
+			fallbacks + 3,
+			ReadWriteRoutingDataSource.getLagFallbackCount());
+	}
+
+	/**
+	 * Tests that a read-only request uses the primary if the replica cannot
+	 * be reached, and that the replica is not tried again until the next
+	 * check finds it.
+	 */
+	@Test
+	public void testConnectionFallback() throws Exception {
+		createWithReplica();
+
+		long errors = ReadWriteRoutingDataSource.getErrorFallbackCount();
+
+		replica.connectFails = true;
+		Assert.assertSame(primary.connection, connect(true, "a"));
+		Assert.assertEquals(
+			errors + 1,
+			ReadWriteRoutingDataSource.getErrorFallbackCount());
+
+		int attempts = replica.connections;
+		Assert.assertSame(primary.connection, connect(true, "a"));
+		Assert.assertEquals(attempts, replica.connections);
+
+		replica.connectFails = false;
+		dataSource.checkReplica();
+		Assert.assertSame(replica.connection, connect(true, "a"));
+	}
+
+	/**
+	 * Creates the DataSource with the replica and checks the replica's lag.
+	 */
+	private void createWithReplica() {
+		dataSource =
+			new ReadWriteRoutingDataSource(
+				primary.dataSource,
+				replica.dataSource,
+				MAX_LAG_SECONDS);
+		dataSource.checkReplica();
+	}
+
+	/**
+	 * Services a request that makes one connection.
+	 *
+	 * @param readOnly Whether or not the request is read-only.
+	 *
+	 * @param token The request's token.
+	 *
+	 * @return The connection the request was given.
+	 */
+	private Connection connect(final boolean readOnly, final String token)
+			throws SQLException {
+
+		ReadWriteRoutingDataSource.startRequest(readOnly, token);
+		try {
+			return dataSource.getConnection();
+		}
+		finally {
+			ReadWriteRoutingDataSource.endRequest(token);
+		}
+	}
+
+	/**
+	 * A database that hands out the same connection to everyone and reports
+	 * a replication lag.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Database {
+		private final DataSource dataSource;
+		private final Connection connection;
+
+		/**
+		 * The lag the database reports or null if it isn't replicating.
+		 */
+		private volatile Long lag = null;
+
+		/**
+		 * Whether or not reading the replication status fails.
+		 */
+		private volatile boolean statusFails = false;
+
+		/**
+		 * Whether or not connecting fails.
+		 */
+		private volatile boolean connectFails = false;
+
+		/**
+		 * The number of attempts to connect.
+		 */
+		private volatile int connections = 0;
+
+		/**
+		 * Creates the database.
+		 */
+		private Database() {
+			connection =
+				proxy(
+					Connection.class,
+					new InvocationHandler() {
+						@Override
+						public Object invoke(
+								final Object proxy,
+								final Method method,
+								final Object[] args) {
+
+							if("createStatement".equals(method.getName())) {
+								return statement();
+							}
+							return defaultValue(proxy, method, args);
+						}
+					});
+
+			dataSource =
+				proxy(
+					DataSource.class,
+					new InvocationHandler() {
+						@Override
+						public Object invoke(
+								final Object proxy,
+								final Method method,
+								final Object[] args)
+								throws SQLException {
+
+							if("getConnection".equals(method.getName())) {
+								connections++;
+								if(connectFails) {
+									throw new SQLException(
+										"Connection refused.");
+								}
+								return connection;
+							}
+							return defaultValue(proxy, method, args);
+						}
+					});
+		}
+
+		/**
+		 * Creates a statement that reads the replication status.
+		 *
+		 * @return The statement.
+		 */
+		private Statement statement() {
+			return proxy(
+				Statement.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						if("executeQuery".equals(method.getName())) {
+							// This is what Spring would have translated the
+							// failure into.
+							if(statusFails) {
+								throw new DataAccessResourceFailureException(
+									"Access denied.");
+							}
+							return status(lag);
+						}
+						return defaultValue(proxy, method, args);
+					}
+				});
+		}
+
+		/**
+		 * Creates the result of reading the replication status, which has
+		 * no rows if the database isn't replicating.
+		 *
+		 * @param lag The lag to report or null.
+		 *
+		 * @return The result.
+		 */
+		private static ResultSet status(final Long lag) {
+			return proxy(
+				ResultSet.class,
+				new InvocationHandler() {
+					private boolean read = false;
+
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						String name = method.getName();
+						if("next".equals(name)) {
+							boolean result = (! read) && (lag != null);
+							read = true;
+							return result;
+						}
+						else if("getLong".equals(name)) {
+							Assert.assertEquals(
+								"Seconds_Behind_Master",
+								args[0]);
+							return lag;
+						}
+						return defaultValue(proxy, method, args);
+					}
+				});
+		}
+	}
+
+	/**
+	 * Creates an implementation of an interface.
+	 *
+	 * @param type The interface.
+	 *
+	 * @param handler The implementation.
+	 *
+	 * @return The implementation.
+	 */
+	private static <T> T proxy(
+			final Class<T> type,
+			final InvocationHandler handler) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				type.getClassLoader(),
+				new Class<?>[] { type },
+				handler));
+	}
+
+	/**
+	 * Returns the result of a method that the tests don't care about.
+	 *
+	 * @param proxy The object whose method was called.
+	 *
+	 * @param method The method.
+	 *
+	 * @param args The method's arguments.
+	 *
+	 * @return False, zero, or null, by the method's return type, except for
+	 * 		   the Object methods, which use the proxy's identity.
+	 */
+	private static Object defaultValue(
+			final Object proxy,
+			final Method method,
+			final Object[] args) {
+
+		String name = method.getName();
+		if("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		else if("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+		else if("toString".equals(name)) {
+			return proxy.getClass().getName();
+		}
+
+		Class<?> returnType = method.getReturnType();
+		if(boolean.class.equals(returnType)) {
+			return false;
+		}
+		else if(int.class.equals(returnType)) {
+			return 0;
+		}
+		else if(long.class.equals(returnType)) {
+			return 0L;
+		}
+		return null;
+	}
+}
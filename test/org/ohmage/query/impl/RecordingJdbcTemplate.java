@@ -0,0 +1,803 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+/**
+ * <p>A JDBC template around a fake database that records every statement
+ * that is run, with its parameters, in the order in which they were run.
+ * </p>
+ *
+ * <p>The fake sits below the template, at the connections and statements,
+ * so every way of querying and updating, batches, transactions, and
+ * connection callbacks all go through the same two methods. A test models
+ * the tables it needs by overriding {@link #answer(String, List)}, which
+ * answers the queries, and {@link #apply(String, List)}, which applies the
+ * updates, and then checks the state of its model rather than the text of
+ * the statements. A model whose inserts generate keys also overrides
+ * {@link #getGeneratedKey(String, List)}.</p>
+ *
+ * @author John Jenkins
+ */
+public class RecordingJdbcTemplate extends JdbcTemplate {
+	/**
+	 * A statement that was run.
+	 *
+	 * @author John Jenkins
+	 */
+	public static final class Recorded {
+		private final String sql;
+		private final List<Object> parameters;
+		private final boolean query;
+
+		/**
+		 * Records a statement.
+		 *
+		 * @param sql The statement.
+		 *
+		 * @param parameters Its parameters, in order.
+		 *
+		 * @param query Whether it was a query.
+		 */
+		private Recorded(
+				final String sql,
+				final List<Object> parameters,
+				final boolean query) {
+
+			this.sql = sql;
+			this.parameters = Collections.unmodifiableList(parameters);
+			this.query = query;
+		}
+
+		/**
+		 * Returns the statement.
+		 *
+		 * @return The statement.
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * Returns the statement's parameters.
+		 *
+		 * @return The parameters, in order.
+		 */
+		public List<Object> getParameters() {
+			return parameters;
+		}
+
+		/**
+		 * Returns whether the statement was a query.
+		 *
+		 * @return True if it was a query; false if it was an update.
+		 */
+		public boolean isQuery() {
+			return query;
+		}
+
+		/**
+		 * Returns the statement and its parameters.
+		 */
+		@Override
+		public String toString() {
+			return sql + " " + parameters;
+		}
+	}
+
+	/**
+	 * The rows that answer a query. The columns may be read by their labels,
+	 * if the table has them, or by their positions.
+	 *
+	 * @author John Jenkins
+	 */
+	public static final class Table {
+		private final List<String> columns;
+		private final List<Object[]> rows = new ArrayList<Object[]>();
+
+		/**
+		 * Creates an empty table.
+		 *
+		 * @param columns The columns' labels, if they are read by label.
+		 */
+		public Table(final String... columns) {
+			this.columns = Arrays.asList(columns);
+		}
+
+		/**
+		 * Adds a row.
+		 *
+		 * @param values The row's values in the order of the columns.
+		 *
+		 * @return This table.
+		 */
+		public Table add(final Object... values) {
+			rows.add(values);
+			return this;
+		}
+
+		/**
+		 * Adds rows.
+		 *
+		 * @param values The rows' values in the order of the columns.
+		 *
+		 * @return This table.
+		 */
+		public Table addAll(final Collection<Object[]> values) {
+			rows.addAll(values);
+			return this;
+		}
+
+		/**
+		 * Returns the rows.
+		 *
+		 * @return The rows, which may be changed.
+		 */
+		public List<Object[]> getRows() {
+			return rows;
+		}
+
+		/**
+		 * Returns the position of a column.
+		 *
+		 * @param column The column's label or its position, from one.
+		 *
+		 * @return The column's position, from zero.
+		 *
+		 * @throws SQLException The table has no such column.
+		 */
+		private int getIndex(final Object column) throws SQLException {
+			int result =
+				(column instanceof Integer) ?
+					((Integer) column) - 1 :
+					columns.indexOf(column);
+			if(result < 0) {
+				throw new SQLException("Unknown column: " + column);
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the number of columns.
+		 *
+		 * @return The number of columns.
+		 */
+		private int getNumColumns() {
+			if(! columns.isEmpty()) {
+				return columns.size();
+			}
+			return (rows.isEmpty()) ? 0 : rows.get(0).length;
+		}
+	}
+
+	private final List<Recorded> statements = new ArrayList<Recorded>();
+
+	/**
+	 * Creates the template around the fake database.
+	 */
+	public RecordingJdbcTemplate() {
+		final Connection connection =
+			proxy(Connection.class, new ConnectionHandler());
+
+		setDataSource(
+			proxy(
+				DataSource.class,
+				new DefaultHandler() {
+					@Override
+					protected Object handle(
+							final Method method,
+							final Object[] args)
+							throws SQLException {
+
+						if("getConnection".equals(method.getName())) {
+							return connection;
+						}
+						return super.handle(method, args);
+					}
+				}));
+
+		// The errors are translated without looking up the database's
+		// error codes.
+		setExceptionTranslator(new SQLStateSQLExceptionTranslator());
+	}
+
+	/**
+	 * Returns the statements that have been run.
+	 *
+	 * @return The statements in the order in which they were run.
+	 */
+	public List<Recorded> getStatements() {
+		return statements;
+	}
+
+	/**
+	 * Returns the queries that have been run.
+	 *
+	 * @return The queries in the order in which they were run.
+	 */
+	public List<Recorded> getQueries() {
+		List<Recorded> result = new ArrayList<Recorded>();
+		for(Recorded statement : statements) {
+			if(statement.isQuery()) {
+				result.add(statement);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the updates that have been run.
+	 *
+	 * @return The updates in the order in which they were run.
+	 */
+	public List<Recorded> getUpdates() {
+		List<Recorded> result = new ArrayList<Recorded>();
+		for(Recorded statement : statements) {
+			if(! statement.isQuery()) {
+				result.add(statement);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Answers a query. By default, there are no queries.
+	 *
+	 * @param sql The query.
+	 *
+	 * @param parameters Its parameters, in order.
+	 *
+	 * @return Its rows.
+	 *
+	 * @throws SQLException The query fails.
+	 */
+	protected Table answer(
+			final String sql,
+			final List<Object> parameters)
+			throws SQLException {
+
+		throw new UnsupportedOperationException(sql);
+	}
+
+	/**
+	 * Applies an update. By default, every update changes one row.
+	 *
+	 * @param sql The update.
+	 *
+	 * @param parameters Its parameters, in order.
+	 *
+	 * @return The number of rows it changed.
+	 *
+	 * @throws SQLException The update fails.
+	 */
+	protected int apply(
+			final String sql,
+			final List<Object> parameters)
+			throws SQLException {
+
+		return 1;
+	}
+
+	/**
+	 * Returns the key that an insert generated. By default, it is the
+	 * insert's position among the statements that have been run, so every
+	 * insert has its own.
+	 *
+	 * @param sql The insert.
+	 *
+	 * @param parameters Its parameters, in order.
+	 *
+	 * @return The generated key.
+	 *
+	 * @throws SQLException The insert didn't generate a key.
+	 */
+	protected Object getGeneratedKey(
+			final String sql,
+			final List<Object> parameters)
+			throws SQLException {
+
+		return (long) statements.size();
+	}
+
+	/**
+	 * Begins a transaction. By default, transactions do nothing.
+	 */
+	protected void begin() {
+		// Nothing to do.
+	}
+
+	/**
+	 * Commits the transaction. By default, transactions do nothing.
+	 */
+	protected void commit() {
+		// Nothing to do.
+	}
+
+	/**
+	 * Rolls back the transaction. By default, transactions do nothing.
+	 */
+	protected void rollback() {
+		// Nothing to do.
+	}
+
+	/**
+	 * Records and answers a query.
+	 */
+	private ResultSet runQuery(
+			final String sql,
+			final List<Object> parameters)
+			throws SQLException {
+
+		statements.add(new Recorded(sql, parameters, true));
+		return
+			proxy(
+				ResultSet.class,
+				new ResultSetHandler(answer(sql, parameters)));
+	}
+
+	/**
+	 * Records and applies an update.
+	 */
+	private int runUpdate(
+			final String sql,
+			final List<Object> parameters)
+			throws SQLException {
+
+		statements.add(new Recorded(sql, parameters, false));
+		return apply(sql, parameters);
+	}
+
+	/**
+	 * A connection to the fake database, which passes the beginning and end
+	 * of its transactions on to the template.
+	 */
+	private final class ConnectionHandler extends DefaultHandler {
+		private final DatabaseMetaData metaData =
+			proxy(
+				DatabaseMetaData.class,
+				new DefaultHandler() {
+					@Override
+					protected Object handle(
+							final Method method,
+							final Object[] args)
+							throws SQLException {
+
+						String name = method.getName();
+						if("supportsBatchUpdates".equals(name)) {
+							return true;
+						}
+						else if("getDatabaseProductName".equals(name)) {
+							return "MySQL";
+						}
+						else if("getDriverName".equals(name)) {
+							return RecordingJdbcTemplate.class.getSimpleName();
+						}
+						return super.handle(method, args);
+					}
+				});
+
+		/**
+		 * Creates the statements and answers for the database.
+		 */
+		@Override
+		protected Object handle(
+				final Method method,
+				final Object[] args)
+				throws SQLException {
+
+			String name = method.getName();
+			if("prepareStatement".equals(name)) {
+				return
+					proxy(
+						PreparedStatement.class,
+						new StatementHandler(
+							(Connection) getProxy(),
+							(String) args[0]));
+			}
+			else if("createStatement".equals(name)) {
+				return
+					proxy(
+						Statement.class,
+						new StatementHandler((Connection) getProxy(), null));
+			}
+			else if("getMetaData".equals(name)) {
+				return metaData;
+			}
+			else if("getAutoCommit".equals(name)) {
+				return true;
+			}
+			else if("setAutoCommit".equals(name)) {
+				if(! (Boolean) args[0]) {
+					begin();
+				}
+				return null;
+			}
+			else if("commit".equals(name)) {
+				commit();
+				return null;
+			}
+			else if("rollback".equals(name) && (args == null)) {
+				rollback();
+				return null;
+			}
+			return super.handle(method, args);
+		}
+	}
+
+	/**
+	 * A statement, which is run against the fake database. A prepared
+	 * statement has its SQL from the start and collects its parameters; a
+	 * plain one is given its SQL when it is run.
+	 */
+	private final class StatementHandler extends DefaultHandler {
+		private final Connection connection;
+		private final String sql;
+		private final Map<Integer, Object> parameters =
+			new TreeMap<Integer, Object>();
+		private final List<Object[]> batch = new ArrayList<Object[]>();
+		private Recorded lastUpdate = null;
+
+		/**
+		 * Creates the statement.
+		 *
+		 * @param connection Its connection.
+		 *
+		 * @param sql Its SQL, if it is a prepared statement.
+		 */
+		private StatementHandler(
+				final Connection connection,
+				final String sql) {
+
+			this.connection = connection;
+			this.sql = sql;
+		}
+
+		/**
+		 * Collects the parameters and runs the statement.
+		 */
+		@Override
+		protected Object handle(
+				final Method method,
+				final Object[] args)
+				throws SQLException {
+
+			String name = method.getName();
+			if(name.startsWith("set") && (args != null) && (args.length >= 2) &&
+				(args[0] instanceof Integer)) {
+
+				parameters.put(
+					(Integer) args[0],
+					("setNull".equals(name)) ? null : args[1]);
+				return null;
+			}
+			else if("clearParameters".equals(name)) {
+				parameters.clear();
+				return null;
+			}
+			else if("executeQuery".equals(name)) {
+				return runQuery(getSql(args), getParameters());
+			}
+			else if("executeUpdate".equals(name)) {
+				lastUpdate =
+					new Recorded(getSql(args), getParameters(), false);
+				return
+					runUpdate(
+						lastUpdate.getSql(),
+						lastUpdate.getParameters());
+			}
+			else if("getGeneratedKeys".equals(name)) {
+				if(lastUpdate == null) {
+					throw new SQLException("Nothing has been inserted.");
+				}
+				return
+					proxy(
+						ResultSet.class,
+						new ResultSetHandler(
+							new Table("GENERATED_KEY")
+								.add(
+									getGeneratedKey(
+										lastUpdate.getSql(),
+										lastUpdate.getParameters()))));
+			}
+			else if("execute".equals(name)) {
+				runUpdate(getSql(args), getParameters());
+				return false;
+			}
+			else if("addBatch".equals(name)) {
+				batch.add(
+					new Object[] { getSql(args), getParameters() });
+				return null;
+			}
+			else if("executeBatch".equals(name)) {
+				int[] result = new int[batch.size()];
+				for(int i = 0; i < result.length; i++) {
+					Object[] entry = batch.get(i);
+					@SuppressWarnings("unchecked")
+					List<Object> entryParameters = (List<Object>) entry[1];
+					result[i] = runUpdate((String) entry[0], entryParameters);
+				}
+				batch.clear();
+				return result;
+			}
+			else if("getConnection".equals(name)) {
+				return connection;
+			}
+			else if("getUpdateCount".equals(name)) {
+				return -1;
+			}
+			return super.handle(method, args);
+		}
+
+		/**
+		 * Returns the SQL of a prepared statement or the one it was given.
+		 */
+		private String getSql(final Object[] args) {
+			return
+				((args != null) && (args.length > 0)) ?
+					(String) args[0] :
+					sql;
+		}
+
+		/**
+		 * Returns the parameters that have been set, in order.
+		 */
+		private List<Object> getParameters() {
+			return new ArrayList<Object>(parameters.values());
+		}
+	}
+
+	/**
+	 * The rows of a query.
+	 */
+	private static final class ResultSetHandler extends DefaultHandler {
+		private final Table table;
+		private int row = -1;
+		private boolean wasNull = false;
+
+		/**
+		 * Creates the rows.
+		 *
+		 * @param table The rows.
+		 */
+		private ResultSetHandler(final Table table) {
+			this.table = table;
+		}
+
+		/**
+		 * Moves through the rows and reads their columns.
+		 */
+		@Override
+		protected Object handle(
+				final Method method,
+				final Object[] args)
+				throws SQLException {
+
+			String name = method.getName();
+			if("next".equals(name)) {
+				row++;
+				return row < table.rows.size();
+			}
+			else if("wasNull".equals(name)) {
+				return wasNull;
+			}
+			else if("getMetaData".equals(name)) {
+				return
+					proxy(
+						ResultSetMetaData.class,
+						new DefaultHandler() {
+							@Override
+							protected Object handle(
+									final Method method,
+									final Object[] args)
+									throws SQLException {
+
+								String name = method.getName();
+								if("getColumnCount".equals(name)) {
+									return table.getNumColumns();
+								}
+								else if(
+									"getColumnLabel".equals(name) ||
+									"getColumnName".equals(name)) {
+
+									return
+										table.columns.get(
+											(Integer) args[0] - 1);
+								}
+								return super.handle(method, args);
+							}
+						});
+			}
+			else if(name.startsWith("get") && (args != null) &&
+				(args.length == 1)) {
+
+				Object value = table.rows.get(row)[table.getIndex(args[0])];
+				wasNull = (value == null);
+				return convert(value, method.getReturnType());
+			}
+			return super.handle(method, args);
+		}
+
+		/**
+		 * Converts a column's value to the type that was asked for.
+		 */
+		private static Object convert(
+				final Object value,
+				final Class<?> type) {
+
+			if(type.isPrimitive()) {
+				if(value == null) {
+					return getDefault(type);
+				}
+				else if(boolean.class.equals(type)) {
+					return
+						(value instanceof Boolean) ?
+							value :
+							((Number) value).intValue() != 0;
+				}
+
+				Number number = (Number) value;
+				if(int.class.equals(type)) {
+					return number.intValue();
+				}
+				else if(long.class.equals(type)) {
+					return number.longValue();
+				}
+				else if(double.class.equals(type)) {
+					return number.doubleValue();
+				}
+				else if(float.class.equals(type)) {
+					return number.floatValue();
+				}
+				else if(short.class.equals(type)) {
+					return number.shortValue();
+				}
+				return number.byteValue();
+			}
+			else if(String.class.equals(type) && (value != null)) {
+				return value.toString();
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Implements the methods of a JDBC object that the fake doesn't need by
+	 * doing nothing and returning the type's default.
+	 */
+	private static class DefaultHandler implements InvocationHandler {
+		private Object proxy;
+
+		/**
+		 * Answers the Object methods and passes the rest on.
+		 */
+		@Override
+		public final Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			this.proxy = proxy;
+
+			String name = method.getName();
+			if("equals".equals(name) && (args.length == 1)) {
+				return proxy == args[0];
+			}
+			else if("hashCode".equals(name) && (args == null)) {
+				return System.identityHashCode(proxy);
+			}
+			else if("toString".equals(name) && (args == null)) {
+				return
+					RecordingJdbcTemplate.class.getSimpleName() + " " +
+						method.getDeclaringClass().getSimpleName();
+			}
+
+			return handle(method, args);
+		}
+
+		/**
+		 * Returns the object whose method is being called.
+		 *
+		 * @return The proxy.
+		 */
+		protected Object getProxy() {
+			return proxy;
+		}
+
+		/**
+		 * Implements a method.
+		 *
+		 * @param method The method.
+		 *
+		 * @param args Its arguments.
+		 *
+		 * @return Its result.
+		 *
+		 * @throws SQLException The method fails.
+		 */
+		protected Object handle(
+				final Method method,
+				final Object[] args)
+				throws SQLException {
+
+			return getDefault(method.getReturnType());
+		}
+	}
+
+	/**
+	 * Returns the default value of a type.
+	 */
+	private static Object getDefault(final Class<?> type) {
+		if(boolean.class.equals(type)) {
+			return false;
+		}
+		else if(int.class.equals(type)) {
+			return 0;
+		}
+		else if(long.class.equals(type)) {
+			return 0L;
+		}
+		else if(double.class.equals(type)) {
+			return 0.0;
+		}
+		else if(float.class.equals(type)) {
+			return 0.0f;
+		}
+		else if(short.class.equals(type)) {
+			return (short) 0;
+		}
+		else if(byte.class.equals(type)) {
+			return (byte) 0;
+		}
+		return null;
+	}
+
+	/**
+	 * Creates an implementation of an interface.
+	 */
+	private static <T> T proxy(
+			final Class<T> type,
+			final InvocationHandler handler) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				type.getClassLoader(),
+				new Class<?>[] { type },
+				handler));
+	}
+}
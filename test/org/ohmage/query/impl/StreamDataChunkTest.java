@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the archived points written to a chunk file are read back
+ * exactly as they were written, that they are limited to a range of
+ * adjusted times the same way the table limits them, and that a chunk is
+ * only ever complete or missing.
+ *
+ * @author John Jenkins
+ */
+public class StreamDataChunkTest extends TestCase {
+	/**
+	 * The adjusted time of the first point.
+	 */
+	private static final long START_TIME = 1350000000000L;
+
+	/**
+	 * The directory for the chunks.
+	 */
+	private File directory;
+
+	/**
+	 * Creates an empty directory for the chunks.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		directory = Files.createTempDirectory("stream-data-chunk").toFile();
+	}
+
+	/**
+	 * Removes the chunks' directory and everything in it.
+	 */
+	@Override
+	protected void tearDown() {
+		delete(directory);
+	}
+
+	/**
+	 * Tests that every column of every point, including the ones that are
+	 * null and text that isn't ASCII, is read back as it was written, in
+	 * the same order, and that the writer tracks the range of adjusted
+	 * times while ignoring the points without one.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<StreamDataChunk.Point> points = createPoints();
+
+		File file =
+			new File(directory, "a/b/chunk" + StreamDataChunk.FILE_EXTENSION);
+		StreamDataChunk.Writer writer = new StreamDataChunk.Writer(file);
+		Assert.assertNull(writer.getMinTimeAdjusted());
+		Assert.assertNull(writer.getMaxTimeAdjusted());
+		for(StreamDataChunk.Point point : points) {
+			writer.write(point);
+		}
+
+		// Nothing is in place until the chunk is closed.
+		Assert.assertFalse(file.exists());
+		writer.close();
+		Assert.assertTrue(file.exists());
+		Assert.assertEquals(Arrays.asList(file), listFiles(file.getParentFile()));
+
+		Assert.assertEquals(points.size(), writer.getNumPoints());
+		Assert.assertEquals(START_TIME, writer.getMinTimeAdjusted().longValue());
+		Assert.assertEquals(
+			START_TIME + 3000,
+			writer.getMaxTimeAdjusted().longValue());
+
+		assertPoints(points, StreamDataChunk.read(file, null, null));
+	}
+
+	/**
+	 * Tests that a range includes its ends, that either end may be left
+	 * open, and that the points without an adjusted time are only read
+	 * without a range.
+	 */
+	@Test
+	public void testRange() throws IOException {
+		List<StreamDataChunk.Point> points = createPoints();
+		File file = write("chunk", points);
+
+		// The points in order: 0, 1000, untimed, 2000, 3000, and untimed.
+		assertPoints(
+			Arrays.asList(points.get(1), points.get(3), points.get(4)),
+			StreamDataChunk.read(file, START_TIME + 1000, START_TIME + 3000));
+		assertPoints(
+			Arrays.asList(points.get(1), points.get(3)),
+			StreamDataChunk.read(file, START_TIME + 1000, START_TIME + 2000));
+		assertPoints(
+			Arrays.asList(points.get(3), points.get(4)),
+			StreamDataChunk.read(file, START_TIME + 1500, null));
+		assertPoints(
+			Arrays.asList(points.get(0), points.get(1)),
+			StreamDataChunk.read(file, null, START_TIME + 1999));
+		assertPoints(
+			new ArrayList<StreamDataChunk.Point>(),
+			StreamDataChunk.read(file, START_TIME + 3001, null));
+	}
+
+	/**
+	 * Tests that rewriting a chunk replaces it and that an abandoned chunk
+	 * leaves the previous one alone and nothing else behind.
+	 */
+	@Test
+	public void testReplaceAndAbort() throws IOException {
+		List<StreamDataChunk.Point> points = createPoints();
+		File file = write("chunk", points);
+
+		List<StreamDataChunk.Point> replacement = points.subList(0, 2);
+		write("chunk", replacement);
+		assertPoints(replacement, StreamDataChunk.read(file, null, null));
+
+		StreamDataChunk.Writer writer = new StreamDataChunk.Writer(file);
+		writer.write(points.get(4));
+		writer.abort();
+		writer.close();
+		assertPoints(replacement, StreamDataChunk.read(file, null, null));
+		Assert.assertEquals(Arrays.asList(file), listFiles(directory));
+	}
+
+	/**
+	 * Tests that a file that isn't a chunk, or is cut short, is rejected.
+	 */
+	@Test
+	public void testCorrupt() throws IOException {
+		File notChunk = new File(directory, "not-a-chunk");
+		GZIPOutputStream output =
+			new GZIPOutputStream(new FileOutputStream(notChunk));
+		output.write(new byte[] { 1, 2, 3, 4, 0, 0, 0, 1 });
+		output.close();
+		try {
+			StreamDataChunk.read(notChunk, null, null);
+			fail("A file that isn't a chunk was read.");
+		}
+		catch(IOException e) {
+			// Passed.
+		}
+
+		// A chunk without its end marker is cut short.
+		File file = write("chunk", createPoints());
+		byte[] bytes = gunzip(file);
+		File truncated = new File(directory, "truncated");
+		output = new GZIPOutputStream(new FileOutputStream(truncated));
+		output.write(bytes, 0, bytes.length - 1);
+		output.close();
+		try {
+			StreamDataChunk.read(truncated, null, null);
+			fail("A truncated chunk was read.");
+		}
+		catch(IOException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Creates points with every column set, with the optional columns
+	 * null, and without an adjusted time, which are out of order.
+	 *
+	 * @return The points.
+	 */
+	private static List<StreamDataChunk.Point> createPoints() {
+		List<StreamDataChunk.Point> result =
+			new ArrayList<StreamDataChunk.Point>();
+		result.add(
+			new StreamDataChunk.Point(
+				"uid-0",
+				START_TIME + 3600000,
+				-3600000L,
+				START_TIME,
+				"America/Los_Angeles",
+				"2012-10-12 00:00:00",
+				34.0689,
+				-118.4452,
+				10.5,
+				"gps",
+				"{\"value\":0}"));
+		result.add(
+			new StreamDataChunk.Point(
+				null,
+				START_TIME + 1000,
+				0L,
+				START_TIME + 1000,
+				"UTC",
+				null,
+				null,
+				null,
+				null,
+				null,
+				"{\"text\":\"é漢字\"}"));
+		result.add(
+			new StreamDataChunk.Point(
+				"uid-untimed",
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				"{}"));
+		result.add(
+			new StreamDataChunk.Point(
+				"uid-3",
+				START_TIME + 2000,
+				null,
+				START_TIME + 2000,
+				null,
+				"2012-10-12 00:00:02",
+				-90.0,
+				180.0,
+				0.0,
+				"network",
+				"[]"));
+		result.add(
+			new StreamDataChunk.Point(
+				"uid-4",
+				START_TIME + 3000,
+				0L,
+				START_TIME + 3000,
+				"UTC",
+				null,
+				null,
+				null,
+				null,
+				null,
+				""));
+		result.add(
+			new StreamDataChunk.Point(
+				"uid-5",
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				null,
+				"{\"value\":5}"));
+		return result;
+	}
+
+	/**
+	 * Writes a chunk.
+	 *
+	 * @param name The chunk's name.
+	 *
+	 * @param points The chunk's points.
+	 *
+	 * @return The chunk's file.
+	 */
+	private File write(
+			final String name,
+			final List<StreamDataChunk.Point> points)
+			throws IOException {
+
+		File file = new File(directory, name);
+		StreamDataChunk.Writer writer = new StreamDataChunk.Writer(file);
+		for(StreamDataChunk.Point point : points) {
+			writer.write(point);
+		}
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * Asserts that points have the same columns in the same order.
+	 */
+	private static void assertPoints(
+			final List<StreamDataChunk.Point> expected,
+			final List<StreamDataChunk.Point> actual) {
+
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(toList(expected.get(i)), toList(actual.get(i)));
+		}
+	}
+
+	/**
+	 * Returns a point's columns.
+	 */
+	private static List<Object> toList(final StreamDataChunk.Point point) {
+		return
+			Arrays.<Object>asList(
+				point.getUid(),
+				point.getTime(),
+				point.getTimeOffset(),
+				point.getTimeAdjusted(),
+				point.getTimeZone(),
+				point.getLocationTimestamp(),
+				point.getLocationLatitude(),
+				point.getLocationLongitude(),
+				point.getLocationAccuracy(),
+				point.getLocationProvider(),
+				point.getData());
+	}
+
+	/**
+	 * Returns the files in a directory.
+	 */
+	private static List<File> listFiles(final File directory) {
+		File[] files = directory.listFiles();
+		return (files == null) ? new ArrayList<File>() : Arrays.asList(files);
+	}
+
+	/**
+	 * Decompresses a file.
+	 */
+	private static byte[] gunzip(final File file) throws IOException {
+		GZIPInputStream input =
+			new GZIPInputStream(new FileInputStream(file));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		input.close();
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Deletes a file or a directory and everything in it.
+	 */
+	private static void delete(final File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
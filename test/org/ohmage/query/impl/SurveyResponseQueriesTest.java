@@ -0,0 +1,664 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.ICampaignResponseStatsQueries;
+import org.ohmage.query.IUserActivityQueries;
+
+/**
+ * Tests that the bulk privacy state updates change the survey responses in
+ * bounded statements that skip the responses already in the new state, that
+ * the campaign-wide update limits itself by its filters, and that the
+ * changed and deleted survey responses are moved between the counters.
+ *
+ * @author John Jenkins
+ */
+public class SurveyResponseQueriesTest extends TestCase {
+	private static final String CAMPAIGN_ID = "urn:campaign:a";
+
+	/**
+	 * The database IDs of the privacy states.
+	 */
+	private static final long PRIVATE_ID = 1;
+	private static final long SHARED_ID = 2;
+
+	/**
+	 * The largest number of survey responses in one statement.
+	 */
+	private static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * A JDBC template that records the counts and the updates, knows the
+	 * private and shared privacy states, and whose counts find the same
+	 * rows every time.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class FakeJdbcTemplate extends RecordingJdbcTemplate {
+		private final Table rows =
+			new Table(
+				"urn",
+				"username",
+				"privacy_state",
+				"upload_hour",
+				"response_count",
+				"located_count",
+				"last_upload_timestamp");
+
+		/**
+		 * Adds a row that the counts find.
+		 *
+		 * @param campaignId The survey responses' campaign.
+		 *
+		 * @param username The survey responses' owner.
+		 *
+		 * @param privacyState The survey responses' privacy state.
+		 *
+		 * @param uploadHour The hour in which they were uploaded.
+		 *
+		 * @param count The number of survey responses.
+		 *
+		 * @param locatedCount The number of them with a location.
+		 *
+		 * @param lastUploadMillis The latest of their uploads.
+		 */
+		private void addRow(
+				final String campaignId,
+				final String username,
+				final String privacyState,
+				final long uploadHour,
+				final int count,
+				final int locatedCount,
+				final long lastUploadMillis) {
+
+			rows.add(
+				campaignId,
+				username,
+				privacyState,
+				uploadHour,
+				count,
+				locatedCount,
+				new Timestamp(lastUploadMillis));
+		}
+
+		/**
+		 * Looks up a privacy state or gives the rows to a count.
+		 */
+		@Override
+		protected Table answer(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(
+				SurveyResponseQueries.SQL_GET_SURVEY_RESPONSE_PRIVACY_STATE_ID
+					.equals(sql)) {
+
+				Table result = new Table("id");
+				if("private".equals(parameters.get(0))) {
+					result.add(PRIVATE_ID);
+				}
+				else if("shared".equals(parameters.get(0))) {
+					result.add(SHARED_ID);
+				}
+				return result;
+			}
+			return rows;
+		}
+
+		/**
+		 * Returns the number of times a privacy state was looked up.
+		 */
+		private int getPrivacyStateLookups() {
+			return getQueries().size() - getCounts().size();
+		}
+
+		/**
+		 * Returns the counts, which are every query but the privacy state
+		 * lookups.
+		 */
+		private List<Recorded> getCounts() {
+			List<Recorded> result = new ArrayList<Recorded>();
+			for(Recorded query : getQueries()) {
+				if(
+					! SurveyResponseQueries
+						.SQL_GET_SURVEY_RESPONSE_PRIVACY_STATE_ID
+						.equals(query.getSql())) {
+
+					result.add(query);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Tests that the survey responses are updated in chunks, that each
+	 * chunk is counted before it is updated, that the new privacy state is
+	 * only looked up once, and that the responses already in the new state
+	 * are skipped.
+	 */
+	@Test
+	public void testChunking() throws DataAccessException {
+		List<UUID> ids = new ArrayList<UUID>();
+		for(int i = 0; i < (2 * CHUNK_SIZE) + 1; i++) {
+			ids.add(UUID.randomUUID());
+		}
+
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		int result =
+			queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+				new LinkedHashSet<UUID>(ids),
+				SurveyResponse.PrivacyState.SHARED);
+
+		Assert.assertEquals(3, result);
+		Assert.assertEquals(1, jdbcTemplate.getPrivacyStateLookups());
+		Assert.assertEquals(3, jdbcTemplate.getUpdates().size());
+		Assert.assertEquals(3, jdbcTemplate.getCounts().size());
+		Assert.assertTrue(counters.calls.isEmpty());
+
+		int[] chunkSizes = { CHUNK_SIZE, CHUNK_SIZE, 1 };
+		int offset = 0;
+		for(int i = 0; i < chunkSizes.length; i++) {
+			List<UUID> chunk = ids.subList(offset, offset + chunkSizes[i]);
+			offset += chunkSizes[i];
+
+			Assert.assertEquals(
+				"UPDATE survey_response " +
+					"SET privacy_state_id = ? " +
+					"WHERE privacy_state_id != ? " +
+					"AND uuid IN " + pList(chunk.size()),
+				jdbcTemplate.getUpdates().get(i).getSql());
+			Assert.assertEquals(
+				parameters(chunk, SHARED_ID, SHARED_ID),
+				jdbcTemplate.getUpdates().get(i).getParameters());
+
+			String countSql = jdbcTemplate.getCounts().get(i).getSql();
+			Assert.assertTrue(
+				countSql,
+				countSql.contains(
+					"WHERE sr.privacy_state_id != ? " +
+						"AND sr.uuid IN " + pList(chunk.size()) + " " +
+						"GROUP BY "));
+			Assert.assertTrue(countSql, countSql.endsWith("FOR UPDATE"));
+			Assert.assertEquals(
+				parameters(chunk, SHARED_ID),
+				jdbcTemplate.getCounts().get(i).getParameters());
+		}
+	}
+
+	/**
+	 * Tests that nothing is done without any survey responses.
+	 */
+	@Test
+	public void testNoSurveyResponses() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		Assert.assertEquals(
+			0,
+			queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+				Collections.<UUID>emptySet(),
+				SurveyResponse.PrivacyState.SHARED));
+
+		Assert.assertEquals(0, jdbcTemplate.getPrivacyStateLookups());
+		Assert.assertTrue(jdbcTemplate.getUpdates().isEmpty());
+		Assert.assertTrue(jdbcTemplate.getCounts().isEmpty());
+		Assert.assertTrue(counters.calls.isEmpty());
+	}
+
+	/**
+	 * Tests that a campaign's survey responses are updated with one
+	 * statement that is limited by each of the filters and that the counts
+	 * select the same survey responses.
+	 */
+	@Test
+	public void testFilters() throws DataAccessException {
+		DateTime startDate = new DateTime(1000L);
+		DateTime endDate = new DateTime(2000L);
+
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		Assert.assertEquals(
+			1,
+			queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+				CAMPAIGN_ID,
+				Arrays.asList("user.a", "user.b"),
+				startDate,
+				endDate,
+				SurveyResponse.PrivacyState.PRIVATE,
+				SurveyResponse.PrivacyState.SHARED));
+
+		Assert.assertEquals(1, jdbcTemplate.getUpdates().size());
+		Assert.assertEquals(
+			"UPDATE survey_response sr " +
+				"JOIN campaign c ON sr.campaign_id = c.id " +
+				"JOIN user u ON sr.user_id = u.id " +
+			"SET sr.privacy_state_id = ? " +
+			"WHERE c.urn = ? " +
+			"AND sr.privacy_state_id != ?" +
+			" AND u.username IN (?,?)" +
+			" AND sr.epoch_millis >= ?" +
+			" AND sr.epoch_millis <= ?" +
+			" AND sr.privacy_state_id = ?",
+			jdbcTemplate.getUpdates().get(0).getSql());
+		Assert.assertEquals(
+			Arrays.<Object>asList(
+				SHARED_ID, CAMPAIGN_ID, SHARED_ID,
+				"user.a", "user.b",
+				1000L, 2000L,
+				PRIVATE_ID),
+			jdbcTemplate.getUpdates().get(0).getParameters());
+
+		Assert.assertEquals(1, jdbcTemplate.getCounts().size());
+		String countSql = jdbcTemplate.getCounts().get(0).getSql();
+		Assert.assertTrue(
+			countSql,
+			countSql.contains(
+				"WHERE sr.campaign_id = (SELECT id FROM campaign WHERE urn = ?) " +
+				"AND sr.privacy_state_id != ?" +
+				" AND sr.user_id IN " +
+					"(SELECT id FROM user WHERE username IN (?,?))" +
+				" AND sr.epoch_millis >= ?" +
+				" AND sr.epoch_millis <= ?" +
+				" AND sr.privacy_state_id = ?" +
+				" GROUP BY "));
+		Assert.assertEquals(
+			Arrays.<Object>asList(
+				CAMPAIGN_ID, SHARED_ID,
+				"user.a", "user.b",
+				1000L, 2000L,
+				PRIVATE_ID),
+			jdbcTemplate.getCounts().get(0).getParameters());
+	}
+
+	/**
+	 * Tests that a campaign's survey responses are only limited to those
+	 * that aren't already in the new state without any filters.
+	 */
+	@Test
+	public void testNoFilters() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+			CAMPAIGN_ID,
+			Collections.<String>emptyList(),
+			null,
+			null,
+			null,
+			SurveyResponse.PrivacyState.PRIVATE);
+
+		Assert.assertEquals(1, jdbcTemplate.getPrivacyStateLookups());
+		Assert.assertTrue(
+			jdbcTemplate.getUpdates().get(0).getSql(),
+			jdbcTemplate.getUpdates().get(0).getSql().endsWith(
+				"WHERE c.urn = ? AND sr.privacy_state_id != ?"));
+		Assert.assertEquals(
+			Arrays.<Object>asList(PRIVATE_ID, CAMPAIGN_ID, PRIVATE_ID),
+			jdbcTemplate.getUpdates().get(0).getParameters());
+	}
+
+	/**
+	 * Tests that an unknown privacy state is rejected before anything is
+	 * updated.
+	 */
+	@Test
+	public void testUnknownPrivacyState() {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		try {
+			queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+				CAMPAIGN_ID,
+				null,
+				null,
+				null,
+				null,
+				SurveyResponse.PrivacyState.INVISIBLE);
+			fail("An unknown privacy state was used.");
+		}
+		catch(DataAccessException e) {
+			Assert.assertTrue(
+				e.getMessage(),
+				e.getMessage().contains("The privacy state is unknown"));
+		}
+
+		Assert.assertTrue(jdbcTemplate.getUpdates().isEmpty());
+	}
+
+	/**
+	 * Tests that the survey responses that change privacy state are taken
+	 * out of their old state's counters and added to the new state's, that
+	 * their latest upload comes with them, and that the owners are visited
+	 * in order.
+	 */
+	@Test
+	public void testPrivacyStateChangeCounters() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		jdbcTemplate.addRow(CAMPAIGN_ID, "user.b", "private", 10, 2, 1, 5000);
+		jdbcTemplate.addRow(CAMPAIGN_ID, "user.a", "private", 11, 3, 0, 7000);
+		jdbcTemplate.addRow(CAMPAIGN_ID, "user.a", "invisible", 10, 1, 1, 9000);
+
+		queries(jdbcTemplate, counters).updateSurveyResponsesPrivacyState(
+			Collections.singleton(UUID.randomUUID()),
+			SurveyResponse.PrivacyState.SHARED);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				"updateCampaignResponseStats",
+				"updateSurveyActivity",
+				"updateCampaignResponseStats",
+				"updateSurveyActivity"),
+			counters.calls);
+
+		assertResponseStats(counters, 0, "user.a", changes(-3, 4, -1), 9000);
+		assertActivity(
+			counters,
+			1,
+			"user.a",
+			"private", 11L, 0, -3,
+			"shared", 11L, 0, 3,
+			"shared", 10L, 1, 1,
+			"invisible", 10L, -1, -1);
+
+		assertResponseStats(counters, 2, "user.b", changes(-2, 2, null), 5000);
+		assertActivity(
+			counters,
+			3,
+			"user.b",
+			"private", 10L, -1, -2,
+			"shared", 10L, 1, 2);
+	}
+
+	/**
+	 * Tests that a deleted survey response is only taken out of its
+	 * privacy state's counters.
+	 */
+	@Test
+	public void testDeleteCounters() throws DataAccessException {
+		FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+		Counters counters = new Counters();
+		jdbcTemplate.addRow(CAMPAIGN_ID, "user.a", "shared", 12, 1, 1, 3000);
+
+		UUID id = UUID.randomUUID();
+		queries(jdbcTemplate, counters).deleteSurveyResponse(id);
+
+		Assert.assertEquals(
+			Arrays.<Object>asList(id.toString()),
+			jdbcTemplate.getCounts().get(0).getParameters());
+		Assert.assertEquals(
+			"DELETE FROM survey_response WHERE uuid = ?",
+			jdbcTemplate.getUpdates().get(0).getSql());
+
+		Assert.assertEquals(2, counters.calls.size());
+		assertResponseStats(counters, 0, "user.a", changes(null, -1, null), 3000);
+		assertActivity(counters, 1, "user.a", "shared", 12L, -1, -1);
+	}
+
+	/**
+	 * Builds the changes to a user's survey response counters.
+	 *
+	 * @param privateChange The change to the private state or null.
+	 *
+	 * @param sharedChange The change to the shared state or null.
+	 *
+	 * @param invisibleChange The change to the invisible state or null.
+	 *
+	 * @return The changes.
+	 */
+	private static Map<SurveyResponse.PrivacyState, Integer> changes(
+			final Integer privateChange,
+			final Integer sharedChange,
+			final Integer invisibleChange) {
+
+		Map<SurveyResponse.PrivacyState, Integer> result =
+			new EnumMap<SurveyResponse.PrivacyState, Integer>(
+				SurveyResponse.PrivacyState.class);
+		if(privateChange != null) {
+			result.put(SurveyResponse.PrivacyState.PRIVATE, privateChange);
+		}
+		if(sharedChange != null) {
+			result.put(SurveyResponse.PrivacyState.SHARED, sharedChange);
+		}
+		if(invisibleChange != null) {
+			result.put(SurveyResponse.PrivacyState.INVISIBLE, invisibleChange);
+		}
+		return result;
+	}
+
+	/**
+	 * Asserts that a user's survey response counters were changed.
+	 */
+	private static void assertResponseStats(
+			final Counters counters,
+			final int index,
+			final String username,
+			final Map<SurveyResponse.PrivacyState, Integer> changes,
+			final long lastUploadMillis) {
+
+		Object[] args = counters.callArgs.get(index);
+		Assert.assertEquals(CAMPAIGN_ID, args[0]);
+		Assert.assertEquals(username, args[1]);
+		Assert.assertEquals(changes, args[2]);
+		Assert.assertEquals(lastUploadMillis, args[3]);
+	}
+
+	/**
+	 * Asserts that a user's activity counters were changed.
+	 *
+	 * @param hours The privacy state, hour, located change, and total change
+	 * 				of each changed hour.
+	 */
+	private static void assertActivity(
+			final Counters counters,
+			final int index,
+			final String username,
+			final Object... hours) {
+
+		Object[] args = counters.callArgs.get(index);
+		Assert.assertEquals(username, args[0]);
+		Assert.assertEquals(CAMPAIGN_ID, args[1]);
+
+		@SuppressWarnings("unchecked")
+		Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes =
+			(Map<SurveyResponse.PrivacyState, Map<Long, long[]>>) args[2];
+
+		int changedHours = 0;
+		for(Map<Long, long[]> hourChanges : changes.values()) {
+			changedHours += hourChanges.size();
+		}
+		Assert.assertEquals(hours.length / 4, changedHours);
+
+		for(int i = 0; i < hours.length; i += 4) {
+			long[] change =
+				changes
+					.get(SurveyResponse.PrivacyState.getValue((String) hours[i]))
+					.get(hours[i + 1]);
+			Assert.assertArrayEquals(
+				new long[] {
+					((Integer) hours[i + 2]).longValue(),
+					((Integer) hours[i + 3]).longValue()
+				},
+				change);
+		}
+	}
+
+	/**
+	 * Creates the queries.
+	 *
+	 * @param jdbcTemplate The JDBC template.
+	 *
+	 * @param counters The counters.
+	 *
+	 * @return The queries.
+	 */
+	private static SurveyResponseQueries queries(
+			final FakeJdbcTemplate jdbcTemplate,
+			final Counters counters) {
+
+		return new SurveyResponseQueries(
+			jdbcTemplate,
+			proxy(ICampaignResponseStatsQueries.class, counters),
+			proxy(IUserActivityQueries.class, counters));
+	}
+
+	/**
+	 * Builds the parameters of a statement.
+	 *
+	 * @param ids The survey response IDs, which come last.
+	 *
+	 * @param leading The parameters that come before the IDs.
+	 *
+	 * @return The parameters.
+	 */
+	private static List<Object> parameters(
+			final List<UUID> ids,
+			final Object... leading) {
+
+		List<Object> result = new ArrayList<Object>(Arrays.asList(leading));
+		for(UUID id : ids) {
+			result.add(id.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Builds a parameter list.
+	 *
+	 * @param size The number of parameters.
+	 *
+	 * @return The parameter list, e.g. "(?,?)".
+	 */
+	private static String pList(final int size) {
+		StringBuilder result = new StringBuilder("(");
+		for(int i = 0; i < size; i++) {
+			if(i > 0) {
+				result.append(',');
+			}
+			result.append('?');
+		}
+		return result.append(')').toString();
+	}
+
+	/**
+	 * Creates an implementation of an interface.
+	 *
+	 * @param type The interface.
+	 *
+	 * @param handler The implementation.
+	 *
+	 * @return The implementation.
+	 */
+	private static <T> T proxy(
+			final Class<T> type,
+			final InvocationHandler handler) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				type.getClassLoader(),
+				new Class<?>[] { type },
+				handler));
+	}
+
+	/**
+	 * An implementation that does nothing.
+	 *
+	 * @author John Jenkins
+	 */
+	private static class DefaultHandler implements InvocationHandler {
+		/**
+		 * Returns false, zero, or null, by the method's return type, except
+		 * for the Object methods, which use the proxy's identity.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args) {
+
+			String name = method.getName();
+			if("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			else if("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			else if("toString".equals(name)) {
+				return proxy.getClass().getName();
+			}
+
+			Class<?> returnType = method.getReturnType();
+			if(boolean.class.equals(returnType)) {
+				return false;
+			}
+			else if(int.class.equals(returnType)) {
+				return 0;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The survey response and activity counters, which record their
+	 * changes.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Counters extends DefaultHandler {
+		private final List<String> calls = new ArrayList<String>();
+		private final List<Object[]> callArgs = new ArrayList<Object[]>();
+
+		/**
+		 * Records a change to the counters.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args) {
+
+			String name = method.getName();
+			if(
+				"updateCampaignResponseStats".equals(name) ||
+				"updateSurveyActivity".equals(name)) {
+
+				calls.add(name);
+				callArgs.add(args);
+				return null;
+			}
+			return super.invoke(proxy, method, args);
+		}
+	}
+}
@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.PromptResponse;
+import org.ohmage.domain.campaign.Response;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests that the rows of a survey response read are paged, skipped, and
+ * counted by survey response, that aggregated rows and survey responses
+ * without prompt responses are decoded, and that a stored launch context
+ * or location that can't be decoded fails where it is used.
+ *
+ * @author John Jenkins
+ */
+public class SurveyResponseRowDecoderTest extends TestCase {
+	/**
+	 * A campaign with one survey of two number prompts.
+	 */
+	private static final String CAMPAIGN_XML =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+		"<campaign>" +
+			"<campaignUrn>urn:campaign:ohmage:test:decoder</campaignUrn>" +
+			"<campaignName>Decoder</campaignName>" +
+			"<surveys>" +
+				"<survey>" +
+					"<id>daily</id>" +
+					"<title>Daily</title>" +
+					"<submitText>Thank you.</submitText>" +
+					"<anytime>true</anytime>" +
+					"<contentList>" +
+						numberPrompt("first") +
+						numberPrompt("second") +
+					"</contentList>" +
+				"</survey>" +
+			"</surveys>" +
+		"</campaign>";
+
+	/**
+	 * The columns of an individual read.
+	 */
+	private static final String[] COLUMNS = {
+		"username", "urn",
+		"id", "uuid", "client",
+		"epoch_millis", "phone_timezone",
+		"survey_id", "launch_context",
+		"location_status", "location", "privacy_state",
+		"prompt_id", "response", "repeatable_set_iteration" };
+
+	/**
+	 * The columns of an aggregated read, which has no prompt responses.
+	 */
+	private static final String[] COUNT_COLUMNS = {
+		"username", "urn",
+		"id", "uuid", "client",
+		"epoch_millis", "phone_timezone",
+		"survey_id", "launch_context",
+		"location_status", "location", "privacy_state",
+		"count" };
+
+	/**
+	 * A valid launch context.
+	 */
+	private static final String LAUNCH_CONTEXT =
+		"{\"launch_time\":1357402440000," +
+			"\"launch_timezone\":\"America/Los_Angeles\"," +
+			"\"active_triggers\":[]}";
+
+	/**
+	 * Tests that the decoder skips the survey responses before the page,
+	 * decodes the page with all of each survey response's prompt responses,
+	 * and counts every survey response.
+	 */
+	@Test
+	public void testPaging() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int id = 1; id <= 5; id++) {
+			rows.add(row(id, "first", id * 10));
+			rows.add(row(id, "second", id * 10 + 1));
+		}
+
+		SurveyResponseRowDecoder decoder = decoder(false, 1, 2);
+		List<SurveyResponse> result = decode(decoder, COLUMNS, rows);
+
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(uuid(2), result.get(0).getSurveyResponseId());
+		Assert.assertEquals(
+			Arrays.asList("20", "21"),
+			responses(result.get(0)));
+		Assert.assertEquals(uuid(3), result.get(1).getSurveyResponseId());
+		Assert.assertEquals(
+			Arrays.asList("30", "31"),
+			responses(result.get(1)));
+		Assert.assertEquals(5, decoder.getTotalCount());
+
+		// The whole read.
+		decoder = decoder(false, 0, Long.MAX_VALUE);
+		Assert.assertEquals(5, decode(decoder, COLUMNS, rows).size());
+		Assert.assertEquals(5, decoder.getTotalCount());
+
+		// The last page ends with the last row.
+		decoder = decoder(false, 3, 10);
+		result = decode(decoder, COLUMNS, rows);
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(uuid(5), result.get(1).getSurveyResponseId());
+		Assert.assertEquals(5, decoder.getTotalCount());
+	}
+
+	/**
+	 * Tests that skipping all of the survey responses, or more, returns
+	 * none but still counts them, and that no rows are no survey responses.
+	 */
+	@Test
+	public void testSkipping() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int id = 1; id <= 3; id++) {
+			rows.add(row(id, "first", id));
+			rows.add(row(id, "second", id));
+		}
+
+		SurveyResponseRowDecoder decoder = decoder(false, 3, 10);
+		Assert.assertTrue(decode(decoder, COLUMNS, rows).isEmpty());
+		Assert.assertEquals(3, decoder.getTotalCount());
+
+		decoder = decoder(false, 10, 10);
+		Assert.assertTrue(decode(decoder, COLUMNS, rows).isEmpty());
+		Assert.assertEquals(3, decoder.getTotalCount());
+
+		decoder = decoder(false, 0, 10);
+		Assert.assertTrue(
+			decode(decoder, COLUMNS, new ArrayList<Object[]>()).isEmpty());
+		Assert.assertEquals(0, decoder.getTotalCount());
+
+		try {
+			decoder(false, 0, 10).getTotalCount();
+			Assert.fail("The total count was returned before decoding.");
+		}
+		catch(IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests that a survey response without any prompt responses, which has
+	 * one row whose prompt response columns are null, is decoded and doesn't
+	 * take the next survey response's rows.
+	 */
+	@Test
+	public void testNoPromptResponses() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(row(1, "first", 1));
+		rows.add(row(2, null, null));
+		rows.add(row(3, "first", 3));
+		rows.add(row(3, "second", 4));
+
+		SurveyResponseRowDecoder decoder = decoder(false, 0, 10);
+		List<SurveyResponse> result = decode(decoder, COLUMNS, rows);
+
+		Assert.assertEquals(3, result.size());
+		Assert.assertTrue(result.get(1).getResponses().isEmpty());
+		Assert.assertEquals(
+			Arrays.asList("3", "4"),
+			responses(result.get(2)));
+		Assert.assertEquals(3, decoder.getTotalCount());
+
+		// It may also be the last survey response of a page.
+		decoder = decoder(false, 1, 1);
+		result = decode(decoder, COLUMNS, rows);
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals(uuid(2), result.get(0).getSurveyResponseId());
+		Assert.assertEquals(3, decoder.getTotalCount());
+	}
+
+	/**
+	 * Tests that aggregated rows, which have a count and no prompt response
+	 * columns, are one survey response each.
+	 */
+	@Test
+	public void testWithCount() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int id = 1; id <= 4; id++) {
+			Object[] row = Arrays.copyOf(row(id, null, null), 13);
+			row[12] = (long) (id * 7);
+			rows.add(row);
+		}
+
+		SurveyResponseRowDecoder decoder = decoder(true, 1, 2);
+		List<SurveyResponse> result = decode(decoder, COUNT_COLUMNS, rows);
+
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(14, result.get(0).getCount());
+		Assert.assertEquals(21, result.get(1).getCount());
+		Assert.assertTrue(result.get(0).getResponses().isEmpty());
+		Assert.assertEquals(4, decoder.getTotalCount());
+	}
+
+	/**
+	 * Tests that a stored launch context that isn't valid JSON is only
+	 * decoded when it is used, that it fails with a DomainException there,
+	 * and that comparing survey responses doesn't fail.
+	 */
+	@Test
+	public void testInvalidLaunchContext() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		Object[] row = row(1, "first", 1);
+		row[8] = "{\"launch_time\":";
+		rows.add(row);
+		rows.add(row(2, "first", 2));
+
+		List<SurveyResponse> result =
+			decode(decoder(false, 0, 10), COLUMNS, rows);
+		SurveyResponse corrupt = result.get(0);
+
+		try {
+			corrupt.getLaunchContext();
+			Assert.fail("The invalid launch context was decoded.");
+		}
+		catch(DomainException e) {
+			// Expected.
+		}
+
+		try {
+			corrupt.toJson(
+				false, false, false, false, false, false, false, false,
+				false, false, false, true, false, false, false, false,
+				false);
+			Assert.fail("The invalid launch context was serialized.");
+		}
+		catch(DomainException e) {
+			// Expected.
+		}
+
+		Assert.assertEquals(corrupt.hashCode(), corrupt.hashCode());
+		Assert.assertTrue(corrupt.equals(corrupt));
+		Assert.assertFalse(corrupt.equals(result.get(1)));
+		Assert.assertFalse(result.get(1).equals(corrupt));
+		Assert.assertNotNull(result.get(1).getLaunchContext());
+	}
+
+	/**
+	 * Tests that a stored location that isn't valid is only decoded when it
+	 * is used and that it fails with a DomainException there, which is what
+	 * the survey response read reports as a failure for both its JSON and
+	 * its CSV output, and that the rest of the survey response can still be
+	 * read.
+	 */
+	@Test
+	public void testInvalidLocation() throws Exception {
+		String[] locations = { "{\"latitude\":", "{}" };
+		for(String location : locations) {
+			List<Object[]> rows = new ArrayList<Object[]>();
+			Object[] row = row(1, "first", 1);
+			row[9] = "valid";
+			row[10] = location;
+			rows.add(row);
+
+			List<SurveyResponse> result =
+				decode(decoder(false, 0, 10), COLUMNS, rows);
+			SurveyResponse corrupt = result.get(0);
+			Assert.assertTrue(corrupt.hasLocation());
+
+			// The CSV output reads each column of the location from it.
+			try {
+				corrupt.getLocation();
+				Assert.fail("The invalid location was decoded: " + location);
+			}
+			catch(DomainException e) {
+				// Expected.
+			}
+
+			try {
+				corrupt.toJson(
+					false, false, false, false, false, false, true, true,
+					false, false, false, false, false, false, false, false,
+					false);
+				Assert.fail("The invalid location was serialized: " + location);
+			}
+			catch(DomainException e) {
+				// Expected.
+			}
+
+			Assert.assertEquals(
+				"valid",
+				corrupt.toJson(
+					false, false, false, false, false, false, true, false,
+					false, false, false, false, false, false, false, false,
+					false)
+				.getString("location_status"));
+			Assert.assertTrue(corrupt.equals(corrupt));
+		}
+	}
+
+	/**
+	 * Builds a number prompt.
+	 *
+	 * @param id The prompt's ID.
+	 *
+	 * @return The prompt's XML.
+	 */
+	private static String numberPrompt(final String id) {
+		return
+			"<prompt>" +
+				"<id>" + id + "</id>" +
+				"<displayLabel>" + id + "</displayLabel>" +
+				"<promptText>How many?</promptText>" +
+				"<promptType>number</promptType>" +
+				"<properties>" +
+					"<property><key>min</key><label>0</label></property>" +
+					"<property><key>max</key><label>100</label></property>" +
+				"</properties>" +
+				"<skippable>false</skippable>" +
+			"</prompt>";
+	}
+
+	/**
+	 * Returns the UUID of a survey response.
+	 *
+	 * @param id The survey response's database ID.
+	 *
+	 * @return The survey response's UUID.
+	 */
+	private static UUID uuid(final long id) {
+		return new UUID(0, id);
+	}
+
+	/**
+	 * Builds a row of an individual read.
+	 *
+	 * @param id The survey response's database ID.
+	 *
+	 * @param promptId The prompt's ID or null if the survey response has no
+	 * 				   prompt responses.
+	 *
+	 * @param response The prompt response or null.
+	 *
+	 * @return The row.
+	 */
+	private static Object[] row(
+			final long id,
+			final String promptId,
+			final Object response) {
+
+		return new Object[] {
+			"test.user",
+			"urn:campaign:ohmage:test:decoder",
+			id,
+			uuid(id).toString(),
+			"test",
+			1357402500000L + id,
+			"America/Los_Angeles",
+			"daily",
+			LAUNCH_CONTEXT,
+			"unavailable",
+			null,
+			"private",
+			promptId,
+			(response == null) ? null : response.toString(),
+			null
+		};
+	}
+
+	/**
+	 * Creates a decoder for the test campaign.
+	 *
+	 * @param withCount Whether or not the rows are aggregated.
+	 *
+	 * @param toSkip The number of survey responses to skip.
+	 *
+	 * @param toProcess The number of survey responses to decode.
+	 *
+	 * @return The decoder.
+	 */
+	private static SurveyResponseRowDecoder decoder(
+			final boolean withCount,
+			final long toSkip,
+			final long toProcess)
+			throws DomainException {
+
+		return
+			new SurveyResponseRowDecoder(
+				new Campaign(
+					null,
+					null,
+					null,
+					Campaign.RunningState.RUNNING,
+					Campaign.PrivacyState.SHARED,
+					new Date(),
+					CAMPAIGN_XML,
+					false),
+				withCount,
+				toSkip,
+				toProcess);
+	}
+
+	/**
+	 * Decodes rows.
+	 *
+	 * @param decoder The decoder.
+	 *
+	 * @param columns The rows' columns.
+	 *
+	 * @param rows The rows.
+	 *
+	 * @return The survey responses.
+	 */
+	private static List<SurveyResponse> decode(
+			final SurveyResponseRowDecoder decoder,
+			final String[] columns,
+			final List<Object[]> rows)
+			throws SQLException {
+
+		return
+			decoder.extractData(
+				(ResultSet) Proxy.newProxyInstance(
+					ResultSet.class.getClassLoader(),
+					new Class<?>[] { ResultSet.class },
+					new Rows(columns, rows)));
+	}
+
+	/**
+	 * Returns a survey response's prompt responses in order.
+	 *
+	 * @param surveyResponse The survey response.
+	 *
+	 * @return The prompt responses' values as strings.
+	 */
+	private static List<String> responses(
+			final SurveyResponse surveyResponse) {
+
+		List<String> result = new ArrayList<String>();
+		for(Response response : surveyResponse.getResponses().values()) {
+			result.add(
+				((PromptResponse) response).getResponse().toString());
+		}
+		return result;
+	}
+
+	/**
+	 * A forward-only result set over rows of values that supports what the
+	 * decoder uses.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Rows implements InvocationHandler {
+		private final List<String> columns;
+		private final List<Object[]> rows;
+		private int row = -1;
+		private boolean wasNull = false;
+
+		/**
+		 * Creates the result set's handler.
+		 *
+		 * @param columns The columns.
+		 *
+		 * @param rows The rows.
+		 */
+		private Rows(final String[] columns, final List<Object[]> rows) {
+			this.columns = Arrays.asList(columns);
+			this.rows = rows;
+		}
+
+		/**
+		 * Answers the result set's methods.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws SQLException {
+
+			String name = method.getName();
+			if("next".equals(name)) {
+				if(row < rows.size()) {
+					row++;
+				}
+				return row < rows.size();
+			}
+			else if("isAfterLast".equals(name)) {
+				return row >= rows.size();
+			}
+			else if("findColumn".equals(name)) {
+				int index = columns.indexOf(args[0]);
+				if(index == -1) {
+					throw new SQLException("Unknown column: " + args[0]);
+				}
+				return index + 1;
+			}
+			else if("wasNull".equals(name)) {
+				return wasNull;
+			}
+
+			if((row < 0) || (row >= rows.size())) {
+				throw new SQLException("There is no current row.");
+			}
+			Object value = rows.get(row)[(Integer) args[0] - 1];
+			wasNull = (value == null);
+
+			if("getLong".equals(name)) {
+				return (value == null) ? 0L : ((Number) value).longValue();
+			}
+			else if("getInt".equals(name)) {
+				return (value == null) ? 0 : ((Number) value).intValue();
+			}
+			else if("getString".equals(name)) {
+				return (value == null) ? null : value.toString();
+			}
+			else if("getObject".equals(name)) {
+				return value;
+			}
+
+			throw new UnsupportedOperationException(name);
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.campaign.SurveyResponse;
+
+/**
+ * Tests applying changes to survey responses' privacy states and their
+ * deletion to the activity counters.
+ *
+ * @author John Jenkins
+ */
+public class UserActivityQueriesTest extends TestCase {
+	private static final String USERNAME = "user.a";
+	private static final String CAMPAIGN_ID = "urn:campaign:a";
+
+	/**
+	 * A database with the user_activity_survey_hourly counts, the
+	 * user_activity_survey_stats latest times, and the survey responses
+	 * from which the latest times are computed. Everything belongs to the
+	 * one user and campaign.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ActivityDatabase extends RecordingJdbcTemplate {
+		// The hourly counts: privacy state and hour to located and total.
+		private final Map<List<Object>, List<Long>> hourly =
+			new HashMap<List<Object>, List<Long>>();
+
+		// The latest survey response time of each privacy state.
+		private final Map<String, Long> lastSurvey =
+			new HashMap<String, Long>();
+
+		// The survey responses: privacy state and time.
+		private final List<Object[]> responses = new ArrayList<Object[]>();
+
+		/**
+		 * Sets an hour's counts.
+		 *
+		 * @return This database.
+		 */
+		private ActivityDatabase setHour(
+				final String privacyState,
+				final long hour,
+				final long located,
+				final long total) {
+
+			hourly.put(
+				Arrays.<Object>asList(privacyState, hour),
+				Arrays.asList(located, total));
+			return this;
+		}
+
+		/**
+		 * Sets a privacy state's latest survey response time.
+		 *
+		 * @return This database.
+		 */
+		private ActivityDatabase setLastSurvey(
+				final String privacyState,
+				final long millis) {
+
+			lastSurvey.put(privacyState, millis);
+			return this;
+		}
+
+		/**
+		 * Adds a survey response.
+		 *
+		 * @return This database.
+		 */
+		private ActivityDatabase addResponse(
+				final String privacyState,
+				final long millis) {
+
+			responses.add(new Object[] { privacyState, millis });
+			return this;
+		}
+
+		/**
+		 * Changes the counts and the latest times.
+		 */
+		@Override
+		protected int apply(
+				final String sql,
+				final List<Object> parameters) {
+
+			if(UserActivityQueries.SQL_INCREMENT_SURVEY_COUNTS.equals(sql)) {
+				assertOwner(parameters.subList(3, 5));
+
+				List<Object> key =
+					Arrays.asList(parameters.get(5), parameters.get(0));
+				List<Long> counts = hourly.get(key);
+				if(counts == null) {
+					counts = Arrays.asList(0L, 0L);
+				}
+				hourly.put(
+					key,
+					Arrays.asList(
+						counts.get(0) + (Long) parameters.get(1),
+						counts.get(1) + (Long) parameters.get(2)));
+				return 1;
+			}
+			else if(
+				UserActivityQueries.SQL_SUBTRACT_SURVEY_COUNTS.equals(sql)) {
+
+				assertOwner(parameters.subList(5, 7));
+
+				List<Object> key =
+					Arrays.asList(parameters.get(7), parameters.get(4));
+				List<Long> counts = hourly.get(key);
+				if(counts == null) {
+					return 0;
+				}
+				hourly.put(
+					key,
+					Arrays.asList(
+						subtract(counts.get(0), (Long) parameters.get(0)),
+						subtract(counts.get(1), (Long) parameters.get(2))));
+				return 1;
+			}
+			else if(UserActivityQueries.SQL_REFRESH_LAST_SURVEY.equals(sql)) {
+				assertOwner(parameters.subList(0, 2));
+
+				Long latest = null;
+				for(Object[] response : responses) {
+					if(
+						response[0].equals(parameters.get(2)) &&
+						((latest == null) || ((Long) response[1] > latest))) {
+
+						latest = (Long) response[1];
+					}
+				}
+				if(latest == null) {
+					return 0;
+				}
+				lastSurvey.put((String) parameters.get(2), latest);
+				return 1;
+			}
+			else if(
+				UserActivityQueries.SQL_DELETE_EMPTY_LAST_SURVEY.equals(sql)) {
+
+				assertOwner(parameters.subList(0, 2));
+
+				for(Object[] response : responses) {
+					if(response[0].equals(parameters.get(2))) {
+						return 0;
+					}
+				}
+				return (lastSurvey.remove(parameters.get(2)) == null) ? 0 : 1;
+			}
+			throw new UnsupportedOperationException(sql);
+		}
+
+		/**
+		 * Returns the privacy states and hours of the hourly counts that
+		 * were changed, in the order in which they were changed.
+		 */
+		private List<List<Object>> getChangedHours() {
+			List<List<Object>> result = new ArrayList<List<Object>>();
+			for(Recorded update : getUpdates()) {
+				String sql = update.getSql();
+				List<Object> parameters = update.getParameters();
+				if(UserActivityQueries.SQL_INCREMENT_SURVEY_COUNTS.equals(sql)) {
+					result.add(
+						Arrays.asList(parameters.get(5), parameters.get(0)));
+				}
+				else if(
+					UserActivityQueries.SQL_SUBTRACT_SURVEY_COUNTS
+						.equals(sql)) {
+
+					result.add(
+						Arrays.asList(parameters.get(7), parameters.get(4)));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Asserts that a statement is for the user and campaign.
+		 */
+		private static void assertOwner(final List<Object> owner) {
+			Assert.assertEquals(
+				Arrays.<Object>asList(USERNAME, CAMPAIGN_ID),
+				owner);
+		}
+
+		/**
+		 * Subtracts from a count, never going below zero.
+		 */
+		private static long subtract(final long count, final long change) {
+			return (count > change) ? count - change : 0;
+		}
+	}
+
+	/**
+	 * Tests that moving responses from one privacy state to another
+	 * subtracts them from the old state's hourly counts, never going below
+	 * zero, adds them to the new one's, and recomputes both states' latest
+	 * times, and that the hours are changed in a fixed order.
+	 */
+	@Test
+	public void testPrivacyStateChange() throws Exception {
+		// Three responses in hour 10 and one in hour 20 move to shared.
+		ActivityDatabase database = new ActivityDatabase()
+			.setHour("private", 10L, 1, 4)
+			.setHour("private", 20L, 2, 1)
+			.setHour("shared", 10L, 0, 1)
+			.setLastSurvey("private", 2000L)
+			.setLastSurvey("shared", 1000L)
+			.addResponse("private", 1100L)
+			.addResponse("shared", 1000L)
+			.addResponse("shared", 1200L)
+			.addResponse("shared", 2000L);
+
+		Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes =
+			new HashMap<SurveyResponse.PrivacyState, Map<Long, long[]>>();
+		changes.put(
+			SurveyResponse.PrivacyState.SHARED,
+			hours(20L, 1, 1, 10L, 0, 3));
+		changes.put(
+			SurveyResponse.PrivacyState.PRIVATE,
+			hours(20L, -1, -1, 10L, 0, -3));
+
+		new UserActivityQueries(database)
+			.updateSurveyActivity(USERNAME, CAMPAIGN_ID, changes);
+
+		ActivityDatabase expected = new ActivityDatabase()
+			.setHour("private", 10L, 1, 1)
+			.setHour("private", 20L, 1, 0)
+			.setHour("shared", 10L, 0, 4)
+			.setHour("shared", 20L, 1, 1)
+			.setLastSurvey("private", 1100L)
+			.setLastSurvey("shared", 2000L);
+		Assert.assertEquals(expected.hourly, database.hourly);
+		Assert.assertEquals(expected.lastSurvey, database.lastSurvey);
+
+		// Concurrent changes lock the counts in the same order: by privacy
+		// state and then by hour.
+		Assert.assertEquals(
+			Arrays.asList(
+				Arrays.<Object>asList("private", 10L),
+				Arrays.<Object>asList("private", 20L),
+				Arrays.<Object>asList("shared", 10L),
+				Arrays.<Object>asList("shared", 20L)),
+			database.getChangedHours());
+	}
+
+	/**
+	 * Tests that subtracting more than an hour has leaves it at zero.
+	 */
+	@Test
+	public void testNeverNegative() throws Exception {
+		ActivityDatabase database = new ActivityDatabase()
+			.setHour("shared", 7L, 1, 2)
+			.addResponse("shared", 1000L);
+
+		Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes =
+			new HashMap<SurveyResponse.PrivacyState, Map<Long, long[]>>();
+		Map<Long, long[]> hourChanges = new HashMap<Long, long[]>();
+		hourChanges.put(7L, new long[] { -3, -5 });
+		changes.put(SurveyResponse.PrivacyState.SHARED, hourChanges);
+
+		new UserActivityQueries(database)
+			.updateSurveyActivity(USERNAME, CAMPAIGN_ID, changes);
+
+		Assert.assertEquals(
+			new ActivityDatabase().setHour("shared", 7L, 0, 0).hourly,
+			database.hourly);
+	}
+
+	/**
+	 * Tests that deleting responses only subtracts from their privacy
+	 * state's counts, that hours whose counts did not change are skipped,
+	 * and that a privacy state without any responses left loses its
+	 * latest time.
+	 */
+	@Test
+	public void testDelete() throws Exception {
+		ActivityDatabase database = new ActivityDatabase()
+			.setHour("invisible", 5L, 1, 1)
+			.setHour("invisible", 6L, 0, 2)
+			.setHour("shared", 5L, 1, 1)
+			.setLastSurvey("invisible", 3000L)
+			.setLastSurvey("shared", 1000L)
+			.addResponse("shared", 1000L);
+
+		Map<SurveyResponse.PrivacyState, Map<Long, long[]>> changes =
+			new HashMap<SurveyResponse.PrivacyState, Map<Long, long[]>>();
+		changes.put(
+			SurveyResponse.PrivacyState.INVISIBLE,
+			hours(5L, -1, -1, 6L, 0, 0));
+
+		new UserActivityQueries(database)
+			.updateSurveyActivity(USERNAME, CAMPAIGN_ID, changes);
+
+		ActivityDatabase expected = new ActivityDatabase()
+			.setHour("invisible", 5L, 0, 0)
+			.setHour("invisible", 6L, 0, 2)
+			.setHour("shared", 5L, 1, 1)
+			.setLastSurvey("shared", 1000L);
+		Assert.assertEquals(expected.hourly, database.hourly);
+		Assert.assertEquals(expected.lastSurvey, database.lastSurvey);
+		Assert.assertEquals(
+			Arrays.asList(Arrays.<Object>asList("invisible", 5L)),
+			database.getChangedHours());
+	}
+
+	/**
+	 * Tests that there are no updates without changes.
+	 */
+	@Test
+	public void testNoChanges() throws Exception {
+		ActivityDatabase database = new ActivityDatabase();
+		new UserActivityQueries(database)
+			.updateSurveyActivity(
+				USERNAME,
+				CAMPAIGN_ID,
+				new HashMap<SurveyResponse.PrivacyState, Map<Long, long[]>>());
+
+		Assert.assertTrue(database.getStatements().isEmpty());
+	}
+
+	/**
+	 * Builds the changes for two hours.
+	 *
+	 * @return The changes: located and total, by hour.
+	 */
+	private static Map<Long, long[]> hours(
+			final long firstHour,
+			final long firstLocated,
+			final long firstTotal,
+			final long secondHour,
+			final long secondLocated,
+			final long secondTotal) {
+
+		Map<Long, long[]> result = new HashMap<Long, long[]>();
+		result.put(firstHour, new long[] { firstLocated, firstTotal });
+		result.put(secondHour, new long[] { secondLocated, secondTotal });
+		return result;
+	}
+}
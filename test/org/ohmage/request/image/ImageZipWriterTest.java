@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.campaign.PromptResponseImage;
+
+/**
+ * Tests that the ZIP writer keeps the images in order, skips the ones that
+ * cannot be read, and reports the prompt response after which a batch read
+ * should continue.
+ *
+ * @author John Jenkins
+ */
+public class ImageZipWriterTest extends TestCase {
+	/**
+	 * The start of a PNG, which is stored without compression.
+	 */
+	private static final byte[] PNG_HEADER =
+		{ (byte) 0x89, 'P', 'N', 'G', '\r', '\n' };
+
+	private final List<File> files = new ArrayList<File>();
+
+	/**
+	 * Deletes the images' files.
+	 */
+	@Override
+	protected void tearDown() {
+		for(File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that no continuation point is reported before any image is
+	 * written.
+	 */
+	@Test
+	public void testEmpty() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageZipWriter writer = new ImageZipWriter(output);
+		writer.finish();
+
+		Assert.assertEquals(-1, writer.getLastPromptResponseId());
+		Assert.assertEquals(0, writer.getNumWritten());
+		Assert.assertTrue(read(output.toByteArray()).isEmpty());
+	}
+
+	/**
+	 * Tests that more images than are read ahead are all written in the
+	 * order they were added, that PNGs are stored and anything else is
+	 * deflated, and that the continuation point is the last prompt response.
+	 */
+	@Test
+	public void testOrderAndMethods() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageZipWriter writer = new ImageZipWriter(output);
+
+		Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+		for(int i = 1; i <= 20; i++) {
+			byte[] contents = contents(i, (i % 2) == 0);
+			PromptResponseImage image = image(i * 10, contents);
+			writer.add(image);
+			expected.put(image.getImageId() + ".png", contents);
+		}
+		writer.finish();
+
+		Assert.assertEquals(200, writer.getLastPromptResponseId());
+		Assert.assertEquals(20, writer.getNumWritten());
+
+		Map<String, Entry> entries = read(output.toByteArray());
+		Assert.assertEquals(
+			new ArrayList<String>(expected.keySet()),
+			new ArrayList<String>(entries.keySet()));
+
+		int i = 1;
+		for(String name : expected.keySet()) {
+			Entry entry = entries.get(name);
+			Assert.assertArrayEquals(expected.get(name), entry.contents);
+			Assert.assertEquals(
+				((i % 2) == 0) ? ZipEntry.STORED : ZipEntry.DEFLATED,
+				entry.method);
+			i++;
+		}
+	}
+
+	/**
+	 * Tests that an image that cannot be read is skipped, but still counts
+	 * toward the continuation point so that continuing does not retry it
+	 * forever.
+	 */
+	@Test
+	public void testUnreadableImages() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageZipWriter writer = new ImageZipWriter(output);
+
+		PromptResponseImage first = image(1, contents(1, true));
+		writer.add(first);
+		writer.add(missingImage(2));
+		writer.add(image(3, contents(3, false)));
+		writer.add(missingImage(4));
+		writer.finish();
+
+		Assert.assertEquals(4, writer.getLastPromptResponseId());
+		Assert.assertEquals(2, writer.getNumWritten());
+		Assert.assertEquals(2, read(output.toByteArray()).size());
+	}
+
+	/**
+	 * Tests that an image that is referenced by more than one prompt
+	 * response is only written once.
+	 */
+	@Test
+	public void testDuplicateImages() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageZipWriter writer = new ImageZipWriter(output);
+
+		PromptResponseImage image = image(1, contents(1, true));
+		writer.add(image);
+		writer.add(
+			new PromptResponseImage(
+				2,
+				image.getImageId(),
+				image.getUrl()));
+		writer.finish();
+
+		Assert.assertEquals(1, writer.getLastPromptResponseId());
+		Assert.assertEquals(1, writer.getNumWritten());
+		Assert.assertEquals(1, read(output.toByteArray()).size());
+	}
+
+	/**
+	 * Tests that the continuation point after an aborted ZIP is the last
+	 * image that was actually written, so continuing from it repeats
+	 * nothing and loses nothing.
+	 */
+	@Test
+	public void testAbort() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageZipWriter writer = new ImageZipWriter(output);
+
+		for(int i = 1; i <= 10; i++) {
+			writer.add(image(i, contents(i, true)));
+		}
+		long lastWritten = writer.getLastPromptResponseId();
+		writer.abort();
+
+		// Eight images are read ahead of the one being written.
+		Assert.assertEquals(2, lastWritten);
+		Assert.assertEquals(2, writer.getNumWritten());
+		Assert.assertEquals(lastWritten, writer.getLastPromptResponseId());
+	}
+
+	/**
+	 * Creates an image's contents.
+	 *
+	 * @param seed Varies the contents.
+	 *
+	 * @param png Whether or not the contents should look like a PNG.
+	 *
+	 * @return The contents.
+	 */
+	private static byte[] contents(final int seed, final boolean png) {
+		byte[] result = new byte[10000 + seed];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = (byte) ((i * seed) % 251);
+		}
+		if(png) {
+			System.arraycopy(PNG_HEADER, 0, result, 0, PNG_HEADER.length);
+		}
+		else {
+			result[0] = 'x';
+		}
+		return result;
+	}
+
+	/**
+	 * Writes an image to a local file and returns a reference to it.
+	 *
+	 * @param promptResponseId The referencing prompt response's identifier.
+	 *
+	 * @param contents The image's contents.
+	 *
+	 * @return The reference to the image.
+	 */
+	private PromptResponseImage image(
+			final long promptResponseId,
+			final byte[] contents)
+			throws IOException {
+
+		File file = File.createTempFile("image-zip-writer", ".img");
+		files.add(file);
+
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(contents);
+		}
+		finally {
+			output.close();
+		}
+
+		return
+			new PromptResponseImage(
+				promptResponseId,
+				UUID.randomUUID(),
+				file.toURI().toURL());
+	}
+
+	/**
+	 * Returns a reference to an image whose file does not exist.
+	 *
+	 * @param promptResponseId The referencing prompt response's identifier.
+	 *
+	 * @return The reference to the image.
+	 */
+	private PromptResponseImage missingImage(final long promptResponseId)
+			throws IOException {
+
+		File file = File.createTempFile("image-zip-writer", ".img");
+		Assert.assertTrue(file.delete());
+
+		return
+			new PromptResponseImage(
+				promptResponseId,
+				UUID.randomUUID(),
+				file.toURI().toURL());
+	}
+
+	/**
+	 * Reads the entries of a ZIP in order.
+	 *
+	 * @param zip The ZIP.
+	 *
+	 * @return The entries by their names.
+	 */
+	private static Map<String, Entry> read(final byte[] zip)
+			throws IOException {
+
+		Map<String, Entry> result = new LinkedHashMap<String, Entry>();
+
+		ZipInputStream input =
+			new ZipInputStream(new ByteArrayInputStream(zip));
+		try {
+			ZipEntry zipEntry;
+			while((zipEntry = input.getNextEntry()) != null) {
+				ByteArrayOutputStream contents = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int read;
+				while((read = input.read(buffer)) != -1) {
+					contents.write(buffer, 0, read);
+				}
+
+				result.put(
+					zipEntry.getName(),
+					new Entry(zipEntry.getMethod(), contents.toByteArray()));
+			}
+		}
+		finally {
+			input.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * An entry that was read from a ZIP.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Entry {
+		private final int method;
+		private final byte[] contents;
+
+		/**
+		 * Creates an entry.
+		 *
+		 * @param method The entry's compression method.
+		 *
+		 * @param contents The entry's contents.
+		 */
+		private Entry(final int method, final byte[] contents) {
+			this.method = method;
+			this.contents = contents;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.ExportJob;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IExportJobQueries;
+import org.ohmage.request.InputKeys;
+
+/**
+ * Tests that export jobs are submitted without their credentials, that
+ * identical submissions from the same user share a job, and that a job may
+ * only be read by its owner.
+ *
+ * @author John Jenkins
+ */
+public class ExportJobServicesTest extends TestCase {
+	private static final String CAMPAIGN_URN = "campaign_urn";
+	private static final String OUTPUT_FORMAT = "output_format";
+
+	/**
+	 * The jobs behind the export job services. The services are a singleton,
+	 * so they are only created once and the jobs are cleared for each test.
+	 */
+	private static final Jobs JOBS = new Jobs();
+
+	static {
+		try {
+			// Spring creates the services through their private
+			// constructor, so the test does the same.
+			Constructor<ExportJobServices> constructor =
+				ExportJobServices.class.getDeclaredConstructor(
+					IExportJobQueries.class);
+			constructor.setAccessible(true);
+			constructor.newInstance(
+				Proxy.newProxyInstance(
+					IExportJobQueries.class.getClassLoader(),
+					new Class<?>[] { IExportJobQueries.class },
+					JOBS));
+		}
+		catch(Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Removes the jobs.
+	 */
+	@Override
+	protected void setUp() {
+		JOBS.clear();
+	}
+
+	/**
+	 * Tests that the token, password, and export flag are not kept with the
+	 * job, that the username is only dropped along with a password, and that
+	 * everything else is.
+	 */
+	@Test
+	public void testCredentialsNotKept() throws ServiceException {
+		Map<String, String[]> parameters = parameters("urn:campaign:a", "csv");
+		parameters.put(InputKeys.USER, new String[] { "user.a" });
+		parameters.put(InputKeys.PASSWORD, new String[] { "secret" });
+		parameters.put(InputKeys.EXPORT_REQUEST, new String[] { "true" });
+		parameters.put(InputKeys.CLIENT, new String[] { "test" });
+
+		ExportJob job = submit("user.a", parameters);
+		Map<String, String[]> kept = job.getParameters();
+		Assert.assertFalse(kept.containsKey(InputKeys.PASSWORD));
+		Assert.assertFalse(kept.containsKey(InputKeys.USER));
+		Assert.assertFalse(kept.containsKey(InputKeys.EXPORT_REQUEST));
+		Assert.assertArrayEquals(
+			new String[] { "urn:campaign:a" },
+			kept.get(CAMPAIGN_URN));
+		Assert.assertArrayEquals(
+			new String[] { "test" },
+			kept.get(InputKeys.CLIENT));
+		Assert.assertEquals(ExportJob.Status.QUEUED, job.getStatus());
+
+		// Without a password, the user is a parameter of the read.
+		parameters = parameters("urn:campaign:b", "csv");
+		parameters.put(InputKeys.AUTH_TOKEN, new String[] { "token" });
+		parameters.put(InputKeys.USER, new String[] { "user.b" });
+
+		kept = submit("user.a", parameters).getParameters();
+		Assert.assertFalse(kept.containsKey(InputKeys.AUTH_TOKEN));
+		Assert.assertArrayEquals(
+			new String[] { "user.b" },
+			kept.get(InputKeys.USER));
+	}
+
+	/**
+	 * Tests that a user's identical submissions share a job, whatever the
+	 * order of their parameters, their client, and how they authenticated,
+	 * and that anything else that differs gets its own job.
+	 */
+	@Test
+	public void testIdenticalSubmissionsShareJob() throws ServiceException {
+		Map<String, String[]> first = new LinkedHashMap<String, String[]>();
+		first.put(InputKeys.AUTH_TOKEN, new String[] { "token" });
+		first.put(InputKeys.CLIENT, new String[] { "one" });
+		first.putAll(parameters("urn:campaign:a", "csv"));
+
+		Map<String, String[]> second = new LinkedHashMap<String, String[]>();
+		second.put(OUTPUT_FORMAT, new String[] { "csv" });
+		second.put(CAMPAIGN_URN, new String[] { "urn:campaign:a" });
+		second.put(InputKeys.CLIENT, new String[] { "two" });
+		second.put(InputKeys.USER, new String[] { "user.a" });
+		second.put(InputKeys.PASSWORD, new String[] { "secret" });
+
+		UUID id = submit("user.a", first).getId();
+		Assert.assertEquals(id, submit("user.a", second).getId());
+		Assert.assertEquals(1, JOBS.created);
+
+		// Another user.
+		Assert.assertFalse(id.equals(submit("user.b", first).getId()));
+
+		// Another parameter value.
+		Assert.assertFalse(
+			id.equals(
+				submit("user.a", parameters("urn:campaign:a", "json-rows"))
+					.getId()));
+
+		// Another read.
+		Assert.assertFalse(
+			id.equals(
+				ExportJobServices.instance().submitJob(
+					"user.a",
+					"test",
+					ExportJob.Type.STREAM_READ,
+					first).getId()));
+
+		Assert.assertEquals(4, JOBS.created);
+	}
+
+	/**
+	 * Tests that only a job's owner may read it.
+	 */
+	@Test
+	public void testOwnership() throws ServiceException {
+		UUID id =
+			submit("user.a", parameters("urn:campaign:a", "csv")).getId();
+
+		Assert.assertEquals(
+			id,
+			ExportJobServices.instance().getJob("user.a", id).getId());
+
+		try {
+			ExportJobServices.instance().getJob("user.b", id);
+			fail("Another user read the job.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(
+				e.getMessage(),
+				e.getMessage().contains("does not own"));
+		}
+
+		try {
+			ExportJobServices.instance().getJob("user.a", UUID.randomUUID());
+			fail("An unknown job was read.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(
+				e.getMessage(),
+				e.getMessage().contains("does not exist"));
+		}
+	}
+
+	/**
+	 * Submits a survey response read.
+	 *
+	 * @param username The submitting user.
+	 *
+	 * @param parameters The submission's parameters.
+	 *
+	 * @return The job.
+	 */
+	private static ExportJob submit(
+			final String username,
+			final Map<String, String[]> parameters)
+			throws ServiceException {
+
+		return
+			ExportJobServices.instance().submitJob(
+				username,
+				"test",
+				ExportJob.Type.SURVEY_RESPONSE_READ,
+				parameters);
+	}
+
+	/**
+	 * Builds the parameters of a read.
+	 *
+	 * @param campaignUrn The campaign.
+	 *
+	 * @param outputFormat The output format.
+	 *
+	 * @return The parameters.
+	 */
+	private static Map<String, String[]> parameters(
+			final String campaignUrn,
+			final String outputFormat) {
+
+		Map<String, String[]> result = new HashMap<String, String[]>();
+		result.put(CAMPAIGN_URN, new String[] { campaignUrn });
+		result.put(OUTPUT_FORMAT, new String[] { outputFormat });
+		return result;
+	}
+
+	/**
+	 * The export job queries, which keep the jobs in memory. Only the calls
+	 * made when submitting and reading a job are supported.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Jobs implements InvocationHandler {
+		private final List<ExportJob> jobs = new ArrayList<ExportJob>();
+		private final Map<UUID, String> hashes = new HashMap<UUID, String>();
+		private int created = 0;
+
+		/**
+		 * Removes the jobs.
+		 */
+		private synchronized void clear() {
+			jobs.clear();
+			hashes.clear();
+			created = 0;
+		}
+
+		/**
+		 * Creates, reads, or finds a job.
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public synchronized Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args) {
+
+			String name = method.getName();
+			if("createJob".equals(name)) {
+				UUID id = (UUID) args[0];
+				jobs.add(
+					new ExportJob(
+						id,
+						(String) args[1],
+						(ExportJob.Type) args[2],
+						(String) args[3],
+						(Map<String, String[]>) args[4],
+						ExportJob.Status.QUEUED,
+						null,
+						null,
+						null,
+						(Long) args[6],
+						null,
+						(Long) args[7]));
+				hashes.put(id, (String) args[5]);
+				created++;
+				return null;
+			}
+			else if("getJob".equals(name)) {
+				for(ExportJob job : jobs) {
+					if(job.getId().equals(args[0])) {
+						return job;
+					}
+				}
+				return null;
+			}
+			else if("getJobByParameters".equals(name)) {
+				for(ExportJob job : jobs) {
+					if(job.getUsername().equals(args[0]) &&
+						hashes.get(job.getId()).equals(args[1])) {
+
+						return job;
+					}
+				}
+				return null;
+			}
+
+			throw new UnsupportedOperationException(name);
+		}
+	}
+}
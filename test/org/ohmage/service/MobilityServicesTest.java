@@ -0,0 +1,519 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.MobilityPoint.ClassifierData;
+import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.domain.MobilityPoint.PrivacyState;
+import org.ohmage.domain.MobilityPoint.SubType;
+import org.ohmage.exception.DomainException;
+import org.ohmage.exception.ServiceException;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests that classifying Mobility points, which computes the features in
+ * parallel and then repeats the classifier's WiFi comparison itself, gives
+ * the same results as giving each point to the classifier in order with
+ * its previous WiFi scans.
+ *
+ * @author John Jenkins
+ */
+public class MobilityServicesTest extends TestCase {
+	/**
+	 * The time of the first point.
+	 */
+	private static final long START_TIME = 1350000000000L;
+
+	/**
+	 * The classifier's window of previous WiFi scans.
+	 */
+	private static final long MAX_MILLIS_OF_PREVIOUS_WIFI_DATA =
+		1000 * 60 * 10;
+
+	/**
+	 * The SSIDs that the random traces choose from.
+	 */
+	private static final String[] SSIDS = {
+		"home-1", "home-2", "home-3", "office-1", "office-2", "cafe",
+		"street-1", "street-2"
+	};
+
+	/**
+	 * A point of a trace. It is built twice so that the classifier and the
+	 * service each get their own copy.
+	 */
+	private static final class PointSpec {
+		private final long time;
+		private final Mode mode;
+		private final String sensorData;
+
+		/**
+		 * Creates a point.
+		 *
+		 * @param time The point's time.
+		 *
+		 * @param mode The point's mode.
+		 *
+		 * @param sensorData The point's sensor data as JSON or null if it is
+		 * 					 a mode-only point.
+		 */
+		private PointSpec(
+				final long time,
+				final Mode mode,
+				final String sensorData) {
+
+			this.time = time;
+			this.mode = mode;
+			this.sensorData = sensorData;
+		}
+
+		/**
+		 * Builds the point.
+		 *
+		 * @return The point.
+		 */
+		private MobilityPoint build() throws DomainException {
+			return
+				new MobilityPoint(
+					UUID.nameUUIDFromBytes(Long.toString(time).getBytes()),
+					time,
+					DateTimeZone.UTC,
+					LocationStatus.UNAVAILABLE,
+					null,
+					mode,
+					PrivacyState.PRIVATE,
+					sensorData,
+					null,
+					null);
+		}
+	}
+
+	/**
+	 * Tests a day of being still at home, walking, driving, an upload
+	 * error, a gap, and being still at work, including repeated and empty
+	 * WiFi scans and scans with one, two, and three access points.
+	 */
+	@Test
+	public void testScriptedDay() throws Exception {
+		Random random = new Random(0);
+		List<PointSpec> trace = new ArrayList<PointSpec>();
+		long time = START_TIME;
+		String[] home = { "home-1", "home-2", "home-3", "home-4", "home-5" };
+		String[] office = { "office-1", "office-2", "office-3" };
+
+		for(int i = 0; i < 10; i++) {
+			trace.add(
+				sensorPoint(random, time, "still", 0.0, 0.05, time, home));
+			time += 60 * 1000;
+		}
+
+		// The phone didn't scan again, so the scans have the same time.
+		long lastScan = time - 60 * 1000;
+		for(int i = 0; i < 2; i++) {
+			trace.add(
+				sensorPoint(random, time, "still", 0.0, 0.05, lastScan, home));
+			time += 60 * 1000;
+		}
+
+		for(int i = 0; i < 5; i++) {
+			trace.add(
+				sensorPoint(
+					random, time, "walk", 1.2, 4.0, time,
+					new String[] { "home-1", "home-2", "street-" + i }));
+			time += 60 * 1000;
+		}
+
+		for(int i = 0; i < 8; i++) {
+			String[] ssids = new String[1 + (i % 3)];
+			for(int j = 0; j < ssids.length; j++) {
+				ssids[j] = "road-" + i + "-" + j;
+			}
+			trace.add(
+				sensorPoint(random, time, "drive", 15.0, 1.0, time, ssids));
+			time += 60 * 1000;
+		}
+
+		trace.add(new PointSpec(time, Mode.ERROR, null));
+		time += 60 * 1000;
+		trace.add(new PointSpec(time, Mode.WALK, null));
+
+		// A gap longer than the classifier's window.
+		time += 15 * 60 * 1000;
+		for(int i = 0; i < 6; i++) {
+			trace.add(
+				sensorPoint(random, time, "still", 0.0, 0.05, time, office));
+			time += 60 * 1000;
+		}
+
+		// A point without a scan, one with an empty scan, and a fast point
+		// whose accelerometer says it is still.
+		trace.add(
+			new PointSpec(
+				time,
+				Mode.STILL,
+				sensorData(random, "still", 0.0, 0.05, 64, null)));
+		time += 60 * 1000;
+		trace.add(
+			sensorPoint(random, time, "still", 0.0, 0.05, time, new String[0]));
+		time += 60 * 1000;
+		trace.add(
+			sensorPoint(random, time, "still", 25.0, 0.05, time, office));
+
+		assertSameAsClassifier(trace);
+	}
+
+	/**
+	 * Tests random traces with random gaps, repeated scans, and overlapping
+	 * sets of access points.
+	 */
+	@Test
+	public void testRandomTraces() throws Exception {
+		String[] modes = { "still", "walk", "run", "drive" };
+		double[] noises = { 0.05, 4.0, 8.0, 1.0 };
+
+		for(long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			List<PointSpec> trace = new ArrayList<PointSpec>();
+			long time = START_TIME;
+			long lastScan = time;
+
+			for(int i = 0; i < 60; i++) {
+				time += (10 + random.nextInt(8 * 60)) * 1000L;
+				if(random.nextInt(10) != 0) {
+					lastScan = time;
+				}
+
+				int kind = random.nextInt(modes.length);
+				List<String> ssids = new ArrayList<String>();
+				for(String ssid : SSIDS) {
+					if(random.nextInt(3) == 0) {
+						ssids.add(ssid);
+					}
+				}
+
+				trace.add(
+					sensorPoint(
+						random,
+						time,
+						modes[kind],
+						random.nextDouble() * 20,
+						noises[kind],
+						lastScan,
+						ssids.toArray(new String[ssids.size()])));
+			}
+
+			assertSameAsClassifier(trace);
+		}
+	}
+
+	/**
+	 * Classifies a trace with the service and with the classifier, both
+	 * with and without the classifier's WiFi checking, and compares them.
+	 *
+	 * @param trace The trace in chronological order.
+	 */
+	private static void assertSameAsClassifier(
+			final List<PointSpec> trace)
+			throws DomainException, ServiceException {
+
+		boolean wifiChecking = MobilityClassifier.wifiChecking;
+		try {
+			for(boolean checking : new boolean[] { true, false }) {
+				MobilityClassifier.wifiChecking = checking;
+
+				List<Classification> expected = classifyInOrder(trace);
+
+				List<MobilityPoint> actual =
+					new ArrayList<MobilityPoint>(trace.size());
+				for(PointSpec spec : trace) {
+					actual.add(spec.build());
+				}
+				MobilityServices.classify(actual);
+
+				for(int i = 0; i < trace.size(); i++) {
+					assertSameClassification(
+						"Point " + i + " with WiFi checking " + checking,
+						expected.get(i),
+						actual.get(i).getClassifierData());
+				}
+			}
+		}
+		finally {
+			MobilityClassifier.wifiChecking = wifiChecking;
+		}
+	}
+
+	/**
+	 * Gives each point to the classifier in order with the WiFi scans of
+	 * the previous points in the classifier's window and the previous
+	 * point's WiFi mode.
+	 *
+	 * @param trace The trace in chronological order.
+	 *
+	 * @return Each point's classification or null if it isn't classified.
+	 */
+	private static List<Classification> classifyInOrder(
+			final List<PointSpec> trace)
+			throws DomainException {
+
+		MobilityClassifier classifier = new MobilityClassifier();
+		List<Classification> result = new ArrayList<Classification>();
+		String previousWifiMode = null;
+		List<WifiScan> previousWifiScans = new LinkedList<WifiScan>();
+
+		for(PointSpec spec : trace) {
+			MobilityPoint point = spec.build();
+			if(
+				Mode.ERROR.equals(point.getMode()) ||
+				(! SubType.SENSOR_DATA.equals(point.getSubType()))) {
+
+				result.add(null);
+				continue;
+			}
+
+			WifiScan wifiScan =
+				(point.getSensorData().getWifiData() == null) ?
+					null :
+					point.getWifiScan();
+
+			long minPreviousTime =
+				point.getTime() - MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
+			Iterator<WifiScan> previousWifiScansIter =
+				previousWifiScans.iterator();
+			while(previousWifiScansIter.hasNext()) {
+				if(previousWifiScansIter.next().getTime() < minPreviousTime) {
+					previousWifiScansIter.remove();
+				}
+				else {
+					break;
+				}
+			}
+
+			Classification classification =
+				classifier.classify(
+					point.getSamples(),
+					point.getSensorData().getSpeed(),
+					wifiScan,
+					previousWifiScans,
+					previousWifiMode);
+
+			if(wifiScan != null) {
+				previousWifiScans.add(wifiScan);
+			}
+			previousWifiMode = classification.getWifiMode();
+
+			result.add(classification);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Asserts that a point's classifier data is the classifier's result.
+	 *
+	 * @param message The description of the point.
+	 *
+	 * @param expected The classifier's result or null if the point isn't
+	 * 				   classified.
+	 *
+	 * @param actual The point's classifier data.
+	 */
+	private static void assertSameClassification(
+			final String message,
+			final Classification expected,
+			final ClassifierData actual) {
+
+		if(expected == null) {
+			Assert.assertNull(message, actual);
+			return;
+		}
+
+		Assert.assertNotNull(message, actual);
+		Assert.assertEquals(
+			message,
+			Mode.valueOf(expected.getMode().toUpperCase()),
+			actual.getMode());
+
+		if(expected.hasFeatures()) {
+			List<Double> fft = expected.getFft();
+			double[] actualFft = actual.getFft();
+			Assert.assertEquals(message, fft.size(), actualFft.length);
+			for(int i = 0; i < actualFft.length; i++) {
+				assertClose(message + ", FFT " + i, fft.get(i), actualFft[i]);
+			}
+
+			assertClose(
+				message + ", variance",
+				expected.getVariance(),
+				actual.getVariance());
+			assertClose(
+				message + ", average",
+				expected.getAverage(),
+				actual.getAverage());
+		}
+	}
+
+	/**
+	 * Asserts that two features are the same but for the last bits. The FFT
+	 * uses Math.sin() and Math.cos(), whose results may differ by a bit
+	 * depending on whether or not the JIT has compiled the calling code,
+	 * which differs between the service's threads and this one.
+	 *
+	 * @param message The description of the feature.
+	 *
+	 * @param expected The classifier's value.
+	 *
+	 * @param actual The service's value.
+	 */
+	private static void assertClose(
+			final String message,
+			final double expected,
+			final double actual) {
+
+		Assert.assertEquals(
+			message,
+			expected,
+			actual,
+			Math.max(Math.abs(expected), Math.abs(actual)) * 1e-9);
+	}
+
+	/**
+	 * Creates a point with sensor data.
+	 *
+	 * @param random The source of the accelerometer noise.
+	 *
+	 * @param time The point's time.
+	 *
+	 * @param mode The phone's mode.
+	 *
+	 * @param speed The point's speed.
+	 *
+	 * @param noise The amplitude of the accelerometer's movement.
+	 *
+	 * @param scanTime The time of the WiFi scan.
+	 *
+	 * @param ssids The SSIDs in the WiFi scan.
+	 *
+	 * @return The point.
+	 */
+	private static PointSpec sensorPoint(
+			final Random random,
+			final long time,
+			final String mode,
+			final double speed,
+			final double noise,
+			final long scanTime,
+			final String[] ssids) {
+
+		StringBuilder wifiData = new StringBuilder();
+		wifiData
+			.append("{\"time\":").append(scanTime)
+			.append(",\"timezone\":\"UTC\",\"scan\":[");
+		for(int i = 0; i < ssids.length; i++) {
+			if(i > 0) {
+				wifiData.append(',');
+			}
+			wifiData
+				.append("{\"ssid\":\"").append(ssids[i])
+				.append("\",\"strength\":")
+				.append(-40 - (i * 10) - random.nextInt(5))
+				.append('}');
+		}
+		wifiData.append("]}");
+
+		return
+			new PointSpec(
+				time,
+				Mode.valueOf(mode.toUpperCase()),
+				sensorData(
+					random,
+					mode,
+					speed,
+					noise,
+					32 + random.nextInt(64),
+					wifiData.toString()));
+	}
+
+	/**
+	 * Creates the JSON of a point's sensor data.
+	 *
+	 * @param random The source of the accelerometer noise.
+	 *
+	 * @param mode The phone's mode.
+	 *
+	 * @param speed The point's speed.
+	 *
+	 * @param noise The amplitude of the accelerometer's movement.
+	 *
+	 * @param numSamples The number of accelerometer samples.
+	 *
+	 * @param wifiData The WiFi data as JSON or null if there was no scan.
+	 *
+	 * @return The sensor data.
+	 */
+	private static String sensorData(
+			final Random random,
+			final String mode,
+			final double speed,
+			final double noise,
+			final int numSamples,
+			final String wifiData) {
+
+		StringBuilder result = new StringBuilder();
+		result
+			.append("{\"mode\":\"").append(mode)
+			.append("\",\"speed\":").append(speed)
+			.append(",\"accel_data\":[");
+		double phase = random.nextDouble() * Math.PI;
+		for(int i = 0; i < numSamples; i++) {
+			if(i > 0) {
+				result.append(',');
+			}
+			double swing = noise * Math.sin(phase + (i * 0.4));
+			result
+				.append("{\"x\":")
+				.append(swing + (random.nextGaussian() * noise * 0.1))
+				.append(",\"y\":")
+				.append((swing / 2) + (random.nextGaussian() * noise * 0.1))
+				.append(",\"z\":")
+				.append(9.8 + (random.nextGaussian() * noise * 0.1))
+				.append('}');
+		}
+		result
+			.append("],\"wifi_data\":")
+			.append((wifiData == null) ? "{}" : wifiData)
+			.append('}');
+
+		return result.toString();
+	}
+}
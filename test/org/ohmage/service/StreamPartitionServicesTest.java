@@ -0,0 +1,490 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.TablePartition;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IStreamPartitionQueries;
+
+/**
+ * Tests that the partitions for the coming months are added from where a
+ * table's partitions end, that only the stream data partitions that are
+ * entirely older than the archive age are archived and then dropped, and
+ * that nothing is done while another server holds the partition lock.
+ *
+ * @author John Jenkins
+ */
+public class StreamPartitionServicesTest extends TestCase {
+	/**
+	 * The current time for every test: the middle of October, 2012.
+	 */
+	private static final long NOW =
+		month(2012, 10) + (14L * 24 * 60 * 60 * 1000);
+
+	/**
+	 * The partitions behind the services. The services are a singleton, so
+	 * they are only created once and the partitions are cleared for each
+	 * test.
+	 */
+	private static final Partitions PARTITIONS = new Partitions();
+
+	static {
+		try {
+			// Spring creates the services through their private
+			// constructor, so the test does the same.
+			Constructor<StreamPartitionServices> constructor =
+				StreamPartitionServices.class.getDeclaredConstructor(
+					IStreamPartitionQueries.class);
+			constructor.setAccessible(true);
+			constructor.newInstance(PARTITIONS);
+		}
+		catch(Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The partitions of each table, which records what is done to them.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Partitions implements IStreamPartitionQueries {
+		private final Map<String, List<TablePartition>> tables =
+			new HashMap<String, List<TablePartition>>();
+		private final List<List<Object>> calls = new ArrayList<List<Object>>();
+		private boolean lockHeldElsewhere = false;
+
+		/**
+		 * Removes every partition and every call.
+		 */
+		private void clear() {
+			tables.clear();
+			calls.clear();
+			lockHeldElsewhere = false;
+		}
+
+		/**
+		 * Sets a table's partitions.
+		 */
+		private void set(
+				final String table,
+				final TablePartition... partitions) {
+
+			tables.put(
+				table,
+				new ArrayList<TablePartition>(Arrays.asList(partitions)));
+		}
+
+		/**
+		 * Returns a table's partitions as their names and bounds.
+		 */
+		private List<List<Object>> get(final String table) {
+			return describe(getPartitions(table));
+		}
+
+		/**
+		 * Runs the task unless another server holds the lock.
+		 */
+		@Override
+		public boolean runWithPartitionLock(final LockedTask task)
+				throws DataAccessException {
+
+			calls.add(Arrays.<Object>asList("lock"));
+			if(lockHeldElsewhere) {
+				return false;
+			}
+			task.run();
+			return true;
+		}
+
+		/**
+		 * Returns a table's partitions.
+		 */
+		@Override
+		public List<TablePartition> getPartitions(final String table) {
+			List<TablePartition> result = tables.get(table);
+			return
+				(result == null) ?
+					new ArrayList<TablePartition>() :
+					new ArrayList<TablePartition>(result);
+		}
+
+		/**
+		 * Adds the partitions before a last partition without an upper
+		 * bound or after one with an upper bound.
+		 */
+		@Override
+		public void addPartitions(
+				final String table,
+				final TablePartition lastPartition,
+				final List<TablePartition> newPartitions) {
+
+			calls.add(
+				Arrays.<Object>asList(
+					"add",
+					table,
+					lastPartition.getName(),
+					describe(newPartitions)));
+
+			List<TablePartition> partitions = tables.get(table);
+			Assert.assertSame(
+				partitions.get(partitions.size() - 1),
+				lastPartition);
+			int index =
+				(lastPartition.getUpperBound() == null) ?
+					partitions.size() - 1 :
+					partitions.size();
+			partitions.addAll(index, newPartitions);
+		}
+
+		/**
+		 * Records the archived partition.
+		 */
+		@Override
+		public long archiveStreamDataPartition(
+				final TablePartition partition,
+				final Long lowerBound,
+				final File directory) {
+
+			Assert.assertTrue(directory.isDirectory());
+			calls.add(
+				Arrays.<Object>asList(
+					"archive",
+					partition.getName(),
+					lowerBound));
+			return 1;
+		}
+
+		/**
+		 * Removes a partition.
+		 */
+		@Override
+		public void dropPartition(
+				final String table,
+				final TablePartition partition) {
+
+			calls.add(Arrays.<Object>asList("drop", table, partition.getName()));
+			Assert.assertTrue(tables.get(table).remove(partition));
+		}
+
+		/**
+		 * The archive files aren't part of these tests.
+		 */
+		@Override
+		public Collection<File> getArchiveFiles(final String username) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * The parent of the archive's directory.
+	 */
+	private File directory;
+
+	/**
+	 * Removes the partitions and creates an empty directory.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		PARTITIONS.clear();
+		directory = Files.createTempDirectory("stream-partition").toFile();
+	}
+
+	/**
+	 * Removes the directory and everything in it.
+	 */
+	@Override
+	protected void tearDown() {
+		delete(directory);
+	}
+
+	/**
+	 * Tests that a table without partitions is left alone.
+	 */
+	@Test
+	public void testAddToUnpartitionedTable() throws DataAccessException {
+		services().addFuturePartitions(
+			StreamPartitionServices.TABLE_MOBILITY,
+			NOW);
+
+		Assert.assertTrue(PARTITIONS.calls.isEmpty());
+		Assert.assertTrue(
+			PARTITIONS.get(StreamPartitionServices.TABLE_MOBILITY).isEmpty());
+	}
+
+	/**
+	 * Tests that a table with only its catch-all partition gets one
+	 * partition for the current month and one for each of the next three,
+	 * each bounded by the start of the following month, before the
+	 * catch-all partition.
+	 */
+	@Test
+	public void testAddToCatchAllOnly() throws DataAccessException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_MOBILITY,
+			new TablePartition("pmax", null));
+
+		services().addFuturePartitions(
+			StreamPartitionServices.TABLE_MOBILITY,
+			NOW);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				partition("p201210", month(2012, 11)),
+				partition("p201211", month(2012, 12)),
+				partition("p201212", month(2013, 1)),
+				partition("p201301", month(2013, 2)),
+				partition("pmax", null)),
+			PARTITIONS.get(StreamPartitionServices.TABLE_MOBILITY));
+		Assert.assertEquals("pmax", PARTITIONS.calls.get(0).get(2));
+	}
+
+	/**
+	 * Tests that the new partitions start where the highest bound ends,
+	 * even after a partition that doesn't end at the start of a month, and
+	 * that a table that already has partitions far enough ahead is left
+	 * alone.
+	 */
+	@Test
+	public void testAddAfterHighestBound() throws DataAccessException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("p201209", month(2012, 10)),
+			new TablePartition("p201210", month(2012, 11) + 1000),
+			new TablePartition("pmax", null));
+
+		services().addFuturePartitions(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			NOW);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				partition("p201209", month(2012, 10)),
+				partition("p201210", month(2012, 11) + 1000),
+				partition("p201211", month(2012, 12)),
+				partition("p201212", month(2013, 1)),
+				partition("p201301", month(2013, 2)),
+				partition("pmax", null)),
+			PARTITIONS.get(StreamPartitionServices.TABLE_STREAM_DATA));
+
+		// Now that they are there, there's nothing more to add.
+		PARTITIONS.calls.clear();
+		services().addFuturePartitions(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			NOW);
+		Assert.assertTrue(PARTITIONS.calls.isEmpty());
+	}
+
+	/**
+	 * Tests that partitions are added after a last partition that has an
+	 * upper bound.
+	 */
+	@Test
+	public void testAddWithoutCatchAll() throws DataAccessException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_MOBILITY,
+			new TablePartition("p201212", month(2013, 1)));
+
+		services().addFuturePartitions(
+			StreamPartitionServices.TABLE_MOBILITY,
+			NOW);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				partition("p201212", month(2013, 1)),
+				partition("p201301", month(2013, 2))),
+			PARTITIONS.get(StreamPartitionServices.TABLE_MOBILITY));
+	}
+
+	/**
+	 * Tests that only the partitions whose upper bounds are at or before
+	 * the start of the month that contains the archive age are archived, in
+	 * order, each with the previous one's upper bound as its lower bound,
+	 * and each dropped only after it is archived, and that the archive's
+	 * directory is created.
+	 */
+	@Test
+	public void testArchiveCutoff() throws DataAccessException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("p201207", month(2012, 8)),
+			new TablePartition("p201208", month(2012, 9)),
+			new TablePartition("p201209", month(2012, 10)),
+			new TablePartition("pmax", null));
+
+		// Thirty days before now is the middle of September, so only the
+		// partitions that end by the start of September are old enough.
+		File archive = new File(directory, "archive/stream");
+		services().archiveStreamData(archive, 30, NOW);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				Arrays.<Object>asList("archive", "p201207", null),
+				Arrays.<Object>asList(
+					"drop",
+					StreamPartitionServices.TABLE_STREAM_DATA,
+					"p201207"),
+				Arrays.<Object>asList("archive", "p201208", month(2012, 8)),
+				Arrays.<Object>asList(
+					"drop",
+					StreamPartitionServices.TABLE_STREAM_DATA,
+					"p201208")),
+			PARTITIONS.calls);
+		Assert.assertEquals(
+			Arrays.asList(
+				partition("p201209", month(2012, 10)),
+				partition("pmax", null)),
+			PARTITIONS.get(StreamPartitionServices.TABLE_STREAM_DATA));
+		Assert.assertTrue(archive.isDirectory());
+
+		// A partition that ends after the cutoff, even by a moment, stays.
+		PARTITIONS.calls.clear();
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("p201208", month(2012, 9) + 1),
+			new TablePartition("pmax", null));
+		services().archiveStreamData(archive, 30, NOW);
+		Assert.assertTrue(PARTITIONS.calls.isEmpty());
+	}
+
+	/**
+	 * Tests that the last partition is never archived, even when it is old
+	 * enough, and that nothing after a partition without an upper bound is
+	 * either.
+	 */
+	@Test
+	public void testArchiveNeverLast() throws DataAccessException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("p201206", month(2012, 7)),
+			new TablePartition("p201207", month(2012, 8)));
+
+		services().archiveStreamData(directory, 30, NOW);
+
+		Assert.assertEquals(
+			Arrays.asList(
+				partition("p201207", month(2012, 8))),
+			PARTITIONS.get(StreamPartitionServices.TABLE_STREAM_DATA));
+
+		PARTITIONS.calls.clear();
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("pmax", null),
+			new TablePartition("p201207", month(2012, 8)),
+			new TablePartition("p201208", month(2012, 9)));
+		services().archiveStreamData(directory, 30, NOW);
+		Assert.assertTrue(PARTITIONS.calls.isEmpty());
+	}
+
+	/**
+	 * Tests that nothing is done while another server holds the lock.
+	 */
+	@Test
+	public void testLockHeldElsewhere() throws ServiceException {
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_STREAM_DATA,
+			new TablePartition("pmax", null));
+		PARTITIONS.set(
+			StreamPartitionServices.TABLE_MOBILITY,
+			new TablePartition("pmax", null));
+		PARTITIONS.lockHeldElsewhere = true;
+
+		services().managePartitions();
+
+		Assert.assertEquals(
+			Arrays.asList(Arrays.<Object>asList("lock")),
+			PARTITIONS.calls);
+		Assert.assertEquals(
+			Arrays.asList(partition("pmax", null)),
+			PARTITIONS.get(StreamPartitionServices.TABLE_MOBILITY));
+	}
+
+	/**
+	 * Returns the services.
+	 */
+	private static StreamPartitionServices services() {
+		return StreamPartitionServices.instance();
+	}
+
+	/**
+	 * Returns the start of a month in UTC.
+	 *
+	 * @param year The year.
+	 *
+	 * @param month The month, starting at 1.
+	 *
+	 * @return The start of the month.
+	 */
+	private static long month(final int year, final int month) {
+		return
+			new DateTime(year, month, 1, 0, 0, DateTimeZone.UTC).getMillis();
+	}
+
+	/**
+	 * Returns a partition's name and bound.
+	 */
+	private static List<Object> partition(
+			final String name,
+			final Long upperBound) {
+
+		return Arrays.<Object>asList(name, upperBound);
+	}
+
+	/**
+	 * Returns partitions' names and bounds.
+	 */
+	private static List<List<Object>> describe(
+			final List<TablePartition> partitions) {
+
+		List<List<Object>> result = new ArrayList<List<Object>>();
+		for(TablePartition partition : partitions) {
+			result.add(
+				partition(partition.getName(), partition.getUpperBound()));
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes a file or a directory and everything in it.
+	 */
+	private static void delete(final File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jbcrypt.BCrypt;
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.domain.NewUser;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests that a batch's passwords are hashed in parallel, each into the same
+ * position as its user.
+ *
+ * @author John Jenkins
+ */
+public class UserServicesTest extends TestCase {
+	/**
+	 * Tests that each user's password is hashed with the users' complexity
+	 * and a salt of its own, and that the hash is at the same index as the
+	 * user.
+	 */
+	@Test
+	public void testHashPasswords() throws DomainException {
+		// More users than processors, so that the pool splits the batch.
+		int count = Runtime.getRuntime().availableProcessors() + 3;
+
+		List<NewUser> users = new ArrayList<NewUser>(count);
+		for(int i = 0; i < count; i++) {
+			users.add(
+				new NewUser(
+					"user." + i,
+					"Password." + i,
+					null,
+					null,
+					null,
+					null,
+					null,
+					null));
+		}
+		// The same password twice must still be salted differently.
+		users.add(
+			new NewUser(
+				"user.same",
+				"Password.0",
+				null,
+				null,
+				null,
+				null,
+				null,
+				null));
+
+		String[] hashedPasswords = UserServices.hashPasswords(users);
+		Assert.assertEquals(users.size(), hashedPasswords.length);
+
+		String prefix = "$2a$" + User.BCRYPT_COMPLEXITY + "$";
+		for(int i = 0; i < users.size(); i++) {
+			Assert.assertTrue(
+				hashedPasswords[i],
+				hashedPasswords[i].startsWith(prefix));
+			Assert.assertTrue(
+				BCrypt.checkpw(users.get(i).getPassword(), hashedPasswords[i]));
+		}
+		Assert.assertFalse(
+			BCrypt.checkpw(users.get(1).getPassword(), hashedPasswords[0]));
+		Assert.assertFalse(hashedPasswords[0].equals(hashedPasswords[count]));
+	}
+
+	/**
+	 * Tests that an empty batch has nothing to hash.
+	 */
+	@Test
+	public void testHashNoPasswords() {
+		Assert.assertEquals(
+			0,
+			UserServices.hashPasswords(Collections.<NewUser>emptyList())
+				.length);
+	}
+}
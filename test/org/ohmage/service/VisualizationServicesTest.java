@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.exception.ServiceException;
+
+/**
+ * Tests that the requests to the visualization server share a kept-alive
+ * connection, that its errors and timeouts are reported, that a connection
+ * that timed out isn't reused, and that redirects are followed.
+ *
+ * @author John Jenkins
+ */
+public class VisualizationServicesTest extends TestCase {
+	/**
+	 * The parameters of every request.
+	 */
+	private static final String PARAMETERS =
+		"token='abc'&campaign_urn='urn%3Acampaign%3Aa'&!width=100&!height=50";
+
+	/**
+	 * How long the client waits for a response.
+	 */
+	private static final int READ_TIMEOUT = 500;
+
+	/**
+	 * The visualization server stand-in for the current test.
+	 */
+	private HttpServer server;
+
+	/**
+	 * The client for the current test.
+	 */
+	private HttpClient client;
+
+	/**
+	 * Starts the visualization server stand-in and creates a client.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		server = new HttpServer();
+		client = VisualizationServices.buildHttpClient(1000, READ_TIMEOUT);
+	}
+
+	/**
+	 * Stops the client and the visualization server stand-in.
+	 */
+	@Override
+	protected void tearDown() throws IOException {
+		client.getConnectionManager().shutdown();
+		server.close();
+	}
+
+	/**
+	 * Tests that the parameters are posted as a form, that the image is
+	 * returned as it was sent, and that the requests share one connection.
+	 */
+	@Test
+	public void testConnectionReused() throws Exception {
+		for(int i = 0; i < 5; i++) {
+			byte[] image = { (byte) 0x89, 'P', 'N', 'G', 0, (byte) i };
+			server.respond(200, image, null);
+
+			Assert.assertArrayEquals(image, request("/viz/plot"));
+		}
+
+		List<String[]> requests = server.getRequests();
+		Assert.assertEquals(5, requests.size());
+		for(String[] request : requests) {
+			Assert.assertEquals("POST /viz/plot HTTP/1.1", request[0]);
+			Assert.assertTrue(
+				request[1],
+				request[1].startsWith("application/x-www-form-urlencoded"));
+			Assert.assertEquals(PARAMETERS, request[2]);
+		}
+		Assert.assertEquals(1, server.getConnectionCount());
+	}
+
+	/**
+	 * Tests that an error is reported with its status and text, and that
+	 * the connection is still reused afterwards.
+	 */
+	@Test
+	public void testErrorResponse() throws Exception {
+		server.respond(500, "The plot failed.".getBytes("UTF-8"), null);
+		try {
+			request("/viz/plot");
+			fail("An error response was returned as an image.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("'500'"));
+			Assert.assertTrue(
+				e.getMessage(),
+				e.getMessage().contains("The plot failed."));
+		}
+
+		server.respond(404, new byte[0], null);
+		try {
+			request("/viz/missing");
+			fail("An error response was returned as an image.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("'404'"));
+		}
+
+		server.respond(200, new byte[] { 1 }, null);
+		Assert.assertArrayEquals(new byte[] { 1 }, request("/viz/plot"));
+		Assert.assertEquals(1, server.getConnectionCount());
+	}
+
+	/**
+	 * Tests that a server that doesn't respond times out, and that the
+	 * connection that timed out is discarded rather than reused.
+	 */
+	@Test
+	public void testTimeout() throws Exception {
+		server.hang();
+		long start = System.currentTimeMillis();
+		try {
+			request("/viz/plot");
+			fail("A request without a response didn't time out.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue(Long.toString(elapsed), elapsed >= READ_TIMEOUT);
+		Assert.assertTrue(Long.toString(elapsed), elapsed < 10 * READ_TIMEOUT);
+
+		server.respond(200, new byte[] { 2 }, null);
+		Assert.assertArrayEquals(new byte[] { 2 }, request("/viz/plot"));
+		Assert.assertEquals(2, server.getConnectionCount());
+	}
+
+	/**
+	 * Tests that a redirect is followed.
+	 */
+	@Test
+	public void testRedirect() throws Exception {
+		server.respond(
+			302,
+			new byte[0],
+			"http://127.0.0.1:" + server.getPort() + "/viz/moved");
+		server.respond(200, new byte[] { 3 }, null);
+
+		Assert.assertArrayEquals(new byte[] { 3 }, request("/viz/plot"));
+		List<String[]> requests = server.getRequests();
+		Assert.assertEquals(2, requests.size());
+		Assert.assertTrue(requests.get(1)[0], requests.get(1)[0].contains(" /viz/moved "));
+	}
+
+	/**
+	 * Tests that a server that can't be reached is reported.
+	 */
+	@Test
+	public void testUnreachable() throws Exception {
+		ServerSocket socket =
+			new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		int port = socket.getLocalPort();
+		socket.close();
+
+		try {
+			VisualizationServices.makeRequest(
+				client,
+				"http://127.0.0.1:" + port + "/viz/plot",
+				PARAMETERS);
+			fail("A request to a closed port succeeded.");
+		}
+		catch(ServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	/**
+	 * Makes a request to the stand-in.
+	 *
+	 * @param path The visualization's path.
+	 *
+	 * @return The image.
+	 */
+	private byte[] request(final String path) throws ServiceException {
+		return
+			VisualizationServices.makeRequest(
+				client,
+				"http://127.0.0.1:" + server.getPort() + path,
+				PARAMETERS);
+	}
+
+	/**
+	 * A visualization server stand-in that keeps its connections alive,
+	 * records each request, and answers them with the responses it was
+	 * given, in order, or not at all.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class HttpServer implements Runnable {
+		private final ServerSocket socket;
+		private final List<Object[]> responses =
+			Collections.synchronizedList(new LinkedList<Object[]>());
+		private final List<String[]> requests =
+			Collections.synchronizedList(new ArrayList<String[]>());
+		private volatile int connections = 0;
+
+		/**
+		 * Starts the server on a free local port.
+		 *
+		 * @throws IOException The port could not be opened.
+		 */
+		private HttpServer() throws IOException {
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+			Thread thread = new Thread(this, "HTTP Stand-in");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Returns the port the server is listening on.
+		 *
+		 * @return The port.
+		 */
+		private int getPort() {
+			return socket.getLocalPort();
+		}
+
+		/**
+		 * Adds the response to the next request that hasn't been answered.
+		 *
+		 * @param status The response's status.
+		 *
+		 * @param body The response's body.
+		 *
+		 * @param location The response's location or null if it has none.
+		 */
+		private void respond(
+				final int status,
+				final byte[] body,
+				final String location) {
+
+			responses.add(new Object[] { status, body, location });
+		}
+
+		/**
+		 * Never answers the next request that hasn't been answered.
+		 */
+		private void hang() {
+			responses.add(null);
+		}
+
+		/**
+		 * Returns the requests: their request lines, content types, and
+		 * bodies.
+		 *
+		 * @return The requests in the order they were received.
+		 */
+		private List<String[]> getRequests() {
+			synchronized(requests) {
+				return new ArrayList<String[]>(requests);
+			}
+		}
+
+		/**
+		 * Returns the number of connections that have been made.
+		 *
+		 * @return The number of connections.
+		 */
+		private int getConnectionCount() {
+			return connections;
+		}
+
+		/**
+		 * Stops accepting connections.
+		 */
+		private void close() throws IOException {
+			socket.close();
+		}
+
+		/**
+		 * Accepts connections and serves each on its own thread.
+		 */
+		@Override
+		public void run() {
+			while(! socket.isClosed()) {
+				final Socket client;
+				try {
+					client = socket.accept();
+				}
+				catch(IOException e) {
+					return;
+				}
+				connections++;
+
+				Thread thread = new Thread("HTTP Stand-in Connection") {
+					@Override
+					public void run() {
+						try {
+							serve(client);
+						}
+						catch(IOException e) {
+							// The client went away.
+						}
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		/**
+		 * Answers one client's requests until it closes the connection.
+		 *
+		 * @param client The client's connection.
+		 *
+		 * @throws IOException There was an error talking to the client.
+		 */
+		private void serve(final Socket client) throws IOException {
+			try {
+				BufferedReader in =
+					new BufferedReader(
+						new InputStreamReader(
+							client.getInputStream(),
+							"US-ASCII"));
+				OutputStream out = client.getOutputStream();
+
+				String requestLine;
+				while((requestLine = in.readLine()) != null) {
+					String contentType = null;
+					int contentLength = 0;
+					String header;
+					while(((header = in.readLine()) != null) &&
+						(header.length() > 0)) {
+
+						String name =
+							header.substring(0, header.indexOf(':')).trim();
+						String value =
+							header.substring(header.indexOf(':') + 1).trim();
+						if("Content-Type".equalsIgnoreCase(name)) {
+							contentType = value;
+						}
+						else if("Content-Length".equalsIgnoreCase(name)) {
+							contentLength = Integer.parseInt(value);
+						}
+					}
+
+					char[] body = new char[contentLength];
+					int read = 0;
+					while(read < contentLength) {
+						int numRead = in.read(body, read, contentLength - read);
+						if(numRead == -1) {
+							return;
+						}
+						read += numRead;
+					}
+					requests.add(
+						new String[] {
+							requestLine,
+							contentType,
+							new String(body) });
+
+					Object[] response =
+						(responses.isEmpty()) ? null : responses.remove(0);
+					if(response == null) {
+						// Wait for the client to give up.
+						while(in.read() != -1) {
+							// Ignore anything else it sends.
+						}
+						return;
+					}
+
+					byte[] responseBody = (byte[]) response[1];
+					StringBuilder head =
+						new StringBuilder()
+							.append("HTTP/1.1 ")
+							.append(response[0])
+							.append(" Stand-in\r\n")
+							.append("Content-Type: image/png\r\n")
+							.append("Content-Length: ")
+							.append(responseBody.length)
+							.append("\r\n");
+					if(response[2] != null) {
+						head.append("Location: ").append(response[2]).append("\r\n");
+					}
+					head.append("\r\n");
+
+					out.write(head.toString().getBytes("US-ASCII"));
+					out.write(responseBody);
+					out.flush();
+				}
+			}
+			finally {
+				client.close();
+			}
+		}
+	}
+}
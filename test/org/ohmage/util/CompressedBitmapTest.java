@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the compressed bitmap against a sorted set of the same integers.
+ * The chunks switch between arrays and bitmaps at 4096 integers, so the
+ * tests cover sparse and dense chunks and mixes of the two.
+ *
+ * @author John Jenkins
+ */
+public class CompressedBitmapTest extends TestCase {
+	/**
+	 * The number of integers past which a chunk is a bitmap.
+	 */
+	private static final int MAX_ARRAY_CARDINALITY = 4096;
+
+	/**
+	 * The number of integers in each chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Tests adding, removing, and looking up integers.
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		Assert.assertTrue(bitmap.isEmpty());
+		Assert.assertFalse(bitmap.contains(0));
+
+		Assert.assertTrue(bitmap.add(5));
+		Assert.assertFalse(bitmap.add(5));
+		Assert.assertTrue(bitmap.add(CHUNK_SIZE + 5));
+		Assert.assertTrue(bitmap.add(Integer.MAX_VALUE));
+		Assert.assertTrue(bitmap.add(0));
+
+		Assert.assertEquals(4, bitmap.getCardinality());
+		Assert.assertTrue(bitmap.contains(5));
+		Assert.assertTrue(bitmap.contains(CHUNK_SIZE + 5));
+		Assert.assertTrue(bitmap.contains(Integer.MAX_VALUE));
+		Assert.assertFalse(bitmap.contains(6));
+		Assert.assertFalse(bitmap.contains(-5));
+		Assert.assertEquals(
+			"0,5," + (CHUNK_SIZE + 5) + "," + Integer.MAX_VALUE,
+			bitmap.toString());
+
+		Assert.assertTrue(bitmap.remove(CHUNK_SIZE + 5));
+		Assert.assertFalse(bitmap.remove(CHUNK_SIZE + 5));
+		Assert.assertFalse(bitmap.remove(-5));
+		Assert.assertFalse(bitmap.contains(CHUNK_SIZE + 5));
+		Assert.assertArrayEquals(
+			new int[] { 0, 5, Integer.MAX_VALUE },
+			bitmap.toArray());
+
+		bitmap.remove(0);
+		bitmap.remove(5);
+		bitmap.remove(Integer.MAX_VALUE);
+		Assert.assertTrue(bitmap.isEmpty());
+		Assert.assertEquals("", bitmap.toString());
+
+		try {
+			bitmap.add(-1);
+			fail("A negative integer was added.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Tests a chunk growing past the array limit into a bitmap and shrinking
+	 * back into an array.
+	 */
+	@Test
+	public void testArrayBitmapConversion() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		SortedSet<Integer> expected = new TreeSet<Integer>();
+
+		// Add every other integer so the bitmap's words are partially set.
+		for(int i = 0; i <= MAX_ARRAY_CARDINALITY; i++) {
+			bitmap.add(i * 2);
+			expected.add(i * 2);
+		}
+		assertContents(expected, bitmap);
+
+		for(int i = 0; i < 10; i++) {
+			bitmap.remove(i * 2);
+			expected.remove(i * 2);
+			assertContents(expected, bitmap);
+		}
+
+		for(int i = 0; i < 10; i++) {
+			bitmap.add(i * 2 + 1);
+			expected.add(i * 2 + 1);
+		}
+		assertContents(expected, bitmap);
+	}
+
+	/**
+	 * Tests the union and intersection of every combination of array and
+	 * bitmap chunks, including chunks that are only in one of the bitmaps.
+	 */
+	@Test
+	public void testOrAnd() {
+		int[] sizes = { 0, 1, 100, 12300, 20000 };
+		Random random = new Random(0);
+
+		for(int firstSize : sizes) {
+			for(int secondSize : sizes) {
+				SortedSet<Integer> firstSet = new TreeSet<Integer>();
+				SortedSet<Integer> secondSet = new TreeSet<Integer>();
+				CompressedBitmap first =
+					randomBitmap(random, firstSize, firstSet);
+				CompressedBitmap second =
+					randomBitmap(random, secondSize, secondSet);
+
+				String firstBefore = first.toString();
+				String secondBefore = second.toString();
+
+				SortedSet<Integer> union = new TreeSet<Integer>(firstSet);
+				union.addAll(secondSet);
+				assertContents(union, CompressedBitmap.or(first, second));
+				assertContents(union, CompressedBitmap.or(second, first));
+
+				SortedSet<Integer> intersection =
+					new TreeSet<Integer>(firstSet);
+				intersection.retainAll(secondSet);
+				assertContents(
+					intersection,
+					CompressedBitmap.and(first, second));
+				assertContents(
+					intersection,
+					CompressedBitmap.and(second, first));
+
+				// The static operations don't change their arguments.
+				Assert.assertEquals(firstBefore, first.toString());
+				Assert.assertEquals(secondBefore, second.toString());
+
+				// The in-place operations don't change the other bitmap.
+				CompressedBitmap inPlace = first.copy();
+				inPlace.or(second);
+				assertContents(union, inPlace);
+				inPlace.and(second);
+				assertContents(secondSet, inPlace);
+				Assert.assertEquals(secondBefore, second.toString());
+			}
+		}
+	}
+
+	/**
+	 * Tests that a bitmap may be combined with itself.
+	 */
+	@Test
+	public void testOrAndSelf() {
+		SortedSet<Integer> expected = new TreeSet<Integer>();
+		CompressedBitmap bitmap =
+			randomBitmap(new Random(1), 20000, expected);
+
+		bitmap.or(bitmap);
+		assertContents(expected, bitmap);
+
+		bitmap.and(bitmap);
+		assertContents(expected, bitmap);
+	}
+
+	/**
+	 * Tests that a copy is independent of the original.
+	 */
+	@Test
+	public void testCopy() {
+		CompressedBitmap original = CompressedBitmap.of(1, 2, CHUNK_SIZE);
+		CompressedBitmap copy = original.copy();
+
+		copy.add(3);
+		copy.remove(1);
+		copy.or(CompressedBitmap.of(CHUNK_SIZE * 2));
+
+		Assert.assertEquals("1,2," + CHUNK_SIZE, original.toString());
+		Assert.assertEquals(
+			"2,3," + CHUNK_SIZE + "," + (CHUNK_SIZE * 2),
+			copy.toString());
+	}
+
+	/**
+	 * Creates a bitmap of random integers spread over a few chunks.
+	 *
+	 * @param random The source of the integers.
+	 *
+	 * @param size The number of integers to add, some of which may repeat.
+	 *
+	 * @param expected The set to which the integers are also added.
+	 *
+	 * @return The bitmap.
+	 */
+	private static CompressedBitmap randomBitmap(
+			final Random random,
+			final int size,
+			final SortedSet<Integer> expected) {
+
+		CompressedBitmap result = new CompressedBitmap();
+		for(int i = 0; i < size; i++) {
+			int value = random.nextInt(CHUNK_SIZE * 3);
+			result.add(value);
+			expected.add(value);
+		}
+		return result;
+	}
+
+	/**
+	 * Asserts that a bitmap has exactly the integers in a set.
+	 *
+	 * @param expected The integers.
+	 *
+	 * @param actual The bitmap.
+	 */
+	private static void assertContents(
+			final SortedSet<Integer> expected,
+			final CompressedBitmap actual) {
+
+		int[] expectedArray = new int[expected.size()];
+		int i = 0;
+		for(int value : expected) {
+			expectedArray[i++] = value;
+		}
+
+		Assert.assertArrayEquals(expectedArray, actual.toArray());
+		Assert.assertEquals(expected.size(), actual.getCardinality());
+		Assert.assertEquals(expected.isEmpty(), actual.isEmpty());
+		for(int value : expected) {
+			Assert.assertTrue(actual.contains(value));
+		}
+	}
+}
@@ -0,0 +1,555 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the conditional, range, and compressed responses of
+ * {@link FileResponseUtils#sendFile(HttpServletRequest, HttpServletResponse, File, String, boolean, boolean)}.
+ *
+ * @author John Jenkins
+ */
+public class FileResponseUtilsTest extends TestCase {
+	/**
+	 * The entity tag that the file is sent with.
+	 */
+	private static final String ETAG = "\"abc-1\"";
+
+	/**
+	 * The file's contents.
+	 */
+	private static final byte[] CONTENT =
+		"0123456789abcdefghij".getBytes();
+
+	/**
+	 * The file's last modified time, on a whole second.
+	 */
+	private static final long LAST_MODIFIED = 1350000000000L;
+
+	private File file;
+
+	/**
+	 * Writes the file that is sent.
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("file-response-utils", ".txt");
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(CONTENT);
+		}
+		finally {
+			output.close();
+		}
+		Assert.assertTrue(file.setLastModified(LAST_MODIFIED));
+	}
+
+	/**
+	 * Deletes the file that is sent.
+	 */
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Tests that a request without conditions or a range gets the whole file
+	 * with its length and validators.
+	 */
+	@Test
+	public void testCompleteResponse() throws IOException {
+		Response response = send(new HashMap<String, String>(), false);
+
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+		Assert.assertEquals(ETAG, response.headers.get("ETag"));
+		Assert.assertEquals(
+			Long.toString(CONTENT.length),
+			response.headers.get("Content-Length"));
+		Assert.assertEquals(
+			LAST_MODIFIED,
+			response.dateHeaders.get("Last-Modified").longValue());
+		Assert.assertEquals("bytes", response.headers.get("Accept-Ranges"));
+		Assert.assertEquals(
+			"private, no-cache",
+			response.headers.get("Cache-Control"));
+		Assert.assertArrayEquals(CONTENT, response.body.toByteArray());
+	}
+
+	/**
+	 * Tests that a matching "If-None-Match", including a weak or listed tag
+	 * and "*", gets a 304 without a body and that another tag does not.
+	 */
+	@Test
+	public void testIfNoneMatch() throws IOException {
+		for(String ifNoneMatch : Arrays.asList(
+				ETAG,
+				"W/" + ETAG,
+				"\"other\", " + ETAG,
+				"*")) {
+
+			Response response =
+				send(headers("If-None-Match", ifNoneMatch), false);
+
+			Assert.assertEquals(
+				ifNoneMatch,
+				HttpServletResponse.SC_NOT_MODIFIED,
+				response.status);
+			Assert.assertEquals(ETAG, response.headers.get("ETag"));
+			Assert.assertEquals(0, response.body.size());
+		}
+
+		Response response =
+			send(headers("If-None-Match", "\"other\""), false);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+		Assert.assertArrayEquals(CONTENT, response.body.toByteArray());
+	}
+
+	/**
+	 * Tests that "If-Modified-Since" gets a 304 at or after the last
+	 * modification and the file before it, and that it is ignored when
+	 * there is an "If-None-Match".
+	 */
+	@Test
+	public void testIfModifiedSince() throws IOException {
+		Assert.assertEquals(
+			HttpServletResponse.SC_NOT_MODIFIED,
+			send(
+				headers("If-Modified-Since", httpDate(LAST_MODIFIED)),
+				false).status);
+		Assert.assertEquals(
+			HttpServletResponse.SC_NOT_MODIFIED,
+			send(
+				headers(
+					"If-Modified-Since",
+					httpDate(LAST_MODIFIED + 60000)),
+				false).status);
+		Assert.assertEquals(
+			HttpServletResponse.SC_OK,
+			send(
+				headers(
+					"If-Modified-Since",
+					httpDate(LAST_MODIFIED - 60000)),
+				false).status);
+
+		Map<String, String> headers =
+			headers("If-Modified-Since", httpDate(LAST_MODIFIED));
+		headers.put("If-None-Match", "\"other\"");
+		Assert.assertEquals(
+			HttpServletResponse.SC_OK,
+			send(headers, false).status);
+	}
+
+	/**
+	 * Tests that bounded, open-ended, suffix, and overlong ranges get a 206
+	 * with the right "Content-Range" and bytes.
+	 */
+	@Test
+	public void testRanges() throws IOException {
+		assertPartial("bytes=2-5", 2, 5);
+		assertPartial("bytes=15-", 15, 19);
+		assertPartial("bytes=-3", 17, 19);
+		assertPartial("bytes=10-1000", 10, 19);
+		assertPartial("bytes=-1000", 0, 19);
+		assertPartial("bytes=0-0", 0, 0);
+	}
+
+	/**
+	 * Tests that a range that begins after the file gets a 416 with the
+	 * file's length.
+	 */
+	@Test
+	public void testUnsatisfiableRange() throws IOException {
+		for(String range : Arrays.asList("bytes=20-", "bytes=25-30", "bytes=-0")) {
+			Response response = send(headers("Range", range), false);
+
+			Assert.assertEquals(
+				range,
+				HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+				response.status);
+			Assert.assertEquals(
+				"bytes */" + CONTENT.length,
+				response.headers.get("Content-Range"));
+			Assert.assertEquals(0, response.body.size());
+		}
+	}
+
+	/**
+	 * Tests that invalid and multiple ranges are ignored and the whole file
+	 * is sent.
+	 */
+	@Test
+	public void testIgnoredRanges() throws IOException {
+		for(String range : Arrays.asList(
+				"bytes=0-1,4-5",
+				"bytes=5-2",
+				"bytes=a-b",
+				"items=0-1",
+				"bytes=5")) {
+
+			Response response = send(headers("Range", range), false);
+
+			Assert.assertEquals(range, HttpServletResponse.SC_OK, response.status);
+			Assert.assertNull(response.headers.get("Content-Range"));
+			Assert.assertArrayEquals(CONTENT, response.body.toByteArray());
+		}
+	}
+
+	/**
+	 * Tests that a range is only honored when its "If-Range" matches the
+	 * current entity tag or last modified time.
+	 */
+	@Test
+	public void testIfRange() throws IOException {
+		Map<String, String> headers = headers("Range", "bytes=2-5");
+		headers.put("If-Range", ETAG);
+		Assert.assertEquals(
+			HttpServletResponse.SC_PARTIAL_CONTENT,
+			send(headers, false).status);
+
+		headers.put("If-Range", "\"other\"");
+		Response response = send(headers, false);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+		Assert.assertArrayEquals(CONTENT, response.body.toByteArray());
+
+		headers.put("If-Range", httpDate(LAST_MODIFIED));
+		Assert.assertEquals(
+			HttpServletResponse.SC_PARTIAL_CONTENT,
+			send(headers, false).status);
+
+		headers.put("If-Range", httpDate(LAST_MODIFIED - 60000));
+		Assert.assertEquals(
+			HttpServletResponse.SC_OK,
+			send(headers, false).status);
+	}
+
+	/**
+	 * Tests that a complete response is compressed when the client accepts
+	 * it and a range is not.
+	 */
+	@Test
+	public void testCompression() throws IOException {
+		Map<String, String> headers = headers("Accept-Encoding", "gzip");
+		Response response = send(headers, true);
+
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+		Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+		Assert.assertNull(response.headers.get("Content-Length"));
+		Assert.assertArrayEquals(
+			CONTENT,
+			gunzip(response.body.toByteArray()));
+
+		// Not if the file shouldn't be compressed.
+		response = send(headers, false);
+		Assert.assertNull(response.headers.get("Content-Encoding"));
+		Assert.assertArrayEquals(CONTENT, response.body.toByteArray());
+
+		// Not if it's a range.
+		headers.put("Range", "bytes=2-5");
+		response = send(headers, true);
+		Assert.assertEquals(
+			HttpServletResponse.SC_PARTIAL_CONTENT,
+			response.status);
+		Assert.assertNull(response.headers.get("Content-Encoding"));
+		Assert.assertArrayEquals(
+			Arrays.copyOfRange(CONTENT, 2, 6),
+			response.body.toByteArray());
+	}
+
+	/**
+	 * Tests the entity tags and which content is compressed.
+	 */
+	@Test
+	public void testEtagsAndCompressibility() {
+		Assert.assertEquals(
+			"\"id\"",
+			FileResponseUtils.buildImmutableEtag("id", null));
+		Assert.assertEquals(
+			"\"id-small\"",
+			FileResponseUtils.buildImmutableEtag("id", "small"));
+		Assert.assertEquals(
+			"\"14-" + Long.toHexString(LAST_MODIFIED) + "\"",
+			FileResponseUtils.buildFileEtag(file));
+
+		Assert.assertTrue(
+			FileResponseUtils.isCompressible("text/csv", "data.csv"));
+		Assert.assertTrue(
+			FileResponseUtils.isCompressible("application/json", null));
+		Assert.assertFalse(
+			FileResponseUtils.isCompressible("image/png", "image.png"));
+		Assert.assertFalse(
+			FileResponseUtils.isCompressible(null, "archive.ZIP"));
+		Assert.assertTrue(
+			FileResponseUtils.isCompressible(null, "notes"));
+	}
+
+	/**
+	 * Asserts that a range gets a 206 with the given bytes.
+	 *
+	 * @param range The "Range" header.
+	 *
+	 * @param start The first byte that should be sent.
+	 *
+	 * @param end The last byte that should be sent.
+	 */
+	private void assertPartial(
+			final String range,
+			final int start,
+			final int end)
+			throws IOException {
+
+		Response response = send(headers("Range", range), false);
+
+		Assert.assertEquals(
+			range,
+			HttpServletResponse.SC_PARTIAL_CONTENT,
+			response.status);
+		Assert.assertEquals(
+			range,
+			"bytes " + start + "-" + end + "/" + CONTENT.length,
+			response.headers.get("Content-Range"));
+		Assert.assertEquals(
+			range,
+			Integer.toString(end - start + 1),
+			response.headers.get("Content-Length"));
+		Assert.assertArrayEquals(
+			range,
+			Arrays.copyOfRange(CONTENT, start, end + 1),
+			response.body.toByteArray());
+	}
+
+	/**
+	 * Sends the file for a request with the given headers.
+	 *
+	 * @param requestHeaders The request's headers.
+	 *
+	 * @param compress Whether or not the file may be compressed.
+	 *
+	 * @return What was written to the response.
+	 */
+	private Response send(
+			final Map<String, String> requestHeaders,
+			final boolean compress)
+			throws IOException {
+
+		Response response = new Response();
+		FileResponseUtils.sendFile(
+			request(requestHeaders),
+			response.toHttpServletResponse(),
+			file,
+			ETAG,
+			false,
+			compress);
+		return response;
+	}
+
+	/**
+	 * Returns a modifiable map with one header.
+	 *
+	 * @param name The header's name.
+	 *
+	 * @param value The header's value.
+	 *
+	 * @return The headers.
+	 */
+	private static Map<String, String> headers(
+			final String name,
+			final String value) {
+
+		Map<String, String> result = new HashMap<String, String>();
+		result.put(name, value);
+		return result;
+	}
+
+	/**
+	 * Formats a time as an HTTP date.
+	 *
+	 * @param millis The time.
+	 *
+	 * @return The HTTP date.
+	 */
+	private static String httpDate(final long millis) {
+		SimpleDateFormat format =
+			new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(millis));
+	}
+
+	/**
+	 * Decompresses gzipped data.
+	 *
+	 * @param data The gzipped data.
+	 *
+	 * @return The decompressed data.
+	 */
+	private static byte[] gunzip(final byte[] data) throws IOException {
+		InputStream input =
+			new GZIPInputStream(new ByteArrayInputStream(data));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Builds a request that only has headers. Date headers are parsed the
+	 * way a container does, throwing an IllegalArgumentException if they
+	 * are not dates.
+	 *
+	 * @param headers The request's headers.
+	 *
+	 * @return The request.
+	 */
+	private static HttpServletRequest request(
+			final Map<String, String> headers) {
+
+		return
+			(HttpServletRequest) Proxy.newProxyInstance(
+				FileResponseUtilsTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					/**
+					 * Answers the header methods.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						String name = method.getName();
+						if("getHeader".equals(name)) {
+							return headers.get(args[0]);
+						}
+						else if("getDateHeader".equals(name)) {
+							String value = headers.get(args[0]);
+							if(value == null) {
+								return -1L;
+							}
+
+							SimpleDateFormat format =
+								new SimpleDateFormat(
+									"EEE, dd MMM yyyy HH:mm:ss zzz",
+									Locale.US);
+							try {
+								return format.parse(value).getTime();
+							}
+							catch(java.text.ParseException e) {
+								throw new IllegalArgumentException(value);
+							}
+						}
+
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	/**
+	 * What was written to a response.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Response {
+		private int status = HttpServletResponse.SC_OK;
+		private final Map<String, String> headers =
+			new HashMap<String, String>();
+		private final Map<String, Long> dateHeaders =
+			new HashMap<String, Long>();
+		private final ByteArrayOutputStream body =
+			new ByteArrayOutputStream();
+
+		/**
+		 * Returns a response that records into this object.
+		 *
+		 * @return The response.
+		 */
+		private HttpServletResponse toHttpServletResponse() {
+			final ServletOutputStream output =
+				new ServletOutputStream() {
+					/**
+					 * Writes to the body.
+					 */
+					@Override
+					public void write(final int b) {
+						body.write(b);
+					}
+				};
+
+			return
+				(HttpServletResponse) Proxy.newProxyInstance(
+					FileResponseUtilsTest.class.getClassLoader(),
+					new Class<?>[] { HttpServletResponse.class },
+					new InvocationHandler() {
+						/**
+						 * Records the status, headers, and body.
+						 */
+						@Override
+						public Object invoke(
+								final Object proxy,
+								final Method method,
+								final Object[] args) {
+
+							String name = method.getName();
+							if("setStatus".equals(name)) {
+								status = (Integer) args[0];
+								return null;
+							}
+							else if("setHeader".equals(name)) {
+								headers.put((String) args[0], (String) args[1]);
+								return null;
+							}
+							else if("setDateHeader".equals(name)) {
+								dateHeaders.put((String) args[0], (Long) args[1]);
+								return null;
+							}
+							else if("getOutputStream".equals(name)) {
+								return output;
+							}
+
+							throw new UnsupportedOperationException(name);
+						}
+					});
+		}
+	}
+}
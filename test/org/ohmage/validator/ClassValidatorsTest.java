@@ -207,4 +207,30 @@ public class ClassValidatorsTest extends TestCase {
 			fail("A validation exception was thrown: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Tests the dry run value validator.
+	 */
+	@Test
+	public void testValidateDryRunValue() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertEquals(false, ClassValidators.validateDryRunValue(emptyValue));
+			}
+			
+			try {
+				ClassValidators.validateDryRunValue("Invalid value.");
+				fail("The dry run value was invalid.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			Assert.assertEquals(true, ClassValidators.validateDryRunValue("true"));
+			Assert.assertEquals(false, ClassValidators.validateDryRunValue("false"));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
 }
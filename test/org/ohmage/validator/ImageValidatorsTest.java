@@ -101,6 +101,76 @@ public class ImageValidatorsTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Tests the number of images to ZIP validator.
+	 */
+	@Test
+	public void testValidateNumToZip() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(ImageValidators.validateNumToZip(emptyValue));
+			}
+			
+			String[] invalidValues = 
+				new String[] { 
+					"Invalid value.", 
+					"-1", 
+					Integer.toString(Image.MAX_NUM_TO_ZIP + 1) 
+				};
+			for(String invalidValue : invalidValues) {
+				try {
+					ImageValidators.validateNumToZip(invalidValue);
+					fail("The number of images was invalid: " + invalidValue);
+				}
+				catch(ValidationException e) {
+					// Passed.
+				}
+			}
+			
+			Assert.assertEquals(
+				Integer.valueOf(0), 
+				ImageValidators.validateNumToZip("0"));
+			Assert.assertEquals(
+				Integer.valueOf(Image.MAX_NUM_TO_ZIP), 
+				ImageValidators.validateNumToZip(
+					Integer.toString(Image.MAX_NUM_TO_ZIP)));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Tests the continuation token validator.
+	 */
+	@Test
+	public void testValidateContinuationToken() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(
+					ImageValidators.validateContinuationToken(emptyValue));
+			}
+			
+			String[] invalidValues = new String[] { "Invalid value.", "-1" };
+			for(String invalidValue : invalidValues) {
+				try {
+					ImageValidators.validateContinuationToken(invalidValue);
+					fail("The continuation token was invalid: " + invalidValue);
+				}
+				catch(ValidationException e) {
+					// Passed.
+				}
+			}
+			
+			Assert.assertEquals(
+				Long.valueOf(12345), 
+				ImageValidators.validateContinuationToken("12345"));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Tests the image contents validator.
 	 */
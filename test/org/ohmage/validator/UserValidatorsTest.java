@@ -15,11 +15,17 @@
  ******************************************************************************/
 package org.ohmage.validator;
 
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
+import org.ohmage.domain.NewUser;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
 import org.ohmage.test.ParameterSets;
 
 /**
@@ -639,4 +645,113 @@ public class UserValidatorsTest extends TestCase {
 			fail("A validation exception was thrown: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Tests the new user list validator.
+	 */
+	@Test
+	public void testValidateNewUserList() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(UserValidators.validateNewUserList(emptyValue));
+			}
+			
+			List<JSONObject> users = 
+				UserValidators.validateNewUserList(
+					"[{\"username\":\"a\"},{\"username\":\"b\"}]");
+			Assert.assertEquals(2, users.size());
+			Assert.assertEquals("b", users.get(1).getString("username"));
+			
+			Assert.assertTrue(
+				UserValidators.validateNewUserList("[]").isEmpty());
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+		catch(JSONException e) {
+			fail("A JSON exception was thrown: " + e.getMessage());
+		}
+		
+		String[] invalidLists = 
+			{ "Invalid value.", "{\"username\":\"a\"}", "[{}, \"a\"]" };
+		for(String invalidList : invalidLists) {
+			try {
+				UserValidators.validateNewUserList(invalidList);
+				fail("An invalid list of new users '" + invalidList + "' passed validation.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+		}
+	}
+	
+	/**
+	 * Tests the new user validator.
+	 */
+	@Test
+	public void testValidateNewUser() throws JSONException {
+		String username = ParameterSets.getValidUsernames().iterator().next();
+		String password = 
+			ParameterSets.getValidPlainTextPasswords().iterator().next();
+		
+		try {
+			JSONObject user = new JSONObject();
+			user.put(InputKeys.USERNAME, username);
+			user.put(InputKeys.PASSWORD, password);
+			
+			NewUser newUser = UserValidators.validateNewUser(user);
+			Assert.assertEquals(username, newUser.getUsername());
+			Assert.assertEquals(password, newUser.getPassword());
+			Assert.assertNull(newUser.getEmailAddress());
+			Assert.assertNull(newUser.getAdmin());
+			Assert.assertNull(newUser.getPersonalInfo());
+			
+			user.put(InputKeys.EMAIL_ADDRESS, "a@a.aa");
+			user.put(InputKeys.USER_ADMIN, "true");
+			user.put(InputKeys.FIRST_NAME, "First");
+			user.put(InputKeys.LAST_NAME, "Last");
+			user.put(InputKeys.ORGANIZATION, "Organization");
+			user.put(InputKeys.PERSONAL_ID, "Personal ID");
+			
+			newUser = UserValidators.validateNewUser(user);
+			Assert.assertEquals("a@a.aa", newUser.getEmailAddress());
+			Assert.assertEquals(Boolean.TRUE, newUser.getAdmin());
+			Assert.assertEquals(
+				"First", 
+				newUser.getPersonalInfo().getFirstName());
+			Assert.assertEquals(
+				"Personal ID", 
+				newUser.getPersonalInfo().getPersonalId());
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+		
+		JSONObject noUsername = new JSONObject();
+		noUsername.put(InputKeys.PASSWORD, password);
+		
+		JSONObject noPassword = new JSONObject();
+		noPassword.put(InputKeys.USERNAME, username);
+		
+		JSONObject invalidUsername = new JSONObject();
+		invalidUsername.put(InputKeys.USERNAME, "Invalid value.");
+		invalidUsername.put(InputKeys.PASSWORD, password);
+		
+		JSONObject partialPersonalInfo = new JSONObject();
+		partialPersonalInfo.put(InputKeys.USERNAME, username);
+		partialPersonalInfo.put(InputKeys.PASSWORD, password);
+		partialPersonalInfo.put(InputKeys.FIRST_NAME, "First");
+		
+		JSONObject[] invalidUsers = 
+			{ noUsername, noPassword, invalidUsername, partialPersonalInfo };
+		for(JSONObject invalidUser : invalidUsers) {
+			try {
+				UserValidators.validateNewUser(invalidUser);
+				fail("An invalid new user '" + invalidUser + "' passed validation.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+		}
+	}
 }